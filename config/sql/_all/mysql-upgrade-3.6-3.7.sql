@@ -1,2 +1,17 @@
 ALTER TABLE QRTZ_TRIGGERS ADD COLUMN EXECUTION_GROUP VARCHAR(200) NULL;
-ALTER TABLE QRTZ_FIRED_TRIGGERS ADD COLUMN EXECUTION_GROUP VARCHAR(200) NULL;
\ No newline at end of file
+ALTER TABLE QRTZ_FIRED_TRIGGERS ADD COLUMN EXECUTION_GROUP VARCHAR(200) NULL;
+
+CREATE TABLE m_cache_invalidation (
+  id             BIGINT NOT NULL,
+  nodeIdentifier VARCHAR(255),
+  objectOid      VARCHAR(36),
+  objectType     INTEGER,
+  objectVersion  VARCHAR(255),
+  timestampValue DATETIME(6),
+  PRIMARY KEY (id)
+)
+  DEFAULT CHARACTER SET utf8
+  COLLATE utf8_bin
+  ENGINE = InnoDB;
+
+CREATE INDEX iCacheInvalidationTimestamp ON m_cache_invalidation (timestampValue);
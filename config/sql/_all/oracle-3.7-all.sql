@@ -319,6 +319,16 @@ CREATE TABLE m_audit_ref_value (
   PRIMARY KEY (id)
 ) INITRANS 30;
 
+CREATE TABLE m_cache_invalidation (
+  id             NUMBER(19, 0) NOT NULL,
+  nodeIdentifier VARCHAR2(255 CHAR),
+  objectOid      VARCHAR2(36 CHAR),
+  objectType     NUMBER(10, 0),
+  objectVersion  VARCHAR2(255 CHAR),
+  timestampValue TIMESTAMP,
+  PRIMARY KEY (id)
+) INITRANS 30;
+
 CREATE TABLE m_case (
   name_norm VARCHAR2(255 CHAR),
   name_orig VARCHAR2(255 CHAR),
@@ -863,6 +873,8 @@ CREATE INDEX iAssignmentReferenceTargetOid ON m_assignment_reference (targetOid)
 
 CREATE INDEX iTimestampValue ON m_audit_event (timestampValue) INITRANS 30;
 
+CREATE INDEX iCacheInvalidationTimestamp ON m_cache_invalidation (timestampValue) INITRANS 30;
+
 CREATE INDEX iChangedItemPath ON m_audit_item (changedItemPath) INITRANS 30;
 
 CREATE INDEX iAuditPropValRecordId
@@ -1,2 +1,14 @@
 ALTER TABLE qrtz_triggers ADD (EXECUTION_GROUP VARCHAR2(200) NULL);
-ALTER TABLE qrtz_fired_triggers ADD (EXECUTION_GROUP VARCHAR2(200) NULL);
\ No newline at end of file
+ALTER TABLE qrtz_fired_triggers ADD (EXECUTION_GROUP VARCHAR2(200) NULL);
+
+CREATE TABLE m_cache_invalidation (
+  id             NUMBER(19, 0) NOT NULL,
+  nodeIdentifier VARCHAR2(255 CHAR),
+  objectOid      VARCHAR2(36 CHAR),
+  objectType     NUMBER(10, 0),
+  objectVersion  VARCHAR2(255 CHAR),
+  timestampValue TIMESTAMP,
+  PRIMARY KEY (id)
+) INITRANS 30;
+
+CREATE INDEX iCacheInvalidationTimestamp ON m_cache_invalidation (timestampValue) INITRANS 30;
@@ -316,6 +316,16 @@ CREATE TABLE m_audit_ref_value (
   PRIMARY KEY (id)
 );
 
+CREATE TABLE m_cache_invalidation (
+  id             INT8 NOT NULL,
+  nodeIdentifier VARCHAR(255),
+  objectOid      VARCHAR(36),
+  objectType     INT4,
+  objectVersion  VARCHAR(255),
+  timestampValue TIMESTAMP,
+  PRIMARY KEY (id)
+);
+
 CREATE TABLE m_case (
   name_norm VARCHAR(255),
   name_orig VARCHAR(255),
@@ -853,6 +863,8 @@ CREATE INDEX iAssignmentReferenceTargetOid ON m_assignment_reference (targetOid)
 
 CREATE INDEX iTimestampValue ON m_audit_event (timestampValue);
 
+CREATE INDEX iCacheInvalidationTimestamp ON m_cache_invalidation (timestampValue);
+
 CREATE INDEX iChangedItemPath ON m_audit_item (changedItemPath);
 
 CREATE INDEX iAuditPropValRecordId
@@ -1,2 +1,14 @@
 ALTER TABLE qrtz_triggers ADD COLUMN EXECUTION_GROUP VARCHAR(200) NULL;
-ALTER TABLE qrtz_fired_triggers ADD COLUMN EXECUTION_GROUP VARCHAR(200) NULL;
\ No newline at end of file
+ALTER TABLE qrtz_fired_triggers ADD COLUMN EXECUTION_GROUP VARCHAR(200) NULL;
+
+CREATE TABLE m_cache_invalidation (
+  id             INT8 NOT NULL,
+  nodeIdentifier VARCHAR(255),
+  objectOid      VARCHAR(36),
+  objectType     INT4,
+  objectVersion  VARCHAR(255),
+  timestampValue TIMESTAMP,
+  PRIMARY KEY (id)
+);
+
+CREATE INDEX iCacheInvalidationTimestamp ON m_cache_invalidation (timestampValue);
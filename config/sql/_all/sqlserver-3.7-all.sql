@@ -316,6 +316,16 @@ CREATE TABLE m_audit_ref_value (
   PRIMARY KEY (id)
 );
 
+CREATE TABLE m_cache_invalidation (
+  id             BIGINT NOT NULL,
+  nodeIdentifier NVARCHAR(255) COLLATE database_default,
+  objectOid      NVARCHAR(36) COLLATE database_default,
+  objectType     INT,
+  objectVersion  NVARCHAR(255) COLLATE database_default,
+  timestampValue DATETIME2,
+  PRIMARY KEY (id)
+);
+
 CREATE TABLE m_case (
   name_norm NVARCHAR(255) COLLATE database_default,
   name_orig NVARCHAR(255) COLLATE database_default,
@@ -853,6 +863,8 @@ CREATE INDEX iAssignmentReferenceTargetOid ON m_assignment_reference (targetOid)
 
 CREATE INDEX iTimestampValue ON m_audit_event (timestampValue);
 
+CREATE INDEX iCacheInvalidationTimestamp ON m_cache_invalidation (timestampValue);
+
 CREATE INDEX iChangedItemPath ON m_audit_item (changedItemPath);
 
 CREATE INDEX iAuditPropValRecordId
@@ -1,2 +1,14 @@
 ALTER TABLE QRTZ_TRIGGERS ADD EXECUTION_GROUP VARCHAR (200) NULL;
-ALTER TABLE QRTZ_FIRED_TRIGGERS ADD EXECUTION_GROUP VARCHAR (200) NULL;
\ No newline at end of file
+ALTER TABLE QRTZ_FIRED_TRIGGERS ADD EXECUTION_GROUP VARCHAR (200) NULL;
+
+CREATE TABLE m_cache_invalidation (
+  id             BIGINT NOT NULL,
+  nodeIdentifier NVARCHAR(255) COLLATE database_default,
+  objectOid      NVARCHAR(36) COLLATE database_default,
+  objectType     INT,
+  objectVersion  NVARCHAR(255) COLLATE database_default,
+  timestampValue DATETIME2,
+  PRIMARY KEY (id)
+);
+
+CREATE INDEX iCacheInvalidationTimestamp ON m_cache_invalidation (timestampValue);
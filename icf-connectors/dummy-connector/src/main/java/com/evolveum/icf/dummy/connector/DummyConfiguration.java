@@ -66,6 +66,7 @@ public class DummyConfiguration extends AbstractConfiguration {
 	private boolean supportReturnDefaultAttributes = false;				// used e.g. for livesync vs. auxiliary object classes test
 	private boolean requireNameHint = false;
 	private boolean monsterized = false;
+	private int operationLatency = 0;
 
 	/**
      * Defines name of the dummy resource instance. There may be several dummy resource running in
@@ -380,6 +381,18 @@ public class DummyConfiguration extends AbstractConfiguration {
 		this.monsterized = monsterized;
 	}
 
+	/**
+	 * Fixed latency of each resource operation, in milliseconds. Simulates a remote resource.
+	 */
+	@ConfigurationProperty
+	public int getOperationLatency() {
+		return operationLatency;
+	}
+
+	public void setOperationLatency(int operationLatency) {
+		this.operationLatency = operationLatency;
+	}
+
 	/**
      * {@inheritDoc}
      */
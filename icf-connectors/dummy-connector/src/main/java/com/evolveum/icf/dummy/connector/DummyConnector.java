@@ -34,6 +34,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -103,6 +104,18 @@ public class DummyConnector implements PoolableConnector, AuthenticateOp, Resolv
     // Marker used in logging tests
     public static final String LOG_MARKER = "_M_A_R_K_E_R_";
 
+    // Batch of operations executed as a script on connector. Must be kept in sync with midPoint ConnId connector instance.
+    public static final String BATCH_SCRIPT_LANGUAGE = "midpoint-batch";
+    public static final String BATCH_ARGUMENT_OPERATIONS = "operations";
+    public static final String BATCH_OPERATION = "operation";
+    public static final String BATCH_OPERATION_CREATE = "create";
+    public static final String BATCH_OPERATION_DELETE = "delete";
+    public static final String BATCH_OBJECT_CLASS = "objectClass";
+    public static final String BATCH_ATTRIBUTES = "attributes";
+    public static final String BATCH_UID = "uid";
+    public static final String BATCH_EXCEPTION = "exception";
+    public static final String BATCH_MESSAGE = "message";
+
     private static final String OBJECTCLASS_ACCOUNT_NAME = "account";
 	private static final String OBJECTCLASS_GROUP_NAME = "group";
 	private static final String OBJECTCLASS_PRIVILEGE_NAME = "privilege";
@@ -167,6 +180,7 @@ public class DummyConnector implements PoolableConnector, AuthenticateOp, Resolv
         	uselessGuardedString.access(chars -> resource.setUselessGuardedString(new String(chars)));
         }
         resource.setMonsterization(this.configuration.isMonsterized());
+        resource.setOperationLatency(this.configuration.getOperationLatency());
 
         if (connected) {
 			throw new IllegalStateException("Double connect in "+this);
@@ -1148,10 +1162,51 @@ public class DummyConnector implements PoolableConnector, AuthenticateOp, Resolv
      * {@inheritDoc}
      */
     public Object runScriptOnConnector(ScriptContext request, OperationOptions options) {
-
+        if (BATCH_SCRIPT_LANGUAGE.equals(request.getScriptLanguage()) && resource.isBatchSupported()) {
+            return executeBatch((List<Map<String, Object>>) request.getScriptArguments().get(BATCH_ARGUMENT_OPERATIONS), options);
+        }
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Executes creates and deletes in one round-trip to the resource. Failure of one operation does not
+     * affect the others; it is reported in the result of that operation.
+     */
+    private List<Map<String, Object>> executeBatch(List<Map<String, Object>> operations, OperationOptions options) {
+        log.info("executeBatch::begin {0} operations", operations.size());
+        try {
+            List<Map<String, Object>> results = resource.executeBatch(() -> {
+                List<Map<String, Object>> batchResults = new ArrayList<>(operations.size());
+                for (Map<String, Object> operation : operations) {
+                    Map<String, Object> result = new HashMap<>();
+                    ObjectClass objectClass = new ObjectClass((String) operation.get(BATCH_OBJECT_CLASS));
+                    try {
+                        if (BATCH_OPERATION_CREATE.equals(operation.get(BATCH_OPERATION))) {
+                            Uid uid = create(objectClass, (Set<Attribute>) operation.get(BATCH_ATTRIBUTES), options);
+                            result.put(BATCH_UID, uid.getUidValue());
+                        } else if (BATCH_OPERATION_DELETE.equals(operation.get(BATCH_OPERATION))) {
+                            delete(objectClass, new Uid((String) operation.get(BATCH_UID)), options);
+                        } else {
+                            throw new IllegalArgumentException("Unsupported batch operation " + operation.get(BATCH_OPERATION));
+                        }
+                    } catch (RuntimeException e) {
+                        log.info("executeBatch::operation exception "+e);
+                        result.put(BATCH_EXCEPTION, e.getClass().getName());
+                        result.put(BATCH_MESSAGE, e.getMessage());
+                    }
+                    batchResults.add(result);
+                }
+                return batchResults;
+            });
+            log.info("executeBatch::end");
+            return results;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ConnectorException(e.getMessage(), e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
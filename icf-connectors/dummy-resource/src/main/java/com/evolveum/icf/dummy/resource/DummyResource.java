@@ -27,6 +27,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import com.evolveum.midpoint.util.exception.SystemException;
 
@@ -103,6 +106,27 @@ public class DummyResource implements DebugDumpable {
 	private Collection<String> forbiddenNames;
 	private int operationDelayRange = 0;
 
+	/**
+	 * Fixed latency of each operation (in milliseconds), simulating a round-trip to a remote resource.
+	 * All operations executed in one {@link #executeBatch(Callable)} call share a single round-trip.
+	 */
+	private int operationLatency = 0;
+	private int batchCount = 0;
+	private final ThreadLocal<Boolean> inBatch = new ThreadLocal<>();
+
+	/**
+	 * If false, the connector rejects batches, as a connector that does not support them would do.
+	 */
+	private boolean batchSupported = true;
+
+	/**
+	 * If set, each add operation counts the latch down and waits until it reaches zero. The same latch can be set
+	 * on several resources to check that operations on them are executed concurrently: if they are executed
+	 * one after another, the first one times out and fails.
+	 */
+	private volatile CountDownLatch addRendezvous;
+	private static final long ADD_RENDEZVOUS_TIMEOUT = 10000;		// milliseconds
+
 	/**
 	 * There is a monster that loves to eat cookies.
 	 * If value "monster" is added to an attribute that
@@ -177,6 +201,10 @@ public class DummyResource implements DebugDumpable {
 		latestSyncToken = 0;
 		writeOperationCount = 0;
 		operationDelayRange = 0;
+		operationLatency = 0;
+		batchCount = 0;
+		batchSupported = true;
+		addRendezvous = null;
 		resetBreakMode();
 	}
 
@@ -366,6 +394,34 @@ public class DummyResource implements DebugDumpable {
 		this.operationDelayRange = operationDelayRange;
 	}
 
+	public int getOperationLatency() {
+		return operationLatency;
+	}
+
+	public void setOperationLatency(int operationLatency) {
+		this.operationLatency = operationLatency;
+	}
+
+	public CountDownLatch getAddRendezvous() {
+		return addRendezvous;
+	}
+
+	public void setAddRendezvous(CountDownLatch addRendezvous) {
+		this.addRendezvous = addRendezvous;
+	}
+
+	public int getBatchCount() {
+		return batchCount;
+	}
+
+	public boolean isBatchSupported() {
+		return batchSupported;
+	}
+
+	public void setBatchSupported(boolean batchSupported) {
+		this.batchSupported = batchSupported;
+	}
+
 	public boolean isMonsterization() {
 		return monsterization;
 	}
@@ -566,6 +622,7 @@ public class DummyResource implements DebugDumpable {
 		recordWriteOperation("add");
 		breakIt(addBreakMode, "add");
 		delayOperation();
+		awaitAddRendezvous();
 
 		Class<? extends DummyObject> type = newObject.getClass();
 		String normalName = normalize(newObject.getName());
@@ -912,6 +969,9 @@ public class DummyResource implements DebugDumpable {
 	}
 
 	void delayOperation() {
+		if (operationLatency > 0 && inBatch.get() == null) {
+			simulateLatency();
+		}
 		if (operationDelayRange == 0) {
 			return;
 		}
@@ -925,6 +985,53 @@ public class DummyResource implements DebugDumpable {
 		}
 	}
 
+	private void awaitAddRendezvous() throws ConnectException {
+		CountDownLatch latch = addRendezvous;
+		if (latch == null) {
+			return;
+		}
+		latch.countDown();
+		try {
+			if (!latch.await(ADD_RENDEZVOUS_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				throw new ConnectException("Add operation on dummy " + instanceName + " timed out waiting for "
+						+ latch.getCount() + " concurrent add operation(s)");
+			}
+		} catch (InterruptedException e) {
+			throw new ConnectException("Add operation on dummy " + instanceName + " interrupted");
+		}
+	}
+
+	private void simulateLatency() {
+		try {
+			Thread.sleep(operationLatency);
+		} catch (InterruptedException e) {
+			LOGGER.debug("Operation latency on dummy {} interrupted: {}", instanceName, e.getMessage());
+		}
+	}
+
+	/**
+	 * Executes a batch of operations. The operation latency is applied only once for the whole batch.
+	 */
+	public <T> T executeBatch(Callable<T> batch) throws Exception {
+		if (inBatch.get() != null) {
+			return batch.call();
+		}
+		int count;
+		synchronized (this) {
+			count = ++batchCount;
+		}
+		traceOperation("batch", count);
+		if (operationLatency > 0) {
+			simulateLatency();
+		}
+		inBatch.set(true);
+		try {
+			return batch.call();
+		} finally {
+			inBatch.remove();
+		}
+	}
+
 	private synchronized void checkBlockOperations() {
 		if (blockOperations) {
 			try {
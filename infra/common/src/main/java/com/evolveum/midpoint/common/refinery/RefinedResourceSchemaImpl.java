@@ -306,7 +306,9 @@ public class RefinedResourceSchemaImpl implements RefinedResourceSchema {
 						"in "+resource+", but got "+userDataEntry.getClass());
 			}
 		} else {
-			RefinedResourceSchema refinedSchema = parse(resource, prismContext);
+			ResourceSchemaCache cache = ResourceSchemaCache.getInstance();
+			RefinedResourceSchema refinedSchema = cache != null ?
+					cache.getRefinedSchema(resource, prismContext) : parse(resource, prismContext);
 			resource.setUserData(USER_DATA_KEY_REFINED_SCHEMA, refinedSchema);
 			return refinedSchema;
 		}
@@ -344,17 +346,26 @@ public class RefinedResourceSchemaImpl implements RefinedResourceSchema {
 						USER_DATA_KEY_PARSED_RESOURCE_SCHEMA+ "in "+resource+", but got "+userDataEntry.getClass());
 			}
 		} else {
-			InternalMonitor.recordCount(InternalCounters.RESOURCE_SCHEMA_PARSE_COUNT);
-			ResourceSchemaImpl parsedSchema = ResourceSchemaImpl.parse(resourceXsdSchema, "resource schema of "+resource, prismContext);
-			if (parsedSchema == null) {
-				throw new IllegalStateException("Parsed schema is null: most likely an internall error");
-			}
+			ResourceSchemaCache cache = ResourceSchemaCache.getInstance();
+			ResourceSchema parsedSchema = cache != null ?
+					cache.getResourceSchema(resource, resourceXsdSchema, prismContext) :
+					parseResourceSchema(resource, resourceXsdSchema, prismContext);
 			resource.setUserData(USER_DATA_KEY_PARSED_RESOURCE_SCHEMA, parsedSchema);
-			parsedSchema.setNamespace(ResourceTypeUtil.getResourceNamespace(resource));
 			return parsedSchema;
 		}
 	}
 
+	static ResourceSchema parseResourceSchema(PrismObject<ResourceType> resource, Element resourceXsdSchema,
+			PrismContext prismContext) throws SchemaException {
+		InternalMonitor.recordCount(InternalCounters.RESOURCE_SCHEMA_PARSE_COUNT);
+		ResourceSchemaImpl parsedSchema = ResourceSchemaImpl.parse(resourceXsdSchema, "resource schema of "+resource, prismContext);
+		if (parsedSchema == null) {
+			throw new IllegalStateException("Parsed schema is null: most likely an internall error");
+		}
+		parsedSchema.setNamespace(ResourceTypeUtil.getResourceNamespace(resource));
+		return parsedSchema;
+	}
+
 	public static void setParsedResourceSchemaConditional(ResourceType resourceType, ResourceSchema parsedSchema) {
 		if (hasParsedSchema(resourceType)) {
 			return;
@@ -373,6 +384,11 @@ public class RefinedResourceSchemaImpl implements RefinedResourceSchema {
 	}
 
 	public static RefinedResourceSchema parse(ResourceType resourceType, PrismContext prismContext) throws SchemaException {
+		return parse(resourceType, resourceType.getSchemaHandling(), prismContext);
+	}
+
+	static RefinedResourceSchema parse(ResourceType resourceType, SchemaHandlingType schemaHandling, PrismContext prismContext)
+			throws SchemaException {
 
 		ResourceSchema originalResourceSchema = getResourceSchema(resourceType, prismContext);
 		if (originalResourceSchema == null) {
@@ -383,7 +399,6 @@ public class RefinedResourceSchemaImpl implements RefinedResourceSchema {
 
 		RefinedResourceSchemaImpl rSchema = new RefinedResourceSchemaImpl(originalResourceSchema);
 
-		SchemaHandlingType schemaHandling = resourceType.getSchemaHandling();
 		if (schemaHandling != null) {
 			parseObjectTypeDefsFromSchemaHandling(rSchema, resourceType, schemaHandling,
 					schemaHandling.getObjectType(), null, prismContext, contextDescription);
@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.common.refinery;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.schema.internals.InternalMonitor;
+import com.evolveum.midpoint.schema.processor.ResourceSchema;
+import com.evolveum.midpoint.schema.util.ResourceTypeUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SchemaHandlingType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Node-wide cache of parsed and refined resource schemas.
+ *
+ * Parsed and refined schemas are normally stored as user data of a particular resource object (and its clones).
+ * Every fresh repository read of a resource therefore had to parse the schema again. This cache keeps the schemas
+ * keyed by resource OID, version and the digest of the data they are derived from (XSD schema, schema handling,
+ * namespace), so any instance of the same resource content gets the same schema objects. Including the digest
+ * makes the cache safe also for in-memory modified resources (e.g. in the GUI) that have the same version.
+ *
+ * The schemas are shared among resource instances and threads, so they must not be modified. (This is nothing new,
+ * as they were shared among clones and threads also before.)
+ *
+ * The cache is active only when instantiated by Spring (so that its lifecycle is bound to the application context);
+ * otherwise schemas are parsed and stored in user data only. Entries of a resource are removed when a change
+ * of the resource is committed; see ResourceCache in provisioning.
+ *
+ * @author agent
+ */
+@Component
+public class ResourceSchemaCache {
+
+	private static final Trace LOGGER = TraceManager.getTrace(ResourceSchemaCache.class);
+
+	public static final int DEFAULT_MAX_ENTRIES = 100;
+
+	private static volatile ResourceSchemaCache instance;
+
+	private final int maxEntries;
+	private final Map<Key, ResourceSchema> parsedSchemas;
+	private final Map<Key, RefinedResourceSchema> refinedSchemas;
+
+	private long evictions;
+	private long parseCount;
+	private long parseTime;
+	private long maxParseTime;
+
+	/**
+	 * Content-based key. Digests are computed from the XSD schema and (for refined schema) schema handling.
+	 */
+	private static class Key {
+		@NotNull private final String oid;
+		@NotNull private final String version;
+		@NotNull private final String namespace;
+		@NotNull private final byte[] schemaDigest;
+		@Nullable private final byte[] schemaHandlingDigest;
+
+		private Key(@NotNull String oid, @NotNull String version, @NotNull String namespace, @NotNull byte[] schemaDigest,
+				@Nullable byte[] schemaHandlingDigest) {
+			this.oid = oid;
+			this.version = version;
+			this.namespace = namespace;
+			this.schemaDigest = schemaDigest;
+			this.schemaHandlingDigest = schemaHandlingDigest;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			Key key = (Key) o;
+			return oid.equals(key.oid) && version.equals(key.version) && namespace.equals(key.namespace)
+					&& Arrays.equals(schemaDigest, key.schemaDigest)
+					&& Arrays.equals(schemaHandlingDigest, key.schemaHandlingDigest);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(oid, version, Arrays.hashCode(schemaDigest));
+		}
+	}
+
+	public ResourceSchemaCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	public ResourceSchemaCache(int maxEntries) {
+		this.maxEntries = maxEntries;
+		this.parsedSchemas = createLruMap();
+		this.refinedSchemas = createLruMap();
+	}
+
+	private <V> Map<Key, V> createLruMap() {
+		return new LinkedHashMap<Key, V>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+				if (size() > maxEntries) {
+					evictions++;
+					return true;
+				} else {
+					return false;
+				}
+			}
+		};
+	}
+
+	@PostConstruct
+	public void activate() {
+		instance = this;
+	}
+
+	@PreDestroy
+	public void deactivate() {
+		if (instance == this) {
+			instance = null;
+		}
+	}
+
+	/**
+	 * Returns the active cache, or null if there is none.
+	 */
+	@Nullable
+	public static ResourceSchemaCache getInstance() {
+		return instance;
+	}
+
+	ResourceSchema getResourceSchema(PrismObject<ResourceType> resource, Element resourceXsdSchema, PrismContext prismContext)
+			throws SchemaException {
+		String oid = resource.getOid();
+		String version = resource.getVersion();
+		if (oid == null || version == null) {
+			return parseResourceSchema(resource, resourceXsdSchema, prismContext);
+		}
+		Key key = new Key(oid, version, ResourceTypeUtil.getResourceNamespace(resource), digest(resourceXsdSchema), null);
+		InternalMonitor.getResourceSchemaCacheStats().recordRequest();
+		synchronized (this) {
+			ResourceSchema cached = parsedSchemas.get(key);
+			if (cached != null) {
+				InternalMonitor.getResourceSchemaCacheStats().recordHit();
+				return cached;
+			}
+		}
+		InternalMonitor.getResourceSchemaCacheStats().recordMiss();
+		ResourceSchema parsed = parseResourceSchema(resource, resourceXsdSchema, prismContext);
+		synchronized (this) {
+			// if another thread was faster, let us use its schema, to keep the sharing
+			ResourceSchema existing = parsedSchemas.putIfAbsent(key, parsed);
+			return existing != null ? existing : parsed;
+		}
+	}
+
+	private ResourceSchema parseResourceSchema(PrismObject<ResourceType> resource, Element resourceXsdSchema,
+			PrismContext prismContext) throws SchemaException {
+		long start = System.currentTimeMillis();
+		ResourceSchema parsed = RefinedResourceSchemaImpl.parseResourceSchema(resource, resourceXsdSchema, prismContext);
+		long duration = System.currentTimeMillis() - start;
+		synchronized (this) {
+			parseCount++;
+			parseTime += duration;
+			maxParseTime = Math.max(maxParseTime, duration);
+		}
+		LOGGER.trace("Parsed schema of {} in {} ms", resource, duration);
+		return parsed;
+	}
+
+	RefinedResourceSchema getRefinedSchema(PrismObject<ResourceType> resource, PrismContext prismContext) throws SchemaException {
+		String oid = resource.getOid();
+		String version = resource.getVersion();
+		Element resourceXsdSchema = ResourceTypeUtil.getResourceXsdSchema(resource);
+		if (oid == null || version == null || resourceXsdSchema == null) {
+			return RefinedResourceSchemaImpl.parse(resource, prismContext);
+		}
+		ResourceType resourceType = resource.asObjectable();
+		SchemaHandlingType schemaHandling = resourceType.getSchemaHandling();
+		Key key = new Key(oid, version, ResourceTypeUtil.getResourceNamespace(resource), digest(resourceXsdSchema),
+				digest(schemaHandling, prismContext));
+		synchronized (this) {
+			RefinedResourceSchema cached = refinedSchemas.get(key);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		// Schema handling is cloned, because refined definitions keep pointers into it and the resource object
+		// can be modified in memory (e.g. in GUI) after the schema is cached.
+		RefinedResourceSchema refined = RefinedResourceSchemaImpl.parse(resourceType,
+				schemaHandling != null ? schemaHandling.clone() : null, prismContext);
+		if (refined == null) {
+			return null;
+		}
+		synchronized (this) {
+			RefinedResourceSchema existing = refinedSchemas.putIfAbsent(key, refined);
+			return existing != null ? existing : refined;
+		}
+	}
+
+	/**
+	 * Removes entries for given resource, except for those of the given version (if any).
+	 */
+	public synchronized void invalidate(@NotNull String oid, @Nullable String version) {
+		invalidate(parsedSchemas, oid, version);
+		invalidate(refinedSchemas, oid, version);
+	}
+
+	private void invalidate(Map<Key, ?> map, String oid, String version) {
+		Iterator<Key> iterator = map.keySet().iterator();
+		while (iterator.hasNext()) {
+			Key key = iterator.next();
+			if (key.oid.equals(oid) && !key.version.equals(version)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		parsedSchemas.clear();
+		refinedSchemas.clear();
+	}
+
+	public synchronized int getParsedSchemasCount() {
+		return parsedSchemas.size();
+	}
+
+	public synchronized int getRefinedSchemasCount() {
+		return refinedSchemas.size();
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getParseCount() {
+		return parseCount;
+	}
+
+	/**
+	 * Total time spent parsing XSD schemas (in milliseconds).
+	 */
+	public synchronized long getParseTime() {
+		return parseTime;
+	}
+
+	public synchronized long getMaxParseTime() {
+		return maxParseTime;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ResourceSchemaCache(parsed: " + parsedSchemas.size() + ", refined: " + refinedSchemas.size()
+				+ ", max: " + maxEntries + ", evictions: " + evictions + ", parsed " + parseCount + " times in "
+				+ parseTime + " ms, max " + maxParseTime + " ms)";
+	}
+
+	//region Digests
+	private static byte[] digest(SchemaHandlingType schemaHandling, PrismContext prismContext) throws SchemaException {
+		if (schemaHandling == null) {
+			return new byte[0];
+		}
+		// JSON is used because XML serialization generates random namespace prefixes for QName values
+		MessageDigest digest = createDigest();
+		update(digest, prismContext.jsonSerializer().serializeRealValue(schemaHandling, ResourceType.F_SCHEMA_HANDLING));
+		return digest.digest();
+	}
+
+	/**
+	 * Digest of the DOM tree (names, attributes and texts). Much cheaper than serialization or parsing.
+	 */
+	private static byte[] digest(Element element) {
+		MessageDigest digest = createDigest();
+		update(digest, element);
+		return digest.digest();
+	}
+
+	private static void update(MessageDigest digest, Node node) {
+		switch (node.getNodeType()) {
+			case Node.ELEMENT_NODE:
+				update(digest, "E");
+				update(digest, node.getNamespaceURI());
+				update(digest, node.getLocalName() != null ? node.getLocalName() : node.getNodeName());
+				NamedNodeMap attributes = node.getAttributes();
+				List<Attr> sortedAttributes = new ArrayList<>(attributes.getLength());
+				for (int i = 0; i < attributes.getLength(); i++) {
+					sortedAttributes.add((Attr) attributes.item(i));
+				}
+				sortedAttributes.sort(Comparator.comparing(Attr::getName));
+				for (Attr attribute : sortedAttributes) {
+					update(digest, "A");
+					update(digest, attribute.getName());
+					update(digest, attribute.getValue());
+				}
+				NodeList children = node.getChildNodes();
+				for (int i = 0; i < children.getLength(); i++) {
+					update(digest, children.item(i));
+				}
+				update(digest, "/");
+				break;
+			case Node.TEXT_NODE:
+			case Node.CDATA_SECTION_NODE:
+				update(digest, "T");
+				update(digest, node.getNodeValue());
+				break;
+			default:
+				// comments, processing instructions etc. do not influence the schema
+		}
+	}
+
+	private static void update(MessageDigest digest, String value) {
+		if (value == null) {
+			digest.update((byte) 0);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			digest.update((byte) 1);
+			digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) ':');
+			digest.update(bytes);
+		}
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new SystemException("SHA-256 is not available: " + e.getMessage(), e);
+		}
+	}
+	//endregion
+}
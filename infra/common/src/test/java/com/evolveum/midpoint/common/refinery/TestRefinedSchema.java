@@ -18,6 +18,9 @@ package com.evolveum.midpoint.common.refinery;
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
 import static org.testng.AssertJUnit.assertTrue;
 import static com.evolveum.midpoint.prism.util.PrismTestUtil.*;
 
@@ -685,4 +688,51 @@ public class TestRefinedSchema {
 
     }
 
+	@Test
+	public void test200ResourceSchemaCache() throws Exception {
+		final String TEST_NAME = "test200ResourceSchemaCache";
+		TestUtil.displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		PrismContext prismContext = createInitializedPrismContext();
+		ResourceSchemaCache cache = new ResourceSchemaCache();
+		cache.activate();
+		try {
+			PrismObject<ResourceType> resource1 = parseResourceComplex(prismContext, "1");
+			PrismObject<ResourceType> resource2 = parseResourceComplex(prismContext, "1");
+
+			// WHEN
+			TestUtil.displayWhen(TEST_NAME);
+			RefinedResourceSchema rSchema1 = RefinedResourceSchemaImpl.getRefinedSchema(resource1, prismContext);
+			RefinedResourceSchema rSchema2 = RefinedResourceSchemaImpl.getRefinedSchema(resource2, prismContext);
+
+			// THEN
+			TestUtil.displayThen(TEST_NAME);
+			System.out.println(cache);
+			assertSame("Refined schema is not shared", rSchema1, rSchema2);
+			assertEquals("Wrong # of schema parsings", 1, cache.getParseCount());
+
+			// in-memory modification of schema handling (with the same version) must not get the cached refined schema
+			PrismObject<ResourceType> resource3 = parseResourceComplex(prismContext, "1");
+			resource3.asObjectable().getSchemaHandling().getObjectType().get(0).setDisplayName("Changed");
+			RefinedResourceSchema rSchema3 = RefinedResourceSchemaImpl.getRefinedSchema(resource3, prismContext);
+			assertNotSame("Refined schema of modified resource is shared", rSchema1, rSchema3);
+			assertEquals("Wrong # of schema parsings after schema handling change", 1, cache.getParseCount());
+			assertEquals("Wrong # of refined schemas", 2, cache.getRefinedSchemasCount());
+
+			cache.invalidate(resource1.getOid(), "2");
+			assertEquals("Parsed schemas not invalidated", 0, cache.getParsedSchemasCount());
+			assertEquals("Refined schemas not invalidated", 0, cache.getRefinedSchemasCount());
+		} finally {
+			cache.deactivate();
+		}
+		assertNull("Cache is still active", ResourceSchemaCache.getInstance());
+	}
+
+	private PrismObject<ResourceType> parseResourceComplex(PrismContext prismContext, String version) throws SchemaException, IOException {
+		PrismObject<ResourceType> resource = prismContext.parseObject(RESOURCE_COMPLEX_FILE);
+		resource.setVersion(version);
+		return resource;
+	}
+
 }
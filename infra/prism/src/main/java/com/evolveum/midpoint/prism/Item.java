@@ -54,9 +54,16 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     protected QName elementName;
     protected PrismValue parent;
     protected D definition;
-    @NotNull protected final List<V> values = new ArrayList<>();
+    @NotNull protected final List<V> values = new ModCountingList<>();
     private transient Map<String,Object> userData = new HashMap<>();;
 
+	/**
+	 * Index of values, used for equality-based lookups in large multi-valued items (see {@link #getValueIndexKey}).
+	 * Built lazily; for items having less than VALUE_INDEX_THRESHOLD values plain linear search is used.
+	 */
+	private transient ItemValueIndex<V> valueIndex;
+	private static final int VALUE_INDEX_THRESHOLD = 50;
+
 	protected boolean immutable;
 	protected boolean incomplete;
 
@@ -138,6 +145,9 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     public void setElementName(QName elementName) {
 		checkMutability();
         this.elementName = elementName;
+		if (parent instanceof PrismContainerValue) {
+			((PrismContainerValue<?>) parent).invalidateItemIndex();
+		}
     }
 
     /**
@@ -388,7 +398,7 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     }
 
     public boolean contains(V value, boolean ignoreMetadata) {
-    	for (V myValue: getValues()) {
+    	for (V myValue: getCandidateValues(value)) {
     		if (myValue.equals(value, ignoreMetadata)) {
     			return true;
     		}
@@ -397,7 +407,7 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     }
 
     public boolean containsRealValue(V value) {
-    	for (V myValue: getValues()) {
+    	for (V myValue: getCandidateValues(value)) {
     		if (myValue.equalsRealValue(value)) {
     			return true;
     		}
@@ -444,36 +454,108 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
 		    }
     		newValue.applyDefinition(definition, false);
     	}
-    	return values.add(newValue);
+		ItemValueIndex<V> index = getValueIndex();
+		values.add(newValue);
+		if (index != null) {
+			index.add(newValue, getValueIndexKey(newValue));
+			index.setModCount(getValuesModCount());
+		}
+		return true;
     }
 
     public boolean removeAll(Collection<V> newValues) {
 		checkMutability();					// TODO consider if there is real change
-    	boolean changed = false;
-    	for (V val: newValues) {
-    		if (remove(val)) {
-    			changed = true;
-    		}
-    	}
-    	return changed;
+		if (getValueIndex() == null) {
+			boolean changed = false;
+			for (V val : newValues) {
+				if (remove(val)) {
+					changed = true;
+				}
+			}
+			return changed;
+		}
+		// for large items we first collect all values to be removed, and then remove them in one pass
+		Set<V> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (V val : newValues) {
+			collectValuesToRemove(val, toRemove);
+		}
+		return !toRemove.isEmpty() && values.removeIf(toRemove::contains);
     }
 
     public boolean remove(V newValue) {
 		checkMutability();					// TODO consider if there is real change
-    	boolean changed = false;
-    	Iterator<V> iterator = values.iterator();
-    	while (iterator.hasNext()) {
-    		V val = iterator.next();
+		Set<V> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+		collectValuesToRemove(newValue, toRemove);
+		return !toRemove.isEmpty() && values.removeIf(toRemove::contains);
+    }
+
+	private void collectValuesToRemove(V valueToRemove, Set<V> toRemove) {
+		for (V val : getCandidateValues(valueToRemove)) {
 			// the same algorithm as when deleting the item value from delete delta
 			// TODO either make equalsRealValue return false if both PCVs have IDs and these IDs are different
 			// TODO or include a special test condition here; see MID-3828
-			if (val.representsSameValue(newValue, false) || val.equalsRealValue(newValue)) {
-    			iterator.remove();
-    			changed = true;
-    		}
-    	}
-    	return changed;
-    }
+			if (val.representsSameValue(valueToRemove, false) || val.equalsRealValue(valueToRemove)) {
+				toRemove.add(val);
+			}
+		}
+	}
+
+	/**
+	 * Returns a key under which the value is indexed, or null if the value cannot be indexed.
+	 * Values that are equal (in the sense of equalsRealValue or representsSameValue) must have equal keys.
+	 * The key must not change unless the value is explicitly modified (see {@link PrismValue#valueChanged()}).
+	 *
+	 * By default, no values are indexed.
+	 */
+	protected Object getValueIndexKey(V value) {
+		return null;
+	}
+
+	protected boolean isValueIndexSupported() {
+		return false;
+	}
+
+	void invalidateValueIndex() {
+		valueIndex = null;
+	}
+
+	private int getValuesModCount() {
+		return ((ModCountingList<V>) values).getModCount();
+	}
+
+	private ItemValueIndex<V> getValueIndex() {
+		if (values.size() < VALUE_INDEX_THRESHOLD || !isValueIndexSupported()
+				|| !(values instanceof ModCountingList)) {		// e.g. for items deserialized from older versions
+			valueIndex = null;
+			return null;
+		}
+		int modCount = getValuesModCount();
+		if (valueIndex == null || valueIndex.getModCount() != modCount) {
+			valueIndex = new ItemValueIndex<>(values, this::getValueIndexKey, modCount);
+		}
+		return valueIndex;
+	}
+
+	/**
+	 * Returns values that might be equal to the given one. For small items, or if the value cannot be indexed,
+	 * these are simply all the values.
+	 */
+	private List<V> getCandidateValues(V value) {
+		return getCandidateValuesForKey(getValueIndexKey(value));
+	}
+
+	/**
+	 * Returns values that might have given index key (all the values if the index is not used).
+	 * Values having the key are returned in the same order as they are in the item.
+	 */
+	protected List<V> getCandidateValuesForKey(Object key) {
+		ItemValueIndex<V> index = getValueIndex();
+		if (index == null) {
+			return values;
+		}
+		List<V> candidates = index.getCandidates(key);
+		return candidates != null ? candidates : values;
+	}
 
     public V remove(int index) {
 		checkMutability();					// TODO consider if there is real change
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.prism;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of items in a container value, keyed by local part of their names. Used to speed up lookups
+ * in values having many items (e.g. large extensions).
+ *
+ * Local part is used because items are looked up using QNameUtil.match, i.e. unqualified names match
+ * qualified ones; the index provides only candidates that still have to be matched in the usual way.
+ * Candidates are kept in the order in which they appear in the container value.
+ *
+ * The index is a transient cache: it is discarded whenever the list of items is changed by other means than
+ * {@link #add(Item, int)}. This is detected using modification count of {@link ModCountingList}.
+ *
+ * @author agent
+ */
+class ItemNameIndex {
+
+	private final Map<String, List<Item<?,?>>> itemsByLocalName = new HashMap<>();
+	private int modCount;
+
+	ItemNameIndex(@NotNull List<Item<?,?>> items, int modCount) {
+		for (Item<?, ?> item : items) {
+			addInternal(item);
+		}
+		this.modCount = modCount;
+	}
+
+	int getModCount() {
+		return modCount;
+	}
+
+	void add(Item<?,?> item, int newModCount) {
+		addInternal(item);
+		modCount = newModCount;
+	}
+
+	private void addInternal(Item<?,?> item) {
+		if (item.getElementName() == null) {
+			return;			// such items cannot be found by name anyway
+		}
+		itemsByLocalName.computeIfAbsent(item.getElementName().getLocalPart(), k -> new ArrayList<>(1)).add(item);
+	}
+
+	@NotNull
+	List<Item<?,?>> getCandidates(@NotNull String localPart) {
+		List<Item<?, ?>> candidates = itemsByLocalName.get(localPart);
+		return candidates != null ? candidates : Collections.emptyList();
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.prism;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Hash index of values of a (large) multi-valued item, used to speed up equality-based lookups
+ * (contains, add with uniqueness check, remove).
+ *
+ * Values are indexed by a key provided by the item (e.g. real value of a property or OID of a reference).
+ * The key must be the same for any two values that are equal in the sense of equalsRealValue; the index provides
+ * only candidates that still have to be compared in the usual way. Values without a key (e.g. raw ones)
+ * are candidates for any lookup.
+ *
+ * The index is a transient cache: it is discarded whenever the list of values is changed by other means than
+ * {@link #add(PrismValue, Object)}. This is detected using modification count of {@link ModCountingList}.
+ *
+ * @author agent
+ */
+class ItemValueIndex<V extends PrismValue> {
+
+	private final Map<Object, List<V>> indexedValues = new HashMap<>();
+	private final List<V> unindexedValues = new ArrayList<>();
+	private int modCount;
+
+	ItemValueIndex(@NotNull Collection<V> values, @NotNull Function<V, Object> keyFunction, int modCount) {
+		for (V value : values) {
+			add(value, keyFunction.apply(value));
+		}
+		this.modCount = modCount;
+	}
+
+	int getModCount() {
+		return modCount;
+	}
+
+	void setModCount(int modCount) {
+		this.modCount = modCount;
+	}
+
+	void add(V value, Object key) {
+		if (key != null) {
+			indexedValues.computeIfAbsent(key, k -> new ArrayList<>(1)).add(value);
+		} else {
+			unindexedValues.add(value);
+		}
+	}
+
+	/**
+	 * Returns values that might be equal to a value with given key, or null if the key is unknown
+	 * (then all values have to be considered).
+	 */
+	List<V> getCandidates(Object key) {
+		if (key == null) {
+			return null;
+		}
+		List<V> indexed = indexedValues.get(key);
+		if (indexed == null) {
+			return unindexedValues;
+		} else if (unindexedValues.isEmpty()) {
+			return indexed;
+		} else {
+			List<V> rv = new ArrayList<>(indexed.size() + unindexedValues.size());
+			rv.addAll(indexed);
+			rv.addAll(unindexedValues);
+			return rv;
+		}
+	}
+}
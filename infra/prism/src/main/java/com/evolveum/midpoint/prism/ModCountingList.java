@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.prism;
+
+import java.util.ArrayList;
+
+/**
+ * ArrayList that exposes its modification count, so an index built upon it can be invalidated
+ * when the list changes. (Callers are free to manipulate lists obtained via getValues() or getItems() directly.)
+ *
+ * @author agent
+ */
+class ModCountingList<T> extends ArrayList<T> {
+
+	private static final long serialVersionUID = 1L;
+
+	ModCountingList() {
+	}
+
+	ModCountingList(int initialCapacity) {
+		super(initialCapacity);
+	}
+
+	int getModCount() {
+		return modCount;
+	}
+
+	@Override
+	public T set(int index, T element) {
+		modCount++;			// not a structural modification for ArrayList, but it changes the index
+		return super.set(index, element);
+	}
+}
@@ -53,6 +53,13 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
 	protected List<Item<?,?>> items = null;
     private Long id;
 
+	/**
+	 * Index of items by their names. Built lazily; for values having less than ITEM_INDEX_THRESHOLD items
+	 * plain linear search is used.
+	 */
+	private transient ItemNameIndex itemIndex;
+	private static final int ITEM_INDEX_THRESHOLD = 8;
+
 	private C containerable = null;
 
 	// Definition of this value. Usually it is the same as CTD declared in the parent container.
@@ -358,9 +365,14 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
         	item.applyDefinition((ID)determineItemDefinition(item.getElementName(), getComplexTypeDefinition()), false);
         }
         if (items == null) {
-        	items = new ArrayList<>();
+        	items = new ModCountingList<>();
         }
-        return items.add(item);
+        ItemNameIndex index = getItemIndex();
+        boolean added = items.add(item);
+        if (index != null) {
+        	index.add(item, getItemsModCount());			// to avoid rebuilding the index after each addition
+		}
+        return added;
     }
 
     /**
@@ -736,7 +748,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
             return null;
         }
         Item<IV,ID> matching = null;
-        for (Item<?,?> item : items) {
+        for (Item<?,?> item : getCandidateItems(subName)) {
             if (QNameUtil.match(subName, item.getElementName())) {
                 if (matching != null) {
                     String containerName = getParent() != null ? DebugUtil.formatElementName(getParent().getElementName()) : "";
@@ -749,6 +761,37 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
         return matching;
     }
 
+	/**
+	 * Returns items that might match given name. For values with small number of items these are simply all the items.
+	 */
+	private List<Item<?,?>> getCandidateItems(QName name) {
+		ItemNameIndex index = getItemIndex();
+		return index != null && name != null ? index.getCandidates(name.getLocalPart()) : items;
+	}
+
+	private ItemNameIndex getItemIndex() {
+		if (items == null || items.size() < ITEM_INDEX_THRESHOLD
+				|| !(items instanceof ModCountingList)) {		// e.g. for values deserialized from older versions
+			itemIndex = null;
+			return null;
+		}
+		int modCount = getItemsModCount();
+		ItemNameIndex index = itemIndex;
+		if (index == null || index.getModCount() != modCount) {
+			index = new ItemNameIndex(items, modCount);
+			itemIndex = index;
+		}
+		return index;
+	}
+
+	private int getItemsModCount() {
+		return ((ModCountingList<Item<?,?>>) items).getModCount();
+	}
+
+	void invalidateItemIndex() {
+		itemIndex = null;
+	}
+
     public <IV extends PrismValue,ID extends ItemDefinition,I extends Item<IV,ID>> I createDetachedSubItem(QName name,
 			Class<I> type, ID itemDefinition, boolean immutable) throws SchemaException {
 		I newItem = createDetachedNewItemInternal(name, type, itemDefinition);
@@ -1336,7 +1379,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
 				Item<?,?> clonedItem = item.clone();
 				clonedItem.setParent(clone);
 				if (clone.items == null) {
-					clone.items = new ArrayList<>(this.items.size());
+					clone.items = new ModCountingList<>(this.items.size());
 				}
 				clone.items.add(clonedItem);
 			}
@@ -44,6 +44,7 @@ public interface PrismContext {
 	String LANG_XML = "xml";
 	String LANG_JSON = "json";
 	String LANG_YAML = "yaml";
+	String LANG_BINARY = "binary";
 
 	/**
 	 * Initializes the prism context, e.g. loads and parses all the schemas.
@@ -189,6 +190,15 @@ public interface PrismContext {
 	@NotNull
 	PrismSerializer<RootXNode> xnodeSerializer();
 
+	/**
+	 * Creates a serializer for compact binary format. It is not human-readable; it is meant for storing
+	 * data that are to be parsed by midPoint only (e.g. in repository). Such data can be parsed using
+	 * parserFor(inputStream).language(LANG_BINARY).
+	 * @return The serializer.
+	 */
+	@NotNull
+	PrismSerializer<byte[]> binarySerializer();
+
 	@Deprecated // use serializerFor + serialize instead
 	<O extends Objectable> String serializeObjectToString(PrismObject<O> object, String language) throws SchemaException;
 
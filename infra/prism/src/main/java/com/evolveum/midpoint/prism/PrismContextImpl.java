@@ -381,6 +381,12 @@ public class PrismContextImpl implements PrismContext {
 		return new PrismSerializerImpl<>(new SerializerXNodeTarget(this), null, null, null, this);
 	}
 
+	@NotNull
+	@Override
+	public PrismSerializer<byte[]> binarySerializer() {
+		return new PrismSerializerImpl<>(new SerializerBinaryTarget(this), null, null, null, this);
+	}
+
     @Override
 	public boolean canSerialize(Object value) {
         return prismMarshaller.canSerialize(value);
@@ -19,6 +19,7 @@ package com.evolveum.midpoint.prism;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.delta.PropertyDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.util.PrismPrettyPrinter;
 import com.evolveum.midpoint.prism.xnode.ListXNode;
 import com.evolveum.midpoint.prism.xnode.PrimitiveXNode;
@@ -130,6 +131,33 @@ public class PrismProperty<T> extends Item<PrismPropertyValue<T>,PrismPropertyDe
         return (List) getValues();
     }
 
+	/**
+	 * Values are indexed by their real value, if it is of a simple immutable type (which is the usual case
+	 * for large multi-valued properties, e.g. group members). PolyStrings are indexed by their original value,
+	 * as the normalized one can be (re)computed later.
+	 */
+	@Override
+	protected Object getValueIndexKey(PrismPropertyValue<T> value) {
+		if (value == null || value.isRaw()) {
+			return null;
+		}
+		Object realValue = value.getValue();
+		if (realValue instanceof String || realValue instanceof Boolean || realValue instanceof Integer
+				|| realValue instanceof Long || realValue instanceof Short || realValue instanceof Byte
+				|| realValue instanceof QName || realValue instanceof Enum) {
+			return realValue;
+		} else if (realValue instanceof PolyString) {
+			return ((PolyString) realValue).getOrig();
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	protected boolean isValueIndexSupported() {
+		return true;
+	}
+
     @NotNull
     @Override
     public Collection<T> getRealValues() {
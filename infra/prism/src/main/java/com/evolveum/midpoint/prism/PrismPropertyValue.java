@@ -108,6 +108,7 @@ public class PrismPropertyValue<T> extends PrismValue implements DebugDumpable,
         this.value = value;
         this.rawElement = null;
         checkValue();
+        valueChanged();
     }
 
 	public T getValue() {
@@ -167,6 +168,7 @@ public class PrismPropertyValue<T> extends PrismValue implements DebugDumpable,
 
 	public void setRawElement(XNode rawElement) {
 		this.rawElement = rawElement;
+		valueChanged();
 	}
 
 	@Override
@@ -83,9 +83,22 @@ public class PrismReference extends Item<PrismReferenceValue,PrismReferenceDefin
         return getValues().iterator().next();
     }
 
+	/**
+	 * Values are indexed by OID. Values without OID (e.g. ones with embedded objects only) are not indexed.
+	 */
+	@Override
+	protected Object getValueIndexKey(PrismReferenceValue value) {
+		return value != null ? value.getOid() : null;
+	}
+
+	@Override
+	protected boolean isValueIndexSupported() {
+		return true;
+	}
+
 	private PrismReferenceValue getValue(String oid) {
 		// We need to tolerate null OIDs here. Because of JAXB.
-		for (PrismReferenceValue val: getValues()) {
+		for (PrismReferenceValue val: getCandidateValuesForKey(oid)) {
 			if (MiscUtil.equals(oid, val.getOid())) {
 				return val;
 			}
@@ -102,6 +102,7 @@ public class PrismReferenceValue extends PrismValue implements DebugDumpable, Se
 	public void setOid(String oid) {
 		checkMutability();
 		this.oid = oid;
+		valueChanged();
 	}
 
 	/**
@@ -124,6 +124,16 @@ public abstract class PrismValue implements IPrismValue {
 		this.parent = parent;
 	}
 
+	/**
+	 * To be called when the value is changed in a way that can affect looking it up in the parent item
+	 * (e.g. new real value or OID is set).
+	 */
+	protected void valueChanged() {
+		if (parent instanceof Item) {
+			((Item<?, ?>) parent).invalidateValueIndex();
+		}
+	}
+
 	@NotNull
 	@Override
 	public ItemPath getPath() {
@@ -17,6 +17,7 @@
 package com.evolveum.midpoint.prism.lex;
 
 import com.evolveum.midpoint.prism.*;
+import com.evolveum.midpoint.prism.lex.binary.BinaryLexicalProcessor;
 import com.evolveum.midpoint.prism.lex.dom.DomLexicalProcessor;
 import com.evolveum.midpoint.prism.lex.json.JsonLexicalProcessor;
 import com.evolveum.midpoint.prism.lex.json.NullLexicalProcessor;
@@ -31,6 +32,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
+import static com.evolveum.midpoint.prism.PrismContext.LANG_BINARY;
 import static com.evolveum.midpoint.prism.PrismContext.LANG_JSON;
 import static com.evolveum.midpoint.prism.PrismContext.LANG_XML;
 import static com.evolveum.midpoint.prism.PrismContext.LANG_YAML;
@@ -53,6 +55,7 @@ public class LexicalProcessorRegistry {
 		parserMap.put(LANG_XML, domLexicalProcessor);
 		parserMap.put(LANG_JSON, new JsonLexicalProcessor(schemaRegistry));
 		parserMap.put(LANG_YAML, new YamlLexicalProcessor(schemaRegistry));
+		parserMap.put(LANG_BINARY, new BinaryLexicalProcessor());
 	}
 
 	@NotNull
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.prism.lex.binary;
+
+import com.evolveum.midpoint.prism.ParserSource;
+import com.evolveum.midpoint.prism.ParsingContext;
+import com.evolveum.midpoint.prism.SerializationContext;
+import com.evolveum.midpoint.prism.lex.LexicalProcessor;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
+import com.evolveum.midpoint.prism.xnode.XNode;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.xml.namespace.QName;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact binary representation of XNode trees. It is meant for machine-to-machine use (e.g. storing objects
+ * in the repository), where XML parsing and serialization is an unnecessary overhead.
+ *
+ * The format:
+ *  - header: magic bytes "MPB" and a format version byte,
+ *  - aggregate element name (QName) and the number of root nodes, followed by the root nodes themselves,
+ *  - each node starts with its kind and a flag byte telling which of the common attributes (type name, element name,
+ *    maxOccurs, comment, ...) follow; maps and lists are prefixed by their size,
+ *  - primitive values are tagged by their type: common Java types are stored natively, the rest in their XML text form,
+ *  - all QNames (and namespace prefixes) go through a string table: each distinct string is written only once,
+ *    repeated occurrences are replaced by a variable-length index.
+ *
+ * Numbers (sizes, indices, integral values) are stored as unsigned LEB128 varints; signed values are zig-zag encoded.
+ *
+ * @author agent
+ */
+public class BinaryLexicalProcessor implements LexicalProcessor<byte[]> {
+
+	static final byte[] MAGIC = { 'M', 'P', 'B' };
+	static final int VERSION = 1;
+
+	static final int NODE_NULL = 0;
+	static final int NODE_ROOT = 1;
+	static final int NODE_MAP = 2;
+	static final int NODE_LIST = 3;
+	static final int NODE_PRIMITIVE = 4;
+	static final int NODE_SCHEMA = 5;
+
+	static final int FLAG_TYPE = 0x01;
+	static final int FLAG_EXPLICIT_TYPE = 0x02;
+	static final int FLAG_ELEMENT_NAME = 0x04;
+	static final int FLAG_MAX_OCCURS = 0x08;
+	static final int FLAG_COMMENT = 0x10;
+	static final int FLAG_ATTRIBUTE = 0x20;
+
+	static final int VALUE_NULL = 0;
+	static final int VALUE_STRING = 1;
+	static final int VALUE_TRUE = 2;
+	static final int VALUE_FALSE = 3;
+	static final int VALUE_INT = 4;
+	static final int VALUE_LONG = 5;
+	static final int VALUE_SHORT = 6;
+	static final int VALUE_DOUBLE = 7;
+	static final int VALUE_FLOAT = 8;
+	static final int VALUE_BIG_INTEGER = 9;
+	static final int VALUE_BIG_DECIMAL = 10;
+	static final int VALUE_QNAME = 11;
+	static final int VALUE_BYTES = 12;
+	static final int VALUE_TEXT = 13;
+	static final int VALUE_TEXT_WITH_NAMESPACES = 14;
+
+	static final int STRING_NULL = 0;
+	static final int STRING_LITERAL = 1;
+	static final int STRING_FIRST_REFERENCE = 2;
+
+	/**
+	 * Checks whether the data start with the binary format header.
+	 */
+	public static boolean isBinaryData(byte[] data) {
+		return data != null && data.length > MAGIC.length
+				&& Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC);
+	}
+
+	@NotNull
+	@Override
+	public RootXNode read(@NotNull ParserSource source, @NotNull ParsingContext parsingContext) throws SchemaException, IOException {
+		List<RootXNode> roots = readObjects(source, parsingContext);
+		if (roots.size() != 1) {
+			throw new SchemaException("Expected exactly one object in binary data, got " + roots.size());
+		}
+		return roots.get(0);
+	}
+
+	@NotNull
+	@Override
+	public List<RootXNode> readObjects(@NotNull ParserSource source, @NotNull ParsingContext parsingContext) throws SchemaException, IOException {
+		List<RootXNode> roots = new ArrayList<>();
+		readObjectsIteratively(source, parsingContext, root -> roots.add(root));
+		return roots;
+	}
+
+	@Override
+	public void readObjectsIteratively(@NotNull ParserSource source, @NotNull ParsingContext parsingContext,
+			RootXNodeHandler handler) throws SchemaException, IOException {
+		InputStream is = source.getInputStream();
+		try {
+			new BinaryLexicalReader(is).read(handler);
+		} finally {
+			if (source.closeStreamAfterParsing()) {
+				IOUtils.closeQuietly(is);
+			}
+		}
+	}
+
+	@Override
+	public boolean canRead(@NotNull File file) throws IOException {
+		if (!file.isFile() || file.length() <= MAGIC.length) {
+			return false;
+		}
+		try (InputStream is = new FileInputStream(file)) {
+			byte[] header = new byte[MAGIC.length];
+			new DataInputStream(is).readFully(header);
+			return Arrays.equals(header, MAGIC);
+		}
+	}
+
+	@Override
+	public boolean canRead(@NotNull String dataString) {
+		return false;			// binary data are never provided as a string
+	}
+
+	@NotNull
+	@Override
+	public byte[] write(@NotNull RootXNode xnode, @Nullable SerializationContext serializationContext) throws SchemaException {
+		return new BinaryLexicalWriter().write(Collections.singletonList(xnode), null);
+	}
+
+	@NotNull
+	@Override
+	public byte[] write(@NotNull XNode xnode, @NotNull QName rootElementName, @Nullable SerializationContext serializationContext)
+			throws SchemaException {
+		RootXNode root = xnode instanceof RootXNode ? (RootXNode) xnode : new RootXNode(rootElementName, xnode);
+		return write(root, serializationContext);
+	}
+
+	@NotNull
+	@Override
+	public byte[] write(@NotNull List<RootXNode> roots, @Nullable QName aggregateElementName,
+			@Nullable SerializationContext context) throws SchemaException {
+		return new BinaryLexicalWriter().write(roots, aggregateElementName);
+	}
+}
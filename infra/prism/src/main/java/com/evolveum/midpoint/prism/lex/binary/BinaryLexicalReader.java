@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.prism.lex.binary;
+
+import com.evolveum.midpoint.prism.lex.LexicalProcessor.RootXNodeHandler;
+import com.evolveum.midpoint.prism.xnode.*;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import org.jetbrains.annotations.NotNull;
+
+import javax.xml.namespace.QName;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.evolveum.midpoint.prism.lex.binary.BinaryLexicalProcessor.*;
+
+/**
+ * Reads XNode trees written by {@link BinaryLexicalWriter}.
+ *
+ * Primitive values are not parsed here: they are wrapped into {@link BinaryValueParser} instances,
+ * just like DOM/JSON/YAML parsers do. The difference is that the most common values are already
+ * present in their native form, so no string parsing is needed afterwards.
+ *
+ * Not thread safe; a new instance is to be used for each input.
+ *
+ * @author agent
+ */
+class BinaryLexicalReader {
+
+	private final DataInputStream in;
+	private final List<String> stringTable = new ArrayList<>();
+
+	BinaryLexicalReader(@NotNull InputStream inputStream) {
+		this.in = new DataInputStream(inputStream);
+	}
+
+	void read(RootXNodeHandler handler) throws SchemaException, IOException {
+		readHeader();
+		readQName();			// aggregate element name (not needed when reading)
+		int count = readVarInt();
+		for (int i = 0; i < count; i++) {
+			XNode node = readNode();
+			if (!(node instanceof RootXNode)) {
+				throw new SchemaException("Expected root node, got " + node);
+			}
+			if (!handler.handleData((RootXNode) node)) {
+				return;
+			}
+		}
+	}
+
+	private void readHeader() throws SchemaException, IOException {
+		byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		if (!Arrays.equals(magic, MAGIC)) {
+			throw new SchemaException("Data are not in midPoint binary format");
+		}
+		int version = in.readUnsignedByte();
+		if (version != VERSION) {
+			throw new SchemaException("Unsupported version of midPoint binary format: " + version);
+		}
+	}
+
+	private XNode readNode() throws SchemaException, IOException {
+		int kind = in.readUnsignedByte();
+		if (kind == NODE_NULL) {
+			return null;
+		}
+		int flags = in.readUnsignedByte();
+		QName typeQName = (flags & FLAG_TYPE) != 0 ? readQName() : null;
+		QName elementName = (flags & FLAG_ELEMENT_NAME) != 0 ? readQName() : null;
+		Integer maxOccurs = (flags & FLAG_MAX_OCCURS) != 0 ? readVarInt() - 1 : null;
+		String comment = (flags & FLAG_COMMENT) != 0 ? readString() : null;
+
+		XNode node;
+		switch (kind) {
+			case NODE_ROOT:
+				QName rootElementName = readQName();
+				if (rootElementName == null) {
+					throw new SchemaException("Root node without element name");
+				}
+				node = new RootXNode(rootElementName, readNode());
+				break;
+			case NODE_MAP:
+				MapXNode map = new MapXNode();
+				int entries = readVarInt();
+				for (int i = 0; i < entries; i++) {
+					QName key = readQName();
+					map.put(key, readNode());
+				}
+				node = map;
+				break;
+			case NODE_LIST:
+				ListXNode list = new ListXNode();
+				int items = readVarInt();
+				for (int i = 0; i < items; i++) {
+					list.add(readNode());
+				}
+				node = list;
+				break;
+			case NODE_PRIMITIVE:
+				PrimitiveXNode<Object> primitive = new PrimitiveXNode<>();
+				BinaryValueParser<Object> valueParser = readPrimitiveValue();
+				if (valueParser != null) {
+					primitive.setValueParser(valueParser);
+				}
+				primitive.setAttribute((flags & FLAG_ATTRIBUTE) != 0);
+				node = primitive;
+				break;
+			case NODE_SCHEMA:
+				SchemaXNode schema = new SchemaXNode();
+				String schemaString = readString();
+				if (schemaString != null) {
+					schema.setSchemaElement(DOMUtil.parseDocument(schemaString).getDocumentElement());
+				}
+				node = schema;
+				break;
+			default:
+				throw new SchemaException("Unknown node kind in binary data: " + kind);
+		}
+		node.setTypeQName(typeQName);
+		node.setExplicitTypeDeclaration((flags & FLAG_EXPLICIT_TYPE) != 0);
+		node.setElementName(elementName);
+		node.setMaxOccurs(maxOccurs);
+		node.setComment(comment);
+		return node;
+	}
+
+	/**
+	 * @return null for empty (null) values
+	 */
+	private BinaryValueParser<Object> readPrimitiveValue() throws SchemaException, IOException {
+		int tag = in.readUnsignedByte();
+		switch (tag) {
+			case VALUE_NULL: return null;
+			case VALUE_STRING: return nativeValue(readString());
+			case VALUE_TRUE: return nativeValue(Boolean.TRUE);
+			case VALUE_FALSE: return nativeValue(Boolean.FALSE);
+			case VALUE_INT: return nativeValue((int) unZigZag(readVarLong()));
+			case VALUE_LONG: return nativeValue(unZigZag(readVarLong()));
+			case VALUE_SHORT: return nativeValue((short) unZigZag(readVarLong()));
+			case VALUE_DOUBLE: return nativeValue(in.readDouble());
+			case VALUE_FLOAT: return nativeValue(in.readFloat());
+			case VALUE_BIG_INTEGER: return nativeValue(new BigInteger(readString()));
+			case VALUE_BIG_DECIMAL: return nativeValue(new BigDecimal(readString()));
+			case VALUE_QNAME: return nativeValue(readQName());
+			case VALUE_BYTES:
+				byte[] bytes = new byte[readVarInt()];
+				in.readFully(bytes);
+				return nativeValue(bytes);
+			case VALUE_TEXT:
+				return new BinaryValueParser<>(null, readString(), null);
+			case VALUE_TEXT_WITH_NAMESPACES:
+				String text = readString();
+				int count = readVarInt();
+				Map<String, String> namespaces = new HashMap<>();
+				for (int i = 0; i < count; i++) {
+					String prefix = readInternedString();
+					namespaces.put(prefix, readInternedString());
+				}
+				return new BinaryValueParser<>(null, text, namespaces);
+			default:
+				throw new SchemaException("Unknown primitive value tag in binary data: " + tag);
+		}
+	}
+
+	private BinaryValueParser<Object> nativeValue(Object value) {
+		return new BinaryValueParser<>(value, null, null);
+	}
+
+	private QName readQName() throws IOException, SchemaException {
+		String namespace = readInternedString();
+		if (namespace == null) {
+			return null;
+		}
+		return new QName(namespace, readInternedString());
+	}
+
+	private String readInternedString() throws IOException, SchemaException {
+		int reference = readVarInt();
+		if (reference == STRING_NULL) {
+			return null;
+		} else if (reference == STRING_LITERAL) {
+			String string = readUtf8(readVarInt());
+			stringTable.add(string);
+			return string;
+		} else {
+			int index = reference - STRING_FIRST_REFERENCE;
+			if (index >= stringTable.size()) {
+				throw new SchemaException("Invalid string reference in binary data: " + reference);
+			}
+			return stringTable.get(index);
+		}
+	}
+
+	private String readString() throws IOException {
+		int length = readVarInt();
+		return length == 0 ? null : readUtf8(length - 1);
+	}
+
+	private String readUtf8(int length) throws IOException {
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int readVarInt() throws IOException {
+		return (int) readVarLong();
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable-length number in binary data");
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
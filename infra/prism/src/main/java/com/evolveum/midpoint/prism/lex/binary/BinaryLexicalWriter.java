@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.prism.lex.binary;
+
+import com.evolveum.midpoint.prism.marshaller.ItemPathHolder;
+import com.evolveum.midpoint.prism.xnode.*;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.xml.namespace.QName;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.evolveum.midpoint.prism.lex.binary.BinaryLexicalProcessor.*;
+
+/**
+ * Writes XNode trees in the binary format. See {@link BinaryLexicalProcessor} for the description.
+ *
+ * Not thread safe; a new instance is to be used for each serialization.
+ *
+ * @author agent
+ */
+class BinaryLexicalWriter {
+
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+	private final DataOutputStream out = new DataOutputStream(buffer);
+	private final Map<String, Integer> stringTable = new HashMap<>();
+
+	@NotNull
+	byte[] write(@NotNull List<RootXNode> roots, @Nullable QName aggregateElementName) throws SchemaException {
+		try {
+			out.write(MAGIC);
+			out.writeByte(VERSION);
+			writeQName(aggregateElementName);
+			writeVarInt(roots.size());
+			for (RootXNode root : roots) {
+				writeNode(root);
+			}
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unexpected I/O exception when writing to memory buffer: " + e.getMessage(), e);
+		}
+		return buffer.toByteArray();
+	}
+
+	private void writeNode(XNode node) throws IOException, SchemaException {
+		if (node == null) {
+			out.writeByte(NODE_NULL);
+			return;
+		}
+		if (node instanceof RootXNode) {
+			out.writeByte(NODE_ROOT);
+		} else if (node instanceof MapXNode) {
+			out.writeByte(NODE_MAP);
+		} else if (node instanceof ListXNode) {
+			out.writeByte(NODE_LIST);
+		} else if (node instanceof PrimitiveXNode) {
+			out.writeByte(NODE_PRIMITIVE);
+		} else if (node instanceof SchemaXNode) {
+			out.writeByte(NODE_SCHEMA);
+		} else {
+			throw new IllegalArgumentException("Unsupported XNode: " + node);
+		}
+		writeCommonAttributes(node);
+
+		if (node instanceof RootXNode) {
+			RootXNode root = (RootXNode) node;
+			writeQName(root.getRootElementName());
+			writeNode(root.getSubnode());
+		} else if (node instanceof MapXNode) {
+			MapXNode map = (MapXNode) node;
+			writeVarInt(map.size());
+			for (Map.Entry<QName, XNode> entry : map.entrySet()) {
+				writeQName(entry.getKey());
+				writeNode(entry.getValue());
+			}
+		} else if (node instanceof ListXNode) {
+			ListXNode list = (ListXNode) node;
+			writeVarInt(list.size());
+			for (XNode item : list) {
+				writeNode(item);
+			}
+		} else if (node instanceof PrimitiveXNode) {
+			writePrimitiveValue((PrimitiveXNode<?>) node);
+		} else {
+			SchemaXNode schema = (SchemaXNode) node;
+			writeString(schema.getSchemaElement() != null ? DOMUtil.serializeDOMToString(schema.getSchemaElement()) : null);
+		}
+	}
+
+	private void writeCommonAttributes(XNode node) throws IOException {
+		int flags = 0;
+		if (node.getTypeQName() != null) {
+			flags |= FLAG_TYPE;
+		}
+		if (node.isExplicitTypeDeclaration()) {
+			flags |= FLAG_EXPLICIT_TYPE;
+		}
+		if (node.getElementName() != null) {
+			flags |= FLAG_ELEMENT_NAME;
+		}
+		if (node.getMaxOccurs() != null) {
+			flags |= FLAG_MAX_OCCURS;
+		}
+		if (node.getComment() != null) {
+			flags |= FLAG_COMMENT;
+		}
+		if (node instanceof PrimitiveXNode && ((PrimitiveXNode) node).isAttribute()) {
+			flags |= FLAG_ATTRIBUTE;
+		}
+		out.writeByte(flags);
+		if (node.getTypeQName() != null) {
+			writeQName(node.getTypeQName());
+		}
+		if (node.getElementName() != null) {
+			writeQName(node.getElementName());
+		}
+		if (node.getMaxOccurs() != null) {
+			writeVarInt(node.getMaxOccurs() + 1);			// maxOccurs can be -1 (unbounded)
+		}
+		if (node.getComment() != null) {
+			writeString(node.getComment());
+		}
+	}
+
+	/**
+	 * Values of the most common types are stored in their native form, so they need not be parsed when read.
+	 * Everything else is stored in the same textual form as it would be in XML, along with namespace declarations
+	 * that are needed to interpret it (for QNames and item paths).
+	 */
+	private void writePrimitiveValue(PrimitiveXNode<?> node) throws IOException, SchemaException {
+		if (!node.isParsed()) {
+			writeTextValue(node.getStringValue(), node.isEmpty() ? null : node.getRelevantNamespaceDeclarations());
+			return;
+		}
+		Object value = node.getValue();
+		if (value == null) {
+			out.writeByte(VALUE_NULL);
+		} else if (value instanceof String) {
+			out.writeByte(VALUE_STRING);
+			writeString((String) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte((Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+		} else if (value instanceof Integer) {
+			out.writeByte(VALUE_INT);
+			writeVarLong(zigZag((Integer) value));
+		} else if (value instanceof Long) {
+			out.writeByte(VALUE_LONG);
+			writeVarLong(zigZag((Long) value));
+		} else if (value instanceof Short) {
+			out.writeByte(VALUE_SHORT);
+			writeVarLong(zigZag((Short) value));
+		} else if (value instanceof Double) {
+			out.writeByte(VALUE_DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Float) {
+			out.writeByte(VALUE_FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof BigInteger) {
+			out.writeByte(VALUE_BIG_INTEGER);
+			writeString(value.toString());
+		} else if (value instanceof BigDecimal) {
+			out.writeByte(VALUE_BIG_DECIMAL);
+			writeString(value.toString());
+		} else if (value instanceof QName) {
+			out.writeByte(VALUE_QNAME);
+			writeQName((QName) value);
+		} else if (value instanceof byte[]) {
+			out.writeByte(VALUE_BYTES);
+			writeVarInt(((byte[]) value).length);
+			out.write((byte[]) value);
+		} else if (value instanceof ItemPathType) {
+			ItemPathHolder holder = new ItemPathHolder(((ItemPathType) value).getItemPath());
+			writeTextValue(holder.getXPathWithoutDeclarations(), holder.getNamespaceMap());
+		} else {
+			writeTextValue(node.getGuessedFormattedValue(), null);
+		}
+	}
+
+	private void writeTextValue(String text, Map<String, String> namespaces) throws IOException {
+		if (namespaces == null || namespaces.isEmpty()) {
+			out.writeByte(VALUE_TEXT);
+			writeString(text);
+		} else {
+			out.writeByte(VALUE_TEXT_WITH_NAMESPACES);
+			writeString(text);
+			writeVarInt(namespaces.size());
+			for (Map.Entry<String, String> entry : namespaces.entrySet()) {
+				writeInternedString(entry.getKey());
+				writeInternedString(entry.getValue());
+			}
+		}
+	}
+
+	private void writeQName(QName name) throws IOException {
+		if (name == null) {
+			writeInternedString(null);
+		} else {
+			writeInternedString(name.getNamespaceURI());
+			writeInternedString(name.getLocalPart());
+		}
+	}
+
+	/**
+	 * Strings that are expected to repeat (namespaces, local names, prefixes) are written only once;
+	 * subsequent occurrences are replaced by their index in the string table.
+	 */
+	private void writeInternedString(String string) throws IOException {
+		if (string == null) {
+			writeVarInt(STRING_NULL);
+			return;
+		}
+		Integer index = stringTable.get(string);
+		if (index != null) {
+			writeVarInt(STRING_FIRST_REFERENCE + index);
+		} else {
+			stringTable.put(string, stringTable.size());
+			writeVarInt(STRING_LITERAL);
+			writeUtf8(string);
+		}
+	}
+
+	private void writeString(String string) throws IOException {
+		if (string == null) {
+			writeVarInt(0);
+		} else {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(bytes.length + 1);
+			out.write(bytes);
+		}
+	}
+
+	private void writeUtf8(String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private void writeVarInt(int value) throws IOException {
+		writeVarLong(value & 0xFFFFFFFFL);
+	}
+
+	private void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+}
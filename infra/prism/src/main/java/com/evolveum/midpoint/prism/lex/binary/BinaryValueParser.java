@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.prism.lex.binary;
+
+import com.evolveum.midpoint.prism.PrismConstants;
+import com.evolveum.midpoint.prism.lex.dom.DomLexicalProcessor;
+import com.evolveum.midpoint.prism.marshaller.XNodeProcessorEvaluationMode;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.prism.xml.XsdTypeMapper;
+import com.evolveum.midpoint.prism.xnode.ValueParser;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
+import org.apache.commons.lang.StringUtils;
+import org.w3c.dom.Element;
+
+import javax.xml.namespace.QName;
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Value parser for primitive values read from binary format. Either a native value (String, Integer, QName, ...)
+ * or a text (with optional namespace declarations) is present.
+ *
+ * A native value is returned as is if it matches the requested type; otherwise it is converted via its
+ * textual form, exactly as if it was read from XML.
+ *
+ * @author agent
+ */
+class BinaryValueParser<T> implements ValueParser<T>, Serializable {
+
+	private static final Trace LOGGER = TraceManager.getTrace(BinaryValueParser.class);
+
+	private static final QName VALUE_ELEMENT_NAME = new QName(PrismConstants.NS_TYPES, "value");
+
+	private final Object value;
+	private final String text;
+	private final Map<String, String> namespaces;
+
+	BinaryValueParser(Object value, String text, Map<String, String> namespaces) {
+		this.value = value;
+		this.text = text;
+		this.namespaces = namespaces;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T parse(QName typeName, XNodeProcessorEvaluationMode mode) throws SchemaException {
+		if (value != null && isCompatible(typeName)) {
+			return (T) value;
+		}
+		String stringValue = getStringValue();
+		if (isPlainText(typeName)) {
+			try {
+				return (T) XmlTypeConverter.toJavaValue(stringValue, typeName);
+			} catch (IllegalArgumentException e) {
+				if (mode != XNodeProcessorEvaluationMode.COMPAT) {
+					throw e;
+				}
+				LOGGER.warn("Value of '{}' couldn't be parsed as '{}' -- interpreting as null because of COMPAT mode set",
+						stringValue, typeName, e);
+				return null;
+			}
+		}
+		// anything else (QNames, item paths, types unknown to XmlTypeConverter) goes the same way as in XML
+		Element element = DOMUtil.createElement(DOMUtil.getDocument(), VALUE_ELEMENT_NAME);
+		DOMUtil.setNamespaceDeclarations(element, namespaces);
+		if (stringValue != null) {
+			element.setTextContent(stringValue);
+		}
+		return DomLexicalProcessor.parsePrimitiveElementValue(element, typeName, mode);
+	}
+
+	/**
+	 * Types whose values do not depend on namespace declarations, so they can be converted right from the text.
+	 */
+	private boolean isPlainText(QName typeName) {
+		return typeName != null && XmlTypeConverter.canConvert(typeName) && !DOMUtil.XSD_QNAME.equals(typeName)
+				&& !ItemPathType.COMPLEX_TYPE.equals(typeName);
+	}
+
+	private boolean isCompatible(QName typeName) {
+		if (typeName == null || DOMUtil.XSD_ANYTYPE.equals(typeName)) {
+			return true;
+		}
+		Class<?> expectedClass = XsdTypeMapper.toJavaTypeIfKnown(typeName);
+		return expectedClass != null && XmlTypeConverter.isMatchingType(expectedClass, value.getClass());
+	}
+
+	@Override
+	public boolean isEmpty() {
+		if (value == null) {
+			return StringUtils.isBlank(text);
+		} else {
+			return value instanceof String && StringUtils.isBlank((String) value);
+		}
+	}
+
+	@Override
+	public String getStringValue() {
+		if (value == null) {
+			return text;
+		} else if (value instanceof QName) {
+			return QNameUtil.qNameToUri((QName) value);
+		} else if (value instanceof Number) {
+			return value.toString();
+		} else {
+			return XmlTypeConverter.toXmlTextContent(value, null);
+		}
+	}
+
+	@Override
+	public Map<String, String> getPotentiallyRelevantNamespaces() {
+		return namespaces;
+	}
+
+	@Override
+	public String toString() {
+		return "ValueParser(binary: " + (value != null ? value + " (" + value.getClass().getSimpleName() + ")" : text) + ")";
+	}
+}
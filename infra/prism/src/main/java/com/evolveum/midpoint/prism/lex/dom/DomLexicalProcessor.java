@@ -464,7 +464,11 @@ public class DomLexicalProcessor implements LexicalProcessor<String> {
 		return xnode;
 	}
 
-	private static <T> T parsePrimitiveElementValue(Element element, QName typeName, XNodeProcessorEvaluationMode mode) throws SchemaException {
+	/**
+	 * Also used for primitive values kept in XML text form by other lexical formats (binary), so they are parsed
+	 * exactly as if they were read from XML.
+	 */
+	public static <T> T parsePrimitiveElementValue(Element element, QName typeName, XNodeProcessorEvaluationMode mode) throws SchemaException {
 		try {
 			if (ItemPathType.COMPLEX_TYPE.equals(typeName)) {
 				return (T) parsePath(element);
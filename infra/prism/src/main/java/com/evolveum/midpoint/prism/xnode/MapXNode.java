@@ -18,6 +18,8 @@ package com.evolveum.midpoint.prism.xnode;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -41,6 +43,11 @@ public class MapXNode extends XNode implements Map<QName,XNode>, Serializable {
 	// We want to maintain ordering, hence the List
 	private List<Entry> subnodes = new ArrayList<Entry>();
 
+	// Index of entries by local parts of their keys (keys are matched using QNameUtil.match).
+	// Built lazily; for maps having less than INDEX_THRESHOLD entries plain linear search is used.
+	private transient Map<String, List<Entry>> index;
+	private static final int INDEX_THRESHOLD = 8;
+
 	public int size() {
 		return subnodes.size();
 	}
@@ -80,14 +87,14 @@ public class MapXNode extends XNode implements Map<QName,XNode>, Serializable {
 
 	public XNode put(QName key, XNode value) {
 		XNode previous = removeEntry(key);
-		subnodes.add(new Entry(key, value));
+		addEntry(new Entry(key, value));
 		return previous;
 	}
 
 	public Entry putReturningEntry(QName key, XNode value) {
 		removeEntry(key);
 		Entry e = new Entry(key, value);
-		subnodes.add(e);
+		addEntry(e);
 		return e;
 	}
 
@@ -106,6 +113,7 @@ public class MapXNode extends XNode implements Map<QName,XNode>, Serializable {
 
 	public void clear() {
 		subnodes.clear();
+		index = null;
 	}
 
 	public Set<QName> keySet() {
@@ -174,7 +182,24 @@ public class MapXNode extends XNode implements Map<QName,XNode>, Serializable {
 
 			@Override
 			public Iterator<java.util.Map.Entry<QName, XNode>> iterator() {
-				return (Iterator)subnodes.iterator();
+				Iterator<Entry> iterator = subnodes.iterator();
+				return new Iterator<Map.Entry<QName, XNode>>() {
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Map.Entry<QName, XNode> next() {
+						return iterator.next();
+					}
+
+					@Override
+					public void remove() {
+						iterator.remove();
+						index = null;
+					}
+				};
 			}
 
 			@Override
@@ -314,7 +339,7 @@ public class MapXNode extends XNode implements Map<QName,XNode>, Serializable {
 	}
 
 	private Entry findEntry(QName qname) {
-		for (Entry entry: subnodes) {
+		for (Entry entry: getCandidateEntries(qname)) {
 			if (QNameUtil.match(qname,entry.getKey())) {
 				return entry;
 			}
@@ -332,15 +357,66 @@ public class MapXNode extends XNode implements Map<QName,XNode>, Serializable {
 	}
 
 	private XNode removeEntry(QName key) {
+		Entry entry = findEntry(key);
+		if (entry == null) {
+			return null;
+		}
 		Iterator<Entry> iterator = subnodes.iterator();
 		while (iterator.hasNext()) {
-			Entry entry = iterator.next();
-			if (QNameUtil.match(key,entry.getKey())) {
+			if (iterator.next() == entry) {
 				iterator.remove();
-				return entry.getValue();
+				break;
 			}
 		}
-		return null;
+		if (index != null && entry.getKey() != null) {
+			List<Entry> candidates = index.get(entry.getKey().getLocalPart());
+			if (candidates != null) {
+				candidates.removeIf(e -> e == entry);
+			}
+		}
+		return entry.getValue();
+	}
+
+	private void addEntry(Entry entry) {
+		subnodes.add(entry);
+		if (index != null) {
+			addToIndex(index, entry);
+		}
+	}
+
+	/**
+	 * Returns entries that might match given key. For small maps these are simply all the entries.
+	 * The order of entries is preserved.
+	 */
+	private List<Entry> getCandidateEntries(QName key) {
+		Map<String, List<Entry>> index = getIndex();
+		if (index == null || key == null) {
+			return subnodes;
+		}
+		List<Entry> candidates = index.get(key.getLocalPart());
+		return candidates != null ? candidates : Collections.emptyList();
+	}
+
+	private Map<String, List<Entry>> getIndex() {
+		if (subnodes.size() < INDEX_THRESHOLD) {
+			index = null;
+			return null;
+		}
+		Map<String, List<Entry>> currentIndex = index;
+		if (currentIndex == null) {
+			currentIndex = new HashMap<>();
+			for (Entry entry : subnodes) {
+				addToIndex(currentIndex, entry);
+			}
+			index = currentIndex;
+		}
+		return currentIndex;
+	}
+
+	private static void addToIndex(Map<String, List<Entry>> index, Entry entry) {
+		if (entry.getKey() != null) {			// null keys are never matched using the index
+			index.computeIfAbsent(entry.getKey().getLocalPart(), k -> new ArrayList<>(1)).add(entry);
+		}
 	}
 
 	public String dumpKeyNames() {
@@ -365,7 +441,7 @@ public class MapXNode extends XNode implements Map<QName,XNode>, Serializable {
 	}
 
 	public XNode replace(QName key, XNode value) {
-		for (Entry entry : subnodes) {
+		for (Entry entry : getCandidateEntries(key)) {
 			if (entry.getKey().equals(key)) {
 				XNode previous = entry.getValue();
 				entry.setValue(value);
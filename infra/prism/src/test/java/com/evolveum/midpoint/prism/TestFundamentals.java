@@ -20,9 +20,15 @@ import static org.testng.AssertJUnit.assertEquals;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
 
+import com.evolveum.midpoint.prism.foo.UserType;
 import com.evolveum.midpoint.prism.xnode.MapXNode;
+import com.evolveum.midpoint.prism.xnode.PrimitiveXNode;
+import com.evolveum.midpoint.prism.xnode.XNode;
 import com.evolveum.prism.xml.ns._public.types_3.RawType;
 import org.testng.annotations.BeforeSuite;
 import org.testng.annotations.Test;
@@ -31,6 +37,7 @@ import org.xml.sax.SAXException;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
 import com.evolveum.midpoint.util.PrettyPrinter;
 import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
 
 import javax.xml.namespace.QName;
 
@@ -93,4 +100,137 @@ public class TestFundamentals {
 		assertEquals("Wrong or missing type QName", typeQName, rawTypeClone.getXnode().getTypeQName());
 	}
 
+	/**
+	 * Large multi-valued items use hash index for lookups; the results must be the same as with linear search.
+	 */
+	@Test
+	public void testLargeMultivaluedProperty() throws Exception {
+		System.out.println("\n\n===[ testLargeMultivaluedProperty ]===\n");
+		// GIVEN
+		final int COUNT = 1000;
+		PrismObject<UserType> user = PrismTestUtil.getPrismContext().createObject(UserType.class);
+		PrismProperty<String> property = user.findOrCreateProperty(UserType.F_ADDITIONAL_NAMES);
+
+		// WHEN
+		for (int i = 0; i < COUNT; i++) {
+			assert property.add(new PrismPropertyValue<>("name" + i));
+		}
+		PrismPropertyValue<String> duplicate = new PrismPropertyValue<>("name10");
+		duplicate.setOriginType(OriginType.OUTBOUND);
+		boolean duplicateAdded = property.add(duplicate);
+
+		// THEN
+		assert !duplicateAdded : "duplicate value was added";
+		assertEquals("Wrong # of values", COUNT, property.size());
+		assert property.containsRealValue(new PrismPropertyValue<>("name999"));
+		assert property.contains(new PrismPropertyValue<>("name0"));
+		assert !property.contains(duplicate) : "value with different metadata reported as contained";
+		assert property.containsEquivalentValue(duplicate);
+		assert !property.containsRealValue(new PrismPropertyValue<>("name" + COUNT));
+
+		// values changed directly must be found as well
+		property.getValues().get(0).setValue("changed");
+		property.getValues().add(new PrismPropertyValue<>("addedDirectly"));
+		assert property.containsRealValue(new PrismPropertyValue<>("changed"));
+		assert !property.containsRealValue(new PrismPropertyValue<>("name0"));
+		assert property.containsRealValue(new PrismPropertyValue<>("addedDirectly"));
+
+		assert property.remove(new PrismPropertyValue<>("name500"));
+		assert !property.remove(new PrismPropertyValue<>("name500"));
+		assert property.removeAll(Arrays.asList(new PrismPropertyValue<>("name501"), new PrismPropertyValue<>("name502")));
+		assertEquals("Wrong # of values after removal", COUNT - 2, property.size());
+		assertEquals("Wrong order of values", "name1", property.getValues().get(1).getValue());
+		assertEquals("Wrong order of values", "name503", property.getValues().get(500).getValue());
+	}
+
+	@Test
+	public void testLargeMultivaluedReference() throws Exception {
+		System.out.println("\n\n===[ testLargeMultivaluedReference ]===\n");
+		// GIVEN
+		final int COUNT = 1000;
+		PrismObject<UserType> user = PrismTestUtil.getPrismContext().createObject(UserType.class);
+		PrismReference reference = user.findOrCreateReference(UserType.F_ACCOUNT_REF);
+
+		// WHEN
+		for (int i = 0; i < COUNT; i++) {
+			reference.add(new PrismReferenceValue("oid" + i));
+		}
+		reference.getValues().get(20).setOid("oid20-changed");
+
+		// THEN
+		assertEquals("Wrong # of values", COUNT, reference.size());
+		assert reference.containsRealValue(ref(reference, "oid999"));
+		assert reference.containsRealValue(ref(reference, "oid20-changed"));
+		assert !reference.containsRealValue(ref(reference, "oid20"));
+		assert reference.remove(ref(reference, "oid30"));
+		assert !reference.containsRealValue(ref(reference, "oid30"));
+		assertEquals("Wrong # of values after removal", COUNT - 1, reference.size());
+	}
+
+	@Test
+	public void testLargeContainerValue() throws Exception {
+		System.out.println("\n\n===[ testLargeContainerValue ]===\n");
+		// GIVEN
+		final int COUNT = 100;
+		PrismContainerValue<?> pcv = new PrismContainerValue<>(PrismTestUtil.getPrismContext());
+
+		// WHEN
+		for (int i = 0; i < COUNT; i++) {
+			pcv.add(new PrismProperty<>(new QName(NS_EXTENSION, "item" + i)));
+		}
+		pcv.getItems().add(new PrismProperty<>(new QName(NS_EXTENSION_SECONDARY, "item50")));		// bypassing the checks
+		pcv.findItem(new QName(NS_EXTENSION, "item30")).setElementName(new QName(NS_EXTENSION, "item30-renamed"));
+		pcv.remove(new PrismProperty<>(new QName(NS_EXTENSION, "item40")));
+
+		// THEN
+		assertEquals("Wrong # of items", COUNT, pcv.getItems().size());
+		assert pcv.findItem(new QName(NS_EXTENSION, "item99")) != null;
+		assert pcv.findItem(new QName("item99")) != null : "unqualified name not matched";
+		assert pcv.findItem(new QName(NS_EXTENSION_SECONDARY, "item99")) == null;
+		assert pcv.findItem(new QName(NS_EXTENSION, "item30")) == null;
+		assert pcv.findItem(new QName(NS_EXTENSION, "item30-renamed")) != null;
+		assert pcv.findItem(new QName(NS_EXTENSION, "item40")) == null;
+		assert pcv.findItem(new QName(NS_EXTENSION_SECONDARY, "item50")) != null;
+		try {
+			pcv.findItem(new QName("item50"));
+			throw new AssertionError("Ambiguous name was not detected");
+		} catch (SystemException e) {
+			System.out.println("Got expected exception: " + e);
+		}
+		assertEquals("Wrong first item", new QName(NS_EXTENSION, "item0"), pcv.getItems().get(0).getElementName());
+	}
+
+	@Test
+	public void testLargeMapXNode() throws Exception {
+		System.out.println("\n\n===[ testLargeMapXNode ]===\n");
+		// GIVEN
+		final int COUNT = 100;
+		MapXNode map = new MapXNode();
+
+		// WHEN
+		for (int i = 0; i < COUNT; i++) {
+			map.put(new QName(NS_FOO, "key" + i), new PrimitiveXNode<>("value" + i));
+		}
+		map.put(new QName("key10"), new PrimitiveXNode<>("value10-replaced"));
+		map.remove(new QName(NS_FOO, "key20"));
+		Iterator<Map.Entry<QName, XNode>> iterator = map.entrySet().iterator();
+		iterator.next();
+		iterator.remove();
+
+		// THEN
+		assertEquals("Wrong # of entries", COUNT - 2, map.size());
+		assert map.containsKey(new QName(NS_FOO, "key99"));
+		assert map.containsKey(new QName("key99")) : "unqualified key not matched";
+		assert !map.containsKey(new QName(NS_EXTENSION, "key99"));
+		assert !map.containsKey(new QName(NS_FOO, "key20"));
+		assert !map.containsKey(new QName(NS_FOO, "key0"));
+		assertEquals("Wrong replaced value", "value10-replaced",
+				((PrimitiveXNode<?>) map.get(new QName(NS_FOO, "key10"))).getValue());
+		assertEquals("Wrong last key", new QName("key10"), new ArrayList<>(map.entrySet()).get(COUNT - 3).getKey());
+	}
+
+	private PrismReferenceValue ref(PrismReference reference, String oid) {
+		return new PrismReferenceValue(oid, reference.getDefinition().getTargetTypeName());
+	}
+
 }
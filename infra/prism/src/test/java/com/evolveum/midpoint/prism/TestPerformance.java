@@ -16,6 +16,7 @@
 package com.evolveum.midpoint.prism;
 
 import static com.evolveum.midpoint.prism.PrismInternalTestUtil.*;
+import static org.testng.AssertJUnit.assertNotNull;
 
 import javax.xml.namespace.QName;
 
@@ -24,6 +25,9 @@ import org.testng.annotations.Test;
 
 import com.evolveum.midpoint.prism.foo.AssignmentType;
 import com.evolveum.midpoint.prism.foo.UserType;
+import com.evolveum.midpoint.prism.xnode.MapXNode;
+import com.evolveum.midpoint.prism.xnode.PrimitiveXNode;
+import com.evolveum.midpoint.prism.xnode.XNode;
 import com.evolveum.midpoint.util.PrettyPrinter;
 
 /**
@@ -98,4 +102,77 @@ public class TestPerformance {
 		System.out.println(user.debugDump());
 	}
 
+	/**
+	 * Container value with many items (e.g. a large extension): both adding items (with uniqueness check)
+	 * and looking them up should take roughly constant time per item.
+	 */
+	@Test
+	public void testPerfLargeContainerValue() throws Exception {
+		final String TEST_NAME = "testPerfLargeContainerValue";
+		PrismInternalTestUtil.displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		final int ITEMS = 2000;
+		PrismContext ctx = constructInitializedPrismContext();
+		PrismContainerValue<?> pcv = new PrismContainerValue<>(ctx);
+		PerfRecorder recorderAdd = new PerfRecorder("add");
+		PerfRecorder recorderFindItem = new PerfRecorder("findItem");
+
+		// WHEN
+		for (int i = 0; i < ITEMS; i++) {
+			PrismProperty<String> property = new PrismProperty<>(new QName(NS_EXTENSION, "item" + i));
+			long tsStart = System.nanoTime();
+			pcv.add(property);
+			recorderAdd.record(i, ((double)(System.nanoTime() - tsStart))/1000000);
+		}
+		for (int i = 0; i < ITERATIONS; i++) {
+			QName name = new QName(NS_EXTENSION, "item" + (i % ITEMS));
+			long tsStart = System.nanoTime();
+			Item<?, ?> item = pcv.findItem(name);
+			recorderFindItem.record(i, ((double)(System.nanoTime() - tsStart))/1000000);
+			assertNotNull("No item " + name, item);
+		}
+
+		// THEN
+		System.out.println(recorderAdd.dump());
+		System.out.println(recorderFindItem.dump());
+
+		recorderAdd.assertAverageBelow(0.05D);
+		recorderFindItem.assertAverageBelow(0.01D);
+	}
+
+	@Test
+	public void testPerfLargeMapXNode() throws Exception {
+		final String TEST_NAME = "testPerfLargeMapXNode";
+		PrismInternalTestUtil.displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		final int ENTRIES = 2000;
+		MapXNode map = new MapXNode();
+		PerfRecorder recorderPut = new PerfRecorder("put");
+		PerfRecorder recorderGet = new PerfRecorder("get");
+
+		// WHEN
+		for (int i = 0; i < ENTRIES; i++) {
+			QName key = new QName(NS_FOO, "key" + i);
+			long tsStart = System.nanoTime();
+			map.put(key, new PrimitiveXNode<>("value" + i));
+			recorderPut.record(i, ((double)(System.nanoTime() - tsStart))/1000000);
+		}
+		for (int i = 0; i < ITERATIONS; i++) {
+			QName key = new QName(NS_FOO, "key" + (i % ENTRIES));
+			long tsStart = System.nanoTime();
+			XNode value = map.get(key);
+			recorderGet.record(i, ((double)(System.nanoTime() - tsStart))/1000000);
+			assertNotNull("No value for " + key, value);
+		}
+
+		// THEN
+		System.out.println(recorderPut.dump());
+		System.out.println(recorderGet.dump());
+
+		recorderPut.assertAverageBelow(0.05D);
+		recorderGet.assertAverageBelow(0.01D);
+	}
+
 }
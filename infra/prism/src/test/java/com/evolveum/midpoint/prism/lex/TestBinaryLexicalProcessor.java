@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.prism.lex;
+
+import com.evolveum.midpoint.prism.*;
+import com.evolveum.midpoint.prism.lex.binary.BinaryLexicalProcessor;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.evolveum.midpoint.prism.PrismInternalTestUtil.*;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Round-trip tests for the binary lexical format: XML -> prism -> binary -> prism.
+ *
+ * @author agent
+ */
+public class TestBinaryLexicalProcessor {
+
+	@BeforeSuite
+	public void setupDebug() throws SchemaException, SAXException, IOException {
+		PrettyPrinter.setDefaultNamespacePrefix(DEFAULT_NAMESPACE_PREFIX);
+		PrismTestUtil.resetPrismContext(new PrismInternalTestUtil());
+	}
+
+	@Test
+	public void testUserJackRoundTrip() throws Exception {
+		final String TEST_NAME = "testUserJackRoundTrip";
+		displayTestTitle(TEST_NAME);
+		roundTrip(USER_JACK_FILE_XML, true);
+	}
+
+	@Test
+	public void testUserJackAdhocRoundTrip() throws Exception {
+		final String TEST_NAME = "testUserJackAdhocRoundTrip";
+		displayTestTitle(TEST_NAME);
+		roundTrip(USER_JACK_ADHOC_FILE, true);
+	}
+
+	@Test
+	public void testResourceRumRoundTrip() throws Exception {
+		final String TEST_NAME = "testResourceRumRoundTrip";
+		displayTestTitle(TEST_NAME);
+		roundTrip(new File(COMMON_DIR_XML, RESOURCE_RUM_FILE_BASENAME + ".xml"), false);		// schema is stored as XML string
+	}
+
+	@Test
+	public void testMultipleObjects() throws Exception {
+		final String TEST_NAME = "testMultipleObjects";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		List<PrismObject<?>> objects = new ArrayList<>();
+		objects.add(prismContext.parseObject(USER_JACK_FILE_XML));
+		objects.add(prismContext.parseObject(USER_BARBOSSA_FILE));
+
+		// WHEN
+		byte[] data = prismContext.binarySerializer().serializeObjects(objects, null);
+		LexicalProcessor<byte[]> processor = ((PrismContextImpl) prismContext).getLexicalProcessorRegistry()
+				.processorFor(PrismContext.LANG_BINARY);
+		List<RootXNode> roots = processor.readObjects(new ParserInputStreamSource(new ByteArrayInputStream(data)),
+				ParsingContext.createDefault());
+
+		// THEN
+		assertEquals("Wrong # of objects read", objects.size(), roots.size());
+		for (int i = 0; i < objects.size(); i++) {
+			PrismObject<?> parsed = prismContext.parserFor(roots.get(i)).parse();
+			assertEquals("Object #" + i + " differs after round trip", objects.get(i), parsed);
+		}
+	}
+
+	private void roundTrip(File file, boolean checkSize) throws SchemaException, IOException {
+		// GIVEN
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		PrismObject<Objectable> original = prismContext.parseObject(file);
+		String xml = prismContext.xmlSerializer().serialize(original);
+
+		// WHEN
+		byte[] data = prismContext.binarySerializer().serialize(original);
+		System.out.println("Serialized to " + data.length + " bytes (XML: " + xml.length() + " characters)");
+		PrismObject<Objectable> parsed = prismContext.parserFor(new ByteArrayInputStream(data))
+				.language(PrismContext.LANG_BINARY).parse();
+
+		// THEN
+		System.out.println("Parsed object:\n" + parsed.debugDump());
+		assertTrue("Data not recognized as binary", BinaryLexicalProcessor.isBinaryData(data));
+		if (checkSize) {
+			assertTrue("Binary form is not smaller than XML", data.length < xml.length());
+		}
+		assertEquals("Objects differ after round trip", original, parsed);
+	}
+}
@@ -349,6 +349,11 @@ public abstract class SchemaConstants {
 	public static final QName MODEL_EXTENSION_OBJECT_QUERY = new QName(NS_MODEL_EXTENSION, "objectQuery");
 	public static final QName MODEL_EXTENSION_OBJECT_DELTA = new QName(NS_MODEL_EXTENSION, "objectDelta");
 	public static final QName MODEL_EXTENSION_WORKER_THREADS = new QName(NS_MODEL_EXTENSION, "workerThreads");
+	public static final QName MODEL_EXTENSION_WORK_BUCKETS = new QName(NS_MODEL_EXTENSION, "workBuckets");
+	public static final QName MODEL_EXTENSION_WORKER_TASKS = new QName(NS_MODEL_EXTENSION, "workerTasks");
+	public static final QName MODEL_EXTENSION_WORK_BUCKET = new QName(NS_MODEL_EXTENSION, "workBucket");
+	public static final QName MODEL_EXTENSION_WORK_BUCKET_WORKER = new QName(NS_MODEL_EXTENSION, "workBucketWorker");
+	public static final QName MODEL_EXTENSION_WORK_BUCKET_RECLAIM_TIMEOUT = new QName(NS_MODEL_EXTENSION, "workBucketReclaimTimeout");
 	public static final QName MODEL_EXTENSION_OPTION_RAW = new QName(NS_MODEL_EXTENSION, "optionRaw");
 	public static final QName MODEL_EXTENSION_EXECUTE_OPTIONS = new QName(NS_MODEL_EXTENSION, "executeOptions");
 
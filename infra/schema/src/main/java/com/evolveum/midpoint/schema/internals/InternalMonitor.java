@@ -48,6 +48,8 @@ public class InternalMonitor implements PrismMonitor, DebugDumpable {
 
 	private static CachingStatistics resourceCacheStats = new CachingStatistics();
 	private static CachingStatistics connectorCacheStats = new CachingStatistics();
+	private static CachingStatistics principalCacheStats = new CachingStatistics();
+	private static CachingStatistics resourceSchemaCacheStats = new CachingStatistics();
 
 	private static long prismObjectCloneDurationMillis = 0;
 
@@ -144,6 +146,14 @@ public class InternalMonitor implements PrismMonitor, DebugDumpable {
 		return connectorCacheStats;
 	}
 
+	public static CachingStatistics getPrincipalCacheStats() {
+		return principalCacheStats;
+	}
+
+	public static CachingStatistics getResourceSchemaCacheStats() {
+		return resourceSchemaCacheStats;
+	}
+
 	public static void recordConnectorOperation(String name) {
 		long count = recordCountInternal(InternalCounters.CONNECTOR_OPERATION_COUNT);
 		if (isTrace(InternalCounters.CONNECTOR_OPERATION_COUNT)) {
@@ -228,6 +238,8 @@ public class InternalMonitor implements PrismMonitor, DebugDumpable {
 		traceMap.clear();
 		resourceCacheStats = new CachingStatistics();
 		connectorCacheStats = new CachingStatistics();
+		principalCacheStats = new CachingStatistics();
+		resourceSchemaCacheStats = new CachingStatistics();
 		inspector = null;
 	}
 
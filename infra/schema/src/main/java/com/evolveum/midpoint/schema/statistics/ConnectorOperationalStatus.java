@@ -37,6 +37,11 @@ public class ConnectorOperationalStatus implements DebugDumpable, Serializable {
 	public static final String F_POOL_CONFIG_MIN_EVICTABLE_IDLE_TIME = "poolConfigMinEvictableIdleTime";
 	public static final String F_POOL_STATUS_NUM_IDLE = "poolStatusNumIdle";
 	public static final String F_POOL_STATUS_NUM_ACTIVE = "poolStatusNumActive";
+	public static final String F_POOL_CONFIG_MAX_CONCURRENT_OPERATIONS = "poolConfigMaxConcurrentOperations";
+	public static final String F_POOL_STATUS_NUM_WAITING = "poolStatusNumWaiting";
+	public static final String F_POOL_STATUS_WAIT_COUNT = "poolStatusWaitCount";
+	public static final String F_POOL_STATUS_WAIT_TIME = "poolStatusWaitTime";
+	public static final String F_POOL_STATUS_MAX_WAIT_TIME = "poolStatusMaxWaitTime";
 
 	private String connectorName;
 	private String connectorClassName;
@@ -48,11 +53,18 @@ public class ConnectorOperationalStatus implements DebugDumpable, Serializable {
 	private Integer poolConfigMaxIdle;
 	private Long poolConfigWaitTimeout;
 	private Long poolConfigMinEvictableIdleTime;
+	private Integer poolConfigMaxConcurrentOperations;
 
 	// pool status
 	private Integer poolStatusNumIdle;
 	private Integer poolStatusNumActive;
 
+	// waiting for the limit of concurrent operations (present only if the limit is set)
+	private Integer poolStatusNumWaiting;		// operations waiting now
+	private Long poolStatusWaitCount;			// operations that had to wait
+	private Long poolStatusWaitTime;			// total wait time (ms)
+	private Long poolStatusMaxWaitTime;			// the longest wait time (ms)
+
 	public String getConnectorName() {
 		return connectorName;
 	}
@@ -133,6 +145,46 @@ public class ConnectorOperationalStatus implements DebugDumpable, Serializable {
 		this.poolStatusNumActive = poolStatusNumActive;
 	}
 
+	public Integer getPoolConfigMaxConcurrentOperations() {
+		return poolConfigMaxConcurrentOperations;
+	}
+
+	public void setPoolConfigMaxConcurrentOperations(Integer poolConfigMaxConcurrentOperations) {
+		this.poolConfigMaxConcurrentOperations = poolConfigMaxConcurrentOperations;
+	}
+
+	public Integer getPoolStatusNumWaiting() {
+		return poolStatusNumWaiting;
+	}
+
+	public void setPoolStatusNumWaiting(Integer poolStatusNumWaiting) {
+		this.poolStatusNumWaiting = poolStatusNumWaiting;
+	}
+
+	public Long getPoolStatusWaitCount() {
+		return poolStatusWaitCount;
+	}
+
+	public void setPoolStatusWaitCount(Long poolStatusWaitCount) {
+		this.poolStatusWaitCount = poolStatusWaitCount;
+	}
+
+	public Long getPoolStatusWaitTime() {
+		return poolStatusWaitTime;
+	}
+
+	public void setPoolStatusWaitTime(Long poolStatusWaitTime) {
+		this.poolStatusWaitTime = poolStatusWaitTime;
+	}
+
+	public Long getPoolStatusMaxWaitTime() {
+		return poolStatusMaxWaitTime;
+	}
+
+	public void setPoolStatusMaxWaitTime(Long poolStatusMaxWaitTime) {
+		this.poolStatusMaxWaitTime = poolStatusMaxWaitTime;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -147,6 +199,12 @@ public class ConnectorOperationalStatus implements DebugDumpable, Serializable {
 		result = prime * result + ((poolConfigWaitTimeout == null) ? 0 : poolConfigWaitTimeout.hashCode());
 		result = prime * result + ((poolStatusNumActive == null) ? 0 : poolStatusNumActive.hashCode());
 		result = prime * result + ((poolStatusNumIdle == null) ? 0 : poolStatusNumIdle.hashCode());
+		result = prime * result
+				+ ((poolConfigMaxConcurrentOperations == null) ? 0 : poolConfigMaxConcurrentOperations.hashCode());
+		result = prime * result + ((poolStatusNumWaiting == null) ? 0 : poolStatusNumWaiting.hashCode());
+		result = prime * result + ((poolStatusWaitCount == null) ? 0 : poolStatusWaitCount.hashCode());
+		result = prime * result + ((poolStatusWaitTime == null) ? 0 : poolStatusWaitTime.hashCode());
+		result = prime * result + ((poolStatusMaxWaitTime == null) ? 0 : poolStatusMaxWaitTime.hashCode());
 		return result;
 	}
 
@@ -225,6 +283,41 @@ public class ConnectorOperationalStatus implements DebugDumpable, Serializable {
 		} else if (!poolStatusNumIdle.equals(other.poolStatusNumIdle)) {
 			return false;
 		}
+		if (poolConfigMaxConcurrentOperations == null) {
+			if (other.poolConfigMaxConcurrentOperations != null) {
+				return false;
+			}
+		} else if (!poolConfigMaxConcurrentOperations.equals(other.poolConfigMaxConcurrentOperations)) {
+			return false;
+		}
+		if (poolStatusNumWaiting == null) {
+			if (other.poolStatusNumWaiting != null) {
+				return false;
+			}
+		} else if (!poolStatusNumWaiting.equals(other.poolStatusNumWaiting)) {
+			return false;
+		}
+		if (poolStatusWaitCount == null) {
+			if (other.poolStatusWaitCount != null) {
+				return false;
+			}
+		} else if (!poolStatusWaitCount.equals(other.poolStatusWaitCount)) {
+			return false;
+		}
+		if (poolStatusWaitTime == null) {
+			if (other.poolStatusWaitTime != null) {
+				return false;
+			}
+		} else if (!poolStatusWaitTime.equals(other.poolStatusWaitTime)) {
+			return false;
+		}
+		if (poolStatusMaxWaitTime == null) {
+			if (other.poolStatusMaxWaitTime != null) {
+				return false;
+			}
+		} else if (!poolStatusMaxWaitTime.equals(other.poolStatusMaxWaitTime)) {
+			return false;
+		}
 		return true;
 	}
 
@@ -251,8 +344,13 @@ public class ConnectorOperationalStatus implements DebugDumpable, Serializable {
 		DebugUtil.debugDumpWithLabelLn(sb, "poolConfigMaxIdle", poolConfigMaxIdle, indent + 1);
 		DebugUtil.debugDumpWithLabelLn(sb, "poolConfigWaitTimeout", poolConfigWaitTimeout, indent + 1);
 		DebugUtil.debugDumpWithLabelLn(sb, "poolConfigMinEvictableIdleTime", poolConfigMinEvictableIdleTime, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "poolConfigMaxConcurrentOperations", poolConfigMaxConcurrentOperations, indent + 1);
 		DebugUtil.debugDumpWithLabelLn(sb, "poolStatusNumIdle", poolStatusNumIdle, indent + 1);
-		DebugUtil.debugDumpWithLabel(sb, "poolStatusNumActive", poolStatusNumActive, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "poolStatusNumActive", poolStatusNumActive, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "poolStatusNumWaiting", poolStatusNumWaiting, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "poolStatusWaitCount", poolStatusWaitCount, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "poolStatusWaitTime", poolStatusWaitTime, indent + 1);
+		DebugUtil.debugDumpWithLabel(sb, "poolStatusMaxWaitTime", poolStatusMaxWaitTime, indent + 1);
 		return sb.toString();
 
 	}
@@ -25,6 +25,8 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.NotificationsStatist
 import com.evolveum.midpoint.xml.ns._public.common.common_3.NotificationsStatisticsType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ProvisioningStatisticsEntryType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ProvisioningStatisticsType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptsStatisticsEntryType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptsStatisticsType;
 import org.apache.commons.lang.StringUtils;
 
 import javax.xml.datatype.DatatypeConstants;
@@ -50,8 +52,13 @@ public class EnvironmentalPerformanceInformation {
     private Map<ProvisioningStatisticsKey,ProvisioningStatisticsData> provisioningData = new HashMap<>();
     private Map<NotificationsStatisticsKey,GenericStatisticsData> notificationsData = new HashMap<>();
     private Map<MappingsStatisticsKey,GenericStatisticsData> mappingsData = new HashMap<>();
+    private Map<ScriptsStatisticsKey,GenericStatisticsData> scriptsData = new HashMap<>();
 
 	private static final int AGGREGATION_THRESHOLD = 50;
+	// expressions over this limit (e.g. because of generated context descriptions) are aggregated into one entry
+	private static final int SCRIPTS_MAX_ENTRIES = 500;
+	private static final String AGGREGATED = "(aggregated)";
+	private static final ScriptsStatisticsKey AGGREGATED_SCRIPTS_KEY = new ScriptsStatisticsKey(AGGREGATED, null);
 
     private StatusMessage lastMessage;
 
@@ -83,6 +90,7 @@ public class EnvironmentalPerformanceInformation {
         rv.setProvisioningStatistics(toProvisioningStatisticsType());
         rv.setMappingsStatistics(toMappingsStatisticsType());
         rv.setNotificationsStatistics(toNotificationsStatisticsType());
+        rv.setScriptsStatistics(toScriptsStatisticsType());
         if (lastMessage != null) {
             rv.setLastMessageTimestamp(XmlTypeConverter.createXMLGregorianCalendar(lastMessage.getDate()));
             rv.setLastMessage(lastMessage.getMessage());
@@ -140,6 +148,23 @@ public class EnvironmentalPerformanceInformation {
         return rv;
     }
 
+    private ScriptsStatisticsType toScriptsStatisticsType() {
+        final ScriptsStatisticsType rv = new ScriptsStatisticsType();
+        if (scriptsData == null) {
+            return rv;
+        }
+        for (Map.Entry<ScriptsStatisticsKey, GenericStatisticsData> entry : scriptsData.entrySet()) {
+            final ScriptsStatisticsKey key = entry.getKey();
+            ScriptsStatisticsEntryType entryType = new ScriptsStatisticsEntryType();
+            entryType.setExpression(key.getExpression());
+            entryType.setObject(key.getObject());
+            rv.getEntry().add(entryType);
+            setValueScript(entryType, entry.getValue().getCount(),
+                    entry.getValue().getMinDuration(), entry.getValue().getMaxDuration(), entry.getValue().getTotalDuration());
+        }
+        return rv;
+    }
+
     private ProvisioningStatisticsType toProvisioningStatisticsType() {
         ProvisioningStatisticsType rv = new ProvisioningStatisticsType();
         if (provisioningData == null) {
@@ -269,6 +294,17 @@ public class EnvironmentalPerformanceInformation {
         e.setTotalTime(e.getTotalTime() + totalDuration);
     }
 
+    private void setValueScript(ScriptsStatisticsEntryType e, int count, long min, long max, long totalDuration) {
+        e.setCount(e.getCount() + count);
+        if (e.getMinTime() == null || min < e.getMinTime()) {
+            e.setMinTime(min);
+        }
+        if (e.getMaxTime() == null || max > e.getMaxTime()) {
+            e.setMaxTime(max);
+        }
+        e.setTotalTime(e.getTotalTime() + totalDuration);
+    }
+
     private EnvironmentalPerformanceInformationType aggregate(EnvironmentalPerformanceInformationType startValue, EnvironmentalPerformanceInformationType delta) {
         if (startValue == null) {
             return delta;
@@ -283,6 +319,7 @@ public class EnvironmentalPerformanceInformation {
         addProvisioningTo(rv, delta.getProvisioningStatistics());
         addMappingsTo(rv, delta.getMappingsStatistics());
         addNotificationsTo(rv, delta.getNotificationsStatistics());
+        addScriptsTo(rv, delta.getScriptsStatistics());
         if (delta.getLastMessageTimestamp() != null) {
             if (rv.getLastMessageTimestamp() == null || rv.getLastMessageTimestamp().compare(delta.getLastMessageTimestamp()) == DatatypeConstants.LESSER) {
                 rv.setLastMessageTimestamp(delta.getLastMessageTimestamp());
@@ -372,6 +409,53 @@ public class EnvironmentalPerformanceInformation {
         return null;
     }
 
+    private static void addScriptsTo(EnvironmentalPerformanceInformationType rv, ScriptsStatisticsType delta) {
+        if (delta == null) {
+            return;
+        }
+        if (rv.getScriptsStatistics() == null) {
+            rv.setScriptsStatistics(delta.clone());
+            return;
+        }
+
+        ScriptsStatisticsType rvSST = rv.getScriptsStatistics();
+        for (ScriptsStatisticsEntryType de : delta.getEntry()) {
+            ScriptsStatisticsEntryType e = findScriptsEntryType(rvSST.getEntry(), de.getExpression(), de.getObject());
+            if (e == null && rvSST.getEntry().size() >= SCRIPTS_MAX_ENTRIES) {
+                e = findScriptsEntryType(rvSST.getEntry(), AGGREGATED, null);
+                if (e == null) {
+                    e = new ScriptsStatisticsEntryType();
+                    e.setExpression(AGGREGATED);
+                    rvSST.getEntry().add(e);
+                }
+            }
+            if (e == null) {
+                e = new ScriptsStatisticsEntryType();
+                e.setExpression(de.getExpression());
+                e.setObject(de.getObject());
+                rvSST.getEntry().add(e);
+            }
+            e.setCount(e.getCount() + de.getCount());
+            e.setMinTime(min(e.getMinTime(), de.getMinTime()));
+            e.setMaxTime(max(e.getMaxTime(), de.getMaxTime()));
+            e.setTotalTime(e.getTotalTime() + de.getTotalTime());
+            if (e.getCount() > 0) {
+                e.setAverageTime(e.getTotalTime() / e.getCount());
+            } else {
+                e.setAverageTime(null);
+            }
+        }
+    }
+
+    private static ScriptsStatisticsEntryType findScriptsEntryType(List<ScriptsStatisticsEntryType> list, String expression, String object) {
+        for (ScriptsStatisticsEntryType entry : list) {
+            if (StringUtils.equals(entry.getExpression(), expression) && StringUtils.equals(entry.getObject(), object)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
     private static void addProvisioningTo(EnvironmentalPerformanceInformationType rv, ProvisioningStatisticsType delta) {
         if (delta == null) {
             return;
@@ -481,6 +565,20 @@ public class EnvironmentalPerformanceInformation {
         data.recordOperation(duration, 1);
     }
 
+    public synchronized void recordScriptOperation(String contextDescription, String objectName, long duration) {
+        ScriptsStatisticsKey key = new ScriptsStatisticsKey(contextDescription, objectName);
+        GenericStatisticsData data = scriptsData.get(key);
+        if (data == null && scriptsData.size() >= SCRIPTS_MAX_ENTRIES) {
+            key = AGGREGATED_SCRIPTS_KEY;
+            data = scriptsData.get(key);
+        }
+        if (data == null) {
+            data = new GenericStatisticsData();
+            scriptsData.put(key, data);
+        }
+        data.recordOperation(duration, 1);
+    }
+
     public synchronized StatusMessage getLastMessage() {
         return lastMessage;
     }
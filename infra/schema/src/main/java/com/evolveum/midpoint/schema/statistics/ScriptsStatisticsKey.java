@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.schema.statistics;
+
+import java.util.Objects;
+
+/**
+ * @author agent
+ */
+public class ScriptsStatisticsKey {
+
+	private final String expression;
+	private final String object;
+
+	public ScriptsStatisticsKey(String expression, String object) {
+		this.expression = expression;
+		this.object = object;
+	}
+
+	public String getExpression() {
+		return expression;
+	}
+
+	public String getObject() {
+		return object;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		ScriptsStatisticsKey that = (ScriptsStatisticsKey) o;
+		return Objects.equals(expression, that.expression) && Objects.equals(object, that.object);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(expression, object);
+	}
+
+	@Override
+	public String toString() {
+		return object != null ? expression + " (" + object + ")" : expression;
+	}
+}
@@ -60,6 +60,8 @@ public interface StatisticsCollector {
 
     void recordMappingOperation(String objectOid, String objectName, String objectTypeName, String mappingName, long duration);
 
+    void recordScriptOperation(String contextDescription, String objectName, long duration);
+
     /**
      * Records information about iterative processing of objects.
      */
@@ -21,6 +21,7 @@ import com.evolveum.midpoint.schema.constants.ObjectTypes;
 import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FullTextSearchConfigurationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FullTextSearchIndexedItemsConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FullTextSearchProviderType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
 import org.jetbrains.annotations.NotNull;
@@ -40,6 +41,13 @@ public class FullTextSearchConfigurationUtil {
 		return config != null && !config.getIndexed().isEmpty() && !Boolean.FALSE.equals(config.isEnabled());
 	}
 
+	/**
+	 * Whether the embedded (on-disk) index is configured for searching. The words are kept in the repository tables as well.
+	 */
+	public static boolean isEmbeddedIndexUsed(FullTextSearchConfigurationType config) {
+		return isEnabled(config) && config.getProvider() == FullTextSearchProviderType.EMBEDDED_INDEX;
+	}
+
 	public static boolean isEnabledFor(FullTextSearchConfigurationType config, Class<? extends ObjectType> clazz) {
 		return isEnabled(config) && !getFullTextSearchItemPaths(config, clazz).isEmpty();
 	}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.schema;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.Objectable;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.lex.binary.BinaryLexicalProcessor;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+
+/**
+ * Round trip of repository objects through the binary format (as used for fullObject column of the SQL repository):
+ * object -> binary -> object. Covers all object types, and sample objects of various types with real content.
+ *
+ * @author agent
+ */
+public class TestBinarySerialization extends AbstractSchemaTest {
+
+	private static final File COMMON_XML_DIR = new File(COMMON_DIR, "xml/ns");
+
+	private static final File[] OBJECT_FILES = new File[] {
+			new File(COMMON_DIR, "account-jack.xml"),
+			new File(COMMON_DIR, "generic-sample-configuration.xml"),
+			new File(COMMON_DIR, "lookup-table.xml"),
+			new File(COMMON_DIR, "password-policy.xml"),
+			new File(COMMON_DIR, "resource-opendj-no-xmlns.xml"),
+			new File(COMMON_DIR, "role.xml"),
+			new File(COMMON_DIR, "role-construction.xml"),
+			new File(COMMON_DIR, "task-1.xml"),
+			new File(COMMON_DIR, "task-bulk-action-1.xml"),
+			new File(COMMON_DIR, "task-bulk-action-2.xml"),
+			new File(COMMON_DIR, "user-barbossa.xml"),
+			new File(COMMON_DIR, "user-bill.xml"),
+			new File(COMMON_DIR, "user-jack.xml"),
+			new File(COMMON_XML_DIR, "metarole.xml"),
+			new File(COMMON_XML_DIR, "objects.xml"),
+			new File(COMMON_XML_DIR, "resource-expression.xml"),
+			new File(COMMON_XML_DIR, "resource-opendj.xml"),
+			new File(COMMON_XML_DIR, "resource-opendj-simple.xml"),
+			new File(COMMON_XML_DIR, "shadow-hbarbossa.xml"),
+			new File(COMMON_XML_DIR, "user-jack.xml")
+	};
+
+	@Test
+	public void test100AllObjectTypes() throws Exception {
+		final String TEST_NAME = "test100AllObjectTypes";
+		displayTestTile(TEST_NAME);
+
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		int count = 0;
+		for (ObjectTypes type : ObjectTypes.values()) {
+			Class<? extends ObjectType> clazz = type.getClassDefinition();
+			if (Modifier.isAbstract(clazz.getModifiers())) {
+				continue;
+			}
+			PrismObject<? extends ObjectType> object = prismContext.createObject(clazz);
+			object.setOid("00000000-0000-0000-0000-" + String.format("%012d", type.ordinal()));
+			object.asObjectable().setName(new PolyStringType(type.name().toLowerCase()));
+			object.asObjectable().setDescription("Object of type " + type.getTypeQName().getLocalPart());
+			object.asObjectable().setVersion("42");
+			roundTrip(object);
+			count++;
+		}
+		System.out.println("Checked " + count + " object types");
+	}
+
+	@Test
+	public void test200SampleObjects() throws Exception {
+		final String TEST_NAME = "test200SampleObjects";
+		displayTestTile(TEST_NAME);
+
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		for (File file : OBJECT_FILES) {
+			System.out.println("Checking " + file);
+			List<PrismObject<? extends Objectable>> objects = prismContext.parserFor(file).parseObjects();
+			assertTrue("No objects in " + file, !objects.isEmpty());
+			for (PrismObject<? extends Objectable> object : objects) {
+				roundTrip(object);
+			}
+		}
+	}
+
+	private void roundTrip(PrismObject<? extends Objectable> original) throws Exception {
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		byte[] data = prismContext.binarySerializer().serialize(original);
+		assertTrue("Data for " + original + " not recognized as binary", BinaryLexicalProcessor.isBinaryData(data));
+
+		PrismObject<Objectable> parsed = prismContext.parserFor(new ByteArrayInputStream(data))
+				.language(PrismContext.LANG_BINARY).parse();
+		assertEquals("Wrong type of " + original + " after round trip", original.getCompileTimeClass(), parsed.getCompileTimeClass());
+		assertEquals("Object " + original + " differs after round trip", original, parsed);
+	}
+}
@@ -128,11 +128,17 @@ public class AccCertCaseOperationsHelper {
 		updateHelper.modifyObjectViaModel(AccessCertificationCampaignType.class, campaignOid, deltaList, task, result);
 	}
 
-    <F extends FocusType> List<ItemDelta<?,?>> getDeltasToCreateCases(
+    /**
+     * Creates cases for the first stage. Cases are written (via the update) in batches of the cases chunk size, so they
+     * never need to be in memory all at once.
+     *
+     * If the campaign already contains some cases (i.e. previous attempt to open the first stage was interrupted), objects
+     * for which cases were already created are skipped. All cases for a given object are written in the same batch.
+     */
+    <F extends FocusType> void createCases(
             final AccessCertificationCampaignType campaign, AccessCertificationStageType stage,
-            final CertificationHandler handler, final Task task, final OperationResult result) throws SchemaException, ObjectNotFoundException {
-
-        final List<ItemDelta<?,?>> rv = new ArrayList<>();
+            final CertificationHandler handler, ChunkedCampaignUpdate update, final Task task, final OperationResult result)
+            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
 
         final String campaignShortName = toShortString(campaign);
 
@@ -143,9 +149,17 @@ public class AccCertCaseOperationsHelper {
         }
         final AccessCertificationObjectBasedScopeType objectBasedScope = (AccessCertificationObjectBasedScopeType) scope;
 
-        final List<AccessCertificationCaseType> existingCases = queryHelper.searchCases(campaign.getOid(), null, null, result);
-        if (!existingCases.isEmpty()) {
-            throw new IllegalStateException("Unexpected " + existingCases.size() + " certification case(s) in campaign object " + campaignShortName + ". At this time there should be none.");
+        final Set<String> objectsAlreadyProcessed = new HashSet<>();
+        queryHelper.processCasesInChunks(campaign.getOid(), cases -> {
+            for (AccessCertificationCaseType existingCase : cases) {
+                if (existingCase.getObjectRef() != null) {
+                    objectsAlreadyProcessed.add(existingCase.getObjectRef().getOid());
+                }
+            }
+        }, result);
+        if (!objectsAlreadyProcessed.isEmpty()) {
+            LOGGER.info("Campaign {} already contains cases for {} object(s), these will be skipped", campaignShortName,
+                    objectsAlreadyProcessed.size());
         }
 
         // create a query to find target objects from which certification cases will be created
@@ -179,24 +193,45 @@ public class AccCertCaseOperationsHelper {
             query.setFilter(filter);
         }
 
+        final AccessCertificationReviewerSpecificationType reviewerSpec =
+                reviewersHelper.findReviewersSpecification(campaign, 1, task, result);
+
         final List<AccessCertificationCaseType> caseList = new ArrayList<>();
+        final int[] casesCreated = { 0 };
 
         // create certification cases by executing the query and caseExpression on its results
         // here the subclasses of this class come into play
         ResultHandler<F> resultHandler = (object, parentResult) -> {
+            if (objectsAlreadyProcessed.contains(object.getOid())) {
+                return true;
+            }
 			try {
 				caseList.addAll(handler.createCasesForObject(object, campaign, task, parentResult));
-			} catch (ExpressionEvaluationException|ObjectNotFoundException|SchemaException | CommunicationException | ConfigurationException | SecurityViolationException e) {
+				if (caseList.size() >= queryHelper.getCasesChunkSize()) {
+				    update.add(createAddCasesDeltas(caseList, campaign, stage, reviewerSpec, task, parentResult));
+				    casesCreated[0] += caseList.size();
+				    caseList.clear();
+                }
+			} catch (ExpressionEvaluationException|ObjectNotFoundException|SchemaException | CommunicationException | ConfigurationException | SecurityViolationException | ObjectAlreadyExistsException e) {
 				// TODO process the exception more intelligently
 				throw new SystemException("Cannot create certification case for object " + toShortString(object.asObjectable()) + ": " + e.getMessage(), e);
 			}
 			return true;
 		};
         repositoryService.searchObjectsIterative(objectClass, query, resultHandler, null, false, result);
+        update.add(createAddCasesDeltas(caseList, campaign, stage, reviewerSpec, task, result));
+        casesCreated[0] += caseList.size();
 
-        AccessCertificationReviewerSpecificationType reviewerSpec =
-                reviewersHelper.findReviewersSpecification(campaign, 1, task, result);
+        LOGGER.debug("Created {} cases for campaign {}", casesCreated[0], campaignShortName);
+    }
 
+    private List<ItemDelta<?,?>> createAddCasesDeltas(List<AccessCertificationCaseType> caseList,
+            AccessCertificationCampaignType campaign, AccessCertificationStageType stage,
+            AccessCertificationReviewerSpecificationType reviewerSpec, Task task, OperationResult result)
+            throws SchemaException, ObjectNotFoundException {
+        if (caseList.isEmpty()) {
+            return Collections.emptyList();
+        }
         ContainerDelta<AccessCertificationCaseType> caseDelta = ContainerDelta.createDelta(F_CASE,
                 AccessCertificationCampaignType.class, prismContext);
         for (AccessCertificationCaseType _case : caseList) {
@@ -216,10 +251,8 @@ public class AccCertCaseOperationsHelper {
             caseDelta.addValueToAdd(caseCVal);
 			LOGGER.trace("Adding certification case:\n{}", caseCVal.debugDumpLazily());
         }
-        rv.add(caseDelta);
-
-        LOGGER.trace("Created {} deltas to create {} cases for campaign {}", rv.size(), caseList.size(), campaignShortName);
-        return rv;
+        LOGGER.trace("Adding {} cases to campaign {}", caseList.size(), toShortString(campaign));
+        return Collections.singletonList(caseDelta);
     }
 
     private List<AccessCertificationWorkItemType> createWorkItems(List<ObjectReferenceType> forReviewers, int forStage) {
@@ -234,12 +267,15 @@ public class AccCertCaseOperationsHelper {
         return workItems;
     }
 
-    List<ItemDelta<?,?>> getDeltasToAdvanceCases(AccessCertificationCampaignType campaign, AccessCertificationStageType stage, Task task, OperationResult result)
-            throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException {
+    /**
+     * Moves cases to the next stage: creates new work items, updates timestamps and outcomes. Cases are processed and
+     * updated in chunks. Cases that are already in the new stage (i.e. they were advanced by a previous, interrupted
+     * attempt to open the stage) are skipped.
+     */
+    void advanceCases(AccessCertificationCampaignType campaign, AccessCertificationStageType stage, ChunkedCampaignUpdate update,
+            Task task, OperationResult result) throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException {
 
         LOGGER.trace("Advancing reviewers and timestamps for cases in {}", toShortString(campaign));
-        List<AccessCertificationCaseType> caseList = queryHelper.searchCases(campaign.getOid(), null, null, result);
-        List<ItemDelta<?,?>> rv = new ArrayList<>(caseList.size());
 
         int stageToBe = campaign.getStageNumber() + 1;
 
@@ -248,64 +284,106 @@ public class AccCertCaseOperationsHelper {
         AccessCertificationReviewerSpecificationType reviewerSpec =
                 reviewersHelper.findReviewersSpecification(campaign, stageToBe, task, result);
 
-        for (AccessCertificationCaseType _case : caseList) {
-            if (!computationHelper.computeEnabled(campaign, _case, outcomesToStopOn)) {
-                continue;
+        int[] casesAdvanced = { 0 };
+        queryHelper.processCasesInChunks(campaign.getOid(), caseList -> {
+            List<ItemDelta<?,?>> deltas = new ArrayList<>();
+            for (AccessCertificationCaseType _case : caseList) {
+                if (_case.getStageNumber() == stageToBe) {
+                    LOGGER.trace("Case {} is already in stage {}, skipping it", _case.getId(), stageToBe);
+                    continue;
+                }
+                if (!computationHelper.computeEnabled(campaign, _case, outcomesToStopOn)) {
+                    continue;
+                }
+                Long caseId = _case.asPrismContainerValue().getId();
+                assert caseId != null;
+                List<ObjectReferenceType> reviewers = reviewersHelper.getReviewersForCase(_case, campaign, reviewerSpec, task, result);
+                List<AccessCertificationWorkItemType> workItems = createWorkItems(reviewers, stageToBe);
+                _case.getWorkItem().addAll(CloneUtil.cloneCollectionMembers(workItems));
+                AccessCertificationResponseType currentOutcome = computationHelper.computeOutcomeForStage(_case, campaign, stageToBe);
+                AccessCertificationResponseType overallOutcome = computationHelper.computeOverallOutcome(_case, campaign, currentOutcome);
+                deltas.addAll(DeltaBuilder.deltaFor(AccessCertificationCampaignType.class, prismContext)
+                        .item(F_CASE, caseId, F_WORK_ITEM).add(PrismContainerValue.toPcvList(workItems))
+                        .item(F_CASE, caseId, F_CURRENT_STAGE_CREATE_TIMESTAMP).replace(stage.getStartTimestamp())
+                        .item(F_CASE, caseId, F_CURRENT_STAGE_DEADLINE).replace(stage.getDeadline())
+                        .item(F_CASE, caseId, F_CURRENT_STAGE_OUTCOME).replace(OutcomeUtils.toUri(currentOutcome))
+                        .item(F_CASE, caseId, F_OUTCOME).replace(OutcomeUtils.toUri(overallOutcome))
+                        .item(F_CASE, caseId, F_STAGE_NUMBER).replace(stageToBe)
+                        .asItemDeltas());
+                casesAdvanced[0]++;
             }
-            Long caseId = _case.asPrismContainerValue().getId();
-            assert caseId != null;
-			List<ObjectReferenceType> reviewers = reviewersHelper.getReviewersForCase(_case, campaign, reviewerSpec, task, result);
-			List<AccessCertificationWorkItemType> workItems = createWorkItems(reviewers, stageToBe);
-			_case.getWorkItem().addAll(CloneUtil.cloneCollectionMembers(workItems));
-			AccessCertificationResponseType currentOutcome = computationHelper.computeOutcomeForStage(_case, campaign, stageToBe);
-			AccessCertificationResponseType overallOutcome = computationHelper.computeOverallOutcome(_case, campaign, currentOutcome);
-			rv.addAll(DeltaBuilder.deltaFor(AccessCertificationCampaignType.class, prismContext)
-					.item(F_CASE, caseId, F_WORK_ITEM).add(PrismContainerValue.toPcvList(workItems))
-					.item(F_CASE, caseId, F_CURRENT_STAGE_CREATE_TIMESTAMP).replace(stage.getStartTimestamp())
-					.item(F_CASE, caseId, F_CURRENT_STAGE_DEADLINE).replace(stage.getDeadline())
-					.item(F_CASE, caseId, F_CURRENT_STAGE_OUTCOME).replace(OutcomeUtils.toUri(currentOutcome))
-					.item(F_CASE, caseId, F_OUTCOME).replace(OutcomeUtils.toUri(overallOutcome))
-					.item(F_CASE, caseId, F_STAGE_NUMBER).replace(stageToBe)
-					.asItemDeltas());
-        }
+            update.add(deltas);
+        }, result);
 
-        LOGGER.debug("Created {} deltas to advance {} cases for campaign {}", rv.size(), caseList.size(), toShortString(campaign));
-        return rv;
+        LOGGER.debug("Advanced {} cases for campaign {}", casesAdvanced[0], toShortString(campaign));
     }
 
-    // computes outcomes at stage close (stage-level and overall) and creates appropriate deltas
-    List<ItemDelta<?,?>> createOutcomeDeltas(AccessCertificationCampaignType campaign, OperationResult result) throws ObjectNotFoundException, SchemaException {
-        List<ItemDelta<?,?>> rv = new ArrayList<>();
+    /**
+     * At stage close: computes outcomes (stage-level and overall), records stage completion events and closes open
+     * work items. Cases are processed and updated in chunks. Cases that already have the completion event for the current
+     * stage (i.e. they were processed by a previous, interrupted attempt to close the stage) get only their work items closed.
+     */
+    void closeStageForCases(AccessCertificationCampaignType campaign, XMLGregorianCalendar now, ChunkedCampaignUpdate update,
+            Task task, OperationResult result) throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException {
 
         if (LOGGER.isTraceEnabled()) {
             LOGGER.trace("Updating current outcome for cases in {}", toShortString(campaign));
         }
-        List<AccessCertificationCaseType> caseList = queryHelper.searchCases(campaign.getOid(), null, null, result);
+        int stageNumber = campaign.getStageNumber();
+        queryHelper.processCasesInChunks(campaign.getOid(), caseList -> {
+            List<ItemDelta<?,?>> deltas = new ArrayList<>();
+            for (AccessCertificationCaseType _case : caseList) {
+                if (_case.getStageNumber() == stageNumber && !isStageCompletionRecorded(_case, stageNumber)) {
+                    deltas.addAll(createOutcomeDeltas(_case, campaign));
+                }
+                deltas.addAll(createWorkItemsCloseDeltas(_case, now));
+            }
+            update.add(deltas);
+        }, result);
+    }
 
-		for (AccessCertificationCaseType _case : caseList) {
-			if (_case.getStageNumber() != campaign.getStageNumber()) {
-				continue;
-			}
-			String newStageOutcome = OutcomeUtils.toUri(computationHelper.computeOutcomeForStage(_case, campaign, campaign.getStageNumber()));
-			if (!Objects.equals(newStageOutcome, _case.getCurrentStageOutcome())) {
-				rv.add(DeltaBuilder.deltaFor(AccessCertificationCampaignType.class, prismContext)
-						.item(F_CASE, _case.asPrismContainerValue().getId(), F_CURRENT_STAGE_OUTCOME).replace(newStageOutcome)
-						.asItemDelta());
-			}
-			rv.add(DeltaBuilder.deltaFor(AccessCertificationCampaignType.class, prismContext)
-					.item(F_CASE, _case.asPrismContainerValue().getId(), F_EVENT).add(new StageCompletionEventType()
-							.timestamp(clock.currentTimeXMLGregorianCalendar())
-							.stageNumber(campaign.getStageNumber())
-							.outcome(newStageOutcome))
-					.asItemDelta());
+    private boolean isStageCompletionRecorded(AccessCertificationCaseType _case, int stageNumber) {
+        return _case.getEvent().stream()
+                .anyMatch(e -> e instanceof StageCompletionEventType && Objects.equals(e.getStageNumber(), stageNumber));
+    }
 
-			String newOverallOutcome = OutcomeUtils.toUri(computationHelper.computeOverallOutcome(_case, campaign, newStageOutcome));
-			if (!Objects.equals(newOverallOutcome, _case.getOutcome())) {
-				rv.add(DeltaBuilder.deltaFor(AccessCertificationCampaignType.class, prismContext)
-						.item(F_CASE, _case.asPrismContainerValue().getId(), F_OUTCOME).replace(newOverallOutcome)
-						.asItemDelta());
-			}
-		}
+    // computes outcomes at stage close (stage-level and overall) and creates appropriate deltas
+    private List<ItemDelta<?,?>> createOutcomeDeltas(AccessCertificationCaseType _case, AccessCertificationCampaignType campaign)
+            throws SchemaException {
+        List<ItemDelta<?,?>> rv = new ArrayList<>();
+        String newStageOutcome = OutcomeUtils.toUri(computationHelper.computeOutcomeForStage(_case, campaign, campaign.getStageNumber()));
+        if (!Objects.equals(newStageOutcome, _case.getCurrentStageOutcome())) {
+            rv.add(DeltaBuilder.deltaFor(AccessCertificationCampaignType.class, prismContext)
+                    .item(F_CASE, _case.asPrismContainerValue().getId(), F_CURRENT_STAGE_OUTCOME).replace(newStageOutcome)
+                    .asItemDelta());
+        }
+        rv.add(DeltaBuilder.deltaFor(AccessCertificationCampaignType.class, prismContext)
+                .item(F_CASE, _case.asPrismContainerValue().getId(), F_EVENT).add(new StageCompletionEventType()
+                        .timestamp(clock.currentTimeXMLGregorianCalendar())
+                        .stageNumber(campaign.getStageNumber())
+                        .outcome(newStageOutcome))
+                .asItemDelta());
+
+        String newOverallOutcome = OutcomeUtils.toUri(computationHelper.computeOverallOutcome(_case, campaign, newStageOutcome));
+        if (!Objects.equals(newOverallOutcome, _case.getOutcome())) {
+            rv.add(DeltaBuilder.deltaFor(AccessCertificationCampaignType.class, prismContext)
+                    .item(F_CASE, _case.asPrismContainerValue().getId(), F_OUTCOME).replace(newOverallOutcome)
+                    .asItemDelta());
+        }
+        return rv;
+    }
+
+    List<ItemDelta<?,?>> createWorkItemsCloseDeltas(AccessCertificationCaseType _case, XMLGregorianCalendar now)
+            throws SchemaException {
+        List<ItemDelta<?,?>> rv = new ArrayList<>();
+        for (AccessCertificationWorkItemType workItem : _case.getWorkItem()) {
+            if (workItem.getCloseTimestamp() == null) {
+                rv.add(DeltaBuilder.deltaFor(AccessCertificationCampaignType.class, prismContext)
+                        .item(F_CASE, _case.asPrismContainerValue().getId(), F_WORK_ITEM, workItem.getId(), AccessCertificationWorkItemType.F_CLOSE_TIMESTAMP)
+                        .replace(now)
+                        .asItemDelta());
+            }
+        }
         return rv;
     }
 
@@ -16,11 +16,14 @@
 
 package com.evolveum.midpoint.certification.impl;
 
+import com.evolveum.midpoint.prism.PrismConstants;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.query.AndFilter;
 import com.evolveum.midpoint.prism.query.InOidFilter;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.OrderDirection;
 import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.GetOperationOptions;
@@ -28,9 +31,11 @@ import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.security.api.MidPointPrincipal;
 import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SecurityViolationException;
+import com.evolveum.midpoint.util.exception.SystemException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.wf.util.QueryUtils;
@@ -53,6 +58,15 @@ public class AccCertQueryHelper {
 
     private static final transient Trace LOGGER = TraceManager.getTrace(AccCertQueryHelper.class);
 
+	// Number of cases fetched (and usually also updated) at once when processing the whole campaign.
+	public static final int DEFAULT_CASES_CHUNK_SIZE = 500;
+
+	// Number of cases that can be kept in memory when grouping them by reviewers (see processOpenCasesByReviewer).
+	public static final int DEFAULT_REVIEWER_CASES_IN_MEMORY = 10000;
+
+	private int casesChunkSize = DEFAULT_CASES_CHUNK_SIZE;
+	private int reviewerCasesInMemory = DEFAULT_REVIEWER_CASES_IN_MEMORY;
+
     @Autowired private PrismContext prismContext;
     @Autowired protected AccCertGeneralHelper helper;
 	@Autowired @Qualifier("cacheRepositoryService")
@@ -69,6 +83,118 @@ public class AccCertQueryHelper {
 		return repositoryService.searchContainers(AccessCertificationCaseType.class, newQuery, options, result);
     }
 
+	int getCasesChunkSize() {
+		return casesChunkSize;
+	}
+
+	// public because of certification tests
+	public void setCasesChunkSize(int casesChunkSize) {
+		this.casesChunkSize = casesChunkSize;
+	}
+
+	// public because of certification tests
+	public void setReviewerCasesInMemory(int reviewerCasesInMemory) {
+		this.reviewerCasesInMemory = reviewerCasesInMemory;
+	}
+
+	@FunctionalInterface
+	interface CasesChunkProcessor {
+		void process(List<AccessCertificationCaseType> cases) throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException;
+	}
+
+	/**
+	 * Processes all cases of a campaign in chunks of casesChunkSize (ordered by case ID), so the whole case list
+	 * never needs to be in memory. The processor may modify the cases but it must not add nor delete any of them.
+	 */
+	void processCasesInChunks(String campaignOid, CasesChunkProcessor processor, OperationResult result)
+			throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+		int chunkSize = casesChunkSize;
+		int offset = 0;
+		for (;;) {
+			ObjectQuery query = new ObjectQuery();
+			query.setPaging(ObjectPaging.createPaging(offset, chunkSize, PrismConstants.T_ID, OrderDirection.ASCENDING));
+			List<AccessCertificationCaseType> cases = searchCases(campaignOid, query, null, result);
+			LOGGER.trace("Got {} cases starting at {} in campaign {}", cases.size(), offset, campaignOid);
+			if (!cases.isEmpty()) {
+				processor.process(cases);
+			}
+			if (cases.size() < chunkSize) {
+				return;
+			}
+			offset += cases.size();
+		}
+	}
+
+	@FunctionalInterface
+	interface ReviewerCasesProcessor {
+		void process(String reviewerOid, List<AccessCertificationCaseType> cases) throws SchemaException;
+	}
+
+	/**
+	 * Passes cases having open (not closed) work items to the processor, grouped by assignees of these work items.
+	 *
+	 * Cases are read in one pass and grouped in memory; each case is kept only once, even if it has more reviewers.
+	 * If the campaign has more such cases than reviewerCasesInMemory, the grouping is abandoned: only the reviewers are
+	 * collected and their cases are then fetched for one reviewer at a time. So at most reviewerCasesInMemory cases
+	 * (or the cases of a single reviewer) are in memory at once.
+	 */
+	void processOpenCasesByReviewer(String campaignOid, ReviewerCasesProcessor processor, OperationResult result)
+			throws SchemaException {
+		Set<String> allReviewers = new LinkedHashSet<>();
+		Map<String, List<AccessCertificationCaseType>> casesByReviewer = new HashMap<>();
+		int[] casesKept = { 0 };
+		try {
+			processCasesInChunks(campaignOid, cases -> {
+				for (AccessCertificationCaseType aCase : cases) {
+					Set<String> reviewers = getOpenWorkItemsAssignees(aCase);
+					allReviewers.addAll(reviewers);
+					if (reviewers.isEmpty() || casesKept[0] < 0) {
+						continue;
+					}
+					if (++casesKept[0] > reviewerCasesInMemory) {
+						LOGGER.debug("More than {} cases with open work items in campaign {}, they will be fetched for each reviewer separately",
+								reviewerCasesInMemory, campaignOid);
+						casesByReviewer.clear();
+						casesKept[0] = -1;
+						continue;
+					}
+					for (String reviewer : reviewers) {
+						casesByReviewer.computeIfAbsent(reviewer, k -> new ArrayList<>()).add(aCase);
+					}
+				}
+			}, result);
+		} catch (ObjectNotFoundException | ObjectAlreadyExistsException e) {
+			throw new SystemException("Unexpected exception while reading cases of campaign " + campaignOid + ": " + e.getMessage(), e);
+		}
+		boolean grouped = casesKept[0] >= 0;
+		for (String reviewerOid : allReviewers) {
+			List<AccessCertificationCaseType> cases = grouped ?
+					casesByReviewer.remove(reviewerOid) : getOpenCasesForReviewer(campaignOid, reviewerOid, result);
+			if (cases != null && !cases.isEmpty()) {
+				processor.process(reviewerOid, cases);
+			}
+		}
+	}
+
+	private Set<String> getOpenWorkItemsAssignees(AccessCertificationCaseType aCase) {
+		Set<String> rv = new HashSet<>();
+		for (AccessCertificationWorkItemType workItem : aCase.getWorkItem()) {
+			if (workItem.getCloseTimestamp() == null) {
+				for (ObjectReferenceType reviewerRef : workItem.getAssigneeRef()) {
+					rv.add(reviewerRef.getOid());
+				}
+			}
+		}
+		return rv;
+	}
+
+	private List<AccessCertificationCaseType> getOpenCasesForReviewer(String campaignOid, String reviewerOid,
+			OperationResult result) throws SchemaException {
+		ObjectQuery query = ObjectQuery.createObjectQuery(getReviewerAndEnabledFilter(reviewerOid));
+		query.setPaging(ObjectPaging.createPaging(PrismConstants.T_ID, OrderDirection.ASCENDING));
+		return searchCases(campaignOid, query, null, result);
+	}
+
     private ObjectQuery replaceFilter(ObjectQuery query, ObjectFilter newFilter) {
         ObjectQuery newQuery;
         if (query == null) {
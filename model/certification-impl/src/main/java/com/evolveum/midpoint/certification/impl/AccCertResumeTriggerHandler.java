@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.certification.impl;
+
+import com.evolveum.midpoint.model.impl.trigger.TriggerHandler;
+import com.evolveum.midpoint.model.impl.trigger.TriggerHandlerRegistry;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.exception.*;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCampaignStateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCampaignType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TriggerType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+import static com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCampaignStateType.*;
+
+/**
+ * Resumes stage opening, stage closing or campaign closing that was interrupted while the cases were being
+ * updated in chunks (see ChunkedCampaignUpdate). The operation is simply executed again; cases that were already
+ * processed are skipped. If the campaign state shows that the operation was completed in the meanwhile,
+ * the trigger is ignored.
+ *
+ * @author agent
+ */
+@Component
+public class AccCertResumeTriggerHandler implements TriggerHandler {
+
+	public static final String HANDLER_URI_OPEN_STAGE = AccessCertificationConstants.NS_CERTIFICATION_TRIGGER_PREFIX + "/resume-open-stage/handler-3";
+	public static final String HANDLER_URI_CLOSE_STAGE = AccessCertificationConstants.NS_CERTIFICATION_TRIGGER_PREFIX + "/resume-close-stage/handler-3";
+	public static final String HANDLER_URI_CLOSE_CAMPAIGN = AccessCertificationConstants.NS_CERTIFICATION_TRIGGER_PREFIX + "/resume-close-campaign/handler-3";
+
+	private static final transient Trace LOGGER = TraceManager.getTrace(AccCertResumeTriggerHandler.class);
+
+	@Autowired private TriggerHandlerRegistry triggerHandlerRegistry;
+	@Autowired private CertificationManagerImpl certManager;
+
+	@PostConstruct
+	private void initialize() {
+		triggerHandlerRegistry.register(HANDLER_URI_OPEN_STAGE, this);
+		triggerHandlerRegistry.register(HANDLER_URI_CLOSE_STAGE, this);
+		triggerHandlerRegistry.register(HANDLER_URI_CLOSE_CAMPAIGN, this);
+	}
+
+	@Override
+	public <O extends ObjectType> void handle(PrismObject<O> object, TriggerType trigger, Task task, OperationResult parentResult) {
+		if (!(object.asObjectable() instanceof AccessCertificationCampaignType)) {
+			throw new IllegalArgumentException("Unexpected object type: should be AccessCertificationCampaignType: " + object);
+		}
+		AccessCertificationCampaignType campaign = (AccessCertificationCampaignType) object.asObjectable();
+		OperationResult result = parentResult.createSubresult(AccCertResumeTriggerHandler.class.getName() + ".handle");
+		try {
+			String campaignOid = campaign.getOid();
+			AccessCertificationCampaignStateType state = campaign.getState();
+			int stageNumber = campaign.getStageNumber();
+			String handlerUri = trigger.getHandlerUri();
+			if (HANDLER_URI_OPEN_STAGE.equals(handlerUri) && (state == CREATED || state == REVIEW_STAGE_DONE)) {
+				LOGGER.info("Resuming opening of stage {} of {}", stageNumber + 1, ObjectTypeUtil.toShortString(campaign));
+				certManager.openNextStage(campaignOid, stageNumber + 1, task, result);
+			} else if (HANDLER_URI_CLOSE_STAGE.equals(handlerUri) && state == IN_REVIEW_STAGE) {
+				LOGGER.info("Resuming closing of stage {} of {}", stageNumber, ObjectTypeUtil.toShortString(campaign));
+				certManager.closeCurrentStage(campaignOid, stageNumber, task, result);
+			} else if (HANDLER_URI_CLOSE_CAMPAIGN.equals(handlerUri) && state != CLOSED) {
+				LOGGER.info("Resuming closing of {}", ObjectTypeUtil.toShortString(campaign));
+				certManager.closeCampaign(campaignOid, task, result);
+			} else {
+				LOGGER.info("Campaign {} is in state {} (stage {}), the operation of trigger {} was already completed; ignoring the trigger",
+						ObjectTypeUtil.toShortString(campaign), state, stageNumber, handlerUri);
+			}
+		} catch (RuntimeException | ObjectNotFoundException | ObjectAlreadyExistsException | SchemaException | SecurityViolationException
+				| ExpressionEvaluationException | ConfigurationException | CommunicationException e) {
+			String message = "Exception while resuming an operation on campaign " + campaign + ": " + e.getMessage();
+			result.recordFatalError(message, e);
+			throw new SystemException(message, e);
+		} finally {
+			result.computeStatusIfUnknown();
+		}
+	}
+}
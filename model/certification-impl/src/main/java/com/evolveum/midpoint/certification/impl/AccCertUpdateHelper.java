@@ -79,7 +79,6 @@ import java.util.*;
 
 import static com.evolveum.midpoint.schema.util.ObjectTypeUtil.toShortString;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkItemType.F_ASSIGNEE_REF;
-import static com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkItemType.F_CLOSE_TIMESTAMP;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkItemType.F_ESCALATION_LEVEL;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCampaignStateType.*;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCampaignType.F_CASE;
@@ -212,7 +211,12 @@ public class AccCertUpdateHelper {
 
     //region ================================ Stage open ================================
 
-    public List<ItemDelta<?,?>> getDeltasForStageOpen(AccessCertificationCampaignType campaign, AccessCertificationStageType stage, CertificationHandler handler, final Task task, OperationResult result)
+    /**
+     * Opens the stage: creates or advances the cases (in batches) and then records the stage in the campaign.
+     * Campaign state is changed only by the last write, together with the last batch of cases (see ChunkedCampaignUpdate).
+     * An interrupted stage opening is resumed by a trigger; cases that were already processed are skipped.
+     */
+    public void openStage(AccessCertificationCampaignType campaign, AccessCertificationStageType stage, CertificationHandler handler, final Task task, OperationResult result)
             throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
         Validate.notNull(campaign, "certificationCampaign");
         Validate.notNull(campaign.getOid(), "certificationCampaign.oid");
@@ -221,25 +225,27 @@ public class AccCertUpdateHelper {
         int newStageNumber = stageNumber + 1;
 
         if (LOGGER.isTraceEnabled()) {
-            LOGGER.trace("getDeltasForStageOpen starting; campaign = {}, stage number = {}",
+            LOGGER.trace("openStage starting; campaign = {}, stage number = {}",
                     ObjectTypeUtil.toShortString(campaign), stageNumber);
         }
 
-        List<ItemDelta<?,?>> rv = new ArrayList<>();
+        ChunkedCampaignUpdate update = new ChunkedCampaignUpdate(this, prismContext, campaign.getOid(),
+                AccCertResumeTriggerHandler.HANDLER_URI_OPEN_STAGE, task, result);
         if (stageNumber == 0) {
-            rv.addAll(caseHelper.getDeltasToCreateCases(campaign, stage, handler, task, result));
+            caseHelper.createCases(campaign, stage, handler, update, task, result);
         } else {
-            rv.addAll(caseHelper.getDeltasToAdvanceCases(campaign, stage, task, result));
+            caseHelper.advanceCases(campaign, stage, update, task, result);
         }
 
+        List<ItemDelta<?,?>> rv = new ArrayList<>();
         rv.add(createStageAddDelta(stage));
         rv.addAll(createDeltasToRecordStageOpen(campaign, stage));
 		rv.addAll(createTriggersForTimedActions(campaign.getOid(), 0,
 				XmlTypeConverter.toDate(stage.getStartTimestamp()), XmlTypeConverter.toDate(stage.getDeadline()),
 				CertCampaignTypeUtil.findStageDefinition(campaign, newStageNumber).getTimedActions()));
 
-		LOGGER.trace("getDeltasForStageOpen finishing, returning {} deltas:\n{}", rv.size(), DebugUtil.debugDumpLazily(rv));
-        return rv;
+		LOGGER.trace("openStage finishing, applying {} campaign deltas:\n{}", rv.size(), DebugUtil.debugDumpLazily(rv));
+        update.finish(rv);
     }
 
     // some bureaucracy... stage#, state, start time, triggers
@@ -349,10 +355,7 @@ public class AccCertUpdateHelper {
     }
 
 	private void notifyReviewers(AccessCertificationCampaignType campaign, boolean unansweredOnly, Task task, OperationResult result) throws SchemaException {
-		final List<AccessCertificationCaseType> caseList = queryHelper.searchCases(campaign.getOid(), null, null, result);
-		Collection<String> reviewers = eventHelper.getCurrentActiveReviewers(caseList);
-		for (String reviewerOid : reviewers) {
-			List<AccessCertificationCaseType> cases = queryHelper.getCasesForReviewer(campaign, reviewerOid, task, result);
+		queryHelper.processOpenCasesByReviewer(campaign.getOid(), (reviewerOid, cases) -> {
 			boolean notify = !unansweredOnly ||
 					cases.stream()
 							.flatMap(c -> c.getWorkItem().stream())
@@ -364,7 +367,7 @@ public class AccCertUpdateHelper {
 					eventHelper.onReviewRequested(reviewerOrDeputyRef, actualReviewerRef, cases, campaign, task, result);
 				}
 			}
-		}
+		}, result);
 	}
 
 	@NotNull
@@ -607,13 +610,15 @@ public class AccCertUpdateHelper {
 		XMLGregorianCalendar now = XmlTypeConverter.createXMLGregorianCalendar(new Date());
         int lastStageNumber = CertCampaignTypeUtil.getNumberOfStages(campaign);
         // TODO issue a warning if we are not in a correct state
+		ChunkedCampaignUpdate update = new ChunkedCampaignUpdate(this, prismContext, campaign.getOid(),
+				AccCertResumeTriggerHandler.HANDLER_URI_CLOSE_CAMPAIGN, task, result);
+		closeOpenWorkItems(campaign, now, update, result);
 		List<ItemDelta<?, ?>> deltas = new ArrayList<>();
         deltas.add(createStageNumberDelta(lastStageNumber + 1));
         deltas.add(createStateDelta(CLOSED));
         deltas.add(createTriggerDeleteDelta());
 		deltas.add(createEndTimeDelta(now));
-        deltas.addAll(createWorkItemsCloseDeltas(campaign, now, result));
-        modifyObjectViaModel(AccessCertificationCampaignType.class, campaign.getOid(), deltas, task, result);
+        update.finish(deltas);
 
         AccessCertificationCampaignType updatedCampaign = refreshCampaign(campaign, result);
         LOGGER.info("Updated campaign state: {}", updatedCampaign.getState());
@@ -627,31 +632,35 @@ public class AccCertUpdateHelper {
         }
     }
 
-	private Collection<ItemDelta<?, ?>> createWorkItemsCloseDeltas(AccessCertificationCampaignType campaign,
-			XMLGregorianCalendar now, OperationResult result) throws SchemaException, ObjectNotFoundException {
-		ObjectQuery query = CertCampaignTypeUtil.createWorkItemsForCampaignQuery(campaign.getOid(), prismContext);
-		List<AccessCertificationWorkItemType> openWorkItems = queryHelper.searchOpenWorkItems(query, null, false, null, result);
-		LOGGER.debug("There are {} open work items for {}", openWorkItems.size(), ObjectTypeUtil.toShortString(campaign));
-		Collection<ItemDelta<?, ?>> deltas = new ArrayList<>();
-		for (AccessCertificationWorkItemType workItem : openWorkItems) {
-			AccessCertificationCaseType aCase = CertCampaignTypeUtil.getCaseChecked(workItem);
-			deltas.add(
-					DeltaBuilder.deltaFor(AccessCertificationCampaignType.class, prismContext)
-							.item(F_CASE, aCase.getId(), F_WORK_ITEM, workItem.getId(), F_CLOSE_TIMESTAMP)
-							.replace(now)
-							.asItemDelta());
-		}
-		return deltas;
+	// closes open work items in batches (one modify operation per chunk of cases)
+	private void closeOpenWorkItems(AccessCertificationCampaignType campaign, XMLGregorianCalendar now,
+			ChunkedCampaignUpdate update, OperationResult result) throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+		int[] closed = { 0 };
+		queryHelper.processCasesInChunks(campaign.getOid(), cases -> {
+			List<ItemDelta<?, ?>> deltas = new ArrayList<>();
+			for (AccessCertificationCaseType aCase : cases) {
+				deltas.addAll(caseHelper.createWorkItemsCloseDeltas(aCase, now));
+			}
+			update.add(deltas);
+			closed[0] += deltas.size();
+		}, result);
+		LOGGER.debug("Closed {} open work items for {}", closed[0], ObjectTypeUtil.toShortString(campaign));
 	}
 
-	List<ItemDelta<?,?>> getDeltasForStageClose(AccessCertificationCampaignType campaign, OperationResult result) throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException {
+	/**
+	 * Closes the stage: computes outcomes and closes work items for the cases (in batches) and then records the stage
+	 * closing in the campaign. As with stage opening, an interrupted stage closing is resumed by a trigger.
+	 */
+	void closeStage(AccessCertificationCampaignType campaign, Task task, OperationResult result) throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException {
 		XMLGregorianCalendar now = XmlTypeConverter.createXMLGregorianCalendar(new Date());
-		List<ItemDelta<?,?>> rv = caseHelper.createOutcomeDeltas(campaign, result);
+		ChunkedCampaignUpdate update = new ChunkedCampaignUpdate(this, prismContext, campaign.getOid(),
+				AccCertResumeTriggerHandler.HANDLER_URI_CLOSE_STAGE, task, result);
+		caseHelper.closeStageForCases(campaign, now, update, task, result);
+		List<ItemDelta<?,?>> rv = new ArrayList<>();
         rv.add(createStateDelta(REVIEW_STAGE_DONE));
         rv.add(createStageEndTimeDelta(campaign, now));
         rv.add(createTriggerDeleteDelta());
-        rv.addAll(createWorkItemsCloseDeltas(campaign, now, result));
-        return rv;
+		update.finish(rv);
     }
 
     private ItemDelta createStageEndTimeDelta(AccessCertificationCampaignType campaign, XMLGregorianCalendar now) throws SchemaException {
@@ -32,8 +32,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import java.util.Collection;
-import java.util.List;
 
 /**
  * @author mederly
@@ -74,15 +72,12 @@ public class AccessCertificationCloseStageApproachingTriggerHandler implements T
 			}
 
 			eventHelper.onCampaignStageDeadlineApproaching(campaign, task, result);
-			List<AccessCertificationCaseType> caseList = queryHelper.searchCases(campaign.getOid(), null, null, result);
-			Collection<String> reviewers = eventHelper.getCurrentActiveReviewers(caseList);
-			for (String reviewerOid : reviewers) {
-				List<AccessCertificationCaseType> reviewerCaseList = queryHelper.selectOpenCasesForReviewer(caseList, reviewerOid);
+			queryHelper.processOpenCasesByReviewer(campaign.getOid(), (reviewerOid, reviewerCaseList) -> {
 				ObjectReferenceType actualReviewerRef = ObjectTypeUtil.createObjectRef(reviewerOid, ObjectTypes.USER);
 				for (ObjectReferenceType reviewerOrDeputyRef : updateHelper.getReviewerAndDeputies(actualReviewerRef, task, result)) {
 					eventHelper.onReviewDeadlineApproaching(reviewerOrDeputyRef, actualReviewerRef, reviewerCaseList, campaign, task, result);
 				}
-			}
+			}, result);
 		} catch (SchemaException|RuntimeException e) {
 			LoggingUtils.logException(LOGGER, "Couldn't generate 'deadline approaching' notifications", e);
 		}
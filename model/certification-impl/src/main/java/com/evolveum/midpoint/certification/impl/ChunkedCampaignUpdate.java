@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.certification.impl;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCampaignType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TriggerType;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Writes modifications of campaign cases that are computed chunk by chunk (see AccCertQueryHelper.processCasesInChunks).
+ *
+ * Modifications of a chunk are written only when the modifications of the next chunk arrive, and the modifications
+ * of the last chunk are written together with the campaign-level ones (stage number, state, triggers, ...) in finish().
+ * So a campaign that fits into a single chunk is updated in one operation.
+ *
+ * If more operations are needed, the first one adds a "resume" trigger to the campaign and each following one
+ * postpones it. The trigger is removed by the last operation. If the processing is interrupted (by an error or by
+ * the node going down), the trigger fires after RESUME_DELAY and executes the whole operation again. The operations
+ * skip cases that were already processed, and the campaign state is changed only by the last write.
+ *
+ * @author agent
+ */
+class ChunkedCampaignUpdate {
+
+	private static final transient Trace LOGGER = TraceManager.getTrace(ChunkedCampaignUpdate.class);
+
+	// time without any progress after which the operation is considered to be interrupted
+	static final long RESUME_DELAY = 10 * 60 * 1000L;
+
+	private final AccCertUpdateHelper updateHelper;
+	private final PrismContext prismContext;
+	private final String campaignOid;
+	private final String resumeHandlerUri;
+	private final Task task;
+	private final OperationResult result;
+
+	private final List<ItemDelta<?, ?>> pendingDeltas = new ArrayList<>();
+	private Long resumeTriggerId;
+	private int operations;
+
+	ChunkedCampaignUpdate(AccCertUpdateHelper updateHelper, PrismContext prismContext, String campaignOid,
+			String resumeHandlerUri, Task task, OperationResult result) {
+		this.updateHelper = updateHelper;
+		this.prismContext = prismContext;
+		this.campaignOid = campaignOid;
+		this.resumeHandlerUri = resumeHandlerUri;
+		this.task = task;
+		this.result = result;
+	}
+
+	void add(Collection<? extends ItemDelta<?, ?>> deltas)
+			throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+		if (deltas.isEmpty()) {
+			return;
+		}
+		if (!pendingDeltas.isEmpty()) {
+			List<ItemDelta<?, ?>> toWrite = new ArrayList<>(pendingDeltas);
+			toWrite.add(createResumeTriggerDelta());
+			write(toWrite);
+			pendingDeltas.clear();
+		}
+		pendingDeltas.addAll(deltas);
+	}
+
+	void finish(Collection<? extends ItemDelta<?, ?>> campaignDeltas)
+			throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+		List<ItemDelta<?, ?>> toWrite = new ArrayList<>(pendingDeltas);
+		toWrite.addAll(campaignDeltas);
+		if (resumeTriggerId != null && !replacesTriggers(campaignDeltas)) {
+			toWrite.add(DeltaBuilder.deltaFor(AccessCertificationCampaignType.class, prismContext)
+					.item(ObjectType.F_TRIGGER).delete(new TriggerType(prismContext).id(resumeTriggerId))
+					.asItemDelta());
+		}
+		write(toWrite);
+		pendingDeltas.clear();
+		LOGGER.debug("Campaign {} updated in {} operation(s)", campaignOid, operations);
+	}
+
+	private void write(List<ItemDelta<?, ?>> deltas)
+			throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+		if (!deltas.isEmpty()) {
+			updateHelper.modifyObjectViaModel(AccessCertificationCampaignType.class, campaignOid, deltas, task, result);
+			operations++;
+		}
+	}
+
+	private ItemDelta<?, ?> createResumeTriggerDelta() throws SchemaException {
+		XMLGregorianCalendar resumeTimestamp = XmlTypeConverter.createXMLGregorianCalendar(System.currentTimeMillis() + RESUME_DELAY);
+		if (resumeTriggerId == null) {
+			// pseudo-random ID for the same reason as for the stage triggers (see AccCertUpdateHelper.createDeltasToRecordStageOpen)
+			resumeTriggerId = (long) (Math.random() * 1000000000);
+			LOGGER.trace("Adding resume trigger {} ({}) to campaign {}", resumeTriggerId, resumeHandlerUri, campaignOid);
+			return DeltaBuilder.deltaFor(AccessCertificationCampaignType.class, prismContext)
+					.item(ObjectType.F_TRIGGER).add(new TriggerType(prismContext)
+							.id(resumeTriggerId)
+							.handlerUri(resumeHandlerUri)
+							.timestamp(resumeTimestamp))
+					.asItemDelta();
+		} else {
+			return DeltaBuilder.deltaFor(AccessCertificationCampaignType.class, prismContext)
+					.item(ObjectType.F_TRIGGER, resumeTriggerId, TriggerType.F_TIMESTAMP).replace(resumeTimestamp)
+					.asItemDelta();
+		}
+	}
+
+	private boolean replacesTriggers(Collection<? extends ItemDelta<?, ?>> deltas) {
+		ItemPath triggerPath = new ItemPath(ObjectType.F_TRIGGER);
+		return deltas.stream().anyMatch(delta -> delta.isReplace() && triggerPath.equivalent(delta.getPath()));
+	}
+}
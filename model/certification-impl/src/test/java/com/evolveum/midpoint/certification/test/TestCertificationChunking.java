@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.certification.test;
+
+import com.evolveum.midpoint.certification.impl.AccCertQueryHelper;
+import com.evolveum.midpoint.certification.impl.AccCertResumeTriggerHandler;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCampaignStateType.*;
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Tests processing of campaign cases in chunks: the chunk size is set so low that each operation needs more chunks.
+ * Also tests resuming of an interrupted stage opening.
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = {"classpath:ctx-certification-test-main.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class TestCertificationChunking extends AbstractCertificationTest {
+
+	protected static final File CERT_DEF_FILE = new File(COMMON_DIR, "certification-of-critical-roles-chunked.xml");
+
+	private static final int CHUNK_SIZE = 2;
+	private static final int CASES = 6;			// see TestCriticalRolesCertification
+
+	// used by the reviewer expression of stage 2
+	public static volatile Long failOnCaseId;
+
+	@Autowired private AccCertResumeTriggerHandler resumeTriggerHandler;
+
+	private AccessCertificationDefinitionType certificationDefinition;
+	private String campaignOid;
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+		assignRole(USER_JACK_OID, ROLE_CTO_OID);
+		queryHelper.setCasesChunkSize(CHUNK_SIZE);
+		queryHelper.setReviewerCasesInMemory(1);
+	}
+
+	@AfterClass
+	public void resetChunking() {
+		queryHelper.setCasesChunkSize(AccCertQueryHelper.DEFAULT_CASES_CHUNK_SIZE);
+		queryHelper.setReviewerCasesInMemory(AccCertQueryHelper.DEFAULT_REVIEWER_CASES_IN_MEMORY);
+		failOnCaseId = null;
+	}
+
+	@Test
+	public void test010CreateCampaign() throws Exception {
+		final String TEST_NAME = "test010CreateCampaign";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		Task task = taskManager.createTaskInstance(TestCertificationChunking.class.getName() + "." + TEST_NAME);
+		OperationResult result = task.getResult();
+
+		certificationDefinition = repoAddObjectFromFile(CERT_DEF_FILE,
+				AccessCertificationDefinitionType.class, result).asObjectable();
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		AccessCertificationCampaignType campaign =
+				certificationManager.createCampaign(certificationDefinition.getOid(), task, result);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+
+		assertNotNull("Created campaign is null", campaign);
+		campaignOid = campaign.getOid();
+		assertAfterCampaignCreate(getCampaignWithCases(campaignOid), certificationDefinition);
+	}
+
+	@Test
+	public void test020OpenFirstStage() throws Exception {
+		final String TEST_NAME = "test020OpenFirstStage";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		Task task = taskManager.createTaskInstance(TestCertificationChunking.class.getName() + "." + TEST_NAME);
+		task.setOwner(userAdministrator.asPrismObject());
+		OperationResult result = task.getResult();
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		certificationManager.openNextStage(campaignOid, 1, task, result);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+
+		AccessCertificationCampaignType campaign = getCampaignWithCases(campaignOid);
+		display("campaign in stage 1", campaign);
+		assertAfterCampaignStart(campaign, certificationDefinition, CASES);
+		assertDistinctCases(campaign);
+		for (AccessCertificationCaseType aCase : campaign.getCase()) {
+			assertEquals("Wrong stage of " + aCase, 1, aCase.getStageNumber());
+			assertOpenWorkItems(aCase, 1, 1);
+		}
+		assertNoResumeTrigger(campaign);
+	}
+
+	@Test
+	public void test030CloseFirstStage() throws Exception {
+		final String TEST_NAME = "test030CloseFirstStage";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		Task task = taskManager.createTaskInstance(TestCertificationChunking.class.getName() + "." + TEST_NAME);
+		task.setOwner(userAdministrator.asPrismObject());
+		OperationResult result = task.getResult();
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		certificationManager.closeCurrentStage(campaignOid, 1, task, result);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+
+		AccessCertificationCampaignType campaign = getCampaignWithCases(campaignOid);
+		display("campaign after closing stage 1", campaign);
+		assertAfterStageClose(campaign, certificationDefinition, 1);
+		assertEquals("Wrong # of cases", CASES, campaign.getCase().size());
+		for (AccessCertificationCaseType aCase : campaign.getCase()) {
+			assertOpenWorkItems(aCase, 1, 0);
+		}
+		assertNoResumeTrigger(campaign);
+	}
+
+	/**
+	 * Reviewer expression fails for a case in the last chunk, so opening of the stage is interrupted.
+	 * Only the first chunk is written (each chunk is written only when the next one is ready),
+	 * the campaign stays in the original state and gets a resume trigger.
+	 */
+	@Test
+	public void test040OpenSecondStageInterrupted() throws Exception {
+		final String TEST_NAME = "test040OpenSecondStageInterrupted";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		Task task = taskManager.createTaskInstance(TestCertificationChunking.class.getName() + "." + TEST_NAME);
+		task.setOwner(userAdministrator.asPrismObject());
+		OperationResult result = task.getResult();
+		List<Long> caseIds = getSortedCaseIds(getCampaignWithCases(campaignOid));
+		failOnCaseId = caseIds.get(CASES - 1);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		try {
+			certificationManager.openNextStage(campaignOid, 2, task, result);
+			fail("Unexpected success");
+		} catch (RuntimeException e) {
+			display("Expected exception", e);
+		} finally {
+			failOnCaseId = null;
+		}
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		AccessCertificationCampaignType campaign = getCampaignWithCases(campaignOid);
+		display("campaign after interrupted opening of stage 2", campaign);
+		assertStateAndStage(campaign, REVIEW_STAGE_DONE, 1);
+		assertEquals("Wrong # of cases", CASES, campaign.getCase().size());
+		Set<Long> firstChunk = new HashSet<>(caseIds.subList(0, CHUNK_SIZE));
+		for (AccessCertificationCaseType aCase : campaign.getCase()) {
+			int expectedStage = firstChunk.contains(aCase.getId()) ? 2 : 1;
+			assertEquals("Wrong stage of " + aCase, expectedStage, aCase.getStageNumber());
+		}
+		assertNotNull("No resume trigger", findResumeTrigger(campaign));
+	}
+
+	@Test
+	public void test050ResumeOpeningSecondStage() throws Exception {
+		final String TEST_NAME = "test050ResumeOpeningSecondStage";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		Task task = taskManager.createTaskInstance(TestCertificationChunking.class.getName() + "." + TEST_NAME);
+		task.setOwner(userAdministrator.asPrismObject());
+		OperationResult result = task.getResult();
+		AccessCertificationCampaignType campaign = getCampaignWithCases(campaignOid);
+		TriggerType trigger = findResumeTrigger(campaign);
+		assertEquals("Wrong resume trigger", AccCertResumeTriggerHandler.HANDLER_URI_OPEN_STAGE, trigger.getHandlerUri());
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		resumeTriggerHandler.handle(campaign.asPrismObject(), trigger, task, result);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+
+		campaign = getCampaignWithCases(campaignOid);
+		display("campaign in stage 2", campaign);
+		assertAfterStageOpen(campaign, certificationDefinition, 2);
+		assertDistinctCases(campaign);
+		for (AccessCertificationCaseType aCase : campaign.getCase()) {
+			assertEquals("Wrong stage of " + aCase, 2, aCase.getStageNumber());
+			assertOpenWorkItems(aCase, 2, 1);		// cases advanced before the interruption got no second work item
+		}
+		assertNoResumeTrigger(campaign);
+	}
+
+	@Test
+	public void test060CloseCampaign() throws Exception {
+		final String TEST_NAME = "test060CloseCampaign";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		Task task = taskManager.createTaskInstance(TestCertificationChunking.class.getName() + "." + TEST_NAME);
+		task.setOwner(userAdministrator.asPrismObject());
+		OperationResult result = task.getResult();
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		certificationManager.closeCampaign(campaignOid, task, result);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+
+		AccessCertificationCampaignType campaign = getCampaignWithCases(campaignOid);
+		display("closed campaign", campaign);
+		assertStateAndStage(campaign, CLOSED, 3);
+		for (AccessCertificationCaseType aCase : campaign.getCase()) {
+			assertOpenWorkItems(aCase, 2, 0);
+		}
+		assertTrue("Unexpected triggers: " + campaign.getTrigger(), campaign.getTrigger().isEmpty());
+	}
+
+	private void assertDistinctCases(AccessCertificationCampaignType campaign) {
+		Set<String> keys = new HashSet<>();
+		for (AccessCertificationCaseType aCase : campaign.getCase()) {
+			String key = aCase.getObjectRef().getOid() + "->" + aCase.getTargetRef().getOid();
+			assertTrue("Duplicate case " + key, keys.add(key));
+		}
+		assertEquals("Wrong # of cases", CASES, keys.size());
+	}
+
+	private void assertOpenWorkItems(AccessCertificationCaseType aCase, int stageNumber, int expected) {
+		List<AccessCertificationWorkItemType> stageWorkItems = aCase.getWorkItem().stream()
+				.filter(wi -> wi.getStageNumber() == stageNumber)
+				.collect(Collectors.toList());
+		if (expected > 0) {
+			assertEquals("Wrong # of work items for stage " + stageNumber + " in " + aCase, expected, stageWorkItems.size());
+		}
+		long open = aCase.getWorkItem().stream().filter(wi -> wi.getCloseTimestamp() == null).count();
+		assertEquals("Wrong # of open work items in " + aCase, expected, open);
+	}
+
+	private List<Long> getSortedCaseIds(AccessCertificationCampaignType campaign) {
+		return campaign.getCase().stream()
+				.map(AccessCertificationCaseType::getId)
+				.sorted()
+				.collect(Collectors.toList());
+	}
+
+	private TriggerType findResumeTrigger(AccessCertificationCampaignType campaign) {
+		List<TriggerType> triggers = campaign.getTrigger().stream()
+				.filter(t -> isResumeTrigger(t.getHandlerUri()))
+				.collect(Collectors.toList());
+		assertTrue("More than one resume trigger: " + triggers, triggers.size() <= 1);
+		return triggers.isEmpty() ? null : triggers.get(0);
+	}
+
+	private void assertNoResumeTrigger(AccessCertificationCampaignType campaign) {
+		assertNull("Unexpected resume trigger", findResumeTrigger(campaign));
+	}
+
+	private boolean isResumeTrigger(String handlerUri) {
+		return AccCertResumeTriggerHandler.HANDLER_URI_OPEN_STAGE.equals(handlerUri)
+				|| AccCertResumeTriggerHandler.HANDLER_URI_CLOSE_STAGE.equals(handlerUri)
+				|| AccCertResumeTriggerHandler.HANDLER_URI_CLOSE_CAMPAIGN.equals(handlerUri);
+	}
+}
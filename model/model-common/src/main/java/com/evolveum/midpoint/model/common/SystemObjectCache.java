@@ -17,11 +17,18 @@ package com.evolveum.midpoint.model.common;
 
 import java.util.Collection;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SelectorOptions;
@@ -30,6 +37,7 @@ import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemObjectsType;
 
@@ -44,6 +52,9 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemObjectsType;
  * the number of getObject(SystemConfiguration) and the getVersion(SystemConfiguration)
  * calls.
  *
+ * Committed changes of the system configuration (also on other cluster nodes, if cache
+ * invalidation channel is configured) are received via CacheDispatcher.
+ *
  * In the future: May be used for more objects that are often used and seldom
  * changed, e.g. object templates.
  *
@@ -52,7 +63,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemObjectsType;
  * @author semancik
  */
 @Component
-public class SystemObjectCache {
+public class SystemObjectCache implements CacheListener {
 
 	private static final Trace LOGGER = TraceManager.getTrace(SystemObjectCache.class);
 
@@ -60,9 +71,26 @@ public class SystemObjectCache {
 	@Qualifier("cacheRepositoryService")
 	private transient RepositoryService cacheRepositoryService;
 
+	@Autowired(required = false)
+	private CacheDispatcher cacheDispatcher;
+
 	private PrismObject<SystemConfigurationType> systemConfiguration;
 	private Long systemConfigurationCheckTimestamp;
 
+	@PostConstruct
+	public void registerListener() {
+		if (cacheDispatcher != null) {
+			cacheDispatcher.registerCacheListener(this);
+		}
+	}
+
+	@PreDestroy
+	public void unregisterListener() {
+		if (cacheDispatcher != null) {
+			cacheDispatcher.unregisterCacheListener(this);
+		}
+	}
+
 	private long getSystemConfigurationExpirationMillis() {
 		return 1000;
 	}
@@ -120,4 +148,18 @@ public class SystemObjectCache {
 	public synchronized void invalidateCaches() {
 		systemConfiguration = null;
 	}
+
+	@Override
+	public <O extends ObjectType> void invalidate(@NotNull Class<O> type, @NotNull String oid, @Nullable String version,
+			boolean clusterwide) {
+		if (type.isAssignableFrom(SystemConfigurationType.class) && SystemObjectsType.SYSTEM_CONFIGURATION.value().equals(oid)) {
+			LOGGER.trace("Invalidating cached system configuration (new version: {}, clusterwide: {})", version, clusterwide);
+			invalidateCaches();
+		}
+	}
+
+	@Override
+	public void invalidateAll(boolean clusterwide) {
+		invalidateCaches();
+	}
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.common.expression.script;
+
+import com.evolveum.midpoint.schema.internals.CachingStatistics;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Default script cache: holds at most maxSize compiled scripts, evicting the least recently used ones.
+ * So scripts from deleted or changed configuration objects eventually leave the memory.
+ *
+ * The cache is divided into segments that are locked independently, so concurrent evaluations do not
+ * contend on a single lock. The LRU order is kept per segment; caches that are too small to be split
+ * have one segment and hence exact LRU order.
+ *
+ * @author agent
+ */
+public class BoundedScriptCache<S> implements ScriptCache<S> {
+
+	public static final int DEFAULT_MAX_SIZE = 10000;
+
+	private static final int MAX_SEGMENTS = 16;
+	private static final int MIN_SEGMENT_SIZE = 100;
+
+	private final int maxSize;
+	private final Cache<String, S> scripts;
+
+	public BoundedScriptCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	public BoundedScriptCache(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("Script cache size must be positive: " + maxSize);
+		}
+		this.maxSize = maxSize;
+		this.scripts = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.concurrencyLevel(Math.max(1, Math.min(MAX_SEGMENTS, maxSize / MIN_SEGMENT_SIZE)))
+				.recordStats()
+				.build();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	@Override
+	public S get(@NotNull String code) {
+		return scripts.getIfPresent(code);
+	}
+
+	@Override
+	public void put(@NotNull String code, @NotNull S compiledScript) {
+		scripts.put(code, compiledScript);
+	}
+
+	@Override
+	public boolean contains(@NotNull String code) {
+		return scripts.asMap().containsKey(code);
+	}
+
+	@Override
+	public void clear() {
+		scripts.invalidateAll();
+	}
+
+	@Override
+	public int size() {
+		return (int) scripts.size();
+	}
+
+	@NotNull
+	@Override
+	public CachingStatistics getStatistics() {
+		CacheStats stats = scripts.stats();
+		CachingStatistics statistics = new CachingStatistics();
+		statistics.setRequests(stats.requestCount());
+		statistics.setHits(stats.hitCount());
+		statistics.setMisses(stats.missCount());
+		return statistics;
+	}
+
+	@Override
+	public long getEvictions() {
+		return scripts.stats().evictionCount();
+	}
+
+	@Override
+	public String toString() {
+		return "BoundedScriptCache(size=" + scripts.size() + ", maxSize=" + maxSize + ", evictions=" + getEvictions()
+				+ ", " + getStatistics() + ")";
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.common.expression.script;
+
+import com.evolveum.midpoint.schema.internals.CachingStatistics;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Cache of compiled scripts, keyed by script source code. Used by script evaluators that compile
+ * the scripts before execution. Implementations must be thread safe.
+ *
+ * @param <S> type of compiled scripts
+ *
+ * @author agent
+ */
+public interface ScriptCache<S> {
+
+	/**
+	 * Returns compiled script for given code or null if there is none. Records the request in statistics.
+	 */
+	S get(@NotNull String code);
+
+	void put(@NotNull String code, @NotNull S compiledScript);
+
+	/**
+	 * Returns true if there is a compiled script for given code. Does not influence statistics nor eviction.
+	 */
+	boolean contains(@NotNull String code);
+
+	void clear();
+
+	int size();
+
+	/**
+	 * Requests, hits and misses of get() calls (a snapshot).
+	 */
+	@NotNull
+	CachingStatistics getStatistics();
+
+	long getEvictions();
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.common.expression.script;
+
+import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.histogram.Histogram;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects evaluation times of script expressions, per expression (context description) and the object the expression
+ * is defined in, if known. For each expression a latency histogram is kept.
+ *
+ * The profiler is disabled by default. When enabled, the overhead is two calls to System.nanoTime, one hash map
+ * lookup and one uncontended lock per evaluation. The number of distinct entries is limited; evaluations
+ * exceeding the limit are recorded in a common "other expressions" entry.
+ *
+ * The object is determined by the thread-local value set by {@link #enterObject(ObjectType)}, typically by the
+ * mapping being evaluated.
+ *
+ * There is a single instance per JVM (as script evaluators are not necessarily Spring beans). It is configured
+ * and registered in JMX by {@link ScriptEvaluationProfilerManager}.
+ *
+ * @author agent
+ */
+public class ScriptEvaluationProfiler implements ScriptEvaluationProfilerMBean {
+
+	public static final int DEFAULT_MAX_ENTRIES = 5000;
+
+	// histogram buckets are 1 ms wide; everything above 100 ms goes to the last one
+	private static final int HISTOGRAM_STEP = 1000;
+	private static final int HISTOGRAM_LENGTH = 100;
+	private static final int HISTOGRAM_COLUMNS = 40;
+
+	private static final String OTHER_EXPRESSIONS = "(other expressions)";
+
+	private static final ScriptEvaluationProfiler INSTANCE = new ScriptEvaluationProfiler();
+
+	private static final ThreadLocal<ObjectType> CURRENT_OBJECT = new ThreadLocal<>();
+
+	private volatile boolean enabled;
+	private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+	private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+	private static class Key {
+		private final String expression;
+		private final String objectOid;
+
+		private Key(String expression, String objectOid) {
+			this.expression = expression;
+			this.objectOid = objectOid;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			Key key = (Key) o;
+			return Objects.equals(expression, key.expression) && Objects.equals(objectOid, key.objectOid);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(expression, objectOid);
+		}
+	}
+
+	private static class Entry {
+		private final String expression;
+		private final String object;
+		private final Histogram<Object> histogram = new Histogram<>(HISTOGRAM_STEP, HISTOGRAM_LENGTH);
+		private int failures;
+
+		private Entry(String expression, String object) {
+			this.expression = expression;
+			this.object = object;
+		}
+
+		private synchronized void record(Object item, long micros, boolean success) {
+			histogram.register(item, micros);
+			if (!success) {
+				failures++;
+			}
+		}
+
+		private synchronized long getTotalTime() {
+			return histogram.getTotalValue();
+		}
+
+		private synchronized String dumpSummaryLine() {
+			int count = histogram.getItems();
+			return String.format("%12d : %8d : %10d : %10d : %6d : %s%s\n", histogram.getTotalValue(), count,
+					count > 0 ? histogram.getTotalValue() / count : 0, histogram.getMaxValue(), failures, expression,
+					object != null ? " [" + object + "]" : "");
+		}
+
+		private synchronized String dumpHistogram() {
+			return histogram.dump(HISTOGRAM_COLUMNS);
+		}
+	}
+
+	public static ScriptEvaluationProfiler getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Sets the object in which the expressions evaluated by the current thread are defined.
+	 * Returns the previous value, to be restored by {@link #exitObject(ObjectType)}.
+	 */
+	public static ObjectType enterObject(ObjectType object) {
+		ObjectType previous = CURRENT_OBJECT.get();
+		CURRENT_OBJECT.set(object);
+		return previous;
+	}
+
+	public static void exitObject(ObjectType previous) {
+		CURRENT_OBJECT.set(previous);
+	}
+
+	public static ObjectType getCurrentObject() {
+		return CURRENT_OBJECT.get();
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	void record(String contextDescription, ObjectType object, Task task, long micros, boolean success) {
+		if (!enabled) {
+			return;
+		}
+		Key key = new Key(contextDescription, object != null ? object.getOid() : null);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			if (entries.size() >= maxEntries) {
+				key = new Key(OTHER_EXPRESSIONS, null);
+			}
+			entry = entries.computeIfAbsent(key,
+					k -> new Entry(k.expression, object != null && k.objectOid != null ? ObjectTypeUtil.toShortString(object) : null));
+		}
+		entry.record(task != null ? task.getName() : null, micros, success);
+	}
+
+	@Override
+	public int getEntriesCount() {
+		return entries.size();
+	}
+
+	@Override
+	public long getEvaluationsCount() {
+		long count = 0;
+		for (Entry entry : entries.values()) {
+			synchronized (entry) {
+				count += entry.histogram.getItems();
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public long getTotalTimeMicros() {
+		long total = 0;
+		for (Entry entry : entries.values()) {
+			total += entry.getTotalTime();
+		}
+		return total;
+	}
+
+	/**
+	 * Number of evaluations of given expression (in any object).
+	 */
+	public long getEvaluationsCount(String contextDescription) {
+		long count = 0;
+		for (Entry entry : entries.values()) {
+			if (Objects.equals(entry.expression, contextDescription)) {
+				synchronized (entry) {
+					count += entry.histogram.getItems();
+				}
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public String dumpSummary(int limit) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%12s : %8s : %10s : %10s : %6s : %s\n", "Total (us)", "Count", "Avg (us)", "Max (us)",
+				"Failed", "Expression [object]"));
+		for (Entry entry : getTopEntries(limit)) {
+			sb.append(entry.dumpSummaryLine());
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String dumpHistograms(int limit) {
+		StringBuilder sb = new StringBuilder();
+		for (Entry entry : getTopEntries(limit)) {
+			sb.append("===> ").append(entry.expression);
+			if (entry.object != null) {
+				sb.append(" [").append(entry.object).append("]");
+			}
+			sb.append(" (times in microseconds)\n\n").append(entry.dumpHistogram()).append("\n");
+		}
+		return sb.toString();
+	}
+
+	@NotNull
+	private List<Entry> getTopEntries(int limit) {
+		List<Entry> list = new ArrayList<>(entries.values());
+		list.sort(Comparator.comparingLong(Entry::getTotalTime).reversed());
+		return list.size() > limit && limit >= 0 ? list.subList(0, limit) : list;
+	}
+
+	@Override
+	public void reset() {
+		entries.clear();
+	}
+}
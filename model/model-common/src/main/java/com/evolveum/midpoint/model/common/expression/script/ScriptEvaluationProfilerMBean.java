@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.common.expression.script;
+
+/**
+ * JMX interface of the script evaluation profiler.
+ *
+ * @author agent
+ */
+public interface ScriptEvaluationProfilerMBean {
+
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	int getEntriesCount();
+
+	long getEvaluationsCount();
+
+	long getTotalTimeMicros();
+
+	/**
+	 * Expressions with the highest total evaluation time (at most 'limit' of them).
+	 */
+	String dumpSummary(int limit);
+
+	/**
+	 * Summary plus latency histograms for expressions with the highest total evaluation time.
+	 */
+	String dumpHistograms(int limit);
+
+	void reset();
+}
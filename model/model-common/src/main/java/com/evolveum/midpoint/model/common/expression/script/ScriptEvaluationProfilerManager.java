@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.common.expression.script;
+
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.apache.commons.configuration.Configuration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Configures the script evaluation profiler and registers it in JMX, where it can be observed, switched on or off
+ * and reset.
+ *
+ * Configuration (in config.xml):
+ *
+ *   &lt;scripting&gt;
+ *       &lt;profiling&gt;true&lt;/profiling&gt;                        &lt;!-- default is false --&gt;
+ *       &lt;profilingMaxEntries&gt;5000&lt;/profilingMaxEntries&gt;
+ *   &lt;/scripting&gt;
+ *
+ * @author agent
+ */
+@Component
+public class ScriptEvaluationProfilerManager {
+
+	private static final Trace LOGGER = TraceManager.getTrace(ScriptEvaluationProfilerManager.class);
+
+	public static final String MBEAN_NAME = "com.evolveum.midpoint:type=ScriptEvaluationProfiler";
+
+	public static final String CONFIGURATION_SECTION = "midpoint.scripting";
+	public static final String CONFIGURATION_PROFILING = "profiling";
+	public static final String CONFIGURATION_PROFILING_MAX_ENTRIES = "profilingMaxEntries";
+
+	@Autowired(required = false) private MidpointConfiguration midpointConfiguration;
+
+	@PostConstruct
+	public void init() {
+		ScriptEvaluationProfiler profiler = ScriptEvaluationProfiler.getInstance();
+		if (midpointConfiguration != null) {
+			Configuration configuration = midpointConfiguration.getConfiguration(CONFIGURATION_SECTION);
+			profiler.setEnabled(configuration.getBoolean(CONFIGURATION_PROFILING, false));
+			profiler.setMaxEntries(configuration.getInt(CONFIGURATION_PROFILING_MAX_ENTRIES,
+					ScriptEvaluationProfiler.DEFAULT_MAX_ENTRIES));
+		}
+		LOGGER.debug("Script evaluation profiling: {}, max entries: {}", profiler.isEnabled(), profiler.getMaxEntries());
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(profiler, new ObjectName(MBEAN_NAME));
+		} catch (InstanceAlreadyExistsException e) {
+			LOGGER.debug("Script evaluation profiler MBean is already registered");
+		} catch (JMException | RuntimeException e) {
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't register script evaluation profiler MBean", e);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(MBEAN_NAME));
+		} catch (InstanceNotFoundException e) {
+			// nothing to do
+		} catch (JMException | RuntimeException e) {
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't unregister script evaluation profiler MBean", e);
+		}
+	}
+}
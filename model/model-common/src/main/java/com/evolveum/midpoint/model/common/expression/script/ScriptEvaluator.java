@@ -54,4 +54,13 @@ public interface ScriptEvaluator {
 	 */
 	String getLanguageUrl();
 
+	/**
+	 * Compiles the script in advance (if the evaluator compiles scripts at all), so that its first evaluation
+	 * is faster. Returns true if the script was compiled, false if the evaluator does not compile scripts
+	 * or the script is already compiled.
+	 */
+	default boolean precompile(String codeString, String contextDescription) throws ExpressionEvaluationException {
+		return false;
+	}
+
 }
@@ -35,6 +35,7 @@ import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionEvaluatorType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionReturnTypeType;
 import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
@@ -101,11 +102,15 @@ public class ScriptExpression {
 		ScriptExpressionEvaluationContext context = new ScriptExpressionEvaluationContext(variables, contextDescription, result, task, this);
 		context.setEvaluateNew(useNew);
 
+		boolean profiled = ScriptEvaluationProfiler.getInstance().isEnabled();
+		long start = profiled ? System.nanoTime() : 0;
+		boolean success = false;
 		try {
 			context.setupThreadLocal();
 
 			List<V> expressionResult = evaluator.evaluate(scriptType, variables, outputDefinition, additionalConvertor, suggestedReturnType, objectResolver, functions, contextDescription, task, result);
 
+			success = true;
 			traceExpressionSuccess(variables, contextDescription, expressionResult);
 	        return expressionResult;
 
@@ -114,6 +119,17 @@ public class ScriptExpression {
 			throw ex;
 		} finally {
 			context.cleanupThreadLocal();
+			if (profiled) {
+				recordEvaluation(contextDescription, task, (System.nanoTime() - start) / 1000, success);
+			}
+		}
+	}
+
+	private void recordEvaluation(String contextDescription, Task task, long micros, boolean success) {
+		ObjectType object = ScriptEvaluationProfiler.getCurrentObject();
+		ScriptEvaluationProfiler.getInstance().record(contextDescription, object, task, micros, success);
+		if (task != null) {
+			task.recordScriptOperation(contextDescription, object != null ? String.valueOf(object.getName()) : null, micros);
 		}
 	}
 
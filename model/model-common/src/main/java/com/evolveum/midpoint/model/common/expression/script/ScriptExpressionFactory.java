@@ -133,6 +133,16 @@ public class ScriptExpressionFactory {
 		return expression;
 	}
 
+	/**
+	 * Compiles the script in advance, using the evaluator that would evaluate it. Returns true if the script was compiled.
+	 */
+	public boolean precompile(ScriptExpressionEvaluatorType expressionType, String shortDesc) throws ExpressionSyntaxException, ExpressionEvaluationException {
+		if (expressionType.getCode() == null) {
+			return false;
+		}
+		return getEvaluator(getLanguage(expressionType), shortDesc).precompile(expressionType.getCode(), shortDesc);
+	}
+
 	public void registerEvaluator(String language, ScriptEvaluator evaluator) {
 		if (evaluatorMap.containsKey(language)) {
 			throw new IllegalArgumentException("Evaluator for language "+language+" already registered");
@@ -18,8 +18,6 @@ package com.evolveum.midpoint.model.common.expression.script.jsr223;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 import javax.script.AbstractScriptEngine;
@@ -32,6 +30,8 @@ import javax.script.ScriptException;
 import javax.xml.namespace.QName;
 
 import com.evolveum.midpoint.model.common.expression.functions.FunctionLibrary;
+import com.evolveum.midpoint.model.common.expression.script.BoundedScriptCache;
+import com.evolveum.midpoint.model.common.expression.script.ScriptCache;
 import com.evolveum.midpoint.model.common.expression.script.ScriptEvaluator;
 import com.evolveum.midpoint.model.common.expression.script.ScriptExpressionUtil;
 import com.evolveum.midpoint.prism.ItemDefinition;
@@ -57,6 +57,7 @@ import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SystemException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionEvaluatorType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionReturnTypeType;
+import org.jetbrains.annotations.NotNull;
 
 /**
  * Expression evaluator that is using javax.script (JSR-223) engine.
@@ -72,7 +73,7 @@ public class Jsr223ScriptEvaluator implements ScriptEvaluator {
 	private PrismContext prismContext;
 	private Protector protector;
 
-	private Map<String, CompiledScript> scriptCache;
+	@NotNull private ScriptCache<CompiledScript> scriptCache = new BoundedScriptCache<>();
 
 	public Jsr223ScriptEvaluator(String engineName, PrismContext prismContext, Protector protector) {
 		ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
@@ -82,7 +83,27 @@ public class Jsr223ScriptEvaluator implements ScriptEvaluator {
 		}
 		this.prismContext = prismContext;
 		this.protector = protector;
-		this.scriptCache = new ConcurrentHashMap<>();
+	}
+
+	@NotNull
+	public ScriptCache<CompiledScript> getScriptCache() {
+		return scriptCache;
+	}
+
+	/**
+	 * Replaces the cache of compiled scripts. Scripts compiled so far are not transferred.
+	 */
+	public void setScriptCache(@NotNull ScriptCache<CompiledScript> scriptCache) {
+		this.scriptCache = scriptCache;
+	}
+
+	@Override
+	public boolean precompile(String codeString, String contextDescription) throws ExpressionEvaluationException {
+		if (codeString == null || scriptCache.contains(codeString)) {
+			return false;
+		}
+		scriptCache.put(codeString, compileScript(codeString, contextDescription));
+		return true;
 	}
 
 	@Override
@@ -195,14 +216,18 @@ public class Jsr223ScriptEvaluator implements ScriptEvaluator {
 		if (compiledScript != null) {
 			return compiledScript;
 		}
+		compiledScript = compileScript(codeString, contextDescription);
+		scriptCache.put(codeString, compiledScript);
+		return compiledScript;
+	}
+
+	private CompiledScript compileScript(String codeString, String contextDescription) throws ExpressionEvaluationException {
 		try {
 			InternalMonitor.recordCount(InternalCounters.SCRIPT_COMPILE_COUNT);
-			compiledScript = ((Compilable)scriptEngine).compile(codeString);
+			return ((Compilable)scriptEngine).compile(codeString);
 		} catch (ScriptException e) {
 			throw new ExpressionEvaluationException(e.getMessage() + " in " + contextDescription, e);
 		}
-		scriptCache.put(codeString, compiledScript);
-		return compiledScript;
 	}
 
 	private <T> T convertScalarResult(Class<T> expectedType, Function<Object, Object> additionalConvertor, Object rawValue, String contextDescription) throws ExpressionEvaluationException {
@@ -38,6 +38,7 @@ import org.w3c.dom.Element;
 import com.evolveum.midpoint.common.filter.Filter;
 import com.evolveum.midpoint.common.filter.FilterManager;
 import com.evolveum.midpoint.common.refinery.RefinedObjectClassDefinition;
+import com.evolveum.midpoint.model.common.expression.script.ScriptEvaluationProfiler;
 import com.evolveum.midpoint.prism.delta.PrismValueDeltaSetTriple;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
@@ -403,6 +404,7 @@ public class Mapping<V extends PrismValue,D extends ItemDefinition> implements D
 
         traceEvaluationStart();
 
+		ObjectType previousProfiledObject = ScriptEvaluationProfiler.enterObject(originObject);
 		try {
 
 			// We may need to re-parse the sources here
@@ -449,6 +451,8 @@ public class Mapping<V extends PrismValue,D extends ItemDefinition> implements D
 			result.recordFatalError(e);
 			traceFailure(e);
 			throw e;
+		} finally {
+			ScriptEvaluationProfiler.exitObject(previousProfiledObject);
 		}
 	}
 
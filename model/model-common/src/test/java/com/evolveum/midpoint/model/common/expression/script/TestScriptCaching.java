@@ -16,6 +16,7 @@
 package com.evolveum.midpoint.model.common.expression.script;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertTrue;
 
 import java.io.File;
@@ -133,6 +134,93 @@ public class TestScriptCaching {
     	assertTrue("Even Horatio was wrong! "+horatio1Time+" -> "+horatio2Time, horatio2Time <= horatio1Time);
     }
 
+    @Test
+    public void testPrecompile() throws Exception {
+    	final String TEST_NAME = "testPrecompile";
+    	TestUtil.displayTestTitle(TEST_NAME);
+
+    	// GIVEN
+    	Jsr223ScriptEvaluator groovyEvaluator = new Jsr223ScriptEvaluator("groovy", PrismTestUtil.getPrismContext(), new ProtectorImpl());
+    	ScriptExpressionEvaluatorType scriptType = parseScriptType("expression-string-variables.xml");
+    	InternalMonitor.reset();
+
+    	// WHEN
+    	boolean first = groovyEvaluator.precompile(scriptType.getCode(), TEST_NAME);
+    	boolean second = groovyEvaluator.precompile(scriptType.getCode(), TEST_NAME);
+
+    	// THEN
+    	assertTrue("Script was not compiled", first);
+    	assertFalse("Script was compiled twice", second);
+    	assertScriptMonitor(1, 0, TEST_NAME);
+    	assertEquals("Wrong cache size", 1, groovyEvaluator.getScriptCache().size());
+    }
+
+    @Test
+    public void testBoundedCache() throws Exception {
+    	final String TEST_NAME = "testBoundedCache";
+    	TestUtil.displayTestTitle(TEST_NAME);
+
+    	// GIVEN
+    	Jsr223ScriptEvaluator groovyEvaluator = new Jsr223ScriptEvaluator("groovy", PrismTestUtil.getPrismContext(), new ProtectorImpl());
+    	groovyEvaluator.setScriptCache(new BoundedScriptCache<>(2));
+    	InternalMonitor.reset();
+
+    	// WHEN
+    	groovyEvaluator.precompile("'a'", TEST_NAME);
+    	groovyEvaluator.precompile("'b'", TEST_NAME);
+    	groovyEvaluator.precompile("'c'", TEST_NAME);
+    	boolean firstEvicted = groovyEvaluator.precompile("'a'", TEST_NAME);
+
+    	// THEN
+    	assertTrue("Least recently used script was not evicted", firstEvicted);
+    	assertScriptMonitor(4, 0, TEST_NAME);
+    	ScriptCache<?> cache = groovyEvaluator.getScriptCache();
+    	assertEquals("Wrong cache size", 2, cache.size());
+    	assertEquals("Wrong # of evictions", 2, cache.getEvictions());
+    }
+
+    @Test
+    public void testProfiler() throws Exception {
+    	final String TEST_NAME = "testProfiler";
+    	TestUtil.displayTestTitle(TEST_NAME);
+
+    	// GIVEN
+    	Jsr223ScriptEvaluator groovyEvaluator = new Jsr223ScriptEvaluator("groovy", PrismTestUtil.getPrismContext(), new ProtectorImpl());
+    	ScriptExpression scriptExpression = new ScriptExpression(groovyEvaluator, parseScriptType("expression-string-variables.xml"));
+    	scriptExpression.setOutputDefinition(new PrismPropertyDefinitionImpl(PROPERTY_NAME, DOMUtil.XSD_STRING, PrismTestUtil.getPrismContext()));
+    	scriptExpression.setObjectResolver(scriptExpressionfactory.getObjectResolver());
+    	scriptExpression.setFunctions(scriptExpressionfactory.getFunctions());
+    	ExpressionVariables variables = ExpressionVariables.create(
+				new QName(NS_WHATEVER, "foo"), "FOO",
+				new QName(NS_WHATEVER, "bar"), "BAR"
+		);
+    	ScriptEvaluationProfiler profiler = ScriptEvaluationProfiler.getInstance();
+    	profiler.reset();
+
+    	// WHEN (profiling is disabled by default)
+    	scriptExpression.evaluate(variables, null, false, TEST_NAME, null, new OperationResult(TEST_NAME));
+
+    	// THEN
+    	assertEquals("Evaluation profiled although profiling is disabled", 0, profiler.getEvaluationsCount());
+
+    	// WHEN
+    	profiler.setEnabled(true);
+    	try {
+    		for (int i = 0; i < 3; i++) {
+    			scriptExpression.evaluate(variables, null, false, TEST_NAME, null, new OperationResult(TEST_NAME));
+    		}
+    	} finally {
+    		profiler.setEnabled(false);
+    	}
+
+    	// THEN
+    	System.out.println(profiler.dumpHistograms(10));
+    	assertEquals("Wrong # of profiled evaluations", 3, profiler.getEvaluationsCount(TEST_NAME));
+    	assertEquals("Wrong # of profiler entries", 1, profiler.getEntriesCount());
+    	profiler.reset();
+    	assertEquals("Profiler was not reset", 0, profiler.getEvaluationsCount());
+    }
+
     private void assertScriptMonitor(int expCompilations, int expExecutions, String desc) {
 		assertEquals("Unexpected number of script compilations after "+desc, expCompilations, InternalMonitor.getCount(InternalCounters.SCRIPT_COMPILE_COUNT));
 		assertEquals("Unexpected number of script executions after "+desc, expExecutions, InternalMonitor.getCount(InternalCounters.SCRIPT_EXECUTION_COUNT));
@@ -25,6 +25,7 @@ import com.evolveum.midpoint.model.api.hooks.HookRegistry;
 import com.evolveum.midpoint.model.api.hooks.ReadHook;
 import com.evolveum.midpoint.model.common.SystemObjectCache;
 import com.evolveum.midpoint.model.impl.ModelObjectResolver;
+import com.evolveum.midpoint.model.impl.expr.ScriptPrecompiler;
 import com.evolveum.midpoint.model.impl.importer.ImportAccountsFromResourceTaskHandler;
 import com.evolveum.midpoint.model.impl.importer.ObjectImporter;
 import com.evolveum.midpoint.model.impl.lens.*;
@@ -147,6 +148,7 @@ public class ModelController implements ModelService, TaskService, WorkflowServi
 	@Autowired private ObjectMerger objectMerger;
 	@Autowired private SystemObjectCache systemObjectCache;
 	@Autowired private EmulatedSearchProvider emulatedSearchProvider;
+	@Autowired private ScriptPrecompiler scriptPrecompiler;
 
 	@Autowired(required = true)
 	@Qualifier("cacheRepositoryService")
@@ -1584,6 +1586,9 @@ public class ModelController implements ModelService, TaskService, WorkflowServi
 		// Initialize provisioning
 		provisioning.postInit(result);
 
+		// Precompile scripts in the background (if configured)
+		scriptPrecompiler.startPrecompilation();
+
         if (result.isUnknown()) {
 		    result.computeStatus();
         }
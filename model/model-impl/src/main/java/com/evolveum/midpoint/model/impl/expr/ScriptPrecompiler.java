@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.expr;
+
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+import com.evolveum.midpoint.model.common.expression.script.BoundedScriptCache;
+import com.evolveum.midpoint.model.common.expression.script.ScriptEvaluator;
+import com.evolveum.midpoint.model.common.expression.script.ScriptExpressionFactory;
+import com.evolveum.midpoint.model.common.expression.script.jsr223.Jsr223ScriptEvaluator;
+import com.evolveum.midpoint.prism.Containerable;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.SelectorOptions;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.repo.common.expression.ExpressionSyntaxException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import org.apache.commons.configuration.Configuration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.xml.bind.JAXBElement;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Configures caches of compiled scripts and (optionally) precompiles scripts found in configuration objects
+ * in the background after the system starts. So the first operations after node start do not have to pay
+ * for compilation of all the scripts they use.
+ *
+ * Precompilation is disabled by default. When enabled, only resources, object templates and function libraries
+ * are scanned by default; roles (and other types) have to be listed explicitly, as there may be lots of them.
+ * The number of objects scanned per type and the number of scripts compiled are limited, and the scripts
+ * are queued for compilation in a bounded queue.
+ *
+ * Configuration (in config.xml):
+ *
+ *   &lt;scripting&gt;
+ *       &lt;scriptCacheSize&gt;10000&lt;/scriptCacheSize&gt;          &lt;!-- max # of compiled scripts per language --&gt;
+ *       &lt;precompile&gt;true&lt;/precompile&gt;                      &lt;!-- default is false --&gt;
+ *       &lt;precompileThreads&gt;2&lt;/precompileThreads&gt;
+ *       &lt;precompileTypes&gt;ResourceType&lt;/precompileTypes&gt;       &lt;!-- repeatable --&gt;
+ *       &lt;precompileTypes&gt;RoleType&lt;/precompileTypes&gt;
+ *       &lt;precompileMaxObjects&gt;1000&lt;/precompileMaxObjects&gt;   &lt;!-- per type --&gt;
+ *       &lt;precompileMaxScripts&gt;1000&lt;/precompileMaxScripts&gt;
+ *   &lt;/scripting&gt;
+ *
+ * @author agent
+ */
+@Component
+public class ScriptPrecompiler {
+
+	private static final Trace LOGGER = TraceManager.getTrace(ScriptPrecompiler.class);
+
+	public static final String CONFIGURATION_SECTION = "midpoint.scripting";
+	public static final String CONFIGURATION_SCRIPT_CACHE_SIZE = "scriptCacheSize";
+	public static final String CONFIGURATION_PRECOMPILE = "precompile";
+	public static final String CONFIGURATION_PRECOMPILE_THREADS = "precompileThreads";
+	public static final String CONFIGURATION_PRECOMPILE_TYPES = "precompileTypes";
+	public static final String CONFIGURATION_PRECOMPILE_MAX_OBJECTS = "precompileMaxObjects";
+	public static final String CONFIGURATION_PRECOMPILE_MAX_SCRIPTS = "precompileMaxScripts";
+
+	private static final int DEFAULT_PRECOMPILE_THREADS = 2;
+	private static final int DEFAULT_PRECOMPILE_MAX_OBJECTS = 1000;
+	private static final int DEFAULT_PRECOMPILE_MAX_SCRIPTS = 1000;
+	private static final int QUEUE_SIZE_PER_THREAD = 10;
+
+	private static final String OPERATION_PRECOMPILE = ScriptPrecompiler.class.getName() + ".precompile";
+
+	private static final List<Class<? extends ObjectType>> DEFAULT_SCANNED_TYPES = Arrays.asList(
+			ResourceType.class, ObjectTemplateType.class, FunctionLibraryType.class);
+
+	/**
+	 * Getters of JAXB beans (that are not containers) that can contain expressions.
+	 */
+	private static final Map<Class<?>, List<Method>> BEAN_GETTERS = new ConcurrentHashMap<>();
+
+	@Autowired(required = false) private MidpointConfiguration midpointConfiguration;
+	@Autowired private ScriptExpressionFactory scriptExpressionFactory;
+
+	@Autowired
+	@Qualifier("cacheRepositoryService")
+	private RepositoryService repositoryService;
+
+	private boolean precompile;
+	private int precompileThreads = DEFAULT_PRECOMPILE_THREADS;
+	private List<Class<? extends ObjectType>> scannedTypes = DEFAULT_SCANNED_TYPES;
+	private int maxObjects = DEFAULT_PRECOMPILE_MAX_OBJECTS;
+	private int maxScripts = DEFAULT_PRECOMPILE_MAX_SCRIPTS;
+	private volatile ExecutorService executor;
+	private volatile boolean stopping;
+
+	@PostConstruct
+	public void init() {
+		if (midpointConfiguration == null) {
+			return;
+		}
+		Configuration configuration = midpointConfiguration.getConfiguration(CONFIGURATION_SECTION);
+		int scriptCacheSize = configuration.getInt(CONFIGURATION_SCRIPT_CACHE_SIZE, BoundedScriptCache.DEFAULT_MAX_SIZE);
+		precompile = configuration.getBoolean(CONFIGURATION_PRECOMPILE, false);
+		precompileThreads = configuration.getInt(CONFIGURATION_PRECOMPILE_THREADS, DEFAULT_PRECOMPILE_THREADS);
+		maxObjects = configuration.getInt(CONFIGURATION_PRECOMPILE_MAX_OBJECTS, DEFAULT_PRECOMPILE_MAX_OBJECTS);
+		maxScripts = configuration.getInt(CONFIGURATION_PRECOMPILE_MAX_SCRIPTS, DEFAULT_PRECOMPILE_MAX_SCRIPTS);
+		List<Object> typeNames = configuration.getList(CONFIGURATION_PRECOMPILE_TYPES);
+		if (typeNames != null && !typeNames.isEmpty()) {
+			scannedTypes = new ArrayList<>();
+			for (Object typeName : typeNames) {
+				scannedTypes.add(ObjectTypes.getObjectTypeClass(String.valueOf(typeName).trim()));
+			}
+		}
+		if (scriptCacheSize != BoundedScriptCache.DEFAULT_MAX_SIZE) {
+			for (ScriptEvaluator evaluator : scriptExpressionFactory.getEvaluators().values()) {
+				if (evaluator instanceof Jsr223ScriptEvaluator) {
+					((Jsr223ScriptEvaluator) evaluator).setScriptCache(new BoundedScriptCache<>(scriptCacheSize));
+				}
+			}
+		}
+		LOGGER.debug("Script cache size: {}, precompile: {} (types: {}, threads: {}, max objects: {}, max scripts: {})",
+				scriptCacheSize, precompile, scannedTypes, precompileThreads, maxObjects, maxScripts);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		stopping = true;
+		ExecutorService executor = this.executor;
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Starts the precompilation in the background, if it is enabled.
+	 */
+	public void startPrecompilation() {
+		if (!precompile) {
+			return;
+		}
+		Thread thread = new Thread(this::precompileAll, "script-precompiler");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void precompileAll() {
+		long start = System.currentTimeMillis();
+		AtomicInteger threadNumber = new AtomicInteger();
+		int threads = Math.max(precompileThreads, 1);
+		// when the queue is full, the scanning thread compiles the script itself, so it does not run ahead
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(threads * QUEUE_SIZE_PER_THREAD), r -> {
+					Thread thread = new Thread(r, "script-precompiler-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		AtomicInteger objects = new AtomicInteger();
+		AtomicInteger compiled = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+		Set<String> seen = new HashSet<>();
+		OperationResult result = new OperationResult(OPERATION_PRECOMPILE);
+		try {
+			for (Class<? extends ObjectType> type : scannedTypes) {
+				if (stopping || seen.size() >= maxScripts) {
+					break;
+				}
+				ResultHandler<? extends ObjectType> handler = (object, parentResult) -> {
+					objects.incrementAndGet();
+					for (ScriptExpressionEvaluatorType script : collectScripts(object)) {
+						if (seen.size() >= maxScripts) {
+							LOGGER.debug("Reached the limit of {} scripts to precompile, stopping", maxScripts);
+							return false;
+						}
+						if (seen.add(script.getLanguage() + ":" + script.getCode())) {
+							executor.execute(() -> precompile(script, object, compiled, failed));
+						}
+					}
+					return !stopping;
+				};
+				searchIterative(type, handler, result);
+			}
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			LOGGER.info("Precompiled {} scripts ({} failed) from {} objects in {} ms", compiled, failed, objects,
+					System.currentTimeMillis() - start);
+		} catch (InterruptedException e) {
+			LOGGER.debug("Script precompilation was interrupted");
+		} catch (SchemaException | RuntimeException e) {
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't precompile scripts", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <O extends ObjectType> void searchIterative(Class<O> type, ResultHandler<? extends ObjectType> handler,
+			OperationResult result) throws SchemaException {
+		ObjectQuery query = ObjectQuery.createObjectQuery(ObjectPaging.createPaging(0, maxObjects));
+		repositoryService.searchObjectsIterative(type, query, (ResultHandler<O>) handler,
+				SelectorOptions.createCollection(GetOperationOptions.createReadOnly()), false, result);
+	}
+
+	private void precompile(ScriptExpressionEvaluatorType script, PrismObject<?> object, AtomicInteger compiled,
+			AtomicInteger failed) {
+		if (stopping) {
+			return;
+		}
+		try {
+			if (scriptExpressionFactory.precompile(script, "script in " + object)) {
+				compiled.incrementAndGet();
+			}
+		} catch (ExpressionSyntaxException | ExpressionEvaluationException | RuntimeException e) {
+			// The script would fail also when evaluated. It will be reported then, in the proper context.
+			failed.incrementAndGet();
+			LOGGER.debug("Couldn't precompile script in {}: {}", object, e.getMessage(), e);
+		}
+	}
+
+	private List<ScriptExpressionEvaluatorType> collectScripts(PrismObject<?> object) {
+		List<ScriptExpressionEvaluatorType> scripts = new ArrayList<>();
+		Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+		object.accept(visitable -> {
+			if (visitable instanceof PrismPropertyValue) {
+				collectScripts(((PrismPropertyValue<?>) visitable).getValue(), scripts, visited);
+			}
+		});
+		return scripts;
+	}
+
+	/**
+	 * Expressions are often stored in JAXB beans that are values of properties (e.g. mappings or synchronization
+	 * reactions), so we have to look inside them. Containers are visited by the prism visitor.
+	 */
+	private void collectScripts(Object value, List<ScriptExpressionEvaluatorType> scripts, Set<Object> visited) {
+		if (value == null || value instanceof Containerable || !visited.add(value)) {
+			return;
+		}
+		if (value instanceof ScriptExpressionEvaluatorType) {
+			scripts.add((ScriptExpressionEvaluatorType) value);
+		} else if (value instanceof JAXBElement) {
+			collectScripts(((JAXBElement<?>) value).getValue(), scripts, visited);
+		} else if (value instanceof Collection) {
+			for (Object item : (Collection<?>) value) {
+				collectScripts(item, scripts, visited);
+			}
+		} else if (value.getClass().getPackage() == ObjectType.class.getPackage()
+				&& !(value instanceof ObjectReferenceType) && !(value instanceof Enum)) {
+			for (Method getter : getBeanGetters(value.getClass())) {
+				try {
+					collectScripts(getter.invoke(value), scripts, visited);
+				} catch (IllegalAccessException | InvocationTargetException e) {
+					LOGGER.trace("Couldn't invoke {} on {}: {}", getter, value, e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	private static List<Method> getBeanGetters(Class<?> beanClass) {
+		return BEAN_GETTERS.computeIfAbsent(beanClass, c -> {
+			List<Method> getters = new ArrayList<>();
+			for (Method method : c.getMethods()) {
+				Class<?> returnType = method.getReturnType();
+				if (method.getName().startsWith("get") && method.getParameterCount() == 0
+						&& !Modifier.isStatic(method.getModifiers())
+						&& (List.class.isAssignableFrom(returnType) || JAXBElement.class.isAssignableFrom(returnType)
+								|| returnType.getPackage() == ObjectType.class.getPackage())) {
+					getters.add(method);
+				}
+			}
+			return getters;
+		});
+	}
+}
@@ -36,6 +36,8 @@ import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SequentialValueExpressionEvaluatorType;
 
+import java.util.Collections;
+
 /**
  * @author semancik
  *
@@ -81,13 +83,18 @@ public class SequentialValueExpressionEvaluator<V extends PrismValue, D extends
     		throw new IllegalStateException("No lens context");
     	}
 
-    	Long counter = ctx.getSequenceCounter(sequenceOid);
-    	if (counter == null) {
-    		counter = repositoryService.advanceSequence(sequenceOid, result);
-    		ctx.setSequenceCounter(sequenceOid, counter);
-    	}
-
-    	return counter;
+		Long counter = ctx.getSequenceCounter(sequenceOid);
+		if (counter != null) {
+			return counter;
+		}
+		long newCounter = repositoryService.advanceSequence(sequenceOid, result);
+		// Projections can be evaluated concurrently (see ParallelProjectionSupport), so another one could have
+		// obtained the value in the meanwhile. All of them must use the same value, so ours is not needed.
+		long storedCounter = ctx.setSequenceCounterIfAbsent(sequenceOid, newCounter);
+		if (storedCounter != newCounter) {
+			repositoryService.returnUnusedValuesToSequence(sequenceOid, Collections.singletonList(newCounter), result);
+		}
+		return storedCounter;
     }
 
 	/* (non-Javadoc)
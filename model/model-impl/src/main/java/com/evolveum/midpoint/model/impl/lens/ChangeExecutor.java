@@ -86,7 +86,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -123,6 +125,7 @@ public class ChangeExecutor {
 	@Autowired private ModelObjectResolver objectResolver;
 	@Autowired private OperationalDataManager metadataManager;
 	@Autowired private CredentialsProcessor credentialsProcessor;
+	@Autowired private ParallelProjectionSupport parallelProjectionSupport;
 
 	private PrismObjectDefinition<UserType> userDefinition = null;
 	private PrismObjectDefinition<ShadowType> shadowDefinition = null;
@@ -227,6 +230,11 @@ public class ChangeExecutor {
 
 		boolean restartRequested = false;
 
+		// Resource operations of independent projections are executed concurrently in advance. The rest
+		// of their processing (links, reconciliation scripts after the operation) is done in the loop below.
+		Map<LensProjectionContext, PreExecutedProjection> preExecuted = preExecuteIndependentProjections(context, task,
+				result);
+
 		for (LensProjectionContext projCtx : context.getProjectionContexts()) {
 			if (projCtx.getWave() != context.getExecutionWave()) {
 				continue;
@@ -242,79 +250,90 @@ public class ChangeExecutor {
 				continue;
 			}
 
-			OperationResult subResult = result.createSubresult(
-					OPERATION_EXECUTE_PROJECTION + "." + projCtx.getObjectTypeClass().getSimpleName());
-			subResult.addArbitraryObjectAsContext("discriminator", projCtx.getResourceShadowDiscriminator());
-			if (projCtx.getResource() != null) {
-				subResult.addParam("resource", projCtx.getResource());
+			PreExecutedProjection preExecutedProjection = preExecuted.get(projCtx);
+			if (restartRequested && preExecutedProjection == null) {
+				// we will process remaining projections when retrying the wave
+				continue;
+			}
+
+			OperationResult subResult;
+			if (preExecutedProjection != null) {
+				subResult = preExecutedProjection.result;		// already in the result tree
+			} else {
+				subResult = createProjectionResult(projCtx);
+				result.addSubresult(subResult);
 			}
 			try {
 
 				context.checkAbortRequested();
 
-				context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
-						projCtx.getResourceShadowDiscriminator(), ENTERING));
+				if (preExecutedProjection != null) {
+					rethrowExecutionException(preExecutedProjection.failure);
+				} else {
+					context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
+							projCtx.getResourceShadowDiscriminator(), ENTERING));
 
-				executeReconciliationScript(projCtx, context, BeforeAfterType.BEFORE, task, subResult);
+					executeReconciliationScript(projCtx, context, BeforeAfterType.BEFORE, task, subResult);
 
-				ObjectDelta<ShadowType> projDelta = projCtx.getExecutableDelta();
+					ObjectDelta<ShadowType> projDelta = projCtx.getExecutableDelta();
 
-				if (shouldBeDeleted(projDelta, projCtx)) {
-					projDelta = ObjectDelta.createDeleteDelta(projCtx.getObjectTypeClass(), projCtx.getOid(),
-							prismContext);
-				}
+					if (shouldBeDeleted(projDelta, projCtx)) {
+						projDelta = ObjectDelta.createDeleteDelta(projCtx.getObjectTypeClass(), projCtx.getOid(),
+								prismContext);
+					}
 
-				if (projCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.BROKEN) {
-					if (context.getFocusContext() != null
-							&& context.getFocusContext().getDelta() != null
-							&& context.getFocusContext().getDelta().isDelete()
-							&& context.getOptions() != null
-							&& ModelExecuteOptions.isForce(context.getOptions())) {
-						if (projDelta == null) {
-							projDelta = ObjectDelta.createDeleteDelta(projCtx.getObjectTypeClass(),
-									projCtx.getOid(), prismContext);
+					if (projCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.BROKEN) {
+						if (context.getFocusContext() != null
+								&& context.getFocusContext().getDelta() != null
+								&& context.getFocusContext().getDelta().isDelete()
+								&& context.getOptions() != null
+								&& ModelExecuteOptions.isForce(context.getOptions())) {
+							if (projDelta == null) {
+								projDelta = ObjectDelta.createDeleteDelta(projCtx.getObjectTypeClass(),
+										projCtx.getOid(), prismContext);
+							}
 						}
-					}
-					if (projDelta != null && projDelta.isDelete()) {
+						if (projDelta != null && projDelta.isDelete()) {
 
-						executeDelta(projDelta, projCtx, context, null, null, projCtx.getResource(), task,
-								subResult);
+							executeDelta(projDelta, projCtx, context, null, null, projCtx.getResource(), task,
+									subResult);
 
-					}
-				} else {
-
-					if (projDelta == null || projDelta.isEmpty()) {
-						if (LOGGER.isTraceEnabled()) {
-							LOGGER.trace("No change for " + projCtx.getResourceShadowDiscriminator());
-						}
-						if (focusContext != null) {
-							updateLinks(focusContext, projCtx, task, subResult);
 						}
+					} else {
 
-						// Make sure post-reconcile delta is always executed,
-						// even if there is no change
-						executeReconciliationScript(projCtx, context, BeforeAfterType.AFTER, task,
-								subResult);
+						if (projDelta == null || projDelta.isEmpty()) {
+							if (LOGGER.isTraceEnabled()) {
+								LOGGER.trace("No change for " + projCtx.getResourceShadowDiscriminator());
+							}
+							if (focusContext != null) {
+								updateLinks(focusContext, projCtx, task, subResult);
+							}
 
-						subResult.computeStatus();
-						subResult.recordNotApplicableIfUnknown();
-						continue;
-						
-					} else if (projDelta.isDelete() && projCtx.getResourceShadowDiscriminator() != null
-							&& projCtx.getResourceShadowDiscriminator().getOrder() > 0) {
-						// HACK ... for higher-order context check if this was
-						// already deleted
-						LensProjectionContext lowerOrderContext = LensUtil.findLowerOrderContext(context,
-								projCtx);
-						if (lowerOrderContext != null && lowerOrderContext.isDelete()) {
-							// We assume that this was already executed
-							subResult.setStatus(OperationResultStatus.NOT_APPLICABLE);
+							// Make sure post-reconcile delta is always executed,
+							// even if there is no change
+							executeReconciliationScript(projCtx, context, BeforeAfterType.AFTER, task,
+									subResult);
+
+							subResult.computeStatus();
+							subResult.recordNotApplicableIfUnknown();
 							continue;
+						
+						} else if (projDelta.isDelete() && projCtx.getResourceShadowDiscriminator() != null
+								&& projCtx.getResourceShadowDiscriminator().getOrder() > 0) {
+							// HACK ... for higher-order context check if this was
+							// already deleted
+							LensProjectionContext lowerOrderContext = LensUtil.findLowerOrderContext(context,
+									projCtx);
+							if (lowerOrderContext != null && lowerOrderContext.isDelete()) {
+								// We assume that this was already executed
+								subResult.setStatus(OperationResultStatus.NOT_APPLICABLE);
+								continue;
+							}
 						}
-					}
 
-					executeDelta(projDelta, projCtx, context, null, null, projCtx.getResource(), task, subResult);
+						executeDelta(projDelta, projCtx, context, null, null, projCtx.getResource(), task, subResult);
 
+					}
 				}
 
 				subResult.computeStatus();
@@ -356,8 +375,9 @@ public class ChangeExecutor {
 				subResult.recordSuccess();
 				subResult.muteLastSubresultError();
 				restartRequested = true;
-				break; // we will process remaining projections when retrying
-						// the wave
+				// we will process remaining projections when retrying the wave;
+				// only those that were already executed are finished (see above)
+				continue;
 				
 			} catch (CommunicationException | ConfigurationException | SecurityViolationException | ExpressionEvaluationException | RuntimeException | Error e) {
 				recordProjectionExecutionException(e, projCtx, subResult,
@@ -376,6 +396,94 @@ public class ChangeExecutor {
 
 	}
 
+	/**
+	 * Projection whose resource operation was executed concurrently with the others.
+	 */
+	private static class PreExecutedProjection {
+		private final OperationResult result;
+		private Throwable failure;
+
+		private PreExecutedProjection(OperationResult result) {
+			this.result = result;
+		}
+	}
+
+	private OperationResult createProjectionResult(LensProjectionContext projCtx) {
+		OperationResult subResult = new OperationResult(
+				OPERATION_EXECUTE_PROJECTION + "." + projCtx.getObjectTypeClass().getSimpleName());
+		subResult.addArbitraryObjectAsContext("discriminator", projCtx.getResourceShadowDiscriminator());
+		if (projCtx.getResource() != null) {
+			subResult.addParam("resource", projCtx.getResource());
+		}
+		return subResult;
+	}
+
+	/**
+	 * Concurrently executes reconciliation scripts (before) and deltas of independent projections of the current
+	 * execution wave (see {@link ParallelProjectionSupport}). Only the common case is treated here: a projection
+	 * that is not broken and has a non-empty delta. Other projections are left to the sequential processing.
+	 * Each projection gets its own result; these are put into the result tree in the order of projections.
+	 */
+	private <O extends ObjectType> Map<LensProjectionContext, PreExecutedProjection> preExecuteIndependentProjections(
+			LensContext<O> context, Task task, OperationResult result) {
+		Map<LensProjectionContext, PreExecutedProjection> preExecuted = new HashMap<>();
+		List<PreExecutedProjection> executions = new ArrayList<>();
+		List<ParallelProjectionSupport.Worker> workers = new ArrayList<>();
+		List<OperationResult> results = new ArrayList<>();
+		for (LensProjectionContext projCtx : parallelProjectionSupport.selectIndependent(context, context.getExecutionWave())) {
+			if (!projCtx.isCanProject()
+					|| projCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.IGNORE
+					|| projCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.BROKEN
+					|| projCtx.getResourceShadowDiscriminator() != null && projCtx.getResourceShadowDiscriminator().getOrder() > 0) {
+				continue;
+			}
+			ObjectDelta<ShadowType> projDelta;
+			try {
+				projDelta = projCtx.getExecutableDelta();
+			} catch (SchemaException e) {
+				continue;		// will be reported during sequential processing
+			}
+			if (shouldBeDeleted(projDelta, projCtx)) {
+				projDelta = ObjectDelta.createDeleteDelta(projCtx.getObjectTypeClass(), projCtx.getOid(), prismContext);
+			}
+			if (projDelta == null || projDelta.isEmpty()) {
+				continue;
+			}
+			context.checkAbortRequested();
+			PreExecutedProjection execution = new PreExecutedProjection(createProjectionResult(projCtx));
+			context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
+					projCtx.getResourceShadowDiscriminator(), ENTERING));
+			ObjectDelta<ShadowType> delta = projDelta;
+			workers.add(workerResult -> {
+				executeReconciliationScript(projCtx, context, BeforeAfterType.BEFORE, task, workerResult);
+				executeDelta(delta, projCtx, context, null, null, projCtx.getResource(), task, workerResult);
+			});
+			results.add(execution.result);
+			executions.add(execution);
+			preExecuted.put(projCtx, execution);
+		}
+		if (!workers.isEmpty()) {
+			LOGGER.trace("Executing {} projections concurrently", workers.size());
+			List<Throwable> failures = parallelProjectionSupport.execute(workers, results, result);
+			if (consistencyChecks) context.checkConsistence();
+			for (int i = 0; i < executions.size(); i++) {
+				executions.get(i).failure = failures.get(i);
+			}
+		}
+		return preExecuted;
+	}
+
+	private void rethrowExecutionException(Throwable t) throws SchemaException, ObjectNotFoundException,
+			PreconditionViolationException, ObjectAlreadyExistsException, CommunicationException, ConfigurationException,
+			SecurityViolationException, ExpressionEvaluationException {
+		try {
+			ParallelProjectionSupport.rethrow(t);
+		} catch (PolicyViolationException e) {
+			// not thrown when executing deltas
+			throw new SystemException(e.getMessage(), e);
+		}
+	}
+
 	private <O extends ObjectType> ObjectDelta<O> applyPendingObjectPolicyStateModifications(LensFocusContext<O> focusContext,
 			ObjectDelta<O> focusDelta) throws SchemaException {
 		for (ItemDelta<?, ?> itemDelta : focusContext.getPendingObjectPolicyStateModifications()) {
@@ -913,7 +1021,8 @@ public class ChangeExecutor {
 			}
 
 			// To make sure that the OID is set (e.g. after ADD operation)
-			LensUtil.setContextOid(context, objectContext, objectDelta.getOid());
+			String oid = objectDelta.getOid();
+			ParallelProjectionSupport.modifySharedState(() -> LensUtil.setContextOid(context, objectContext, oid));
 
 		} finally {
 
@@ -924,7 +1033,7 @@ public class ChangeExecutor {
 				}
 				LensObjectDeltaOperation<T> objectDeltaOp = LensUtil.createObjectDeltaOperation(
 						objectDelta.clone(), result, objectContext, null, resource);
-				objectContext.addToExecutedDeltas(objectDeltaOp);
+				ParallelProjectionSupport.modifySharedState(() -> objectContext.addToExecutedDeltas(objectDeltaOp));
 			}
 
 			if (LOGGER.isDebugEnabled()) {
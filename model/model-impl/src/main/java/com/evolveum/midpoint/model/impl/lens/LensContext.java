@@ -48,6 +48,7 @@ import javax.xml.namespace.QName;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author semancik
@@ -173,7 +174,8 @@ public class LensContext<F extends ObjectType> implements ModelContext<F> {
 	 */
 	transient private Collection<ProgressListener> progressListeners;
 
-	private Map<String, Long> sequences = new HashMap<>();
+	// concurrent because projections can be processed concurrently (see ParallelProjectionSupport)
+	private Map<String, Long> sequences = new ConcurrentHashMap<>();
 
 	/**
 	 * Moved from ProjectionValuesProcessor TODO consider if necessary to
@@ -676,6 +678,10 @@ public class LensContext<F extends ObjectType> implements ModelContext<F> {
 
 	public void checkConsistence() {
 		checkAbortRequested();
+		if (ParallelProjectionSupport.isWorkerThread()) {
+			// other workers are modifying their projection contexts; the caller checks the context when they finish
+			return;
+		}
 		if (focusContext != null) {
 			focusContext.checkConsistence();
 		}
@@ -706,9 +712,10 @@ public class LensContext<F extends ObjectType> implements ModelContext<F> {
 		return projCtx;
 	}
 
-	private Map<String, ResourceType> getResourceCache() {
+	// synchronized because projections can be processed concurrently (see ParallelProjectionSupport)
+	private synchronized Map<String, ResourceType> getResourceCache() {
 		if (resourceCache == null) {
-			resourceCache = new HashMap<>();
+			resourceCache = new ConcurrentHashMap<>();
 		}
 		return resourceCache;
 	}
@@ -827,7 +834,7 @@ public class LensContext<F extends ObjectType> implements ModelContext<F> {
 		if (resourceCache == null) {
 			return null;
 		}
-		Map<String, ResourceType> clonedMap = new HashMap<>();
+		Map<String, ResourceType> clonedMap = new ConcurrentHashMap<>();
 		for (Entry<String, ResourceType> entry : resourceCache.entrySet()) {
 			clonedMap.put(entry.getKey(), entry.getValue());
 		}
@@ -1285,15 +1292,24 @@ public class LensContext<F extends ObjectType> implements ModelContext<F> {
 		sequences.put(sequenceOid, counter);
 	}
 
+	/**
+	 * Stores the counter unless there is one for the sequence already. Returns the counter that is stored
+	 * after the call, i.e. either the existing one or the given one.
+	 */
+	public long setSequenceCounterIfAbsent(String sequenceOid, long counter) {
+		Long existing = sequences.putIfAbsent(sequenceOid, counter);
+		return existing != null ? existing : counter;
+	}
+
 	public List<LensProjectionContext> getConflictingProjectionContexts() {
 		return conflictingProjectionContexts;
 	}
 
-	public void addConflictingProjectionContext(LensProjectionContext conflictingContext) {
+	public synchronized void addConflictingProjectionContext(LensProjectionContext conflictingContext) {
 		conflictingProjectionContexts.add(conflictingContext);
 	}
 
-	public void clearConflictingProjectionContexts() {
+	public synchronized void clearConflictingProjectionContexts() {
 		conflictingProjectionContexts.clear();
 	}
 
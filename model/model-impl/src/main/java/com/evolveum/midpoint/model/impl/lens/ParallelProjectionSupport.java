@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.lens;
+
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+import com.evolveum.midpoint.repo.api.PreconditionViolationException;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.CommunicationException;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
+import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.PolicyViolationException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SecurityViolationException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceObjectTypeDependencyType;
+import org.apache.commons.configuration.Configuration;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes independent projections of a wave concurrently: both in the projector and when executing
+ * the resource operations in the change executor.
+ *
+ * A projection is independent if it has no dependencies, no other projection depends on it and it is the only
+ * projection of its resource in the wave. (Projections of the same resource, including higher-order ones,
+ * share the resource object and can influence each other.) Everything else is processed sequentially,
+ * as before.
+ *
+ * Each worker gets its own operation result that is not connected to the result tree while the worker runs.
+ * Changes of the state shared by the workers (e.g. OIDs propagated to other projection contexts, executed deltas,
+ * progress reporting) are not done by the workers directly: they are collected (see {@link #modifySharedState(Runnable)})
+ * and applied by the calling thread after all the workers finish. Results and collected changes are processed
+ * in the original order of the projections, so the outcome does not depend on timing. Exceptions are reported
+ * back to the caller, also in the original order. The focus context is only read by the workers.
+ *
+ * Workers enter the repository cache if the caller did.
+ *
+ * Consistency checks of the whole lens context are not done in the workers, as the context is modified
+ * by other workers at the same time (see {@link #isWorkerThread()}). The callers check the context after
+ * the workers finish.
+ *
+ * Disabled by default; enabled by setting midpoint.model/projectionThreads to a positive number.
+ *
+ * @author agent
+ */
+@Component
+public class ParallelProjectionSupport {
+
+	private static final Trace LOGGER = TraceManager.getTrace(ParallelProjectionSupport.class);
+
+	private static final String CONFIGURATION_SECTION = "midpoint.model";
+	private static final String CONFIGURATION_PROJECTION_THREADS = "projectionThreads";
+
+	/**
+	 * Set in worker threads: changes of the shared state collected by the worker. Nested clockwork runs
+	 * (e.g. from expressions) are processed sequentially in workers, as waiting for other workers could exhaust the pool.
+	 */
+	private static final ThreadLocal<List<Runnable>> WORKER_COLLECTOR = new ThreadLocal<>();
+
+	/**
+	 * Work to be done for one projection.
+	 */
+	@FunctionalInterface
+	public interface Worker {
+
+		void run(OperationResult result) throws SchemaException, ObjectNotFoundException, CommunicationException,
+				ConfigurationException, SecurityViolationException, PolicyViolationException, ExpressionEvaluationException,
+				ObjectAlreadyExistsException, PreconditionViolationException;
+	}
+
+	@Autowired(required = false) private MidpointConfiguration midpointConfiguration;
+
+	private int threads;
+	private ExecutorService executor;
+
+	@PostConstruct
+	public void init() {
+		if (midpointConfiguration != null) {
+			Configuration configuration = midpointConfiguration.getConfiguration(CONFIGURATION_SECTION);
+			setThreads(configuration.getInt(CONFIGURATION_PROJECTION_THREADS, 0));
+		}
+	}
+
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	public synchronized int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Sets the number of worker threads. Zero means that projections are processed sequentially.
+	 */
+	public synchronized void setThreads(int threads) {
+		shutdown();
+		this.threads = Math.max(threads, 0);
+		if (this.threads > 0) {
+			AtomicInteger counter = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(this.threads, r -> {
+				Thread thread = new Thread(r, "projection-worker-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		LOGGER.debug("Projection threads: {}", this.threads);
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		return WORKER_COLLECTOR.get() == null ? executor : null;
+	}
+
+	/**
+	 * Modifies the state shared by projections (the lens context, other projection contexts, progress listeners).
+	 * Outside of workers the modification is done immediately. In a worker it is collected and done by the calling
+	 * thread after all the workers finish.
+	 */
+	public static void modifySharedState(Runnable modification) {
+		List<Runnable> collector = WORKER_COLLECTOR.get();
+		if (collector != null) {
+			collector.add(modification);
+		} else {
+			modification.run();
+		}
+	}
+
+	/**
+	 * Returns true if the current thread is a projection worker. The worker can safely access only its own
+	 * projection context and read the focus context.
+	 */
+	public static boolean isWorkerThread() {
+		return WORKER_COLLECTOR.get() != null;
+	}
+
+	/**
+	 * Selects projections of given wave that can be processed concurrently, in their original order.
+	 * Returns an empty list if there is nothing to be gained, i.e. if there are less than two such projections
+	 * or if parallel processing is disabled.
+	 */
+	@NotNull
+	public <F extends ObjectType> List<LensProjectionContext> selectIndependent(LensContext<F> context, int wave) {
+		if (getExecutor() == null) {
+			return Collections.emptyList();
+		}
+		List<LensProjectionContext> candidates = new ArrayList<>();
+		Map<String, Integer> projectionsPerResource = new HashMap<>();
+		for (LensProjectionContext projCtx : context.getProjectionContexts()) {
+			if (projCtx.getResource() == null) {
+				// we cannot determine the dependencies of this one, so let us be conservative
+				return Collections.emptyList();
+			}
+			if (projCtx.getWave() == wave) {
+				projectionsPerResource.merge(projCtx.getResource().getOid(), 1, Integer::sum);
+				candidates.add(projCtx);
+			}
+		}
+		List<LensProjectionContext> independent = new ArrayList<>();
+		for (LensProjectionContext candidate : candidates) {
+			if (projectionsPerResource.get(candidate.getResource().getOid()) == 1
+					&& candidate.getDependencies().isEmpty() && !isDependencyTarget(context, candidate)) {
+				independent.add(candidate);
+			}
+		}
+		return independent.size() > 1 ? independent : Collections.emptyList();
+	}
+
+	private <F extends ObjectType> boolean isDependencyTarget(LensContext<F> context, LensProjectionContext target) {
+		for (LensProjectionContext projCtx : context.getProjectionContexts()) {
+			for (ResourceObjectTypeDependencyType dependency : projCtx.getDependencies()) {
+				if (LensUtil.isDependencyTargetContext(projCtx, target, dependency)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Runs the workers concurrently and waits until all of them finish. Returns exceptions thrown by the workers
+	 * (null for workers that finished normally), in the order of the workers.
+	 *
+	 * Each worker gets its own result from the results list (at the same index). After all the workers finish,
+	 * the calling thread applies the changes of shared state collected by the workers and adds the results
+	 * to the parent result, in the order of the workers.
+	 *
+	 * Security context of the caller is propagated to the workers. If parallel processing is not available,
+	 * the workers are run sequentially in the current thread.
+	 */
+	@NotNull
+	public List<Throwable> execute(List<Worker> workers, List<OperationResult> results, OperationResult parentResult) {
+		List<Throwable> failures = new ArrayList<>(Collections.nCopies(workers.size(), null));
+		ExecutorService executor = getExecutor();
+		if (executor == null) {
+			for (int i = 0; i < workers.size(); i++) {
+				failures.set(i, run(workers.get(i), results.get(i)));
+				parentResult.addSubresult(results.get(i));
+			}
+			return failures;
+		}
+		SecurityContext securityContext = SecurityContextHolder.getContext();
+		boolean useRepositoryCache = RepositoryCache.exists();
+		List<List<Runnable>> collectors = new ArrayList<>(workers.size());
+		List<Future<Throwable>> futures = new ArrayList<>(workers.size());
+		for (int i = 0; i < workers.size(); i++) {
+			Worker worker = workers.get(i);
+			OperationResult result = results.get(i);
+			List<Runnable> collector = new ArrayList<>();
+			collectors.add(collector);
+			futures.add(executor.submit(() -> {
+				WORKER_COLLECTOR.set(collector);
+				SecurityContextHolder.setContext(securityContext);
+				if (useRepositoryCache) {
+					RepositoryCache.enter();
+				}
+				try {
+					return run(worker, result);
+				} finally {
+					if (useRepositoryCache) {
+						RepositoryCache.exit();
+					}
+					SecurityContextHolder.clearContext();
+					WORKER_COLLECTOR.remove();
+				}
+			}));
+		}
+		// Workers use the lens context, so we have to wait for all of them even if interrupted.
+		boolean interrupted = false;
+		for (int i = 0; i < futures.size(); i++) {
+			while (true) {
+				try {
+					failures.set(i, futures.get(i).get());
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					failures.set(i, e.getCause());
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		for (int i = 0; i < workers.size(); i++) {
+			for (Runnable modification : collectors.get(i)) {
+				try {
+					modification.run();
+				} catch (RuntimeException | Error e) {
+					LOGGER.error("Couldn't apply changes made by projection worker: {}", e.getMessage(), e);
+					if (failures.get(i) == null) {
+						failures.set(i, e);
+					}
+				}
+			}
+			parentResult.addSubresult(results.get(i));
+		}
+		return failures;
+	}
+
+	private Throwable run(Worker worker, OperationResult result) {
+		try {
+			worker.run(result);
+			return null;
+		} catch (Throwable t) {
+			return t;
+		}
+	}
+
+	/**
+	 * Re-throws an exception returned by {@link #execute(List, List, OperationResult)}.
+	 */
+	public static void rethrow(Throwable t) throws SchemaException, ObjectNotFoundException, CommunicationException,
+			ConfigurationException, SecurityViolationException, PolicyViolationException, ExpressionEvaluationException,
+			ObjectAlreadyExistsException, PreconditionViolationException {
+		if (t instanceof SchemaException) {
+			throw (SchemaException) t;
+		} else if (t instanceof ObjectNotFoundException) {
+			throw (ObjectNotFoundException) t;
+		} else if (t instanceof CommunicationException) {
+			throw (CommunicationException) t;
+		} else if (t instanceof ConfigurationException) {
+			throw (ConfigurationException) t;
+		} else if (t instanceof SecurityViolationException) {
+			throw (SecurityViolationException) t;
+		} else if (t instanceof PolicyViolationException) {
+			throw (PolicyViolationException) t;
+		} else if (t instanceof ExpressionEvaluationException) {
+			throw (ExpressionEvaluationException) t;
+		} else if (t instanceof ObjectAlreadyExistsException) {
+			throw (ObjectAlreadyExistsException) t;
+		} else if (t instanceof PreconditionViolationException) {
+			throw (PreconditionViolationException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		} else if (t != null) {
+			throw new SystemException(t.getMessage(), t);
+		}
+	}
+}
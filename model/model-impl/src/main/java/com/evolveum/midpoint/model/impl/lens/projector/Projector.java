@@ -19,6 +19,7 @@ import static com.evolveum.midpoint.model.api.ProgressInformation.ActivityType.P
 import static com.evolveum.midpoint.model.api.ProgressInformation.StateType.ENTERING;
 import static com.evolveum.midpoint.schema.internals.InternalsConfig.consistencyChecks;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.xml.datatype.XMLGregorianCalendar;
@@ -34,6 +35,7 @@ import com.evolveum.midpoint.model.api.context.SynchronizationPolicyDecision;
 import com.evolveum.midpoint.model.impl.lens.LensContext;
 import com.evolveum.midpoint.model.impl.lens.LensProjectionContext;
 import com.evolveum.midpoint.model.impl.lens.LensUtil;
+import com.evolveum.midpoint.model.impl.lens.ParallelProjectionSupport;
 import com.evolveum.midpoint.model.impl.lens.projector.credentials.ProjectionCredentialsProcessor;
 import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.repo.api.PreconditionViolationException;
@@ -99,6 +101,9 @@ public class Projector {
     @Autowired
     private DependencyProcessor dependencyProcessor;
 
+    @Autowired
+    private ParallelProjectionSupport parallelProjectionSupport;
+
     @Autowired
     private Clock clock;
 
@@ -260,7 +265,15 @@ public class Projector {
 					maxWaves = dependencyProcessor.computeMaxWaves(context);
 					LOGGER.trace("Continuing wave {}, maxWaves={}", context.getProjectionWave(), maxWaves);
 
+					List<LensProjectionContext> independentProjections =
+							parallelProjectionSupport.selectIndependent(context, context.getProjectionWave());
+					projectProjectionsConcurrently(context, independentProjections, partialProcessingOptions, now,
+							activityDescription, task, result);
+
 					for (LensProjectionContext projectionContext : context.getProjectionContexts()) {
+						if (independentProjections.contains(projectionContext)) {
+							continue;
+						}
 
 						LensUtil.partialExecute("projection " + projectionContext.getHumanReadableName(),
 								() -> projectProjection(context, projectionContext,
@@ -320,10 +333,58 @@ public class Projector {
     		return;
     	}
 
-		String projectionDesc = getProjectionDesc(projectionContext);
+		OperationResult result = createProjectionResult(projectionContext, parentResult);
+		processProjection(context, projectionContext, partialProcessingOptions, now, activityDescription, task, result);
+	}
+
+	/**
+	 * Processes projections that have no dependency relations among them (all in the current wave) concurrently.
+	 * Each projection gets its own operation result; these are put into the result tree in the order of projections,
+	 * so the tree does not depend on the timing. Critical errors are re-thrown after all the projections are processed:
+	 * the first one in the order of projections.
+	 */
+	private <F extends ObjectType> void projectProjectionsConcurrently(LensContext<F> context,
+			List<LensProjectionContext> projectionContexts, PartialProcessingOptionsType partialProcessingOptions,
+			XMLGregorianCalendar now, String activityDescription, Task task, OperationResult parentResult)
+			throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException,
+			SecurityViolationException, PolicyViolationException, ExpressionEvaluationException, ObjectAlreadyExistsException,
+			PreconditionViolationException {
+		if (projectionContexts.isEmpty()) {
+			return;
+		}
+		LOGGER.trace("Processing {} projections concurrently", projectionContexts.size());
+		List<ParallelProjectionSupport.Worker> workers = new ArrayList<>(projectionContexts.size());
+		List<OperationResult> results = new ArrayList<>(projectionContexts.size());
+		for (LensProjectionContext projectionContext : projectionContexts) {
+			OperationResult result = new OperationResult(OPERATION_PROJECT_PROJECTION);
+			result.setMinor(true);
+			result.addParam(OperationResult.PARAM_PROJECTION, getProjectionDesc(projectionContext));
+			results.add(result);
+			workers.add(workerResult -> LensUtil.partialExecute("projection " + projectionContext.getHumanReadableName(),
+					() -> processProjection(context, projectionContext, partialProcessingOptions, now, activityDescription,
+							task, workerResult),
+					partialProcessingOptions::getProjection));
+		}
+		List<Throwable> failures = parallelProjectionSupport.execute(workers, results, parentResult);
+		if (consistencyChecks) context.checkConsistence();
+		for (Throwable failure : failures) {
+			ParallelProjectionSupport.rethrow(failure);
+		}
+	}
 
+	private OperationResult createProjectionResult(LensProjectionContext projectionContext, OperationResult parentResult) {
 		OperationResult result = parentResult.createMinorSubresult(OPERATION_PROJECT_PROJECTION);
-		result.addParam(OperationResult.PARAM_PROJECTION, projectionDesc);
+		result.addParam(OperationResult.PARAM_PROJECTION, getProjectionDesc(projectionContext));
+		return result;
+	}
+
+	private <F extends ObjectType> void processProjection(LensContext<F> context, LensProjectionContext projectionContext,
+			PartialProcessingOptionsType partialProcessingOptions,
+			XMLGregorianCalendar now, String activityDescription, Task task, OperationResult result)
+					throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException,
+					SecurityViolationException, PolicyViolationException, ExpressionEvaluationException, ObjectAlreadyExistsException, PreconditionViolationException {
+
+		String projectionDesc = getProjectionDesc(projectionContext);
 
 		try {
 
@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.security;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.schema.internals.InternalMonitor;
+import com.evolveum.midpoint.security.api.MidPointPrincipal;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.util.*;
+
+/**
+ * Node-wide cache of MidPointPrincipal objects, so that user assignments and roles do not have to be evaluated
+ * on each authentication (e.g. on each REST call).
+ *
+ * An entry is keyed by user OID and is used only for the user version it was computed for. It also records
+ * OIDs and versions of objects the principal was derived from: assignment targets (roles, orgs, services,
+ * delegators) and the security policy. A committed change of any of them, on this or another cluster node,
+ * removes the entry. Changes of system configuration, security/value policies and orgs flush the whole cache,
+ * because the security policy is located by traversing the whole org tree.
+ *
+ * Time matters as well: an entry expires at the nearest validFrom/validTo of the user assignments and target
+ * objects involved. Assignment conditions are assumed to depend on the user only; as a safeguard, entries
+ * expire after ENTRY_TIME_TO_LIVE at the latest.
+ *
+ * The cache is active only if CacheDispatcher is present, as we would not learn about the changes otherwise.
+ *
+ * @author agent
+ */
+@Component
+public class PrincipalCache implements CacheListener {
+
+	private static final Trace LOGGER = TraceManager.getTrace(PrincipalCache.class);
+
+	private static final long ENTRY_TIME_TO_LIVE = 60000L;
+	private static final int MAX_ENTRIES = 10000;
+
+	/**
+	 * How many recent invalidations we remember. They are needed to detect changes of dependencies that occurred
+	 * while a principal was being computed.
+	 */
+	private static final int MAX_RECENT_INVALIDATIONS = 1000;
+
+	private static final Collection<Class<? extends ObjectType>> FLUSHING_TYPES = Arrays.asList(
+			SystemConfigurationType.class, SecurityPolicyType.class, ValuePolicyType.class, OrgType.class);
+
+	@Autowired(required = false)
+	private CacheDispatcher cacheDispatcher;
+
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			if (size() > MAX_ENTRIES) {
+				removeFromDependents(eldest.getKey(), eldest.getValue());
+				return true;
+			} else {
+				return false;
+			}
+		}
+	};
+
+	/**
+	 * Dependency OID -> OIDs of users whose entries depend on it.
+	 */
+	private final Map<String, Set<String>> dependents = new HashMap<>();
+
+	private long invalidationSequence = 0;
+	private final Deque<Invalidation> recentInvalidations = new ArrayDeque<>();
+
+	private static class Entry {
+		@NotNull private final String userVersion;
+		@NotNull private final MidPointPrincipal principal;
+		@NotNull private final Map<String, String> dependencies;
+		private final long createdAt;
+		private final long expiresAt;
+
+		private Entry(@NotNull String userVersion, @NotNull MidPointPrincipal principal,
+				@NotNull Map<String, String> dependencies, long createdAt, long expiresAt) {
+			this.userVersion = userVersion;
+			this.principal = principal;
+			this.dependencies = dependencies;
+			this.createdAt = createdAt;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private static class Invalidation {
+		private final long sequence;
+		private final String oid;           // null means "everything"
+
+		private Invalidation(long sequence, String oid) {
+			this.sequence = sequence;
+			this.oid = oid;
+		}
+	}
+
+	/**
+	 * Objects a principal was derived from. Collected while the principal is being computed.
+	 */
+	public static class Dependencies {
+		private final long now;
+		private final long startSequence;
+		private final Map<String, String> versions = new HashMap<>();
+		private long expiresAt;
+		private boolean cacheable = true;
+
+		private Dependencies(long now, long startSequence) {
+			this.now = now;
+			this.startSequence = startSequence;
+			this.expiresAt = now + ENTRY_TIME_TO_LIVE;
+		}
+
+		public void addTarget(PrismObject<? extends FocusType> target) {
+			if (target == null) {
+				return;
+			}
+			if (target.getOid() == null || target.getVersion() == null) {
+				setNotCacheable();
+				return;
+			}
+			versions.put(target.getOid(), target.getVersion());
+			FocusType focus = target.asObjectable();
+			addActivation(focus.getActivation());
+			addAssignments(focus.getAssignment());
+			if (focus instanceof AbstractRoleType) {
+				addAssignments(((AbstractRoleType) focus).getInducement());
+			}
+		}
+
+		public void addAssignments(Collection<AssignmentType> assignments) {
+			for (AssignmentType assignment : assignments) {
+				addActivation(assignment.getActivation());
+			}
+		}
+
+		public void addSecurityPolicy(SecurityPolicyType securityPolicy) {
+			if (securityPolicy != null && securityPolicy.getOid() != null) {
+				versions.put(securityPolicy.getOid(), securityPolicy.getVersion());
+			}
+		}
+
+		public void setNotCacheable() {
+			cacheable = false;
+		}
+
+		private void addActivation(ActivationType activation) {
+			if (activation != null) {
+				addTimestamp(activation.getValidFrom());
+				addTimestamp(activation.getValidTo());
+			}
+		}
+
+		private void addTimestamp(XMLGregorianCalendar timestamp) {
+			if (timestamp != null) {
+				long millis = XmlTypeConverter.toMillis(timestamp);
+				if (millis > now && millis < expiresAt) {
+					expiresAt = millis;
+				}
+			}
+		}
+	}
+
+	@PostConstruct
+	public void registerListener() {
+		if (cacheDispatcher != null) {
+			cacheDispatcher.registerCacheListener(this);
+		}
+	}
+
+	@PreDestroy
+	public void unregisterListener() {
+		if (cacheDispatcher != null) {
+			cacheDispatcher.unregisterCacheListener(this);
+		}
+	}
+
+	public boolean isEnabled() {
+		return cacheDispatcher != null;
+	}
+
+	/**
+	 * Returns a principal for given user (already recomputed), or null if there is no valid cached one.
+	 * The principal is a fresh object, so the caller is free to modify it.
+	 */
+	public synchronized MidPointPrincipal get(@NotNull UserType user, long now) {
+		if (!isEnabled()) {
+			return null;
+		}
+		InternalMonitor.getPrincipalCacheStats().recordRequest();
+		Entry entry = user.getOid() != null ? entries.get(user.getOid()) : null;
+		if (entry == null) {
+			LOGGER.trace("Cache MISS: no principal for {}", user);
+			InternalMonitor.getPrincipalCacheStats().recordMiss();
+			return null;
+		}
+		if (!entry.userVersion.equals(user.getVersion()) || now < entry.createdAt || now >= entry.expiresAt) {
+			LOGGER.trace("Cache MISS: principal for {} is outdated (cached user version {}, current {})", user,
+					entry.userVersion, user.getVersion());
+			remove(user.getOid());
+			InternalMonitor.getPrincipalCacheStats().recordMiss();
+			return null;
+		}
+		LOGGER.trace("Cache HIT: reusing principal for {}, version {}", user, entry.userVersion);
+		InternalMonitor.getPrincipalCacheStats().recordHit();
+		return copyPrincipal(user, entry.principal);
+	}
+
+	/**
+	 * Starts collecting dependencies for a principal that is about to be computed.
+	 */
+	public synchronized Dependencies startComputation(long now) {
+		return new Dependencies(now, invalidationSequence);
+	}
+
+	public synchronized void put(@NotNull MidPointPrincipal principal, @NotNull Dependencies dependencies) {
+		UserType user = principal.getUser();
+		if (!isEnabled() || !dependencies.cacheable || user.getOid() == null || user.getVersion() == null) {
+			return;
+		}
+		if (wasInvalidatedSince(dependencies.startSequence, user.getOid(), dependencies.versions.keySet())) {
+			LOGGER.trace("Not caching principal for {} because some of its dependencies have changed meanwhile", user);
+			return;
+		}
+		remove(user.getOid());
+		Map<String, String> dependencyVersions = new HashMap<>(dependencies.versions);
+		entries.put(user.getOid(), new Entry(user.getVersion(), copyPrincipal(user, principal), dependencyVersions,
+				dependencies.now, dependencies.expiresAt));
+		for (String dependencyOid : dependencyVersions.keySet()) {
+			dependents.computeIfAbsent(dependencyOid, k -> new HashSet<>()).add(user.getOid());
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		dependents.clear();
+		recordInvalidation(null);
+	}
+
+	@Override
+	public synchronized <O extends ObjectType> void invalidate(@NotNull Class<O> type, @NotNull String oid,
+			@Nullable String version, boolean clusterwide) {
+		for (Class<? extends ObjectType> flushingType : FLUSHING_TYPES) {
+			if (type.isAssignableFrom(flushingType)) {
+				if (!entries.isEmpty()) {
+					LOGGER.trace("Flushing principal cache because of a change of {} {}", type.getSimpleName(), oid);
+				}
+				clear();
+				return;
+			}
+		}
+		if (!isRelevant(type)) {
+			return;
+		}
+		recordInvalidation(oid);
+		remove(oid);
+		Set<String> userOids = dependents.get(oid);
+		if (userOids != null) {
+			for (String userOid : new ArrayList<>(userOids)) {
+				Entry entry = entries.get(userOid);
+				if (entry != null && (version == null || !version.equals(entry.dependencies.get(oid)))) {
+					LOGGER.trace("Removing principal for {} because {} {} has changed", userOid, type.getSimpleName(), oid);
+					remove(userOid);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void invalidateAll(boolean clusterwide) {
+		clear();
+	}
+
+	/**
+	 * Principals depend on users and on roles, orgs and services (as assignment targets). Changes reported
+	 * using a supertype (FocusType, ObjectType) could concern any of these as well.
+	 */
+	private boolean isRelevant(Class<? extends ObjectType> type) {
+		return UserType.class.isAssignableFrom(type) || AbstractRoleType.class.isAssignableFrom(type)
+				|| type.isAssignableFrom(UserType.class) || type.isAssignableFrom(AbstractRoleType.class);
+	}
+
+	private void remove(String userOid) {
+		Entry entry = entries.remove(userOid);
+		if (entry != null) {
+			removeFromDependents(userOid, entry);
+		}
+	}
+
+	private void removeFromDependents(String userOid, Entry entry) {
+		for (String dependencyOid : entry.dependencies.keySet()) {
+			Set<String> userOids = dependents.get(dependencyOid);
+			if (userOids != null) {
+				userOids.remove(userOid);
+				if (userOids.isEmpty()) {
+					dependents.remove(dependencyOid);
+				}
+			}
+		}
+	}
+
+	private void recordInvalidation(String oid) {
+		recentInvalidations.addLast(new Invalidation(++invalidationSequence, oid));
+		if (recentInvalidations.size() > MAX_RECENT_INVALIDATIONS) {
+			recentInvalidations.removeFirst();
+		}
+	}
+
+	private boolean wasInvalidatedSince(long sequence, String userOid, Set<String> dependencyOids) {
+		if (sequence == invalidationSequence) {
+			return false;
+		}
+		Invalidation oldest = recentInvalidations.peekFirst();
+		if (oldest == null || oldest.sequence > sequence + 1) {
+			return true;            // we do not know what was invalidated
+		}
+		for (Invalidation invalidation : recentInvalidations) {
+			if (invalidation.sequence > sequence && (invalidation.oid == null || invalidation.oid.equals(userOid)
+					|| dependencyOids.contains(invalidation.oid))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Authorizations are not cloned: they are not modified once the principal is built, and sharing them allows
+	 * the security enforcer to reuse the authorizations it has compiled for the previous copies.
+	 */
+	private MidPointPrincipal copyPrincipal(UserType user, MidPointPrincipal source) {
+		MidPointPrincipal principal = new MidPointPrincipal(user);
+		principal.getAuthorities().addAll(source.getAuthorities());
+		principal.setApplicableSecurityPolicy(source.getApplicableSecurityPolicy());
+		if (source.getAdminGuiConfiguration() != null) {
+			principal.setAdminGuiConfiguration(source.getAdminGuiConfiguration().clone());
+		}
+		source.getDelegatorWithOtherPrivilegesLimitationsCollection()
+				.forEach(principal::addDelegatorWithOtherPrivilegesLimitations);
+		return principal;
+	}
+
+	/**
+	 * FOR DIAGNOSTICS ONLY.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+}
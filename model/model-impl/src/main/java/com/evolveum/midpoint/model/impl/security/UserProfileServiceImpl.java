@@ -107,6 +107,7 @@ public class UserProfileServiceImpl implements UserProfileService, UserDetailsSe
 	@Autowired private Clock clock;
 	@Autowired private PrismContext prismContext;
 	@Autowired private TaskManager taskManager;
+	@Autowired private PrincipalCache principalCache;
 
     @Override
     public MidPointPrincipal getPrincipal(String username) throws ObjectNotFoundException, SchemaException {
@@ -141,11 +142,25 @@ public class UserProfileServiceImpl implements UserProfileService, UserDetailsSe
             return null;
         }
 
+    	userComputer.recompute(user);
+
+        // Transformed authorizations are specific to the caller, so they are not cached.
+        boolean useCache = authorizationTransformer == null && principalCache.isEnabled();
+        if (useCache) {
+        	MidPointPrincipal cachedPrincipal = principalCache.get(user.asObjectable(), clock.currentTimeMillis());
+        	if (cachedPrincipal != null) {
+        		return cachedPrincipal;
+	        }
+        }
+
         PrismObject<SystemConfigurationType> systemConfiguration = getSystemConfiguration(result);
 
-    	userComputer.recompute(user);
         MidPointPrincipal principal = new MidPointPrincipal(user.asObjectable());
-        initializePrincipalFromAssignments(principal, systemConfiguration, authorizationTransformer);
+        PrincipalCache.Dependencies dependencies = principalCache.startComputation(clock.currentTimeMillis());
+        initializePrincipalFromAssignments(principal, systemConfiguration, authorizationTransformer, dependencies);
+        if (useCache) {
+        	principalCache.put(principal, dependencies);
+        }
         return principal;
     }
     
@@ -184,7 +199,8 @@ public class UserProfileServiceImpl implements UserProfileService, UserDetailsSe
         return list.get(0);
     }
 
-	private void initializePrincipalFromAssignments(MidPointPrincipal principal, PrismObject<SystemConfigurationType> systemConfiguration, AuthorizationTransformer authorizationTransformer) throws SchemaException {
+	private void initializePrincipalFromAssignments(MidPointPrincipal principal, PrismObject<SystemConfigurationType> systemConfiguration,
+			AuthorizationTransformer authorizationTransformer, PrincipalCache.Dependencies dependencies) throws SchemaException {
 		UserType userType = principal.getUser();
 
 		Collection<Authorization> authorizations = principal.getAuthorities();
@@ -194,6 +210,8 @@ public class UserProfileServiceImpl implements UserProfileService, UserDetailsSe
         OperationResult result = task.getResult();
 
         principal.setApplicableSecurityPolicy(securityHelper.locateSecurityPolicy(userType.asPrismObject(), systemConfiguration, task, result));
+        dependencies.addSecurityPolicy(principal.getApplicableSecurityPolicy());
+        dependencies.addAssignments(userType.getAssignment());
 
 		if (!userType.getAssignment().isEmpty()) {
 			LensContext<UserType> lensContext = new LensContextPlaceholder<>(userType.asPrismObject(), prismContext);
@@ -232,6 +250,9 @@ public class UserProfileServiceImpl implements UserProfileService, UserDetailsSe
 							addAuthorizations(authorizations, assignment.getAuthorizations(), authorizationTransformer);
 							adminGuiConfigurations.addAll(assignment.getAdminGuiConfigurations());
 						}
+						for (EvaluatedAssignmentTarget target : assignment.getRoles().getAllValues()) {
+							dependencies.addTarget(target.getTarget());
+						}
 						for (EvaluatedAssignmentTarget target : assignment.getRoles().getNonNegativeValues()) {
 							if (target.isValid() && target.getTarget() != null && target.getTarget().asObjectable() instanceof UserType
 									&& DeputyUtils.isDelegationPath(target.getAssignmentPath())) {
@@ -243,6 +264,7 @@ public class UserProfileServiceImpl implements UserProfileService, UserDetailsSe
 					} catch (SchemaException | ObjectNotFoundException | ExpressionEvaluationException | PolicyViolationException | SecurityViolationException | ConfigurationException | CommunicationException e) {
 						LOGGER.error("Error while processing assignment of {}: {}; assignment: {}",
 								userType, e.getMessage(), assignmentType, e);
+						dependencies.setNotCacheable();
 					}
 				}
 			} finally {
@@ -218,6 +218,10 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		allItemsSubmitted = true;
 	}
 
+	public boolean isStopRequested() {
+		return stopRequestedByAnyWorker.get();
+	}
+
 	public Float getAverageTime() {
 		long count = getProgress();
 		if (count > 0) {
@@ -496,6 +500,7 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		if (threadsCount == null || threadsCount == 0) {
 			return;             // nothing to do
 		}
+		allItemsSubmitted = false;				// the handler can be used for more searches (e.g. for more work buckets)
 
 		int queueSize = threadsCount*2;				// actually, size of threadsCount should be sufficient but it doesn't hurt if queue is larger
 		requestQueue = new ArrayBlockingQueue<>(queueSize);
@@ -49,6 +49,7 @@ import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ModelExecuteOptionsType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
 import com.evolveum.prism.xml.ns._public.query_3.QueryType;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -56,6 +57,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
 
 import javax.xml.namespace.QName;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * @author semancik
@@ -106,6 +108,9 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
 	@Autowired
 	protected SystemObjectCache systemObjectCache;
 
+	@Autowired
+	protected WorkBucketManager workBucketManager;
+
 	private static final transient Trace LOGGER = TraceManager.getTrace(AbstractSearchIterativeTaskHandler.class);
 
 	protected AbstractSearchIterativeTaskHandler(String taskName, String taskOperationPrefix) {
@@ -172,6 +177,16 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
     }
 
     public TaskRunResult runInternal(Task coordinatorTask) {
+		Integer workBuckets = workBucketManager.getConfiguredBuckets(coordinatorTask);
+		if (workBuckets != null && workBuckets > 0 && !workBucketManager.isWorker(coordinatorTask)) {
+			if (supportsWorkBuckets(coordinatorTask)) {
+				return runWorkBucketsCoordinator(coordinatorTask, workBuckets);
+			} else {
+				LOGGER.warn("{}: work buckets are not supported for {}, processing all objects in {}", taskName,
+						getType(coordinatorTask).getSimpleName(), coordinatorTask);
+			}
+		}
+
 		OperationResult opResult = new OperationResult(taskOperationPrefix + ".run");
 		opResult.setStatus(OperationResultStatus.IN_PROGRESS);
 		TaskRunResult runResult = new TaskRunResult();
@@ -255,11 +270,12 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
             LOGGER.trace("{}: searching {} with options {}, using query:\n{}", taskName, type, queryOptions, query.debugDump());
         }
 
+        boolean worker = workBucketManager.isWorker(coordinatorTask);
         try {
 
             // counting objects can be within try-catch block, because the handling is similar to handling errors within searchIterative
             Long expectedTotal = null;
-            if (countObjectsOnStart) {
+            if (countObjectsOnStart && !worker) {       // a worker does not know in advance how many buckets it will process
                 if (!useRepository) {
                     Integer expectedTotalInt = modelObjectResolver.countObjects(type, query, queryOptions, coordinatorTask, opResult);
                     if (expectedTotalInt != null) {
@@ -282,13 +298,11 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
                 throw new IllegalStateException("Unexpected ObjectAlreadyExistsException when updating task progress/expectedTotal", e);
             }
 
-            resultHandler.createWorkerThreads(coordinatorTask, opResult);
-            if (!useRepository) {
-                modelObjectResolver.searchIterative((Class<O>) type, query, queryOptions, resultHandler, coordinatorTask, opResult);
+            if (worker) {
+                processWorkBuckets(type, query, queryOptions, useRepository, resultHandler, coordinatorTask, opResult);
             } else {
-                repositoryService.searchObjectsIterative(type, query, (ResultHandler) resultHandler, queryOptions, false, opResult);    // TODO think about this
+                searchIterative(type, query, queryOptions, useRepository, resultHandler, coordinatorTask, opResult);
             }
-            resultHandler.completeProcessing(coordinatorTask, opResult);
 
         } catch (ObjectNotFoundException e) {
             // This is bad. The resource does not exist. Permanent problem.
@@ -364,6 +378,133 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
 		return runResult;
 	}
 
+	private void searchIterative(Class<? extends ObjectType> type, ObjectQuery query,
+			Collection<SelectorOptions<GetOperationOptions>> queryOptions, boolean useRepository, H resultHandler,
+			Task coordinatorTask, OperationResult opResult)
+			throws SchemaException, ObjectNotFoundException, CommunicationException, ConfigurationException,
+			SecurityViolationException, ExpressionEvaluationException {
+		resultHandler.createWorkerThreads(coordinatorTask, opResult);
+		if (!useRepository) {
+			modelObjectResolver.searchIterative((Class<O>) type, query, queryOptions, resultHandler, coordinatorTask, opResult);
+		} else {
+			repositoryService.searchObjectsIterative(type, query, (ResultHandler) resultHandler, queryOptions, false, opResult);    // TODO think about this
+		}
+		resultHandler.completeProcessing(coordinatorTask, opResult);
+	}
+
+	/**
+	 * Work buckets are OID intervals, so the search has to go to the repository - either directly or via model
+	 * (for non-shadow objects).
+	 */
+	private boolean supportsWorkBuckets(Task coordinatorTask) {
+		return !ShadowType.class.isAssignableFrom(getType(coordinatorTask))
+				|| useRepositoryDirectly(null, null, coordinatorTask, null);
+	}
+
+	/**
+	 * First run of the coordinator creates the buckets and the workers, and then waits for the workers to close.
+	 * Second run (after the workers are done) summarizes the results and clears the buckets, so the task can be
+	 * started again.
+	 */
+	private TaskRunResult runWorkBucketsCoordinator(Task coordinatorTask, int bucketsCount) {
+		OperationResult opResult = new OperationResult(taskOperationPrefix + ".runCoordinator");
+		TaskRunResult runResult = new TaskRunResult();
+		runResult.setOperationResult(opResult);
+		try {
+			List<WorkBucket> buckets = workBucketManager.getBuckets(coordinatorTask);
+			if (buckets.isEmpty()) {
+				workBucketManager.setBuckets(coordinatorTask, workBucketManager.createOidBuckets(bucketsCount));
+				coordinatorTask.setProgress(0);
+				coordinatorTask.savePendingModifications(opResult);
+				Integer workers = workBucketManager.getConfiguredWorkers(coordinatorTask);
+				workBucketManager.createWorkers(coordinatorTask, workers != null && workers > 0 ? workers : bucketsCount, opResult);
+				coordinatorTask.pushWaitForTasksHandlerUri();
+				coordinatorTask.savePendingModifications(opResult);
+				LOGGER.info("{}: created {} work buckets for {}, waiting for the workers to process them",
+						taskName, bucketsCount, coordinatorTask);
+				opResult.recordInProgress();
+				runResult.setProgress(0);
+				runResult.setRunResultStatus(TaskRunResultStatus.RESTART_REQUESTED);
+			} else {
+				long progress = WorkBucketManager.getTotalProgress(buckets);
+				List<WorkBucket> unfinished = buckets.stream()
+						.filter(b -> b.getState() != WorkBucket.State.COMPLETE)
+						.collect(Collectors.toList());
+				if (unfinished.isEmpty()) {
+					opResult.recordSuccess();
+				} else {
+					opResult.recordPartialError(unfinished.size() + " out of " + buckets.size()
+							+ " work buckets were not completed: " + unfinished);
+				}
+				workBucketManager.setBuckets(coordinatorTask, Collections.emptyList());
+				coordinatorTask.setProgress(progress);
+				coordinatorTask.savePendingModifications(opResult);
+				LOGGER.info("{}: all workers of {} finished; processed {} objects in {} buckets, {} bucket(s) not completed",
+						taskName, coordinatorTask, progress, buckets.size(), unfinished.size());
+				runResult.setProgress(progress);
+				runResult.setRunResultStatus(TaskRunResultStatus.FINISHED);
+			}
+		} catch (SchemaException | ObjectNotFoundException | ObjectAlreadyExistsException | RuntimeException e) {
+			LOGGER.error("{}: Couldn't coordinate work buckets: {}", taskName, e.getMessage(), e);
+			opResult.recordFatalError("Couldn't coordinate work buckets: " + e.getMessage(), e);
+			runResult.setRunResultStatus(TaskRunResultStatus.PERMANENT_ERROR);
+			runResult.setProgress(coordinatorTask.getProgress());
+		}
+		return runResult;
+	}
+
+	/**
+	 * Worker claims buckets from its coordinator (parent task) one by one, until there is nothing left to do.
+	 * A bucket whose processing was stopped because of an error is marked as failed, so it can be retried later.
+	 * (Errors on individual objects that do not stop the processing are reported in the usual way.)
+	 */
+	private void processWorkBuckets(Class<? extends ObjectType> type, ObjectQuery query,
+			Collection<SelectorOptions<GetOperationOptions>> queryOptions, boolean useRepository, H resultHandler,
+			Task workerTask, OperationResult opResult)
+			throws SchemaException, ObjectNotFoundException, CommunicationException, ConfigurationException,
+			SecurityViolationException, ExpressionEvaluationException {
+		Task coordinator = workerTask.getParentTask(opResult);
+		if (coordinator == null) {
+			throw new IllegalStateException("Work bucket worker " + workerTask + " has no coordinator (parent) task");
+		}
+		String coordinatorOid = coordinator.getOid();
+		while (workerTask.canRun()) {
+			WorkBucket bucket = workBucketManager.claimBucket(coordinatorOid, workerTask.getOid(), opResult);
+			if (bucket == null) {
+				LOGGER.debug("{}: no more work buckets for {}", taskName, workerTask);
+				break;
+			}
+			long progressBefore = resultHandler.getProgress();
+			try {
+				searchIterative(type, workBucketManager.narrowQuery(query, bucket, type), queryOptions, useRepository,
+						resultHandler, workerTask, opResult);
+			} catch (CommonException | RuntimeException e) {
+				finishBucketQuietly(coordinatorOid, bucket, WorkBucket.State.FAILED,
+						resultHandler.getProgress() - progressBefore, opResult);
+				throw e;
+			}
+			if (!workerTask.canRun()) {
+				LOGGER.debug("{}: {} interrupted, leaving {} to be resumed later", taskName, workerTask, bucket);
+				break;
+			}
+			boolean stopped = resultHandler.isStopRequested();
+			workBucketManager.finishBucket(coordinatorOid, bucket, stopped ? WorkBucket.State.FAILED : WorkBucket.State.COMPLETE,
+					resultHandler.getProgress() - progressBefore, opResult);
+			if (stopped) {
+				break;
+			}
+		}
+	}
+
+	private void finishBucketQuietly(String coordinatorOid, WorkBucket bucket, WorkBucket.State state, long progress,
+			OperationResult opResult) {
+		try {
+			workBucketManager.finishBucket(coordinatorOid, bucket, state, progress, opResult);
+		} catch (SchemaException | ObjectNotFoundException | RuntimeException e) {
+			LOGGER.error("{}: Couldn't mark {} as {}: {}", taskName, bucket, state, e.getMessage(), e);
+		}
+	}
+
 	private TaskRunResult logErrorAndSetResult(TaskRunResult runResult, H resultHandler, String message, Throwable e,
 			OperationResultStatus opStatus, TaskRunResultStatus status) {
 		LOGGER.error("{}: {}: {}", taskName, message, e.getMessage(), e);
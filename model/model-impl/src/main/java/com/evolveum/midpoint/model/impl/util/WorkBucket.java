@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.util;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A part of work of a search-iterative task: objects with OIDs in interval [lowerOid, upperOid).
+ * Null bound means the interval is open on that side.
+ *
+ * Buckets are stored in coordinator task extension (workBucket property) in the form of
+ * "sequence:state:lowerOid:upperOid:workerOid:progress:attempts:timestamp", with empty strings representing nulls.
+ * Timestamp is the time (in millis) when the bucket was last claimed; 0 if it was never claimed.
+ *
+ * Immutable.
+ *
+ * @author agent
+ */
+public class WorkBucket {
+
+	public enum State {
+		READY, IN_PROGRESS, COMPLETE, FAILED
+	}
+
+	private static final String SEPARATOR = ":";
+
+	private final int sequence;
+	private final State state;
+	private final String lowerOid;
+	private final String upperOid;
+	private final String workerOid;
+	private final long progress;
+	private final int attempts;
+	private final long timestamp;
+
+	public WorkBucket(int sequence, State state, String lowerOid, String upperOid, String workerOid, long progress, int attempts) {
+		this(sequence, state, lowerOid, upperOid, workerOid, progress, attempts, 0);
+	}
+
+	public WorkBucket(int sequence, State state, String lowerOid, String upperOid, String workerOid, long progress, int attempts,
+			long timestamp) {
+		this.sequence = sequence;
+		this.state = state;
+		this.lowerOid = lowerOid;
+		this.upperOid = upperOid;
+		this.workerOid = workerOid;
+		this.progress = progress;
+		this.attempts = attempts;
+		this.timestamp = timestamp;
+	}
+
+	public int getSequence() {
+		return sequence;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public String getLowerOid() {
+		return lowerOid;
+	}
+
+	public String getUpperOid() {
+		return upperOid;
+	}
+
+	public String getWorkerOid() {
+		return workerOid;
+	}
+
+	public long getProgress() {
+		return progress;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public WorkBucket claim(String workerOid, long now) {
+		return new WorkBucket(sequence, State.IN_PROGRESS, lowerOid, upperOid, workerOid, 0, attempts + 1, now);
+	}
+
+	public WorkBucket finish(State newState, long newProgress) {
+		return new WorkBucket(sequence, newState, lowerOid, upperOid, workerOid, newProgress, attempts, timestamp);
+	}
+
+	public static WorkBucket parse(String string) {
+		String[] parts = StringUtils.splitPreserveAllTokens(string, SEPARATOR);
+		if (parts.length != 7 && parts.length != 8) {		// 7 = written by a version without timestamps
+			throw new IllegalArgumentException("Invalid work bucket: " + string);
+		}
+		return new WorkBucket(Integer.parseInt(parts[0]), State.valueOf(parts[1]), StringUtils.defaultIfEmpty(parts[2], null),
+				StringUtils.defaultIfEmpty(parts[3], null), StringUtils.defaultIfEmpty(parts[4], null),
+				Long.parseLong(parts[5]), Integer.parseInt(parts[6]), parts.length > 7 ? Long.parseLong(parts[7]) : 0);
+	}
+
+	public String format() {
+		return sequence + SEPARATOR + state + SEPARATOR + StringUtils.defaultString(lowerOid) + SEPARATOR
+				+ StringUtils.defaultString(upperOid) + SEPARATOR + StringUtils.defaultString(workerOid) + SEPARATOR
+				+ progress + SEPARATOR + attempts + SEPARATOR + timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "WorkBucket{" + format() + "}";
+	}
+}
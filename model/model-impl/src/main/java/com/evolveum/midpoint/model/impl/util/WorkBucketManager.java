@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.util;
+
+import com.evolveum.midpoint.model.impl.util.WorkBucket.State;
+import com.evolveum.midpoint.prism.*;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
+import com.evolveum.midpoint.prism.path.IdentifierPathSegment;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
+import com.evolveum.midpoint.prism.query.builder.S_AtomicFilterEntry;
+import com.evolveum.midpoint.prism.query.builder.S_AtomicFilterExit;
+import com.evolveum.midpoint.repo.api.OptimisticLockingRunner;
+import com.evolveum.midpoint.repo.api.PreconditionViolationException;
+import com.evolveum.midpoint.repo.api.RepositoryOperation;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.api.VersionPrecondition;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskBinding;
+import com.evolveum.midpoint.task.api.TaskExecutionStatus;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskExecutionStatusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Manages work buckets of search-iterative tasks distributed across cluster nodes.
+ *
+ * The coordinator task divides OID space into buckets and creates worker subtasks. Buckets are kept in the coordinator
+ * task extension; workers claim and update them using optimistic locking on the coordinator task (version precondition),
+ * so a bucket is never claimed by two workers at once. A bucket that was left in progress by an interrupted worker
+ * is resumed by the same worker. If that worker does not come back (it is closed, suspended or deleted, or it has not
+ * finished the bucket within the reclaim timeout, e.g. because its node crashed), the bucket can be claimed by another
+ * worker. Failed and reclaimed buckets are retried until MAX_ATTEMPTS is reached.
+ *
+ * @author agent
+ */
+@Component
+public class WorkBucketManager {
+
+	private static final Trace LOGGER = TraceManager.getTrace(WorkBucketManager.class);
+
+	public static final int MAX_ATTEMPTS = 3;
+	private static final int MAX_BUCKETS = 0x10000;
+	private static final int MAX_CONFLICT_ATTEMPTS = 100;
+	private static final int CONFLICT_DELAY_RANGE = 200;
+	private static final int DEFAULT_RECLAIM_TIMEOUT = 3600;		// seconds
+
+	private static final ItemPath OID_PATH = new ItemPath(new IdentifierPathSegment());
+	private static final QName OID_NAME = new QName(SchemaConstants.NS_C, "oid");
+	private static final ItemPath WORK_BUCKET_PATH = new ItemPath(TaskType.F_EXTENSION, SchemaConstants.MODEL_EXTENSION_WORK_BUCKET);
+
+	@Autowired private PrismContext prismContext;
+	@Autowired private TaskManager taskManager;
+
+	@Autowired
+	@Qualifier("cacheRepositoryService")
+	private RepositoryService repositoryService;
+
+	public WorkBucketManager() {
+	}
+
+	// for unit tests
+	WorkBucketManager(PrismContext prismContext, RepositoryService repositoryService) {
+		this.prismContext = prismContext;
+		this.repositoryService = repositoryService;
+	}
+
+	public Integer getConfiguredBuckets(Task task) {
+		return getIntExtensionValue(task, SchemaConstants.MODEL_EXTENSION_WORK_BUCKETS);
+	}
+
+	public Integer getConfiguredWorkers(Task task) {
+		return getIntExtensionValue(task, SchemaConstants.MODEL_EXTENSION_WORKER_TASKS);
+	}
+
+	public boolean isWorker(Task task) {
+		PrismProperty<Boolean> property = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_WORK_BUCKET_WORKER);
+		return property != null && Boolean.TRUE.equals(property.getRealValue());
+	}
+
+	/**
+	 * Divides the OID space into intervals given by (hexadecimal) OID prefixes. The first and the last bucket are open,
+	 * so all objects are covered even if their OIDs are not in the usual UUID form.
+	 */
+	public List<WorkBucket> createOidBuckets(int count) {
+		if (count < 1 || count > MAX_BUCKETS) {
+			throw new IllegalArgumentException("Number of work buckets must be between 1 and " + MAX_BUCKETS + ", it is " + count);
+		}
+		int digits = 1;
+		while (1L << (4 * digits) < count) {
+			digits++;
+		}
+		long space = 1L << (4 * digits);
+		List<WorkBucket> buckets = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			String lower = i > 0 ? toHexPrefix(i * space / count, digits) : null;
+			String upper = i < count - 1 ? toHexPrefix((i + 1) * space / count, digits) : null;
+			buckets.add(new WorkBucket(i, State.READY, lower, upper, null, 0, 0));
+		}
+		return buckets;
+	}
+
+	private String toHexPrefix(long value, int digits) {
+		StringBuilder sb = new StringBuilder(Long.toHexString(value));
+		while (sb.length() < digits) {
+			sb.insert(0, '0');
+		}
+		return sb.toString();
+	}
+
+	public List<WorkBucket> getBuckets(Task task) {
+		return parseBuckets(task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_WORK_BUCKET));
+	}
+
+	private List<WorkBucket> getBuckets(PrismObject<TaskType> task) {
+		return parseBuckets(task.findProperty(WORK_BUCKET_PATH));
+	}
+
+	private List<WorkBucket> parseBuckets(PrismProperty<String> property) {
+		List<WorkBucket> buckets = new ArrayList<>();
+		if (property != null) {
+			for (String value : property.getRealValues()) {
+				buckets.add(WorkBucket.parse(value));
+			}
+		}
+		buckets.sort(Comparator.comparing(WorkBucket::getSequence));
+		return buckets;
+	}
+
+	/**
+	 * Stores the buckets into the coordinator task (as pending modifications).
+	 */
+	public void setBuckets(Task coordinatorTask, List<WorkBucket> buckets) throws SchemaException {
+		PrismProperty<String> property = getBucketPropertyDefinition().instantiate();
+		for (WorkBucket bucket : buckets) {
+			property.addRealValue(bucket.format());
+		}
+		coordinatorTask.setExtensionProperty(property);
+	}
+
+	/**
+	 * Creates persistent worker subtasks that execute the same handler as the coordinator. They are bound loosely,
+	 * so they can be picked up by any node in the cluster.
+	 */
+	public List<Task> createWorkers(Task coordinatorTask, int count, OperationResult result)
+			throws SchemaException, ObjectNotFoundException {
+		List<Task> workers = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Task worker = coordinatorTask.createSubtask();
+			worker.setName(coordinatorTask.getName().getOrig() + " (worker " + (i + 1) + " of " + count + ")");
+			worker.setHandlerUri(coordinatorTask.getHandlerUri());
+			worker.setCategory(coordinatorTask.getCategory());
+			worker.setObjectRef(coordinatorTask.getObjectRef());
+			copyExtension(coordinatorTask, worker);
+			worker.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_WORK_BUCKET_WORKER, true);
+			worker.setBinding(TaskBinding.LOOSE);
+			worker.setInitialExecutionStatus(TaskExecutionStatus.RUNNABLE);
+			taskManager.switchToBackground(worker, result);
+			LOGGER.debug("Created worker {} for coordinator {}", worker, coordinatorTask);
+			workers.add(worker);
+		}
+		return workers;
+	}
+
+	private void copyExtension(Task coordinatorTask, Task worker) throws SchemaException {
+		PrismContainer<?> extension = coordinatorTask.getExtension();
+		if (extension == null || extension.getValue() == null || extension.getValue().getItems() == null) {
+			return;
+		}
+		for (Item<?, ?> item : extension.getValue().getItems()) {
+			QName name = item.getElementName();
+			if (QNameUtil.match(name, SchemaConstants.MODEL_EXTENSION_WORK_BUCKETS)
+					|| QNameUtil.match(name, SchemaConstants.MODEL_EXTENSION_WORKER_TASKS)
+					|| QNameUtil.match(name, SchemaConstants.MODEL_EXTENSION_WORK_BUCKET)) {
+				continue;
+			}
+			worker.setExtensionItem(item.clone());
+		}
+	}
+
+	/**
+	 * Restricts the query to objects in the bucket.
+	 */
+	public ObjectQuery narrowQuery(ObjectQuery query, WorkBucket bucket, Class<? extends ObjectType> type) throws SchemaException {
+		ObjectQuery narrowed = query != null ? query.clone() : new ObjectQuery();
+		narrowed.setFilter(ObjectQueryUtil.filterAnd(narrowed.getFilter(), createBucketFilter(bucket, type)));
+		return narrowed;
+	}
+
+	private ObjectFilter createBucketFilter(WorkBucket bucket, Class<? extends ObjectType> type) throws SchemaException {
+		if (bucket.getLowerOid() == null && bucket.getUpperOid() == null) {
+			return null;
+		}
+		PrismPropertyDefinition<String> oidDefinition = new PrismPropertyDefinitionImpl<>(OID_NAME, DOMUtil.XSD_STRING, prismContext);
+		S_AtomicFilterEntry entry = QueryBuilder.queryFor(type, prismContext);
+		S_AtomicFilterExit exit = null;
+		if (bucket.getLowerOid() != null) {
+			exit = entry.item(OID_PATH, oidDefinition).ge(bucket.getLowerOid());
+		}
+		if (bucket.getUpperOid() != null) {
+			exit = (exit != null ? exit.and() : entry).item(OID_PATH, oidDefinition).lt(bucket.getUpperOid());
+		}
+		return exit.buildFilter();
+	}
+
+	/**
+	 * Claims a bucket for the worker: the one it has left in progress (if any), then a ready one, then one left
+	 * in progress by another worker that is not going to finish it, then a failed one. Buckets taken over from other
+	 * workers and failed buckets are claimed only if they were not tried too many times.
+	 *
+	 * @return null if there is nothing more to do
+	 */
+	public WorkBucket claimBucket(@NotNull String coordinatorOid, @NotNull String workerOid, OperationResult result)
+			throws SchemaException, ObjectNotFoundException {
+		Map<String, Boolean> workersAlive = new HashMap<>();
+		return runWithConflictDetection(coordinatorOid, result, coordinator -> {
+			long now = System.currentTimeMillis();
+			long reclaimTimeout = getReclaimTimeout(coordinator) * 1000L;
+			WorkBucket selected = selectBucket(getBuckets(coordinator), workerOid, now, reclaimTimeout,
+					otherWorkerOid -> workersAlive.computeIfAbsent(otherWorkerOid, this::isWorkerAlive));
+			if (selected == null) {
+				return null;
+			}
+			WorkBucket claimed = selected.claim(workerOid, now);
+			replaceBucket(coordinator, selected, claimed);
+			if (selected.getState() == State.IN_PROGRESS && !workerOid.equals(selected.getWorkerOid())) {
+				LOGGER.info("Worker {} took over {} from worker {}", workerOid, claimed, selected.getWorkerOid());
+			} else {
+				LOGGER.debug("Worker {} claimed {}", workerOid, claimed);
+			}
+			return claimed;
+		});
+	}
+
+	static WorkBucket selectBucket(List<WorkBucket> buckets, String workerOid, long now, long reclaimTimeout,
+			Predicate<String> isWorkerAlive) {
+		for (WorkBucket bucket : buckets) {
+			if (bucket.getState() == State.IN_PROGRESS && workerOid.equals(bucket.getWorkerOid())) {
+				return bucket;
+			}
+		}
+		for (WorkBucket bucket : buckets) {
+			if (bucket.getState() == State.READY) {
+				return bucket;
+			}
+		}
+		for (WorkBucket bucket : buckets) {
+			if (bucket.getState() == State.IN_PROGRESS && bucket.getAttempts() < MAX_ATTEMPTS
+					&& (now - bucket.getTimestamp() >= reclaimTimeout
+							|| bucket.getWorkerOid() == null || !isWorkerAlive.test(bucket.getWorkerOid()))) {
+				return bucket;
+			}
+		}
+		for (WorkBucket bucket : buckets) {
+			if (bucket.getState() == State.FAILED && bucket.getAttempts() < MAX_ATTEMPTS) {
+				return bucket;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A worker that is not runnable (or does not exist) will not continue processing its bucket.
+	 */
+	private boolean isWorkerAlive(String workerOid) {
+		OperationResult result = new OperationResult(WorkBucketManager.class.getName() + ".isWorkerAlive");
+		try {
+			PrismObject<TaskType> worker = repositoryService.getObject(TaskType.class, workerOid, null, result);
+			return worker.asObjectable().getExecutionStatus() == TaskExecutionStatusType.RUNNABLE;
+		} catch (ObjectNotFoundException e) {
+			return false;
+		} catch (SchemaException e) {
+			throw new SystemException("Couldn't get worker task " + workerOid + ": " + e.getMessage(), e);
+		}
+	}
+
+	private int getReclaimTimeout(PrismObject<TaskType> coordinator) {
+		PrismProperty<Integer> property = coordinator.findProperty(
+				new ItemPath(TaskType.F_EXTENSION, SchemaConstants.MODEL_EXTENSION_WORK_BUCKET_RECLAIM_TIMEOUT));
+		return property != null && property.getRealValue() != null ? property.getRealValue() : DEFAULT_RECLAIM_TIMEOUT;
+	}
+
+	/**
+	 * Marks the bucket as COMPLETE or FAILED, recording the number of objects processed.
+	 */
+	public void finishBucket(@NotNull String coordinatorOid, @NotNull WorkBucket bucket, State state, long progress,
+			OperationResult result) throws SchemaException, ObjectNotFoundException {
+		runWithConflictDetection(coordinatorOid, result, coordinator -> {
+			WorkBucket current = getBuckets(coordinator).stream()
+					.filter(b -> b.getSequence() == bucket.getSequence())
+					.findFirst()
+					.orElseThrow(() -> new IllegalStateException("Work bucket " + bucket + " is no longer present in " + coordinator));
+			if (current.getState() != State.IN_PROGRESS || !bucket.getWorkerOid().equals(current.getWorkerOid())) {
+				LOGGER.warn("Work bucket {} is no longer owned by worker {}; not updating it", current, bucket.getWorkerOid());
+				return null;
+			}
+			replaceBucket(coordinator, current, current.finish(state, progress));
+			return null;
+		});
+	}
+
+	private void replaceBucket(PrismObject<TaskType> coordinator, WorkBucket oldBucket, WorkBucket newBucket)
+			throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException, PreconditionViolationException {
+		List<ItemDelta<?, ?>> modifications = DeltaBuilder.deltaFor(TaskType.class, prismContext)
+				.item(WORK_BUCKET_PATH, getBucketPropertyDefinition())
+						.add(newBucket.format())
+						.delete(oldBucket.format())
+				.asItemDeltas();
+		repositoryService.modifyObject(TaskType.class, coordinator.getOid(), modifications,
+				new VersionPrecondition<>(coordinator), null, new OperationResult(WorkBucketManager.class.getName() + ".replaceBucket"));
+	}
+
+	private <R> R runWithConflictDetection(String coordinatorOid, OperationResult result,
+			RepositoryOperation<TaskType, R> operation) throws SchemaException, ObjectNotFoundException {
+		PrismObject<TaskType> coordinator = repositoryService.getObject(TaskType.class, coordinatorOid, null, result);
+		OptimisticLockingRunner<TaskType, R> runner = new OptimisticLockingRunner.Builder<TaskType, R>()
+				.object(coordinator)
+				.result(result)
+				.repositoryService(repositoryService)
+				.maxNumberOfAttempts(MAX_CONFLICT_ATTEMPTS)
+				.delayRange(CONFLICT_DELAY_RANGE)
+				.build();
+		try {
+			return runner.run(operation);
+		} catch (ObjectAlreadyExistsException e) {
+			throw new SystemException("Unexpected ObjectAlreadyExistsException when updating work buckets: " + e.getMessage(), e);
+		}
+	}
+
+	private PrismPropertyDefinition<String> getBucketPropertyDefinition() {
+		return prismContext.getSchemaRegistry().findPropertyDefinitionByElementName(SchemaConstants.MODEL_EXTENSION_WORK_BUCKET);
+	}
+
+	private Integer getIntExtensionValue(Task task, QName name) {
+		PrismProperty<Integer> property = task.getExtensionProperty(name);
+		return property != null ? property.getRealValue() : null;
+	}
+
+	public static long getTotalProgress(Collection<WorkBucket> buckets) {
+		return buckets.stream().mapToLong(WorkBucket::getProgress).sum();
+	}
+}
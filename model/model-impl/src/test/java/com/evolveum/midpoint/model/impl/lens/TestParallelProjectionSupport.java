@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.lens;
+
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.CommunicationException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author agent
+ */
+public class TestParallelProjectionSupport {
+
+	private static final int WORKERS = 4;
+
+	private ParallelProjectionSupport support;
+
+	@BeforeMethod
+	public void setUp() {
+		support = new ParallelProjectionSupport();
+		support.setThreads(WORKERS);
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		support.shutdown();
+	}
+
+	@Test
+	public void test100WorkersRunConcurrently() throws Exception {
+		// all the workers have to be running at the same time to get through the latch
+		CountDownLatch latch = new CountDownLatch(WORKERS);
+		List<ParallelProjectionSupport.Worker> workers = new ArrayList<>();
+		for (int i = 0; i < WORKERS; i++) {
+			workers.add(result -> {
+				latch.countDown();
+				assertTrue("Workers are not running concurrently", await(latch));
+				result.recordSuccess();
+			});
+		}
+		OperationResult parent = new OperationResult("parent");
+
+		List<Throwable> failures = support.execute(workers, createResults(WORKERS), parent);
+
+		assertEquals(Collections.nCopies(WORKERS, null), failures);
+		assertEquals("Wrong # of subresults", WORKERS, parent.getSubresults().size());
+	}
+
+	@Test
+	public void test110ResultsAndSharedStateInOrder() throws Exception {
+		Thread caller = Thread.currentThread();
+		List<String> sharedState = new ArrayList<>();
+		List<ParallelProjectionSupport.Worker> workers = new ArrayList<>();
+		for (int i = 0; i < WORKERS; i++) {
+			int index = i;
+			workers.add(result -> {
+				// later workers finish first
+				sleep(50 * (WORKERS - index));
+				ParallelProjectionSupport.modifySharedState(() -> {
+					assertSame("Shared state modified by a worker thread", caller, Thread.currentThread());
+					sharedState.add("worker-" + index);
+				});
+				result.createSubresult("child-" + index).recordSuccess();
+				result.computeStatus();
+			});
+		}
+		List<OperationResult> results = createResults(WORKERS);
+		OperationResult parent = new OperationResult("parent");
+
+		List<Throwable> failures = support.execute(workers, results, parent);
+
+		assertEquals(Collections.nCopies(WORKERS, null), failures);
+		assertEquals("Wrong order of shared state modifications",
+				createNames("worker-", WORKERS), sharedState);
+		assertEquals("Wrong order of subresults", results, parent.getSubresults());
+		for (int i = 0; i < WORKERS; i++) {
+			assertEquals("Wrong child of result " + i, "child-" + i,
+					parent.getSubresults().get(i).getSubresults().get(0).getOperation());
+		}
+	}
+
+	@Test
+	public void test120FailuresInOrder() throws Exception {
+		List<ParallelProjectionSupport.Worker> workers = new ArrayList<>();
+		workers.add(result -> result.recordSuccess());
+		workers.add(result -> {
+			throw new CommunicationException("network down");
+		});
+		workers.add(result -> result.recordSuccess());
+		workers.add(result -> {
+			throw new IllegalStateException("bug");
+		});
+		OperationResult parent = new OperationResult("parent");
+
+		List<Throwable> failures = support.execute(workers, createResults(WORKERS), parent);
+
+		assertNull(failures.get(0));
+		assertTrue("Wrong failure: " + failures.get(1), failures.get(1) instanceof CommunicationException);
+		assertNull(failures.get(2));
+		assertTrue("Wrong failure: " + failures.get(3), failures.get(3) instanceof IllegalStateException);
+		assertEquals("Not all results are in the tree", WORKERS, parent.getSubresults().size());
+
+		try {
+			ParallelProjectionSupport.rethrow(failures.get(1));
+			throw new AssertionError("Exception was not re-thrown");
+		} catch (CommunicationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void test130NestedExecutionIsSequential() throws Exception {
+		List<String> nestedThreads = Collections.synchronizedList(new ArrayList<>());
+		List<ParallelProjectionSupport.Worker> workers = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			workers.add(result -> {
+				String workerThread = Thread.currentThread().getName();
+				List<ParallelProjectionSupport.Worker> nested = new ArrayList<>();
+				for (int j = 0; j < 2; j++) {
+					nested.add(nestedResult -> nestedThreads.add(workerThread + ":" + Thread.currentThread().getName()));
+				}
+				List<Throwable> failures = support.execute(nested, createResults(2), result);
+				assertEquals(Collections.nCopies(2, null), failures);
+			});
+		}
+		OperationResult parent = new OperationResult("parent");
+
+		List<Throwable> failures = support.execute(workers, createResults(2), parent);
+
+		assertEquals(Collections.nCopies(2, null), failures);
+		assertEquals(4, nestedThreads.size());
+		for (String threads : nestedThreads) {
+			String[] parts = threads.split(":");
+			assertEquals("Nested worker was not run in its parent worker thread", parts[0], parts[1]);
+		}
+		assertEquals(2, parent.getSubresults().get(0).getSubresults().size());
+	}
+
+	@Test
+	public void test140RepositoryCacheEntered() throws Exception {
+		List<Boolean> cacheExists = Collections.synchronizedList(new ArrayList<>());
+		List<ParallelProjectionSupport.Worker> workers = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			workers.add(result -> cacheExists.add(RepositoryCache.exists()));
+		}
+
+		support.execute(workers, createResults(2), new OperationResult("parent"));
+		assertEquals("Repository cache entered without the caller having it", Collections.nCopies(2, false), cacheExists);
+
+		cacheExists.clear();
+		RepositoryCache.enter();
+		try {
+			support.execute(workers, createResults(2), new OperationResult("parent"));
+		} finally {
+			RepositoryCache.exit();
+		}
+		assertEquals("Repository cache not entered by workers", Collections.nCopies(2, true), cacheExists);
+	}
+
+	@Test
+	public void test150SequentialWhenDisabled() throws Exception {
+		support.setThreads(0);
+		Thread caller = Thread.currentThread();
+		List<String> sharedState = new ArrayList<>();
+		List<ParallelProjectionSupport.Worker> workers = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			int index = i;
+			workers.add(result -> {
+				assertSame("Worker not run in the calling thread", caller, Thread.currentThread());
+				ParallelProjectionSupport.modifySharedState(() -> sharedState.add("worker-" + index));
+				if (index == 0) {
+					assertEquals("Shared state not modified immediately", 1, sharedState.size());
+					throw new SchemaException("wrong schema");
+				}
+			});
+		}
+		OperationResult parent = new OperationResult("parent");
+
+		List<Throwable> failures = support.execute(workers, createResults(2), parent);
+
+		assertTrue(failures.get(0) instanceof SchemaException);
+		assertNull(failures.get(1));
+		assertEquals(createNames("worker-", 2), sharedState);
+		assertEquals(2, parent.getSubresults().size());
+		assertFalse(support.getThreads() > 0);
+	}
+
+	private static boolean await(CountDownLatch latch) {
+		try {
+			return latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private List<OperationResult> createResults(int count) {
+		List<OperationResult> results = new ArrayList<>();
+		for (String name : createNames("worker-result-", count)) {
+			results.add(new OperationResult(name));
+		}
+		return results;
+	}
+
+	private List<String> createNames(String prefix, int count) {
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			names.add(prefix + i);
+		}
+		return names;
+	}
+}
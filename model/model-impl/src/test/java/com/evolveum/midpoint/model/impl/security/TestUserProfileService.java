@@ -17,7 +17,12 @@
 package com.evolveum.midpoint.model.impl.security;
 
 import com.evolveum.midpoint.model.impl.AbstractInternalModelIntegrationTest;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.internals.CachingStatistics;
+import com.evolveum.midpoint.schema.internals.InternalMonitor;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.security.api.Authorization;
 import com.evolveum.midpoint.security.api.DelegatorWithOtherPrivilegesLimitations;
 import com.evolveum.midpoint.security.api.MidPointPrincipal;
 import com.evolveum.midpoint.test.util.TestUtil;
@@ -33,11 +38,17 @@ import javax.xml.namespace.QName;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Consumer;
 
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationStatusType.DISABLED;
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
 
 /**
  * @author mederly
@@ -46,6 +57,9 @@ import static org.testng.AssertJUnit.assertEquals;
 @DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
 public class TestUserProfileService extends AbstractInternalModelIntegrationTest {
 
+	private static final String ACTION_BEFORE = "http://midpoint.evolveum.com/xml/ns/test/authorization#before";
+	private static final String ACTION_AFTER = "http://midpoint.evolveum.com/xml/ns/test/authorization#after";
+
 	@Test
 	public void test100DeputyNoLimits() throws Exception {
 		final String TEST_NAME = "test100DeputyNoLimits";
@@ -86,6 +100,104 @@ public class TestUserProfileService extends AbstractInternalModelIntegrationTest
 				(a) -> a.limitOtherPrivileges(new OtherPrivilegesLimitationType()));
 	}
 
+	@Test
+	public void test200PrincipalCache() throws Exception {
+		final String TEST_NAME = "test200PrincipalCache";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		OperationResult result = new OperationResult(TestUserProfileService.class.getName() + "." + TEST_NAME);
+		modifyJackDescription("before " + TEST_NAME, result);      // to make sure jack's principal is not cached
+		CachingStatistics statsBefore = InternalMonitor.getPrincipalCacheStats().clone();
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		MidPointPrincipal principal1 = userProfileService.getPrincipal(USER_JACK_USERNAME);
+		MidPointPrincipal principal2 = userProfileService.getPrincipal(USER_JACK_USERNAME);
+		modifyJackDescription("during " + TEST_NAME, result);
+		MidPointPrincipal principal3 = userProfileService.getPrincipal(USER_JACK_USERNAME);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		CachingStatistics statsAfter = InternalMonitor.getPrincipalCacheStats();
+		display("principal cache statistics", statsAfter);
+		assertEquals("Wrong # of principal cache hits", 1, statsAfter.getHits() - statsBefore.getHits());
+		assertEquals("Wrong # of principal cache misses", 2, statsAfter.getMisses() - statsBefore.getMisses());
+		assertNotSame("Cached principal was returned", principal1, principal2);
+		assertEquals("Wrong authorizations in cached principal", principal1.getAuthorities(), principal2.getAuthorities());
+		assertSameAuthorizations(principal1, principal2);
+		assertEquals("Wrong description in principal after modification", "during " + TEST_NAME,
+				principal3.getUser().getDescription());
+	}
+
+	/**
+	 * Authorizations of an assigned role are changed; the cached principal must not be used any more.
+	 */
+	@Test
+	public void test210PrincipalCacheRoleModified() throws Exception {
+		final String TEST_NAME = "test210PrincipalCacheRoleModified";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		OperationResult result = new OperationResult(TestUserProfileService.class.getName() + "." + TEST_NAME);
+		RoleType role = new RoleType(prismContext)
+				.name("principal-cache-role")
+				.authorization(new AuthorizationType(prismContext).action(ACTION_BEFORE));
+		String roleOid = repositoryService.addObject(role.asPrismObject(), null, result);
+		repositoryService.modifyObject(UserType.class, USER_JACK_OID,
+				DeltaBuilder.deltaFor(UserType.class, prismContext)
+						.item(UserType.F_ASSIGNMENT).add(new AssignmentType(prismContext).targetRef(roleOid, RoleType.COMPLEX_TYPE))
+						.asItemDeltas(), result);
+		CachingStatistics statsBefore = InternalMonitor.getPrincipalCacheStats().clone();
+
+		MidPointPrincipal principal1 = userProfileService.getPrincipal(USER_JACK_USERNAME);
+		MidPointPrincipal principal2 = userProfileService.getPrincipal(USER_JACK_USERNAME);
+		assertActions(principal1, ACTION_BEFORE, ACTION_AFTER);
+		assertActions(principal2, ACTION_BEFORE, ACTION_AFTER);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		repositoryService.modifyObject(RoleType.class, roleOid,
+				DeltaBuilder.deltaFor(RoleType.class, prismContext)
+						.item(RoleType.F_AUTHORIZATION).replace(new AuthorizationType(prismContext).action(ACTION_AFTER))
+						.asItemDeltas(), result);
+		MidPointPrincipal principal3 = userProfileService.getPrincipal(USER_JACK_USERNAME);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		CachingStatistics statsAfter = InternalMonitor.getPrincipalCacheStats();
+		display("principal cache statistics", statsAfter);
+		assertEquals("Wrong # of principal cache hits", 1, statsAfter.getHits() - statsBefore.getHits());
+		assertEquals("Wrong # of principal cache misses", 2, statsAfter.getMisses() - statsBefore.getMisses());
+		assertActions(principal3, ACTION_AFTER, ACTION_BEFORE);
+	}
+
+	/**
+	 * Security enforcer reuses authorizations compiled for a principal only if they are the very same objects.
+	 */
+	private void assertSameAuthorizations(MidPointPrincipal principal1, MidPointPrincipal principal2) {
+		Iterator<Authorization> iterator2 = principal2.getAuthorities().iterator();
+		for (Authorization authorization1 : principal1.getAuthorities()) {
+			assertSame("Authorization was copied", authorization1, iterator2.next());
+		}
+	}
+
+	private void assertActions(MidPointPrincipal principal, String expected, String unexpected) {
+		Set<String> actions = new HashSet<>();
+		for (Authorization authorization : principal.getAuthorities()) {
+			actions.addAll(authorization.getAction());
+		}
+		assertTrue("Action " + expected + " is missing in " + actions, actions.contains(expected));
+		assertFalse("Action " + unexpected + " is present in " + actions, actions.contains(unexpected));
+	}
+
+	private void modifyJackDescription(String description, OperationResult result) throws CommonException {
+		repositoryService.modifyObject(UserType.class, USER_JACK_OID,
+				DeltaBuilder.deltaFor(UserType.class, prismContext)
+						.item(UserType.F_DESCRIPTION).replace(description)
+						.asItemDeltas(), result);
+	}
+
 	private void executeDeputyLimitationsTest(String TEST_NAME, List<OtherPrivilegesLimitationType> expectedLimitations,
 			Consumer<AssignmentType> assignmentModifier) throws CommonException {
 		TestUtil.displayTestTitle(this, TEST_NAME);
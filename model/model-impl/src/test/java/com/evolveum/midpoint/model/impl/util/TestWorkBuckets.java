@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.util;
+
+import com.evolveum.midpoint.model.impl.util.WorkBucket.State;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.repo.api.ModificationPrecondition;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskExecutionStatusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Tests creation of work buckets and their claiming and finishing by workers. The coordinator and worker tasks
+ * are kept in a simple in-memory repository that checks the version precondition, like the real one does.
+ *
+ * @author agent
+ */
+public class TestWorkBuckets {
+
+	private static final String COORDINATOR_OID = "c0000000-0000-0000-0000-000000000000";
+	private static final String WORKER_1_OID = "c0000000-0000-0000-0000-000000000001";
+	private static final String WORKER_2_OID = "c0000000-0000-0000-0000-000000000002";
+	private static final String WORKER_CLOSED_OID = "c0000000-0000-0000-0000-000000000003";
+	private static final String WORKER_DELETED_OID = "c0000000-0000-0000-0000-000000000004";
+
+	private static final ItemPath WORK_BUCKET_PATH = new ItemPath(TaskType.F_EXTENSION, SchemaConstants.MODEL_EXTENSION_WORK_BUCKET);
+	private static final ItemPath RECLAIM_TIMEOUT_PATH = new ItemPath(TaskType.F_EXTENSION, SchemaConstants.MODEL_EXTENSION_WORK_BUCKET_RECLAIM_TIMEOUT);
+
+	private PrismContext prismContext;
+	private final Map<String, PrismObject<TaskType>> tasks = new ConcurrentHashMap<>();
+	private final AtomicInteger modifications = new AtomicInteger();
+	private WorkBucketManager manager;
+	private OperationResult result;
+
+	@BeforeSuite
+	public void setup() throws Exception {
+		PrettyPrinter.setDefaultNamespacePrefix(MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX);
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@BeforeMethod
+	public void initRepository() throws Exception {
+		prismContext = PrismTestUtil.getPrismContext();
+		tasks.clear();
+		modifications.set(0);
+		RepositoryService repository = (RepositoryService) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { RepositoryService.class }, (proxy, method, args) -> {
+					if (method.getName().equals("getObject") && args.length == 4 && args[0] == TaskType.class) {
+						return getTask((String) args[1]);
+					} else if (method.getName().equals("modifyObject") && args.length == 6 && args[0] == TaskType.class) {
+						modifyTask((String) args[1], (Collection<ItemDelta<?, ?>>) args[2], (ModificationPrecondition<TaskType>) args[3]);
+						return null;
+					} else {
+						throw new UnsupportedOperationException(method.toString());
+					}
+				});
+		manager = new WorkBucketManager(prismContext, repository);
+		result = new OperationResult(TestWorkBuckets.class.getName());
+
+		addTask(COORDINATOR_OID, TaskExecutionStatusType.WAITING);
+		addTask(WORKER_1_OID, TaskExecutionStatusType.RUNNABLE);
+		addTask(WORKER_2_OID, TaskExecutionStatusType.RUNNABLE);
+		addTask(WORKER_CLOSED_OID, TaskExecutionStatusType.CLOSED);
+	}
+
+	@Test
+	public void testCreateOidBuckets() {
+		List<WorkBucket> buckets = new WorkBucketManager().createOidBuckets(4);
+
+		assertEquals("Wrong # of buckets", 4, buckets.size());
+		assertNull("First bucket is not open", buckets.get(0).getLowerOid());
+		assertEquals("4", buckets.get(0).getUpperOid());
+		assertEquals("4", buckets.get(1).getLowerOid());
+		assertEquals("8", buckets.get(1).getUpperOid());
+		assertEquals("c", buckets.get(3).getLowerOid());
+		assertNull("Last bucket is not open", buckets.get(3).getUpperOid());
+	}
+
+	@Test
+	public void testCreateOidBucketsTwoDigits() {
+		List<WorkBucket> buckets = new WorkBucketManager().createOidBuckets(20);
+
+		assertEquals("Wrong # of buckets", 20, buckets.size());
+		for (int i = 1; i < buckets.size(); i++) {
+			assertEquals("Buckets " + (i-1) + " and " + i + " are not adjacent",
+					buckets.get(i-1).getUpperOid(), buckets.get(i).getLowerOid());
+			assertEquals("Wrong prefix length", 2, buckets.get(i).getLowerOid().length());
+		}
+	}
+
+	@Test
+	public void testFormatAndParse() {
+		WorkBucket bucket = new WorkBucket(3, State.READY, "40", null, null, 0, 0);
+		WorkBucket claimed = WorkBucket.parse(bucket.claim("worker-oid", 1000L).format());
+
+		assertEquals(3, claimed.getSequence());
+		assertEquals(State.IN_PROGRESS, claimed.getState());
+		assertEquals("40", claimed.getLowerOid());
+		assertNull(claimed.getUpperOid());
+		assertEquals("worker-oid", claimed.getWorkerOid());
+		assertEquals(1, claimed.getAttempts());
+		assertEquals(1000L, claimed.getTimestamp());
+
+		WorkBucket complete = WorkBucket.parse(claimed.finish(State.COMPLETE, 123).format());
+		assertEquals(State.COMPLETE, complete.getState());
+		assertEquals(123, complete.getProgress());
+		assertEquals("worker-oid", complete.getWorkerOid());
+		assertEquals(1000L, complete.getTimestamp());
+
+		WorkBucket old = WorkBucket.parse("5:IN_PROGRESS:40:80:worker-oid:10:2");
+		assertEquals(State.IN_PROGRESS, old.getState());
+		assertEquals(2, old.getAttempts());
+		assertEquals(0L, old.getTimestamp());
+	}
+
+	@Test
+	public void testClaimAndFinish() throws Exception {
+		setBuckets(manager.createOidBuckets(3));
+
+		WorkBucket first = manager.claimBucket(COORDINATOR_OID, WORKER_1_OID, result);
+		WorkBucket second = manager.claimBucket(COORDINATOR_OID, WORKER_2_OID, result);
+		assertEquals(0, first.getSequence());
+		assertEquals(1, second.getSequence());
+		assertEquals(State.IN_PROGRESS, getBucket(0).getState());
+		assertEquals(WORKER_1_OID, getBucket(0).getWorkerOid());
+		assertTrue("No claim timestamp", getBucket(0).getTimestamp() > 0);
+
+		manager.finishBucket(COORDINATOR_OID, first, State.COMPLETE, 10, result);
+		assertEquals(State.COMPLETE, getBucket(0).getState());
+		assertEquals(10, getBucket(0).getProgress());
+
+		WorkBucket third = manager.claimBucket(COORDINATOR_OID, WORKER_1_OID, result);
+		assertEquals(2, third.getSequence());
+		manager.finishBucket(COORDINATOR_OID, third, State.COMPLETE, 5, result);
+		assertNull("Nothing should be left", manager.claimBucket(COORDINATOR_OID, WORKER_1_OID, result));
+
+		manager.finishBucket(COORDINATOR_OID, second, State.FAILED, 3, result);
+		assertEquals(18, WorkBucketManager.getTotalProgress(getBuckets()));
+
+		// failed bucket is retried, but only up to MAX_ATTEMPTS
+		for (int attempt = 2; attempt <= WorkBucketManager.MAX_ATTEMPTS; attempt++) {
+			WorkBucket retried = manager.claimBucket(COORDINATOR_OID, WORKER_2_OID, result);
+			assertEquals(1, retried.getSequence());
+			assertEquals(attempt, retried.getAttempts());
+			manager.finishBucket(COORDINATOR_OID, retried, State.FAILED, 0, result);
+		}
+		assertNull("Failed bucket should not be retried any more", manager.claimBucket(COORDINATOR_OID, WORKER_2_OID, result));
+	}
+
+	@Test
+	public void testResumeOwnBucket() throws Exception {
+		setBuckets(manager.createOidBuckets(2));
+
+		WorkBucket claimed = manager.claimBucket(COORDINATOR_OID, WORKER_1_OID, result);
+		// worker 1 is interrupted and restarted
+		WorkBucket resumed = manager.claimBucket(COORDINATOR_OID, WORKER_1_OID, result);
+		assertEquals(claimed.getSequence(), resumed.getSequence());
+
+		// worker 2 does not take it over, as worker 1 is alive
+		WorkBucket other = manager.claimBucket(COORDINATOR_OID, WORKER_2_OID, result);
+		assertEquals(1, other.getSequence());
+		manager.finishBucket(COORDINATOR_OID, other, State.COMPLETE, 0, result);
+		assertNull(manager.claimBucket(COORDINATOR_OID, WORKER_2_OID, result));
+	}
+
+	@Test
+	public void testFinishNotOwnedBucket() throws Exception {
+		setBuckets(manager.createOidBuckets(1));
+		WorkBucket claimed = manager.claimBucket(COORDINATOR_OID, WORKER_1_OID, result);
+		WorkBucket notOwned = new WorkBucket(claimed.getSequence(), State.IN_PROGRESS, claimed.getLowerOid(),
+				claimed.getUpperOid(), WORKER_2_OID, 0, 1);
+
+		manager.finishBucket(COORDINATOR_OID, notOwned, State.COMPLETE, 100, result);
+
+		assertEquals(State.IN_PROGRESS, getBucket(0).getState());
+		assertEquals(WORKER_1_OID, getBucket(0).getWorkerOid());
+	}
+
+	@Test
+	public void testReclaimFromDeadWorkers() throws Exception {
+		long now = System.currentTimeMillis();
+		List<WorkBucket> buckets = new ArrayList<>();
+		buckets.add(new WorkBucket(0, State.IN_PROGRESS, null, "8", WORKER_CLOSED_OID, 0, 1, now));
+		buckets.add(new WorkBucket(1, State.IN_PROGRESS, "8", null, WORKER_DELETED_OID, 0, 1, now));
+		setBuckets(buckets);
+
+		WorkBucket first = manager.claimBucket(COORDINATOR_OID, WORKER_1_OID, result);
+		assertEquals(0, first.getSequence());
+		assertEquals(2, first.getAttempts());
+		assertEquals(WORKER_1_OID, getBucket(0).getWorkerOid());
+		manager.finishBucket(COORDINATOR_OID, first, State.COMPLETE, 0, result);
+
+		WorkBucket second = manager.claimBucket(COORDINATOR_OID, WORKER_1_OID, result);
+		assertNotNull(second);
+		assertEquals(1, second.getSequence());
+		assertEquals(WORKER_1_OID, getBucket(1).getWorkerOid());
+	}
+
+	@Test
+	public void testReclaimAfterTimeout() throws Exception {
+		long now = System.currentTimeMillis();
+		List<WorkBucket> buckets = new ArrayList<>();
+		buckets.add(new WorkBucket(0, State.IN_PROGRESS, null, "8", WORKER_2_OID, 0, 1, now));
+		buckets.add(new WorkBucket(1, State.IN_PROGRESS, "8", null, WORKER_2_OID, 0, WorkBucketManager.MAX_ATTEMPTS, now - 7200000L));
+		setBuckets(buckets);
+
+		// worker 2 is runnable and its buckets are within the (default) timeout or tried too many times
+		assertNull(manager.claimBucket(COORDINATOR_OID, WORKER_1_OID, result));
+
+		setReclaimTimeout(60);
+		setBuckets(buckets);
+		assertNull(manager.claimBucket(COORDINATOR_OID, WORKER_1_OID, result));
+
+		buckets.set(0, new WorkBucket(0, State.IN_PROGRESS, null, "8", WORKER_2_OID, 0, 1, now - 61000L));
+		setBuckets(buckets);
+		WorkBucket reclaimed = manager.claimBucket(COORDINATOR_OID, WORKER_1_OID, result);
+		assertNotNull("Timed out bucket was not reclaimed", reclaimed);
+		assertEquals(0, reclaimed.getSequence());
+		assertEquals(WORKER_1_OID, getBucket(0).getWorkerOid());
+		assertTrue("Claim timestamp was not updated", getBucket(0).getTimestamp() >= now);
+
+		// the original worker finishes late: its result is not recorded, and it does not resume the bucket
+		// (only its own bucket that was tried too many times)
+		manager.finishBucket(COORDINATOR_OID, buckets.get(0), State.COMPLETE, 50, result);
+		assertEquals(State.IN_PROGRESS, getBucket(0).getState());
+		assertEquals(1, manager.claimBucket(COORDINATOR_OID, WORKER_2_OID, result).getSequence());
+	}
+
+	@Test
+	public void testSelectBucketOrder() {
+		long now = 1000000L;
+		List<WorkBucket> buckets = new ArrayList<>();
+		buckets.add(new WorkBucket(0, State.FAILED, null, "4", WORKER_2_OID, 0, 1, now));
+		buckets.add(new WorkBucket(1, State.IN_PROGRESS, "4", "8", WORKER_2_OID, 0, 1, 0));
+		buckets.add(new WorkBucket(2, State.READY, "8", "c", null, 0, 0));
+		buckets.add(new WorkBucket(3, State.IN_PROGRESS, "c", null, WORKER_1_OID, 0, 1, now));
+
+		assertEquals(3, WorkBucketManager.selectBucket(buckets, WORKER_1_OID, now, 1000L, oid -> true).getSequence());
+		assertEquals(2, WorkBucketManager.selectBucket(buckets, WORKER_CLOSED_OID, now, 1000L, oid -> true).getSequence());
+		buckets.remove(2);
+		assertEquals(1, WorkBucketManager.selectBucket(buckets, WORKER_CLOSED_OID, now, 1000L, oid -> true).getSequence());
+		assertEquals(0, WorkBucketManager.selectBucket(buckets, WORKER_CLOSED_OID, now, 2000000L, oid -> true).getSequence());
+		assertEquals(1, WorkBucketManager.selectBucket(buckets, WORKER_CLOSED_OID, now, 2000000L, oid -> false).getSequence());
+	}
+
+	@Test
+	public void testContention() throws Exception {
+		final int BUCKETS = 40;
+		final int WORKERS = 8;
+		setBuckets(manager.createOidBuckets(BUCKETS));
+		Map<Integer, String> processedBy = new ConcurrentHashMap<>();
+		List<String> errors = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(WORKERS);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < WORKERS; i++) {
+			String workerOid = "c1000000-0000-0000-0000-00000000000" + i;
+			addTask(workerOid, TaskExecutionStatusType.RUNNABLE);
+			futures.add(executor.submit(() -> {
+				OperationResult workerResult = new OperationResult(TestWorkBuckets.class.getName() + ".worker");
+				WorkBucket bucket;
+				while ((bucket = manager.claimBucket(COORDINATOR_OID, workerOid, workerResult)) != null) {
+					String previous = processedBy.putIfAbsent(bucket.getSequence(), workerOid);
+					if (previous != null) {
+						synchronized (errors) {
+							errors.add(bucket + " claimed by " + workerOid + " was already processed by " + previous);
+						}
+					}
+					manager.finishBucket(COORDINATOR_OID, bucket, State.COMPLETE, 1, workerResult);
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+
+		assertEquals("Some buckets were claimed more than once", Collections.emptyList(), errors);
+		assertEquals("Wrong # of processed buckets", BUCKETS, processedBy.size());
+		List<WorkBucket> buckets = getBuckets();
+		assertEquals(BUCKETS, buckets.size());
+		for (WorkBucket bucket : buckets) {
+			assertEquals("Wrong state of " + bucket, State.COMPLETE, bucket.getState());
+			assertEquals("Wrong attempts of " + bucket, 1, bucket.getAttempts());
+		}
+		assertEquals(BUCKETS, WorkBucketManager.getTotalProgress(buckets));
+		System.out.println("Successful modifications of the coordinator: " + modifications.get());
+	}
+
+	// In-memory repository
+
+	private void addTask(String oid, TaskExecutionStatusType executionStatus) {
+		TaskType task = new TaskType(prismContext)
+				.oid(oid)
+				.name(oid)
+				.version("1")
+				.executionStatus(executionStatus);
+		tasks.put(oid, task.asPrismObject());
+	}
+
+	private PrismObject<TaskType> getTask(String oid) throws ObjectNotFoundException {
+		PrismObject<TaskType> task = tasks.get(oid);
+		if (task == null) {
+			throw new ObjectNotFoundException("Task " + oid + " was not found");
+		}
+		synchronized (task) {
+			return task.clone();
+		}
+	}
+
+	private synchronized void modifyTask(String oid, Collection<ItemDelta<?, ?>> deltas,
+			ModificationPrecondition<TaskType> precondition) throws Exception {
+		PrismObject<TaskType> task = getTask(oid);
+		if (precondition != null && !precondition.holds(task)) {
+			throw new IllegalStateException("Precondition does not hold");
+		}
+		ItemDelta.applyTo(deltas, task);
+		task.setVersion(String.valueOf(Integer.parseInt(task.getVersion()) + 1));
+		tasks.put(oid, task);
+		modifications.incrementAndGet();
+	}
+
+	private void setBuckets(List<WorkBucket> buckets) throws Exception {
+		List<String> values = new ArrayList<>();
+		for (WorkBucket bucket : buckets) {
+			values.add(bucket.format());
+		}
+		modifyTask(COORDINATOR_OID, DeltaBuilder.deltaFor(TaskType.class, prismContext)
+				.item(WORK_BUCKET_PATH, prismContext.getSchemaRegistry()
+						.findPropertyDefinitionByElementName(SchemaConstants.MODEL_EXTENSION_WORK_BUCKET))
+				.replace(values.toArray())
+				.asItemDeltas(), null);
+	}
+
+	private void setReclaimTimeout(int seconds) throws Exception {
+		modifyTask(COORDINATOR_OID, DeltaBuilder.deltaFor(TaskType.class, prismContext)
+				.item(RECLAIM_TIMEOUT_PATH, prismContext.getSchemaRegistry()
+						.findPropertyDefinitionByElementName(SchemaConstants.MODEL_EXTENSION_WORK_BUCKET_RECLAIM_TIMEOUT))
+				.replace(seconds)
+				.asItemDeltas(), null);
+	}
+
+	private List<WorkBucket> getBuckets() throws Exception {
+		PrismProperty<String> property = getTask(COORDINATOR_OID).findProperty(WORK_BUCKET_PATH);
+		List<WorkBucket> buckets = new ArrayList<>();
+		for (String value : property.getRealValues()) {
+			buckets.add(WorkBucket.parse(value));
+		}
+		buckets.sort((b1, b2) -> Integer.compare(b1.getSequence(), b2.getSequence()));
+		return buckets;
+	}
+
+	private WorkBucket getBucket(int sequence) throws Exception {
+		return getBuckets().get(sequence);
+	}
+}
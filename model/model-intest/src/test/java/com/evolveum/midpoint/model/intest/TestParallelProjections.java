@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.intest;
+
+import com.evolveum.icf.dummy.resource.BreakMode;
+import com.evolveum.midpoint.model.impl.lens.ChangeExecutor;
+import com.evolveum.midpoint.model.impl.lens.ParallelProjectionSupport;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.schema.internals.InternalsConfig;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.DummyResourceContoller;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.MiscUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Concurrent processing of independent projections (see {@link ParallelProjectionSupport}) on several dummy resources:
+ * results, dependency ordering and failures of individual resources. Consistency checks are switched on
+ * (as in all the integration tests), so the tests also verify that they do not prevent concurrent processing.
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = {"classpath:ctx-model-intest-test-main.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestParallelProjections extends AbstractInitializedModelIntegrationTest {
+
+	public static final File TEST_DIR = new File("src/test/resources/multi");
+
+	// LAVENDER dummy resource has a STRICT dependency on default dummy resource
+	protected static final File RESOURCE_DUMMY_LAVENDER_FILE = new File(TEST_DIR, "resource-dummy-lavender.xml");
+	protected static final String RESOURCE_DUMMY_LAVENDER_OID = "10000000-0000-0000-0000-000000000504";
+	protected static final String RESOURCE_DUMMY_LAVENDER_NAME = "lavender";
+
+	private static final String OPERATION_EXECUTE_PROJECTION = ChangeExecutor.class.getName() + ".execute.projection";
+
+	private static final int THREADS = 4;
+
+	@Autowired private ParallelProjectionSupport parallelProjectionSupport;
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+
+		DummyResourceContoller dummyResourceCtlLavender = DummyResourceContoller.create(RESOURCE_DUMMY_LAVENDER_NAME, null);
+		dummyResourceCtlLavender.extendSchemaPirate();
+		PrismObject<ResourceType> resourceDummyLavender = importAndGetObjectFromFile(ResourceType.class,
+				RESOURCE_DUMMY_LAVENDER_FILE, RESOURCE_DUMMY_LAVENDER_OID, initTask, initResult);
+		dummyResourceCtlLavender.setResource(resourceDummyLavender);
+
+		parallelProjectionSupport.setThreads(THREADS);
+	}
+
+	@AfterClass
+	public void resetThreads() {
+		parallelProjectionSupport.setThreads(0);
+	}
+
+	/**
+	 * The accounts are created only if all three add operations meet at the rendezvous, i.e. if they
+	 * are executed concurrently.
+	 */
+	@Test
+	public void test100AssignAccountsOnIndependentResources() throws Exception {
+		final String TEST_NAME = "test100AssignAccountsOnIndependentResources";
+		displayTestTitle(TEST_NAME);
+		assertTrue("Consistency checks are not switched on", InternalsConfig.consistencyChecks);
+
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		ObjectDelta<UserType> userDelta = createAccountAssignmentsDelta(USER_JACK_OID, true,
+				RESOURCE_DUMMY_RED_OID, RESOURCE_DUMMY_BLUE_OID, RESOURCE_DUMMY_YELLOW_OID);
+		String[] resourceNames = { RESOURCE_DUMMY_RED_NAME, RESOURCE_DUMMY_BLUE_NAME, RESOURCE_DUMMY_YELLOW_NAME };
+		CountDownLatch rendezvous = new CountDownLatch(resourceNames.length);
+		for (String resourceName : resourceNames) {
+			getDummyResource(resourceName).setAddRendezvous(rendezvous);
+		}
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		try {
+			modelService.executeChanges(MiscUtil.createCollection(userDelta), null, task, result);
+		} finally {
+			for (String resourceName : resourceNames) {
+				getDummyResource(resourceName).setAddRendezvous(null);
+			}
+		}
+
+		// THEN
+		displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+
+		PrismObject<UserType> userJack = getUser(USER_JACK_OID);
+		display("User after", userJack);
+		assertAccount(userJack, RESOURCE_DUMMY_RED_OID);
+		assertAccount(userJack, RESOURCE_DUMMY_BLUE_OID);
+		assertAccount(userJack, RESOURCE_DUMMY_YELLOW_OID);
+		assertLinks(userJack, 3);
+
+		assertDummyAccount(RESOURCE_DUMMY_RED_NAME, ACCOUNT_JACK_DUMMY_USERNAME, ACCOUNT_JACK_DUMMY_FULLNAME, true);
+		assertDummyAccount(RESOURCE_DUMMY_BLUE_NAME, ACCOUNT_JACK_DUMMY_USERNAME, ACCOUNT_JACK_DUMMY_FULLNAME, true);
+		assertDummyAccount(RESOURCE_DUMMY_YELLOW_NAME, ACCOUNT_JACK_DUMMY_USERNAME, ACCOUNT_JACK_DUMMY_FULLNAME, true);
+		assertEquals("Add operations did not overlap", 0, rendezvous.getCount());
+
+		// results of all the projections are in the result tree
+		for (String resourceOid : new String[] { RESOURCE_DUMMY_RED_OID, RESOURCE_DUMMY_BLUE_OID, RESOURCE_DUMMY_YELLOW_OID }) {
+			OperationResult projectionResult = findProjectionResult(result, resourceOid);
+			assertEquals("Wrong status of projection result for " + resourceOid, OperationResultStatus.SUCCESS,
+					projectionResult.getStatus());
+		}
+	}
+
+	@Test
+	public void test110UnassignAccountsOnIndependentResources() throws Exception {
+		final String TEST_NAME = "test110UnassignAccountsOnIndependentResources";
+		displayTestTitle(TEST_NAME);
+
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		ObjectDelta<UserType> userDelta = createAccountAssignmentsDelta(USER_JACK_OID, false,
+				RESOURCE_DUMMY_RED_OID, RESOURCE_DUMMY_BLUE_OID, RESOURCE_DUMMY_YELLOW_OID);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		modelService.executeChanges(MiscUtil.createCollection(userDelta), null, task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+
+		PrismObject<UserType> userJack = getUser(USER_JACK_OID);
+		display("User after", userJack);
+		assertLinks(userJack, 0);
+
+		assertNoDummyAccount(RESOURCE_DUMMY_RED_NAME, ACCOUNT_JACK_DUMMY_USERNAME);
+		assertNoDummyAccount(RESOURCE_DUMMY_BLUE_NAME, ACCOUNT_JACK_DUMMY_USERNAME);
+		assertNoDummyAccount(RESOURCE_DUMMY_YELLOW_NAME, ACCOUNT_JACK_DUMMY_USERNAME);
+	}
+
+	/**
+	 * Default dummy resource is a dependency of lavender, so these two are processed sequentially, in waves.
+	 * Red and blue are independent.
+	 */
+	@Test
+	public void test120AssignAccountsWithDependency() throws Exception {
+		final String TEST_NAME = "test120AssignAccountsWithDependency";
+		displayTestTitle(TEST_NAME);
+
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		ObjectDelta<UserType> userDelta = createAccountAssignmentsDelta(USER_JACK_OID, true,
+				RESOURCE_DUMMY_LAVENDER_OID, RESOURCE_DUMMY_RED_OID, RESOURCE_DUMMY_OID, RESOURCE_DUMMY_BLUE_OID);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		modelService.executeChanges(MiscUtil.createCollection(userDelta), null, task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+
+		PrismObject<UserType> userJack = getUser(USER_JACK_OID);
+		display("User after", userJack);
+		assertAccount(userJack, RESOURCE_DUMMY_OID);
+		assertAccount(userJack, RESOURCE_DUMMY_LAVENDER_OID);
+		assertAccount(userJack, RESOURCE_DUMMY_RED_OID);
+		assertAccount(userJack, RESOURCE_DUMMY_BLUE_OID);
+		assertLinks(userJack, 4);
+
+		assertDefaultDummyAccount(ACCOUNT_JACK_DUMMY_USERNAME, ACCOUNT_JACK_DUMMY_FULLNAME, true);
+		assertDummyAccount(RESOURCE_DUMMY_LAVENDER_NAME, ACCOUNT_JACK_DUMMY_USERNAME, ACCOUNT_JACK_DUMMY_FULLNAME, true);
+		assertDummyAccount(RESOURCE_DUMMY_RED_NAME, ACCOUNT_JACK_DUMMY_USERNAME, ACCOUNT_JACK_DUMMY_FULLNAME, true);
+		assertDummyAccount(RESOURCE_DUMMY_BLUE_NAME, ACCOUNT_JACK_DUMMY_USERNAME, ACCOUNT_JACK_DUMMY_FULLNAME, true);
+
+		// the dependency was executed before the dependent projection
+		List<OperationResult> projectionResults = new ArrayList<>();
+		collectProjectionResults(result, projectionResults);
+		int defaultIndex = projectionResults.indexOf(findProjectionResult(result, RESOURCE_DUMMY_OID));
+		int lavenderIndex = projectionResults.indexOf(findProjectionResult(result, RESOURCE_DUMMY_LAVENDER_OID));
+		assertTrue("Lavender executed before its dependency: " + projectionResults, defaultIndex < lavenderIndex);
+	}
+
+	/**
+	 * Failure of one resource must not influence the others, and it must be reported in the right place.
+	 */
+	@Test
+	public void test130AssignAccountsOneResourceBroken() throws Exception {
+		final String TEST_NAME = "test130AssignAccountsOneResourceBroken";
+		displayTestTitle(TEST_NAME);
+
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		ObjectDelta<UserType> userDelta = createAccountAssignmentsDelta(USER_GUYBRUSH_OID, true,
+				RESOURCE_DUMMY_RED_OID, RESOURCE_DUMMY_BLUE_OID, RESOURCE_DUMMY_YELLOW_OID);
+		getDummyResource(RESOURCE_DUMMY_BLUE_NAME).setBreakMode(BreakMode.NETWORK);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		try {
+			modelService.executeChanges(MiscUtil.createCollection(userDelta), null, task, result);
+		} catch (Exception e) {
+			display("Expected exception", e);
+		} finally {
+			getDummyResource(RESOURCE_DUMMY_BLUE_NAME).resetBreakMode();
+		}
+
+		// THEN
+		displayThen(TEST_NAME);
+		result.computeStatus();
+		display("Result", result);
+		assertTrue("Unexpected success", result.getStatus() != OperationResultStatus.SUCCESS);
+
+		assertEquals("Wrong status of red projection", OperationResultStatus.SUCCESS,
+				findProjectionResult(result, RESOURCE_DUMMY_RED_OID).getStatus());
+		assertEquals("Wrong status of yellow projection", OperationResultStatus.SUCCESS,
+				findProjectionResult(result, RESOURCE_DUMMY_YELLOW_OID).getStatus());
+		assertTrue("Unexpected success of blue projection",
+				findProjectionResult(result, RESOURCE_DUMMY_BLUE_OID).getStatus() != OperationResultStatus.SUCCESS);
+
+		PrismObject<UserType> userGuybrush = getUser(USER_GUYBRUSH_OID);
+		display("User after", userGuybrush);
+		assertAccount(userGuybrush, RESOURCE_DUMMY_RED_OID);
+		assertAccount(userGuybrush, RESOURCE_DUMMY_YELLOW_OID);
+
+		assertDummyAccount(RESOURCE_DUMMY_RED_NAME, ACCOUNT_GUYBRUSH_DUMMY_USERNAME, ACCOUNT_GUYBRUSH_DUMMY_FULLNAME, true);
+		assertDummyAccount(RESOURCE_DUMMY_YELLOW_NAME, ACCOUNT_GUYBRUSH_DUMMY_USERNAME, ACCOUNT_GUYBRUSH_DUMMY_FULLNAME, true);
+		assertNoDummyAccount(RESOURCE_DUMMY_BLUE_NAME, ACCOUNT_GUYBRUSH_DUMMY_USERNAME);
+	}
+
+	private ObjectDelta<UserType> createAccountAssignmentsDelta(String userOid, boolean add, String... resourceOids)
+			throws Exception {
+		ObjectDelta<UserType> userDelta = ObjectDelta.createEmptyModifyDelta(UserType.class, userOid, prismContext);
+		for (String resourceOid : resourceOids) {
+			userDelta.addModification(createAccountAssignmentModification(resourceOid, null, add));
+		}
+		return userDelta;
+	}
+
+	private OperationResult findProjectionResult(OperationResult result, String resourceOid) {
+		List<OperationResult> projectionResults = new ArrayList<>();
+		collectProjectionResults(result, projectionResults);
+		for (OperationResult projectionResult : projectionResults) {
+			Collection<String> resources = projectionResult.getParams().get("resource");
+			if (resources != null && resources.stream().anyMatch(r -> r != null && r.contains(resourceOid))) {
+				return projectionResult;
+			}
+		}
+		throw new AssertionError("No projection result for " + resourceOid);
+	}
+
+	private void collectProjectionResults(OperationResult result, List<OperationResult> projectionResults) {
+		if (result.getOperation().startsWith(OPERATION_EXECUTE_PROJECTION)) {
+			projectionResults.add(result);
+		}
+		for (OperationResult subresult : result.getSubresults()) {
+			collectProjectionResults(subresult, projectionResults);
+		}
+	}
+}
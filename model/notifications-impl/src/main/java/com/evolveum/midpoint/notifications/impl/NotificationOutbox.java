@@ -0,0 +1,770 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.notifications.impl;
+
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+import com.evolveum.midpoint.notifications.api.NotificationManager;
+import com.evolveum.midpoint.notifications.api.events.Event;
+import com.evolveum.midpoint.notifications.api.transports.Message;
+import com.evolveum.midpoint.notifications.api.transports.Transport;
+import com.evolveum.midpoint.prism.crypto.EncryptionException;
+import com.evolveum.midpoint.prism.crypto.Protector;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.LightweightIdentifier;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.EventCategoryType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.EventOperationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.EventStatusType;
+import com.evolveum.prism.xml.ns._public.types_3.CipherDataType;
+import com.evolveum.prism.xml.ns._public.types_3.EncryptedDataType;
+import com.evolveum.prism.xml.ns._public.types_3.EncryptionMethodType;
+import com.evolveum.prism.xml.ns._public.types_3.KeyInfoType;
+import com.evolveum.prism.xml.ns._public.types_3.ProtectedStringType;
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous delivery of notification messages.
+ *
+ * Messages for transports listed in midpoint.notifications/asyncTransports (e.g. "mail, sms") are not sent by the thread
+ * that processes the event. They are stored in the outbox directory, one file per message, and delivered by a pool
+ * of transport workers (transportThreads). Failed deliveries are retried after retryInterval milliseconds, doubling
+ * the interval after each attempt; messages that could not be delivered in maxAttempts attempts are moved
+ * to the "failed" subdirectory. Messages remaining in the outbox (e.g. after node shutdown) are delivered at startup.
+ * The outbox directory must not be shared among nodes.
+ *
+ * Deliveries via a transport can be limited by midpoint.notifications/rateLimit/TRANSPORT (messages per second).
+ *
+ * Messages are stored after the notifiers finished their work, i.e. with recipients, subject and body already
+ * evaluated. As they can contain sensitive data (e.g. passwords sent by password notifiers), the content of each entry
+ * is encrypted by the protector; only the transport name and delivery bookkeeping are stored in plain text.
+ * Events themselves (with model contexts, workflow data, etc.) cannot be stored: asynchronous transports get
+ * an {@link OutboxEvent} carrying event identifier, requester, requestee, channel and event types only.
+ * Transports that need more (e.g. custom transports whose expressions use the deltas) should be kept synchronous.
+ *
+ * The operation result of the caller gets a subresult for each message stored. If the message cannot be delivered
+ * at all, the subresult is switched to a warning, so it is visible to the caller if its result is still in use
+ * (e.g. in a long-running task); the failure is logged in any case. Failed messages are deleted after failedRetention
+ * milliseconds.
+ *
+ * @author agent
+ */
+@Component
+public class NotificationOutbox {
+
+	private static final Trace LOGGER = TraceManager.getTrace(NotificationOutbox.class);
+
+	private static final String DOT_CLASS = NotificationOutbox.class.getName() + ".";
+	static final String OPERATION_ENQUEUE = DOT_CLASS + "enqueue";
+	private static final String OPERATION_DELIVER = DOT_CLASS + "deliver";
+
+	private static final String CONFIGURATION_SECTION = "midpoint.notifications";
+	private static final String CONFIGURATION_ASYNC_TRANSPORTS = "asyncTransports";
+	private static final String CONFIGURATION_OUTBOX_DIRECTORY = "outboxDirectory";
+	private static final String CONFIGURATION_TRANSPORT_THREADS = "transportThreads";
+	private static final String CONFIGURATION_MAX_ATTEMPTS = "maxAttempts";
+	private static final String CONFIGURATION_RETRY_INTERVAL = "retryInterval";
+	private static final String CONFIGURATION_RATE_LIMIT = "rateLimit";
+	private static final String CONFIGURATION_FAILED_RETENTION = "failedRetention";
+
+	public static final String DEFAULT_OUTBOX_DIRECTORY = "notification-outbox";		// relative to midPoint home
+	public static final int DEFAULT_TRANSPORT_THREADS = 4;
+	public static final int DEFAULT_MAX_ATTEMPTS = 5;
+	public static final long DEFAULT_RETRY_INTERVAL = 60000L;
+	public static final long DEFAULT_FAILED_RETENTION = 7L * 24 * 3600 * 1000;		// one week
+	private static final long MAX_CLEANUP_INTERVAL = 3600 * 1000L;
+
+	static final String FAILED_DIRECTORY = "failed";
+	static final String ENTRY_SUFFIX = ".message";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final String KEY_TRANSPORT = "transport";
+	private static final String KEY_ATTEMPTS = "attempts";
+	private static final String KEY_NOT_BEFORE = "notBefore";
+	private static final String KEY_LAST_ERROR = "lastError";
+	private static final String KEY_CONTENT_ALGORITHM = "content.algorithm";
+	private static final String KEY_CONTENT_KEY_NAME = "content.keyName";
+	private static final String KEY_CONTENT_CIPHER = "content.cipher";
+
+	// keys of the (encrypted) content
+	private static final String KEY_FROM = "from";
+	private static final String KEY_TO = "to";
+	private static final String KEY_CC = "cc";
+	private static final String KEY_BCC = "bcc";
+	private static final String KEY_SUBJECT = "subject";
+	private static final String KEY_BODY = "body";
+	private static final String KEY_CONTENT_TYPE = "contentType";
+	private static final String KEY_EVENT_TIMESTAMP = "event.timestamp";
+	private static final String KEY_EVENT_HOST = "event.host";
+	private static final String KEY_EVENT_SEQUENCE = "event.sequence";
+	private static final String KEY_EVENT_REQUESTER = "event.requester";
+	private static final String KEY_EVENT_REQUESTEE = "event.requestee";
+	private static final String KEY_EVENT_CHANNEL = "event.channel";
+	private static final String KEY_EVENT_STATUS = "event.status";
+	private static final String KEY_EVENT_OPERATION = "event.operation";
+	private static final String KEY_EVENT_CATEGORY = "event.category";
+	private static final String KEY_EVENT_USER_RELATED = "event.userRelated";
+
+	@Autowired(required = false) private MidpointConfiguration midpointConfiguration;
+	@Autowired private NotificationManager notificationManager;
+	@Autowired private NotificationFunctionsImpl notificationFunctions;
+	@Autowired private TaskManager taskManager;
+	@Autowired private Protector protector;
+
+	private Set<String> asyncTransports = new HashSet<>();
+	private File outboxDirectory;
+	private int transportThreads = DEFAULT_TRANSPORT_THREADS;
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	private long retryInterval = DEFAULT_RETRY_INTERVAL;
+	private long failedRetention = DEFAULT_FAILED_RETENTION;
+	private final Map<String, RateLimit> rateLimits = new ConcurrentHashMap<>();
+
+	// entries scheduled for delivery and not finished yet (guarded by itself)
+	private final Set<File> pendingEntries = new HashSet<>();
+	// results of callers that stored the entries; updated when the delivery finally fails
+	private final Map<File, OperationResult> callerResults = new ConcurrentHashMap<>();
+
+	private volatile ScheduledThreadPoolExecutor executor;
+
+	/**
+	 * Spaces the deliveries via a transport so that there are at most given number of them per second.
+	 */
+	private static class RateLimit {
+		private final long interval;
+		private long nextSlot;
+
+		private RateLimit(double messagesPerSecond) {
+			this.interval = Math.round(1000.0 / messagesPerSecond);
+		}
+
+		// returns the time (in milliseconds) the caller has to wait before its delivery can start
+		private synchronized long reserve() {
+			long now = System.currentTimeMillis();
+			long slot = Math.max(now, nextSlot);
+			nextSlot = slot + interval;
+			return slot - now;
+		}
+	}
+
+	@PostConstruct
+	public void init() {
+		if (midpointConfiguration == null) {
+			return;
+		}
+		Configuration configuration = midpointConfiguration.getConfiguration(CONFIGURATION_SECTION);
+		for (String transport : configuration.getStringArray(CONFIGURATION_ASYNC_TRANSPORTS)) {
+			if (StringUtils.isNotBlank(transport)) {
+				asyncTransports.add(transport.trim());
+			}
+		}
+		String directory = configuration.getString(CONFIGURATION_OUTBOX_DIRECTORY, null);
+		if (directory != null) {
+			outboxDirectory = new File(directory);
+		} else if (midpointConfiguration.getMidpointHome() != null) {
+			outboxDirectory = new File(midpointConfiguration.getMidpointHome(), DEFAULT_OUTBOX_DIRECTORY);
+		}
+		transportThreads = configuration.getInt(CONFIGURATION_TRANSPORT_THREADS, DEFAULT_TRANSPORT_THREADS);
+		maxAttempts = configuration.getInt(CONFIGURATION_MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS);
+		retryInterval = configuration.getLong(CONFIGURATION_RETRY_INTERVAL, DEFAULT_RETRY_INTERVAL);
+		failedRetention = configuration.getLong(CONFIGURATION_FAILED_RETENTION, DEFAULT_FAILED_RETENTION);
+		Iterator<String> keys = configuration.getKeys(CONFIGURATION_RATE_LIMIT);
+		while (keys.hasNext()) {
+			String key = keys.next();
+			setRateLimit(key.substring(CONFIGURATION_RATE_LIMIT.length() + 1), configuration.getDouble(key));
+		}
+		if (!asyncTransports.isEmpty()) {
+			if (outboxDirectory == null) {
+				LOGGER.warn("No notification outbox directory is configured, notifications will be sent synchronously");
+			} else {
+				start();
+			}
+		}
+	}
+
+	/**
+	 * Starts the transport workers and schedules delivery of messages found in the outbox.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		if (outboxDirectory == null) {
+			throw new IllegalStateException("Notification outbox directory is not set");
+		}
+		File failedDirectory = new File(outboxDirectory, FAILED_DIRECTORY);
+		if (!failedDirectory.isDirectory() && !failedDirectory.mkdirs()) {
+			throw new IllegalStateException("Couldn't create notification outbox directory " + failedDirectory);
+		}
+		restrictAccess(outboxDirectory);
+		restrictAccess(failedDirectory);
+		AtomicInteger threadNumber = new AtomicInteger();
+		executor = new ScheduledThreadPoolExecutor(transportThreads, r -> {
+			Thread thread = new Thread(r, "notification-transport-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		LOGGER.info("Starting asynchronous delivery of notifications for transports {} using outbox {} ({} thread(s))",
+				asyncTransports, outboxDirectory, transportThreads);
+		recover();
+		if (failedRetention > 0) {
+			long cleanupInterval = Math.min(failedRetention, MAX_CLEANUP_INTERVAL);
+			executor.scheduleWithFixedDelay(this::deleteExpiredFailedEntries, 0, cleanupInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	// entries are encrypted; this is just an additional measure on systems that support it
+	private void restrictAccess(File directory) {
+		try {
+			Files.setPosixFilePermissions(directory.toPath(), PosixFilePermissions.fromString("rwx------"));
+		} catch (IOException | UnsupportedOperationException e) {
+			LOGGER.debug("Couldn't restrict access to notification outbox directory {}: {}", directory, e.getMessage());
+		}
+	}
+
+	/**
+	 * Stops the transport workers. Messages not delivered yet stay in the outbox and are delivered after restart.
+	 */
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		executor = null;
+		synchronized (pendingEntries) {
+			pendingEntries.clear();
+			pendingEntries.notifyAll();
+		}
+		callerResults.clear();
+	}
+
+	/**
+	 * Waits until all messages scheduled for delivery are either delivered or moved to failed ones.
+	 * Returns false if the timeout elapsed before.
+	 */
+	public boolean waitForDelivery(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (pendingEntries) {
+			while (!pendingEntries.isEmpty()) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				pendingEntries.wait(remaining);
+			}
+		}
+		return true;
+	}
+
+	public boolean isAsynchronous(String transportName) {
+		return executor != null && asyncTransports.contains(getBaseTransportName(transportName));
+	}
+
+	/**
+	 * Sends the message via given transport: directly, or - for asynchronous transports - by storing it in the outbox.
+	 * If the message cannot be stored, it is sent directly.
+	 */
+	public void send(Transport transport, Message message, String transportName, Event event, Task task,
+			OperationResult result) {
+		if (isAsynchronous(transportName)) {
+			OperationResult subresult = result.createSubresult(OPERATION_ENQUEUE);
+			subresult.addParam("transportName", transportName);
+			try {
+				File entry = store(message, transportName, event);
+				LOGGER.trace("Notification message via {} stored in the outbox as {}", transportName, entry);
+				subresult.addReturn("entry", entry.getName());
+				subresult.recordSuccess();
+				callerResults.put(entry, subresult);
+				schedule(entry, 0);
+				return;
+			} catch (IOException | EncryptionException | RuntimeException e) {
+				LoggingUtils.logUnexpectedException(LOGGER, "Couldn't store notification message via {} in the outbox, "
+						+ "sending it directly", e, transportName);
+				subresult.recordHandledError("Couldn't store notification message in the outbox: " + e.getMessage(), e);
+			}
+		}
+		transport.send(message, transportName, event, task, result);
+	}
+
+	File store(Message message, String transportName, Event event) throws IOException, EncryptionException {
+		Properties content = new Properties();
+		if (message.getFrom() != null) {
+			content.setProperty(KEY_FROM, message.getFrom());
+		}
+		storeList(content, KEY_TO, message.getTo());
+		storeList(content, KEY_CC, message.getCc());
+		storeList(content, KEY_BCC, message.getBcc());
+		if (message.getSubject() != null) {
+			content.setProperty(KEY_SUBJECT, message.getSubject());
+		}
+		if (message.getBody() != null) {
+			content.setProperty(KEY_BODY, message.getBody());
+		}
+		if (message.getContentType() != null) {
+			content.setProperty(KEY_CONTENT_TYPE, message.getContentType());
+		}
+		if (event != null) {
+			storeEvent(content, event);
+		}
+		Properties entry = new Properties();
+		entry.setProperty(KEY_TRANSPORT, transportName);
+		entry.setProperty(KEY_ATTEMPTS, "0");
+		encrypt(entry, content);
+		// time-based prefix makes the messages recovered at startup to be delivered approximately in the original order
+		File file = new File(outboxDirectory, System.currentTimeMillis() + "-" + UUID.randomUUID() + ENTRY_SUFFIX);
+		write(file, entry);
+		return file;
+	}
+
+	private void storeEvent(Properties content, Event event) {
+		LightweightIdentifier id = event.getId();
+		if (id != null) {
+			content.setProperty(KEY_EVENT_TIMESTAMP, String.valueOf(id.getTimestamp()));
+			content.setProperty(KEY_EVENT_HOST, String.valueOf(id.getHostIdentifier()));
+			content.setProperty(KEY_EVENT_SEQUENCE, String.valueOf(id.getSequenceNumber()));
+		}
+		if (event.getRequesterOid() != null) {
+			content.setProperty(KEY_EVENT_REQUESTER, event.getRequesterOid());
+		}
+		if (event.getRequesteeOid() != null) {
+			content.setProperty(KEY_EVENT_REQUESTEE, event.getRequesteeOid());
+		}
+		if (event.getChannel() != null) {
+			content.setProperty(KEY_EVENT_CHANNEL, event.getChannel());
+		}
+		content.setProperty(KEY_EVENT_STATUS, joinMatching(EventStatusType.values(), event::isStatusType));
+		content.setProperty(KEY_EVENT_OPERATION, joinMatching(EventOperationType.values(), event::isOperationType));
+		content.setProperty(KEY_EVENT_CATEGORY, joinMatching(EventCategoryType.values(), event::isCategoryType));
+		content.setProperty(KEY_EVENT_USER_RELATED, String.valueOf(event.isUserRelated()));
+	}
+
+	private <E extends Enum<E>> String joinMatching(E[] values, Predicate<E> predicate) {
+		List<String> matching = new ArrayList<>();
+		for (E value : values) {
+			if (predicate.test(value)) {
+				matching.add(value.name());
+			}
+		}
+		return StringUtils.join(matching, ",");
+	}
+
+	private <E extends Enum<E>> Set<E> splitMatching(Class<E> enumClass, String value) {
+		Set<E> matching = EnumSet.noneOf(enumClass);
+		for (String name : StringUtils.split(StringUtils.defaultString(value), ",")) {
+			matching.add(Enum.valueOf(enumClass, name));
+		}
+		return matching;
+	}
+
+	private Event toEvent(Properties content) {
+		String timestamp = content.getProperty(KEY_EVENT_TIMESTAMP);
+		if (timestamp == null) {
+			return null;
+		}
+		LightweightIdentifier id = new LightweightIdentifier(Long.parseLong(timestamp),
+				Integer.parseInt(content.getProperty(KEY_EVENT_HOST)),
+				Integer.parseInt(content.getProperty(KEY_EVENT_SEQUENCE)));
+		OutboxEvent event = new OutboxEvent(id,
+				splitMatching(EventStatusType.class, content.getProperty(KEY_EVENT_STATUS)),
+				splitMatching(EventOperationType.class, content.getProperty(KEY_EVENT_OPERATION)),
+				splitMatching(EventCategoryType.class, content.getProperty(KEY_EVENT_CATEGORY)),
+				Boolean.parseBoolean(content.getProperty(KEY_EVENT_USER_RELATED)));
+		String requesterOid = content.getProperty(KEY_EVENT_REQUESTER);
+		if (requesterOid != null) {
+			event.setRequester(new SimpleObjectRefImpl(notificationFunctions, requesterOid));
+		}
+		String requesteeOid = content.getProperty(KEY_EVENT_REQUESTEE);
+		if (requesteeOid != null) {
+			event.setRequestee(new SimpleObjectRefImpl(notificationFunctions, requesteeOid));
+		}
+		event.setChannel(content.getProperty(KEY_EVENT_CHANNEL));
+		event.setNotificationFunctions(notificationFunctions);
+		return event;
+	}
+
+	private void encrypt(Properties entry, Properties content) throws IOException, EncryptionException {
+		StringWriter writer = new StringWriter();
+		content.store(writer, null);
+		EncryptedDataType encryptedData = protector.encryptString(writer.toString()).getEncryptedDataType();
+		entry.setProperty(KEY_CONTENT_ALGORITHM, encryptedData.getEncryptionMethod().getAlgorithm());
+		entry.setProperty(KEY_CONTENT_KEY_NAME, encryptedData.getKeyInfo().getKeyName());
+		entry.setProperty(KEY_CONTENT_CIPHER, Base64.getEncoder().encodeToString(encryptedData.getCipherData().getCipherValue()));
+	}
+
+	private Properties decrypt(Properties entry) throws IOException, EncryptionException {
+		String cipher = entry.getProperty(KEY_CONTENT_CIPHER);
+		if (cipher == null) {
+			throw new IOException("No content in notification outbox entry");
+		}
+		EncryptedDataType encryptedData = new EncryptedDataType();
+		EncryptionMethodType encryptionMethod = new EncryptionMethodType();
+		encryptionMethod.setAlgorithm(entry.getProperty(KEY_CONTENT_ALGORITHM));
+		encryptedData.setEncryptionMethod(encryptionMethod);
+		KeyInfoType keyInfo = new KeyInfoType();
+		keyInfo.setKeyName(entry.getProperty(KEY_CONTENT_KEY_NAME));
+		encryptedData.setKeyInfo(keyInfo);
+		CipherDataType cipherData = new CipherDataType();
+		cipherData.setCipherValue(Base64.getDecoder().decode(cipher));
+		encryptedData.setCipherData(cipherData);
+		ProtectedStringType protectedContent = new ProtectedStringType();
+		protectedContent.setEncryptedData(encryptedData);
+		Properties content = new Properties();
+		content.load(new StringReader(protector.decryptString(protectedContent)));
+		return content;
+	}
+
+	private void storeList(Properties entry, String key, List<String> values) {
+		for (int i = 0; i < values.size(); i++) {
+			entry.setProperty(key + "." + i, values.get(i));
+		}
+	}
+
+	private List<String> loadList(Properties entry, String key) {
+		List<String> values = new ArrayList<>();
+		String value;
+		while ((value = entry.getProperty(key + "." + values.size())) != null) {
+			values.add(value);
+		}
+		return values;
+	}
+
+	private Message toMessage(Properties content) {
+		Message message = new Message();
+		message.setFrom(content.getProperty(KEY_FROM));
+		message.setTo(loadList(content, KEY_TO));
+		message.setCc(loadList(content, KEY_CC));
+		message.setBcc(loadList(content, KEY_BCC));
+		message.setSubject(content.getProperty(KEY_SUBJECT));
+		message.setBody(content.getProperty(KEY_BODY));
+		message.setContentType(content.getProperty(KEY_CONTENT_TYPE));
+		return message;
+	}
+
+	// the entry is written under a temporary name and then renamed, so a partially written entry is never delivered
+	private void write(File file, Properties entry) throws IOException {
+		File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+		try (OutputStream out = new FileOutputStream(tempFile)) {
+			entry.store(out, null);
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private Properties read(File file) throws IOException {
+		Properties entry = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			entry.load(in);
+		}
+		return entry;
+	}
+
+	private void recover() {
+		File[] files = outboxDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files);
+		long now = System.currentTimeMillis();
+		int recovered = 0;
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(TEMP_SUFFIX)) {
+				LOGGER.debug("Deleting incompletely written notification outbox entry {}", file);
+				deleteEntry(file);
+			} else if (name.endsWith(ENTRY_SUFFIX)) {
+				long notBefore = 0;
+				try {
+					notBefore = Long.parseLong(read(file).getProperty(KEY_NOT_BEFORE, "0"));
+				} catch (IOException | NumberFormatException e) {
+					// will be treated on delivery
+				}
+				schedule(file, Math.max(0, notBefore - now));
+				recovered++;
+			}
+		}
+		if (recovered > 0) {
+			LOGGER.info("Scheduled delivery of {} notification message(s) found in the outbox {}", recovered, outboxDirectory);
+		}
+	}
+
+	private void schedule(File file, long delay) {
+		ScheduledThreadPoolExecutor currentExecutor = executor;
+		if (currentExecutor == null || currentExecutor.isShutdown()) {
+			LOGGER.debug("Notification transport workers are not running, {} will be delivered after restart", file);
+			return;
+		}
+		synchronized (pendingEntries) {
+			pendingEntries.add(file);
+		}
+		currentExecutor.schedule(() -> deliver(file), delay, TimeUnit.MILLISECONDS);
+	}
+
+	// called when the delivery of the entry is over, either way
+	private void finished(File file, String failure) {
+		OperationResult callerResult = callerResults.remove(file);
+		if (failure != null && callerResult != null) {
+			synchronized (callerResult) {
+				callerResult.recordWarning(failure);
+			}
+		}
+		synchronized (pendingEntries) {
+			pendingEntries.remove(file);
+			pendingEntries.notifyAll();
+		}
+	}
+
+	private void deliver(File file) {
+		Properties entry;
+		try {
+			entry = read(file);
+		} catch (IOException e) {
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't read notification outbox entry {}", e, file);
+			moveToFailed(file, null, "Couldn't read notification outbox entry: " + e.getMessage());
+			return;
+		}
+		String transportName = entry.getProperty(KEY_TRANSPORT);
+		RateLimit rateLimit = transportName != null ? rateLimits.get(getBaseTransportName(transportName)) : null;
+		long delay = rateLimit != null ? rateLimit.reserve() : 0;
+		if (delay > 0) {
+			ScheduledThreadPoolExecutor currentExecutor = executor;
+			if (currentExecutor != null && !currentExecutor.isShutdown()) {
+				currentExecutor.schedule(() -> deliver(file, entry), delay, TimeUnit.MILLISECONDS);
+			} else {
+				finished(file, null);
+			}
+		} else {
+			deliver(file, entry);
+		}
+	}
+
+	private void deliver(File file, Properties entry) {
+		String transportName = entry.getProperty(KEY_TRANSPORT);
+		int attempt = Integer.parseInt(entry.getProperty(KEY_ATTEMPTS, "0")) + 1;
+		Task task = taskManager.createTaskInstance(OPERATION_DELIVER);
+		OperationResult result = task.getResult();
+		result.addParam("transportName", transportName);
+		result.addParam("attempt", attempt);
+		Properties content;
+		try {
+			content = decrypt(entry);
+		} catch (IOException | EncryptionException | RuntimeException e) {
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't decrypt notification outbox entry {}", e, file);
+			moveToFailed(file, entry, "Couldn't decrypt notification outbox entry: " + e.getMessage());
+			return;
+		}
+		try {
+			Transport transport = notificationManager.getTransport(transportName);
+			transport.send(toMessage(content), transportName, toEvent(content), task, result);
+			result.computeStatusIfUnknown();
+		} catch (RuntimeException e) {
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't deliver notification message {} via {}", e, file, transportName);
+			result.recordFatalError("Couldn't deliver notification message: " + e.getMessage(), e);
+		}
+		// transports report undelivered messages as warnings (e.g. when no mail server could be reached)
+		if (!result.isError() && !result.isWarning()) {
+			LOGGER.trace("Notification message {} delivered via {} in attempt {}", file, transportName, attempt);
+			deleteEntry(file);
+			finished(file, null);
+			return;
+		}
+		entry.setProperty(KEY_ATTEMPTS, String.valueOf(attempt));
+		entry.setProperty(KEY_LAST_ERROR, String.valueOf(result.getMessage()));
+		if (attempt >= maxAttempts) {
+			LOGGER.error("Notification message {} could not be delivered via {} in {} attempt(s), moving it to '{}': {}",
+					file, transportName, attempt, FAILED_DIRECTORY, result.getMessage());
+			moveToFailed(file, entry, "Notification message could not be delivered via " + transportName + " in "
+					+ attempt + " attempt(s): " + result.getMessage());
+		} else {
+			long delay = getRetryDelay(attempt);
+			LOGGER.debug("Notification message {} could not be delivered via {} in attempt {}, will retry in {} ms: {}",
+					file, transportName, attempt, delay, result.getMessage());
+			entry.setProperty(KEY_NOT_BEFORE, String.valueOf(System.currentTimeMillis() + delay));
+			try {
+				write(file, entry);
+			} catch (IOException e) {
+				LoggingUtils.logUnexpectedException(LOGGER, "Couldn't update notification outbox entry {}", e, file);
+			}
+			ScheduledThreadPoolExecutor currentExecutor = executor;
+			if (currentExecutor != null && !currentExecutor.isShutdown()) {
+				currentExecutor.schedule(() -> deliver(file), delay, TimeUnit.MILLISECONDS);
+			} else {
+				finished(file, null);
+			}
+		}
+	}
+
+	long getRetryDelay(int attempt) {
+		return retryInterval << Math.min(attempt - 1, 20);
+	}
+
+	// the entry (if known) is written with the last error; the file modification time is used to apply the retention
+	private void moveToFailed(File file, Properties entry, String failure) {
+		File failedFile = new File(new File(outboxDirectory, FAILED_DIRECTORY), file.getName());
+		try {
+			if (entry != null) {
+				write(failedFile, entry);
+				deleteEntry(file);
+			} else {
+				Files.move(file.toPath(), failedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				failedFile.setLastModified(System.currentTimeMillis());
+			}
+		} catch (IOException e) {
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't move notification outbox entry {} to '{}'", e, file,
+					FAILED_DIRECTORY);
+		}
+		finished(file, failure);
+	}
+
+	/**
+	 * Deletes messages that failed more than failedRetention milliseconds ago.
+	 */
+	public void deleteExpiredFailedEntries() {
+		File[] files = new File(outboxDirectory, FAILED_DIRECTORY).listFiles();
+		if (files == null) {
+			return;
+		}
+		long limit = System.currentTimeMillis() - failedRetention;
+		int deleted = 0;
+		for (File file : files) {
+			if (file.lastModified() < limit) {
+				deleteEntry(file);
+				deleted++;
+			}
+		}
+		if (deleted > 0) {
+			LOGGER.info("Deleted {} failed notification message(s) older than {} ms from {}", deleted, failedRetention,
+					outboxDirectory);
+		}
+	}
+
+	private void deleteEntry(File file) {
+		if (!file.delete() && file.exists()) {
+			LOGGER.warn("Couldn't delete notification outbox entry {}", file);
+		}
+	}
+
+	private String getBaseTransportName(String transportName) {
+		return transportName.split(":")[0];			// see NotificationManagerImpl.getTransport
+	}
+
+	public Set<String> getAsyncTransports() {
+		return asyncTransports;
+	}
+
+	public void setAsyncTransports(Collection<String> asyncTransports) {
+		this.asyncTransports = new HashSet<>(asyncTransports);
+	}
+
+	public File getOutboxDirectory() {
+		return outboxDirectory;
+	}
+
+	public void setOutboxDirectory(File outboxDirectory) {
+		this.outboxDirectory = outboxDirectory;
+	}
+
+	public int getTransportThreads() {
+		return transportThreads;
+	}
+
+	public void setTransportThreads(int transportThreads) {
+		this.transportThreads = transportThreads;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	public long getRetryInterval() {
+		return retryInterval;
+	}
+
+	public void setRetryInterval(long retryInterval) {
+		this.retryInterval = retryInterval;
+	}
+
+	public long getFailedRetention() {
+		return failedRetention;
+	}
+
+	/**
+	 * Sets how long (in milliseconds) the failed messages are kept; non-positive means forever. Takes effect on start.
+	 */
+	public void setFailedRetention(long failedRetention) {
+		this.failedRetention = failedRetention;
+	}
+
+	/**
+	 * Sets the maximal number of messages per second delivered via given (base) transport; non-positive means no limit.
+	 */
+	public void setRateLimit(String transport, double messagesPerSecond) {
+		if (messagesPerSecond > 0) {
+			rateLimits.put(transport, new RateLimit(messagesPerSecond));
+		} else {
+			rateLimits.remove(transport);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.evolveum.midpoint.notifications.impl;
+
+import com.evolveum.midpoint.notifications.api.events.BaseEvent;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.task.api.LightweightIdentifier;
+import com.evolveum.midpoint.util.DebugUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.EventCategoryType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.EventOperationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.EventStatusType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Set;
+
+/**
+ * Event passed to asynchronous transports by the {@link NotificationOutbox}.
+ *
+ * The original event (with model context, workflow data, etc.) cannot be stored in the outbox. What is stored is
+ * its identifier, requester, requestee, channel and the statuses, operations and categories it matched.
+ * Requester and requestee are resolved from the repository when needed.
+ *
+ * @author agent
+ */
+public class OutboxEvent extends BaseEvent {
+
+	@NotNull private final Set<EventStatusType> statusTypes;
+	@NotNull private final Set<EventOperationType> operationTypes;
+	@NotNull private final Set<EventCategoryType> categoryTypes;
+	private final boolean userRelated;
+
+	public OutboxEvent(@NotNull LightweightIdentifier id, @NotNull Set<EventStatusType> statusTypes,
+			@NotNull Set<EventOperationType> operationTypes, @NotNull Set<EventCategoryType> categoryTypes,
+			boolean userRelated) {
+		super(() -> id);
+		this.statusTypes = statusTypes;
+		this.operationTypes = operationTypes;
+		this.categoryTypes = categoryTypes;
+		this.userRelated = userRelated;
+	}
+
+	@Override
+	public boolean isStatusType(EventStatusType eventStatusType) {
+		return statusTypes.contains(eventStatusType);
+	}
+
+	@Override
+	public boolean isOperationType(EventOperationType eventOperationType) {
+		return operationTypes.contains(eventOperationType);
+	}
+
+	@Override
+	public boolean isCategoryType(EventCategoryType eventCategoryType) {
+		return categoryTypes.contains(eventCategoryType);
+	}
+
+	@Override
+	public boolean isUserRelated() {
+		return userRelated;
+	}
+
+	@Override
+	public boolean isRelatedToItem(ItemPath itemPath) {
+		return false;			// deltas are not stored
+	}
+
+	@Override
+	public String debugDump(int indent) {
+		StringBuilder sb = DebugUtil.createTitleStringBuilderLn(this.getClass(), indent);
+		debugDumpCommon(sb, indent);
+		DebugUtil.debugDumpWithLabelToStringLn(sb, "statusTypes", statusTypes, indent + 1);
+		DebugUtil.debugDumpWithLabelToStringLn(sb, "operationTypes", operationTypes, indent + 1);
+		DebugUtil.debugDumpWithLabelToString(sb, "categoryTypes", categoryTypes, indent + 1);
+		return sb.toString();
+	}
+}
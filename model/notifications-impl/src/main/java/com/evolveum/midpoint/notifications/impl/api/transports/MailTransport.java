@@ -21,6 +21,7 @@ import java.util.Date;
 import java.util.Properties;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.mail.MessagingException;
 import javax.mail.Session;
 import javax.mail.internet.InternetAddress;
@@ -75,11 +76,18 @@ public class MailTransport implements Transport {
     @Autowired
     private NotificationManager notificationManager;
 
+    private final SmtpConnectionPool connectionPool = new SmtpConnectionPool();
+
     @PostConstruct
     public void init() {
         notificationManager.registerTransport(NAME, this);
     }
 
+    @PreDestroy
+    public void destroy() {
+        connectionPool.closeAll();
+    }
+
     @Override
     public void send(Message mailMessage, String transportName, Event event, Task task, OperationResult parentResult) {
 
@@ -145,7 +153,8 @@ public class MailTransport implements Transport {
             resultForServer.addContext("server", host);
             resultForServer.addContext("port", mailServerConfigurationType.getPort());
 
-            Properties properties = System.getProperties();
+            // not modifying system properties directly, as messages can be sent by more threads at once
+            Properties properties = new Properties(System.getProperties());
             properties.setProperty("mail.smtp.host", host);
             if (mailServerConfigurationType.getPort() != null) {
                 properties.setProperty("mail.smtp.port", String.valueOf(mailServerConfigurationType.getPort()));
@@ -176,9 +185,9 @@ public class MailTransport implements Transport {
 
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Using mail properties: ");
-                for (Object key : properties.keySet()) {
-                    if (key instanceof String && ((String) key).startsWith("mail.")) {
-                        LOGGER.debug(" - " + key + " = " + properties.get(key));
+                for (String key : properties.stringPropertyNames()) {
+                    if (key.startsWith("mail.")) {
+                        LOGGER.debug(" - " + key + " = " + properties.getProperty(key));
                     }
                 }
             }
@@ -207,10 +216,10 @@ public class MailTransport implements Transport {
                     contentType = "text/plain; charset=UTF-8";
                 }
                 mimeMessage.setContent(mailMessage.getBody(), contentType);
-                javax.mail.Transport t = session.getTransport("smtp");
+                String username = null, password = null;
                 if (StringUtils.isNotEmpty(mailServerConfigurationType.getUsername())) {
+                    username = mailServerConfigurationType.getUsername();
                     ProtectedStringType passwordProtected = mailServerConfigurationType.getPassword();
-                    String password = null;
                     if (passwordProtected != null) {
                         try {
                             password = protector.decryptString(passwordProtected);
@@ -221,11 +230,8 @@ public class MailTransport implements Transport {
                             continue;
                         }
                     }
-                    t.connect(mailServerConfigurationType.getUsername(), password);
-                } else {
-                    t.connect();
                 }
-                t.sendMessage(mimeMessage, mimeMessage.getAllRecipients());
+                connectionPool.send(session, username, password, mimeMessage);
                 LOGGER.info("Message sent successfully to " + mailMessage.getTo() + " via server " + host + ".");
                 resultForServer.recordSuccess();
                 result.recordSuccess();
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.notifications.impl.api.transports;
+
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Keeps connections to SMTP servers open between messages, so that connecting (including TLS handshake
+ * and authentication) is not repeated for each message sent.
+ *
+ * Idle connections are kept per server, security settings and user name, in a deque shared by all threads;
+ * connections are not bound to threads. A thread borrows an idle connection for sending a message and returns it
+ * afterwards, so a connection is used by one thread at a time. A thread that finds no idle connection opens a new one;
+ * at most maxIdleConnections connections per server are kept when returned, the others are closed. Idle connections
+ * are checked before use, as the server might have closed them in the meanwhile. A message that could not be sent
+ * via a reused connection is sent once more via a new connection.
+ *
+ * @author agent
+ */
+class SmtpConnectionPool {
+
+	private static final Trace LOGGER = TraceManager.getTrace(SmtpConnectionPool.class);
+
+	static final int DEFAULT_MAX_IDLE_CONNECTIONS = 4;		// per server
+
+	private final int maxIdleConnections;
+	private final Map<String, Deque<Transport>> idleConnections = new ConcurrentHashMap<>();
+
+	SmtpConnectionPool() {
+		this(DEFAULT_MAX_IDLE_CONNECTIONS);
+	}
+
+	SmtpConnectionPool(int maxIdleConnections) {
+		this.maxIdleConnections = maxIdleConnections;
+	}
+
+	/**
+	 * Sends the message to the server given by the session properties (mail.smtp.host, mail.smtp.port, ...).
+	 */
+	void send(Session session, String username, String password, MimeMessage message) throws MessagingException {
+		String key = getKey(session, username);
+		Transport connection = borrowIdleConnection(key);
+		if (connection != null) {
+			try {
+				sendMessage(key, connection, message);
+				return;
+			} catch (SendFailedException e) {
+				throw e;
+			} catch (MessagingException e) {
+				LOGGER.debug("Couldn't send mail message via reused connection to {}, trying a new connection: {}", key,
+						e.getMessage());
+			}
+		}
+		connection = session.getTransport("smtp");
+		if (username != null) {
+			connection.connect(username, password);
+		} else {
+			connection.connect();
+		}
+		LOGGER.trace("Opened new SMTP connection to {}", key);
+		sendMessage(key, connection, message);
+	}
+
+	private void sendMessage(String key, Transport connection, MimeMessage message) throws MessagingException {
+		try {
+			connection.sendMessage(message, message.getAllRecipients());
+		} catch (SendFailedException e) {
+			// the message was refused (e.g. because of invalid addresses) but the connection is all right
+			release(key, connection);
+			throw e;
+		} catch (MessagingException | RuntimeException e) {
+			close(connection);
+			throw e;
+		}
+		release(key, connection);
+	}
+
+	private Transport borrowIdleConnection(String key) {
+		Deque<Transport> connections = idleConnections.get(key);
+		if (connections == null) {
+			return null;
+		}
+		Transport connection;
+		while ((connection = connections.pollFirst()) != null) {
+			if (connection.isConnected()) {		// for SMTP this sends NOOP to the server
+				return connection;
+			}
+			LOGGER.trace("Discarding closed SMTP connection to {}", key);
+			close(connection);
+		}
+		return null;
+	}
+
+	private void release(String key, Transport connection) {
+		Deque<Transport> connections = idleConnections.computeIfAbsent(key, k -> new ConcurrentLinkedDeque<>());
+		if (connections.size() < maxIdleConnections) {
+			connections.offerFirst(connection);
+		} else {
+			close(connection);
+		}
+	}
+
+	/**
+	 * Closes all idle connections. Connections currently in use are closed when released, if the pool is full.
+	 */
+	void closeAll() {
+		for (Deque<Transport> connections : idleConnections.values()) {
+			Transport connection;
+			while ((connection = connections.pollFirst()) != null) {
+				close(connection);
+			}
+		}
+	}
+
+	int getIdleConnectionsCount() {
+		int count = 0;
+		for (Deque<Transport> connections : idleConnections.values()) {
+			count += connections.size();
+		}
+		return count;
+	}
+
+	private void close(Transport connection) {
+		try {
+			connection.close();
+		} catch (MessagingException | RuntimeException e) {
+			LOGGER.trace("Couldn't close SMTP connection: {}", e.getMessage(), e);
+		}
+	}
+
+	private String getKey(Session session, String username) {
+		return username + "@" + session.getProperty("mail.smtp.host") + ":" + session.getProperty("mail.smtp.port")
+				+ ";ssl=" + session.getProperty("mail.smtp.ssl.enable")
+				+ ";starttls=" + session.getProperty("mail.smtp.starttls.enable")
+				+ "/" + session.getProperty("mail.smtp.starttls.required");
+	}
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.notifications.impl;
+
+import com.evolveum.midpoint.notifications.api.NotificationManager;
+import com.evolveum.midpoint.notifications.api.events.CustomEvent;
+import com.evolveum.midpoint.notifications.api.events.Event;
+import com.evolveum.midpoint.notifications.api.transports.Message;
+import com.evolveum.midpoint.notifications.api.transports.Transport;
+import com.evolveum.midpoint.notifications.impl.api.transports.FileTransport;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.task.api.LightweightIdentifierGenerator;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.AbstractIntegrationTest;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.EventCategoryType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.EventOperationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.EventStatusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FileConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.NotificationConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemObjectsType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Tests asynchronous delivery of notification messages via the outbox, using file transport and a test transport
+ * that records the messages and events and can simulate failures or slow delivery.
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = {"classpath:ctx-task.xml",
+		"classpath:ctx-repo-cache.xml",
+		"classpath:ctx-provisioning.xml",
+		"classpath*:ctx-repository-test.xml",
+		"classpath:ctx-configuration-test.xml",
+		"classpath:ctx-common.xml",
+		"classpath:ctx-repo-common.xml",
+		"classpath:ctx-security.xml",
+		"classpath:ctx-security-enforcer.xml",
+		"classpath:ctx-audit.xml",
+		"classpath:ctx-model.xml",
+		"classpath:ctx-model-common.xml",
+		"classpath:ctx-notifications-test.xml",
+		"classpath*:ctx-notifications.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestNotificationOutbox extends AbstractIntegrationTest {
+
+	private static final File TEST_DIR = new File("target/test-outbox");
+	private static final File NOTIFICATIONS_FILE = new File(TEST_DIR, "notifications.txt");
+	private static final File USER_JACK_FILE = new File(TestTextFormatter.USER_JACK_FILE);
+	private static final String USER_JACK_OID = "c0c010c0-d34d-b33f-f00d-111111111111";
+
+	private static final String TEST_TRANSPORT_NAME = "test";
+	private static final long TIMEOUT = 10000L;
+
+	@Autowired private NotificationOutbox outbox;
+	@Autowired private NotificationManager notificationManager;
+	@Autowired private NotificationFunctionsImpl notificationFunctions;
+	@Autowired private LightweightIdentifierGenerator lightweightIdentifierGenerator;
+	@Autowired private FileTransport fileTransport;
+
+	private TestTransport testTransport;
+
+	/**
+	 * Transport that records the messages and events sent. It reports the first failuresToSimulate attempts as failed
+	 * and - if there is a gate - waits for it to be opened before each delivery.
+	 */
+	private static class TestTransport implements Transport {
+		private final AtomicInteger failuresToSimulate = new AtomicInteger();
+		private final AtomicInteger attempts = new AtomicInteger();
+		private final List<Message> messages = new CopyOnWriteArrayList<>();
+		private final List<Event> events = new CopyOnWriteArrayList<>();
+		private final List<Long> deliveryTimes = new CopyOnWriteArrayList<>();
+		private final CountDownLatch entered = new CountDownLatch(1);
+		private volatile CountDownLatch gate;
+
+		@Override
+		public void send(Message message, String transportName, Event event, Task task, OperationResult parentResult) {
+			attempts.incrementAndGet();
+			entered.countDown();
+			try {
+				if (gate != null && !gate.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+					parentResult.recordFatalError("Gate was not opened");
+					return;
+				}
+			} catch (InterruptedException e) {
+				parentResult.recordFatalError("Interrupted", e);
+				return;
+			}
+			if (failuresToSimulate.getAndDecrement() > 0) {
+				parentResult.recordWarning("Simulated failure");
+			} else {
+				messages.add(message);
+				events.add(event);
+				deliveryTimes.add(System.currentTimeMillis());
+				parentResult.recordSuccess();
+			}
+		}
+
+		@Override
+		public String getDefaultRecipientAddress(UserType recipient) {
+			return recipient.getEmailAddress();
+		}
+
+		@Override
+		public String getName() {
+			return TEST_TRANSPORT_NAME;
+		}
+	}
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		SystemConfigurationType systemConfiguration = new SystemConfigurationType(prismContext)
+				.oid(SystemObjectsType.SYSTEM_CONFIGURATION.value())
+				.name("System configuration")
+				.notificationConfiguration(new NotificationConfigurationType()
+						.file(new FileConfigurationType().file(NOTIFICATIONS_FILE.getPath())));
+		repositoryService.addObject(systemConfiguration.asPrismObject(), null, initResult);
+		repoAddObjectFromFile(USER_JACK_FILE, initResult);
+	}
+
+	@AfterClass
+	public void stopOutbox() {
+		outbox.shutdown();
+		outbox.setAsyncTransports(Collections.emptySet());
+	}
+
+	@Test
+	public void test100DeliverViaFileTransport() throws Exception {
+		final String TEST_NAME = "test100DeliverViaFileTransport";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+		resetOutbox(TEST_NAME, fileTransport.getName());
+		outbox.start();
+		Files.deleteIfExists(NOTIFICATIONS_FILE.toPath());
+		Task task = taskManager.createTaskInstance(TestNotificationOutbox.class.getName() + "." + TEST_NAME);
+		OperationResult result = task.getResult();
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		for (int i = 0; i < 20; i++) {
+			outbox.send(fileTransport, createMessage(i), fileTransport.getName(), createEvent(), task, result);
+		}
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		assertTrue("Messages not delivered", outbox.waitForDelivery(TIMEOUT));
+		result.computeStatus();
+		display("Result", result);
+		TestUtil.assertSuccess(result);
+		assertEquals("Wrong number of enqueue operations", 20, result.findSubresults(NotificationOutbox.OPERATION_ENQUEUE).size());
+		assertEquals("Messages left in the outbox", 0, getEntries().length);
+		String content = new String(Files.readAllBytes(NOTIFICATIONS_FILE.toPath()), StandardCharsets.UTF_8);
+		for (int i = 0; i < 20; i++) {
+			assertTrue("Message " + i + " was not written", content.contains("Subject " + i + "\n"));
+		}
+	}
+
+	@Test
+	public void test110StoredEncryptedWithEvent() throws Exception {
+		final String TEST_NAME = "test110StoredEncryptedWithEvent";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+		resetOutbox(TEST_NAME, TEST_TRANSPORT_NAME);
+		testTransport.gate = new CountDownLatch(1);
+		outbox.start();
+		Message message = createMessage(1);
+		CustomEvent event = createEvent();
+		OperationResult result = new OperationResult(TEST_NAME);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		outbox.send(testTransport, message, TEST_TRANSPORT_NAME, event, null, result);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		assertTrue("Delivery has not started", testTransport.entered.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		File[] entries = getEntries();
+		assertEquals("Wrong number of messages in the outbox", 1, entries.length);
+		String stored = new String(Files.readAllBytes(entries[0].toPath()), StandardCharsets.ISO_8859_1);
+		display("Stored entry", stored);
+		assertFalse("Subject stored in plain text", stored.contains("Subject 1"));
+		assertFalse("Body stored in plain text", stored.contains("Body of message"));
+		assertFalse("Recipient stored in plain text", stored.contains("user1@example.com"));
+		assertFalse("Requestee stored in plain text", stored.contains(USER_JACK_OID));
+
+		testTransport.gate.countDown();
+		assertTrue("Message not delivered", outbox.waitForDelivery(TIMEOUT));
+		assertEquals("Wrong number of delivered messages", 1, testTransport.messages.size());
+		Message delivered = testTransport.messages.get(0);
+		assertEquals("Wrong subject", message.getSubject(), delivered.getSubject());
+		assertEquals("Wrong body", message.getBody(), delivered.getBody());
+		assertEquals("Wrong recipients", message.getTo(), delivered.getTo());
+
+		Event deliveredEvent = testTransport.events.get(0);
+		display("Delivered event", deliveredEvent);
+		assertNotNull("No event delivered", deliveredEvent);
+		assertEquals("Wrong event id", event.getId(), deliveredEvent.getId());
+		assertEquals("Wrong channel", event.getChannel(), deliveredEvent.getChannel());
+		assertEquals("Wrong requestee", USER_JACK_OID, deliveredEvent.getRequesteeOid());
+		assertEquals("Wrong requestee name", "jack",
+				deliveredEvent.getRequestee().resolveObjectType().getName().getOrig());
+		assertTrue("Event is not ADD", deliveredEvent.isAdd());
+		assertTrue("Event is not SUCCESS", deliveredEvent.isSuccess());
+		assertFalse("Event is FAILURE", deliveredEvent.isFailure());
+		assertTrue("Event is not CUSTOM", deliveredEvent.isCategoryType(EventCategoryType.CUSTOM_EVENT));
+		assertFalse("Event is account related", deliveredEvent.isAccountRelated());
+	}
+
+	@Test
+	public void test120RetryWithBackoff() throws Exception {
+		final String TEST_NAME = "test120RetryWithBackoff";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+		resetOutbox(TEST_NAME, TEST_TRANSPORT_NAME);
+		outbox.setRetryInterval(100);
+		outbox.start();
+		testTransport.failuresToSimulate.set(2);
+		OperationResult result = new OperationResult(TEST_NAME);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		long start = System.currentTimeMillis();
+		outbox.send(testTransport, createMessage(1), TEST_TRANSPORT_NAME, createEvent(), null, result);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		assertTrue("Message not delivered", outbox.waitForDelivery(TIMEOUT));
+		assertEquals("Wrong number of delivered messages", 1, testTransport.messages.size());
+		long time = testTransport.deliveryTimes.get(0) - start;
+		assertEquals("Wrong number of attempts", 3, testTransport.attempts.get());
+		assertTrue("Retries were too early: " + time + " ms", time >= 300);		// 100 + 200 ms
+		assertEquals("Wrong message delivered", "Subject 1", testTransport.messages.get(0).getSubject());
+		assertEquals("Messages left in the outbox", 0, getEntries().length);
+		assertEquals("Unexpected failed messages", 0, getFailedEntries().length);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+	}
+
+	@Test
+	public void test130GiveUpAfterMaxAttempts() throws Exception {
+		final String TEST_NAME = "test130GiveUpAfterMaxAttempts";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+		resetOutbox(TEST_NAME, TEST_TRANSPORT_NAME);
+		outbox.setRetryInterval(10);
+		outbox.setMaxAttempts(3);
+		outbox.start();
+		testTransport.failuresToSimulate.set(Integer.MAX_VALUE);
+		OperationResult result = new OperationResult(TEST_NAME);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		outbox.send(testTransport, createMessage(1), TEST_TRANSPORT_NAME, createEvent(), null, result);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		assertTrue("Message not processed", outbox.waitForDelivery(TIMEOUT));
+		assertEquals("Wrong number of attempts", 3, testTransport.attempts.get());
+		assertTrue("Unexpected delivery", testTransport.messages.isEmpty());
+		assertEquals("Messages left in the outbox", 0, getEntries().length);
+		File[] failedEntries = getFailedEntries();
+		assertEquals("Wrong number of failed messages", 1, failedEntries.length);
+		Properties failedEntry = new Properties();
+		try (InputStream in = Files.newInputStream(failedEntries[0].toPath())) {
+			failedEntry.load(in);
+		}
+		assertEquals("Wrong number of attempts recorded", "3", failedEntry.getProperty("attempts"));
+		assertEquals("Wrong last error recorded", "Simulated failure", failedEntry.getProperty("lastError"));
+
+		result.computeStatus();
+		display("Result", result);
+		OperationResult enqueueResult = result.findSubresult(NotificationOutbox.OPERATION_ENQUEUE);
+		assertEquals("Delivery failure not reported to the caller", OperationResultStatus.WARNING, enqueueResult.getStatus());
+		assertTrue("Wrong message: " + enqueueResult.getMessage(), enqueueResult.getMessage().contains("Simulated failure"));
+	}
+
+	@Test
+	public void test140DeleteExpiredFailedMessages() throws Exception {
+		final String TEST_NAME = "test140DeleteExpiredFailedMessages";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+		File directory = outbox.getOutboxDirectory();		// keeps the failed message from test130
+		File[] failedEntries = getFailedEntries();
+		assertEquals("Wrong number of failed messages", 1, failedEntries.length);
+		outbox.setFailedRetention(60000);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		outbox.deleteExpiredFailedEntries();
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		assertEquals("Recent failed message deleted", 1, getFailedEntries().length);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		assertTrue("Couldn't change time", failedEntries[0].setLastModified(System.currentTimeMillis() - 120000));
+		outbox.deleteExpiredFailedEntries();
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		assertEquals("Expired failed message not deleted", 0, getFailedEntries().length);
+		assertEquals("Wrong outbox directory", directory, outbox.getOutboxDirectory());
+	}
+
+	@Test
+	public void test150RateLimit() throws Exception {
+		final String TEST_NAME = "test150RateLimit";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+		resetOutbox(TEST_NAME, TEST_TRANSPORT_NAME);
+		outbox.setRateLimit(TEST_TRANSPORT_NAME, 20);
+		outbox.start();
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		for (int i = 0; i < 10; i++) {
+			outbox.send(testTransport, createMessage(i), TEST_TRANSPORT_NAME + ":sub", createEvent(), null,
+					new OperationResult(TEST_NAME));
+		}
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		assertTrue("Messages not delivered", outbox.waitForDelivery(TIMEOUT));
+		assertEquals("Wrong number of delivered messages", 10, testTransport.messages.size());
+		List<Long> times = testTransport.deliveryTimes;
+		long time = Collections.max(times) - Collections.min(times);
+		assertTrue("Rate limit was not applied: 10 messages in " + time + " ms", time >= 400);		// 9 x 50 ms, minus timer imprecision
+	}
+
+	@Test
+	public void test160DeliverAfterRestart() throws Exception {
+		final String TEST_NAME = "test160DeliverAfterRestart";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+		resetOutbox(TEST_NAME, TEST_TRANSPORT_NAME);
+
+		// messages left over by previous run
+		CustomEvent event = createEvent();
+		outbox.store(createMessage(1), TEST_TRANSPORT_NAME, event);
+		outbox.store(createMessage(2), TEST_TRANSPORT_NAME, null);
+		assertFalse("Outbox is running", outbox.isAsynchronous(TEST_TRANSPORT_NAME));
+		assertEquals("Wrong number of stored messages", 2, getEntries().length);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		outbox.start();
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		assertTrue("Messages not delivered", outbox.waitForDelivery(TIMEOUT));
+		assertEquals("Wrong number of delivered messages", 2, testTransport.messages.size());
+		assertEquals("Wrong first message", "Subject 1", testTransport.messages.get(0).getSubject());
+		assertEquals("Wrong recipients", Collections.singletonList("user1@example.com"), testTransport.messages.get(0).getTo());
+		assertEquals("Wrong event of first message", event.getId(), testTransport.events.get(0).getId());
+		assertEquals("Unexpected event of second message", null, testTransport.events.get(1));
+		assertEquals("Messages left in the outbox", 0, getEntries().length);
+	}
+
+	private void resetOutbox(String testName, String asyncTransport) {
+		outbox.shutdown();
+		File directory = new File(TEST_DIR, testName);
+		deleteRecursively(directory);
+		directory.mkdirs();
+		testTransport = new TestTransport();
+		notificationManager.registerTransport(TEST_TRANSPORT_NAME, testTransport);
+		outbox.setOutboxDirectory(directory);
+		outbox.setAsyncTransports(Collections.singleton(asyncTransport));
+		outbox.setRetryInterval(NotificationOutbox.DEFAULT_RETRY_INTERVAL);
+		outbox.setMaxAttempts(NotificationOutbox.DEFAULT_MAX_ATTEMPTS);
+		outbox.setFailedRetention(NotificationOutbox.DEFAULT_FAILED_RETENTION);
+		outbox.setRateLimit(TEST_TRANSPORT_NAME, 0);
+	}
+
+	private Message createMessage(int i) {
+		Message message = new Message();
+		message.setTo(Collections.singletonList("user" + i + "@example.com"));
+		message.setSubject("Subject " + i);
+		message.setBody("Body of message " + i + ",\nwith more lines and non-ASCII characters: žluťoučký kůň");
+		return message;
+	}
+
+	private CustomEvent createEvent() {
+		CustomEvent event = new CustomEvent(lightweightIdentifierGenerator, "outbox-test", null, null,
+				EventOperationType.ADD, EventStatusType.SUCCESS, SchemaConstants.CHANNEL_GUI_USER_URI);
+		event.setRequestee(new SimpleObjectRefImpl(notificationFunctions, USER_JACK_OID));
+		return event;
+	}
+
+	private File[] getEntries() {
+		return outbox.getOutboxDirectory().listFiles((dir, name) -> name.endsWith(NotificationOutbox.ENTRY_SUFFIX));
+	}
+
+	private File[] getFailedEntries() {
+		return new File(outbox.getOutboxDirectory(), NotificationOutbox.FAILED_DIRECTORY).listFiles();
+	}
+
+	private void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.notifications.impl.api.transports;
+
+import com.evolveum.midpoint.test.util.TestUtil;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+/**
+ * Sends mail messages via SmtpConnectionPool to a minimal local SMTP server.
+ *
+ * @author agent
+ */
+public class TestSmtpConnectionPool {
+
+	private SmtpStandIn server;
+	private SmtpConnectionPool pool;
+
+	/**
+	 * Accepts any message. Counts connections and messages received.
+	 */
+	private static class SmtpStandIn implements Runnable {
+		private final ServerSocket serverSocket;
+		private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+		private final AtomicInteger connections = new AtomicInteger();
+		private final AtomicInteger messages = new AtomicInteger();
+
+		private SmtpStandIn() throws IOException {
+			serverSocket = new ServerSocket(0);
+			Thread thread = new Thread(this, "smtp-stand-in");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		@Override
+		public void run() {
+			while (!serverSocket.isClosed()) {
+				try {
+					Socket socket = serverSocket.accept();
+					connections.incrementAndGet();
+					sockets.add(socket);
+					Thread thread = new Thread(() -> serve(socket), "smtp-stand-in-connection");
+					thread.setDaemon(true);
+					thread.start();
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		}
+
+		private void serve(Socket socket) {
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+					Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII)) {
+				reply(out, "220 localhost SMTP stand-in");
+				String line;
+				while ((line = in.readLine()) != null) {
+					String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+					switch (command) {
+						case "EHLO":
+						case "HELO":
+							reply(out, "250 localhost");
+							break;
+						case "MAIL":
+						case "RCPT":
+						case "RSET":
+						case "NOOP":
+							reply(out, "250 OK");
+							break;
+						case "DATA":
+							reply(out, "354 End data with <CR><LF>.<CR><LF>");
+							while ((line = in.readLine()) != null && !line.equals(".")) {
+								// ignoring the content
+							}
+							messages.incrementAndGet();
+							reply(out, "250 OK");
+							break;
+						case "QUIT":
+							reply(out, "221 Bye");
+							return;
+						default:
+							reply(out, "500 Unknown command");
+					}
+				}
+			} catch (IOException e) {
+				// connection closed
+			} finally {
+				sockets.remove(socket);
+			}
+		}
+
+		private void reply(Writer out, String text) throws IOException {
+			out.write(text + "\r\n");
+			out.flush();
+		}
+
+		private void dropConnections() throws IOException {
+			for (Socket socket : sockets) {
+				socket.close();
+			}
+		}
+
+		private void close() throws IOException {
+			serverSocket.close();
+			dropConnections();
+		}
+	}
+
+	@BeforeClass
+	public void startServer() throws IOException {
+		server = new SmtpStandIn();
+	}
+
+	@AfterClass
+	public void stopServer() throws IOException {
+		server.close();
+	}
+
+	@BeforeMethod
+	public void resetServer() throws IOException {
+		server.dropConnections();
+		server.connections.set(0);
+		server.messages.set(0);
+		pool = new SmtpConnectionPool();
+	}
+
+	@Test
+	public void test100ReuseConnection() throws Exception {
+		final String TEST_NAME = "test100ReuseConnection";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+		Session session = createSession();
+
+		for (int i = 0; i < 10; i++) {
+			pool.send(session, null, null, createMessage(session, i));
+		}
+
+		assertEquals("Wrong number of messages received", 10, server.messages.get());
+		assertEquals("Connection was not reused", 1, server.connections.get());
+		assertEquals("Wrong number of idle connections", 1, pool.getIdleConnectionsCount());
+	}
+
+	@Test
+	public void test110ReconnectAfterServerClosedConnection() throws Exception {
+		final String TEST_NAME = "test110ReconnectAfterServerClosedConnection";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+		Session session = createSession();
+		pool.send(session, null, null, createMessage(session, 1));
+
+		server.dropConnections();
+		pool.send(session, null, null, createMessage(session, 2));
+
+		assertEquals("Wrong number of messages received", 2, server.messages.get());
+		assertEquals("Wrong number of connections", 2, server.connections.get());
+	}
+
+	@Test
+	public void test120CloseAll() throws Exception {
+		final String TEST_NAME = "test120CloseAll";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+		Session session = createSession();
+		pool.send(session, null, null, createMessage(session, 1));
+
+		pool.closeAll();
+
+		assertEquals("Wrong number of idle connections", 0, pool.getIdleConnectionsCount());
+		pool.send(session, null, null, createMessage(session, 2));
+		assertEquals("Wrong number of messages received", 2, server.messages.get());
+		assertEquals("Wrong number of connections", 2, server.connections.get());
+	}
+
+	private Session createSession() {
+		Properties properties = new Properties();
+		properties.setProperty("mail.smtp.host", "localhost");
+		properties.setProperty("mail.smtp.port", String.valueOf(server.serverSocket.getLocalPort()));
+		return Session.getInstance(properties);
+	}
+
+	private MimeMessage createMessage(Session session, int i) throws Exception {
+		MimeMessage message = new MimeMessage(session);
+		message.setFrom(new InternetAddress("midpoint@example.com"));
+		message.addRecipient(Message.RecipientType.TO, new InternetAddress("user" + i + "@example.com"));
+		message.setSubject("Subject " + i, "utf-8");
+		message.setContent("Body " + i, "text/plain; charset=UTF-8");
+		return message;
+	}
+}
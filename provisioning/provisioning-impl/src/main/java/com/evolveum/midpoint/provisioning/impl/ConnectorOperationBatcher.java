@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.provisioning.impl;
+
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.provisioning.ucf.api.BatchedOperation;
+import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
+import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
+import com.evolveum.midpoint.provisioning.ucf.api.Operation;
+import com.evolveum.midpoint.provisioning.ucf.api.PropertyModificationOperation;
+import com.evolveum.midpoint.schema.CapabilityUtil;
+import com.evolveum.midpoint.schema.processor.ObjectClassComplexTypeDefinition;
+import com.evolveum.midpoint.schema.processor.ResourceAttribute;
+import com.evolveum.midpoint.schema.result.AsynchronousOperationResult;
+import com.evolveum.midpoint.schema.result.AsynchronousOperationReturnValue;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.StateReporter;
+import com.evolveum.midpoint.util.exception.CommunicationException;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SecurityViolationException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.BatchCapabilityType;
+import org.apache.commons.configuration.Configuration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Groups add, modify and delete operations that are executed concurrently on the same connector instance
+ * into batches, for connectors that have the batch capability.
+ *
+ * There is no timer: the first thread that comes executes its operation immediately. Threads that come while
+ * a batch is being executed put their operations into a queue and wait. When the batch finishes, one of the waiting
+ * threads takes all the queued operations (up to the maximal batch size) and executes them as the next batch.
+ * So a single thread never waits longer than for one batch, and the more threads there are, the larger the batches.
+ *
+ * Each operation is recorded in the operation result and state reporter of the thread that requested it.
+ * Exceptions are re-thrown in that thread as well, so for the callers the operations look exactly like regular
+ * connector calls. Only the batch call itself is recorded in the result of the thread that executes it.
+ *
+ * Disabled by default; it has to be switched on by setting midpoint.provisioning/batchOperations to true, and
+ * the resource has to have the batch capability (usually configured, as ConnId has no way of reporting it).
+ * The batch size is limited by midpoint.provisioning/maxBatchSize and by the maxSize of the capability.
+ *
+ * @author agent
+ */
+@Component
+public class ConnectorOperationBatcher {
+
+	private static final Trace LOGGER = TraceManager.getTrace(ConnectorOperationBatcher.class);
+
+	private static final String CONFIGURATION_SECTION = "midpoint.provisioning";
+	private static final String CONFIGURATION_BATCH_OPERATIONS = "batchOperations";
+	private static final String CONFIGURATION_MAX_BATCH_SIZE = "maxBatchSize";
+
+	public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+	@Autowired(required = false) private MidpointConfiguration midpointConfiguration;
+
+	private volatile boolean enabled = false;
+	private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+	// connector instances are compared by identity; the queues are discarded together with the connector instances
+	private final Map<ConnectorInstance, BatchQueue> queues = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private static class BatchQueue {
+		private final Deque<BatchedOperation> pending = new ArrayDeque<>();
+		private boolean executing;
+	}
+
+	@PostConstruct
+	public void init() {
+		if (midpointConfiguration != null) {
+			Configuration configuration = midpointConfiguration.getConfiguration(CONFIGURATION_SECTION);
+			enabled = configuration.getBoolean(CONFIGURATION_BATCH_OPERATIONS, false);
+			maxBatchSize = configuration.getInt(CONFIGURATION_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_SIZE);
+		}
+		LOGGER.debug("Batching of connector operations: enabled={}, maxBatchSize={}", enabled, maxBatchSize);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	@SuppressWarnings("unchecked")
+	public AsynchronousOperationReturnValue<Collection<ResourceAttribute<?>>> addObject(ConnectorInstance connector,
+			BatchCapabilityType batchCapability, PrismObject<? extends ShadowType> object,
+			Collection<Operation> additionalOperations, StateReporter reporter, OperationResult result)
+			throws CommunicationException, GenericFrameworkException, SchemaException, ObjectAlreadyExistsException,
+			ConfigurationException {
+		int batchSize = getBatchSize(batchCapability);
+		if (batchSize <= 1) {
+			return connector.addObject(object, additionalOperations, reporter, result);
+		}
+		BatchedOperation operation = BatchedOperation.add(object, additionalOperations);
+		try {
+			execute(connector, operation, batchSize, reporter, result);
+		} catch (ObjectNotFoundException | SecurityViolationException e) {
+			throw new GenericFrameworkException(e.getMessage(), e);		// cannot happen for ADD
+		}
+		return (AsynchronousOperationReturnValue<Collection<ResourceAttribute<?>>>) operation.getReturnValue();
+	}
+
+	@SuppressWarnings("unchecked")
+	public AsynchronousOperationReturnValue<Collection<PropertyModificationOperation>> modifyObject(ConnectorInstance connector,
+			BatchCapabilityType batchCapability, ObjectClassComplexTypeDefinition objectClass,
+			Collection<? extends ResourceAttribute<?>> identifiers, Collection<Operation> changes, StateReporter reporter,
+			OperationResult result)
+			throws ObjectNotFoundException, CommunicationException, GenericFrameworkException, SchemaException,
+			SecurityViolationException, ObjectAlreadyExistsException, ConfigurationException {
+		int batchSize = getBatchSize(batchCapability);
+		if (batchSize <= 1) {
+			return connector.modifyObject(objectClass, identifiers, changes, reporter, result);
+		}
+		BatchedOperation operation = BatchedOperation.modify(objectClass, identifiers, changes);
+		execute(connector, operation, batchSize, reporter, result);
+		return (AsynchronousOperationReturnValue<Collection<PropertyModificationOperation>>) operation.getReturnValue();
+	}
+
+	public AsynchronousOperationResult deleteObject(ConnectorInstance connector, BatchCapabilityType batchCapability,
+			ObjectClassComplexTypeDefinition objectClass, Collection<Operation> additionalOperations,
+			Collection<? extends ResourceAttribute<?>> identifiers, StateReporter reporter, OperationResult result)
+			throws ObjectNotFoundException, CommunicationException, GenericFrameworkException, SchemaException,
+			ConfigurationException {
+		int batchSize = getBatchSize(batchCapability);
+		if (batchSize <= 1) {
+			return connector.deleteObject(objectClass, additionalOperations, identifiers, reporter, result);
+		}
+		BatchedOperation operation = BatchedOperation.delete(objectClass, additionalOperations, identifiers);
+		try {
+			execute(connector, operation, batchSize, reporter, result);
+		} catch (ObjectAlreadyExistsException | SecurityViolationException e) {
+			throw new GenericFrameworkException(e.getMessage(), e);		// cannot happen for DELETE
+		}
+		return operation.getReturnValue();
+	}
+
+	/**
+	 * Returns the maximal size of a batch, or 1 if the operations are not to be batched.
+	 */
+	private int getBatchSize(BatchCapabilityType batchCapability) {
+		if (!enabled || !CapabilityUtil.isCapabilityEnabled(batchCapability)) {
+			return 1;
+		}
+		Integer capabilityMaxSize = batchCapability.getMaxSize();
+		return capabilityMaxSize != null ? Math.min(capabilityMaxSize, maxBatchSize) : maxBatchSize;
+	}
+
+	private void execute(ConnectorInstance connector, BatchedOperation operation, int batchSize, StateReporter reporter,
+			OperationResult result) throws CommunicationException, GenericFrameworkException, SchemaException,
+			ObjectAlreadyExistsException, ConfigurationException, ObjectNotFoundException, SecurityViolationException {
+		operation.setResult(result);
+		operation.setReporter(reporter);
+		BatchQueue queue = queues.computeIfAbsent(connector, c -> new BatchQueue());
+		synchronized (queue) {
+			queue.pending.add(operation);
+		}
+		boolean interrupted = false;
+		while (true) {
+			List<BatchedOperation> batch = new ArrayList<>();
+			synchronized (queue) {
+				// Other thread may execute our operation in the meanwhile. We cannot give up waiting when interrupted,
+				// because our operation result might be still written to.
+				while (!operation.isDone() && queue.executing) {
+					try {
+						queue.wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+				if (operation.isDone()) {
+					break;
+				}
+				queue.executing = true;
+				while (!queue.pending.isEmpty() && batch.size() < batchSize) {
+					batch.add(queue.pending.poll());
+				}
+			}
+			try {
+				LOGGER.trace("Executing batch of {} operation(s) on {}", batch.size(), connector);
+				connector.executeBatch(batch, reporter, result);
+			} catch (Throwable t) {
+				for (BatchedOperation batchedOperation : batch) {
+					if (!batchedOperation.isDone()) {
+						batchedOperation.recordFailure(t);
+					}
+				}
+			} finally {
+				for (BatchedOperation batchedOperation : batch) {
+					if (!batchedOperation.isDone()) {
+						batchedOperation.recordFailure(new IllegalStateException("Operation was not executed by the connector"));
+					}
+				}
+				synchronized (queue) {
+					queue.executing = false;
+					queue.notifyAll();
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		operation.rethrowException();
+	}
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.provisioning.impl;
+
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
+import com.evolveum.midpoint.schema.processor.ObjectClassComplexTypeDefinition;
+import com.evolveum.midpoint.schema.processor.ResourceAttribute;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.task.api.LightweightTaskHandler;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.exception.CommonException;
+import com.evolveum.midpoint.util.exception.CommunicationException;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
+import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SecurityViolationException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processes changes fetched by a live sync task in worker threads (lightweight subtasks of the live sync task).
+ *
+ * Changes related to the same resource object (i.e. having the same primary identifier values) are always
+ * processed by the same worker, in the order in which they were fetched. Changes of different objects are
+ * processed in parallel.
+ *
+ * The token is advanced only up to the last change such that this change and all the changes before it were
+ * completed. So if the task is interrupted (or a change fails and it should be retried), the next run starts
+ * from the first change that was not completed. Changes after it could be processed twice; this is the same
+ * situation as when a live sync task is interrupted in the middle of sequential processing.
+ *
+ * When a change fails, later changes of the same object are not processed at all (they would be applied on top
+ * of a change that was not), so they are retried together with the failed change in the next run.
+ *
+ * @author agent
+ */
+class LiveSyncChangeDispatcher {
+
+	private static final Trace LOGGER = TraceManager.getTrace(LiveSyncChangeDispatcher.class);
+
+	private static final String OP_PROCESS_CHANGES = LiveSyncChangeDispatcher.class.getName() + ".processChanges";
+	private static final String OP_EXECUTE_WORKER = LiveSyncChangeDispatcher.class.getName() + ".executeWorker";
+
+	private static final long WAIT_FOR_WORKERS_INTERVAL = 1000L;		// millis
+	private static final long TOKEN_SAVE_INTERVAL = 10000L;			// millis
+
+	enum ChangeOutcome {
+		/**
+		 * The change was processed; it is counted as a processed change.
+		 */
+		PROCESSED,
+
+		/**
+		 * The change carried only a new token.
+		 */
+		TOKEN_ONLY,
+
+		/**
+		 * The change was skipped (e.g. deletion of an object we did not know about).
+		 */
+		IGNORED,
+
+		/**
+		 * The change was not processed successfully and should be retried in the next run.
+		 * The token must not be advanced past it.
+		 */
+		FAILED
+	}
+
+	@FunctionalInterface
+	interface ChangeProcessor {
+		ChangeOutcome process(ProvisioningContext workerCtx, Change change, OperationResult result)
+				throws CommonException, GenericFrameworkException;
+	}
+
+	private final ProvisioningContext ctx;
+	private final Task coordinatorTask;
+	private final TaskManager taskManager;
+	private final int threadsCount;
+	private final ChangeProcessor processor;
+
+	private List<Change> changes;
+	private ChangeOutcome[] outcomes;
+	private int completedPrefix;				// number of changes at the beginning of the list that are completed
+	private int tokenPrefix;					// number of changes whose token was already put into the task
+	private int processedChanges;
+	private int progressReported;
+
+	private volatile boolean stopped;
+	private volatile Throwable failure;
+
+	LiveSyncChangeDispatcher(ProvisioningContext ctx, TaskManager taskManager, int threadsCount,
+			ChangeProcessor processor) {
+		this.ctx = ctx;
+		this.coordinatorTask = ctx.getTask();
+		this.taskManager = taskManager;
+		this.threadsCount = threadsCount;
+		this.processor = processor;
+	}
+
+	/**
+	 * Processes the changes and waits for all the workers to finish. Token and progress are written to the coordinator
+	 * task as the processing goes on; pending task modifications are saved regularly (but not at the end).
+	 *
+	 * @return number of processed changes
+	 */
+	int processChanges(List<Change> changes, OperationResult parentResult)
+			throws ObjectNotFoundException, CommunicationException, GenericFrameworkException, SchemaException,
+			ConfigurationException, SecurityViolationException, ObjectAlreadyExistsException, ExpressionEvaluationException {
+		this.changes = changes;
+		outcomes = new ChangeOutcome[changes.size()];
+
+		List<List<Integer>> lanes = new ArrayList<>(threadsCount);
+		for (int i = 0; i < threadsCount; i++) {
+			lanes.add(new ArrayList<>());
+		}
+		for (int i = 0; i < changes.size(); i++) {
+			Change change = changes.get(i);
+			if (change.isTokenOnly()) {
+				LOGGER.trace("Found token-only change: {}", change);
+				outcomes[i] = ChangeOutcome.TOKEN_ONLY;
+			} else {
+				lanes.get(getLane(change)).add(i);
+			}
+		}
+
+		List<OperationResult> workerResults = new ArrayList<>();
+		List<List<Integer>> nonEmptyLanes = new ArrayList<>();
+		for (List<Integer> lane : lanes) {
+			if (!lane.isEmpty()) {
+				nonEmptyLanes.add(lane);
+			}
+		}
+		CountDownLatch workersDone = new CountDownLatch(nonEmptyLanes.size());
+		for (int i = 0; i < nonEmptyLanes.size(); i++) {
+			// worker results are put under the parent result only after the workers are done
+			OperationResult workerResult = new OperationResult(OP_PROCESS_CHANGES);
+			workerResult.addContext("subtaskIndex", i+1);
+			workerResults.add(workerResult);
+
+			Task subtask = coordinatorTask.createSubtask(new Worker(nonEmptyLanes.get(i), workerResult, workersDone));
+			subtask.resetIterativeTaskInformation(null);
+			subtask.resetSynchronizationInformation(null);
+			subtask.resetActionsExecutedInformation(null);
+			subtask.setCategory(coordinatorTask.getCategory());
+			subtask.setResult(new OperationResult(OP_EXECUTE_WORKER, OperationResultStatus.IN_PROGRESS, null));
+			subtask.setName("Worker thread " + (i+1) + " of " + nonEmptyLanes.size());
+			subtask.startLightweightHandler();
+			LOGGER.trace("Worker subtask {} created for {} change(s)", subtask, nonEmptyLanes.get(i).size());
+		}
+
+		try {
+			long lastSave = System.currentTimeMillis();
+			while (!workersDone.await(WAIT_FOR_WORKERS_INTERVAL, TimeUnit.MILLISECONDS)) {
+				if (!coordinatorTask.canRun()) {
+					stopped = true;
+				}
+				updateTask();
+				if (System.currentTimeMillis() - lastSave >= TOKEN_SAVE_INTERVAL) {
+					coordinatorTask.savePendingModifications(parentResult);
+					lastSave = System.currentTimeMillis();
+				}
+			}
+		} catch (InterruptedException e) {
+			LOGGER.trace("Interrupted when waiting for worker threads", e);
+			stopped = true;
+		} finally {
+			taskManager.waitForTransientChildren(coordinatorTask, parentResult);
+			for (OperationResult workerResult : workerResults) {
+				workerResult.computeStatus();
+				workerResult.summarize();
+				parentResult.addSubresult(workerResult);
+			}
+			updateTask();
+		}
+
+		if (failure != null) {
+			throwFailure(failure);
+		}
+		return processedChanges;
+	}
+
+	/**
+	 * Changes without (primary) identifiers are all put into the first lane, so they are processed in their original order.
+	 */
+	private int getLane(Change change) {
+		List<String> key = getOrderingKey(change);
+		return key.isEmpty() ? 0 : (key.hashCode() & Integer.MAX_VALUE) % threadsCount;
+	}
+
+	/**
+	 * Values of primary identifiers of the object the change is related to. Attribute names are not used, because changes
+	 * for deleted objects come without object class definition and their identifier could be named differently.
+	 */
+	static List<String> getOrderingKey(Change change) {
+		Collection<ResourceAttribute<?>> identifiers = change.getIdentifiers();
+		if (identifiers == null) {
+			return Collections.emptyList();
+		}
+		ObjectClassComplexTypeDefinition ocDef = change.getObjectClassDefinition();
+		List<String> primary = new ArrayList<>();
+		List<String> all = new ArrayList<>();
+		for (ResourceAttribute<?> identifier : identifiers) {
+			for (PrismPropertyValue<?> value : identifier.getValues()) {
+				String stringValue = String.valueOf(value.getValue());
+				all.add(stringValue);
+				if (ocDef != null && ocDef.isPrimaryIdentifier(identifier.getElementName())) {
+					primary.add(stringValue);
+				}
+			}
+		}
+		List<String> key = primary.isEmpty() ? all : primary;
+		Collections.sort(key);
+		return key;
+	}
+
+	private synchronized void markCompleted(int index, ChangeOutcome outcome) {
+		outcomes[index] = outcome;
+		if (outcome == ChangeOutcome.PROCESSED) {
+			processedChanges++;
+		}
+		while (completedPrefix < outcomes.length && outcomes[completedPrefix] != null
+				&& outcomes[completedPrefix] != ChangeOutcome.FAILED) {
+			completedPrefix++;
+		}
+	}
+
+	/**
+	 * Writes the token of the last change of the completed prefix and the progress into the coordinator task.
+	 * Called only from the coordinator thread.
+	 */
+	private void updateTask() {
+		PrismProperty<?> token = null;
+		int newProgress;
+		synchronized (this) {
+			for (; tokenPrefix < completedPrefix; tokenPrefix++) {
+				if (changes.get(tokenPrefix).getToken() != null) {
+					token = changes.get(tokenPrefix).getToken();
+				}
+			}
+			newProgress = processedChanges;
+		}
+		try {
+			if (token != null) {
+				coordinatorTask.setExtensionProperty(token);
+			}
+		} catch (SchemaException e) {
+			throw new SystemException("Couldn't set token " + token + " into task " + coordinatorTask + ": " + e.getMessage(), e);
+		}
+		if (newProgress > progressReported) {
+			coordinatorTask.setProgress(coordinatorTask.getProgress() + newProgress - progressReported);
+			progressReported = newProgress;
+		}
+	}
+
+	private synchronized void recordFailure(Throwable t) {
+		if (failure == null) {
+			failure = t;
+		}
+		stopped = true;
+	}
+
+	private void throwFailure(Throwable t) throws ObjectNotFoundException, CommunicationException, GenericFrameworkException,
+			SchemaException, ConfigurationException, SecurityViolationException, ObjectAlreadyExistsException,
+			ExpressionEvaluationException {
+		if (t instanceof ObjectNotFoundException) {
+			throw (ObjectNotFoundException) t;
+		} else if (t instanceof CommunicationException) {
+			throw (CommunicationException) t;
+		} else if (t instanceof GenericFrameworkException) {
+			throw (GenericFrameworkException) t;
+		} else if (t instanceof SchemaException) {
+			throw (SchemaException) t;
+		} else if (t instanceof ConfigurationException) {
+			throw (ConfigurationException) t;
+		} else if (t instanceof SecurityViolationException) {
+			throw (SecurityViolationException) t;
+		} else if (t instanceof ObjectAlreadyExistsException) {
+			throw (ObjectAlreadyExistsException) t;
+		} else if (t instanceof ExpressionEvaluationException) {
+			throw (ExpressionEvaluationException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		} else {
+			throw new SystemException(t.getMessage(), t);
+		}
+	}
+
+	private class Worker implements LightweightTaskHandler {
+
+		private final List<Integer> lane;
+		private final OperationResult workerResult;
+		private final CountDownLatch workersDone;
+
+		private Worker(List<Integer> lane, OperationResult workerResult, CountDownLatch workersDone) {
+			this.lane = lane;
+			this.workerResult = workerResult;
+			this.workersDone = workersDone;
+		}
+
+		@Override
+		public void run(Task workerTask) {
+			try {
+				workerResult.addArbitraryObjectAsContext("subtaskName", workerTask.getName());
+				ProvisioningContext workerCtx = ctx.spawnForWorker(workerTask, workerResult);
+				Set<List<String>> failedObjects = new HashSet<>();
+				for (int i = 0; i < lane.size(); i++) {
+					if (stopped || !workerTask.canRun()) {
+						LOGGER.trace("Worker {} stopping; {} change(s) remain unprocessed", workerTask, lane.size() - i);
+						return;
+					}
+					int index = lane.get(i);
+					Change change = changes.get(index);
+					List<String> orderingKey = getOrderingKey(change);
+					if (failedObjects.contains(orderingKey)) {
+						// left uncompleted, so the token stays before the failed change
+						LOGGER.trace("Skipping change {} because an earlier change of the same object failed", change);
+						continue;
+					}
+					ChangeOutcome outcome;
+					RepositoryCache.enter();
+					try {
+						outcome = processor.process(workerCtx, change, workerResult);
+					} catch (Throwable t) {
+						LOGGER.debug("Couldn't process change {}, stopping the processing: {}", change, t.getMessage(), t);
+						recordFailure(t);
+						return;
+					} finally {
+						RepositoryCache.exit();
+					}
+					if (outcome == ChangeOutcome.FAILED) {
+						failedObjects.add(orderingKey);
+					}
+					markCompleted(index, outcome);
+				}
+			} finally {
+				workersDone.countDown();
+			}
+		}
+	}
+}
@@ -247,6 +247,22 @@ public class ProvisioningContext extends StateReporter {
 		return ctx;
 	}
 
+	/**
+	 * Creates a context for the same resource and coordinates that is used in another thread (running under
+	 * its own task and operation result). Connector instances already obtained are reused, but the map is not shared.
+	 */
+	public ProvisioningContext spawnForWorker(Task workerTask, OperationResult workerResult) {
+		ProvisioningContext ctx = new ProvisioningContext(resourceManager, workerResult);
+		ctx.setTask(workerTask);
+		ctx.setResourceOid(getResourceOid());
+		ctx.resource = this.resource;
+		ctx.updateResourceName();
+		ctx.connectorMap = connectorMap != null ? new HashMap<>(connectorMap) : null;
+		ctx.refinedSchema = this.refinedSchema;
+		ctx.shadowCoordinates = this.shadowCoordinates;
+		return ctx;
+	}
+
 //	/**
 //	 * Creates a context for a different object class on the same resource.
 //	 */
@@ -18,30 +18,62 @@ package com.evolveum.midpoint.provisioning.impl;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.evolveum.midpoint.common.refinery.ResourceSchemaCache;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 
 /**
  * Class for caching ResourceType instances with a parsed schemas.
  *
+ * Outdated entries are removed when a change of the resource is committed (on this or another cluster node),
+ * so that the parsed schemas are not held in memory longer than necessary.
+ *
  * @author Radovan Semancik
  *
  */
 @Component
-public class ResourceCache {
+public class ResourceCache implements CacheListener {
 
 	private Map<String,PrismObject<ResourceType>> cache;
 
+	@Autowired(required = false)
+	private CacheDispatcher cacheDispatcher;
+
+	@Autowired(required = false)
+	private ResourceSchemaCache resourceSchemaCache;
+
     ResourceCache() {
         cache = new HashMap<>();
     }
 
+	@PostConstruct
+	public void registerListener() {
+		if (cacheDispatcher != null) {
+			cacheDispatcher.registerCacheListener(this);
+		}
+	}
+
+	@PreDestroy
+	public void unregisterListener() {
+		if (cacheDispatcher != null) {
+			cacheDispatcher.unregisterCacheListener(this);
+		}
+	}
+
 	public synchronized void put(PrismObject<ResourceType> resource) throws SchemaException {
 		String oid = resource.getOid();
 		if (oid == null) {
@@ -119,4 +151,25 @@ public class ResourceCache {
 		cache.remove(oid);
 	}
 
+	@Override
+	public synchronized <O extends ObjectType> void invalidate(@NotNull Class<O> type, @NotNull String oid,
+			@Nullable String version, boolean clusterwide) {
+		if (!type.isAssignableFrom(ResourceType.class)) {
+			return;
+		}
+		PrismObject<ResourceType> cachedResource = cache.get(oid);
+		if (cachedResource != null && (version == null || !version.equals(cachedResource.getVersion()))) {
+			cache.remove(oid);
+		}
+		if (resourceSchemaCache != null) {
+			resourceSchemaCache.invalidate(oid, version);
+		}
+	}
+
+	@Override
+	public synchronized void invalidateAll(boolean clusterwide) {
+		// parsed schemas are keyed by resource version, so they need not be dropped here
+		cache.clear();
+	}
+
 }
@@ -60,6 +60,8 @@ import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.ActivationCa
 import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.ActivationLockoutStatusCapabilityType;
 import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.ActivationStatusCapabilityType;
 import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.AddRemoveAttributeValuesCapabilityType;
+import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.BatchCapabilityType;
+import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.CapabilityType;
 import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.CreateCapabilityType;
 import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.DeleteCapabilityType;
 import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.LiveSyncCapabilityType;
@@ -120,6 +122,9 @@ public class ResourceObjectConverter {
 	@Autowired
 	private PrismContext prismContext;
 
+	@Autowired
+	private ConnectorOperationBatcher operationBatcher;
+
 	private static final Trace LOGGER = TraceManager.getTrace(ResourceObjectConverter.class);
 
 	static final String FULL_SHADOW_KEY = ResourceObjectConverter.class.getName()+".fullShadow";
@@ -285,7 +290,8 @@ public class ResourceObjectConverter {
 				throw new UnsupportedOperationException("Resource does not support 'create' operation");
 			}
 			
-			AsynchronousOperationReturnValue<Collection<ResourceAttribute<?>>> ret = connector.addObject(shadowClone, additionalOperations, ctx, result);
+			AsynchronousOperationReturnValue<Collection<ResourceAttribute<?>>> ret = operationBatcher.addObject(connector,
+					getBatchCapability(ctx, CreateCapabilityType.class), shadowClone, additionalOperations, ctx, result);
 			resourceAttributesAfterAdd = ret.getReturnValue();
 
 			if (LOGGER.isDebugEnabled()) {
@@ -416,7 +422,8 @@ public class ResourceObjectConverter {
 				throw e;
 			}
 
-			connector.deleteObject(ctx.getObjectClassDefinition(), additionalOperations, identifiers, ctx, result);
+			operationBatcher.deleteObject(connector, getBatchCapability(ctx, DeleteCapabilityType.class),
+					ctx.getObjectClassDefinition(), additionalOperations, identifiers, ctx, result);
 
 			computeResultStatus(result);
 			LOGGER.debug("PROVISIONING DELETE: {}", result.getStatus());
@@ -766,7 +773,9 @@ public class ResourceObjectConverter {
 					operationsWave = convertToReplace(ctx, operationsWave, currentShadow);
 				}
 				if (!operationsWave.isEmpty()) {
-					AsynchronousOperationReturnValue<Collection<PropertyModificationOperation>> ret = connector.modifyObject(objectClassDefinition, identifiersWorkingCopy, operationsWave, ctx, parentResult);
+					AsynchronousOperationReturnValue<Collection<PropertyModificationOperation>> ret = operationBatcher.modifyObject(connector,
+							getBatchCapability(ctx, UpdateCapabilityType.class), objectClassDefinition, identifiersWorkingCopy,
+							operationsWave, ctx, parentResult);
 					Collection<PropertyModificationOperation> sideEffects = ret.getReturnValue();
 					if (sideEffects != null) {
 						sideEffectChanges.addAll(sideEffects);
@@ -2387,6 +2396,12 @@ public class ResourceObjectConverter {
 		return status;
 	}
 	
+	private <T extends CapabilityType> BatchCapabilityType getBatchCapability(ProvisioningContext ctx,
+			Class<T> operationCapabilityClass) {
+		return CapabilityUtil.getEffectiveCapability(ctx.getConnectorCapabilities(operationCapabilityClass),
+				BatchCapabilityType.class);
+	}
+
 	private void computeResultStatus(OperationResult parentResult) {
 		if (parentResult.isInProgress()) {
 			return;
@@ -32,12 +32,16 @@ import com.evolveum.midpoint.provisioning.api.*;
 import com.evolveum.midpoint.provisioning.consistency.api.ErrorHandler;
 import com.evolveum.midpoint.provisioning.consistency.api.ErrorHandler.FailedOperation;
 import com.evolveum.midpoint.provisioning.consistency.impl.ErrorHandlerFactory;
+import com.evolveum.midpoint.provisioning.impl.LiveSyncChangeDispatcher.ChangeOutcome;
 import com.evolveum.midpoint.provisioning.impl.ShadowCacheFactory.Mode;
 import com.evolveum.midpoint.provisioning.ucf.api.Change;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
 import com.evolveum.midpoint.provisioning.util.ProvisioningUtil;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
 import com.evolveum.midpoint.schema.*;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.internals.InternalCounters;
@@ -59,6 +63,7 @@ import com.evolveum.midpoint.util.DebugUtil;
 import com.evolveum.midpoint.util.Holder;
 import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.util.exception.*;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
@@ -71,6 +76,8 @@ import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
 import org.apache.commons.lang.BooleanUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 
@@ -81,7 +88,12 @@ import javax.xml.namespace.QName;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Shadow cache is a facade that covers all the operations with shadows. It
@@ -141,8 +153,13 @@ public abstract class ShadowCache {
 	@Autowired(required = true)
 	private ProvisioningContextFactory ctxFactory;
 
+	@Autowired(required = false)
+	private CacheDispatcher cacheDispatcher;
+
 	private static final Trace LOGGER = TraceManager.getTrace(ShadowCache.class);
 
+	private static final int SHADOW_LOOKUP_WINDOW_SIZE = 50;
+
 	public ShadowCache() {
 		repositoryService = null;
 	}
@@ -1295,67 +1312,246 @@ public abstract class ShadowCache {
 
 		ObjectQuery attributeQuery = createAttributeQuery(query);
 
-		ResultHandler<ShadowType> resultHandler = (PrismObject<ShadowType> resourceShadow, OperationResult objResult) -> {
-				if (LOGGER.isTraceEnabled()) {
-					LOGGER.trace("Found resource object\n{}", resourceShadow.debugDump(1));
-				}
-				PrismObject<ShadowType> resultShadow;
+		ShadowLookupWindow lookupWindow = readFromRepository ? new ShadowLookupWindow(ctx, handler, parentResult) : null;
+		ResultHandler<ShadowType> resultHandler = lookupWindow != null ? lookupWindow :
+				(resourceShadow, objResult) -> processResourceObject(ctx, resourceShadow, objResult, handler, false,
+						Collections.emptyMap(), parentResult);
+
+		boolean fetchAssociations = SelectorOptions.hasToLoadPath(ShadowType.F_ASSOCIATION, options);
+
+		SearchResultMetadata metadata;
+		try {
+			metadata = resouceObjectConverter.searchResourceObjects(ctx, resultHandler, attributeQuery,
+					fetchAssociations, parentResult);
+		} catch (Throwable t) {
+			if (lookupWindow != null) {
+				// the objects are not passed to the handler if the search failed, as if they were never returned
+				lookupWindow.discard();
+			}
+			throw t;
+		}
+		if (lookupWindow != null) {
+			lookupWindow.flush();
+		}
+		return metadata;
+	}
+
+	/**
+	 * Buffers resource objects coming from the connector, so that their repository shadows can be looked up
+	 * by a single repository query per window instead of one query per object. The objects are then processed
+	 * one by one in the original order, so the handler sees the same sequence of objects and errors as without
+	 * buffering. The only difference is that the connector may return up to (window size - 1) objects more
+	 * than are processed if the handler stops the search or the search fails.
+	 *
+	 * Shadows are changed while the window is processed (by the processing itself, by the handler or by other
+	 * threads), so the window listens to repository changes of shadows. A prefetched shadow that was changed
+	 * is not used; and a prefetched "no shadow" is trusted only if no shadow was changed except for the shadows
+	 * of the objects that were already processed. The object is looked up individually in these cases.
+	 * Without a cache dispatcher the changes cannot be tracked, so the shadows are not prefetched at all.
+	 */
+	private class ShadowLookupWindow implements ResultHandler<ShadowType>, CacheListener {
+
+		private final ProvisioningContext ctx;
+		private final ResultHandler<ShadowType> handler;
+		private final OperationResult parentResult;
+		private final List<PrismObject<ShadowType>> resourceShadows = new ArrayList<>(SHADOW_LOOKUP_WINDOW_SIZE);
+		private final List<OperationResult> objResults = new ArrayList<>(SHADOW_LOOKUP_WINDOW_SIZE);
+		private final Set<String> changedShadowOids = ConcurrentHashMap.newKeySet();
+		private final Set<String> processedShadowOids = new HashSet<>();
+		private volatile boolean allShadowsChanged;
+		private boolean stopped;
+
+		private ShadowLookupWindow(ProvisioningContext ctx, ResultHandler<ShadowType> handler, OperationResult parentResult) {
+			this.ctx = ctx;
+			this.handler = handler;
+			this.parentResult = parentResult;
+		}
+
+		@Override
+		public boolean handle(PrismObject<ShadowType> resourceShadow, OperationResult objResult) {
+			resourceShadows.add(resourceShadow);
+			objResults.add(objResult);
+			return resourceShadows.size() < SHADOW_LOOKUP_WINDOW_SIZE || process();
+		}
+
+		/**
+		 * Processes the objects remaining in the window after the search is over.
+		 */
+		private void flush() {
+			if (!resourceShadows.isEmpty()) {
+				RepositoryCache.enter();
 				try {
-					// The shadow does not have any kind or intent at this
-					// point.
-					// But at least locate the definition using object classes.
-					ProvisioningContext estimatedShadowCtx = reapplyDefinitions(ctx, resourceShadow);
-					// Try to find shadow that corresponds to the resource
-					// object.
-					if (readFromRepository) {
-						PrismObject<ShadowType> repoShadow = lookupOrCreateShadowInRepository(
-								estimatedShadowCtx, resourceShadow, true, parentResult);
-
-						// This determines the definitions exactly. How the repo
-						// shadow should have proper kind/intent
-						ProvisioningContext shadowCtx = applyAttributesDefinition(ctx, repoShadow);
-
-						repoShadow = shadowManager.updateShadow(shadowCtx, resourceShadow, repoShadow,
-								parentResult);
-						
-						resultShadow = completeShadow(shadowCtx, resourceShadow, repoShadow, objResult);
-						
-					} else {
-						resultShadow = resourceShadow;
+					process();
+				} finally {
+					RepositoryCache.exit();
+				}
+			}
+		}
+
+		private void discard() {
+			resourceShadows.clear();
+			objResults.clear();
+		}
+
+		private boolean process() {
+			if (stopped) {
+				discard();
+				return false;
+			}
+			if (cacheDispatcher != null) {
+				// registered before the prefetch, so no change committed after the prefetch query can be missed
+				cacheDispatcher.registerCacheListener(this);
+			}
+			try {
+				Map<PrismObject<ShadowType>, List<PrismObject<ShadowType>>> prefetchedShadows =
+						cacheDispatcher != null ? prefetchShadows() : new HashMap<>();
+				// the handler sees the shadow of the object being processed, so we learn its OID even if it was created
+				ResultHandler<ShadowType> recordingHandler = (shadow, objResult) -> {
+					if (shadow.getOid() != null) {
+						processedShadowOids.add(shadow.getOid());
+					}
+					return handler.handle(shadow, objResult);
+				};
+				for (int i = 0; i < resourceShadows.size(); i++) {
+					PrismObject<ShadowType> resourceShadow = resourceShadows.get(i);
+					List<PrismObject<ShadowType>> prefetched = prefetchedShadows.get(resourceShadow);
+					if (prefetched != null) {
+						if (isStale(prefetched)) {
+							LOGGER.trace("Prefetched shadows of {} are stale, looking it up individually", resourceShadow);
+							prefetchedShadows.remove(resourceShadow);
+						}
+						prefetched.forEach(shadow -> processedShadowOids.add(shadow.getOid()));
+					}
+					if (!processResourceObject(ctx, resourceShadow, objResults.get(i), recordingHandler, true,
+							prefetchedShadows, parentResult)) {
+						stopped = true;
+						return false;
 					}
+				}
+				return true;
+			} finally {
+				if (cacheDispatcher != null) {
+					cacheDispatcher.unregisterCacheListener(this);
+				}
+				changedShadowOids.clear();
+				allShadowsChanged = false;
+				processedShadowOids.clear();
+				discard();
+			}
+		}
 
-					validateShadow(resultShadow, readFromRepository);
-					
-				} catch (SchemaException e) {
-					objResult.recordFatalError("Schema error: " + e.getMessage(), e);
-					LOGGER.error("Schema error: {}", e.getMessage(), e);
-					return false;
-				} catch (ConfigurationException e) {
-					objResult.recordFatalError("Configuration error: " + e.getMessage(), e);
-					LOGGER.error("Configuration error: {}", e.getMessage(), e);
-					return false;
-				} catch (ObjectNotFoundException | ObjectAlreadyExistsException | CommunicationException
-						| SecurityViolationException | GenericConnectorException | ExpressionEvaluationException e) {
-					objResult.recordFatalError(e.getMessage(), e);
-					LOGGER.error("{}", e.getMessage(), e);
-					return false;
+		private boolean isStale(List<PrismObject<ShadowType>> prefetched) {
+			if (allShadowsChanged) {
+				return true;
+			}
+			for (String changedOid : changedShadowOids) {
+				if (processedShadowOids.contains(changedOid)) {
+					continue;
+				}
+				// a shadow not known to us might have been created for this object
+				if (prefetched.isEmpty() || prefetched.stream().anyMatch(shadow -> changedOid.equals(shadow.getOid()))) {
+					return true;
 				}
+			}
+			return false;
+		}
 
-				boolean doContinue;
-				try {
-					
-					doContinue =  handler.handle(resultShadow, objResult);
-					
-					objResult.computeStatus();
-					objResult.recordSuccessIfUnknown();
+		@Override
+		public <O extends ObjectType> void invalidate(@NotNull Class<O> type, @NotNull String oid,
+				@Nullable String version, boolean clusterwide) {
+			if (type.isAssignableFrom(ShadowType.class)) {
+				changedShadowOids.add(oid);
+			}
+		}
+
+		@Override
+		public void invalidateAll(boolean clusterwide) {
+			allShadowsChanged = true;
+		}
+
+		private Map<PrismObject<ShadowType>, List<PrismObject<ShadowType>>> prefetchShadows() {
+			List<PrismObject<ShadowType>> candidates = new ArrayList<>(resourceShadows.size());
+			for (PrismObject<ShadowType> resourceShadow : resourceShadows) {
+				// objects with auxiliary object classes get their own definitions, see reapplyDefinitions
+				if (resourceShadow.asObjectable().getAuxiliaryObjectClass().isEmpty()) {
+					candidates.add(resourceShadow);
+				}
+			}
+			try {
+				return shadowManager.lookupShadowsInRepository(ctx, candidates, parentResult);
+			} catch (SchemaException | ConfigurationException | ObjectNotFoundException | CommunicationException
+					| ExpressionEvaluationException | RuntimeException e) {
+				// the problem (if persistent) will be reported when looking up the shadows one by one
+				LoggingUtils.logUnexpectedException(LOGGER, "Couldn't look up shadows for {} resource objects, will look "
+						+ "them up individually", e, candidates.size());
+				return new HashMap<>();
+			}
+		}
+	}
+
+	private boolean processResourceObject(ProvisioningContext ctx, PrismObject<ShadowType> resourceShadow,
+			OperationResult objResult, ResultHandler<ShadowType> handler, boolean readFromRepository,
+			Map<PrismObject<ShadowType>, List<PrismObject<ShadowType>>> prefetchedShadows, OperationResult parentResult) {
+		if (LOGGER.isTraceEnabled()) {
+			LOGGER.trace("Found resource object\n{}", resourceShadow.debugDump(1));
+		}
+		PrismObject<ShadowType> resultShadow;
+		try {
+			// The shadow does not have any kind or intent at this
+			// point.
+			// But at least locate the definition using object classes.
+			ProvisioningContext estimatedShadowCtx = reapplyDefinitions(ctx, resourceShadow);
+			// Try to find shadow that corresponds to the resource
+			// object.
+			if (readFromRepository) {
+				PrismObject<ShadowType> repoShadow = lookupOrCreateShadowInRepository(
+						estimatedShadowCtx, resourceShadow, prefetchedShadows.remove(resourceShadow), true, parentResult);
+
+				// This determines the definitions exactly. How the repo
+				// shadow should have proper kind/intent
+				ProvisioningContext shadowCtx = applyAttributesDefinition(ctx, repoShadow);
+
+				repoShadow = shadowManager.updateShadow(shadowCtx, resourceShadow, repoShadow,
+						parentResult);
+				
+				resultShadow = completeShadow(shadowCtx, resourceShadow, repoShadow, objResult);
+				
+			} else {
+				resultShadow = resourceShadow;
+			}
+
+			validateShadow(resultShadow, readFromRepository);
+			
+		} catch (SchemaException e) {
+			objResult.recordFatalError("Schema error: " + e.getMessage(), e);
+			LOGGER.error("Schema error: {}", e.getMessage(), e);
+			return false;
+		} catch (ConfigurationException e) {
+			objResult.recordFatalError("Configuration error: " + e.getMessage(), e);
+			LOGGER.error("Configuration error: {}", e.getMessage(), e);
+			return false;
+		} catch (ObjectNotFoundException | ObjectAlreadyExistsException | CommunicationException
+				| SecurityViolationException | GenericConnectorException | ExpressionEvaluationException e) {
+			objResult.recordFatalError(e.getMessage(), e);
+			LOGGER.error("{}", e.getMessage(), e);
+			return false;
+		}
+
+		boolean doContinue;
+		try {
+			
+			doContinue =  handler.handle(resultShadow, objResult);
+			
+			objResult.computeStatus();
+			objResult.recordSuccessIfUnknown();
 
                     if (!objResult.isSuccess() && !objResult.isHandledError()) {
                         Collection<? extends ItemDelta> shadowModificationType = PropertyDelta
                                 .createModificationReplacePropertyCollection(ShadowType.F_RESULT,
                                         getResourceObjectShadowDefinition(), objResult.createOperationResultType());
                         try {
-							ConstraintsChecker.onShadowModifyOperation(shadowModificationType);
-							repositoryService.modifyObject(ShadowType.class, resultShadow.getOid(),
+					ConstraintsChecker.onShadowModifyOperation(shadowModificationType);
+					repositoryService.modifyObject(ShadowType.class, resultShadow.getOid(),
                                     shadowModificationType, objResult);
                         } catch (ObjectNotFoundException ex) {
                         	objResult.recordFatalError("Saving of result to " + resultShadow
@@ -1386,14 +1582,7 @@ public abstract class ShadowCache {
                     parentResult.summarize();
                 }
 
-				return doContinue;
-			};
-
-		boolean fetchAssociations = SelectorOptions.hasToLoadPath(ShadowType.F_ASSOCIATION, options);
-
-		return resouceObjectConverter.searchResourceObjects(ctx, resultHandler, attributeQuery,
-				fetchAssociations, parentResult);
-
+		return doContinue;
 	}
 
 	ObjectQuery createAttributeQuery(ObjectQuery query) throws SchemaException {
@@ -1551,8 +1740,21 @@ public abstract class ShadowCache {
 			PrismObject<ShadowType> resourceShadow, boolean unknownIntent, OperationResult parentResult)
 					throws SchemaException, ConfigurationException, ObjectNotFoundException,
 					CommunicationException, SecurityViolationException, GenericConnectorException, ExpressionEvaluationException {
-		PrismObject<ShadowType> repoShadow = shadowManager.lookupShadowInRepository(ctx, resourceShadow,
-				parentResult);
+		return lookupOrCreateShadowInRepository(ctx, resourceShadow, null, unknownIntent, parentResult);
+	}
+
+	/**
+	 * @param prefetchedShadows Shadows found for the resource object by ShadowManager.lookupShadowsInRepository,
+	 *                          or null if the lookup was not done yet.
+	 */
+	private PrismObject<ShadowType> lookupOrCreateShadowInRepository(ProvisioningContext ctx,
+			PrismObject<ShadowType> resourceShadow, List<PrismObject<ShadowType>> prefetchedShadows, boolean unknownIntent,
+			OperationResult parentResult)
+					throws SchemaException, ConfigurationException, ObjectNotFoundException,
+					CommunicationException, SecurityViolationException, GenericConnectorException, ExpressionEvaluationException {
+		PrismObject<ShadowType> repoShadow = prefetchedShadows != null ?
+				shadowManager.selectLookedUpShadow(resourceShadow, prefetchedShadows, parentResult) :
+				shadowManager.lookupShadowInRepository(ctx, resourceShadow, parentResult);
 
 		if (repoShadow == null) {
 			if (LOGGER.isTraceEnabled()) {
@@ -1775,88 +1977,43 @@ public abstract class ShadowCache {
 
 			LOGGER.trace("Found {} change(s). Start processing it (them).", changes.size());
 
-			int processedChanges = 0;
-
-			for (Change change : changes) {
-
-				if (change.isTokenOnly()) {
-					LOGGER.trace("Found token-only change: {}", change);
-					task.setExtensionProperty(change.getToken());
-					continue;
-				}
+			boolean retryUnhandledError = isRetryUnhandledError(task);
+			Integer workerThreads = getWorkerThreadsCount(task);
 
-				ObjectClassComplexTypeDefinition changeObjectClassDefinition = change
-						.getObjectClassDefinition();
-
-				ProvisioningContext shadowCtx;
-				PrismObject<ShadowType> oldShadow = null;
-				if (changeObjectClassDefinition == null) {
-					if (change.getObjectDelta() != null && change.getObjectDelta().isDelete()) {
-						oldShadow = change.getOldShadow();
-						if (oldShadow == null) {
-							oldShadow = shadowManager.findOrAddShadowFromChangeGlobalContext(ctx, change,
-									parentResult);
-						}
-						if (oldShadow == null) {
-							LOGGER.debug(
-									"No old shadow for delete synchronization event {}, we probably did not know about that object anyway, so well be ignoring this event",
-									change);
-							continue;
-						}
-						shadowCtx = ctx.spawn(oldShadow);
-					} else {
-						throw new SchemaException("No object class definition in change " + change);
+			int processedChanges = 0;
+			if (workerThreads != null && workerThreads > 0 && !changes.isEmpty()) {
+				LiveSyncChangeDispatcher dispatcher = new LiveSyncChangeDispatcher(ctx, taskManager, workerThreads,
+						(workerCtx, change, result) -> processLiveSyncChange(workerCtx, change, retryUnhandledError, result));
+				processedChanges = dispatcher.processChanges(changes, parentResult);
+			} else {
+				// the same rules as in LiveSyncChangeDispatcher: after a failure the token is not advanced any more
+				// and later changes of the failed object are left for the next run
+				Set<List<String>> failedObjects = new HashSet<>();
+				for (Change change : changes) {
+					List<String> orderingKey = LiveSyncChangeDispatcher.getOrderingKey(change);
+					if (!change.isTokenOnly() && failedObjects.contains(orderingKey)) {
+						LOGGER.trace("Skipping change {} because an earlier change of the same object failed", change);
+						continue;
+					}
+					ChangeOutcome outcome = processLiveSyncChange(ctx, change, retryUnhandledError, parentResult);
+					if (outcome == ChangeOutcome.FAILED) {
+						failedObjects.add(orderingKey);
+					} else if (failedObjects.isEmpty()
+							&& (outcome == ChangeOutcome.PROCESSED || outcome == ChangeOutcome.TOKEN_ONLY)) {
+						// // get updated token from change,
+						// // create property modification from new token
+						// // and replace old token with the new one
+						task.setExtensionProperty(change.getToken());
+					}
+					if (outcome == ChangeOutcome.PROCESSED) {
+						processedChanges++;
+						task.setProgress(task.getProgress() + 1); // because
+																	// processedChanges
+																	// are reflected
+																	// into task
+																	// only at task
+																	// run finish
 					}
-				} else {
-					shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
-				}
-
-				processChange(shadowCtx, change, oldShadow, parentResult);
-
-				// this is the case,when we want to skip processing of change,
-				// because the shadow was not created or found to the resource
-				// object
-				// it may be caused with the fact, that the object which was
-				// created in the resource was deleted before the sync run
-				// such a change should be skipped to process consistent changes
-				if (change.getOldShadow() == null) {
-					PrismProperty<?> newToken = change.getToken();
-					task.setExtensionProperty(newToken);
-					processedChanges++;
-					task.setProgress(task.getProgress() + 1); // because
-																// processedChanges
-																// are reflected
-																// into task
-																// only at task
-																// run finish
-					LOGGER.debug(
-							"Skipping processing change. Can't find appropriate shadow (e.g. the object was deleted on the resource meantime).");
-					continue;
-				}
-				boolean isSuccess = processSynchronization(shadowCtx, change, parentResult);
-                                
-                                boolean retryUnhandledError = true;
-                                if (task.getExtension() != null) {
-                                      PrismProperty tokenRetryUnhandledErrProperty = task.getExtensionProperty(SchemaConstants.SYNC_TOKEN_RETRY_UNHANDLED);
-                                      
-                                      if (tokenRetryUnhandledErrProperty != null) {
-                                          retryUnhandledError = (boolean) tokenRetryUnhandledErrProperty.getRealValue(); 
-                                      }                                                                     
-                                }     
-                                
-				if (!retryUnhandledError || isSuccess) {                                    
-					// // get updated token from change,
-					// // create property modification from new token
-					// // and replace old token with the new one
-					PrismProperty<?> newToken = change.getToken();
-					task.setExtensionProperty(newToken);
-					processedChanges++;
-					task.setProgress(task.getProgress() + 1); // because
-																// processedChanges
-																// are reflected
-																// into task
-																// only at task
-																// run finish
 				}
 			}
 
@@ -1875,6 +2032,86 @@ public abstract class ShadowCache {
 		}
 	}
 
+	/**
+	 * Processes a single live sync change. Called either from the live sync task thread or from a worker thread;
+	 * in the latter case the context is bound to the worker task.
+	 */
+	private ChangeOutcome processLiveSyncChange(ProvisioningContext ctx, Change change, boolean retryUnhandledError,
+			OperationResult parentResult) throws ObjectNotFoundException, CommunicationException,
+					GenericFrameworkException, SchemaException, ConfigurationException,
+					SecurityViolationException, ObjectAlreadyExistsException, ExpressionEvaluationException {
+
+		if (change.isTokenOnly()) {
+			LOGGER.trace("Found token-only change: {}", change);
+			return ChangeOutcome.TOKEN_ONLY;
+		}
+
+		ObjectClassComplexTypeDefinition changeObjectClassDefinition = change
+				.getObjectClassDefinition();
+
+		ProvisioningContext shadowCtx;
+		PrismObject<ShadowType> oldShadow = null;
+		if (changeObjectClassDefinition == null) {
+			if (change.getObjectDelta() != null && change.getObjectDelta().isDelete()) {
+				oldShadow = change.getOldShadow();
+				if (oldShadow == null) {
+					oldShadow = shadowManager.findOrAddShadowFromChangeGlobalContext(ctx, change,
+							parentResult);
+				}
+				if (oldShadow == null) {
+					LOGGER.debug(
+							"No old shadow for delete synchronization event {}, we probably did not know about that object anyway, so well be ignoring this event",
+							change);
+					return ChangeOutcome.IGNORED;
+				}
+				shadowCtx = ctx.spawn(oldShadow);
+			} else {
+				throw new SchemaException("No object class definition in change " + change);
+			}
+		} else {
+			shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
+		}
+
+		processChange(shadowCtx, change, oldShadow, parentResult);
+
+		// this is the case,when we want to skip processing of change,
+		// because the shadow was not created or found to the resource
+		// object
+		// it may be caused with the fact, that the object which was
+		// created in the resource was deleted before the sync run
+		// such a change should be skipped to process consistent changes
+		if (change.getOldShadow() == null) {
+			LOGGER.debug(
+					"Skipping processing change. Can't find appropriate shadow (e.g. the object was deleted on the resource meantime).");
+			return ChangeOutcome.PROCESSED;
+		}
+		boolean isSuccess = processSynchronization(shadowCtx, change, parentResult);
+		return !retryUnhandledError || isSuccess ? ChangeOutcome.PROCESSED : ChangeOutcome.FAILED;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private boolean isRetryUnhandledError(Task task) {
+		if (task.getExtension() != null) {
+			PrismProperty tokenRetryUnhandledErrProperty = task.getExtensionProperty(SchemaConstants.SYNC_TOKEN_RETRY_UNHANDLED);
+			if (tokenRetryUnhandledErrProperty != null) {
+				return (boolean) tokenRetryUnhandledErrProperty.getRealValue();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Live sync changes are processed in worker threads if workerThreads task extension property is set (to a positive value).
+	 */
+	private Integer getWorkerThreadsCount(Task task) {
+		PrismProperty<Integer> workerThreadsPrismProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_WORKER_THREADS);
+		if (workerThreadsPrismProperty != null && workerThreadsPrismProperty.getRealValue() != null) {
+			return workerThreadsPrismProperty.getRealValue();
+		} else {
+			return null;
+		}
+	}
+
 	@SuppressWarnings("rawtypes")
 	boolean processSynchronization(ProvisioningContext ctx, Change change, OperationResult parentResult)
 			throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException,
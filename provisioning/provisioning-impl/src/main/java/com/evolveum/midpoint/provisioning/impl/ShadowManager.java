@@ -19,7 +19,10 @@ package com.evolveum.midpoint.provisioning.impl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Predicate;
 
 import javax.xml.namespace.QName;
@@ -211,6 +214,17 @@ public class ShadowManager {
 		 List<PrismObject<ShadowType>> results = repositoryService.searchObjects(ShadowType.class, query, null, parentResult);
 		 MiscSchemaUtil.reduceSearchResult(results);
 
+		return selectLookedUpShadow(resourceShadow, results, parentResult);
+	}
+
+	/**
+	 * Finishes the lookup of a shadow for given resource object, given the shadows that were found in the repository
+	 * (either by {@link #lookupShadowInRepository(ProvisioningContext, PrismObject, OperationResult)} or
+	 * by {@link #lookupShadowsInRepository(ProvisioningContext, List, OperationResult)}).
+	 */
+	public PrismObject<ShadowType> selectLookedUpShadow(PrismObject<ShadowType> resourceShadow,
+			List<PrismObject<ShadowType>> results, OperationResult parentResult) throws SchemaException, ObjectNotFoundException {
+
 		LOGGER.trace("lookupShadow found {} objects", results.size());
 
 		if (results.size() == 0) {
@@ -240,6 +254,101 @@ public class ShadowManager {
 		return shadow;
 	}
 
+	/**
+	 * Looks up shadows for a number of resource objects using a single repository query (primary identifier
+	 * IN values). Returns the shadows found for each of the objects; the objects are compared by identity.
+	 *
+	 * Only objects of the object class of the context can be looked up in this way. Objects that cannot be looked up
+	 * (e.g. objects of other object classes, objects whose identifier value was already seen, or objects having
+	 * a shadow with a failed operation) are not present
+	 * in the returned map, and have to be looked up using lookupShadowInRepository. The same holds for all
+	 * the objects if the shadows found cannot be reliably assigned to them.
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<PrismObject<ShadowType>, List<PrismObject<ShadowType>>> lookupShadowsInRepository(ProvisioningContext ctx,
+			List<PrismObject<ShadowType>> resourceShadows, OperationResult parentResult)
+					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException, ExpressionEvaluationException {
+
+		Map<PrismObject<ShadowType>, List<PrismObject<ShadowType>>> shadowsFound = new IdentityHashMap<>();
+		RefinedObjectClassDefinition objectClassDefinition = ctx.getObjectClassDefinition();
+		PrismPropertyDefinition<Object> identifierDefinition = null;
+		List<PrismPropertyValue<Object>> identifierValues = new ArrayList<>();
+		Map<Object, PrismObject<ShadowType>> resourceShadowsByValue = new HashMap<>();
+		for (PrismObject<ShadowType> resourceShadow : resourceShadows) {
+			if (!objectClassDefinition.getTypeName().equals(resourceShadow.asObjectable().getObjectClass())) {
+				continue;
+			}
+			ResourceAttributeContainer attributesContainer = ShadowUtil.getAttributesContainer(resourceShadow);
+			PrismProperty<Object> identifier = attributesContainer != null ?
+					(PrismProperty<Object>) attributesContainer.getPrimaryIdentifier() : null;
+			if (identifier == null || identifier.size() != 1 || identifier.getDefinition() == null) {
+				continue;		// lookupShadowInRepository will report the problem
+			}
+			if (identifierDefinition == null) {
+				identifierDefinition = identifier.getDefinition();
+			} else if (!identifierDefinition.getName().equals(identifier.getElementName())) {
+				continue;
+			}
+			PrismPropertyValue<Object> normalizedValue = getNormalizedValue(identifier, objectClassDefinition).get(0);
+			if (normalizedValue.getValue() == null || resourceShadowsByValue.containsKey(normalizedValue.getValue())) {
+				continue;
+			}
+			resourceShadowsByValue.put(normalizedValue.getValue(), resourceShadow);
+			identifierValues.add(normalizedValue);
+		}
+		if (identifierValues.size() < 2) {
+			return shadowsFound;
+		}
+
+		ObjectQuery query = QueryBuilder.queryFor(ShadowType.class, prismContext)
+				.itemWithDef(identifierDefinition, ShadowType.F_ATTRIBUTES, identifierDefinition.getName()).eq(identifierValues)
+				.and().item(ShadowType.F_OBJECT_CLASS).eq(objectClassDefinition.getTypeName())
+				.and().item(ShadowType.F_RESOURCE_REF).ref(ctx.getResourceOid())
+				.build();
+		if (LOGGER.isTraceEnabled()) {
+			LOGGER.trace("Searching for shadows of {} resource objects using filter:\n{}", identifierValues.size(),
+					query.debugDump());
+		}
+		List<PrismObject<ShadowType>> results = repositoryService.searchObjects(ShadowType.class, query, null, parentResult);
+		MiscSchemaUtil.reduceSearchResult(results);
+
+		Map<Object, List<PrismObject<ShadowType>>> shadowsByValue = new HashMap<>();
+		for (PrismObject<ShadowType> shadow : results) {
+			Object value = getIdentifierRealValue(shadow, identifierDefinition);
+			if (value == null || !resourceShadowsByValue.containsKey(value)) {
+				// e.g. the database compares strings case-insensitively; let us not guess
+				LOGGER.debug("Couldn't assign {} (identifier value {}) to any of the resource objects, falling back "
+						+ "to individual shadow lookups", shadow, value);
+				return shadowsFound;
+			}
+			shadowsByValue.computeIfAbsent(value, v -> new ArrayList<>()).add(shadow);
+		}
+		for (Map.Entry<Object, PrismObject<ShadowType>> entry : resourceShadowsByValue.entrySet()) {
+			List<PrismObject<ShadowType>> shadows = shadowsByValue.getOrDefault(entry.getKey(), new ArrayList<>());
+			// Shadows with failed operations can be deleted as conflicting while processing other objects
+			// (see lookupConflictingShadowBySecondaryIdentifiers), so they have to be looked up later.
+			if (shadows.stream().noneMatch(shadow -> shadow.asObjectable().getFailedOperationType() != null)) {
+				shadowsFound.put(entry.getValue(), shadows);
+			}
+		}
+		LOGGER.trace("lookupShadows found {} objects for {} resource objects", results.size(), shadowsFound.size());
+		return shadowsFound;
+	}
+
+	private Object getIdentifierRealValue(PrismObject<ShadowType> repoShadow, PrismPropertyDefinition<Object> identifierDefinition)
+			throws SchemaException {
+		PrismProperty<Object> identifier = repoShadow.findProperty(new ItemPath(ShadowType.F_ATTRIBUTES, identifierDefinition.getName()));
+		if (identifier == null || identifier.size() != 1) {
+			return null;
+		}
+		// repository shadows have no attribute definitions, so the value may be still unparsed
+		PrismProperty<Object> identifierClone = identifier.clone();
+		if (identifierClone.getDefinition() == null) {
+			identifierClone.applyDefinition(identifierDefinition);
+		}
+		return identifierClone.getRealValue();
+	}
+
 	public PrismObject<ShadowType> lookupShadowInRepository(ProvisioningContext ctx, ResourceAttributeContainer identifierContainer,
 			OperationResult parentResult) 
 					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException, ExpressionEvaluationException {
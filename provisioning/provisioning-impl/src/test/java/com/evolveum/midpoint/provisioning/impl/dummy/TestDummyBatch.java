@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl.dummy;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.provisioning.impl.ConnectorOperationBatcher;
+import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.util.ParallelTestThread;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Tests batching of concurrent provisioning operations (ConnectorOperationBatcher) on a dummy resource
+ * that has the batch capability configured. The dummy resource simulates a round-trip latency that
+ * is applied once per batch.
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = "classpath:ctx-provisioning-test-main.xml")
+@DirtiesContext
+@Listeners({ com.evolveum.midpoint.tools.testng.AlphabeticalMethodInterceptor.class })
+public class TestDummyBatch extends AbstractBasicDummyTest {
+
+	private static final Trace LOGGER = TraceManager.getTrace(TestDummyBatch.class);
+
+	public static final File TEST_DIR = new File(TEST_DIR_DUMMY, "dummy-batch");
+	public static final File RESOURCE_DUMMY_FILE = new File(TEST_DIR, "resource-dummy.xml");
+
+	private static final long WAIT_TIMEOUT = 60000L;
+	private static final int THREADS = 5;
+
+	private static final String ACCOUNT_BATCH_PREFIX = "batch-";
+	private static final String ACCOUNT_CONFLICT_PREFIX = "batch-conflict-";
+	private static final String ACCOUNT_UNBATCHED_PREFIX = "unbatched-";
+	private static final String OPERATION_ADD = ConnectorInstance.class.getName() + ".addObject";
+	private static final String OPERATION_DELETE = ConnectorInstance.class.getName() + ".deleteObject";
+
+	@Autowired
+	private ConnectorOperationBatcher operationBatcher;
+
+	private final String[] accountOids = new String[THREADS];
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+		operationBatcher.setEnabled(true);
+	}
+
+	@Override
+	protected File getResourceDummyFilename() {
+		return RESOURCE_DUMMY_FILE;
+	}
+
+	// test000-test100 in the superclasses
+
+	@Test
+	public void test200ParallelCreate() throws Exception {
+		final String TEST_NAME = "test200ParallelCreate";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		OperationResult[] results = new OperationResult[THREADS];
+		int batchCountBefore = dummyResource.getBatchCount();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+
+		ParallelTestThread[] threads = multithread(TEST_NAME,
+				(i) -> {
+					Task localTask = createTask(TEST_NAME + ".local");
+					results[i] = localTask.getResult();
+					PrismObject<ShadowType> account = createShadowNameOnly(resource, ACCOUNT_BATCH_PREFIX + i);
+					accountOids[i] = provisioningService.addObject(account, null, null, localTask, results[i]);
+				}, THREADS, 10);
+
+		// THEN
+		displayThen(TEST_NAME);
+		waitForThreads(threads, WAIT_TIMEOUT);
+
+		for (int i = 0; i < THREADS; i++) {
+			results[i].computeStatus();
+			display("Result of thread " + i, results[i]);
+			TestUtil.assertSuccess(results[i]);
+			assertEquals("Wrong number of connector operations in the result of thread " + i, 1,
+					countSubresults(results[i], OPERATION_ADD));
+			assertNotNull("No account " + i + " on the resource", dummyResource.getAccountByUsername(ACCOUNT_BATCH_PREFIX + i));
+			assertNotNull("No OID for account " + i, accountOids[i]);
+		}
+		assertBatched(batchCountBefore);
+
+		assertSteadyResource();
+	}
+
+	/**
+	 * One of the batched operations fails. The failure has to be reported only to the thread that
+	 * requested the operation.
+	 */
+	@Test
+	public void test210ParallelCreateConflict() throws Exception {
+		final String TEST_NAME = "test210ParallelCreateConflict";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		dummyResourceCtl.addAccount(ACCOUNT_CONFLICT_PREFIX + 0, "Already there");
+		OperationResult[] results = new OperationResult[THREADS];
+		Throwable[] exceptions = new Throwable[THREADS];
+		int batchCountBefore = dummyResource.getBatchCount();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+
+		ParallelTestThread[] threads = multithread(TEST_NAME,
+				(i) -> {
+					Task localTask = createTask(TEST_NAME + ".local");
+					results[i] = localTask.getResult();
+					PrismObject<ShadowType> account = createShadowNameOnly(resource, ACCOUNT_CONFLICT_PREFIX + i);
+					try {
+						provisioningService.addObject(account, null, null, localTask, results[i]);
+					} catch (ObjectAlreadyExistsException e) {
+						LOGGER.info("Exception (expected for thread 0): {}: {}", e.getClass().getSimpleName(), e.getMessage());
+						exceptions[i] = e;
+					}
+				}, THREADS, 10);
+
+		// THEN
+		displayThen(TEST_NAME);
+		waitForThreads(threads, WAIT_TIMEOUT);
+
+		assertNotNull("No exception in thread 0", exceptions[0]);
+		results[0].computeStatus();
+		TestUtil.assertFailure(results[0]);
+		for (int i = 1; i < THREADS; i++) {
+			assertNull("Unexpected exception in thread " + i + ": " + exceptions[i], exceptions[i]);
+			results[i].computeStatus();
+			TestUtil.assertSuccess(results[i]);
+			assertNotNull("No account " + i + " on the resource", dummyResource.getAccountByUsername(ACCOUNT_CONFLICT_PREFIX + i));
+		}
+		assertBatched(batchCountBefore);
+	}
+
+	@Test
+	public void test220ParallelDelete() throws Exception {
+		final String TEST_NAME = "test220ParallelDelete";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		OperationResult[] results = new OperationResult[THREADS];
+		int batchCountBefore = dummyResource.getBatchCount();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+
+		ParallelTestThread[] threads = multithread(TEST_NAME,
+				(i) -> {
+					Task localTask = createTask(TEST_NAME + ".local");
+					results[i] = localTask.getResult();
+					provisioningService.deleteObject(ShadowType.class, accountOids[i], null, null, localTask, results[i]);
+				}, THREADS, 10);
+
+		// THEN
+		displayThen(TEST_NAME);
+		waitForThreads(threads, WAIT_TIMEOUT);
+
+		for (int i = 0; i < THREADS; i++) {
+			results[i].computeStatus();
+			display("Result of thread " + i, results[i]);
+			TestUtil.assertSuccess(results[i]);
+			assertEquals("Wrong number of connector operations in the result of thread " + i, 1,
+					countSubresults(results[i], OPERATION_DELETE));
+			assertNull("Account " + i + " was not deleted", dummyResource.getAccountByUsername(ACCOUNT_BATCH_PREFIX + i));
+			assertNoRepoObject(ShadowType.class, accountOids[i]);
+		}
+		assertBatched(batchCountBefore);
+
+		assertSteadyResource();
+	}
+
+	/**
+	 * The connector refuses the batch script. The operations have to be executed one by one, each of them
+	 * exactly once and recorded in the result of the requesting thread.
+	 */
+	@Test
+	public void test230ParallelCreateBatchNotSupported() throws Exception {
+		final String TEST_NAME = "test230ParallelCreateBatchNotSupported";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		dummyResource.setBatchSupported(false);
+		OperationResult[] results = new OperationResult[THREADS];
+		int batchCountBefore = dummyResource.getBatchCount();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+
+		ParallelTestThread[] threads = multithread(TEST_NAME,
+				(i) -> {
+					Task localTask = createTask(TEST_NAME + ".local");
+					results[i] = localTask.getResult();
+					PrismObject<ShadowType> account = createShadowNameOnly(resource, ACCOUNT_UNBATCHED_PREFIX + i);
+					provisioningService.addObject(account, null, null, localTask, results[i]);
+				}, THREADS, 10);
+
+		// THEN
+		displayThen(TEST_NAME);
+		waitForThreads(threads, WAIT_TIMEOUT);
+
+		for (int i = 0; i < THREADS; i++) {
+			results[i].computeStatus();
+			display("Result of thread " + i, results[i]);
+			TestUtil.assertSuccess(results[i]);
+			assertEquals("Wrong number of connector operations in the result of thread " + i, 1,
+					countSubresults(results[i], OPERATION_ADD));
+			assertNotNull("No account " + i + " on the resource", dummyResource.getAccountByUsername(ACCOUNT_UNBATCHED_PREFIX + i));
+		}
+		assertEquals("Batch executed", batchCountBefore, dummyResource.getBatchCount());
+
+		assertSteadyResource();
+	}
+
+	/**
+	 * Operations of the threads that came while the first operation was executing should have been
+	 * executed together in later batch(es).
+	 */
+	private void assertBatched(int batchCountBefore) {
+		int batches = dummyResource.getBatchCount() - batchCountBefore;
+		display("Batches executed", batches);
+		assertTrue("No batch executed", batches > 0);
+		assertTrue("Operations were not batched: " + batches + " batches for " + THREADS + " operations", batches < THREADS);
+	}
+
+	private int countSubresults(OperationResult result, String operation) {
+		int count = operation.equals(result.getOperation()) ? 1 : 0;
+		for (OperationResult subresult : result.getSubresults()) {
+			count += countSubresults(subresult, operation);
+		}
+		return count;
+	}
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl.dummy;
+
+import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.DummyAccount;
+import com.evolveum.icf.dummy.resource.DummySyncStyle;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.provisioning.api.ResourceObjectShadowChangeDescription;
+import com.evolveum.midpoint.provisioning.impl.ProvisioningTestUtil;
+import com.evolveum.midpoint.schema.ResourceShadowDiscriminator;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.DummyResourceContoller;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+
+/**
+ * Live synchronization with the changes processed in worker threads (workerThreads task extension property).
+ *
+ * Checks that the changes of one account are processed by one worker, one after another, and that the token
+ * is not advanced past a failed change, neither in the parallel nor in the sequential mode.
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = "classpath:ctx-provisioning-test-main.xml")
+@DirtiesContext
+@Listeners({ com.evolveum.midpoint.tools.testng.AlphabeticalMethodInterceptor.class })
+public class TestDummyLiveSyncParallelism extends AbstractBasicDummyTest {
+
+	private static final int WORKER_THREADS = 4;
+	private static final int ACCOUNTS = 10;
+	private static final int MODIFICATIONS_PER_ACCOUNT = 3;
+	private static final int FAILING_ACCOUNT_INDEX = 5;
+	private static final String ACCOUNT_NAME_PREFIX = "sailor";
+
+	private Task parallelSyncTask;
+	private Task sequentialSyncTask;
+
+	// account name -> names of the threads that processed its changes (in the order of processing)
+	private final Map<String, List<String>> notifications = new ConcurrentHashMap<>();
+	// account name -> thread that is just processing a change of the account
+	private final Map<String, Thread> processing = new ConcurrentHashMap<>();
+	private final List<String> overlaps = Collections.synchronizedList(new ArrayList<>());
+
+	// test000-test100 in the superclasses
+
+	@Test
+	public void test200LiveSyncInit() throws Exception {
+		final String TEST_NAME = "test200LiveSyncInit";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		parallelSyncTask = createSyncTask(TEST_NAME + ".parallel", WORKER_THREADS);
+		sequentialSyncTask = createSyncTask(TEST_NAME + ".sequential", null);
+		dummyResource.setSyncStyle(DummySyncStyle.SMART);
+		resetSyncServiceMock();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		provisioningService.synchronize(getAccountCoords(), parallelSyncTask, result);
+		provisioningService.synchronize(getAccountCoords(), sequentialSyncTask, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		syncServiceMock.assertNoNotifyChange();
+		assertToken(parallelSyncTask, dummyResource.getLatestSyncToken());
+		assertToken(sequentialSyncTask, dummyResource.getLatestSyncToken());
+	}
+
+	/**
+	 * Accounts are added and modified in an interleaved way, so each worker gets changes of more accounts.
+	 */
+	@Test
+	public void test210LiveSyncParallel() throws Exception {
+		final String TEST_NAME = "test210LiveSyncParallel";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		resetSyncServiceMock();
+		for (int i = 0; i < ACCOUNTS; i++) {
+			DummyAccount account = new DummyAccount(getAccountName(i));
+			account.setEnabled(true);
+			account.addAttributeValues(DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_FULLNAME_NAME, "Sailor " + i);
+			dummyResource.addAccount(account);
+		}
+		for (int m = 0; m < MODIFICATIONS_PER_ACCOUNT; m++) {
+			modifyAccounts("modification " + m);
+		}
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		provisioningService.synchronize(getAccountCoords(), parallelSyncTask, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		assertEquals("Wrong number of notifications", ACCOUNTS * (1 + MODIFICATIONS_PER_ACCOUNT), syncServiceMock.getCallCount());
+		for (int i = 0; i < ACCOUNTS; i++) {
+			assertNotifications(getAccountName(i), 1 + MODIFICATIONS_PER_ACCOUNT);
+		}
+		assertNoOverlaps();
+		assertToken(parallelSyncTask, dummyResource.getLatestSyncToken());
+		assertEquals("Wrong progress", ACCOUNTS * (1 + MODIFICATIONS_PER_ACCOUNT), parallelSyncTask.getProgress());
+	}
+
+	/**
+	 * A change of one account fails. Its later change must not be processed and the token must stay just before
+	 * the failed change, even if all the other changes (before and after it) are processed.
+	 */
+	@Test
+	public void test220LiveSyncParallelFailure() throws Exception {
+		final String TEST_NAME = "test220LiveSyncParallelFailure";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		// the sequential task would see the changes from test210 as well
+		copyToken(parallelSyncTask, sequentialSyncTask);
+
+		int tokenBeforeFailure = makeChangesWithFailure();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		provisioningService.synchronize(getAccountCoords(), parallelSyncTask, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertChangesWithFailure(result, parallelSyncTask, tokenBeforeFailure);
+	}
+
+	@Test
+	public void test230LiveSyncParallelRetry() throws Exception {
+		final String TEST_NAME = "test230LiveSyncParallelRetry";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		resetSyncServiceMock();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		provisioningService.synchronize(getAccountCoords(), parallelSyncTask, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertRetriedChanges(result, parallelSyncTask);
+	}
+
+	/**
+	 * The same changes as in test220 (and the same failure), processed without worker threads.
+	 */
+	@Test
+	public void test240LiveSyncSequentialFailure() throws Exception {
+		final String TEST_NAME = "test240LiveSyncSequentialFailure";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		copyToken(parallelSyncTask, sequentialSyncTask);
+
+		int tokenBeforeFailure = makeChangesWithFailure();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		provisioningService.synchronize(getAccountCoords(), sequentialSyncTask, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertChangesWithFailure(result, sequentialSyncTask, tokenBeforeFailure);
+	}
+
+	@Test
+	public void test250LiveSyncSequentialRetry() throws Exception {
+		final String TEST_NAME = "test250LiveSyncSequentialRetry";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		resetSyncServiceMock();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		provisioningService.synchronize(getAccountCoords(), sequentialSyncTask, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertRetriedChanges(result, sequentialSyncTask);
+	}
+
+	/**
+	 * Modifies all the accounts, then the failing one and the first one once more.
+	 *
+	 * @return token of the change just before the failing one
+	 */
+	private int makeChangesWithFailure() throws Exception {
+		resetSyncServiceMock();
+		syncServiceMock.setFailingObjectNames(Collections.singleton(getAccountName(FAILING_ACCOUNT_INDEX)));
+
+		int tokenBeforeFailure = dummyResource.getLatestSyncToken() + FAILING_ACCOUNT_INDEX;
+		modifyAccounts("failure");
+		modifyAccount(FAILING_ACCOUNT_INDEX, "after failure");
+		modifyAccount(0, "after failure");
+		return tokenBeforeFailure;
+	}
+
+	private void assertChangesWithFailure(OperationResult result, Task syncTask, int tokenBeforeFailure) {
+		result.computeStatus();
+		display("Synchronization result", result);
+		assertFalse("Synchronization result is success, even if a change failed", result.isSuccess());
+
+		// the later change of the failing account is not processed
+		assertNotifications(getAccountName(FAILING_ACCOUNT_INDEX), 1);
+		assertNotifications(getAccountName(0), 2);
+		for (int i = 1; i < ACCOUNTS; i++) {
+			if (i != FAILING_ACCOUNT_INDEX) {
+				assertNotifications(getAccountName(i), 1);
+			}
+		}
+		assertNoOverlaps();
+		assertToken(syncTask, tokenBeforeFailure);
+	}
+
+	/**
+	 * Everything from the failed change on is fetched again; both changes of the (no longer) failing account are processed.
+	 */
+	private void assertRetriedChanges(OperationResult result, Task syncTask) {
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+
+		assertNotifications(getAccountName(FAILING_ACCOUNT_INDEX), 2);
+		assertNotifications(getAccountName(0), 1);
+		for (int i = FAILING_ACCOUNT_INDEX + 1; i < ACCOUNTS; i++) {
+			assertNotifications(getAccountName(i), 1);
+		}
+		for (int i = 1; i < FAILING_ACCOUNT_INDEX; i++) {
+			assertNotifications(getAccountName(i), 0);
+		}
+		assertNoOverlaps();
+		assertToken(syncTask, dummyResource.getLatestSyncToken());
+	}
+
+	private Task createSyncTask(String name, Integer workerThreads) throws Exception {
+		Task syncTask = taskManager.createTaskInstance(TestDummyLiveSyncParallelism.class.getName() + "." + name);
+		// worker subtasks need an owner to set up their security context
+		PrismObject<UserType> owner = prismContext.createObject(UserType.class);
+		owner.asObjectable().setName(new PolyStringType("administrator"));
+		syncTask.setOwner(owner);
+		if (workerThreads != null) {
+			syncTask.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_WORKER_THREADS, workerThreads);
+		}
+		return syncTask;
+	}
+
+	private void copyToken(Task from, Task to) throws Exception {
+		PrismProperty<Integer> token = from.getExtensionProperty(SchemaConstants.SYNC_TOKEN);
+		to.setExtensionProperty(token.clone());
+	}
+
+	private ResourceShadowDiscriminator getAccountCoords() throws Exception {
+		return new ResourceShadowDiscriminator(RESOURCE_DUMMY_OID, ProvisioningTestUtil.getDefaultAccountObjectClass(resourceType));
+	}
+
+	private String getAccountName(int i) {
+		return ACCOUNT_NAME_PREFIX + i;
+	}
+
+	private void modifyAccounts(String title) throws Exception {
+		for (int i = 0; i < ACCOUNTS; i++) {
+			modifyAccount(i, title);
+		}
+	}
+
+	private void modifyAccount(int i, String title) throws Exception {
+		dummyResource.getAccountByUsername(getAccountName(i))
+				.replaceAttributeValue(DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_FULLNAME_NAME, "Sailor " + i + " (" + title + ")");
+	}
+
+	private void resetSyncServiceMock() {
+		syncServiceMock.reset();
+		notifications.clear();
+		overlaps.clear();
+		syncServiceMock.setChangeChecker(change -> {
+			if (!(change instanceof ResourceObjectShadowChangeDescription)) {
+				return;
+			}
+			PrismObject<?> shadow = ((ResourceObjectShadowChangeDescription) change).getCurrentShadow();
+			if (shadow == null || shadow.getName() == null) {
+				return;
+			}
+			String name = shadow.getName().getOrig();
+			Thread previous = processing.put(name, Thread.currentThread());
+			if (previous != null) {
+				overlaps.add(name + ": " + previous.getName() + " and " + Thread.currentThread().getName());
+			}
+			notifications.computeIfAbsent(name, k -> Collections.synchronizedList(new ArrayList<>()))
+					.add(Thread.currentThread().getName());
+			try {
+				Thread.sleep(5);		// to give a chance to a concurrent change of the same account (that should not come)
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				processing.remove(name);
+			}
+		});
+	}
+
+	/**
+	 * All the changes of an account are expected to be processed by the same thread.
+	 */
+	private void assertNotifications(String name, int expected) {
+		List<String> threads = notifications.getOrDefault(name, Collections.emptyList());
+		assertEquals("Wrong number of notifications for " + name + ": " + threads, expected, threads.size());
+		assertEquals("Changes of " + name + " were processed by more threads: " + threads,
+				Math.min(expected, 1), new HashSet<>(threads).size());
+	}
+
+	private void assertNoOverlaps() {
+		assertEquals("Changes of the same account were processed concurrently", Collections.emptyList(), overlaps);
+		assertTrue("Unfinished processing of a change: " + processing, processing.isEmpty());
+	}
+
+	private void assertToken(Task syncTask, int expected) {
+		PrismProperty<Integer> token = syncTask.getExtensionProperty(SchemaConstants.SYNC_TOKEN);
+		assertEquals("Wrong token in " + syncTask, (Integer) expected, token.getRealValue());
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl.dummy;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.DummyAccount;
+import com.evolveum.midpoint.common.refinery.RefinedResourceSchemaImpl;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.AndFilter;
+import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.processor.ResourceAttributeDefinition;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Tests the lookup of repository shadows for the objects returned by a resource search. The shadows are looked up
+ * for a window of objects at once, so the search has to return correct shadows also when the shadows are changed
+ * while the window is being processed.
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = "classpath:ctx-provisioning-test-main.xml")
+@DirtiesContext
+@Listeners({ com.evolveum.midpoint.tools.testng.AlphabeticalMethodInterceptor.class })
+public class TestDummyShadowLookup extends AbstractBasicDummyTest {
+
+	private static final int ACCOUNTS = 120;		// more than two lookup windows
+	private static final String ACCOUNT_PREFIX = "lookup-";
+
+	private Map<String, String> shadowOidsByName;
+
+	// test000-test100 in the superclasses
+
+	@Test
+	public void test200SearchManyAccounts() throws Exception {
+		final String TEST_NAME = "test200SearchManyAccounts";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		for (int i = 0; i < ACCOUNTS; i++) {
+			dummyResourceCtl.addAccount(ACCOUNT_PREFIX + i, "Lookup " + i);
+		}
+		int shadowsBefore = countAccountShadows(result);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		List<PrismObject<ShadowType>> shadows = searchAccounts(null, task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		TestUtil.assertSuccess(result);
+		shadowOidsByName = assertShadows(shadows, result);
+		assertEquals("Wrong number of shadows created", ACCOUNTS, countAccountShadows(result) - shadowsBefore);
+		for (int i = 0; i < ACCOUNTS; i++) {
+			assertNotNull("No shadow for account " + i, shadowOidsByName.get(ACCOUNT_PREFIX + i));
+		}
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		List<PrismObject<ShadowType>> shadowsAgain = searchAccounts(null, task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		TestUtil.assertSuccess(result);
+		assertEquals("Existing shadows were not found", shadowOidsByName, assertShadows(shadowsAgain, result));
+		assertEquals("Wrong number of shadows", ACCOUNTS, countAccountShadows(result) - shadowsBefore);
+	}
+
+	/**
+	 * The shadow of the second object is deleted when the first object is processed, i.e. after the shadows
+	 * of the whole window were looked up. A new shadow has to be created for the second object.
+	 */
+	@Test
+	public void test210ShadowDeletedDuringSearch() throws Exception {
+		final String TEST_NAME = "test210ShadowDeletedDuringSearch";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		String secondName = getSecondAccountName();
+		String deletedOid = shadowOidsByName.get(secondName);
+		assertNotNull("No shadow for " + secondName, deletedOid);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		List<PrismObject<ShadowType>> shadows = searchAccounts(
+				(shadow, objResult) -> {
+					try {
+						repositoryService.deleteObject(ShadowType.class, deletedOid, objResult);
+					} catch (Exception e) {
+						throw new SystemException(e.getMessage(), e);
+					}
+				}, task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		TestUtil.assertSuccess(result);
+		shadowOidsByName = assertShadows(shadows, result);
+		assertFalse("Deleted shadow was returned for " + secondName, deletedOid.equals(shadowOidsByName.get(secondName)));
+		assertEquals("Wrong number of shadows", dummyResource.listAccounts().size(), countAccountShadows(result));
+	}
+
+	/**
+	 * No shadows exist before the search. The shadow of the second object is created (by another search) when
+	 * the first object is processed. The search must not create a duplicate shadow for the second object.
+	 */
+	@Test
+	public void test220ShadowCreatedDuringSearch() throws Exception {
+		final String TEST_NAME = "test220ShadowCreatedDuringSearch";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		for (PrismObject<ShadowType> shadow : repositoryService.searchObjects(ShadowType.class,
+				ObjectQueryUtil.createResourceQuery(RESOURCE_DUMMY_OID, prismContext), null, result)) {
+			repositoryService.deleteObject(ShadowType.class, shadow.getOid(), result);
+		}
+		String secondName = getSecondAccountName();
+		List<String> createdOids = new ArrayList<>();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		List<PrismObject<ShadowType>> shadows = searchAccounts(
+				(shadow, objResult) -> {
+					try {
+						for (PrismObject<ShadowType> created : provisioningService.searchObjects(ShadowType.class,
+								createAccountNameQuery(secondName), null, task, objResult)) {
+							createdOids.add(created.getOid());
+						}
+					} catch (Exception e) {
+						throw new SystemException(e.getMessage(), e);
+					}
+				}, task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		TestUtil.assertSuccess(result);
+		assertEquals("Wrong number of shadows created by the nested search", 1, createdOids.size());
+		Map<String, String> oidsByName = assertShadows(shadows, result);
+		assertEquals("Wrong shadow for " + secondName, createdOids.get(0), oidsByName.get(secondName));
+		assertEquals("Wrong number of shadows", dummyResource.listAccounts().size(), countAccountShadows(result));
+	}
+
+	@FunctionalInterface
+	private interface FirstObjectAction {
+		void execute(PrismObject<ShadowType> shadow, OperationResult objResult);
+	}
+
+	private List<PrismObject<ShadowType>> searchAccounts(FirstObjectAction firstObjectAction, Task task,
+			OperationResult result) throws Exception {
+		List<PrismObject<ShadowType>> shadows = new ArrayList<>();
+		ResultHandler<ShadowType> handler = (shadow, objResult) -> {
+			if (shadows.isEmpty() && firstObjectAction != null) {
+				firstObjectAction.execute(shadow, objResult);
+			}
+			shadows.add(shadow);
+			return true;
+		};
+		ObjectQuery query = ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID,
+				dummyResourceCtl.getAccountObjectClassQName(), prismContext);
+		provisioningService.searchObjectsIterative(ShadowType.class, query, null, handler, task, result);
+		result.computeStatus();
+		display("Found " + shadows.size() + " shadows");
+		return shadows;
+	}
+
+	private ObjectQuery createAccountNameQuery(String name) throws Exception {
+		ResourceAttributeDefinition<String> nameDefinition = RefinedResourceSchemaImpl
+				.getResourceSchema(resource, prismContext)
+				.findObjectClassDefinition(dummyResourceCtl.getAccountObjectClassQName())
+				.findAttributeDefinition(SchemaConstants.ICFS_NAME);
+		ObjectFilter nameFilter = QueryBuilder.queryFor(ShadowType.class, prismContext)
+				.itemWithDef(nameDefinition, ShadowType.F_ATTRIBUTES, nameDefinition.getName()).eq(name)
+				.buildFilter();
+		ObjectQuery query = ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID,
+				dummyResourceCtl.getAccountObjectClassQName(), prismContext);
+		((AndFilter) query.getFilter()).getConditions().add(nameFilter);
+		return query;
+	}
+
+	/**
+	 * The dummy resource returns the accounts in the order in which they were created.
+	 */
+	private String getSecondAccountName() throws Exception {
+		List<DummyAccount> accounts = new ArrayList<>(dummyResource.listAccounts());
+		return accounts.get(1).getName();
+	}
+
+	/**
+	 * Checks that every account has exactly one shadow, and that the shadow exists in the repository.
+	 */
+	private Map<String, String> assertShadows(List<PrismObject<ShadowType>> shadows, OperationResult result)
+			throws Exception {
+		Map<String, String> oidsByName = new HashMap<>();
+		for (PrismObject<ShadowType> shadow : shadows) {
+			String name = shadow.asObjectable().getName().getOrig();
+			assertNotNull("No OID in the shadow of " + name, shadow.getOid());
+			repositoryService.getObject(ShadowType.class, shadow.getOid(), null, result);
+			assertFalse("Account " + name + " found twice", oidsByName.containsKey(name));
+			oidsByName.put(name, shadow.getOid());
+		}
+		assertEquals("Wrong number of accounts found", dummyResource.listAccounts().size(), oidsByName.size());
+		return oidsByName;
+	}
+
+	private int countAccountShadows(OperationResult result) throws Exception {
+		return repositoryService.countObjects(ShadowType.class,
+				ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID,
+						dummyResourceCtl.getAccountObjectClassQName(), prismContext), null, result);
+	}
+}
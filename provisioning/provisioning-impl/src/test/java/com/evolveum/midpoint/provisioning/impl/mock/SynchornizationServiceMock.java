@@ -21,6 +21,10 @@ import static org.testng.AssertJUnit.assertNotNull;
 import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
 
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
@@ -62,6 +66,7 @@ public class SynchornizationServiceMock implements ResourceObjectChangeListener,
 	private ResourceOperationDescription lastOperationDescription = null;
 	private ObjectChecker changeChecker;
 	private boolean supportActivation = true;
+	private final Set<String> failingObjectNames = new HashSet<>();
 
 	@Autowired(required=true)
 	ChangeNotificationDispatcher notificationManager;
@@ -97,6 +102,15 @@ public class SynchornizationServiceMock implements ResourceObjectChangeListener,
 		this.supportActivation = supportActivation;
 	}
 
+	/**
+	 * Changes of objects with these names are reported as failed (by a fatal error in the result),
+	 * as if the synchronization of the change could not be completed.
+	 */
+	public synchronized void setFailingObjectNames(Collection<String> names) {
+		failingObjectNames.clear();
+		failingObjectNames.addAll(names);
+	}
+
 	@Override
 	public void notifyChange(ResourceObjectShadowChangeDescription change, Task task,
 			OperationResult parentResult) {
@@ -167,9 +181,17 @@ public class SynchornizationServiceMock implements ResourceObjectChangeListener,
 			changeChecker.check(change);
 		}
 
-		// remember ...
-		callCountNotifyChange++;
-		lastChange = change;
+		// notifications can come from live sync worker threads
+		synchronized (this) {
+			if (change.getCurrentShadow() != null && change.getCurrentShadow().getName() != null
+					&& failingObjectNames.contains(change.getCurrentShadow().getName().getOrig())) {
+				parentResult.createSubresult(SynchornizationServiceMock.class.getName() + ".notifyChange")
+						.recordFatalError("Simulated failure of change " + change);
+			}
+			// remember ...
+			callCountNotifyChange++;
+			lastChange = change;
+		}
 	}
 	
 	 private static boolean isDryRun(Task task){
@@ -306,13 +328,14 @@ public class SynchornizationServiceMock implements ResourceObjectChangeListener,
 		return (callCountNotifyChange > 0);
 	}
 
-	public void reset() {
+	public synchronized void reset() {
 		callCountNotifyChange = 0;
 		callCountNotifyOperation = 0;
 		lastChange = null;
 		wasSuccess = false;
 		wasFailure = false;
 		wasInProgress = false;
+		failingObjectNames.clear();
 	}
 
 	public ResourceObjectShadowChangeDescription getLastChange() {
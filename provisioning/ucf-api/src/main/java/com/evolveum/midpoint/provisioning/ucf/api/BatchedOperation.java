@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.provisioning.ucf.api;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.schema.processor.ObjectClassComplexTypeDefinition;
+import com.evolveum.midpoint.schema.processor.ResourceAttribute;
+import com.evolveum.midpoint.schema.result.AsynchronousOperationResult;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.StateReporter;
+import com.evolveum.midpoint.util.exception.CommunicationException;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SecurityViolationException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+import java.util.Collection;
+
+/**
+ * Add, modify or delete operation that is a part of a batch (see
+ * {@link ConnectorInstance#executeBatch(java.util.List, StateReporter, OperationResult)}).
+ *
+ * Parameters have the same meaning as in the respective ConnectorInstance methods. The outcome of the operation
+ * (return value or exception) is recorded in this object by the connector. If the operation has its own operation
+ * result and state reporter set (e.g. because it was requested by another thread than the one executing the batch),
+ * the connector records the operation there instead of the result and reporter of the whole batch.
+ *
+ * @author agent
+ */
+public class BatchedOperation {
+
+	public enum Type {
+		ADD, MODIFY, DELETE
+	}
+
+	private final Type type;
+	private final PrismObject<? extends ShadowType> object;
+	private final ObjectClassComplexTypeDefinition objectClass;
+	private final Collection<? extends ResourceAttribute<?>> identifiers;
+	private final Collection<Operation> operations;
+	private OperationResult result;
+	private StateReporter reporter;
+
+	private volatile AsynchronousOperationResult returnValue;
+	private volatile Throwable exception;
+	private volatile boolean done;
+
+	private BatchedOperation(Type type, PrismObject<? extends ShadowType> object, ObjectClassComplexTypeDefinition objectClass,
+			Collection<? extends ResourceAttribute<?>> identifiers, Collection<Operation> operations) {
+		this.type = type;
+		this.object = object;
+		this.objectClass = objectClass;
+		this.identifiers = identifiers;
+		this.operations = operations;
+	}
+
+	public static BatchedOperation add(PrismObject<? extends ShadowType> object, Collection<Operation> additionalOperations) {
+		return new BatchedOperation(Type.ADD, object, null, null, additionalOperations);
+	}
+
+	public static BatchedOperation modify(ObjectClassComplexTypeDefinition objectClass,
+			Collection<? extends ResourceAttribute<?>> identifiers, Collection<Operation> changes) {
+		return new BatchedOperation(Type.MODIFY, null, objectClass, identifiers, changes);
+	}
+
+	public static BatchedOperation delete(ObjectClassComplexTypeDefinition objectClass,
+			Collection<Operation> additionalOperations, Collection<? extends ResourceAttribute<?>> identifiers) {
+		return new BatchedOperation(Type.DELETE, null, objectClass, identifiers, additionalOperations);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Object to be added (ADD only).
+	 */
+	public PrismObject<? extends ShadowType> getObject() {
+		return object;
+	}
+
+	/**
+	 * Object class of the object to be modified or deleted (MODIFY and DELETE only).
+	 */
+	public ObjectClassComplexTypeDefinition getObjectClass() {
+		return objectClass;
+	}
+
+	/**
+	 * Identifiers of the object to be modified or deleted (MODIFY and DELETE only).
+	 */
+	public Collection<? extends ResourceAttribute<?>> getIdentifiers() {
+		return identifiers;
+	}
+
+	/**
+	 * Changes (MODIFY) or additional operations (ADD, DELETE).
+	 */
+	public Collection<Operation> getOperations() {
+		return operations;
+	}
+
+	public OperationResult getResult() {
+		return result;
+	}
+
+	public void setResult(OperationResult result) {
+		this.result = result;
+	}
+
+	/**
+	 * Result to record this operation in: its own one if set, the result of the whole batch otherwise.
+	 */
+	public OperationResult getResult(OperationResult batchResult) {
+		return result != null ? result : batchResult;
+	}
+
+	public StateReporter getReporter() {
+		return reporter;
+	}
+
+	public void setReporter(StateReporter reporter) {
+		this.reporter = reporter;
+	}
+
+	/**
+	 * Reporter to report this operation to: its own one if set, the reporter of the whole batch otherwise.
+	 */
+	public StateReporter getReporter(StateReporter batchReporter) {
+		return reporter != null ? reporter : batchReporter;
+	}
+
+	/**
+	 * AsynchronousOperationReturnValue for ADD and MODIFY, AsynchronousOperationResult for DELETE.
+	 */
+	public AsynchronousOperationResult getReturnValue() {
+		return returnValue;
+	}
+
+	public Throwable getException() {
+		return exception;
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	public void recordSuccess(AsynchronousOperationResult returnValue) {
+		this.returnValue = returnValue;
+		this.done = true;
+	}
+
+	public void recordFailure(Throwable exception) {
+		this.exception = exception;
+		this.done = true;
+	}
+
+	/**
+	 * Executes this operation using a regular (non-batch) connector call and records the outcome.
+	 */
+	public void executeSeparately(ConnectorInstance connector, StateReporter batchReporter, OperationResult batchResult) {
+		OperationResult parentResult = getResult(batchResult);
+		StateReporter reporter = getReporter(batchReporter);
+		try {
+			switch (type) {
+				case ADD:
+					recordSuccess(connector.addObject(object, operations, reporter, parentResult));
+					break;
+				case MODIFY:
+					recordSuccess(connector.modifyObject(objectClass, identifiers, operations, reporter, parentResult));
+					break;
+				case DELETE:
+					recordSuccess(connector.deleteObject(objectClass, operations, identifiers, reporter, parentResult));
+					break;
+				default:
+					throw new IllegalStateException("Unknown operation type: " + type);
+			}
+		} catch (Throwable t) {
+			recordFailure(t);
+		}
+	}
+
+	/**
+	 * Re-throws the exception recorded for this operation, if any. Exceptions that cannot be thrown by the respective
+	 * ConnectorInstance method are wrapped into SystemException.
+	 */
+	public void rethrowException() throws CommunicationException, GenericFrameworkException, SchemaException,
+			ObjectAlreadyExistsException, ConfigurationException, ObjectNotFoundException, SecurityViolationException {
+		if (exception == null) {
+			return;
+		} else if (exception instanceof CommunicationException) {
+			throw (CommunicationException) exception;
+		} else if (exception instanceof GenericFrameworkException) {
+			throw (GenericFrameworkException) exception;
+		} else if (exception instanceof SchemaException) {
+			throw (SchemaException) exception;
+		} else if (exception instanceof ObjectAlreadyExistsException && type != Type.DELETE) {
+			throw (ObjectAlreadyExistsException) exception;
+		} else if (exception instanceof ConfigurationException) {
+			throw (ConfigurationException) exception;
+		} else if (exception instanceof ObjectNotFoundException && type != Type.ADD) {
+			throw (ObjectNotFoundException) exception;
+		} else if (exception instanceof SecurityViolationException && type == Type.MODIFY) {
+			throw (SecurityViolationException) exception;
+		} else if (exception instanceof RuntimeException) {
+			throw (RuntimeException) exception;
+		} else if (exception instanceof Error) {
+			throw (Error) exception;
+		} else {
+			throw new SystemException(exception.getMessage(), exception);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "BatchedOperation(" + type + ": " + (object != null ? object : identifiers) + ")";
+	}
+}
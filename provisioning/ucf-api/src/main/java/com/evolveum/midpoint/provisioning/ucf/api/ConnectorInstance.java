@@ -270,6 +270,21 @@ public interface ConnectorInstance {
 							 OperationResult parentResult)
 					throws ObjectNotFoundException, CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException;
 
+	/**
+	 * Executes a batch of add, modify and delete operations. The outcome of each operation (return value or exception)
+	 * is recorded in the respective BatchedOperation, so a failure of one operation does not influence the others.
+	 * The operations may be executed in any order, so the caller should not put dependent operations into one batch.
+	 *
+	 * Connectors that are able to execute the batch natively (e.g. in a single request to the resource) should
+	 * override this method and report BatchCapabilityType among their native capabilities. The default implementation
+	 * executes the operations one by one.
+	 */
+	default void executeBatch(List<BatchedOperation> operations, StateReporter reporter, OperationResult parentResult) {
+		for (BatchedOperation operation : operations) {
+			operation.executeSeparately(this, reporter, parentResult);
+		}
+	}
+
 	Object executeScript(ExecuteProvisioningScriptOperation scriptOperation, StateReporter reporter, OperationResult parentResult) throws CommunicationException, GenericFrameworkException;
 
 	/**
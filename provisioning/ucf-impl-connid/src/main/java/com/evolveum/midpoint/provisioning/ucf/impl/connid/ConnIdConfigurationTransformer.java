@@ -215,6 +215,11 @@ public class ConnIdConfigurationTransformer {
 				} else if (ConnectorFactoryConnIdImpl.CONNECTOR_SCHEMA_CONNECTOR_POOL_CONFIGURATION_MAX_WAIT
 						.equals(subelementName)) {
 					connectorPoolConfiguration.setMaxWait(parseLong(prismProperty));
+				} else if (ConnectorFactoryConnIdImpl.CONNECTOR_SCHEMA_CONNECTOR_POOL_CONFIGURATION_MAX_CONCURRENT_OPERATIONS
+						.equals(subelementName)
+						|| ConnectorFactoryConnIdImpl.CONNECTOR_SCHEMA_CONNECTOR_POOL_CONFIGURATION_EAGER_WARM_UP
+						.equals(subelementName)) {
+					// not ICF settings, these are processed by ConnectorInstanceConnIdImpl
 				} else {
 					throw new SchemaException(
 							"Unexpected element "
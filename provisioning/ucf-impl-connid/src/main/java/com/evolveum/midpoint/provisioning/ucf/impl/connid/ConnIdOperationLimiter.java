@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.provisioning.ucf.impl.connid;
+
+import com.evolveum.midpoint.schema.statistics.ConnectorOperationalStatus;
+import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of operations that are executed concurrently on a ConnId connector facade,
+ * i.e. on a resource (see maxConcurrentOperations in the connector pool configuration).
+ *
+ * Operations over the limit wait in the order of arrival until some of the running operations finish,
+ * at most for maxWait milliseconds (non-positive value means waiting indefinitely).
+ *
+ * A search (or sync) does not hold its slot while its results handler is running: the handler may issue
+ * operations on the same resource, either directly or by passing the objects to other threads and waiting
+ * for them. The slot is released before the handler is called and acquired again when it returns.
+ * Operations invoked by a thread that is already executing an operation on the same facade outside
+ * of a handler are not counted again, as waiting for them could deadlock.
+ *
+ * Waiting is recorded and reported in ConnectorOperationalStatus.
+ *
+ * @author agent
+ */
+class ConnIdOperationLimiter {
+
+	private final int maxConcurrentOperations;
+	private final long maxWait;
+	private final Semaphore permits;
+
+	// number of operations (including nested ones) the current thread executes on the facade
+	private final ThreadLocal<Integer> depth = new ThreadLocal<>();
+
+	private final AtomicInteger numWaiting = new AtomicInteger();
+	private final AtomicLong waitCount = new AtomicLong();
+	private final AtomicLong waitTime = new AtomicLong();
+	private final AtomicLong maxWaitTime = new AtomicLong();
+
+	ConnIdOperationLimiter(int maxConcurrentOperations, long maxWait) {
+		if (maxConcurrentOperations <= 0) {
+			throw new IllegalArgumentException("Maximal number of concurrent operations must be positive: "
+					+ maxConcurrentOperations);
+		}
+		this.maxConcurrentOperations = maxConcurrentOperations;
+		this.maxWait = maxWait;
+		this.permits = new Semaphore(maxConcurrentOperations, true);
+	}
+
+	/**
+	 * Returns a facade that executes the operations of the given facade under this limiter. Methods that do not
+	 * execute any operation (getSupportedOperations, getOperation, ...) are passed through.
+	 */
+	ConnectorFacade wrap(ConnectorFacade facade) {
+		return (ConnectorFacade) Proxy.newProxyInstance(ConnectorFacade.class.getClassLoader(),
+				new Class[] { ConnectorFacade.class }, (proxy, method, args) -> {
+					Class<?> declaringClass = method.getDeclaringClass();
+					if (declaringClass == ConnectorFacade.class || declaringClass == Object.class) {
+						return invoke(facade, method, args);
+					}
+					String operationName = method.getName();
+					Object[] limitedArgs = wrapHandlers(args, operationName);
+					acquire(operationName);
+					try {
+						return invoke(facade, method, limitedArgs);
+					} finally {
+						release();
+					}
+				});
+	}
+
+	private Object[] wrapHandlers(Object[] args, String operationName) {
+		if (args == null) {
+			return null;
+		}
+		Object[] wrapped = args.clone();
+		for (int i = 0; i < wrapped.length; i++) {
+			if (wrapped[i] instanceof ResultsHandler || wrapped[i] instanceof SyncResultsHandler) {
+				wrapped[i] = wrapHandler(wrapped[i], operationName);
+			}
+		}
+		return wrapped;
+	}
+
+	/**
+	 * Returns a handler (implementing the same interfaces as the original one) that releases the slot
+	 * of the current operation while the original handler is processing an object.
+	 */
+	private Object wrapHandler(Object handler, String operationName) {
+		return Proxy.newProxyInstance(handler.getClass().getClassLoader(), getAllInterfaces(handler.getClass()),
+				(proxy, method, args) -> {
+					if (!"handle".equals(method.getName())) {
+						return invokeHandler(handler, method, args);
+					}
+					Integer suspendedDepth = suspend();
+					try {
+						return invokeHandler(handler, method, args);
+					} finally {
+						resume(suspendedDepth, operationName);
+					}
+				});
+	}
+
+	private Class<?>[] getAllInterfaces(Class<?> clazz) {
+		Set<Class<?>> interfaces = new LinkedHashSet<>();
+		for (Class<?> current = clazz; current != null; current = current.getSuperclass()) {
+			interfaces.addAll(Arrays.asList(current.getInterfaces()));
+		}
+		return interfaces.toArray(new Class<?>[0]);
+	}
+
+	private Object invokeHandler(Object handler, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(handler, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private Object invoke(ConnectorFacade facade, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(facade, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	void acquire(String operationName) {
+		Integer currentDepth = depth.get();
+		if (currentDepth != null) {
+			depth.set(currentDepth + 1);
+			return;
+		}
+		acquirePermit(operationName);
+		depth.set(1);
+	}
+
+	private void acquirePermit(String operationName) {
+		// not using plain tryAcquire() as it ignores fairness
+		boolean acquired = tryAcquire(0);
+		if (!acquired) {
+			numWaiting.incrementAndGet();
+			long start = System.currentTimeMillis();
+			try {
+				acquired = tryAcquire(maxWait > 0 ? maxWait : Long.MAX_VALUE);
+			} finally {
+				numWaiting.decrementAndGet();
+				long time = System.currentTimeMillis() - start;
+				waitCount.incrementAndGet();
+				waitTime.addAndGet(time);
+				maxWaitTime.accumulateAndGet(time, Math::max);
+			}
+			if (!acquired) {
+				throw new OperationTimeoutException("Operation " + operationName + " could not be started in "
+						+ maxWait + " ms: the maximum of " + maxConcurrentOperations
+						+ " concurrent operation(s) on the resource has been reached");
+			}
+		}
+	}
+
+	private boolean tryAcquire(long timeout) {
+		try {
+			return permits.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OperationTimeoutException("Interrupted while waiting for a free slot for a connector operation", e);
+		}
+	}
+
+	void release() {
+		Integer currentDepth = depth.get();
+		if (currentDepth == null) {
+			// the slot could not be acquired again after a handler returned; nothing to release
+			return;
+		} else if (currentDepth > 1) {
+			depth.set(currentDepth - 1);
+		} else {
+			depth.remove();
+			permits.release();
+		}
+	}
+
+	/**
+	 * Releases the slot held by the current thread (if any), remembering the nesting depth.
+	 * Used while a handler of a search or sync is running.
+	 */
+	Integer suspend() {
+		Integer currentDepth = depth.get();
+		if (currentDepth != null) {
+			depth.remove();
+			permits.release();
+		}
+		return currentDepth;
+	}
+
+	/**
+	 * Acquires the slot released by {@link #suspend()} again; may wait for it like any new operation.
+	 */
+	void resume(Integer suspendedDepth, String operationName) {
+		if (suspendedDepth != null) {
+			acquirePermit(operationName);
+			depth.set(suspendedDepth);
+		}
+	}
+
+	void fillStatus(ConnectorOperationalStatus status) {
+		status.setPoolConfigMaxConcurrentOperations(maxConcurrentOperations);
+		status.setPoolStatusNumWaiting(numWaiting.get());
+		status.setPoolStatusWaitCount(waitCount.get());
+		status.setPoolStatusWaitTime(waitTime.get());
+		status.setPoolStatusMaxWaitTime(maxWaitTime.get());
+	}
+}
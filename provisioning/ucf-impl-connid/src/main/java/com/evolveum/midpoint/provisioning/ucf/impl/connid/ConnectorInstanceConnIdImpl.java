@@ -17,6 +17,7 @@ package com.evolveum.midpoint.provisioning.ucf.impl.connid;
 
 import static com.evolveum.midpoint.provisioning.ucf.impl.connid.ConnIdUtil.processConnIdException;
 
+import java.io.IOException;
 import java.util.*;
 
 import javax.xml.datatype.XMLGregorianCalendar;
@@ -56,6 +57,7 @@ import org.identityconnectors.framework.api.operations.SyncApiOp;
 import org.identityconnectors.framework.api.operations.TestApiOp;
 import org.identityconnectors.framework.api.operations.UpdateApiOp;
 import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.AttributeInfo;
@@ -85,6 +87,7 @@ import org.identityconnectors.framework.impl.api.APIConfigurationImpl;
 import org.identityconnectors.framework.impl.api.local.LocalConnectorInfoImpl;
 import org.identityconnectors.framework.impl.api.local.ObjectPool;
 import org.identityconnectors.framework.impl.api.local.ObjectPool.Statistics;
+import org.identityconnectors.framework.impl.api.local.ObjectPoolEntry;
 import org.identityconnectors.framework.impl.api.local.operations.ConnectorOperationalContext;
 import org.identityconnectors.framework.spi.Connector;
 import org.identityconnectors.framework.spi.PoolableConnector;
@@ -103,6 +106,7 @@ import com.evolveum.midpoint.prism.schema.PrismSchema;
 import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.prism.xml.XsdTypeMapper;
 import com.evolveum.midpoint.provisioning.ucf.api.AttributesToReturn;
+import com.evolveum.midpoint.provisioning.ucf.api.BatchedOperation;
 import com.evolveum.midpoint.provisioning.ucf.api.Change;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.ExecuteProvisioningScriptOperation;
@@ -188,6 +192,26 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 
 	private static final Trace LOGGER = TraceManager.getTrace(ConnectorInstanceConnIdImpl.class);
 
+	/*
+	 * ConnId has no batch API. Connectors that are able to execute several operations in one call accept them
+	 * as a script executed on the connector: language BATCH_SCRIPT_LANGUAGE, argument BATCH_ARGUMENT_OPERATIONS
+	 * containing a list of operations. Each operation is a map with keys BATCH_OPERATION ("create" or "delete"),
+	 * BATCH_OBJECT_CLASS, BATCH_ATTRIBUTES (create) and BATCH_UID (delete). Only ConnId-serializable values are used,
+	 * so this works for remote connectors as well. The connector returns a list of maps of the same size, each of them
+	 * containing either the resulting BATCH_UID, or BATCH_EXCEPTION (class name of the ConnId exception) and
+	 * BATCH_MESSAGE.
+	 */
+	static final String BATCH_SCRIPT_LANGUAGE = "midpoint-batch";
+	static final String BATCH_ARGUMENT_OPERATIONS = "operations";
+	static final String BATCH_OPERATION = "operation";
+	static final String BATCH_OPERATION_CREATE = "create";
+	static final String BATCH_OPERATION_DELETE = "delete";
+	static final String BATCH_OBJECT_CLASS = "objectClass";
+	static final String BATCH_ATTRIBUTES = "attributes";
+	static final String BATCH_UID = "uid";
+	static final String BATCH_EXCEPTION = "exception";
+	static final String BATCH_MESSAGE = "message";
+
 	ConnectorInfo cinfo;
 	ConnectorType connectorType;
 	ConnectorFacade connIdConnectorFacade;
@@ -206,6 +230,13 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 	private boolean caseIgnoreAttributeNames = false;
 	private Boolean legacySchema = null;
 	private boolean supportsReturnDefaultAttributes = false;
+	private ConnIdOperationLimiter operationLimiter = null;
+	private boolean eagerWarmUp = false;
+
+	/**
+	 * Set when the connector rejects the batch script: the connector can run scripts, but not this one.
+	 */
+	private volatile boolean batchScriptNotSupported = false;
 
 	ConnectorInstanceConnIdImpl(ConnectorInfo connectorInfo, ConnectorType connectorType,
 			String schemaNamespace, PrismSchema connectorSchema, Protector protector,
@@ -281,6 +312,18 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 			// Create new connector instance using the transformed configuration
 			connIdConnectorFacade = ConnectorFacadeFactory.getInstance().newInstance(apiConfig);
 
+			Integer maxConcurrentOperations = getConnectorPoolConfigurationValue(configurationCloned,
+					ConnectorFactoryConnIdImpl.CONNECTOR_SCHEMA_CONNECTOR_POOL_CONFIGURATION_MAX_CONCURRENT_OPERATIONS);
+			if (maxConcurrentOperations != null && maxConcurrentOperations > 0) {
+				operationLimiter = new ConnIdOperationLimiter(maxConcurrentOperations,
+						apiConfig.getConnectorPoolConfiguration().getMaxWait());
+				connIdConnectorFacade = operationLimiter.wrap(connIdConnectorFacade);
+			} else {
+				operationLimiter = null;
+			}
+			eagerWarmUp = Boolean.TRUE.equals(getConnectorPoolConfigurationValue(configurationCloned,
+					ConnectorFactoryConnIdImpl.CONNECTOR_SCHEMA_CONNECTOR_POOL_CONFIGURATION_EAGER_WARM_UP));
+
 			result.recordSuccess();
 
 			PrismProperty<Boolean> legacySchemaConfigProperty = configurationCloned.findProperty(new QName(
@@ -314,6 +357,18 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 		}
 	}
 
+	private <T> T getConnectorPoolConfigurationValue(PrismContainerValue<?> configuration, String name) {
+		PrismContainer<?> connectorPoolContainer = configuration.findContainer(new QName(
+				SchemaConstants.NS_ICF_CONFIGURATION,
+				ConnectorFactoryConnIdImpl.CONNECTOR_SCHEMA_CONNECTOR_POOL_CONFIGURATION_XML_ELEMENT_NAME));
+		if (connectorPoolContainer == null || connectorPoolContainer.getValue() == null) {
+			return null;
+		}
+		PrismProperty<T> property = connectorPoolContainer.getValue()
+				.findProperty(new QName(SchemaConstants.NS_ICF_CONFIGURATION, name));
+		return property != null ? property.getRealValue() : null;
+	}
+
 	private PrismContainerDefinition<?> getConfigurationContainerDefinition() throws SchemaException {
 		QName configContainerQName = new QName(connectorType.getNamespace(),
 				ResourceType.F_CONNECTOR_CONFIGURATION.getLocalPart());
@@ -387,6 +442,10 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 			}
 		}
 
+		if (operationLimiter != null) {
+			operationLimiter.fillStatus(status);
+		}
+
 		return status;
 	}
 
@@ -433,9 +492,50 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 			}
 		}
 
+		if (eagerWarmUp) {
+			warmUpConnectorPool();
+		}
+
 		result.recordSuccess();
 	}
 
+	/**
+	 * Creates minIdle pooled connector objects right away, so the first operations do not have to wait
+	 * for the connectors to be created and connected. Failures are only logged: the connectors will be created
+	 * on demand then, and the problem will be reported by the respective operation.
+	 */
+	private void warmUpConnectorPool() {
+		if (!(cinfo instanceof LocalConnectorInfoImpl)) {
+			LOGGER.trace("Not warming up connector pool of a remote connector {}", connectorType);
+			return;
+		}
+		ObjectPoolConfiguration poolConfiguration = apiConfig.getConnectorPoolConfiguration();
+		int size = poolConfiguration.getMaxObjects() > 0 ?
+				Math.min(poolConfiguration.getMinIdle(), poolConfiguration.getMaxObjects()) : poolConfiguration.getMinIdle();
+		ObjectPool<PoolableConnector> pool = new ConnectorOperationalContext((LocalConnectorInfoImpl) cinfo,
+				(APIConfigurationImpl) apiConfig).getPool();
+		if (pool == null || size <= 0) {
+			return;
+		}
+		List<ObjectPoolEntry<PoolableConnector>> entries = new ArrayList<>(size);
+		try {
+			while (entries.size() < size) {
+				entries.add(pool.borrowObject());
+			}
+			LOGGER.debug("Warmed up connector pool for {}: {} connector(s)", this, size);
+		} catch (RuntimeException e) {
+			LOGGER.warn("Couldn't warm up connector pool for {}: {}", this, e.getMessage(), e);
+		} finally {
+			for (ObjectPoolEntry<PoolableConnector> entry : entries) {
+				try {
+					entry.close();
+				} catch (IOException e) {
+					LOGGER.warn("Couldn't return connector to the pool for {}: {}", this, e.getMessage(), e);
+				}
+			}
+		}
+	}
+
 	@Override
 	public ResourceSchema fetchResourceSchema(List<QName> generateObjectClasses, OperationResult parentResult) throws CommunicationException,
 			GenericFrameworkException, ConfigurationException {
@@ -1287,16 +1387,7 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 		result.addParam("resourceObject", shadow);
 		result.addParam("additionalOperations", DebugUtil.debugDump(additionalOperations));         // because of serialization issues
 
-		ObjectClassComplexTypeDefinition ocDef;
-		ResourceAttributeContainerDefinition attrContDef = attributesContainer.getDefinition();
-		if (attrContDef != null) {
-			ocDef = attrContDef.getComplexTypeDefinition();
-		} else {
-			ocDef = resourceSchema.findObjectClassDefinition(shadow.asObjectable().getObjectClass());
-			if (ocDef == null) {
-				throw new SchemaException("Unknown object class "+shadow.asObjectable().getObjectClass());
-			}
-		}
+		ObjectClassComplexTypeDefinition ocDef = getObjectClassDefinition(shadow, attributesContainer);
 
 		// getting icf object class from resource object class
 		ObjectClass icfObjectClass = connIdNameMapper.objectClassToIcf(shadow, getSchemaNamespace(), connectorType, BooleanUtils.isNotFalse(legacySchema));
@@ -1306,67 +1397,8 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 			throw new IllegalArgumentException("Couldn't get icf object class from " + shadow);
 		}
 
-		// setting ifc attributes from resource object attributes
-		Set<Attribute> attributes = null;
-		try {
-			if (LOGGER.isTraceEnabled()) {
-				LOGGER.trace("midPoint object before conversion:\n{}", attributesContainer.debugDump());
-			}
-			attributes = connIdConvertor.convertFromResourceObject(attributesContainer, ocDef);
-
-			if (shadowType.getCredentials() != null && shadowType.getCredentials().getPassword() != null) {
-				PasswordType password = shadowType.getCredentials().getPassword();
-				ProtectedStringType protectedString = password.getValue();
-				GuardedString guardedPassword = ConnIdUtil.toGuardedString(protectedString, "new password", protector);
-				if (guardedPassword != null) {
-					attributes.add(AttributeBuilder.build(OperationalAttributes.PASSWORD_NAME,
-						guardedPassword));
-				}
-			}
-
-			if (ActivationUtil.hasAdministrativeActivation(shadowType)){
-				attributes.add(AttributeBuilder.build(OperationalAttributes.ENABLE_NAME, ActivationUtil.isAdministrativeEnabled(shadowType)));
-			}
-
-			if (ActivationUtil.hasValidFrom(shadowType)){
-				attributes.add(AttributeBuilder.build(OperationalAttributes.ENABLE_DATE_NAME, XmlTypeConverter.toMillis(shadowType.getActivation().getValidFrom())));
-			}
-
-			if (ActivationUtil.hasValidTo(shadowType)){
-				attributes.add(AttributeBuilder.build(OperationalAttributes.DISABLE_DATE_NAME, XmlTypeConverter.toMillis(shadowType.getActivation().getValidTo())));
-			}
-
-			if (ActivationUtil.hasLockoutStatus(shadowType)){
-				attributes.add(AttributeBuilder.build(OperationalAttributes.LOCK_OUT_NAME, ActivationUtil.isLockedOut(shadowType)));
-			}
-
-			if (LOGGER.isTraceEnabled()) {
-				LOGGER.trace("ConnId attributes after conversion:\n{}", ConnIdUtil.dump(attributes));
-			}
-		} catch (SchemaException | RuntimeException ex) {
-			result.recordFatalError(
-					"Error while converting resource object attributes. Reason: " + ex.getMessage(), ex);
-			throw new SchemaException("Error while converting resource object attributes. Reason: "
-					+ ex.getMessage(), ex);
-		}
-
-		if (attributes == null) {
-			result.recordFatalError("Couldn't set attributes for icf.");
-			throw new IllegalStateException("Couldn't set attributes for icf.");
-		}
-
-		List<String> icfAuxiliaryObjectClasses = new ArrayList<>();
-		for (QName auxiliaryObjectClass: shadowType.getAuxiliaryObjectClass()) {
-			icfAuxiliaryObjectClasses.add(
-					connIdNameMapper.objectClassToIcf(auxiliaryObjectClass, resourceSchemaNamespace,
-							connectorType, false).getObjectClassValue());
-		}
-		if (!icfAuxiliaryObjectClasses.isEmpty()) {
-			AttributeBuilder ab = new AttributeBuilder();
-			ab.setName(PredefinedAttributes.AUXILIARY_OBJECT_CLASS_NAME);
-			ab.addValue(icfAuxiliaryObjectClasses);
-			attributes.add(ab.build());
-		}
+		Set<Attribute> attributes = convertToIcfAttributes(shadow, attributesContainer, ocDef, result);
+		List<String> icfAuxiliaryObjectClasses = addIcfAuxiliaryObjectClasses(shadowType, attributes);
 
 		OperationOptionsBuilder operationOptionsBuilder = new OperationOptionsBuilder();
 		OperationOptions options = operationOptionsBuilder.build();
@@ -1436,6 +1468,92 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 		return AsynchronousOperationReturnValue.wrap(attributesContainer.getAttributes(), result);
 	}
 
+	private ObjectClassComplexTypeDefinition getObjectClassDefinition(PrismObject<? extends ShadowType> shadow,
+			ResourceAttributeContainer attributesContainer) throws SchemaException {
+		ObjectClassComplexTypeDefinition ocDef;
+		ResourceAttributeContainerDefinition attrContDef = attributesContainer.getDefinition();
+		if (attrContDef != null) {
+			ocDef = attrContDef.getComplexTypeDefinition();
+		} else {
+			ocDef = resourceSchema.findObjectClassDefinition(shadow.asObjectable().getObjectClass());
+			if (ocDef == null) {
+				throw new SchemaException("Unknown object class "+shadow.asObjectable().getObjectClass());
+			}
+		}
+		return ocDef;
+	}
+
+	private Set<Attribute> convertToIcfAttributes(PrismObject<? extends ShadowType> shadow,
+			ResourceAttributeContainer attributesContainer, ObjectClassComplexTypeDefinition ocDef, OperationResult result)
+			throws SchemaException {
+		ShadowType shadowType = shadow.asObjectable();
+		// setting ifc attributes from resource object attributes
+		Set<Attribute> attributes = null;
+		try {
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("midPoint object before conversion:\n{}", attributesContainer.debugDump());
+			}
+			attributes = connIdConvertor.convertFromResourceObject(attributesContainer, ocDef);
+
+			if (shadowType.getCredentials() != null && shadowType.getCredentials().getPassword() != null) {
+				PasswordType password = shadowType.getCredentials().getPassword();
+				ProtectedStringType protectedString = password.getValue();
+				GuardedString guardedPassword = ConnIdUtil.toGuardedString(protectedString, "new password", protector);
+				if (guardedPassword != null) {
+					attributes.add(AttributeBuilder.build(OperationalAttributes.PASSWORD_NAME,
+						guardedPassword));
+				}
+			}
+
+			if (ActivationUtil.hasAdministrativeActivation(shadowType)){
+				attributes.add(AttributeBuilder.build(OperationalAttributes.ENABLE_NAME, ActivationUtil.isAdministrativeEnabled(shadowType)));
+			}
+
+			if (ActivationUtil.hasValidFrom(shadowType)){
+				attributes.add(AttributeBuilder.build(OperationalAttributes.ENABLE_DATE_NAME, XmlTypeConverter.toMillis(shadowType.getActivation().getValidFrom())));
+			}
+
+			if (ActivationUtil.hasValidTo(shadowType)){
+				attributes.add(AttributeBuilder.build(OperationalAttributes.DISABLE_DATE_NAME, XmlTypeConverter.toMillis(shadowType.getActivation().getValidTo())));
+			}
+
+			if (ActivationUtil.hasLockoutStatus(shadowType)){
+				attributes.add(AttributeBuilder.build(OperationalAttributes.LOCK_OUT_NAME, ActivationUtil.isLockedOut(shadowType)));
+			}
+
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("ConnId attributes after conversion:\n{}", ConnIdUtil.dump(attributes));
+			}
+		} catch (SchemaException | RuntimeException ex) {
+			result.recordFatalError(
+					"Error while converting resource object attributes. Reason: " + ex.getMessage(), ex);
+			throw new SchemaException("Error while converting resource object attributes. Reason: "
+					+ ex.getMessage(), ex);
+		}
+
+		if (attributes == null) {
+			result.recordFatalError("Couldn't set attributes for icf.");
+			throw new IllegalStateException("Couldn't set attributes for icf.");
+		}
+		return attributes;
+	}
+
+	private List<String> addIcfAuxiliaryObjectClasses(ShadowType shadowType, Set<Attribute> attributes) {
+		List<String> icfAuxiliaryObjectClasses = new ArrayList<>();
+		for (QName auxiliaryObjectClass: shadowType.getAuxiliaryObjectClass()) {
+			icfAuxiliaryObjectClasses.add(
+					connIdNameMapper.objectClassToIcf(auxiliaryObjectClass, resourceSchemaNamespace,
+							connectorType, false).getObjectClassValue());
+		}
+		if (!icfAuxiliaryObjectClasses.isEmpty()) {
+			AttributeBuilder ab = new AttributeBuilder();
+			ab.setName(PredefinedAttributes.AUXILIARY_OBJECT_CLASS_NAME);
+			ab.addValue(icfAuxiliaryObjectClasses);
+			attributes.add(ab.build());
+		}
+		return icfAuxiliaryObjectClasses;
+	}
+
 	private void validateShadow(PrismObject<? extends ShadowType> shadow, String operation,
 			boolean requireUid) {
 		if (shadow == null) {
@@ -1987,6 +2105,249 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 		return AsynchronousOperationResult.wrap(result);
 	}
 
+	/**
+	 * Additions and deletions without additional operations (scripts) are sent to the connector in one call,
+	 * see BATCH_SCRIPT_LANGUAGE. Other operations, as well as all the operations on connectors that cannot run
+	 * scripts on the connector, are executed one by one. If the connector turns out not to understand the batch
+	 * script, the operations are executed one by one as well, and so are all the later batches.
+	 *
+	 * Each operation is recorded in its own operation result and reported to its own reporter, if it has them.
+	 */
+	@Override
+	public void executeBatch(List<BatchedOperation> operations, StateReporter reporter, OperationResult parentResult) {
+		if (batchScriptNotSupported
+				|| !connIdConnectorFacade.getSupportedOperations().contains(ScriptOnConnectorApiOp.class)) {
+			ConnectorInstance.super.executeBatch(operations, reporter, parentResult);
+			return;
+		}
+
+		List<PreparedBatchOperation> prepared = new ArrayList<>();
+		for (BatchedOperation operation : operations) {
+			if (operation.getOperations() != null && !operation.getOperations().isEmpty()
+					|| operation.getType() == BatchedOperation.Type.MODIFY) {
+				operation.executeSeparately(this, reporter, parentResult);
+			} else {
+				PreparedBatchOperation preparedOperation = prepareBatchOperation(operation, reporter, parentResult);
+				if (preparedOperation != null) {
+					prepared.add(preparedOperation);
+				}
+			}
+		}
+		if (prepared.isEmpty()) {
+			return;
+		}
+
+		List<Map<String, Object>> requests = new ArrayList<>(prepared.size());
+		for (PreparedBatchOperation preparedOperation : prepared) {
+			requests.add(preparedOperation.request);
+		}
+		OperationResult connIdResult = parentResult.createSubresult(ConnectorFacade.class.getName() + ".runScriptOnConnector");
+		connIdResult.addParam("scriptLanguage", BATCH_SCRIPT_LANGUAGE);
+		connIdResult.addParam("operations", prepared.size());
+		connIdResult.addContext("connector", connIdConnectorFacade.getClass());
+
+		Object response;
+		try {
+			InternalMonitor.recordConnectorOperation("batch");
+			for (PreparedBatchOperation preparedOperation : prepared) {
+				recordIcfOperationStart(preparedOperation.reporter, preparedOperation.icfOperation, preparedOperation.objectClass,
+						preparedOperation.uid);
+			}
+			ScriptContext scriptContext = new ScriptContext(BATCH_SCRIPT_LANGUAGE, "",
+					Collections.singletonMap(BATCH_ARGUMENT_OPERATIONS, requests));
+			response = connIdConnectorFacade.runScriptOnConnector(scriptContext, new OperationOptionsBuilder().build());
+			connIdResult.recordSuccess();
+		} catch (Throwable ex) {
+			if (isBatchScriptRejected(ex)) {
+				LOGGER.info("Connector {} does not support batch operations ({}), executing them one by one", this,
+						ex.getMessage());
+				batchScriptNotSupported = true;
+				connIdResult.recordHandledError("Batch operations are not supported", ex);
+				for (PreparedBatchOperation preparedOperation : prepared) {
+					recordIcfOperationEnd(preparedOperation.reporter, preparedOperation.icfOperation, preparedOperation.objectClass,
+							ex, preparedOperation.uid);
+					// the operation gets its own result when executed separately
+					preparedOperation.parentResult.getSubresults().removeIf(subresult -> subresult == preparedOperation.result);
+					preparedOperation.operation.executeSeparately(this, reporter, parentResult);
+				}
+				return;
+			}
+			Throwable midpointEx = processConnIdException(ex, this, connIdResult);
+			for (PreparedBatchOperation preparedOperation : prepared) {
+				recordIcfOperationEnd(preparedOperation.reporter, preparedOperation.icfOperation, preparedOperation.objectClass,
+						ex, preparedOperation.uid);
+				preparedOperation.result.recordFatalError(midpointEx);
+				preparedOperation.operation.recordFailure(midpointEx);
+			}
+			return;
+		}
+
+		if (!(response instanceof List) || ((List<?>) response).size() != prepared.size()) {
+			connIdResult.recordFatalError("Unexpected response to a batch of " + prepared.size() + " operations: " + response);
+			for (PreparedBatchOperation preparedOperation : prepared) {
+				GenericFrameworkException e = new GenericFrameworkException("Connector returned unexpected response to a batch of "
+						+ prepared.size() + " operations");
+				recordIcfOperationEnd(preparedOperation.reporter, preparedOperation.icfOperation, preparedOperation.objectClass,
+						e, preparedOperation.uid);
+				preparedOperation.result.recordFatalError(e);
+				preparedOperation.operation.recordFailure(e);
+			}
+			return;
+		}
+		List<?> responses = (List<?>) response;
+		for (int i = 0; i < prepared.size(); i++) {
+			processBatchResponse(prepared.get(i), responses.get(i));
+		}
+	}
+
+	/**
+	 * Connectors that do not know the batch script language refuse it with UnsupportedOperationException,
+	 * or with an exception that complains about the language (e.g. "Language not supported: midpoint-batch"
+	 * from ConnId script executor factory). Nothing has been executed in such a case, so the operations can be
+	 * safely repeated one by one. Other errors may come after some of the operations were executed, so they
+	 * are not retried.
+	 */
+	private boolean isBatchScriptRejected(Throwable ex) {
+		for (Throwable t = ex; t != null; t = t.getCause()) {
+			if (t instanceof UnsupportedOperationException
+					|| StringUtils.containsIgnoreCase(t.getMessage(), BATCH_SCRIPT_LANGUAGE)
+					|| StringUtils.containsIgnoreCase(t.getMessage(), "language not supported")
+					|| StringUtils.containsIgnoreCase(t.getMessage(), "unsupported language")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * An operation ready to be sent to the connector in a batch.
+	 */
+	private static class PreparedBatchOperation {
+		private BatchedOperation operation;
+		private OperationResult parentResult;
+		private OperationResult result;
+		private StateReporter reporter;
+		private ProvisioningOperation icfOperation;
+		private ObjectClassComplexTypeDefinition objectClass;
+		private ResourceAttributeContainer attributesContainer;		// ADD only
+		private Uid uid;											// DELETE only
+		private Map<String, Object> request;
+	}
+
+	/**
+	 * Converts the operation to a batch request. If it cannot be converted, the failure is recorded
+	 * and null is returned.
+	 */
+	private PreparedBatchOperation prepareBatchOperation(BatchedOperation operation, StateReporter batchReporter,
+			OperationResult batchResult) {
+		PreparedBatchOperation prepared = new PreparedBatchOperation();
+		prepared.operation = operation;
+		prepared.parentResult = operation.getResult(batchResult);
+		prepared.reporter = operation.getReporter(batchReporter);
+		prepared.request = new HashMap<>();
+		try {
+			if (operation.getType() == BatchedOperation.Type.ADD) {
+				PrismObject<? extends ShadowType> shadow = operation.getObject();
+				prepared.result = prepared.parentResult.createSubresult(ConnectorInstance.class.getName()
+						+ ".addObject");
+				prepared.result.addParam("resourceObject", shadow);
+				prepared.result.addParam("batch", true);
+				validateShadow(shadow, "add", false);
+				prepared.icfOperation = ProvisioningOperation.ICF_CREATE;
+				prepared.attributesContainer = ShadowUtil.getAttributesContainer(shadow);
+				prepared.objectClass = getObjectClassDefinition(shadow, prepared.attributesContainer);
+				ObjectClass icfObjectClass = connIdNameMapper.objectClassToIcf(shadow, getSchemaNamespace(), connectorType,
+						BooleanUtils.isNotFalse(legacySchema));
+				if (icfObjectClass == null) {
+					throw new IllegalArgumentException("Couldn't get icf object class from " + shadow);
+				}
+				Set<Attribute> attributes = convertToIcfAttributes(shadow, prepared.attributesContainer, prepared.objectClass,
+						prepared.result);
+				addIcfAuxiliaryObjectClasses(shadow.asObjectable(), attributes);
+				prepared.request.put(BATCH_OPERATION, BATCH_OPERATION_CREATE);
+				prepared.request.put(BATCH_OBJECT_CLASS, icfObjectClass.getObjectClassValue());
+				prepared.request.put(BATCH_ATTRIBUTES, attributes);
+			} else {
+				prepared.result = prepared.parentResult.createSubresult(ConnectorInstance.class.getName()
+						+ ".deleteObject");
+				prepared.result.addArbitraryObjectCollectionAsParam("identifiers", operation.getIdentifiers());
+				prepared.result.addParam("batch", true);
+				prepared.icfOperation = ProvisioningOperation.ICF_DELETE;
+				prepared.objectClass = operation.getObjectClass();
+				ObjectClass icfObjectClass = connIdNameMapper.objectClassToIcf(prepared.objectClass, getSchemaNamespace(),
+						connectorType, legacySchema);
+				prepared.uid = getUid(prepared.objectClass, operation.getIdentifiers());
+				prepared.request.put(BATCH_OPERATION, BATCH_OPERATION_DELETE);
+				prepared.request.put(BATCH_OBJECT_CLASS, icfObjectClass.getObjectClassValue());
+				prepared.request.put(BATCH_UID, prepared.uid.getUidValue());
+			}
+			return prepared;
+		} catch (SchemaException | RuntimeException e) {
+			prepared.result.recordFatalError(e);
+			operation.recordFailure(e);
+			return null;
+		}
+	}
+
+	private void processBatchResponse(PreparedBatchOperation prepared, Object responseItem) {
+		Map<?, ?> response = responseItem instanceof Map ? (Map<?, ?>) responseItem : Collections.emptyMap();
+		Object exceptionClassName = response.get(BATCH_EXCEPTION);
+		Object uidValue = response.get(BATCH_UID);
+		if (exceptionClassName != null) {
+			RuntimeException connIdException = createConnIdException(String.valueOf(exceptionClassName),
+					(String) response.get(BATCH_MESSAGE));
+			recordIcfOperationEnd(prepared.reporter, prepared.icfOperation, prepared.objectClass, connIdException, prepared.uid);
+			Throwable midpointEx = processConnIdException(connIdException, this, prepared.result);
+			prepared.result.computeStatus();
+			prepared.operation.recordFailure(midpointEx);
+		} else if (prepared.icfOperation == ProvisioningOperation.ICF_CREATE) {
+			if (!(uidValue instanceof String) || ((String) uidValue).isEmpty()) {
+				GenericFrameworkException e = new GenericFrameworkException("ConnId did not returned UID after create");
+				recordIcfOperationEnd(prepared.reporter, prepared.icfOperation, prepared.objectClass, e, null);
+				prepared.result.recordFatalError(e);
+				prepared.operation.recordFailure(e);
+				return;
+			}
+			Uid uid = new Uid((String) uidValue);
+			recordIcfOperationEnd(prepared.reporter, prepared.icfOperation, prepared.objectClass, uid);
+			try {
+				Collection<ResourceAttribute<?>> identifiers = ConnIdUtil.convertToIdentifiers(uid,
+						prepared.attributesContainer.getDefinition().getComplexTypeDefinition(), resourceSchema);
+				for (ResourceAttribute<?> identifier: identifiers) {
+					prepared.attributesContainer.getValue().addReplaceExisting(identifier);
+				}
+			} catch (SchemaException e) {
+				prepared.result.recordFatalError(e);
+				prepared.operation.recordFailure(e);
+				return;
+			}
+			prepared.result.recordSuccess();
+			prepared.operation.recordSuccess(AsynchronousOperationReturnValue.wrap(prepared.attributesContainer.getAttributes(),
+					prepared.result));
+		} else {
+			recordIcfOperationEnd(prepared.reporter, prepared.icfOperation, prepared.objectClass, prepared.uid);
+			prepared.result.recordSuccess();
+			prepared.operation.recordSuccess(AsynchronousOperationResult.wrap(prepared.result));
+		}
+	}
+
+	/**
+	 * Re-creates the ConnId exception reported by the connector for a batched operation, like in
+	 * {@link ConnIdUtil#processConnIdException(Throwable, String, OperationResult)} for remote exceptions.
+	 */
+	private RuntimeException createConnIdException(String className, String message) {
+		try {
+			Class<?> exceptionClass = Class.forName(className);
+			if (RuntimeException.class.isAssignableFrom(exceptionClass)
+					&& exceptionClass.getName().startsWith(ConnectorException.class.getPackage().getName())) {
+				return (RuntimeException) exceptionClass.getConstructor(String.class).newInstance(message);
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOGGER.debug("Couldn't re-create exception {} reported by the connector: {}", className, e.getMessage(), e);
+		}
+		return new ConnectorException(className + ": " + message);
+	}
+
 	@Override
 	public PrismProperty<?> deserializeToken(Object serializedToken) {
 		return createTokenProperty(serializedToken);
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.ucf.impl.connid;
+
+import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.DummyResource;
+import com.evolveum.midpoint.prism.PrismContainerValue;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.provisioning.ucf.api.ShadowResultHandler;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.processor.ObjectClassComplexTypeDefinition;
+import com.evolveum.midpoint.schema.processor.ResourceAttribute;
+import com.evolveum.midpoint.schema.processor.ResourceAttributeContainer;
+import com.evolveum.midpoint.schema.processor.ResourceObjectIdentification;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.statistics.ConnectorOperationalStatus;
+import com.evolveum.midpoint.schema.util.ResourceTypeUtil;
+import com.evolveum.midpoint.schema.util.ShadowUtil;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.exception.CommunicationException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ConnectorConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowKindType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * UCF test with dummy resource that allows only one concurrent operation (maxConcurrentOperations).
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = { "classpath:ctx-ucf-connid-test.xml" })
+public class TestUcfDummyLimited extends AbstractUcfDummyTest {
+
+	private static final File RESOURCE_DUMMY_LIMITED_FILE = new File(UcfTestUtil.TEST_DIR, "resource-dummy-limited.xml");
+	private static final String RESOURCE_DUMMY_LIMITED_INSTANCE = "limited";
+
+	private static final long MAX_WAIT = 3000L;			// as set in the resource
+	private static final long JOIN_TIMEOUT = 20000L;
+
+	private static Trace LOGGER = TraceManager.getTrace(TestUcfDummyLimited.class);
+
+	private PrismObject<ResourceType> limitedResource;
+	private DummyResource limitedDummyResource;
+	private ObjectClassComplexTypeDefinition accountDefinition;
+
+	@BeforeClass
+	public void setupLimited() throws Exception {
+		limitedResource = PrismTestUtil.parseObject(RESOURCE_DUMMY_LIMITED_FILE);
+		limitedDummyResource = DummyResource.getInstance(RESOURCE_DUMMY_LIMITED_INSTANCE);
+		limitedDummyResource.reset();
+	}
+
+	@AfterMethod
+	public void unblock() {
+		limitedDummyResource.setBlockOperations(false);
+		limitedDummyResource.unblockAll();
+	}
+
+	@Test
+	public void test020CreateConfiguredConnector() throws Exception {
+		final String TEST_NAME = "test020CreateConfiguredConnector";
+		TestUtil.displayTestTitle(TEST_NAME);
+
+		OperationResult result = new OperationResult(TestUcfDummyLimited.class.getName() + "." + TEST_NAME);
+		cc = connectorFactory.createConnectorInstance(connectorType,
+				ResourceTypeUtil.getResourceNamespace(limitedResource.asObjectable()), "limited test connector");
+		assertNotNull("Failed to instantiate connector", cc);
+		PrismContainerValue<ConnectorConfigurationType> configContainer =
+				limitedResource.asObjectable().getConnectorConfiguration().asPrismContainerValue();
+
+		// WHEN
+		cc.configure(configContainer, result);
+		resourceSchema = cc.fetchResourceSchema(null, result);
+
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		accountDefinition = resourceSchema.findDefaultObjectClassDefinition(ShadowKindType.ACCOUNT);
+		assertNotNull("No account definition", accountDefinition);
+
+		ConnectorOperationalStatus operationalStatus = cc.getOperationalStatus();
+		display("Connector operational status", operationalStatus);
+		assertEquals("Wrong poolConfigMaxConcurrentOperations", (Integer) 1,
+				operationalStatus.getPoolConfigMaxConcurrentOperations());
+		assertEquals("Wrong poolStatusNumWaiting", (Integer) 0, operationalStatus.getPoolStatusNumWaiting());
+	}
+
+	/**
+	 * The second operation has to wait until the first one (blocked on the resource) finishes.
+	 */
+	@Test
+	public void test100SecondOperationWaits() throws Exception {
+		final String TEST_NAME = "test100SecondOperationWaits";
+		TestUtil.displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		long waitCountBefore = cc.getOperationalStatus().getPoolStatusWaitCount();
+		limitedDummyResource.setBlockOperations(true);
+		OperationThread first = createAddingThread("first");
+		first.start();
+		waitForAccountOperationToBlock();
+
+		// WHEN
+		OperationThread second = createAddingThread("second");
+		second.start();
+		waitForWaitingOperations(1);
+		assertFalse("Second operation was not limited", second.isFinished());
+
+		limitedDummyResource.setBlockOperations(false);
+		limitedDummyResource.unblockAll();
+		first.join(JOIN_TIMEOUT);
+		second.join(JOIN_TIMEOUT);
+
+		// THEN
+		first.assertSuccess();
+		second.assertSuccess();
+		assertNotNull("Account first was not created", limitedDummyResource.getAccountByUsername("first"));
+		assertNotNull("Account second was not created", limitedDummyResource.getAccountByUsername("second"));
+		ConnectorOperationalStatus operationalStatus = cc.getOperationalStatus();
+		display("Connector operational status", operationalStatus);
+		assertEquals("Wrong poolStatusNumWaiting", (Integer) 0, operationalStatus.getPoolStatusNumWaiting());
+		assertEquals("Wrong poolStatusWaitCount", waitCountBefore + 1, (long) operationalStatus.getPoolStatusWaitCount());
+		assertTrue("Wait time was not recorded", operationalStatus.getPoolStatusMaxWaitTime() > 0);
+	}
+
+	/**
+	 * The second operation gives up after maxWait milliseconds.
+	 */
+	@Test
+	public void test110WaitTimeout() throws Exception {
+		final String TEST_NAME = "test110WaitTimeout";
+		TestUtil.displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		limitedDummyResource.setBlockOperations(true);
+		OperationThread first = createAddingThread("blocker");
+		first.start();
+		waitForAccountOperationToBlock();
+
+		// WHEN
+		OperationResult result = new OperationResult(TestUcfDummyLimited.class.getName() + "." + TEST_NAME);
+		long start = System.currentTimeMillis();
+		try {
+			cc.addObject(createAccountShadow("impatient"), null, null, result);
+			throw new AssertionError("Operation was not limited");
+		} catch (CommunicationException e) {
+			// THEN
+			LOGGER.info("Expected exception: {}", e.getMessage());
+		}
+		long waited = System.currentTimeMillis() - start;
+		assertTrue("Waited only " + waited + " ms", waited >= MAX_WAIT);
+
+		limitedDummyResource.setBlockOperations(false);
+		limitedDummyResource.unblockAll();
+		first.join(JOIN_TIMEOUT);
+		first.assertSuccess();
+		assertNull("Account was created", limitedDummyResource.getAccountByUsername("impatient"));
+	}
+
+	/**
+	 * Results handler passes each object to another thread and waits for it, as multi-threaded tasks do.
+	 * Operations of that thread must not wait for the search to finish (that would be a deadlock),
+	 * and neither do operations executed directly by the handler.
+	 */
+	@Test
+	public void test120OperationsFromSearchHandler() throws Exception {
+		final String TEST_NAME = "test120OperationsFromSearchHandler";
+		TestUtil.displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		OperationResult result = new OperationResult(TestUcfDummyLimited.class.getName() + "." + TEST_NAME);
+		long waitCountBefore = cc.getOperationalStatus().getPoolStatusWaitCount();
+		List<String> fetched = Collections.synchronizedList(new ArrayList<>());
+
+		ShadowResultHandler handler = new ShadowResultHandler() {
+			@Override
+			public boolean handle(PrismObject<ShadowType> shadow) {
+				String name = ShadowUtil.getSingleStringAttributeValue(shadow, SchemaConstants.ICFS_NAME);
+				OperationThread worker = new OperationThread("fetching " + name,
+						() -> fetched.add(fetchAccountName(shadow)));
+				worker.start();
+				try {
+					worker.join(JOIN_TIMEOUT);
+					fetched.add(fetchAccountName(shadow));
+				} catch (Exception e) {
+					throw new AssertionError("Nested operation failed: " + e.getMessage(), e);
+				}
+				worker.assertSuccess();
+				return true;
+			}
+		};
+
+		// WHEN
+		cc.search(accountDefinition, new ObjectQuery(), handler, null, null, null, null, result);
+
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		display("Fetched accounts", fetched);
+		assertEquals("Wrong number of fetched accounts", 2 * limitedDummyResource.listAccounts().size(), fetched.size());
+		assertEquals("Operations from the handler had to wait", waitCountBefore,
+				(long) cc.getOperationalStatus().getPoolStatusWaitCount());
+	}
+
+	private String fetchAccountName(PrismObject<ShadowType> shadow) throws Exception {
+		ResourceObjectIdentification identification = ResourceObjectIdentification.createFromShadow(accountDefinition,
+				shadow.asObjectable());
+		PrismObject<ShadowType> fetchedShadow = cc.fetchObject(identification, null, null,
+				new OperationResult(TestUcfDummyLimited.class.getName() + ".fetch"));
+		return ShadowUtil.getSingleStringAttributeValue(fetchedShadow, SchemaConstants.ICFS_NAME);
+	}
+
+	private PrismObject<ShadowType> createAccountShadow(String username) throws Exception {
+		ShadowType shadowType = new ShadowType();
+		PrismTestUtil.getPrismContext().adopt(shadowType);
+		shadowType.setName(PrismTestUtil.createPolyStringType(username));
+		ObjectReferenceType resourceRef = new ObjectReferenceType();
+		resourceRef.setOid(limitedResource.getOid());
+		shadowType.setResourceRef(resourceRef);
+		shadowType.setObjectClass(accountDefinition.getTypeName());
+		PrismObject<ShadowType> shadow = shadowType.asPrismObject();
+		ResourceAttributeContainer attributesContainer = ShadowUtil.getOrCreateAttributesContainer(shadow, accountDefinition);
+		ResourceAttribute<String> icfsNameProp = attributesContainer.findOrCreateAttribute(SchemaConstants.ICFS_NAME);
+		icfsNameProp.setRealValue(username);
+		return shadow;
+	}
+
+	private OperationThread createAddingThread(String username) {
+		return new OperationThread("adding " + username, () -> cc.addObject(createAccountShadow(username), null, null,
+				new OperationResult(TestUcfDummyLimited.class.getName() + ".add")));
+	}
+
+	private void waitForAccountOperationToBlock() throws InterruptedException {
+		// there is no way of asking the dummy resource whether a thread is blocked
+		Thread.sleep(1000);
+	}
+
+	private void waitForWaitingOperations(int expected) throws InterruptedException {
+		long start = System.currentTimeMillis();
+		while (cc.getOperationalStatus().getPoolStatusNumWaiting() != expected) {
+			assertTrue("Timed out waiting for " + expected + " waiting operation(s)",
+					System.currentTimeMillis() - start < MAX_WAIT);
+			Thread.sleep(50);
+		}
+	}
+
+	private interface Operation {
+		void execute() throws Exception;
+	}
+
+	private class OperationThread extends Thread {
+
+		private final Operation operation;
+		private volatile boolean finished;
+		private volatile Throwable failure;
+
+		OperationThread(String name, Operation operation) {
+			super(name);
+			this.operation = operation;
+		}
+
+		@Override
+		public void run() {
+			try {
+				operation.execute();
+			} catch (Throwable t) {
+				LOGGER.error("Operation {} failed: {}", getName(), t.getMessage(), t);
+				failure = t;
+			} finally {
+				finished = true;
+			}
+		}
+
+		boolean isFinished() {
+			return finished;
+		}
+
+		void assertSuccess() {
+			assertTrue("Operation " + getName() + " has not finished", finished);
+			assertNull("Operation " + getName() + " failed: " + failure, failure);
+		}
+	}
+}
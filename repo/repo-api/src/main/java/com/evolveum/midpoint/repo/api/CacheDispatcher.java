@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.api;
+
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Distributes information about changed objects to registered cache listeners on this node and
+ * (via registered {@link CacheInvalidationChannel}s) to the other nodes in the cluster.
+ *
+ * @author agent
+ */
+public interface CacheDispatcher {
+
+	void registerCacheListener(CacheListener listener);
+
+	void unregisterCacheListener(CacheListener listener);
+
+	void registerInvalidationChannel(CacheInvalidationChannel channel);
+
+	void unregisterInvalidationChannel(CacheInvalidationChannel channel);
+
+	/**
+	 * Called by the repository after the change was successfully committed.
+	 */
+	<O extends ObjectType> void dispatch(@NotNull Class<O> type, @NotNull String oid, @Nullable String version);
+
+	/**
+	 * Called by invalidation channels when they receive an event from another node. Local listeners
+	 * are notified; the event is not propagated further.
+	 */
+	<O extends ObjectType> void dispatchRemote(@NotNull Class<O> type, @NotNull String oid, @Nullable String version);
+
+	/**
+	 * Called by invalidation channels when another node reports that it lost some of its events. All local
+	 * listeners are asked to invalidate everything they have cached.
+	 */
+	void dispatchRemoteInvalidateAll();
+}
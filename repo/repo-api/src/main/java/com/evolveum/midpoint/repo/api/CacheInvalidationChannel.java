@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.api;
+
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A way of propagating cache invalidation events among cluster nodes (e.g. a shared database table,
+ * a message broker, etc.). Events received from other nodes are passed to
+ * {@link CacheDispatcher#dispatchRemote(Class, String, String)}.
+ *
+ * @author agent
+ */
+public interface CacheInvalidationChannel {
+
+	/**
+	 * Sends the event to other nodes. Should not throw any exceptions: if the event cannot be sent,
+	 * the failure should be logged and the caches have to rely on their own expiration.
+	 */
+	<O extends ObjectType> void publish(@NotNull Class<O> type, @NotNull String oid, @Nullable String version);
+}
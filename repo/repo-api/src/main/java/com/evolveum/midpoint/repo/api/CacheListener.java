@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.api;
+
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Receives notifications about objects that were changed (added, modified or deleted), either on this node
+ * or on another node in the cluster. Used to invalidate cached copies of such objects.
+ *
+ * Implementations should be fast and must not throw exceptions.
+ *
+ * @author agent
+ */
+public interface CacheListener {
+
+	/**
+	 * @param type Type of the object. May be an abstract one (e.g. ObjectType) if the exact type is not known.
+	 * @param oid OID of the object.
+	 * @param version New version of the object; null if not known or if the object was deleted.
+	 * @param clusterwide True if the change originated on another node.
+	 */
+	<O extends ObjectType> void invalidate(@NotNull Class<O> type, @NotNull String oid, @Nullable String version,
+			boolean clusterwide);
+
+	/**
+	 * Called when some invalidations might have been lost (e.g. another node was not able to publish them),
+	 * so any cached object may be stale.
+	 *
+	 * @param clusterwide True if the request originated on another node.
+	 */
+	void invalidateAll(boolean clusterwide);
+}
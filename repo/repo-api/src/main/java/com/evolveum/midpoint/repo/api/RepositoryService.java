@@ -21,6 +21,7 @@ import java.util.List;
 import com.evolveum.midpoint.prism.Containerable;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.query.ObjectFilterExpressionEvaluator;
 import com.evolveum.midpoint.schema.*;
@@ -121,6 +122,7 @@ public interface RepositoryService {
     @Deprecated
     String LIST_ACCOUNT_SHADOW = CLASS_NAME_WITH_DOT + "listAccountShadowOwner";
     String ADD_OBJECT = CLASS_NAME_WITH_DOT + "addObject";
+    String ADD_OBJECTS = CLASS_NAME_WITH_DOT + "addObjects";
     String DELETE_OBJECT = CLASS_NAME_WITH_DOT + "deleteObject";
     @Deprecated
     String CLAIM_TASK = CLASS_NAME_WITH_DOT + "claimTask";
@@ -131,6 +133,7 @@ public interface RepositoryService {
 	String COUNT_CONTAINERS = CLASS_NAME_WITH_DOT + "countContainers";
     String LIST_RESOURCE_OBJECT_SHADOWS = CLASS_NAME_WITH_DOT + "listResourceObjectShadows";
     String MODIFY_OBJECT = CLASS_NAME_WITH_DOT + "modifyObject";
+    String MODIFY_OBJECTS = CLASS_NAME_WITH_DOT + "modifyObjects";
     String COUNT_OBJECTS = CLASS_NAME_WITH_DOT + "countObjects";
     String GET_VERSION = CLASS_NAME_WITH_DOT + "getVersion";
     String SEARCH_OBJECTS_ITERATIVE = CLASS_NAME_WITH_DOT + "searchObjectsIterative";
@@ -235,6 +238,25 @@ public interface RepositoryService {
 	<T extends ObjectType> String addObject(PrismObject<T> object, RepoAddOptions options, OperationResult parentResult)
 			throws ObjectAlreadyExistsException, SchemaException;
 
+	/**
+	 * <p>Adds a batch of new objects.</p>
+	 * <p>
+	 * Semantics for each object is the same as for {@link #addObject(PrismObject, RepoAddOptions, OperationResult)},
+	 * but the implementation may store more objects in a single transaction. A failure of one object does not
+	 * prevent the others from being added: each object has its own ADD_OBJECT subresult (in the order of the objects)
+	 * that records the outcome, and no exception is thrown.
+	 * </p>
+	 *
+	 * @param objects
+	 *            objects to create
+	 * @param parentResult
+	 *            parent OperationResult (in/out)
+	 * @return OIDs assigned to the created objects, in the order of the objects; null for objects that were not added
+	 */
+	@NotNull
+	List<String> addObjects(@NotNull List<? extends PrismObject<? extends ObjectType>> objects, RepoAddOptions options,
+			OperationResult parentResult);
+
 
 	/**
 	 * <p>Search for objects in the repository.</p>
@@ -391,6 +413,22 @@ public interface RepositoryService {
 			ModificationPrecondition<T> precondition, RepoModifyOptions options, OperationResult parentResult)
 			throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException, PreconditionViolationException;
 
+	/**
+	 * <p>Modifies a batch of objects.</p>
+	 * <p>
+	 * Each delta must be a MODIFY delta with OID and object type filled-in. Semantics for each delta is the same as
+	 * for {@link #modifyObject(Class, String, Collection, RepoModifyOptions, OperationResult)}, but the implementation
+	 * may execute more deltas in a single transaction. A failure of one delta does not prevent the others from being
+	 * executed: each delta has its own MODIFY_OBJECT subresult (in the order of the deltas) that records the outcome,
+	 * and no exception is thrown.
+	 * </p>
+	 *
+	 * @param parentResult
+	 *            parent OperationResult (in/out)
+	 */
+	void modifyObjects(@NotNull List<? extends ObjectDelta<? extends ObjectType>> deltas, RepoModifyOptions options,
+			OperationResult parentResult);
+
 	/**
 	 * <p>Deletes object with specified OID.</p>
 	 * <p>
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheInvalidationChannel;
+import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Dispatches cache invalidation events to local listeners and to other nodes (using registered channels).
+ *
+ * @author agent
+ */
+@Component
+public class CacheDispatcherImpl implements CacheDispatcher {
+
+	private static final Trace LOGGER = TraceManager.getTrace(CacheDispatcherImpl.class);
+
+	private final List<CacheListener> cacheListeners = new CopyOnWriteArrayList<>();
+	private final List<CacheInvalidationChannel> channels = new CopyOnWriteArrayList<>();
+
+	@Override
+	public void registerCacheListener(CacheListener listener) {
+		if (cacheListeners.contains(listener)) {
+			LOGGER.warn("Registering listener {} which was already registered.", listener);
+			return;
+		}
+		cacheListeners.add(listener);
+	}
+
+	@Override
+	public void unregisterCacheListener(CacheListener listener) {
+		if (!cacheListeners.remove(listener)) {
+			LOGGER.warn("Unregistering listener {} which was already unregistered.", listener);
+		}
+	}
+
+	@Override
+	public void registerInvalidationChannel(CacheInvalidationChannel channel) {
+		if (!channels.contains(channel)) {
+			channels.add(channel);
+		}
+	}
+
+	@Override
+	public void unregisterInvalidationChannel(CacheInvalidationChannel channel) {
+		channels.remove(channel);
+	}
+
+	@Override
+	public <O extends ObjectType> void dispatch(@NotNull Class<O> type, @NotNull String oid, @Nullable String version) {
+		LOGGER.trace("Dispatching invalidation of {}:{} (version {})", type.getSimpleName(), oid, version);
+		notifyListeners(type, oid, version, false);
+		for (CacheInvalidationChannel channel : channels) {
+			try {
+				channel.publish(type, oid, version);
+			} catch (RuntimeException e) {
+				LoggingUtils.logUnexpectedException(LOGGER, "Couldn't publish invalidation of {}:{} via {}", e,
+						type.getSimpleName(), oid, channel);
+			}
+		}
+	}
+
+	@Override
+	public <O extends ObjectType> void dispatchRemote(@NotNull Class<O> type, @NotNull String oid, @Nullable String version) {
+		LOGGER.trace("Dispatching remote invalidation of {}:{} (version {})", type.getSimpleName(), oid, version);
+		notifyListeners(type, oid, version, true);
+	}
+
+	@Override
+	public void dispatchRemoteInvalidateAll() {
+		LOGGER.debug("Dispatching remote invalidation of all cached objects");
+		for (CacheListener listener : cacheListeners) {
+			try {
+				listener.invalidateAll(true);
+			} catch (RuntimeException e) {
+				LoggingUtils.logUnexpectedException(LOGGER, "Cache listener {} failed when invalidating all objects", e,
+						listener);
+			}
+		}
+	}
+
+	private <O extends ObjectType> void notifyListeners(Class<O> type, String oid, String version, boolean clusterwide) {
+		for (CacheListener listener : cacheListeners) {
+			try {
+				listener.invalidate(type, oid, version, clusterwide);
+			} catch (RuntimeException e) {
+				LoggingUtils.logUnexpectedException(LOGGER, "Cache listener {} failed when invalidating {}:{}", e,
+						listener, type.getSimpleName(), oid);
+			}
+		}
+	}
+}
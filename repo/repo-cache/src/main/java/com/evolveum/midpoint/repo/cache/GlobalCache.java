@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.apache.commons.configuration.Configuration;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Node-wide (second-level) repository cache. Unlike {@link Cache} it is shared by all threads and survives
+ * RepositoryCache.enter()/exit() pairs.
+ *
+ * Only immutable full objects (i.e. retrieved without any get options) are stored here. Each object type
+ * has to be explicitly enabled in the configuration (objects of its subtypes are cached as well), e.g.
+ *
+ * <pre>
+ *     &lt;repository&gt;
+ *         ...
+ *         &lt;globalCache&gt;
+ *             &lt;RoleType&gt;
+ *                 &lt;maxSize&gt;10000&lt;/maxSize&gt;
+ *                 &lt;timeToLive&gt;60&lt;/timeToLive&gt;
+ *             &lt;/RoleType&gt;
+ *         &lt;/globalCache&gt;
+ *     &lt;/repository&gt;
+ * </pre>
+ *
+ * Entries are invalidated on local modifications. Changes made by other nodes (or directly via the repository
+ * service, bypassing the cache) are detected by the version check that is executed when the entry's time to live
+ * (in seconds) expires: if the version in repository is still the same, the entry is kept for another period.
+ * If a cache invalidation channel is configured, changes on other nodes are also received as {@link CacheListener}
+ * events, so the time to live can be set higher.
+ *
+ * An object read from the repository is stored only if no invalidation of its OID came while it was being read
+ * (see {@link #getInvalidationStamp()}), and only if it is not older than the object already cached.
+ * Otherwise a reader that started before a modification could put the old version into the cache
+ * after the modification had invalidated it. Invalidations are counted per OID stripe, and only for types
+ * that can be cached, so frequent modifications of other objects (e.g. tasks or users) do not prevent caching.
+ *
+ * @author agent
+ */
+public class GlobalCache implements CacheListener {
+
+	private static final Trace LOGGER = TraceManager.getTrace(GlobalCache.class);
+
+	public static final String CONFIGURATION_GLOBAL_CACHE = "globalCache";
+	public static final String PROPERTY_MAX_SIZE = "maxSize";
+	public static final String PROPERTY_TIME_TO_LIVE = "timeToLive";
+
+	public static final int DEFAULT_MAX_SIZE = 1000;
+	public static final long DEFAULT_TIME_TO_LIVE = 60;			// seconds
+
+	private static final int INVALIDATION_STRIPES = 64;			// must be a power of 2
+
+	private final Map<Class<? extends ObjectType>, TypeCache> typeCaches = new HashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong versionChecks = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+	private final AtomicLongArray stripeInvalidations = new AtomicLongArray(INVALIDATION_STRIPES);
+
+	/**
+	 * Entry in the cache. The object is immutable, so it can be shared among threads.
+	 */
+	static class CacheEntry {
+		@NotNull final PrismObject<? extends ObjectType> object;
+		volatile long validUntil;
+
+		CacheEntry(@NotNull PrismObject<? extends ObjectType> object, long validUntil) {
+			this.object = object;
+			this.validUntil = validUntil;
+		}
+
+		boolean isFresh(long now) {
+			return now < validUntil;
+		}
+	}
+
+	/**
+	 * Values of the invalidation counters at some moment.
+	 */
+	static class InvalidationStamp {
+		private final long[] counts = new long[INVALIDATION_STRIPES];
+	}
+
+	/**
+	 * LRU map for a single object type. Access is synchronized on the instance.
+	 */
+	static class TypeCache {
+		final int maxSize;
+		final long timeToLive;			// millis
+		private final LinkedHashMap<String, CacheEntry> entries;
+
+		TypeCache(int maxSize, long timeToLive) {
+			this.maxSize = maxSize;
+			this.timeToLive = timeToLive;
+			this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+					return size() > TypeCache.this.maxSize;
+				}
+			};
+		}
+
+		synchronized CacheEntry get(String oid) {
+			return entries.get(oid);
+		}
+
+		/**
+		 * Puts the entry, unless there was an invalidation since the object was read, or the entry would
+		 * replace a newer version of the object.
+		 */
+		synchronized boolean put(String oid, CacheEntry entry, AtomicLongArray stripeInvalidations,
+				InvalidationStamp invalidationsBeforeRead) {
+			int stripe = getStripe(oid);
+			if (stripeInvalidations.get(stripe) != invalidationsBeforeRead.counts[stripe]) {
+				return false;
+			}
+			CacheEntry existing = entries.get(oid);
+			if (existing != null && isNewer(existing.object.getVersion(), entry.object.getVersion())) {
+				return false;
+			}
+			entries.put(oid, entry);
+			return true;
+		}
+
+		synchronized void remove(String oid) {
+			entries.remove(oid);
+		}
+
+		synchronized void clear() {
+			entries.clear();
+		}
+
+		synchronized int size() {
+			return entries.size();
+		}
+	}
+
+	public void configure(Configuration configuration) {
+		typeCaches.clear();
+		if (configuration == null) {
+			return;
+		}
+		Configuration cacheConfig = configuration.subset(CONFIGURATION_GLOBAL_CACHE);
+		if (cacheConfig == null || cacheConfig.isEmpty()) {
+			LOGGER.debug("Global repository cache is not configured");
+			return;
+		}
+		Iterator<String> keys = cacheConfig.getKeys();
+		while (keys.hasNext()) {
+			String key = keys.next();
+			String typeName = key.contains(".") ? key.substring(0, key.indexOf('.')) : key;
+			Class<? extends ObjectType> type;
+			try {
+				type = ObjectTypes.getObjectTypeClass(typeName);
+			} catch (IllegalArgumentException e) {
+				LOGGER.warn("Unknown object type '{}' in the global repository cache configuration, ignoring it", typeName);
+				continue;
+			}
+			if (typeCaches.containsKey(type)) {
+				continue;
+			}
+			Configuration typeConfig = cacheConfig.subset(typeName);
+			int maxSize = typeConfig.getInt(PROPERTY_MAX_SIZE, DEFAULT_MAX_SIZE);
+			long timeToLive = typeConfig.getLong(PROPERTY_TIME_TO_LIVE, DEFAULT_TIME_TO_LIVE);
+			if (maxSize <= 0) {
+				LOGGER.debug("Global repository cache for {} is disabled (max size = {})", typeName, maxSize);
+				continue;
+			}
+			typeCaches.put(type, new TypeCache(maxSize, timeToLive * 1000L));
+			LOGGER.info("Global repository cache for {} enabled: max size = {}, time to live = {} s", typeName,
+					maxSize, timeToLive);
+		}
+	}
+
+	public boolean isAvailable() {
+		return !typeCaches.isEmpty();
+	}
+
+	/**
+	 * Returns true if objects of given type can be (at least partially) served by the cache, i.e. if the type is
+	 * a configured one, its subtype or supertype (e.g. AbstractRoleType when RoleType is configured).
+	 */
+	public boolean supports(Class<?> type) {
+		for (Class<? extends ObjectType> cachedType : typeCaches.keySet()) {
+			if (cachedType.isAssignableFrom(type) || type.isAssignableFrom(cachedType)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the type cache used for objects of given (concrete) class: the one for the most specific
+	 * configured type the class is assignable to.
+	 */
+	private TypeCache getTypeCacheForObject(Class<?> objectClass) {
+		Class<? extends ObjectType> bestType = null;
+		for (Class<? extends ObjectType> cachedType : typeCaches.keySet()) {
+			if (cachedType.isAssignableFrom(objectClass) && (bestType == null || bestType.isAssignableFrom(cachedType))) {
+				bestType = cachedType;
+			}
+		}
+		return bestType != null ? typeCaches.get(bestType) : null;
+	}
+
+	/**
+	 * Returns the cache entry (fresh or not) or null if there is none. The caller is responsible for checking
+	 * freshness and calling {@link #markFresh(CacheEntry)} or {@link #remove(String)} as appropriate.
+	 */
+	CacheEntry get(Class<? extends ObjectType> type, String oid) {
+		for (Map.Entry<Class<? extends ObjectType>, TypeCache> typeCacheEntry : typeCaches.entrySet()) {
+			Class<? extends ObjectType> cachedType = typeCacheEntry.getKey();
+			if (!cachedType.isAssignableFrom(type) && !type.isAssignableFrom(cachedType)) {
+				continue;
+			}
+			CacheEntry entry = typeCacheEntry.getValue().get(oid);
+			if (entry != null && type.isAssignableFrom(entry.object.getCompileTimeClass())) {
+				hits.incrementAndGet();
+				return entry;
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	void markFresh(CacheEntry entry) {
+		TypeCache typeCache = getTypeCacheForObject(entry.object.getCompileTimeClass());
+		if (typeCache != null) {
+			versionChecks.incrementAndGet();
+			entry.validUntil = System.currentTimeMillis() + typeCache.timeToLive;
+		}
+	}
+
+	/**
+	 * Current values of the invalidation counters. They have to be obtained before the object is read
+	 * from the repository and passed to {@link #put(PrismObject, InvalidationStamp)}.
+	 */
+	InvalidationStamp getInvalidationStamp() {
+		InvalidationStamp stamp = new InvalidationStamp();
+		for (int i = 0; i < INVALIDATION_STRIPES; i++) {
+			stamp.counts[i] = stripeInvalidations.get(i);
+		}
+		return stamp;
+	}
+
+	static int getStripe(String oid) {
+		return oid.hashCode() & (INVALIDATION_STRIPES - 1);
+	}
+
+	/**
+	 * Stores an immutable copy of the object, unless there was an invalidation of its OID since invalidationsBeforeRead
+	 * was obtained. The object must be a full one, i.e. retrieved without options.
+	 */
+	<T extends ObjectType> boolean put(@NotNull PrismObject<T> object, @NotNull InvalidationStamp invalidationsBeforeRead) {
+		if (object.getOid() == null || object.getCompileTimeClass() == null) {
+			return false;
+		}
+		TypeCache typeCache = getTypeCacheForObject(object.getCompileTimeClass());
+		if (typeCache == null) {
+			return false;
+		}
+		PrismObject<T> immutable;
+		if (object.isImmutable()) {
+			immutable = object;
+		} else {
+			immutable = object.clone();
+			immutable.setImmutable(true);
+		}
+		return typeCache.put(object.getOid(), new CacheEntry(immutable, System.currentTimeMillis() + typeCache.timeToLive),
+				stripeInvalidations, invalidationsBeforeRead);
+	}
+
+	/**
+	 * Removes the object from all type caches, as the type used by the caller might be an abstract one
+	 * (e.g. ObjectType or AbstractRoleType). The invalidation counter of the OID stripe is incremented first,
+	 * so readers that are reading the object concurrently will not put it back. Objects of types that cannot
+	 * be cached are ignored.
+	 */
+	void remove(Class<?> type, String oid) {
+		if (type != null && !supports(type)) {
+			return;
+		}
+		invalidations.incrementAndGet();
+		stripeInvalidations.incrementAndGet(getStripe(oid));
+		for (TypeCache typeCache : typeCaches.values()) {
+			typeCache.remove(oid);
+		}
+	}
+
+	private static boolean isNewer(String version, String than) {
+		if (version == null || than == null) {
+			return false;
+		}
+		try {
+			return Long.parseLong(version) > Long.parseLong(than);
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public <O extends ObjectType> void invalidate(@NotNull Class<O> type, @NotNull String oid, @Nullable String version,
+			boolean clusterwide) {
+		if (isAvailable()) {
+			LOGGER.trace("Invalidating {}:{} (version {}, clusterwide {})", type.getSimpleName(), oid, version, clusterwide);
+			remove(type, oid);
+		}
+	}
+
+	@Override
+	public void invalidateAll(boolean clusterwide) {
+		if (isAvailable()) {
+			LOGGER.debug("Invalidating all cached objects (clusterwide {})", clusterwide);
+			clear();
+		}
+	}
+
+	public void clear() {
+		for (int i = 0; i < INVALIDATION_STRIPES; i++) {
+			stripeInvalidations.incrementAndGet(i);
+		}
+		for (TypeCache typeCache : typeCaches.values()) {
+			typeCache.clear();
+		}
+	}
+
+	public String debugDump() {
+		StringBuilder sb = new StringBuilder("Global cache: hits: ").append(hits.get())
+				.append(", misses: ").append(misses.get())
+				.append(", version checks: ").append(versionChecks.get())
+				.append(", invalidations: ").append(invalidations.get());
+		for (Map.Entry<Class<? extends ObjectType>, TypeCache> entry : typeCaches.entrySet()) {
+			TypeCache typeCache = entry.getValue();
+			sb.append("; ").append(entry.getKey().getSimpleName()).append(": ")
+					.append(typeCache.size()).append("/").append(typeCache.maxSize);
+		}
+		return sb.toString();
+	}
+}
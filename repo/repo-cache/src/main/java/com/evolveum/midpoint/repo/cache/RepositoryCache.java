@@ -19,6 +19,7 @@ import com.evolveum.midpoint.prism.Containerable;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.*;
 import com.evolveum.midpoint.repo.api.query.ObjectFilterExpressionEvaluator;
@@ -66,9 +67,19 @@ public class RepositoryCache implements RepositoryService {
 
 	private PrismContext prismContext;
 
+	private GlobalCache globalCache;
+
 	public RepositoryCache() {
     }
 
+	public GlobalCache getGlobalCache() {
+		return globalCache;
+	}
+
+	public void setGlobalCache(GlobalCache globalCache) {
+		this.globalCache = globalCache;
+	}
+
     public void setRepository(RepositoryService service, PrismContext prismContext) {
         Validate.notNull(service, "Repository service must not be null.");
 		Validate.notNull(prismContext, "Prism context service must not be null.");
@@ -136,11 +147,70 @@ public class RepositoryCache implements RepositoryService {
 			}
 			log("Cache: MISS {} ({})", oid, type.getSimpleName());
 		}
-		PrismObject<T> object = repository.getObject(type, oid, null, parentResult);
+		PrismObject<T> object = getObjectFromGlobalCache(type, oid, parentResult);
+		if (object != null) {
+			cacheObject(cache, object, true);
+			return readOnly ? object : object.clone();
+		}
+		GlobalCache.InvalidationStamp invalidationsBeforeRead = getGlobalInvalidationStamp(type);
+		object = repository.getObject(type, oid, null, parentResult);
+		putIntoGlobalCache(object, invalidationsBeforeRead);
 		cacheObject(cache, object, readOnly);
 		return object;
 	}
 
+	/**
+	 * Returns immutable object from the global cache (if present and valid), or null.
+	 * Expired entries are re-validated by comparing versions with the repository.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T extends ObjectType> PrismObject<T> getObjectFromGlobalCache(Class<T> type, String oid,
+			OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
+		if (globalCache == null || !globalCache.supports(type)) {
+			return null;
+		}
+		GlobalCache.CacheEntry entry = globalCache.get(type, oid);
+		if (entry == null) {
+			log("Cache: Global MISS {} ({})", oid, type.getSimpleName());
+			return null;
+		}
+		if (!entry.isFresh(System.currentTimeMillis())) {
+			String repoVersion;
+			try {
+				repoVersion = repository.getVersion(type, oid, parentResult);
+			} catch (ObjectNotFoundException e) {
+				globalCache.remove(type, oid);
+				throw e;
+			}
+			if (repoVersion == null || !repoVersion.equals(entry.object.getVersion())) {
+				log("Cache: Global STALE {} ({})", oid, type.getSimpleName());
+				globalCache.remove(type, oid);
+				return null;
+			}
+			globalCache.markFresh(entry);
+		}
+		log("Cache: Global HIT {} ({})", oid, type.getSimpleName());
+		return (PrismObject<T>) entry.object;
+	}
+
+	/**
+	 * Returns null if objects of given type are not stored in the global cache.
+	 */
+	private GlobalCache.InvalidationStamp getGlobalInvalidationStamp(Class<?> type) {
+		return globalCache != null && globalCache.supports(type) ? globalCache.getInvalidationStamp() : null;
+	}
+
+	private <T extends ObjectType> void putIntoGlobalCache(PrismObject<T> object,
+			GlobalCache.InvalidationStamp invalidationsBeforeRead) {
+		if (invalidationsBeforeRead != null && object != null && isCacheable(object.getCompileTimeClass())
+				&& globalCache.supports(object.getCompileTimeClass())) {
+			if (!globalCache.put(object, invalidationsBeforeRead)) {
+				log("Cache: Global NOT STORED {} ({}), invalidated while being read or older than cached", object.getOid(),
+						object.getCompileTimeClass().getSimpleName());
+			}
+		}
+	}
+
 	private boolean isCacheable(Class<?> type) {
 		if (type.equals(TaskType.class)) {
 			return false;
@@ -164,9 +234,26 @@ public class RepositoryCache implements RepositoryService {
 			cache.removeObject(oid);
 			cache.clearQueryResults(object.getCompileTimeClass());
 		}
+		if (globalCache != null) {
+			// overwrite option could have replaced existing object
+			globalCache.remove(object.getCompileTimeClass(), oid);
+		}
 		return oid;
 	}
 
+	@NotNull
+	@Override
+	public List<String> addObjects(@NotNull List<? extends PrismObject<? extends ObjectType>> objects,
+			RepoAddOptions options, OperationResult parentResult) {
+		List<String> oids = repository.addObjects(objects, options, parentResult);
+		for (int i = 0; i < objects.size(); i++) {
+			if (oids.get(i) != null) {
+				invalidateCacheEntry(objects.get(i).getCompileTimeClass(), oids.get(i));
+			}
+		}
+		return oids;
+	}
+
 	@NotNull
 	@Override
 	public <T extends ObjectType> SearchResultList<PrismObject<T>> searchObjects(Class<T> type, ObjectQuery query,
@@ -194,9 +281,11 @@ public class RepositoryCache implements RepositoryService {
 		}
 
 		// Cannot satisfy from cache, pass down to repository
+		GlobalCache.InvalidationStamp invalidationsBeforeRead = getGlobalInvalidationStamp(type);
 		SearchResultList<PrismObject<T>> objects = repository.searchObjects(type, query, options, parentResult);
 		if (cache != null && options == null) {
 			for (PrismObject<T> object : objects) {
+				putIntoGlobalCache(object, invalidationsBeforeRead);
 				cacheObject(cache, object, readOnly);
 			}
 			// TODO cloning before storing into cache?
@@ -295,12 +384,28 @@ public class RepositoryCache implements RepositoryService {
 		}
 	}
 
+	@Override
+	public void modifyObjects(@NotNull List<? extends ObjectDelta<? extends ObjectType>> deltas, RepoModifyOptions options,
+			OperationResult parentResult) {
+		delay(modifyRandomDelayRange);
+		try {
+			repository.modifyObjects(deltas, options, parentResult);
+		} finally {
+			for (ObjectDelta<? extends ObjectType> delta : deltas) {
+				invalidateCacheEntry(delta.getObjectTypeClass(), delta.getOid());
+			}
+		}
+	}
+
 	protected <T extends ObjectType> void invalidateCacheEntry(Class<T> type, String oid) {
 		Cache cache = getCache();
 		if (cache != null) {
 			cache.removeObject(oid);
 			cache.clearQueryResults(type);
 		}
+		if (globalCache != null) {
+			globalCache.remove(type, oid);
+		}
 	}
 
 	@Override
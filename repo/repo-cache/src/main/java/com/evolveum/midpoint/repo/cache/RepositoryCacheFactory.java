@@ -16,22 +16,37 @@
 
 package com.evolveum.midpoint.repo.cache;
 
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactory;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
 import org.apache.commons.configuration.Configuration;
+import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * @author lazyman
  */
 public class RepositoryCacheFactory implements RepositoryServiceFactory {
 
+    private final GlobalCache globalCache = new GlobalCache();
+
+    @Autowired(required = false)
+    private CacheDispatcher cacheDispatcher;
+
     @Override
     public void destroy() throws RepositoryServiceFactoryException {
+        if (cacheDispatcher != null) {
+            cacheDispatcher.unregisterCacheListener(globalCache);
+        }
+        globalCache.clear();
     }
 
     @Override
     public void init(Configuration configuration) throws RepositoryServiceFactoryException {
+        globalCache.configure(configuration);
+        if (cacheDispatcher != null && globalCache.isAvailable()) {
+            cacheDispatcher.registerCacheListener(globalCache);
+        }
     }
 
     @Override
@@ -42,11 +57,14 @@ public class RepositoryCacheFactory implements RepositoryServiceFactory {
         }
 
         RepositoryCache.destroy();
+        globalCache.clear();
     }
 
     @Override
     public RepositoryService getRepositoryService() throws RepositoryServiceFactoryException {
         RepositoryCache.init();
-        return new RepositoryCache();
+        RepositoryCache repositoryCache = new RepositoryCache();
+        repositoryCache.setGlobalCache(globalCache);
+        return repositoryCache;
     }
 }
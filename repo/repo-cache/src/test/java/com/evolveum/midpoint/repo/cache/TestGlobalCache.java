@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractRoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+
+/**
+ * Tests the global (node-wide) part of the repository cache, using a mock repository.
+ *
+ * @author agent
+ */
+public class TestGlobalCache {
+
+	private static final String ROLE_OID = "7b5b3a2c-1d6e-11e8-9b3e-000000000001";
+	private static final String USER_OID = "7b5b3a2c-1d6e-11e8-9b3e-000000000002";
+
+	private RepositoryService repository;
+	private GlobalCache globalCache;
+	private RepositoryCache repositoryCache;
+	private OperationResult result;
+
+	@BeforeSuite
+	public void setup() throws Exception {
+		PrettyPrinter.setDefaultNamespacePrefix(MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX);
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@BeforeMethod
+	public void initCache() {
+		repository = mock(RepositoryService.class);
+		globalCache = new GlobalCache();
+		repositoryCache = new RepositoryCache();
+		repositoryCache.setRepository(repository, PrismTestUtil.getPrismContext());
+		repositoryCache.setGlobalCache(globalCache);
+		RepositoryCache.init();
+		result = new OperationResult(TestGlobalCache.class.getName());
+	}
+
+	@Test
+	public void test100GetObjectCached() throws Exception {
+		configure("RoleType", 60);
+		PrismObject<RoleType> role = createObject(RoleType.class, ROLE_OID, "1");
+		when(repository.getObject(eq(RoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class)))
+				.thenReturn(role);
+
+		PrismObject<RoleType> first = repositoryCache.getObject(RoleType.class, ROLE_OID, null, result);
+		PrismObject<RoleType> second = repositoryCache.getObject(RoleType.class, ROLE_OID, null, result);
+
+		verify(repository, times(1)).getObject(eq(RoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class));
+		assertEquals("Wrong object", role, first);
+		assertEquals("Wrong cached object", role, second);
+	}
+
+	@Test
+	public void test110NotConfiguredTypeNotCached() throws Exception {
+		configure("RoleType", 60);
+		PrismObject<UserType> user = createObject(UserType.class, USER_OID, "1");
+		when(repository.getObject(eq(UserType.class), eq(USER_OID), any(Collection.class), any(OperationResult.class)))
+				.thenReturn(user);
+
+		repositoryCache.getObject(UserType.class, USER_OID, null, result);
+		repositoryCache.getObject(UserType.class, USER_OID, null, result);
+
+		verify(repository, times(2)).getObject(eq(UserType.class), eq(USER_OID), any(Collection.class), any(OperationResult.class));
+	}
+
+	/**
+	 * Objects of subtypes of a configured type are cached, and they can be retrieved using supertypes as well.
+	 */
+	@Test
+	public void test120SubtypesCached() throws Exception {
+		configure("AbstractRoleType", 60);
+		PrismObject<RoleType> role = createObject(RoleType.class, ROLE_OID, "1");
+		when(repository.getObject(eq(RoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class)))
+				.thenReturn(role);
+
+		assertTrue("AbstractRoleType not supported", globalCache.supports(AbstractRoleType.class));
+		assertTrue("RoleType not supported", globalCache.supports(RoleType.class));
+		assertTrue("ObjectType not supported", globalCache.supports(ObjectType.class));
+		repositoryCache.getObject(RoleType.class, ROLE_OID, null, result);
+		PrismObject<AbstractRoleType> asAbstractRole = repositoryCache.getObject(AbstractRoleType.class, ROLE_OID, null, result);
+		PrismObject<ObjectType> asObject = repositoryCache.getObject(ObjectType.class, ROLE_OID, null, result);
+
+		verify(repository, times(1)).getObject(eq(RoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class));
+		verify(repository, never()).getObject(eq(AbstractRoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class));
+		verify(repository, never()).getObject(eq(ObjectType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class));
+		assertEquals("Wrong object retrieved as AbstractRoleType", role, asAbstractRole);
+		assertEquals("Wrong object retrieved as ObjectType", role, asObject);
+	}
+
+	/**
+	 * A cached object must not be returned when asked for an incompatible type.
+	 */
+	@Test
+	public void test130IncompatibleTypeNotReturned() throws Exception {
+		configure("AbstractRoleType", 60);
+		PrismObject<RoleType> role = createObject(RoleType.class, ROLE_OID, "1");
+		when(repository.getObject(eq(RoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class)))
+				.thenReturn(role);
+		repositoryCache.getObject(RoleType.class, ROLE_OID, null, result);
+
+		repositoryCache.getObject(OrgType.class, ROLE_OID, null, result);
+
+		verify(repository, times(1)).getObject(eq(OrgType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class));
+	}
+
+	@Test
+	public void test200ModifyInvalidates() throws Exception {
+		configure("RoleType", 60);
+		PrismObject<RoleType> role = createObject(RoleType.class, ROLE_OID, "1");
+		when(repository.getObject(eq(RoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class)))
+				.thenReturn(role);
+		repositoryCache.getObject(RoleType.class, ROLE_OID, null, result);
+
+		repositoryCache.modifyObject(RoleType.class, ROLE_OID, Collections.emptyList(), result);
+		repositoryCache.getObject(RoleType.class, ROLE_OID, null, result);
+
+		verify(repository, times(2)).getObject(eq(RoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class));
+	}
+
+	/**
+	 * The object is modified (and hence invalidated) while it is being read. The version that was read
+	 * must not be stored in the cache, as it may be the old one.
+	 */
+	@Test
+	public void test210InvalidatedWhileReading() throws Exception {
+		configure("RoleType", 60);
+		PrismObject<RoleType> oldRole = createObject(RoleType.class, ROLE_OID, "1");
+		PrismObject<RoleType> newRole = createObject(RoleType.class, ROLE_OID, "2");
+		when(repository.getObject(eq(RoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class)))
+				.then(invocation -> {
+					// other thread modifies the object after we have read it, but before we put it into the cache
+					repositoryCache.modifyObject(RoleType.class, ROLE_OID, Collections.emptyList(), result);
+					return oldRole;
+				})
+				.thenReturn(newRole);
+
+		PrismObject<RoleType> first = repositoryCache.getObject(RoleType.class, ROLE_OID, null, result);
+		PrismObject<RoleType> second = repositoryCache.getObject(RoleType.class, ROLE_OID, null, result);
+		PrismObject<RoleType> third = repositoryCache.getObject(RoleType.class, ROLE_OID, null, result);
+
+		verify(repository, times(2)).getObject(eq(RoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class));
+		assertEquals("Wrong first version", "1", first.getVersion());
+		assertEquals("Old version was cached", "2", second.getVersion());
+		assertEquals("New version was not cached", "2", third.getVersion());
+	}
+
+	@Test
+	public void test220OlderVersionDoesNotReplaceNewer() throws Exception {
+		configure("RoleType", 60);
+		GlobalCache.InvalidationStamp invalidations = globalCache.getInvalidationStamp();
+		assertTrue("Newer version not stored", globalCache.put(createObject(RoleType.class, ROLE_OID, "5"), invalidations));
+
+		assertTrue("Older version stored", !globalCache.put(createObject(RoleType.class, ROLE_OID, "4"), invalidations));
+
+		assertEquals("Wrong cached version", "5", globalCache.get(RoleType.class, ROLE_OID).object.getVersion());
+	}
+
+	/**
+	 * Invalidations of objects that cannot be cached, or of other OIDs, must not prevent caching of the object being read.
+	 */
+	@Test
+	public void test230UnrelatedInvalidationsDoNotPreventCaching() throws Exception {
+		configure("RoleType", 60);
+		PrismObject<RoleType> role = createObject(RoleType.class, ROLE_OID, "1");
+		String otherRoleOid = findOidInOtherStripe(ROLE_OID);
+		when(repository.getObject(eq(RoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class)))
+				.then(invocation -> {
+					// other threads modify a user and another role while we are reading
+					repositoryCache.modifyObject(UserType.class, USER_OID, Collections.emptyList(), result);
+					repositoryCache.modifyObject(RoleType.class, otherRoleOid, Collections.emptyList(), result);
+					globalCache.invalidate(UserType.class, USER_OID, null, true);
+					return role;
+				});
+
+		repositoryCache.getObject(RoleType.class, ROLE_OID, null, result);
+		repositoryCache.getObject(RoleType.class, ROLE_OID, null, result);
+
+		verify(repository, times(1)).getObject(eq(RoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class));
+	}
+
+	/**
+	 * Expired entry is kept if the version in repository is the same, and re-read if it is not.
+	 */
+	@Test
+	public void test300ExpiredEntryVersionCheck() throws Exception {
+		configure("RoleType", 0);
+		PrismObject<RoleType> role = createObject(RoleType.class, ROLE_OID, "1");
+		PrismObject<RoleType> newRole = createObject(RoleType.class, ROLE_OID, "2");
+		when(repository.getObject(eq(RoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class)))
+				.thenReturn(role)
+				.thenReturn(newRole);
+		when(repository.getVersion(eq(RoleType.class), eq(ROLE_OID), any(OperationResult.class)))
+				.thenReturn("1")
+				.thenReturn("2");
+
+		repositoryCache.getObject(RoleType.class, ROLE_OID, null, result);
+		PrismObject<RoleType> sameVersion = repositoryCache.getObject(RoleType.class, ROLE_OID, null, result);
+		verify(repository, times(1)).getObject(eq(RoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class));
+		assertEquals("Wrong version", "1", sameVersion.getVersion());
+
+		PrismObject<RoleType> changedVersion = repositoryCache.getObject(RoleType.class, ROLE_OID, null, result);
+		verify(repository, times(2)).getObject(eq(RoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class));
+		assertEquals("Wrong version", "2", changedVersion.getVersion());
+	}
+
+	private String findOidInOtherStripe(String oid) {
+		for (int i = 0; ; i++) {
+			String candidate = String.format("7b5b3a2c-1d6e-11e8-9b3e-%012d", i);
+			if (GlobalCache.getStripe(candidate) != GlobalCache.getStripe(oid)) {
+				return candidate;
+			}
+		}
+	}
+
+	private void configure(String typeName, long timeToLive) {
+		BaseConfiguration configuration = new BaseConfiguration();
+		configuration.setProperty(GlobalCache.CONFIGURATION_GLOBAL_CACHE + "." + typeName + "." + GlobalCache.PROPERTY_MAX_SIZE, 10);
+		configuration.setProperty(GlobalCache.CONFIGURATION_GLOBAL_CACHE + "." + typeName + "." + GlobalCache.PROPERTY_TIME_TO_LIVE, timeToLive);
+		globalCache.configure(configuration);
+	}
+
+	private <O extends ObjectType> PrismObject<O> createObject(Class<O> type, String oid, String version) throws Exception {
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		PrismObject<O> object = prismContext.createObject(type);
+		object.setOid(oid);
+		object.asObjectable().setName(new PolyStringType(type.getSimpleName() + "-" + version));
+		object.asObjectable().setVersion(version);
+		return object;
+	}
+}
@@ -114,6 +114,8 @@ public class TestSqlRepositoryFactory extends SqlRepositoryFactory {
         updateConfigurationBooleanProperty(configuration, properties, PROPERTY_USE_ZIP);
         updateConfigurationIntegerProperty(configuration, properties, PROPERTY_MIN_POOL_SIZE);
         updateConfigurationIntegerProperty(configuration, properties, PROPERTY_MAX_POOL_SIZE);
+
+        updateConfigurationBooleanProperty(configuration, properties, PROPERTY_PARTIAL_UPDATES);
     }
 
     private void updateConfigurationIntegerProperty(Configuration configuration, Properties properties, String propertyName) {
@@ -20,6 +20,7 @@ import com.evolveum.midpoint.audit.api.AuditEventRecord;
 import com.evolveum.midpoint.audit.api.AuditReferenceValue;
 import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.repo.sql.helpers.AuditBatchWriter;
 import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
 import com.evolveum.midpoint.repo.sql.util.SimpleTaskAdapter;
 import com.evolveum.midpoint.util.exception.SystemException;
@@ -29,6 +30,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 import org.hibernate.Query;
 import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.testng.annotations.Test;
@@ -36,6 +38,8 @@ import org.testng.annotations.Test;
 import java.util.*;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
 
 /**
  * @author mederly
@@ -46,6 +50,8 @@ public class AuditTest extends BaseSQLRepoTest {
 
     private static final Trace LOGGER = TraceManager.getTrace(AuditTest.class);
 
+    @Autowired private AuditBatchWriter auditBatchWriter;
+
     @Test
     public void test100AuditSimple() throws Exception {
         LOGGER.info("===[ test100AuditSimple ]===");
@@ -105,6 +111,58 @@ public class AuditTest extends BaseSQLRepoTest {
 		assertEquals("Wrong # of references", 0, loaded.getReferences().size());
 	}
 
+	@Test
+	public void test120AuditAsynchronous() throws Exception {
+		LOGGER.info("===[ test120AuditAsynchronous ]===");
+		final int COUNT = 10;
+
+		baseHelper.getConfiguration().setAuditAsynchronous(true);
+		try {
+			// WHEN
+			for (int i = 0; i < COUNT; i++) {
+				AuditEventRecord record = new AuditEventRecord();
+				record.addPropertyValue("prop", "async-" + i);
+				auditService.audit(record, new SimpleTaskAdapter());
+			}
+
+			// THEN
+			assertTrue("Audit records were not written in time", auditBatchWriter.flush(10000L));
+			AuditEventRecord loaded = getAuditEventRecord(2 + COUNT, 2 + COUNT - 1);
+			assertEquals("Wrong prop values", new HashSet<>(Collections.singletonList("async-" + (COUNT - 1))),
+					loaded.getPropertyValues("prop"));
+			assertEquals("Wrong # of written records", COUNT, auditBatchWriter.getRecordsWritten());
+			assertEquals("Wrong # of failed records", 0, auditBatchWriter.getRecordsFailed());
+			assertFalse("Audit writer is failing", auditBatchWriter.isFailing());
+		} finally {
+			baseHelper.getConfiguration().setAuditAsynchronous(false);
+		}
+	}
+
+	/**
+	 * The record is stored as it was when audit() was called, even if the caller changes it afterwards.
+	 */
+	@Test
+	public void test130AuditAsynchronousRecordChanged() throws Exception {
+		LOGGER.info("===[ test130AuditAsynchronousRecordChanged ]===");
+
+		baseHelper.getConfiguration().setAuditAsynchronous(true);
+		try {
+			// WHEN
+			AuditEventRecord record = new AuditEventRecord();
+			record.addPropertyValue("prop", "original");
+			auditService.audit(record, new SimpleTaskAdapter());
+			record.addPropertyValue("prop", "changed");
+
+			// THEN
+			assertTrue("Audit record was not written in time", auditBatchWriter.flush(10000L));
+			AuditEventRecord loaded = getAuditEventRecord(2 + 10 + 1, 2 + 10);
+			assertEquals("Wrong prop values", new HashSet<>(Collections.singletonList("original")),
+					loaded.getPropertyValues("prop"));
+		} finally {
+			baseHelper.getConfiguration().setAuditAsynchronous(false);
+		}
+	}
+
 	private AuditEventRecord getAuditEventRecord(int expectedCount, int index) {
 		Session session = getFactory().openSession();
 		try {
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Tests for multi-object repository operations (addObjects, modifyObjects).
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class BatchAddModifyTest extends BaseSQLRepoTest {
+
+    private static final Trace LOGGER = TraceManager.getTrace(BatchAddModifyTest.class);
+
+    private static final int USERS = 10;
+    private static final String NONEXISTENT_OID = "9ba2da40-3f6e-11e7-8d09-a3c2bd1da6fd";
+
+    private static final int CHUNK_USERS = 8;
+
+    private final List<String> oids = new ArrayList<>();
+    private final List<String> chunkOids = new ArrayList<>();
+
+    @Test
+    public void test100AddUsers() throws Exception {
+        OperationResult result = new OperationResult("test100AddUsers");
+
+        List<PrismObject<? extends ObjectType>> users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            users.add(new UserType(prismContext).name("batch-" + i).asPrismObject());
+        }
+        List<String> addedOids = repositoryService.addObjects(users, null, result);
+        OperationResult batchResult = result.getLastSubresult();
+        result.computeStatus();
+        LOGGER.info("Result:\n{}", result.debugDump());
+
+        assertEquals("Wrong # of OIDs", USERS, addedOids.size());
+        for (int i = 0; i < USERS; i++) {
+            assertNotNull("No OID for user #" + i, addedOids.get(i));
+            assertEquals("Wrong OID in user #" + i, addedOids.get(i), users.get(i).getOid());
+            assertTrue("Result for user #" + i + " is not success", getItemResult(batchResult, i).isSuccess());
+            PrismObject<UserType> user = repositoryService.getObject(UserType.class, addedOids.get(i), null, result);
+            assertEquals("Wrong name", "batch-" + i, user.asObjectable().getName().getOrig());
+        }
+        assertTrue("Result is not success", result.isSuccess());
+        oids.addAll(addedOids);
+    }
+
+    @Test
+    public void test110AddUsersWithConflict() throws Exception {
+        OperationResult result = new OperationResult("test110AddUsersWithConflict");
+
+        List<PrismObject<? extends ObjectType>> users = new ArrayList<>();
+        users.add(new UserType(prismContext).name("batch-conflict-0").asPrismObject());
+        users.add(new UserType(prismContext).name("batch-0").asPrismObject());         // already exists
+        users.add(new UserType(prismContext).name("batch-conflict-2").asPrismObject());
+        List<String> addedOids = repositoryService.addObjects(users, null, result);
+        OperationResult batchResult = result.getLastSubresult();
+        result.computeStatus();
+        LOGGER.info("Result:\n{}", result.debugDump());
+
+        assertNotNull("No OID for user #0", addedOids.get(0));
+        assertNull("Conflicting user was added", addedOids.get(1));
+        assertNotNull("No OID for user #2", addedOids.get(2));
+        assertTrue("Result for user #0 is not success", getItemResult(batchResult, 0).isSuccess());
+        assertTrue("Result for user #1 is not fatal error", getItemResult(batchResult, 1).isFatalError());
+        assertTrue("Result for user #2 is not success", getItemResult(batchResult, 2).isSuccess());
+
+        assertEquals("Wrong # of users", USERS + 2, repositoryService.countObjects(UserType.class, null, null, result));
+    }
+
+    /**
+     * Small transactions and JDBC batches, so that the objects are split into several transactions, each of them
+     * flushed more than once. User #4 conflicts on the name (detected only on flush, so its whole transaction
+     * is retried one by one), user #6 on the OID (detected by the up-front check).
+     */
+    @Test
+    public void test120AddUsersInChunks() throws Exception {
+        OperationResult result = new OperationResult("test120AddUsersInChunks");
+
+        List<PrismObject<? extends ObjectType>> users = new ArrayList<>();
+        for (int i = 0; i < CHUNK_USERS; i++) {
+            users.add(new UserType(prismContext).name("chunk-" + i).asPrismObject());
+        }
+        users.set(4, new UserType(prismContext).name("batch-1").asPrismObject());
+        users.get(6).setOid(oids.get(2));
+
+        List<String> addedOids = withSmallBatches(() -> repositoryService.addObjects(users, null, result));
+        OperationResult batchResult = result.getLastSubresult();
+        result.computeStatus();
+        LOGGER.info("Result:\n{}", result.debugDump());
+
+        for (int i = 0; i < CHUNK_USERS; i++) {
+            if (i == 4 || i == 6) {
+                assertNull("Conflicting user #" + i + " was added", addedOids.get(i));
+                assertTrue("Result for user #" + i + " is not fatal error", getItemResult(batchResult, i).isFatalError());
+            } else {
+                assertNotNull("No OID for user #" + i, addedOids.get(i));
+                assertTrue("Result for user #" + i + " is not success", getItemResult(batchResult, i).isSuccess());
+                PrismObject<UserType> user = repositoryService.getObject(UserType.class, addedOids.get(i), null, result);
+                assertEquals("Wrong name", "chunk-" + i, user.asObjectable().getName().getOrig());
+                chunkOids.add(addedOids.get(i));
+            }
+        }
+        assertEquals("User #2 was overwritten", "batch-2",
+                repositoryService.getObject(UserType.class, oids.get(2), null, result).asObjectable().getName().getOrig());
+        assertEquals("Wrong # of users", USERS + 2 + CHUNK_USERS - 2,
+                repositoryService.countObjects(UserType.class, null, null, result));
+    }
+
+    @Test
+    public void test200ModifyUsers() throws Exception {
+        OperationResult result = new OperationResult("test200ModifyUsers");
+
+        List<ObjectDelta<? extends ObjectType>> deltas = new ArrayList<>();
+        for (String oid : oids) {
+            deltas.add(createFullNameDelta(oid));
+        }
+        deltas.add(createFullNameDelta(NONEXISTENT_OID));
+        repositoryService.modifyObjects(deltas, null, result);
+        OperationResult batchResult = result.getLastSubresult();
+        result.computeStatus();
+        LOGGER.info("Result:\n{}", result.debugDump());
+
+        for (int i = 0; i < oids.size(); i++) {
+            assertTrue("Result for user #" + i + " is not success", getItemResult(batchResult, i).isSuccess());
+            PrismObject<UserType> user = repositoryService.getObject(UserType.class, oids.get(i), null, result);
+            assertEquals("Wrong full name", "Full " + oids.get(i), user.asObjectable().getFullName().getOrig());
+            assertEquals("Wrong version", "1", user.getVersion());
+        }
+        assertTrue("Result for nonexistent user is not fatal error", getItemResult(batchResult, oids.size()).isFatalError());
+    }
+
+    /**
+     * Renaming user #3 to an existing name fails on flush; its transaction is rolled back and retried one by one.
+     * No delta may be applied twice.
+     */
+    @Test
+    public void test210ModifyUsersInChunks() throws Exception {
+        OperationResult result = new OperationResult("test210ModifyUsersInChunks");
+
+        List<ObjectDelta<? extends ObjectType>> deltas = new ArrayList<>();
+        for (String oid : chunkOids) {
+            deltas.add(createFullNameDelta(oid));
+        }
+        deltas.set(3, DeltaBuilder.deltaFor(UserType.class, prismContext)
+                .item(UserType.F_NAME).replace(new PolyString("batch-3"))
+                .asObjectDeltaCast(chunkOids.get(3)));
+
+        withSmallBatches(() -> {
+            repositoryService.modifyObjects(deltas, null, result);
+            return null;
+        });
+        OperationResult batchResult = result.getLastSubresult();
+        result.computeStatus();
+        LOGGER.info("Result:\n{}", result.debugDump());
+
+        for (int i = 0; i < chunkOids.size(); i++) {
+            PrismObject<UserType> user = repositoryService.getObject(UserType.class, chunkOids.get(i), null, result);
+            if (i == 3) {
+                assertTrue("Result for user #3 is not fatal error", getItemResult(batchResult, i).isFatalError());
+                assertEquals("Wrong version", "0", user.getVersion());
+            } else {
+                assertTrue("Result for user #" + i + " is not success", getItemResult(batchResult, i).isSuccess());
+                assertEquals("Wrong full name", "Full " + chunkOids.get(i), user.asObjectable().getFullName().getOrig());
+                assertEquals("Wrong version", "1", user.getVersion());
+            }
+        }
+    }
+
+    /**
+     * The delta in the middle of the batch points to a non-existing object. The batch must not be committed
+     * with the other deltas; they are executed one by one instead, each of them exactly once.
+     */
+    @Test
+    public void test220ModifyUsersWithMissingObject() throws Exception {
+        OperationResult result = new OperationResult("test220ModifyUsersWithMissingObject");
+
+        List<ObjectDelta<? extends ObjectType>> deltas = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            deltas.add(DeltaBuilder.deltaFor(UserType.class, prismContext)
+                    .item(UserType.F_GIVEN_NAME).replace(new PolyString("Given " + i))
+                    .asObjectDeltaCast(oids.get(i)));
+        }
+        String missingOid = UUID.randomUUID().toString();
+        deltas.set(1, DeltaBuilder.deltaFor(UserType.class, prismContext)
+                .item(UserType.F_GIVEN_NAME).replace(new PolyString("Given 1"))
+                .asObjectDeltaCast(missingOid));
+
+        repositoryService.modifyObjects(deltas, null, result);
+        OperationResult batchResult = result.getLastSubresult();
+        result.computeStatus();
+        LOGGER.info("Result:\n{}", result.debugDump());
+
+        for (int i = 0; i < 3; i++) {
+            if (i == 1) {
+                assertTrue("Result for missing user is not fatal error", getItemResult(batchResult, i).isFatalError());
+                PrismObject<UserType> user = repositoryService.getObject(UserType.class, oids.get(i), null, result);
+                assertNull("Given name was set", user.asObjectable().getGivenName());
+                assertEquals("Wrong version", "1", user.getVersion());
+            } else {
+                PrismObject<UserType> user = repositoryService.getObject(UserType.class, oids.get(i), null, result);
+                assertTrue("Result for user #" + i + " is not success", getItemResult(batchResult, i).isSuccess());
+                assertEquals("Wrong given name", "Given " + i, user.asObjectable().getGivenName().getOrig());
+                assertEquals("Wrong version", "2", user.getVersion());
+            }
+        }
+    }
+
+    private interface RepositoryCall<T> {
+        T call() throws Exception;
+    }
+
+    private <T> T withSmallBatches(RepositoryCall<T> call) throws Exception {
+        SqlRepositoryConfiguration config = baseHelper.getConfiguration();
+        int batchTransactionSize = config.getBatchTransactionSize();
+        int jdbcBatchSize = config.getJdbcBatchSize();
+        config.setBatchTransactionSize(3);
+        config.setJdbcBatchSize(2);
+        try {
+            return call.call();
+        } finally {
+            config.setBatchTransactionSize(batchTransactionSize);
+            config.setJdbcBatchSize(jdbcBatchSize);
+        }
+    }
+
+    private ObjectDelta<UserType> createFullNameDelta(String oid) throws Exception {
+        return DeltaBuilder.deltaFor(UserType.class, prismContext)
+                .item(UserType.F_FULL_NAME).replace(new PolyString("Full " + oid))
+                .asObjectDeltaCast(oid);
+    }
+
+    private OperationResult getItemResult(OperationResult batchResult, int index) {
+        return batchResult.getSubresults().get(index);
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheInvalidationChannel;
+import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.repo.sql.data.common.RCacheInvalidation;
+import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
+import com.evolveum.midpoint.repo.sql.helpers.DatabaseCacheInvalidationChannel;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.hibernate.Session;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Simulates two cluster nodes, each with its own cache invalidation channel and cache dispatcher,
+ * sharing one database.
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class CacheInvalidationTest extends BaseSQLRepoTest {
+
+    private static final Trace LOGGER = TraceManager.getTrace(CacheInvalidationTest.class);
+
+    private static final long POLLING_INTERVAL = 200L;
+    private static final long WAIT_TIMEOUT = 10000L;
+    private static final int BATCH_EVENTS = 1000;
+    private static final String INVALIDATE_ALL = "*";
+
+    @Autowired
+    private CacheDispatcher cacheDispatcher;
+
+    private RecordingDispatcher dispatcherA;
+    private RecordingDispatcher dispatcherB;
+    private DatabaseCacheInvalidationChannel channelA;
+    private DatabaseCacheInvalidationChannel channelB;
+
+    @Override
+    public void initSystem() throws Exception {
+        super.initSystem();
+        baseHelper.getConfiguration().setCacheInvalidationPollingInterval(POLLING_INTERVAL);
+        baseHelper.getConfiguration().setCacheInvalidationTypes("SystemConfigurationType, AbstractRoleType");
+
+        dispatcherA = new RecordingDispatcher();
+        dispatcherB = new RecordingDispatcher();
+        channelA = createChannel(dispatcherA);
+        channelB = createChannel(dispatcherB);
+    }
+
+    private DatabaseCacheInvalidationChannel createChannel(RecordingDispatcher dispatcher) {
+        DatabaseCacheInvalidationChannel channel = new DatabaseCacheInvalidationChannel();
+        applicationContext.getAutowireCapableBeanFactory().autowireBean(channel);
+        channel.setCacheDispatcher(dispatcher);
+        channel.start();
+        return channel;
+    }
+
+    @AfterClass
+    public void stopChannels() {
+        if (channelA != null) {
+            channelA.stop();
+        }
+        if (channelB != null) {
+            channelB.stop();
+        }
+        baseHelper.getConfiguration().setCacheInvalidationPollingInterval(0L);
+    }
+
+    @Test
+    public void test100PublishedToOtherNode() throws Exception {
+        dispatcherA.clear();
+        dispatcherB.clear();
+
+        channelA.publish(SystemConfigurationType.class, "oid-100", "3");
+
+        waitFor("event on node B", () -> dispatcherB.getReceived().size() == 1);
+        assertEquals(Collections.singletonList("SystemConfigurationType:oid-100:3"), dispatcherB.getReceived());
+        Thread.sleep(3 * POLLING_INTERVAL);
+        assertEquals("Node received its own event", Collections.emptyList(), dispatcherA.getReceived());
+    }
+
+    /**
+     * Events published in quick succession are written in batches; none of them may be lost
+     * and they have to arrive in order.
+     */
+    @Test
+    public void test110ManyEvents() throws Exception {
+        dispatcherB.clear();
+        List<String> expected = new ArrayList<>();
+
+        for (int i = 0; i < BATCH_EVENTS; i++) {
+            channelA.publish(RoleType.class, "oid-110-" + i, String.valueOf(i));
+            expected.add("RoleType:oid-110-" + i + ":" + i);
+        }
+
+        waitFor("events on node B", () -> dispatcherB.getReceived().size() >= BATCH_EVENTS);
+        assertEquals(expected, dispatcherB.getReceived());
+    }
+
+    /**
+     * Only configured types and their subtypes are published. In particular, an abstract type
+     * must not be published, as it would invalidate all cached objects on the other node.
+     */
+    @Test
+    public void test120IrrelevantTypes() throws Exception {
+        dispatcherB.clear();
+
+        channelA.publish(ObjectType.class, "oid-120-object", null);
+        channelA.publish(UserType.class, "oid-120-user", "1");
+        channelA.publish(RoleType.class, "oid-120-role", null);
+
+        waitFor("event on node B", () -> dispatcherB.getReceived().size() == 1);
+        Thread.sleep(3 * POLLING_INTERVAL);
+        assertEquals(Collections.singletonList("RoleType:oid-120-role:null"), dispatcherB.getReceived());
+    }
+
+    /**
+     * A record that was committed after the other node polled, but stamped (by the database clock)
+     * before that poll, must not be lost.
+     */
+    @Test
+    public void test130LateCommit() throws Exception {
+        Thread.sleep(3 * POLLING_INTERVAL);
+        dispatcherB.clear();
+
+        Session session = open();
+        session.save(new RCacheInvalidation(channelA.getNodeIdentifier(), RObjectType.ROLE, "oid-130", "1",
+                new Timestamp(System.currentTimeMillis() - 5 * POLLING_INTERVAL)));
+        close(session);
+
+        waitFor("event on node B", () -> dispatcherB.getReceived().size() == 1);
+        assertEquals(Collections.singletonList("RoleType:oid-130:1"), dispatcherB.getReceived());
+    }
+
+    /**
+     * A node that lost some of its events publishes a marker asking others to invalidate everything.
+     */
+    @Test
+    public void test140InvalidateAllMarker() throws Exception {
+        Thread.sleep(3 * POLLING_INTERVAL);
+        dispatcherB.clear();
+
+        RCacheInvalidation marker = RCacheInvalidation.createInvalidateAllMarker(channelA.getNodeIdentifier());
+        marker.setTimestamp(new Timestamp(System.currentTimeMillis()));
+        Session session = open();
+        session.save(marker);
+        close(session);
+
+        waitFor("event on node B", () -> dispatcherB.getReceived().size() == 1);
+        assertEquals(Collections.singletonList(INVALIDATE_ALL), dispatcherB.getReceived());
+    }
+
+    /**
+     * Events for the same object waiting to be published are merged; the latest version has to arrive last.
+     */
+    @Test
+    public void test150RepeatedEvents() throws Exception {
+        dispatcherB.clear();
+
+        for (int i = 0; i < BATCH_EVENTS; i++) {
+            channelA.publish(RoleType.class, "oid-150", String.valueOf(i));
+        }
+        String last = "RoleType:oid-150:" + (BATCH_EVENTS - 1);
+
+        waitFor("last event on node B", () -> dispatcherB.getReceived().contains(last));
+        List<String> received = dispatcherB.getReceived();
+        assertEquals("Events received after the last one: " + received, last, received.get(received.size() - 1));
+    }
+
+    /**
+     * The repository has to dispatch the concrete type of a deleted object, even if the caller
+     * deletes it as a generic ObjectType.
+     */
+    @Test
+    public void test200DeleteDispatchesConcreteType() throws Exception {
+        OperationResult result = new OperationResult("test200DeleteDispatchesConcreteType");
+        RoleType role = new RoleType(prismContext);
+        role.setName(new PolyStringType("role-200"));
+        PrismObject<RoleType> rolePrism = role.asPrismObject();
+        String oid = repositoryService.addObject(rolePrism, null, result);
+
+        List<String> dispatched = Collections.synchronizedList(new ArrayList<>());
+        CacheListener listener = new CacheListener() {
+            @Override
+            public <O extends ObjectType> void invalidate(@NotNull Class<O> type, @NotNull String changedOid,
+                    @Nullable String version, boolean clusterwide) {
+                if (oid.equals(changedOid)) {
+                    dispatched.add(type.getSimpleName());
+                }
+            }
+
+            @Override
+            public void invalidateAll(boolean clusterwide) {
+                dispatched.add(INVALIDATE_ALL);
+            }
+        };
+        cacheDispatcher.registerCacheListener(listener);
+        try {
+            repositoryService.deleteObject(ObjectType.class, oid, result);
+        } finally {
+            cacheDispatcher.unregisterCacheListener(listener);
+        }
+
+        assertEquals(Collections.singletonList("RoleType"), dispatched);
+    }
+
+    private void waitFor(String description, Supplier<Boolean> condition) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (!condition.get()) {
+            assertTrue("Timed out waiting for " + description, System.currentTimeMillis() - start < WAIT_TIMEOUT);
+            Thread.sleep(50);
+        }
+        LOGGER.info("Waited {} ms for {}", System.currentTimeMillis() - start, description);
+    }
+
+    /**
+     * Cache dispatcher of a simulated node: passes local events to the node's channels and records remote ones.
+     */
+    private static class RecordingDispatcher implements CacheDispatcher {
+
+        private final List<CacheInvalidationChannel> channels = new ArrayList<>();
+        private final List<String> received = new ArrayList<>();
+
+        @Override
+        public void registerCacheListener(CacheListener listener) {
+        }
+
+        @Override
+        public void unregisterCacheListener(CacheListener listener) {
+        }
+
+        @Override
+        public synchronized void registerInvalidationChannel(CacheInvalidationChannel channel) {
+            channels.add(channel);
+        }
+
+        @Override
+        public synchronized void unregisterInvalidationChannel(CacheInvalidationChannel channel) {
+            channels.remove(channel);
+        }
+
+        @Override
+        public <O extends ObjectType> void dispatch(@NotNull Class<O> type, @NotNull String oid, @Nullable String version) {
+            for (CacheInvalidationChannel channel : getChannels()) {
+                channel.publish(type, oid, version);
+            }
+        }
+
+        @Override
+        public synchronized <O extends ObjectType> void dispatchRemote(@NotNull Class<O> type, @NotNull String oid,
+                @Nullable String version) {
+            received.add(type.getSimpleName() + ":" + oid + ":" + version);
+        }
+
+        @Override
+        public synchronized void dispatchRemoteInvalidateAll() {
+            received.add(INVALIDATE_ALL);
+        }
+
+        private synchronized List<CacheInvalidationChannel> getChannels() {
+            return new ArrayList<>(channels);
+        }
+
+        synchronized List<String> getReceived() {
+            return new ArrayList<>(received);
+        }
+
+        synchronized void clear() {
+            received.clear();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
+import com.evolveum.midpoint.repo.sql.helpers.FullTextIndexHelper;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Full text search using the embedded (on-disk) index.
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class FullTextIndexTest extends BaseSQLRepoTest {
+
+    private static final Trace LOGGER = TraceManager.getTrace(FullTextIndexTest.class);
+
+    private static final File INDEX_DIRECTORY = new File("target/fulltext-index-test");
+
+    private String aliceOid;
+    private String bobOid;
+    private String adminsOid;
+    private String carolOid;
+    private String daveOid;
+
+    @Autowired private FullTextIndexHelper fullTextIndexHelper;
+
+    @BeforeClass
+    public void beforeClass() throws Exception {
+        super.beforeClass();
+
+        FileUtils.deleteDirectory(INDEX_DIRECTORY);
+        baseHelper.getConfiguration().setFullTextIndexDirectory(INDEX_DIRECTORY.getAbsolutePath());
+
+        FullTextSearchConfigurationType fullTextConfig = new FullTextSearchConfigurationType();
+        FullTextSearchIndexedItemsConfigurationType entry = new FullTextSearchIndexedItemsConfigurationType();
+        entry.getItem().add(new ItemPath(ObjectType.F_NAME).asItemPathType());
+        entry.getItem().add(new ItemPath(ObjectType.F_DESCRIPTION).asItemPathType());
+        fullTextConfig.getIndexed().add(entry);
+        fullTextConfig.setProvider(FullTextSearchProviderType.EMBEDDED_INDEX);
+        repositoryService.applyFullTextSearchConfiguration(fullTextConfig);
+        LOGGER.info("Applying full text search configuration: {}", fullTextConfig);
+
+        OperationResult result = new OperationResult("add objects");
+        aliceOid = repositoryService.addObject(new UserType(prismContext)
+                .name("fti-alice")
+                .description("Lorem ipsum dolor")
+                .asPrismObject(), null, result);
+        bobOid = repositoryService.addObject(new UserType(prismContext)
+                .name("fti-bob")
+                .description("Ipsum sit amet")
+                .asPrismObject(), null, result);
+        adminsOid = repositoryService.addObject(new RoleType(prismContext)
+                .name("fti-admins")
+                .description("Dolor")
+                .asPrismObject(), null, result);
+        result.recomputeStatus();
+        assertTrue(result.isSuccess());
+    }
+
+    @Test
+    public void test100SearchWords() throws Exception {
+        OperationResult result = new OperationResult("test100SearchWords");
+
+        assertFound(UserType.class, "ipsum", result, aliceOid, bobOid);
+        assertFound(UserType.class, "IPS", result, aliceOid, bobOid);
+        assertFound(UserType.class, "lorem ipsum", result, aliceOid);
+        assertFound(UserType.class, "fti-bob", result, bobOid);
+        assertFound(UserType.class, "dolor", result, aliceOid);
+        assertFound(ObjectType.class, "dolor", result, aliceOid, adminsOid);
+        assertFound(UserType.class, "nonexistent", result);
+    }
+
+    @Test
+    public void test110CombinedWithOtherFilter() throws Exception {
+        OperationResult result = new OperationResult("test110CombinedWithOtherFilter");
+
+        ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                .fullText("ipsum")
+                .and().item(UserType.F_NAME).eqPoly("fti-bob").matchingOrig()
+                .build();
+        assertOids(repositoryService.searchObjects(UserType.class, query, null, result), bobOid);
+    }
+
+    @Test
+    public void test120Modify() throws Exception {
+        OperationResult result = new OperationResult("test120Modify");
+
+        repositoryService.modifyObject(UserType.class, bobOid,
+                DeltaBuilder.deltaFor(UserType.class, prismContext)
+                        .item(UserType.F_DESCRIPTION).replace("Consectetur adipiscing")
+                        .asItemDeltas(),
+                result);
+
+        assertFound(UserType.class, "ipsum", result, aliceOid);
+        assertFound(UserType.class, "consect", result, bobOid);
+    }
+
+    @Test
+    public void test130Delete() throws Exception {
+        OperationResult result = new OperationResult("test130Delete");
+
+        repositoryService.deleteObject(UserType.class, aliceOid, result);
+
+        assertFound(UserType.class, "lorem", result);
+        assertFound(ObjectType.class, "dolor", result, adminsOid);
+    }
+
+    @Test
+    public void test140Ranking() throws Exception {
+        OperationResult result = new OperationResult("test140Ranking");
+
+        carolOid = repositoryService.addObject(new UserType(prismContext)
+                .name("fti-carol")
+                .description("Ranking")
+                .asPrismObject(), null, result);
+        daveOid = repositoryService.addObject(new UserType(prismContext)
+                .name("fti-dave")
+                .description("Rank rank")
+                .asPrismObject(), null, result);
+
+        ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                .fullText("rank")
+                .build();
+        List<PrismObject<UserType>> users = repositoryService.searchObjects(UserType.class, query, null, result);
+        assertEquals("Wrong objects found (or wrong order)", Arrays.asList(daveOid, carolOid), getOids(users));
+    }
+
+    @Test
+    public void test150TooManyHits() throws Exception {
+        OperationResult result = new OperationResult("test150TooManyHits");
+
+        int maxHits = baseHelper.getConfiguration().getFullTextIndexMaxHits();
+        baseHelper.getConfiguration().setFullTextIndexMaxHits(1);
+        try {
+            // words stored in the repository are searched instead of the index
+            assertFound(UserType.class, "rank", result, carolOid, daveOid);
+            assertFound(UserType.class, "ranking", result, carolOid);
+        } finally {
+            baseHelper.getConfiguration().setFullTextIndexMaxHits(maxHits);
+        }
+    }
+
+    @Test
+    public void test160ConcurrentModifications() throws Exception {
+        OperationResult result = new OperationResult("test160ConcurrentModifications");
+
+        final int THREADS = 4;
+        final int ITERATIONS = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                String prefix = "concurrent" + (char) ('a' + t);
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        repositoryService.modifyObject(UserType.class, bobOid,
+                                DeltaBuilder.deltaFor(UserType.class, prismContext)
+                                        .item(UserType.F_DESCRIPTION).replace(prefix + (char) ('a' + i))
+                                        .asItemDeltas(),
+                                new OperationResult("modify"));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // the index has to reflect the last committed state of the object
+        String description = repositoryService.getObject(UserType.class, bobOid, null, result).asObjectable().getDescription();
+        LOGGER.info("Final description: {}", description);
+        assertFound(UserType.class, description, result, bobOid);
+        assertFound(UserType.class, "concurrent", result, bobOid);
+        assertFound(UserType.class, "consectetur", result);
+    }
+
+    @Test
+    public void test170ReplayJournal() throws Exception {
+        OperationResult result = new OperationResult("test170ReplayJournal");
+
+        String description = repositoryService.getObject(UserType.class, bobOid, null, result).asObjectable().getDescription();
+
+        // simulating a crash: the index is lost, only the journal of not yet committed changes survived
+        fullTextIndexHelper.close();
+        FileUtils.deleteDirectory(INDEX_DIRECTORY);
+        assertTrue("Index directory could not be created", INDEX_DIRECTORY.mkdirs());
+        Files.write(new File(INDEX_DIRECTORY, FullTextIndexHelper.JOURNAL_FILE_NAME).toPath(),
+                Collections.singletonList(bobOid), StandardCharsets.UTF_8);
+
+        assertFound(UserType.class, description, result, bobOid);
+        assertFound(UserType.class, "rank", result);            // these were not in the journal
+    }
+
+    private <T extends ObjectType> void assertFound(Class<T> type, String text, OperationResult result,
+            String... expectedOids) throws Exception {
+        ObjectQuery query = QueryBuilder.queryFor(type, prismContext)
+                .fullText(text)
+                .build();
+        assertOids(repositoryService.searchObjects(type, query, null, result), expectedOids);
+        assertEquals("Wrong count for '" + text + "'", expectedOids.length,
+                repositoryService.countObjects(type, query, result));
+    }
+
+    private void assertOids(List<? extends PrismObject<?>> objects, String... expectedOids) {
+        Set<String> oids = new HashSet<>(getOids(objects));
+        assertEquals("Wrong objects found", new HashSet<>(Arrays.asList(expectedOids)), oids);
+    }
+
+    private List<String> getOids(List<? extends PrismObject<?>> objects) {
+        List<String> oids = new ArrayList<>();
+        for (PrismObject<?> object : objects) {
+            oids.add(object.getOid());
+        }
+        return oids;
+    }
+}
@@ -24,6 +24,7 @@ import com.evolveum.midpoint.prism.delta.PropertyDelta;
 import com.evolveum.midpoint.prism.delta.ReferenceDelta;
 import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
 import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.util.PrismAsserts;
 import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
@@ -748,6 +749,131 @@ public class ModifyTest extends BaseSQLRepoTest {
         assertEquals("description was not set", "123456", description);
     }
 
+    @Test
+    public void test170ModifyUserPartially() throws Exception {
+        final String TEST_NAME = "test170ModifyUserPartially";
+        TestUtil.displayTestTitle(TEST_NAME);
+        OperationResult result = new OperationResult(TEST_NAME);
+
+        // GIVEN
+        UserType user = new UserType(prismContext)
+                .name("partial")
+                .roleMembershipRef("r-partial-1", RoleType.COMPLEX_TYPE)
+                .roleMembershipRef("r-partial-2", RoleType.COMPLEX_TYPE);
+        String oid = repositoryService.addObject(user.asPrismObject(), null, result);
+
+        // WHEN
+        PrismReferenceValue approverRef = new PrismReferenceValue("r-partial-2", RoleType.COMPLEX_TYPE);
+        approverRef.setRelation(SchemaConstants.ORG_APPROVER);
+        List<ItemDelta<?, ?>> itemDeltas = DeltaBuilder.deltaFor(UserType.class, prismContext)
+                .item(UserType.F_FULL_NAME).replace(new PolyString("Partial User"))
+                .item(UserType.F_ROLE_MEMBERSHIP_REF)
+                    .add(new PrismReferenceValue("r-partial-3", RoleType.COMPLEX_TYPE), approverRef)
+                    .delete(new PrismReferenceValue("r-partial-1", RoleType.COMPLEX_TYPE))
+                .asItemDeltas();
+        modifyObjectPartially(UserType.class, oid, itemDeltas, result);
+
+        // THEN
+        PrismObject<UserType> userAfter = repositoryService.getObject(UserType.class, oid, null, result);
+        assertEquals("Wrong version", "1", userAfter.getVersion());
+        assertEquals("Wrong full name", "Partial User", userAfter.asObjectable().getFullName().getOrig());
+        assertEquals("Wrong # of roleMembershipRefs", 3, userAfter.asObjectable().getRoleMembershipRef().size());
+
+        assertUsersWithRoleMembership("r-partial-1", 0, result);
+        assertUsersWithRoleMembership("r-partial-2", 1, result);
+        assertUsersWithRoleMembership("r-partial-3", 1, result);
+        assertEquals("Wrong # of users with approver membership", 1, repositoryService.searchObjects(UserType.class,
+                QueryBuilder.queryFor(UserType.class, prismContext).item(UserType.F_ROLE_MEMBERSHIP_REF).ref(approverRef.clone()).build(),
+                null, result).size());
+
+        ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                .item(UserType.F_FULL_NAME).eqPoly("Partial User", "partial user").matchingOrig()
+                .build();
+        assertEquals("Wrong # of users found by full name", 1,
+                repositoryService.searchObjects(UserType.class, query, null, result).size());
+    }
+
+    @Test
+    public void test180ModifyUserExtensionPartially() throws Exception {
+        final String TEST_NAME = "test180ModifyUserExtensionPartially";
+        TestUtil.displayTestTitle(TEST_NAME);
+        OperationResult result = new OperationResult(TEST_NAME);
+
+        final QName WEAPON = new QName("http://example.com/p", "weapon");
+        final QName SHIP_NAME = new QName("http://example.com/p", "shipName");
+        final QName LOOT = new QName("http://example.com/p", "loot");
+
+        // GIVEN
+        PrismObject<UserType> user = new UserType(prismContext).name("partial-extension").asPrismObject();
+        ItemDelta.applyTo(DeltaBuilder.deltaFor(UserType.class, prismContext)
+                .item(UserType.F_EXTENSION, WEAPON).add("sword", "bow")
+                .item(UserType.F_EXTENSION, SHIP_NAME).add("Black Pearl")
+                .asItemDeltas(), user);
+        String oid = repositoryService.addObject(user, null, result);
+
+        // WHEN
+        List<ItemDelta<?, ?>> itemDeltas = DeltaBuilder.deltaFor(UserType.class, prismContext)
+                .item(UserType.F_EXTENSION, WEAPON).add("axe").delete("bow")
+                .item(UserType.F_EXTENSION, SHIP_NAME).replace("Flying Dutchman")
+                .item(UserType.F_EXTENSION, LOOT).replace(100)
+                .item(UserType.F_FULL_NAME).replace(new PolyString("Jack"))
+                .asItemDeltas();
+        modifyObjectPartially(UserType.class, oid, itemDeltas, result);
+
+        // THEN
+        PrismObject<UserType> userAfter = repositoryService.getObject(UserType.class, oid, null, result);
+        assertEquals("Wrong version", "1", userAfter.getVersion());
+        PrismAsserts.assertPropertyValue(userAfter, new ItemPath(UserType.F_EXTENSION, WEAPON), "sword", "axe");
+        PrismAsserts.assertPropertyValue(userAfter, new ItemPath(UserType.F_EXTENSION, SHIP_NAME), "Flying Dutchman");
+        PrismAsserts.assertPropertyValue(userAfter, new ItemPath(UserType.F_EXTENSION, LOOT), 100);
+
+        assertUsersWithExtensionValue(WEAPON, "sword", 1, result);
+        assertUsersWithExtensionValue(WEAPON, "bow", 0, result);
+        assertUsersWithExtensionValue(WEAPON, "axe", 1, result);
+        assertUsersWithExtensionValue(SHIP_NAME, "Black Pearl", 0, result);
+        assertUsersWithExtensionValue(SHIP_NAME, "Flying Dutchman", 1, result);
+
+        // WHEN (removing all values of an item, leaving the other one intact)
+        modifyObjectPartially(UserType.class, oid, DeltaBuilder.deltaFor(UserType.class, prismContext)
+                .item(UserType.F_EXTENSION, WEAPON).replace()
+                .asItemDeltas(), result);
+
+        // THEN
+        userAfter = repositoryService.getObject(UserType.class, oid, null, result);
+        assertEquals("Wrong version", "2", userAfter.getVersion());
+        assertNull("Weapons were not removed", userAfter.findProperty(new ItemPath(UserType.F_EXTENSION, WEAPON)));
+        assertUsersWithExtensionValue(WEAPON, "sword", 0, result);
+        assertUsersWithExtensionValue(WEAPON, "axe", 0, result);
+        assertUsersWithExtensionValue(SHIP_NAME, "Flying Dutchman", 1, result);
+    }
+
+    private <T extends ObjectType> void modifyObjectPartially(Class<T> type, String oid, Collection<? extends ItemDelta> modifications,
+            OperationResult result) throws Exception {
+        boolean partialUpdates = baseHelper.getConfiguration().isPartialUpdates();
+        baseHelper.getConfiguration().setPartialUpdates(true);
+        try {
+            repositoryService.modifyObject(type, oid, modifications, getModifyOptions(), result);
+        } finally {
+            baseHelper.getConfiguration().setPartialUpdates(partialUpdates);
+        }
+    }
+
+    private void assertUsersWithExtensionValue(QName itemName, String value, int expected, OperationResult result) throws Exception {
+        ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                .item(UserType.F_EXTENSION, itemName).eq(value)
+                .build();
+        assertEquals("Wrong # of users with " + itemName.getLocalPart() + " = " + value, expected,
+                repositoryService.searchObjects(UserType.class, query, null, result).size());
+    }
+
+    private void assertUsersWithRoleMembership(String roleOid, int expected, OperationResult result) throws Exception {
+        ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                .item(UserType.F_ROLE_MEMBERSHIP_REF).ref(roleOid)
+                .build();
+        assertEquals("Wrong # of users with role membership of " + roleOid, expected,
+                repositoryService.searchObjects(UserType.class, query, null, result).size());
+    }
+
     private <T> void assertAttribute(PrismObject<ShadowType> shadow, String attrName, T... expectedValues) {
     	assertAttribute(shadow, new QName(MidPointConstants.NS_RI, attrName), expectedValues);
     }
@@ -60,6 +60,7 @@ import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
@@ -565,6 +566,29 @@ public class QueryInterpreter2Test extends BaseSQLRepoTest {
         }
     }
 
+    @Test
+    public void test073QueryAccountByAttributeValues() throws Exception {
+        Session session = open();
+        try {
+            RQueryImpl realQuery = (RQueryImpl) getInterpretedQuery2Whole(session, ShadowType.class,
+                    getQuery(new File(TEST_DIR, "query-account-by-attribute-values.xml"), ShadowType.class), false,
+                    null);
+            String expected = "select\n" +
+                    "  s.oid, s.fullObject, s.stringsCount, s.longsCount, s.datesCount, s.referencesCount, s.polysCount, s.booleansCount\n" +
+                    "from\n" +
+                    "  RShadow s\n" +
+                    "    left join s.strings s2 with ( s2.ownerType = :ownerType and s2.name = :name )\n" +
+                    "where\n" +
+                    "  s2.value in (:value)\n";
+            assertEqualsIgnoreWhitespace(expected, realQuery.getQuery().getQueryString());
+
+            assertEquals("Wrong values", Arrays.asList("uid=jbond,ou=People,dc=example,dc=com", "uid=jsmith,ou=People,dc=example,dc=com"),
+                    realQuery.getQuerySource().getParameters().get("value").getValue());
+        } finally {
+            close(session);
+        }
+    }
+
     @Test
     public void test074QueryAccountByAttributeAndExtensionValue() throws Exception {
         Session session = open();
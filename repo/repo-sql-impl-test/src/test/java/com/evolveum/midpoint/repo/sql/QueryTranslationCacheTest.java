@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
+import com.evolveum.midpoint.repo.sql.query.RQuery;
+import com.evolveum.midpoint.repo.sql.query2.QueryEngine2;
+import com.evolveum.midpoint.repo.sql.query2.QueryTranslationCache;
+import com.evolveum.midpoint.repo.sql.query2.RQueryImpl;
+import com.evolveum.midpoint.repo.sql.query2.hqm.QueryParameterValue;
+import com.evolveum.midpoint.repo.sql.util.GetObjectResult;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationStatusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.hibernate.Session;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Checks that queries translated using QueryTranslationCache are the same as queries translated by the interpreter.
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class QueryTranslationCacheTest extends BaseSQLRepoTest {
+
+    private static final Trace LOGGER = TraceManager.getTrace(QueryTranslationCacheTest.class);
+
+    private static final String[] VALUES = { "alpha", "beta", "gamma", "ALPHA", "Bet", "qtc", "nothing", "alpha" };
+
+    private QueryTranslationCache cache;
+    private QueryEngine2 cachingEngine;
+    private QueryEngine2 plainEngine;
+
+    @BeforeClass
+    public void beforeClass() throws Exception {
+        super.beforeClass();
+
+        OperationResult result = new OperationResult("add objects");
+        addUser("qtc-alpha", "Alpha", ActivationStatusType.ENABLED, result);
+        addUser("qtc-beta", "Beta", ActivationStatusType.DISABLED, result);
+        addUser("qtc-gamma", "Gamma", null, result);
+        result.recomputeStatus();
+        assertTrue(result.isSuccess());
+    }
+
+    private void addUser(String name, String employeeType, ActivationStatusType status, OperationResult result) throws Exception {
+        UserType user = new UserType(prismContext)
+                .name(name)
+                .givenName(employeeType)
+                .employeeType(employeeType.toLowerCase());
+        if (status != null) {
+            user.setActivation(new ActivationType(prismContext).administrativeStatus(status));
+        }
+        repositoryService.addObject(user.asPrismObject(), null, result);
+    }
+
+    @Test
+    public void test100NameSubstring() throws Exception {
+        checkShape("name substring (norm)", v -> QueryBuilder.queryFor(UserType.class, prismContext)
+                .item(UserType.F_NAME).containsPoly(v).matchingNorm()
+                .build());
+    }
+
+    @Test
+    public void test110NameOrigAndGivenNameStartsWith() throws Exception {
+        checkShape("name equals (orig) or given name starts with", v -> QueryBuilder.queryFor(UserType.class, prismContext)
+                .item(UserType.F_NAME).eqPoly("qtc-" + v).matchingOrig()
+                .or().item(UserType.F_GIVEN_NAME).startsWithPoly(v).matchingOrig()
+                .build());
+    }
+
+    @Test
+    public void test120EmployeeTypeIgnoreCaseWithPaging() throws Exception {
+        checkShape("employee type (ignore case) with paging", v -> QueryBuilder.queryFor(UserType.class, prismContext)
+                .item(UserType.F_EMPLOYEE_TYPE).eq(v).matchingCaseIgnore()
+                .asc(UserType.F_NAME)
+                .offset(0).maxSize(2)
+                .build());
+    }
+
+    /**
+     * The employee type parameter can be bound to either of the values (they are always the same),
+     * so the binding cannot be proven and the shape must not be cached.
+     */
+    @Test
+    public void test130SameValueTwice() throws Exception {
+        checkShape("the same value in two filters", false, v -> QueryBuilder.queryFor(UserType.class, prismContext)
+                .item(UserType.F_EMPLOYEE_TYPE).eq(v)
+                .or().item(UserType.F_NAME).containsPoly(v).matchingNorm()
+                .build());
+    }
+
+    @Test
+    public void test140ActivationStatus() throws Exception {
+        ActivationStatusType[] statuses = { ActivationStatusType.ENABLED, ActivationStatusType.DISABLED,
+                ActivationStatusType.ENABLED, ActivationStatusType.ARCHIVED, ActivationStatusType.DISABLED };
+        resetCache();
+        for (ActivationStatusType status : statuses) {
+            ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                    .item(UserType.F_ACTIVATION, ActivationType.F_ADMINISTRATIVE_STATUS).eq(status)
+                    .and().item(UserType.F_NAME).startsWithPoly("qtc").matchingNorm()
+                    .build();
+            checkQuery(query, false);
+            checkQuery(query, true);
+        }
+        assertTrue("No cache hits", cache.getHits() > 0);
+    }
+
+    private void resetCache() {
+        cache = new QueryTranslationCache(100, null);
+        cachingEngine = new QueryEngine2(baseHelper.getConfiguration(), prismContext, cache);
+        plainEngine = new QueryEngine2(baseHelper.getConfiguration(), prismContext);
+    }
+
+    private void checkShape(String description, Function<String, ObjectQuery> queryCreator) throws Exception {
+        checkShape(description, true, queryCreator);
+    }
+
+    private void checkShape(String description, boolean cacheable, Function<String, ObjectQuery> queryCreator)
+            throws Exception {
+        LOGGER.info("Checking queries of shape: {}", description);
+        resetCache();
+        for (String value : VALUES) {
+            ObjectQuery query = queryCreator.apply(value);
+            checkQuery(query, false);
+            checkQuery(query, true);
+        }
+        LOGGER.info("Cache hits: {}, misses: {}", cache.getHits(), cache.getMisses());
+        if (cacheable) {
+            assertTrue("No cache hits for " + description, cache.getHits() > 0);
+        } else {
+            assertEquals("Unexpected cache hits for " + description, 0, cache.getHits());
+        }
+    }
+
+    private void checkQuery(ObjectQuery query, boolean counting) throws Exception {
+        Session session = open();
+        try {
+            RQuery expected = plainEngine.interpret(query, UserType.class, null, counting, session);
+            RQuery real = cachingEngine.interpret(query, UserType.class, null, counting, session);
+            assertEquals("Different HQL for " + query, ((RQueryImpl) expected).getQuery().getQueryString(),
+                    ((RQueryImpl) real).getQuery().getQueryString());
+            assertEquals("Different parameters for " + query, getParameterValues((RQueryImpl) expected),
+                    getParameterValues((RQueryImpl) real));
+            if (counting) {
+                assertEquals("Different count for " + query, expected.uniqueResult(), real.uniqueResult());
+            } else {
+                assertEquals("Different result for " + query, getOids(expected), getOids(real));
+            }
+        } finally {
+            close(session);
+        }
+    }
+
+    // query source is used e.g. by query diagnostics
+    private Map<String, Object> getParameterValues(RQueryImpl query) {
+        assertNotNull("No query source", query.getQuerySource());
+        Map<String, Object> values = new HashMap<>();
+        for (Map.Entry<String, QueryParameterValue> parameter : query.getQuerySource().getParameters().entrySet()) {
+            values.put(parameter.getKey(), parameter.getValue().getValue());
+        }
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> getOids(RQuery query) {
+        List<String> oids = new ArrayList<>();
+        for (GetObjectResult result : (List<GetObjectResult>) query.list()) {
+            oids.add(result.getOid());
+        }
+        Collections.sort(oids);
+        return oids;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+
+/**
+ * The same tests as in {@link SearchIterativeTest}, executed using streaming (keyset-paged, prefetching) iterative search.
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class SearchIterativeStreamingTest extends SearchIterativeTest {
+
+    @BeforeClass
+    @Override
+    public void beforeClass() throws Exception {
+        baseHelper.getConfiguration().setIterativeSearchStreaming(true);
+        super.beforeClass();
+    }
+
+    @AfterClass
+    @Override
+    public void afterClass() {
+        baseHelper.getConfiguration().setIterativeSearchStreaming(false);
+        super.afterClass();
+    }
+}
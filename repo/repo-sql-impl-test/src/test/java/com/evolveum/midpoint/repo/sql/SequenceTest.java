@@ -17,6 +17,8 @@
 package com.evolveum.midpoint.repo.sql;
 
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
+import com.evolveum.midpoint.repo.sql.helpers.SequenceHelper;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
@@ -28,6 +30,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.SequenceType;
 import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
 import org.hibernate.Session;
 import org.hibernate.jdbc.Work;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.testng.annotations.Test;
@@ -41,6 +44,7 @@ import java.util.Collections;
 import java.util.List;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
 import static org.testng.AssertJUnit.fail;
 
 /**
@@ -57,6 +61,9 @@ public class SequenceTest extends BaseSQLRepoTest {
 
     private static final int STOP_TIMEOUT = 10000;
 
+    @Autowired
+    private SequenceHelper sequenceHelper;
+
     @Test
     public void test001_OneThread() throws Exception {
 
@@ -199,6 +206,146 @@ public class SequenceTest extends BaseSQLRepoTest {
     }
 
 
+    @Test
+    public void test040_BlockOfValues() throws Exception {
+        OperationResult result = new OperationResult("test040_BlockOfValues");
+        final File file = new File(TEST_DIR + "sequence-unbound-block.xml");
+        PrismObject<SequenceType> sequence = prismContext.parseObject(file);
+        sequence.asObjectable().setName(new PolyStringType("Test040"));
+        String oid = repositoryService.addObject(sequence, null, result);
+
+        assertEquals(0L, repositoryService.advanceSequence(oid, result));
+        assertEquals(1L, repositoryService.advanceSequence(oid, result));
+        assertEquals(2L, repositoryService.advanceSequence(oid, result));
+        SequenceType stored = repositoryService.getObject(SequenceType.class, oid, null, result).asObjectable();
+        assertEquals("Wrong counter after reserving a block", (Long) 10L, stored.getCounter());
+
+        sequenceHelper.returnReservedValues();
+
+        stored = repositoryService.getObject(SequenceType.class, oid, null, result).asObjectable();
+        assertEquals("Counter was not moved back", (Long) 3L, stored.getCounter());
+        assertEquals("Unexpected unused values", Collections.<Long>emptyList(), stored.getUnusedValues());
+        assertEquals(3L, repositoryService.advanceSequence(oid, result));
+        assertEquals(4L, repositoryService.advanceSequence(oid, result));
+    }
+
+    @Test
+    public void test041_TenThreadsBlocks() throws Exception {
+        WorkerThread[] mts = new WorkerThread[] {
+                new WorkerThread(1),
+                new WorkerThread(2),
+                new WorkerThread(3),
+                new WorkerThread(4),
+                new WorkerThread(5),
+                new WorkerThread(6),
+                new WorkerThread(7),
+                new WorkerThread(8),
+                new WorkerThread(9),
+                new WorkerThread(10)
+        };
+
+        String oid = addSequence("Test041", "sequence-unbound-block.xml");
+        runWorkerThreads(oid, 5000L, mts);
+        sequenceHelper.returnReservedValues();
+
+        // values handed out and values returned must cover the whole range of the counter, without duplicates
+        OperationResult result = new OperationResult("test041_TenThreadsBlocks");
+        SequenceType stored = repositoryService.getObject(SequenceType.class, oid, null, result).asObjectable();
+        List<Long> allValues = new ArrayList<>(stored.getUnusedValues());
+        for (WorkerThread t : mts) {
+            allValues.addAll(t.values);
+        }
+        Collections.sort(allValues);
+        for (int i = 0; i < allValues.size(); i++) {
+            if (allValues.get(i) != i) {
+                fail("Incorrect value at position " + i + ": " + allValues.get(i));
+            }
+        }
+        assertEquals("Wrong counter", (Long) (long) allValues.size(), stored.getCounter());
+        int updates = Integer.parseInt(stored.getVersion());
+        LOGGER.info("{} values were obtained using {} sequence updates", allValues.size() - stored.getUnusedValues().size(), updates);
+        assertTrue("Sequence was updated too often: " + updates + " times for " + allValues.size() + " values",
+                updates < allValues.size() / 2);
+    }
+
+    /**
+     * Values at or above the new counter will be handed out by the sequence itself, so they must not be
+     * used from the reservation. Values below it are still used, so that no gap is left.
+     */
+    @Test
+    public void test042_BlockAfterCounterReset() throws Exception {
+        OperationResult result = new OperationResult("test042_BlockAfterCounterReset");
+        String oid = addSequence("Test042", "sequence-unbound-block.xml");
+
+        assertEquals(0L, repositoryService.advanceSequence(oid, result));
+        setCounter(oid, 5L, result);
+
+        assertEquals(1L, repositoryService.advanceSequence(oid, result));
+        assertEquals(2L, repositoryService.advanceSequence(oid, result));
+        assertEquals(3L, repositoryService.advanceSequence(oid, result));
+        assertEquals(4L, repositoryService.advanceSequence(oid, result));
+        assertEquals(5L, repositoryService.advanceSequence(oid, result));
+        assertEquals(6L, repositoryService.advanceSequence(oid, result));
+
+        sequenceHelper.returnReservedValues();
+        SequenceType stored = repositoryService.getObject(SequenceType.class, oid, null, result).asObjectable();
+        assertEquals("Counter was not moved back", (Long) 7L, stored.getCounter());
+        assertEquals("Unexpected unused values", Collections.<Long>emptyList(), stored.getUnusedValues());
+    }
+
+    @Test
+    public void test043_BlockAfterCounterMovedForward() throws Exception {
+        OperationResult result = new OperationResult("test043_BlockAfterCounterMovedForward");
+        String oid = addSequence("Test043", "sequence-unbound-block.xml");
+
+        assertEquals(0L, repositoryService.advanceSequence(oid, result));
+        setCounter(oid, 100L, result);
+
+        for (long i = 1; i < 10; i++) {
+            assertEquals(i, repositoryService.advanceSequence(oid, result));
+        }
+        assertEquals(100L, repositoryService.advanceSequence(oid, result));
+        sequenceHelper.returnReservedValues();
+    }
+
+    @Test
+    public void test044_BlockAfterUnrelatedChange() throws Exception {
+        OperationResult result = new OperationResult("test044_BlockAfterUnrelatedChange");
+        String oid = addSequence("Test044", "sequence-unbound-block.xml");
+
+        assertEquals(0L, repositoryService.advanceSequence(oid, result));
+        repositoryService.modifyObject(SequenceType.class, oid,
+                DeltaBuilder.deltaFor(SequenceType.class, prismContext)
+                        .item(SequenceType.F_DESCRIPTION).replace("changed")
+                        .asItemDeltas(),
+                result);
+
+        assertEquals("Reserved values were not used after the change", 1L, repositoryService.advanceSequence(oid, result));
+        sequenceHelper.returnReservedValues();
+        SequenceType stored = repositoryService.getObject(SequenceType.class, oid, null, result).asObjectable();
+        assertEquals("Counter was not moved back", (Long) 2L, stored.getCounter());
+    }
+
+    private void setCounter(String oid, long counter, OperationResult result) throws Exception {
+        repositoryService.modifyObject(SequenceType.class, oid,
+                DeltaBuilder.deltaFor(SequenceType.class, prismContext)
+                        .item(SequenceType.F_COUNTER).replace(counter)
+                        .asItemDeltas(),
+                result);
+    }
+
+    private String addSequence(String name, String sequenceFileName) throws Exception {
+        final File file = new File(TEST_DIR + sequenceFileName);
+        PrismObject<SequenceType> sequence = prismContext.parseObject(file);
+        sequence.asObjectable().setName(new PolyStringType(name));
+
+        OperationResult result = new OperationResult("Concurrency Test");
+        String oid = repositoryService.addObject(sequence, null, result);
+
+        LOGGER.info("*** Object added: " + oid + " ***");
+        return oid;
+    }
+
     private void concurrencyUniversal(String name, String sequenceFileName, long duration, WorkerThread[] workerThreads, boolean alwaysOrder) throws Exception {
 
         Session session = getFactory().openSession();
@@ -210,15 +357,29 @@ public class SequenceTest extends BaseSQLRepoTest {
         });
         session.close();
 
-        final File file = new File(TEST_DIR + sequenceFileName);
-        PrismObject<SequenceType> sequence = prismContext.parseObject(file);
-        sequence.asObjectable().setName(new PolyStringType(name));
-
-        OperationResult result = new OperationResult("Concurrency Test");
-        String oid = repositoryService.addObject(sequence, null, result);
+        String oid = addSequence(name, sequenceFileName);
+        runWorkerThreads(oid, duration, workerThreads);
 
-        LOGGER.info("*** Object added: " + oid + " ***");
+        List<Long> allValues = new ArrayList<>();
+        for (WorkerThread t : workerThreads) {
+            allValues.addAll(t.values);
+        }
+        if (alwaysOrder || workerThreads.length > 1) {
+            Collections.sort(allValues);
+        }
+        LOGGER.trace("Checking a list of {} values", allValues.size());
+        for (int i = 0; i < allValues.size(); i++) {
+            if (allValues.get(i) != i) {
+                LOGGER.error("Incorrect value at position {}: {}", i, allValues.get(i));
+                for (WorkerThread t : workerThreads) {
+                    LOGGER.info("Thread {}: {}", t.id, t.values);
+                }
+                fail("Incorrect value at position " + i + ": " + allValues.get(i));
+            }
+        }
+    }
 
+    private void runWorkerThreads(String oid, long duration, WorkerThread[] workerThreads) throws Exception {
         LOGGER.info("*** Starting modifier threads ***");
 
         for (WorkerThread t : workerThreads) {
@@ -257,24 +418,6 @@ public class SequenceTest extends BaseSQLRepoTest {
                 throw new AssertionError("Worker thread " + t.id + " finished with an exception: " + t.threadResult, t.threadResult);
             }
         }
-
-        List<Long> allValues = new ArrayList<>();
-        for (WorkerThread t : workerThreads) {
-            allValues.addAll(t.values);
-        }
-        if (alwaysOrder || workerThreads.length > 1) {
-            Collections.sort(allValues);
-        }
-        LOGGER.trace("Checking a list of {} values", allValues.size());
-        for (int i = 0; i < allValues.size(); i++) {
-            if (allValues.get(i) != i) {
-                LOGGER.error("Incorrect value at position {}: {}", i, allValues.get(i));
-                for (WorkerThread t : workerThreads) {
-                    LOGGER.info("Thread {}: {}", t.id, t.values);
-                }
-                fail("Incorrect value at position " + i + ": " + allValues.get(i));
-            }
-        }
     }
 
     class WorkerThread extends Thread {
@@ -719,6 +719,10 @@ public class SimpleTaskAdapter implements Task {
     public void recordMappingOperation(String objectOid, String objectName, String objectTypeName, String mappingName, long duration) {
     }
 
+    @Override
+    public void recordScriptOperation(String contextDescription, String objectName, long duration) {
+    }
+
     @Override
     public void recordSynchronizationOperationEnd(String objectName, String objectDisplayName, QName objectType, String objectOid, long started,
 			Throwable exception, SynchronizationInformation.Record originalStateIncrement, SynchronizationInformation.Record newStateIncrement) {
@@ -50,7 +50,9 @@ import com.evolveum.midpoint.audit.api.AuditEventStage;
 import com.evolveum.midpoint.audit.api.AuditEventType;
 import com.evolveum.midpoint.audit.api.AuditResultHandler;
 import com.evolveum.midpoint.audit.api.AuditService;
+import com.evolveum.midpoint.prism.ParsingContext;
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.sql.helpers.AuditBatchWriter;
 import com.evolveum.midpoint.repo.sql.helpers.BaseHelper;
 import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
 import com.evolveum.midpoint.repo.sql.util.GetObjectResult;
@@ -74,6 +76,9 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 	@Autowired
 	private BaseHelper baseHelper;
 
+	@Autowired
+	private AuditBatchWriter auditBatchWriter;
+
 	private static final Trace LOGGER = TraceManager.getTrace(SqlAuditServiceImpl.class);
 	private static final Integer CLEANUP_AUDIT_BATCH_SIZE = 500;
 
@@ -89,6 +94,10 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 		Validate.notNull(record, "Audit event record must not be null.");
 		Validate.notNull(task, "Task must not be null.");
 
+		if (getConfiguration().isAuditAsynchronous() && auditAsynchronously(record)) {
+			return;
+		}
+
 		final String operation = "audit";
 		int attempt = 1;
 
@@ -102,6 +111,13 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 		}
 	}
 
+	/**
+	 * @return false if the record could not be queued and has to be written synchronously
+	 */
+	private boolean auditAsynchronously(AuditEventRecord record) {
+		return auditBatchWriter.enqueue(record);
+	}
+
 	@Override
 	public List<AuditEventRecord> listRecords(String query, Map<String, Object> params) {
 		final String operation = "listRecords";
@@ -327,8 +343,8 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 
 		PrismObject result;
 		if (object != null) {
-			String xml = RUtil.getXmlFromByteArray(object.getFullObject(), getConfiguration().isUseZip());
-			result = getPrismContext().parserFor(xml).compat().parse();
+			byte[] data = RUtil.getDataFromByteArray(object.getFullObject(), getConfiguration().isUseZip());
+			result = RUtil.parseFullObject(data, getPrismContext(), ParsingContext.createDefault().compat());
 		} else if (defaultType != null) {
 			result = getPrismContext().createObject(defaultType.getJaxbClass());
 			result.asObjectable().setName(PolyStringType.fromOrig(defaultName != null ? defaultName : oid));
@@ -48,6 +48,9 @@ public class SqlPerformanceMonitor {
 
     private ConcurrentMap<Long,OperationRecord> outstandingOperations = new ConcurrentHashMap<Long, OperationRecord>();
     private List<OperationRecord> finishedOperations = Collections.synchronizedList(new ArrayList<OperationRecord>());
+    private ConcurrentMap<String,StreamingRecord> streamingRecords = new ConcurrentHashMap<>();
+    private TranslationRecord interpretedQueries = new TranslationRecord();
+    private TranslationRecord cachedQueries = new TranslationRecord();
 
     private SqlRepositoryFactory sqlRepositoryFactory;
 
@@ -83,9 +86,67 @@ public class SqlPerformanceMonitor {
         }
     }
 
+    /**
+     * Aggregated statistics of streaming (iterative) searches of given kind.
+     */
+    class StreamingRecord {
+        long searches;
+        long rows;
+        long totalTime;
+        long waitTime;          // time the caller waited for the data (i.e. not hidden by prefetching)
+
+        synchronized void add(long rows, long totalTime, long waitTime) {
+            this.searches++;
+            this.rows += rows;
+            this.totalTime += totalTime;
+            this.waitTime += waitTime;
+        }
+
+        synchronized String dump() {
+            return "Searches: " + searches + ", rows: " + rows + ", " +
+                    "rows/sec: " + rowsPerSecond(rows, totalTime) + ", " +
+                    "waiting for data (sum): " + waitTime + " (" + (totalTime > 0 ? waitTime*100.0f/totalTime : 0.0f) + "%)";
+        }
+    }
+
+    /**
+     * Aggregated times of translating midPoint queries to HQL (either by the interpreter or from the cache).
+     */
+    class TranslationRecord {
+        long queries;
+        long totalTime;         // nanos
+        long maxTime;           // nanos
+
+        synchronized void add(long time) {
+            this.queries++;
+            this.totalTime += time;
+            this.maxTime = Math.max(maxTime, time);
+        }
+
+        synchronized void clear() {
+            queries = totalTime = maxTime = 0;
+        }
+
+        synchronized String dump() {
+            if (queries == 0) {
+                return "no records";
+            }
+            return "Queries: " + queries + ", " +
+                    "Translation time in ms (avg/max/sum): " + (totalTime / 1000000.0f / queries) + "/" +
+                    (maxTime / 1000000.0f) + "/" + (totalTime / 1000000.0f);
+        }
+    }
+
+    private static float rowsPerSecond(long rows, long millis) {
+        return millis > 0 ? rows * 1000.0f / millis : 0.0f;
+    }
+
     public void initialize(SqlRepositoryFactory sqlRepositoryFactory) {
         outstandingOperations.clear();
         finishedOperations.clear();
+        streamingRecords.clear();
+        interpretedQueries.clear();
+        cachedQueries.clear();
         this.sqlRepositoryFactory = sqlRepositoryFactory;
         this.level = sqlRepositoryFactory.getSqlConfiguration().getPerformanceStatisticsLevel();
         if (level >= LEVEL_NONE) {
@@ -170,6 +231,11 @@ public class SqlPerformanceMonitor {
             retval.append((i+1) + " attempt(s): " + perAttempts[i].dump() + "\n");
         }
         retval.append("Unfinished: " + unfinished.dump() + "\n");
+        for (Map.Entry<String,StreamingRecord> entry : streamingRecords.entrySet()) {
+            retval.append("Streaming " + entry.getKey() + ": " + entry.getValue().dump() + "\n");
+        }
+        retval.append("Query translation (interpreted): " + interpretedQueries.dump() + "\n");
+        retval.append("Query translation (cached): " + cachedQueries.dump() + "\n");
         retval.append("Outstanding: " + outstandingOperations.toString());
         return retval.toString();
     }
@@ -224,6 +290,39 @@ public class SqlPerformanceMonitor {
         outstandingOperations.remove(threadId);
     }
 
+    /**
+     * Records the throughput of a streaming search: number of rows delivered to the caller, total time
+     * of the search (including processing by the caller) and the time the caller waited for the data.
+     */
+    public void registerStreamedRows(String kind, long rows, long totalTime, long waitTime) {
+        LOGGER.debug("Streaming {}: {} rows in {} ms ({} rows/sec), waiting for data: {} ms", kind, rows, totalTime,
+                rowsPerSecond(rows, totalTime), waitTime);
+
+        if (level <= LEVEL_NONE) {
+            return;
+        }
+
+        StreamingRecord record = streamingRecords.get(kind);
+        if (record == null) {
+            streamingRecords.putIfAbsent(kind, new StreamingRecord());
+            record = streamingRecords.get(kind);
+        }
+        record.add(rows, totalTime, waitTime);
+    }
+
+    /**
+     * Records the time needed to translate a midPoint query to HQL query; cached = the translation was taken
+     * from the query translation cache.
+     */
+    public void registerQueryTranslation(boolean cached, long nanos) {
+
+        if (level <= LEVEL_NONE) {
+            return;
+        }
+
+        (cached ? cachedQueries : interpretedQueries).add(nanos);
+    }
+
     void registerOperationNewAttempt(long opHandle, int attempt) {
 
         if (level <= LEVEL_NONE) {
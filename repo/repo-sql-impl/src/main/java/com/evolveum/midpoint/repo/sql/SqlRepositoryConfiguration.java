@@ -16,6 +16,7 @@
 
 package com.evolveum.midpoint.repo.sql;
 
+import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
 import com.evolveum.midpoint.repo.sql.helpers.OrgClosureManager;
 import com.evolveum.midpoint.repo.sql.util.MidPointConnectionCustomizer;
@@ -111,6 +112,11 @@ public class SqlRepositoryConfiguration {
     public static final String PROPERTY_USE_ZIP = "useZip";
     public static final String PROPERTY_MIN_POOL_SIZE = "minPoolSize";
     public static final String PROPERTY_MAX_POOL_SIZE = "maxPoolSize";
+    public static final String PROPERTY_JDBC_BATCH_SIZE = "jdbcBatchSize";
+    public static final String PROPERTY_ORDER_INSERTS = "orderInserts";
+    public static final String PROPERTY_BATCH_TRANSACTION_SIZE = "batchTransactionSize";
+    public static final String PROPERTY_PARTIAL_UPDATES = "partialUpdates";
+    public static final String PROPERTY_FULL_OBJECT_FORMAT = "fullObjectFormat";
 
     // concurrency properties
     public static final String PROPERTY_TRANSACTION_ISOLATION = "transactionIsolation";
@@ -123,6 +129,12 @@ public class SqlRepositoryConfiguration {
     //other
     public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING = "iterativeSearchByPaging";
     public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE = "iterativeSearchByPagingBatchSize";
+    public static final String PROPERTY_ITERATIVE_SEARCH_STREAMING = "iterativeSearchStreaming";
+    public static final String PROPERTY_ITERATIVE_SEARCH_PREFETCH_THREADS = "iterativeSearchPrefetchThreads";
+    public static final String PROPERTY_ITERATIVE_SEARCH_DECODER_THREADS = "iterativeSearchDecoderThreads";
+    public static final String PROPERTY_QUERY_TRANSLATION_CACHE_SIZE = "queryTranslationCacheSize";
+    public static final String PROPERTY_FULL_TEXT_INDEX_DIRECTORY = "fullTextIndexDirectory";
+    public static final String PROPERTY_FULL_TEXT_INDEX_MAX_HITS = "fullTextIndexMaxHits";
 
     //closure
     public static final String PROPERTY_IGNORE_ORG_CLOSURE = "ignoreOrgClosure";
@@ -130,6 +142,22 @@ public class SqlRepositoryConfiguration {
     public static final String PROPERTY_SKIP_ORG_CLOSURE_STRUCTURE_CHECK = "skipOrgClosureStructureCheck";
     public static final String PROPERTY_STOP_ON_ORG_CLOSURE_STARTUP_FAILURE = "stopOnOrgClosureStartupFailure";
 
+    //cluster-wide cache invalidation
+    public static final String PROPERTY_CACHE_INVALIDATION_POLLING_INTERVAL = "cacheInvalidationPollingInterval";
+    public static final String PROPERTY_CACHE_INVALIDATION_RETENTION = "cacheInvalidationRetention";
+    public static final String PROPERTY_CACHE_INVALIDATION_TYPES = "cacheInvalidationTypes";
+
+    //asynchronous audit
+    public static final String PROPERTY_AUDIT_ASYNCHRONOUS = "auditAsynchronous";
+    public static final String PROPERTY_AUDIT_QUEUE_SIZE = "auditQueueSize";
+    public static final String PROPERTY_AUDIT_BATCH_SIZE = "auditBatchSize";
+    public static final String PROPERTY_AUDIT_FLUSH_INTERVAL = "auditFlushInterval";
+    public static final String PROPERTY_AUDIT_QUEUE_FULL_TIMEOUT = "auditQueueFullTimeout";
+
+    public static final String DEFAULT_CACHE_INVALIDATION_TYPES = "SystemConfigurationType,RoleType,OrgType,ServiceType,"
+            + "ResourceType,ConnectorType,ObjectTemplateType,SecurityPolicyType,ValuePolicyType,FunctionLibraryType,"
+            + "LookupTableType";
+
     private static final String DRIVER_H2 = Driver.class.getName();
     private static final String DRIVER_MYSQL = "com.mysql.jdbc.Driver";
     private static final String DRIVER_MARIADB = "org.mariadb.jdbc.Driver";
@@ -158,6 +186,11 @@ public class SqlRepositoryConfiguration {
     private int minPoolSize = 8;
     private int maxPoolSize = 20;
     private boolean useZip;
+    private int jdbcBatchSize = 20;
+    private boolean orderInserts;
+    private int batchTransactionSize = 200;
+    private boolean partialUpdates;
+    private String fullObjectFormat = PrismContext.LANG_XML;
 
     private TransactionIsolation transactionIsolation;
     private boolean lockForUpdateViaHibernate;
@@ -168,12 +201,28 @@ public class SqlRepositoryConfiguration {
 
     private boolean iterativeSearchByPaging;
     private int iterativeSearchByPagingBatchSize;
+    private boolean iterativeSearchStreaming;
+    private int iterativeSearchPrefetchThreads = 4;
+    private int iterativeSearchDecoderThreads = 2;
+    private int queryTranslationCacheSize = 1000;
+    private String fullTextIndexDirectory;
+    private int fullTextIndexMaxHits = 1000;
 
     private boolean ignoreOrgClosure;
     private OrgClosureManager.StartupAction orgClosureStartupAction;
     private boolean skipOrgClosureStructureCheck;
     private boolean stopOnOrgClosureStartupFailure;
 
+    private long cacheInvalidationPollingInterval;          // millis, 0 = cluster-wide invalidation is disabled
+    private long cacheInvalidationRetention;                // seconds
+    private String cacheInvalidationTypes;
+
+    private boolean auditAsynchronous;
+    private int auditQueueSize;
+    private int auditBatchSize;
+    private long auditFlushInterval;                        // millis
+    private long auditQueueFullTimeout;                     // millis
+
     public SqlRepositoryConfiguration(Configuration configuration) {
         setDatabase(configuration.getString(PROPERTY_DATABASE, database));
 		setDataSource(configuration.getString(PROPERTY_DATASOURCE, null));
@@ -196,6 +245,11 @@ public class SqlRepositoryConfiguration {
         setMinPoolSize(configuration.getInt(PROPERTY_MIN_POOL_SIZE, minPoolSize));
         setMaxPoolSize(configuration.getInt(PROPERTY_MAX_POOL_SIZE, maxPoolSize));
         setUseZip(configuration.getBoolean(PROPERTY_USE_ZIP, useZip));
+        setJdbcBatchSize(configuration.getInt(PROPERTY_JDBC_BATCH_SIZE, jdbcBatchSize));
+        setOrderInserts(configuration.getBoolean(PROPERTY_ORDER_INSERTS, orderInserts));
+        setBatchTransactionSize(configuration.getInt(PROPERTY_BATCH_TRANSACTION_SIZE, batchTransactionSize));
+        setPartialUpdates(configuration.getBoolean(PROPERTY_PARTIAL_UPDATES, partialUpdates));
+        setFullObjectFormat(configuration.getString(PROPERTY_FULL_OBJECT_FORMAT, fullObjectFormat));
 
         computeDefaultConcurrencyParameters();
 
@@ -210,11 +264,27 @@ public class SqlRepositoryConfiguration {
 
         setIterativeSearchByPaging(configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_BY_PAGING, iterativeSearchByPaging));
         setIterativeSearchByPagingBatchSize(configuration.getInt(PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE, iterativeSearchByPagingBatchSize));
+        setIterativeSearchStreaming(configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_STREAMING, iterativeSearchStreaming));
+        setIterativeSearchPrefetchThreads(configuration.getInt(PROPERTY_ITERATIVE_SEARCH_PREFETCH_THREADS, iterativeSearchPrefetchThreads));
+        setIterativeSearchDecoderThreads(configuration.getInt(PROPERTY_ITERATIVE_SEARCH_DECODER_THREADS, iterativeSearchDecoderThreads));
+        setQueryTranslationCacheSize(configuration.getInt(PROPERTY_QUERY_TRANSLATION_CACHE_SIZE, queryTranslationCacheSize));
+        setFullTextIndexDirectory(configuration.getString(PROPERTY_FULL_TEXT_INDEX_DIRECTORY, fullTextIndexDirectory));
+        setFullTextIndexMaxHits(configuration.getInt(PROPERTY_FULL_TEXT_INDEX_MAX_HITS, fullTextIndexMaxHits));
 
         setIgnoreOrgClosure(configuration.getBoolean(PROPERTY_IGNORE_ORG_CLOSURE, false));
         setOrgClosureStartupAction(configuration.getString(PROPERTY_ORG_CLOSURE_STARTUP_ACTION, OrgClosureManager.StartupAction.REBUILD_IF_NEEDED.toString()));
         setSkipOrgClosureStructureCheck(configuration.getBoolean(PROPERTY_SKIP_ORG_CLOSURE_STRUCTURE_CHECK, false));
         setStopOnOrgClosureStartupFailure(configuration.getBoolean(PROPERTY_STOP_ON_ORG_CLOSURE_STARTUP_FAILURE, true));
+
+        setCacheInvalidationPollingInterval(configuration.getLong(PROPERTY_CACHE_INVALIDATION_POLLING_INTERVAL, 0L));
+        setCacheInvalidationRetention(configuration.getLong(PROPERTY_CACHE_INVALIDATION_RETENTION, 3600L));
+        setCacheInvalidationTypes(configuration.getString(PROPERTY_CACHE_INVALIDATION_TYPES, DEFAULT_CACHE_INVALIDATION_TYPES));
+
+        setAuditAsynchronous(configuration.getBoolean(PROPERTY_AUDIT_ASYNCHRONOUS, false));
+        setAuditQueueSize(configuration.getInt(PROPERTY_AUDIT_QUEUE_SIZE, 10000));
+        setAuditBatchSize(configuration.getInt(PROPERTY_AUDIT_BATCH_SIZE, 100));
+        setAuditFlushInterval(configuration.getLong(PROPERTY_AUDIT_FLUSH_INTERVAL, 1000L));
+        setAuditQueueFullTimeout(configuration.getLong(PROPERTY_AUDIT_QUEUE_FULL_TIMEOUT, 5000L));
     }
 
     private void computeDefaultDatabaseParameters() {
@@ -286,6 +356,7 @@ public class SqlRepositoryConfiguration {
             iterativeSearchByPagingBatchSize = 50;
         } else {
             iterativeSearchByPaging = false;
+            iterativeSearchByPagingBatchSize = 50;          // used by streaming search
         }
     }
 
@@ -325,6 +396,15 @@ public class SqlRepositoryConfiguration {
         if (getMinPoolSize() > getMaxPoolSize()) {
             throw new RepositoryServiceFactoryException("Max. pool size must be greater than min. pool size.");
         }
+
+        if (!PrismContext.LANG_XML.equals(getFullObjectFormat()) && !PrismContext.LANG_BINARY.equals(getFullObjectFormat())) {
+            throw new RepositoryServiceFactoryException("Full object format must be either '" + PrismContext.LANG_XML
+                    + "' or '" + PrismContext.LANG_BINARY + "'.");
+        }
+
+        if (isAuditAsynchronous() && (getAuditQueueSize() <= 0 || getAuditBatchSize() <= 0)) {
+            throw new RepositoryServiceFactoryException("Audit queue size and batch size must be greater than zero.");
+        }
     }
 
     private void notNull(String value, String message) throws RepositoryServiceFactoryException {
@@ -547,6 +627,80 @@ public class SqlRepositoryConfiguration {
         this.iterativeSearchByPagingBatchSize = iterativeSearchByPagingBatchSize;
     }
 
+    /**
+     * Whether iterative searches should be executed in streaming mode: objects are fetched in batches
+     * ordered by OID (keyset paging, batch size = iterativeSearchByPagingBatchSize), the next batch being
+     * fetched while the current one is processed. Takes precedence over iterativeSearchByPaging.
+     */
+    public boolean isIterativeSearchStreaming() {
+        return iterativeSearchStreaming;
+    }
+
+    public void setIterativeSearchStreaming(boolean iterativeSearchStreaming) {
+        this.iterativeSearchStreaming = iterativeSearchStreaming;
+    }
+
+    /**
+     * Maximal number of threads that prefetch batches for streaming iterative searches (shared by all the searches).
+     * When all of them are busy, a search fetches its next batch itself. Zero means no prefetching at all.
+     */
+    public int getIterativeSearchPrefetchThreads() {
+        return iterativeSearchPrefetchThreads;
+    }
+
+    public void setIterativeSearchPrefetchThreads(int iterativeSearchPrefetchThreads) {
+        this.iterativeSearchPrefetchThreads = iterativeSearchPrefetchThreads;
+    }
+
+    /**
+     * Number of threads used to parse objects fetched by streaming iterative search (shared by all the searches).
+     * When they cannot keep up, the objects are parsed by the fetching thread itself. Zero means the objects
+     * are always parsed by the fetching thread.
+     */
+    public int getIterativeSearchDecoderThreads() {
+        return iterativeSearchDecoderThreads;
+    }
+
+    public void setIterativeSearchDecoderThreads(int iterativeSearchDecoderThreads) {
+        this.iterativeSearchDecoderThreads = iterativeSearchDecoderThreads;
+    }
+
+    /**
+     * Maximal number of query shapes whose translation to HQL is remembered. Zero disables the cache.
+     */
+    public int getQueryTranslationCacheSize() {
+        return queryTranslationCacheSize;
+    }
+
+    public void setQueryTranslationCacheSize(int queryTranslationCacheSize) {
+        this.queryTranslationCacheSize = queryTranslationCacheSize;
+    }
+
+    /**
+     * Directory of the embedded full text index (used if "embeddedIndex" full text search provider is configured).
+     * If not set, "fulltext-index" directory in midpoint.home is used.
+     */
+    public String getFullTextIndexDirectory() {
+        return fullTextIndexDirectory;
+    }
+
+    public void setFullTextIndexDirectory(String fullTextIndexDirectory) {
+        this.fullTextIndexDirectory = fullTextIndexDirectory;
+    }
+
+    /**
+     * Maximal number of objects that a full text search in the embedded index can match. For larger results
+     * the words stored in the repository are searched instead, because the matching OIDs are passed
+     * to the database query as parameters.
+     */
+    public int getFullTextIndexMaxHits() {
+        return fullTextIndexMaxHits;
+    }
+
+    public void setFullTextIndexMaxHits(int fullTextIndexMaxHits) {
+        this.fullTextIndexMaxHits = fullTextIndexMaxHits;
+    }
+
     public String getDataSource() {
         return dataSource;
     }
@@ -579,6 +733,66 @@ public class SqlRepositoryConfiguration {
         this.useZip = useZip;
     }
 
+    public int getJdbcBatchSize() {
+        return jdbcBatchSize;
+    }
+
+    public void setJdbcBatchSize(int jdbcBatchSize) {
+        this.jdbcBatchSize = jdbcBatchSize;
+    }
+
+    /**
+     * Whether hibernate should group inserts by entity type, so that the multi-object operations
+     * (addObjects) can make use of JDBC batching.
+     */
+    public boolean isOrderInserts() {
+        return orderInserts;
+    }
+
+    public void setOrderInserts(boolean orderInserts) {
+        this.orderInserts = orderInserts;
+    }
+
+    /**
+     * Maximal number of objects added or modified in one transaction by the multi-object operations
+     * (addObjects, modifyObjects). If such a transaction fails, only its objects are retried one by one.
+     */
+    public int getBatchTransactionSize() {
+        return batchTransactionSize;
+    }
+
+    public void setBatchTransactionSize(int batchTransactionSize) {
+        this.batchTransactionSize = batchTransactionSize;
+    }
+
+    /**
+     * Whether simple modifications (of single-valued properties, extension items and focus references)
+     * should update only the affected rows instead of merging the whole object graph. Off by default.
+     */
+    public boolean isPartialUpdates() {
+        return partialUpdates;
+    }
+
+    public void setPartialUpdates(boolean partialUpdates) {
+        this.partialUpdates = partialUpdates;
+    }
+
+    /**
+     * Format in which new and modified objects are stored in fullObject column: "xml" (the default) or "binary"
+     * (compact prism binary format, opt-in). Objects stored in either format can be read regardless of this setting.
+     */
+    public String getFullObjectFormat() {
+        return fullObjectFormat;
+    }
+
+    public void setFullObjectFormat(String fullObjectFormat) {
+        this.fullObjectFormat = fullObjectFormat;
+    }
+
+    public boolean isBinaryFullObjectFormat() {
+        return PrismContext.LANG_BINARY.equals(fullObjectFormat);
+    }
+
     public boolean isIgnoreOrgClosure() {
         return ignoreOrgClosure;
     }
@@ -644,6 +858,83 @@ public class SqlRepositoryConfiguration {
         this.skipOrgClosureStructureCheck = skipOrgClosureStructureCheck;
     }
 
+    public long getCacheInvalidationPollingInterval() {
+        return cacheInvalidationPollingInterval;
+    }
+
+    public void setCacheInvalidationPollingInterval(long cacheInvalidationPollingInterval) {
+        this.cacheInvalidationPollingInterval = cacheInvalidationPollingInterval;
+    }
+
+    public long getCacheInvalidationRetention() {
+        return cacheInvalidationRetention;
+    }
+
+    public void setCacheInvalidationRetention(long cacheInvalidationRetention) {
+        this.cacheInvalidationRetention = cacheInvalidationRetention;
+    }
+
+    public String getCacheInvalidationTypes() {
+        return cacheInvalidationTypes;
+    }
+
+    public void setCacheInvalidationTypes(String cacheInvalidationTypes) {
+        this.cacheInvalidationTypes = cacheInvalidationTypes;
+    }
+
+    /**
+     * Whether audit records are written by a background writer (in batches) instead of the caller's thread.
+     * Records waiting in the queue are lost if the node crashes; they are flushed on regular shutdown.
+     */
+    public boolean isAuditAsynchronous() {
+        return auditAsynchronous;
+    }
+
+    public void setAuditAsynchronous(boolean auditAsynchronous) {
+        this.auditAsynchronous = auditAsynchronous;
+    }
+
+    public int getAuditQueueSize() {
+        return auditQueueSize;
+    }
+
+    public void setAuditQueueSize(int auditQueueSize) {
+        this.auditQueueSize = auditQueueSize;
+    }
+
+    /**
+     * Maximal number of audit records written in one transaction.
+     */
+    public int getAuditBatchSize() {
+        return auditBatchSize;
+    }
+
+    public void setAuditBatchSize(int auditBatchSize) {
+        this.auditBatchSize = auditBatchSize;
+    }
+
+    /**
+     * How long can a record wait in the queue before it is written (if the batch is not full).
+     */
+    public long getAuditFlushInterval() {
+        return auditFlushInterval;
+    }
+
+    public void setAuditFlushInterval(long auditFlushInterval) {
+        this.auditFlushInterval = auditFlushInterval;
+    }
+
+    /**
+     * How long the caller waits for a free place in the queue. After that, the record is written synchronously.
+     */
+    public long getAuditQueueFullTimeout() {
+        return auditQueueFullTimeout;
+    }
+
+    public void setAuditQueueFullTimeout(long auditQueueFullTimeout) {
+        this.auditQueueFullTimeout = auditQueueFullTimeout;
+    }
+
     public String getDatabase() {
         return database;
     }
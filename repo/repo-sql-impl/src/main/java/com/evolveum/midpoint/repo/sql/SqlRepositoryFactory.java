@@ -19,6 +19,7 @@ package com.evolveum.midpoint.repo.sql;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactory;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
+import com.evolveum.midpoint.repo.sql.query2.QueryTranslationCache;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import org.apache.commons.configuration.Configuration;
@@ -52,6 +53,7 @@ public class SqlRepositoryFactory implements RepositoryServiceFactory {
     private Server server;
 
     private SqlPerformanceMonitor performanceMonitor;
+    private QueryTranslationCache queryTranslationCache;
 
     public SqlRepositoryConfiguration getSqlConfiguration() {
         Validate.notNull(sqlConfiguration, "Sql repository configuration not available (null).");
@@ -141,6 +143,8 @@ public class SqlRepositoryFactory implements RepositoryServiceFactory {
         performanceMonitor = new SqlPerformanceMonitor();
         performanceMonitor.initialize(this);
 
+        queryTranslationCache = new QueryTranslationCache(config.getQueryTranslationCacheSize(), performanceMonitor);
+
         LOGGER.info("Repository initialization finished.");
 
         initialized = true;
@@ -385,4 +389,8 @@ public class SqlRepositoryFactory implements RepositoryServiceFactory {
     public SqlPerformanceMonitor getPerformanceMonitor() {
         return performanceMonitor;
     }
+
+    public QueryTranslationCache getQueryTranslationCache() {
+        return queryTranslationCache;
+    }
 }
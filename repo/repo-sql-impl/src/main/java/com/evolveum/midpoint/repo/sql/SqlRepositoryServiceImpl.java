@@ -28,6 +28,7 @@ import com.evolveum.midpoint.prism.PrismObjectDefinition;
 import com.evolveum.midpoint.prism.PrismProperty;
 import com.evolveum.midpoint.prism.PrismPropertyValue;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.delta.PropertyDelta;
 import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
 import com.evolveum.midpoint.prism.path.ItemPath;
@@ -66,6 +67,7 @@ import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 import com.evolveum.prism.xml.ns._public.query_3.SearchFilterType;
 import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.lang.Validate;
 import org.hibernate.Session;
@@ -111,14 +113,18 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
     private static final String DETAILS_DATA_SOURCE = "dataSource";
     private static final String DETAILS_HIBERNATE_DIALECT = "hibernateDialect";
     private static final String DETAILS_HIBERNATE_HBM_2_DDL = "hibernateHbm2ddl";
+    private static final String DETAILS_AUDIT_WRITER = "auditWriter.";
 
     @Autowired private SequenceHelper sequenceHelper;
     @Autowired private ObjectRetriever objectRetriever;
     @Autowired private ObjectUpdater objectUpdater;
+    @Autowired private AuditBatchWriter auditBatchWriter;
     @Autowired private OrgClosureManager closureManager;
     @Autowired private BaseHelper baseHelper;
     @Autowired private MatchingRuleRegistry matchingRuleRegistry;
     @Autowired private MidpointConfiguration midpointConfiguration;
+    @Autowired private DatabaseCacheInvalidationChannel cacheInvalidationChannel;
+    @Autowired(required = false) private CacheDispatcher cacheDispatcher;
 
     private final ThreadLocal<List<ConflictWatcherImpl>> conflictWatchersThreadLocal = new ThreadLocal<>();
 
@@ -369,14 +375,26 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
     @Override
     public <T extends ObjectType> String addObject(PrismObject<T> object, RepoAddOptions options, OperationResult result)
             throws ObjectAlreadyExistsException, SchemaException {
-        Validate.notNull(object, "Object must not be null.");
-        validateName(object);
         Validate.notNull(result, "Operation result must not be null.");
 
         if (options == null) {
             options = new RepoAddOptions();
         }
 
+        checkObjectToAdd(object, options);
+
+        OperationResult subResult = result.createSubresult(ADD_OBJECT);
+        subResult.addParam("object", object);
+        subResult.addParam("options", options.toString());
+
+        return addObjectAttempts(object, options, subResult);
+    }
+
+    private <T extends ObjectType> void checkObjectToAdd(PrismObject<T> object, RepoAddOptions options)
+            throws SchemaException {
+        Validate.notNull(object, "Object must not be null.");
+        validateName(object);
+
         LOGGER.debug("Adding object type '{}', overwrite={}, allowUnencryptedValues={}",
                 object.getCompileTimeClass().getSimpleName(), options.isOverwrite(),
                 options.isAllowUnencryptedValues());
@@ -396,11 +414,10 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
             PolyStringType namePolyType = object.asObjectable().getName();
             LOGGER.trace("NAME: {} - {}", namePolyType.getOrig(), namePolyType.getNorm());
         }
+    }
 
-        OperationResult subResult = result.createSubresult(ADD_OBJECT);
-        subResult.addParam("object", object);
-        subResult.addParam("options", options.toString());
-
+    private <T extends ObjectType> String addObjectAttempts(PrismObject<T> object, RepoAddOptions options,
+            OperationResult subResult) throws ObjectAlreadyExistsException, SchemaException {
         // TODO use executeAttempts
         final String operation = "adding";
         int attempt = 1;
@@ -410,6 +427,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
             try {
                 String createdOid = objectUpdater.addObjectAttempt(object, options, subResult);
 	            invokeConflictWatchers((w) -> w.afterAddObject(createdOid, object));
+	            dispatchCacheInvalidation(object.getCompileTimeClass(), createdOid, object.getVersion());
 	            return createdOid;
             } catch (RuntimeException ex) {
                 attempt = baseHelper.logOperationAttempt(proposedOid, operation, attempt, ex, subResult);
@@ -417,10 +435,106 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         }
     }
 
+    @NotNull
+    @Override
+    public List<String> addObjects(@NotNull List<? extends PrismObject<? extends ObjectType>> objects,
+            RepoAddOptions options, OperationResult result) {
+        Validate.notNull(objects, "Objects must not be null.");
+        Validate.notNull(result, "Operation result must not be null.");
+
+        final RepoAddOptions addOptions = options != null ? options : new RepoAddOptions();
+
+        LOGGER.debug("Adding {} objects, overwrite={}", objects.size(), addOptions.isOverwrite());
+
+        OperationResult subResult = result.createSubresult(ADD_OBJECTS);
+        subResult.addParam("count", objects.size());
+        subResult.addParam("options", addOptions.toString());
+
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart("addObjects");
+
+        List<String> oids = new ArrayList<>(Collections.nCopies(objects.size(), null));
+        try {
+            List<OperationResult> itemResults = new ArrayList<>(objects.size());
+            List<Integer> batch = new ArrayList<>();
+            List<Integer> oneByOne = new ArrayList<>();
+            for (int i = 0; i < objects.size(); i++) {
+                PrismObject<? extends ObjectType> object = objects.get(i);
+                OperationResult itemResult = subResult.createSubresult(ADD_OBJECT);
+                itemResult.addParam("object", object);
+                itemResults.add(itemResult);
+                try {
+                    checkObjectToAdd(object, addOptions);
+                } catch (SchemaException | RuntimeException e) {
+                    itemResult.recordFatalError(e);
+                    continue;
+                }
+                if (!addOptions.isOverwrite() && objectUpdater.isBatchable(object.getCompileTimeClass())) {
+                    batch.add(i);
+                } else {
+                    oneByOne.add(i);
+                }
+            }
+
+            for (List<Integer> chunk : ListUtils.partition(batch, getBatchTransactionSize())) {
+                List<PrismObject<? extends ObjectType>> batchObjects = new ArrayList<>(chunk.size());
+                chunk.forEach(i -> batchObjects.add(objects.get(i)));
+                List<ObjectUpdater.BatchItemOutcome> outcomes = objectUpdater.addObjectsAttempt(batchObjects);
+                if (outcomes != null) {
+                    for (int j = 0; j < chunk.size(); j++) {
+                        int i = chunk.get(j);
+                        PrismObject<? extends ObjectType> object = objects.get(i);
+                        ObjectUpdater.BatchItemOutcome outcome = outcomes.get(j);
+                        if (outcome.getException() != null) {
+                            itemResults.get(i).recordFatalError(outcome.getException());
+                        } else {
+                            oids.set(i, outcome.getOid());
+                            invokeConflictWatchers((w) -> w.afterAddObject(outcome.getOid(), object));
+                            dispatchCacheInvalidation(object.getCompileTimeClass(), outcome.getOid(), object.getVersion());
+                            itemResults.get(i).recordSuccess();
+                        }
+                    }
+                } else {
+                    // the failing object(s) will get their own error; the rest will be added successfully
+                    oneByOne.addAll(chunk);
+                }
+            }
+            Collections.sort(oneByOne);
+
+            for (int i : oneByOne) {
+                OperationResult itemResult = itemResults.get(i);
+                try {
+                    oids.set(i, addObjectAttempts(objects.get(i), addOptions, itemResult));
+                } catch (ObjectAlreadyExistsException | SchemaException | RuntimeException e) {
+                    itemResult.recordFatalError(e);
+                }
+                itemResult.computeStatusIfUnknown();
+            }
+        } finally {
+            pm.registerOperationFinish(opHandle, 1);
+            subResult.computeStatus();
+        }
+        return oids;
+    }
+
+    private int getBatchTransactionSize() {
+        return Math.max(1, getConfiguration().getBatchTransactionSize());
+    }
+
     public void invokeConflictWatchers(Consumer<ConflictWatcherImpl> consumer) {
 	    emptyIfNull(conflictWatchersThreadLocal.get()).forEach(consumer);
     }
 
+    /**
+     * Notifies node-wide caches (on this node and, if a channel is configured, on other cluster nodes)
+     * about committed change of an object.
+     */
+    private void dispatchCacheInvalidation(Class<? extends ObjectType> type, String oid, String version) {
+    	if (cacheDispatcher != null && type != null && oid != null) {
+    		cacheDispatcher.dispatch(type, oid, version);
+	    }
+    }
+
     private void validateName(PrismObject object) throws SchemaException {
         PrismProperty name = object.findProperty(ObjectType.F_NAME);
         if (name == null || ((PolyString) name.getRealValue()).isEmpty()) {
@@ -441,10 +555,11 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         subResult.addParam("type", type.getName());
         subResult.addParam("oid", oid);
 
-        executeAttemptsNoSchemaException(oid, "deleteObject", "deleting",
+        Class<? extends ObjectType> deletedType = executeAttemptsNoSchemaException(oid, "deleteObject", "deleting",
                 subResult, () -> objectUpdater.deleteObjectAttempt(type, oid, subResult)
         );
 	    invokeConflictWatchers((w) -> w.afterDeleteObject(oid));
+	    dispatchCacheInvalidation(deletedType != null ? deletedType : type, oid, null);
     }
 
     @Override
@@ -511,6 +626,11 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
             return;
         }
 
+        checkModifications(modifications);
+        modifyObjectAttempts(type, oid, modifications, precondition, options, subResult);
+    }
+
+    private void checkModifications(Collection<? extends ItemDelta> modifications) {
         if (InternalsConfig.encryptionChecks) {
             CryptoUtil.checkEncrypted(modifications);
         }
@@ -535,6 +655,12 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
                 }
             }
         }
+    }
+
+    private <T extends ObjectType> void modifyObjectAttempts(Class<T> type, String oid,
+            Collection<? extends ItemDelta> modifications, ModificationPrecondition<T> precondition,
+            RepoModifyOptions options, OperationResult subResult)
+            throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException, PreconditionViolationException {
 
         // TODO executeAttempts?
         final String operation = "modifying";
@@ -546,8 +672,11 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         try {
             while (true) {
                 try {
-                    objectUpdater.modifyObjectAttempt(type, oid, modifications, precondition, options, subResult, this);
+                    String newVersion = objectUpdater.modifyObjectAttempt(type, oid, modifications, precondition, options, subResult, this);
 	                invokeConflictWatchers((w) -> w.afterModifyObject(oid));
+	                if (newVersion != null) {
+		                dispatchCacheInvalidation(type, oid, newVersion);
+	                }
                     return;
                 } catch (RuntimeException ex) {
                     attempt = baseHelper.logOperationAttempt(oid, operation, attempt, ex, subResult);
@@ -559,6 +688,104 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         }
     }
 
+    @Override
+    public void modifyObjects(@NotNull List<? extends ObjectDelta<? extends ObjectType>> deltas, RepoModifyOptions options,
+            OperationResult result) {
+        Validate.notNull(deltas, "Deltas must not be null.");
+        Validate.notNull(result, "Operation result must not be null.");
+
+        LOGGER.debug("Modifying {} objects", deltas.size());
+
+        OperationResult subResult = result.createSubresult(MODIFY_OBJECTS);
+        subResult.addParam("count", deltas.size());
+
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart("modifyObjects");
+
+        try {
+            List<OperationResult> itemResults = new ArrayList<>(deltas.size());
+            List<Integer> batch = new ArrayList<>();
+            List<Integer> oneByOne = new ArrayList<>();
+            for (int i = 0; i < deltas.size(); i++) {
+                ObjectDelta<? extends ObjectType> delta = deltas.get(i);
+                OperationResult itemResult = subResult.createSubresult(MODIFY_OBJECT);
+                itemResults.add(itemResult);
+                try {
+                    Validate.notNull(delta, "Delta must not be null.");
+                    Validate.isTrue(delta.isModify(), "Only MODIFY deltas can be executed in modifyObjects: ", delta);
+                    Validate.notNull(delta.getObjectTypeClass(), "Object class in delta must not be null.");
+                    Validate.notEmpty(delta.getOid(), "Oid must not null or empty.");
+                    itemResult.addParam("type", delta.getObjectTypeClass().getName());
+                    itemResult.addParam("oid", delta.getOid());
+                    itemResult.addArbitraryObjectCollectionAsParam("modifications", delta.getModifications());
+                    if (delta.getModifications().isEmpty() && !RepoModifyOptions.isExecuteIfNoChanges(options)) {
+                        itemResult.recordStatus(OperationResultStatus.SUCCESS, "Modification list is empty, nothing was modified.");
+                        continue;
+                    }
+                    checkModifications(delta.getModifications());
+                } catch (RuntimeException e) {
+                    itemResult.recordFatalError(e);
+                    continue;
+                }
+                if (objectUpdater.isBatchable(delta.getObjectTypeClass())) {
+                    batch.add(i);
+                } else {
+                    oneByOne.add(i);
+                }
+            }
+
+            for (List<Integer> chunk : ListUtils.partition(batch, getBatchTransactionSize())) {
+                List<ObjectDelta<? extends ObjectType>> batchDeltas = new ArrayList<>(chunk.size());
+                chunk.forEach(i -> batchDeltas.add(deltas.get(i)));
+                List<ObjectUpdater.BatchItemOutcome> outcomes = objectUpdater.modifyObjectsAttempt(batchDeltas, options,
+                        subResult, this);
+                if (outcomes != null) {
+                    for (int j = 0; j < chunk.size(); j++) {
+                        int i = chunk.get(j);
+                        ObjectDelta<? extends ObjectType> delta = deltas.get(i);
+                        ObjectUpdater.BatchItemOutcome outcome = outcomes.get(j);
+                        if (outcome.getException() != null) {
+                            itemResults.get(i).recordFatalError(outcome.getException());
+                        } else {
+                            invokeConflictWatchers((w) -> w.afterModifyObject(delta.getOid()));
+                            if (outcome.getVersion() != null) {
+                                dispatchCacheInvalidation(delta.getObjectTypeClass(), delta.getOid(), outcome.getVersion());
+                            }
+                            itemResults.get(i).recordSuccess();
+                        }
+                    }
+                } else {
+                    // the failing delta(s) will get their own error; the rest will be executed successfully
+                    oneByOne.addAll(chunk);
+                }
+            }
+            Collections.sort(oneByOne);
+
+            for (int i : oneByOne) {
+                OperationResult itemResult = itemResults.get(i);
+                try {
+                    modifyObjectAttempts(deltas.get(i), options, itemResult);
+                } catch (ObjectNotFoundException | SchemaException | ObjectAlreadyExistsException | RuntimeException e) {
+                    itemResult.recordFatalError(e);
+                }
+                itemResult.computeStatusIfUnknown();
+            }
+        } finally {
+            pm.registerOperationFinish(opHandle, 1);
+            subResult.computeStatus();
+        }
+    }
+
+    private <T extends ObjectType> void modifyObjectAttempts(ObjectDelta<T> delta, RepoModifyOptions options,
+            OperationResult subResult) throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException {
+        try {
+            modifyObjectAttempts(delta.getObjectTypeClass(), delta.getOid(), delta.getModifications(), null, options,
+                    subResult);
+        } catch (PreconditionViolationException e) {
+            throw new AssertionError(e);    // with null precondition we couldn't get this exception
+        }
+    }
+
     @Override
     public <T extends ShadowType> List<PrismObject<T>> listResourceObjectShadows(String resourceOid,
             Class<T> resourceObjectShadowType, OperationResult result) throws ObjectNotFoundException, SchemaException {
@@ -623,6 +850,9 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         details.add(new LabeledString(DETAILS_DATA_SOURCE, config.getDataSource()));
         details.add(new LabeledString(DETAILS_HIBERNATE_DIALECT, config.getHibernateDialect()));
         details.add(new LabeledString(DETAILS_HIBERNATE_HBM_2_DDL, config.getHibernateHbm2ddl()));
+        if (config.isAuditAsynchronous()) {
+            addAuditWriterDetails(details);
+        }
 
         readDetailsFromConnection(diag, config);
 
@@ -637,6 +867,19 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         return diag;
     }
 
+    private void addAuditWriterDetails(List<LabeledString> details) {
+        details.add(new LabeledString(DETAILS_AUDIT_WRITER + "recordsWritten", String.valueOf(auditBatchWriter.getRecordsWritten())));
+        details.add(new LabeledString(DETAILS_AUDIT_WRITER + "recordsFailed", String.valueOf(auditBatchWriter.getRecordsFailed())));
+        details.add(new LabeledString(DETAILS_AUDIT_WRITER + "recordsWrittenSynchronously", String.valueOf(auditBatchWriter.getRecordsRejected())));
+        details.add(new LabeledString(DETAILS_AUDIT_WRITER + "queueDepth", String.valueOf(auditBatchWriter.getQueueDepth())));
+        details.add(new LabeledString(DETAILS_AUDIT_WRITER + "maxQueueDepth", String.valueOf(auditBatchWriter.getMaxQueueDepth())));
+        details.add(new LabeledString(DETAILS_AUDIT_WRITER + "flushes", String.valueOf(auditBatchWriter.getFlushes())));
+        details.add(new LabeledString(DETAILS_AUDIT_WRITER + "avgFlushTime", String.valueOf(auditBatchWriter.getAverageFlushTime())));
+        details.add(new LabeledString(DETAILS_AUDIT_WRITER + "maxFlushTime", String.valueOf(auditBatchWriter.getMaxFlushTime())));
+        details.add(new LabeledString(DETAILS_AUDIT_WRITER + "failing", auditBatchWriter.isFailing()
+                ? String.valueOf(auditBatchWriter.getLastFailure()) : "false"));
+    }
+
     private void readDetailsFromConnection(RepositoryDiag diag, final SqlRepositoryConfiguration config) {
         final List<LabeledString> details = diag.getAdditionalDetails();
 
@@ -785,6 +1028,11 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
 			}
 		}
 
+        if (getConfiguration().isIterativeSearchStreaming() && (query == null || query.getPaging() == null)) {
+            objectRetriever.searchObjectsIterativeStreaming(type, query, handler, options, getPerformanceMonitor(), subResult);
+            return null;
+        }
+
         if (getConfiguration().isIterativeSearchByPaging()) {
             if (strictlySequential) {
                 objectRetriever.searchObjectsIterativeByPagingStrictlySequential(type, query, handler, options, subResult);
@@ -867,6 +1115,13 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         if (LOGGER.isTraceEnabled())
             LOGGER.trace("Advancing sequence {}", oid);
 
+        Long reservedValue = sequenceHelper.takeReservedValue(oid, result);
+        if (reservedValue != null) {
+            LOGGER.trace("Using value {} reserved for sequence {} on this node", reservedValue, oid);
+            result.recordSuccess();
+            return reservedValue;
+        }
+
         // TODO executeAttempts
         int attempt = 1;
 
@@ -1053,6 +1308,8 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
 	@Override
 	public void postInit(OperationResult result) throws SchemaException {
 
+		cacheInvalidationChannel.start();
+
 		SystemConfigurationType systemConfiguration;
 		try {
 			systemConfiguration = getObject(SystemConfigurationType.class,
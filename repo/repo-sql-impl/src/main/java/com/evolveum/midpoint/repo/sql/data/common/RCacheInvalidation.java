@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.data.common;
+
+import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
+import com.evolveum.midpoint.repo.sql.util.RUtil;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.sql.Timestamp;
+
+import static com.evolveum.midpoint.repo.sql.data.common.RCacheInvalidation.COLUMN_TIMESTAMP;
+import static com.evolveum.midpoint.repo.sql.data.common.RCacheInvalidation.TABLE_NAME;
+
+/**
+ * Record of a committed change of a (cacheable) object. These records are published by one cluster node
+ * and polled by the others, in order to invalidate their node-wide caches.
+ *
+ * A record without object type and OID is an "invalidate all" marker: it is published when the node
+ * could not publish some of its records, so the other nodes have to drop everything they have cached.
+ *
+ * @author agent
+ */
+@Entity
+@Table(name = TABLE_NAME, indexes = {
+        @Index(name = "iCacheInvalidationTimestamp", columnList = COLUMN_TIMESTAMP) })
+public class RCacheInvalidation implements Serializable {
+
+    public static final String TABLE_NAME = "m_cache_invalidation";
+    public static final String COLUMN_TIMESTAMP = "timestampValue";
+
+    public static final String F_ID = "id";
+    public static final String F_NODE_IDENTIFIER = "nodeIdentifier";
+    public static final String F_TIMESTAMP = "timestamp";
+
+    private long id;
+    private String nodeIdentifier;
+    private String objectOid;
+    private RObjectType objectType;
+    private String objectVersion;
+    private Timestamp timestamp;
+
+    public RCacheInvalidation() {
+    }
+
+    public RCacheInvalidation(String nodeIdentifier, RObjectType objectType, String objectOid, String objectVersion,
+            Timestamp timestamp) {
+        this.nodeIdentifier = nodeIdentifier;
+        this.objectType = objectType;
+        this.objectOid = objectOid;
+        this.objectVersion = objectVersion;
+        this.timestamp = timestamp;
+    }
+
+    public static RCacheInvalidation createInvalidateAllMarker(String nodeIdentifier) {
+        return new RCacheInvalidation(nodeIdentifier, null, null, null, null);
+    }
+
+    @Id
+    @GeneratedValue
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getNodeIdentifier() {
+        return nodeIdentifier;
+    }
+
+    public void setNodeIdentifier(String nodeIdentifier) {
+        this.nodeIdentifier = nodeIdentifier;
+    }
+
+    @Column(length = RUtil.COLUMN_LENGTH_OID)
+    public String getObjectOid() {
+        return objectOid;
+    }
+
+    public void setObjectOid(String objectOid) {
+        this.objectOid = objectOid;
+    }
+
+    @Enumerated(EnumType.ORDINAL)
+    public RObjectType getObjectType() {
+        return objectType;
+    }
+
+    public void setObjectType(RObjectType objectType) {
+        this.objectType = objectType;
+    }
+
+    public String getObjectVersion() {
+        return objectVersion;
+    }
+
+    public void setObjectVersion(String objectVersion) {
+        this.objectVersion = objectVersion;
+    }
+
+    @Column(name = COLUMN_TIMESTAMP)
+    public Timestamp getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Timestamp timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @Transient
+    public boolean isInvalidateAll() {
+        return objectType == null && objectOid == null;
+    }
+
+    @Override
+    public String toString() {
+        return "RCacheInvalidation{" +
+                "id=" + id +
+                ", nodeIdentifier='" + nodeIdentifier + '\'' +
+                ", objectType=" + objectType +
+                ", objectOid='" + objectOid + '\'' +
+                ", objectVersion='" + objectVersion + '\'' +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
@@ -129,6 +129,15 @@ public class RObjectTextInfo implements Serializable {
 		if (!FullTextSearchConfigurationUtil.isEnabled(config)) {
 			return Collections.emptySet();
 		}
+		return createItemsSet(repo, getWords(object, config, repositoryContext.prismContext));
+	}
+
+	/**
+	 * Returns normalized words of items configured for full text search (in the order of appearance, without duplicates).
+	 */
+	@NotNull
+	public static List<String> getWords(@NotNull ObjectType object, @NotNull FullTextSearchConfigurationType config,
+			@NotNull PrismContext prismContext) {
 		Set<ItemPath> paths = FullTextSearchConfigurationUtil.getFullTextSearchItemPaths(config, object.getClass());
 
 		List<PrismValue> values = new ArrayList<>();
@@ -155,16 +164,16 @@ public class RObjectTextInfo implements Serializable {
 				if (realValue == null) {
 					// skip
 				} else if (realValue instanceof String) {
-					append(allWords, (String) realValue, repositoryContext.prismContext);
+					append(allWords, (String) realValue, prismContext);
 				} else if (realValue instanceof PolyString) {
-					append(allWords, (PolyString) realValue, repositoryContext.prismContext);
+					append(allWords, (PolyString) realValue, prismContext);
 				} else {
-					append(allWords, realValue.toString(), repositoryContext.prismContext);
+					append(allWords, realValue.toString(), prismContext);
 				}
 			}
 		}
 		LOGGER.trace("Indexing {}:\n  items: {}\n  values: {}\n  words:  {}", object, paths, values, allWords);
-		return createItemsSet(repo, allWords);
+		return allWords;
     }
 
 	private static Set<RObjectTextInfo> createItemsSet(RObject repo, List<String> allWords) {
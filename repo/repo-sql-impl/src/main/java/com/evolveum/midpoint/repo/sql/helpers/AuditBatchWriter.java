@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.helpers;
+
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes audit records in a background thread. Records are taken from a bounded queue and written in batches
+ * (one transaction per batch; rows are inserted using JDBC batching if enabled by jdbcBatchSize). A batch is
+ * written when it is full (auditBatchSize) or when its oldest record waits for auditFlushInterval.
+ *
+ * If the queue is full (i.e. the database cannot keep up), the caller waits up to auditQueueFullTimeout
+ * and then writes the record itself. So the callers are slowed down instead of records being lost.
+ *
+ * If a record cannot be written even after the usual retries, the writer does not drop it: it keeps retrying
+ * (every auditFlushInterval) and, until it succeeds, it refuses new records. Callers then write their records
+ * synchronously, so they get the error themselves. The failure is also available via {@link #getLastFailure()}.
+ * Each attempt uses entities freshly created from the original records, as entities from a rolled back
+ * session cannot be saved again.
+ *
+ * Records still waiting in the queue are written when the writer is stopped.
+ *
+ * @author agent
+ */
+@Component
+public class AuditBatchWriter {
+
+	private static final Trace LOGGER = TraceManager.getTrace(AuditBatchWriter.class);
+
+	private static final long STOP_TIMEOUT = 60000L;			// millis
+	private static final long RETRY_CHECK_INTERVAL = 100L;		// millis
+
+	@Autowired private BaseHelper baseHelper;
+	@Autowired private PrismContext prismContext;
+
+	private BlockingQueue<QueuedRecord> queue;
+	private volatile boolean running;
+	private boolean stopped;
+	private Thread writerThread;
+
+	private volatile boolean failing;
+	private volatile Throwable lastFailure;
+
+	// statistics
+	private final AtomicLong recordsAccepted = new AtomicLong();
+	private final AtomicLong recordsWritten = new AtomicLong();
+	private final AtomicLong recordsFailed = new AtomicLong();
+	private final AtomicLong recordsRejected = new AtomicLong();
+	private final AtomicLong flushes = new AtomicLong();
+	private final AtomicLong flushTime = new AtomicLong();
+	private volatile long maxFlushTime;
+	private volatile int maxQueueDepth;
+
+	private final Object progressLock = new Object();
+
+	/**
+	 * A record waiting to be written. The entity is created on the caller's thread (so it is not influenced
+	 * by later changes of the original record), and re-created from the copy of the original record if it has
+	 * to be saved again.
+	 */
+	private static class QueuedRecord {
+		private final AuditEventRecord source;
+		private RAuditEventRecord entity;
+
+		private QueuedRecord(AuditEventRecord source, RAuditEventRecord entity) {
+			this.source = source;
+			this.entity = entity;
+		}
+
+		@Override
+		public String toString() {
+			return String.valueOf(source);
+		}
+	}
+
+	private SqlRepositoryConfiguration getConfiguration() {
+		return baseHelper.getConfiguration();
+	}
+
+	/**
+	 * Puts the record into the queue, waiting for a free place if necessary.
+	 *
+	 * @return false if the record was not accepted (the queue was full for too long, the writer is stopped
+	 * or it cannot write the records); the caller has to write the record itself
+	 */
+	public boolean enqueue(AuditEventRecord record) {
+		BlockingQueue<QueuedRecord> queue = start();
+		if (queue == null) {
+			return false;
+		}
+		if (failing) {
+			recordsRejected.incrementAndGet();
+			LOGGER.debug("Audit writer is failing, the record will be written synchronously");
+			return false;
+		}
+		QueuedRecord queuedRecord;
+		try {
+			queuedRecord = new QueuedRecord(record.clone(), RAuditEventRecord.toRepo(record, prismContext));
+		} catch (DtoTranslationException ex) {
+			throw new SystemException(ex.getMessage(), ex);
+		}
+		boolean accepted;
+		try {
+			accepted = queue.offer(queuedRecord, getConfiguration().getAuditQueueFullTimeout(), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			accepted = false;
+		}
+		if (accepted) {
+			recordsAccepted.incrementAndGet();
+			int depth = queue.size();
+			if (depth > maxQueueDepth) {
+				maxQueueDepth = depth;			// not exact under contention, but good enough for statistics
+			}
+		} else {
+			recordsRejected.incrementAndGet();
+			LOGGER.debug("Audit queue is full, the record will be written synchronously");
+		}
+		return accepted;
+	}
+
+	private synchronized BlockingQueue<QueuedRecord> start() {
+		if (running) {
+			return queue;
+		} else if (stopped) {
+			return null;
+		}
+		SqlRepositoryConfiguration config = getConfiguration();
+		queue = new ArrayBlockingQueue<>(config.getAuditQueueSize());
+		running = true;
+		writerThread = new Thread(this::writerLoop, "Audit writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		LOGGER.info("Asynchronous audit writer started: queue size {}, batch size {}, flush interval {} ms",
+				config.getAuditQueueSize(), config.getAuditBatchSize(), config.getAuditFlushInterval());
+		return queue;
+	}
+
+	/**
+	 * Waits until all the records accepted before this call are processed (written or given up at stop).
+	 *
+	 * @return false if the timeout elapsed first
+	 */
+	public boolean flush(long timeout) throws InterruptedException {
+		long target = recordsAccepted.get();
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (progressLock) {
+			while (recordsWritten.get() + recordsFailed.get() < target) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				progressLock.wait(remaining);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stops accepting new records and writes all records that are in the queue.
+	 */
+	@PreDestroy
+	public void stop() {
+		Thread thread;
+		synchronized (this) {
+			if (!running) {
+				return;
+			}
+			running = false;
+			stopped = true;
+			thread = writerThread;
+		}
+		try {
+			thread.join(STOP_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (thread.isAlive()) {
+			LOGGER.error("Audit writer did not finish in {} ms; {} records were not written", STOP_TIMEOUT, queue.size());
+		}
+		if (recordsFailed.get() > 0) {
+			LOGGER.error("Asynchronous audit writer stopped, {} audit records could not be written. {}",
+					recordsFailed.get(), getStatistics());
+		} else {
+			LOGGER.info("Asynchronous audit writer stopped. {}", getStatistics());
+		}
+	}
+
+	public int getQueueDepth() {
+		return queue != null ? queue.size() : 0;
+	}
+
+	public int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	public long getRecordsWritten() {
+		return recordsWritten.get();
+	}
+
+	/**
+	 * Records that could not be written at all. This can happen only when the writer is stopped
+	 * while the database is failing.
+	 */
+	public long getRecordsFailed() {
+		return recordsFailed.get();
+	}
+
+	/**
+	 * Records not accepted (and therefore written synchronously by the caller), because the queue was full
+	 * or the writer was failing.
+	 */
+	public long getRecordsRejected() {
+		return recordsRejected.get();
+	}
+
+	public long getFlushes() {
+		return flushes.get();
+	}
+
+	public long getAverageFlushTime() {
+		long flushesCount = flushes.get();
+		return flushesCount > 0 ? flushTime.get() / flushesCount : 0;
+	}
+
+	public long getMaxFlushTime() {
+		return maxFlushTime;
+	}
+
+	/**
+	 * Whether the writer is currently unable to write records (and so it refuses new ones).
+	 */
+	public boolean isFailing() {
+		return failing;
+	}
+
+	public Throwable getLastFailure() {
+		return lastFailure;
+	}
+
+	public String getStatistics() {
+		return "Records written: " + getRecordsWritten() + ", failed: " + getRecordsFailed()
+				+ ", written synchronously: " + getRecordsRejected()
+				+ ", flushes: " + getFlushes() + ", avg flush time: " + getAverageFlushTime()
+				+ " ms, max flush time: " + getMaxFlushTime() + " ms, current queue depth: " + getQueueDepth()
+				+ ", max queue depth: " + getMaxQueueDepth() + (failing ? ", FAILING: " + lastFailure : "");
+	}
+
+	private void writerLoop() {
+		List<QueuedRecord> batch = new ArrayList<>();
+		while (running || !queue.isEmpty()) {
+			try {
+				collectBatch(batch);
+			} catch (InterruptedException e) {
+				LOGGER.debug("Audit writer interrupted");			// we'll continue until the queue is empty
+			}
+			if (!batch.isEmpty()) {
+				write(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Waits for the first record, then collects more records until the batch is full or the flush interval elapses.
+	 */
+	private void collectBatch(List<QueuedRecord> batch) throws InterruptedException {
+		SqlRepositoryConfiguration config = getConfiguration();
+		int batchSize = config.getAuditBatchSize();
+		QueuedRecord first = running ? queue.poll(config.getAuditFlushInterval(), TimeUnit.MILLISECONDS) : queue.poll();
+		if (first == null) {
+			return;
+		}
+		batch.add(first);
+		long deadline = System.currentTimeMillis() + config.getAuditFlushInterval();
+		while (batch.size() < batchSize) {
+			queue.drainTo(batch, batchSize - batch.size());
+			long remaining = deadline - System.currentTimeMillis();
+			if (batch.size() >= batchSize || remaining <= 0 || !running) {
+				break;
+			}
+			QueuedRecord next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+			if (next == null) {
+				break;
+			}
+			batch.add(next);
+		}
+	}
+
+	private void write(List<QueuedRecord> batch) {
+		long start = System.currentTimeMillis();
+		try {
+			writeAttempt(batch);
+			recordProgress(recordsWritten, batch.size());
+		} catch (RuntimeException ex) {
+			LOGGER.warn("Couldn't write a batch of {} audit records, writing them one by one: {}", batch.size(), ex.getMessage());
+			for (QueuedRecord record : batch) {
+				writeSingle(record);
+			}
+		}
+		long time = System.currentTimeMillis() - start;
+		flushes.incrementAndGet();
+		flushTime.addAndGet(time);
+		if (time > maxFlushTime) {
+			maxFlushTime = time;
+		}
+		LOGGER.debug("Written {} audit records in {} ms, queue depth: {}", batch.size(), time, queue.size());
+	}
+
+	/**
+	 * Writes the record, retrying until it succeeds. Gives up only if the writer is being stopped.
+	 */
+	private void writeSingle(QueuedRecord record) {
+		int attempt = 1;
+		while (true) {
+			try {
+				writeAttempt(Collections.singletonList(record));
+				recordProgress(recordsWritten, 1);
+				if (failing) {
+					LOGGER.info("Audit writer recovered, writing records again");
+					failing = false;
+				}
+				return;
+			} catch (RuntimeException ex) {
+				try {
+					attempt = baseHelper.logOperationAttempt(null, "audit", attempt, ex, null);
+				} catch (RuntimeException finalEx) {
+					lastFailure = finalEx;
+					if (!running) {
+						recordProgress(recordsFailed, 1);
+						LoggingUtils.logUnexpectedException(LOGGER, "Couldn't write audit record {}", finalEx, record);
+						return;
+					}
+					if (!failing) {
+						LoggingUtils.logUnexpectedException(LOGGER, "Couldn't write audit record {}, refusing new "
+								+ "records until it is written", finalEx, record);
+						failing = true;
+					}
+					attempt = 1;
+					waitBeforeRetry();
+				}
+			}
+		}
+	}
+
+	private void waitBeforeRetry() {
+		// not interrupting JDBC operations when stopping, so we check the flag periodically
+		long deadline = System.currentTimeMillis() + getConfiguration().getAuditFlushInterval();
+		try {
+			while (running && System.currentTimeMillis() < deadline) {
+				Thread.sleep(Math.min(RETRY_CHECK_INTERVAL, Math.max(1, deadline - System.currentTimeMillis())));
+			}
+		} catch (InterruptedException e) {
+			LOGGER.debug("Audit writer interrupted while waiting for retry");
+		}
+	}
+
+	private void recordProgress(AtomicLong counter, int count) {
+		synchronized (progressLock) {
+			counter.addAndGet(count);
+			progressLock.notifyAll();
+		}
+	}
+
+	private void writeAttempt(List<QueuedRecord> records) {
+		Session session = null;
+		boolean committed = false;
+		try {
+			session = baseHelper.beginTransaction();
+			for (QueuedRecord record : records) {
+				if (record.entity == null) {
+					record.entity = RAuditEventRecord.toRepo(record.source, prismContext);
+				}
+				session.save(record.entity);
+			}
+			session.getTransaction().commit();
+			committed = true;
+		} catch (DtoTranslationException ex) {
+			// should not occur, as the same record was already translated once
+			throw new SystemException(ex.getMessage(), ex);
+		} catch (RuntimeException ex) {
+			baseHelper.handleGeneralRuntimeException(ex, session, null);
+		} finally {
+			baseHelper.cleanupSessionAndResult(session, null);
+			// the entities cannot be reused after an unsuccessful attempt
+			if (!committed) {
+				records.forEach(r -> r.entity = null);
+			}
+		}
+	}
+}
@@ -17,6 +17,7 @@
 package com.evolveum.midpoint.repo.sql.helpers;
 
 import com.evolveum.midpoint.repo.sql.*;
+import com.evolveum.midpoint.repo.sql.query2.QueryTranslationCache;
 import com.evolveum.midpoint.repo.sql.util.RUtil;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.SystemException;
@@ -116,6 +117,10 @@ public class BaseHelper {
 		return repositoryFactory.getSqlConfiguration();
 	}
 
+	public QueryTranslationCache getQueryTranslationCache() {
+		return repositoryFactory.getQueryTranslationCache();
+	}
+
 	public void rollbackTransaction(Session session) {
 		rollbackTransaction(session, null, null, false);
 	}
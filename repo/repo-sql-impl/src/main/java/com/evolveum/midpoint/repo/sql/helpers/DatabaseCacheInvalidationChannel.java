@@ -0,0 +1,504 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.helpers;
+
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheInvalidationChannel;
+import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
+import com.evolveum.midpoint.repo.sql.data.common.RCacheInvalidation;
+import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
+import com.evolveum.midpoint.repo.sql.util.ClassMapper;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.apache.commons.lang.StringUtils;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Cluster-wide cache invalidation channel that uses m_cache_invalidation table as a message bus:
+ * each node inserts a row for every committed change of a cacheable object type, and polls the table
+ * for rows inserted by other nodes.
+ *
+ * Events are published asynchronously: they are queued and written by a single publisher thread,
+ * as many of them in one transaction as are waiting. Repeated events for the same object are merged
+ * while waiting; events that could not be written are queued again. If the queue overflows (e.g. because
+ * the database is not available for a long time), the events are dropped and an "invalidate all" marker
+ * is published instead, so that other nodes drop everything they have cached.
+ *
+ * Records are tagged with the task manager node identifier (falling back to a random one if there is no
+ * task manager), so each node can skip the records it published itself.
+ *
+ * All timestamps (both of records and of polling cursors) are taken from the database clock, so clocks
+ * of the individual nodes do not matter. Each poll looks back by {@link #COMMIT_TOLERANCE} to catch records
+ * whose transactions were still running during the previous poll; records already seen are skipped.
+ * Old records are deleted after configured retention time.
+ *
+ * Disabled by default; it is enabled by setting cacheInvalidationPollingInterval (in milliseconds)
+ * in the repository configuration.
+ *
+ * @author agent
+ */
+@Component
+public class DatabaseCacheInvalidationChannel implements CacheInvalidationChannel, BeanFactoryAware {
+
+	private static final Trace LOGGER = TraceManager.getTrace(DatabaseCacheInvalidationChannel.class);
+
+	private static final long COMMIT_TOLERANCE = 10000L;		// millis
+	private static final int CLEANUP_EVERY_N_POLLS = 100;
+	private static final int MAX_QUEUE_SIZE = 10000;
+	private static final int MAX_BATCH_SIZE = 500;
+	private static final long STOP_TIMEOUT = 10000L;
+	private static final long PUBLISH_WAIT = 1000L;
+	private static final long PUBLISH_RETRY_DELAY = 1000L;
+
+	@Autowired private BaseHelper baseHelper;
+	private CacheDispatcher cacheDispatcher;
+	private BeanFactory beanFactory;
+
+	private String nodeIdentifier;
+	private final Set<Class<? extends ObjectType>> types = new HashSet<>();
+
+	/**
+	 * Events waiting to be published, keyed by object type and OID (only the latest version of an object
+	 * is kept). Also used as a lock for itself and for {@link #eventsLost}.
+	 */
+	private final LinkedHashMap<String, RCacheInvalidation> queue = new LinkedHashMap<>();
+
+	/**
+	 * True if some events were dropped because the queue overflowed; "invalidate all" marker has to be published.
+	 */
+	private boolean eventsLost;
+
+	/**
+	 * Records seen in recent polls (id -> timestamp), so that they are not dispatched twice.
+	 */
+	private final Map<Long, Long> seenRecords = new HashMap<>();
+
+	/**
+	 * Database time of the last successful poll.
+	 */
+	private Timestamp lastPoll;
+	private boolean databaseTimeWarningLogged;
+
+	private volatile boolean running;
+	private Thread pollingThread;
+	private Thread publishingThread;
+
+	@Autowired(required = false)
+	public void setCacheDispatcher(CacheDispatcher cacheDispatcher) {
+		this.cacheDispatcher = cacheDispatcher;
+	}
+
+	@Override
+	public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+		this.beanFactory = beanFactory;
+	}
+
+	public String getNodeIdentifier() {
+		return nodeIdentifier;
+	}
+
+	public boolean isEnabled() {
+		return getConfiguration().getCacheInvalidationPollingInterval() > 0;
+	}
+
+	private SqlRepositoryConfiguration getConfiguration() {
+		return baseHelper.getConfiguration();
+	}
+
+	/**
+	 * Registers the channel and starts the polling and publishing threads. Called from repository postInit,
+	 * i.e. when the database is known to be accessible. Repeated calls are ignored.
+	 */
+	public synchronized void start() {
+		if (running || !isEnabled()) {
+			return;
+		}
+		if (cacheDispatcher == null) {
+			LOGGER.warn("Cache invalidation polling is configured but there is no cache dispatcher; not starting it");
+			return;
+		}
+		parseTypes(getConfiguration().getCacheInvalidationTypes());
+		nodeIdentifier = determineNodeIdentifier();
+		lastPoll = getDatabaseTime();
+		seenRecords.clear();
+		cacheDispatcher.registerInvalidationChannel(this);
+
+		running = true;
+		pollingThread = new Thread(this::pollingLoop, "Cache invalidation poller");
+		pollingThread.setDaemon(true);
+		pollingThread.start();
+		publishingThread = new Thread(this::publishingLoop, "Cache invalidation publisher");
+		publishingThread.setDaemon(true);
+		publishingThread.start();
+		LOGGER.info("Cluster-wide cache invalidation started: node identifier {}, polling interval {} ms, types {}",
+				nodeIdentifier, getConfiguration().getCacheInvalidationPollingInterval(), types);
+	}
+
+	/**
+	 * Stops the threads. Events that are still queued are written before the publishing thread exits.
+	 */
+	@PreDestroy
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		if (cacheDispatcher != null) {
+			cacheDispatcher.unregisterInvalidationChannel(this);
+		}
+		if (pollingThread != null) {
+			pollingThread.interrupt();
+			pollingThread = null;
+		}
+		if (publishingThread != null) {
+			try {
+				publishingThread.join(STOP_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			publishingThread = null;
+		}
+		LOGGER.info("Cluster-wide cache invalidation stopped");
+	}
+
+	/**
+	 * The task manager is looked up only now: it depends on the repository, so it cannot be injected here.
+	 */
+	private String determineNodeIdentifier() {
+		if (nodeIdentifier != null) {
+			return nodeIdentifier;
+		}
+		TaskManager taskManager = null;
+		if (beanFactory != null) {
+			try {
+				taskManager = beanFactory.getBean(TaskManager.class);
+			} catch (BeansException e) {
+				LOGGER.debug("Couldn't get task manager: {}", e.getMessage(), e);
+			}
+		}
+		String nodeId = taskManager != null ? taskManager.getNodeId() : null;
+		if (StringUtils.isNotBlank(nodeId)) {
+			return nodeId;
+		}
+		String randomId = UUID.randomUUID().toString();
+		LOGGER.warn("Node identifier is not known, using random identifier {} for cache invalidation records", randomId);
+		return randomId;
+	}
+
+	private void parseTypes(String typeNames) {
+		types.clear();
+		for (String typeName : StringUtils.split(StringUtils.defaultString(typeNames), ", ")) {
+			try {
+				types.add(ObjectTypes.getObjectTypeClass(typeName));
+			} catch (IllegalArgumentException e) {
+				LOGGER.warn("Unknown object type '{}' in cache invalidation configuration, ignoring it", typeName);
+			}
+		}
+	}
+
+	/**
+	 * Only configured types and their subtypes are relevant. The repository resolves the concrete type
+	 * of deleted objects, so abstract types (e.g. ObjectType) are not published: other nodes would have
+	 * no choice but to invalidate everything on receiving them.
+	 */
+	private boolean isRelevant(Class<? extends ObjectType> type) {
+		for (Class<? extends ObjectType> configuredType : types) {
+			if (configuredType.isAssignableFrom(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public <O extends ObjectType> void publish(@NotNull Class<O> type, @NotNull String oid, @Nullable String version) {
+		if (!running || !isRelevant(type)) {
+			return;
+		}
+		RObjectType objectType;
+		try {
+			objectType = RObjectType.getType(ClassMapper.getHQLTypeClass(type));
+		} catch (RuntimeException ex) {
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't publish cache invalidation for {}:{}", ex,
+					type.getSimpleName(), oid);
+			return;
+		}
+		RCacheInvalidation record = new RCacheInvalidation(nodeIdentifier, objectType, oid, version, null);
+		synchronized (queue) {
+			enqueue(record);
+			checkQueueSize();
+			queue.notifyAll();
+		}
+	}
+
+	/**
+	 * Re-inserting moves the object to the end, so that the latest version is not published before older ones.
+	 */
+	private void enqueue(RCacheInvalidation record) {
+		String key = record.getObjectType() + ":" + record.getObjectOid();
+		queue.remove(key);
+		queue.put(key, record);
+	}
+
+	private void checkQueueSize() {
+		if (queue.size() > MAX_QUEUE_SIZE) {
+			LOGGER.warn("Cache invalidation queue is full ({} events), other nodes will be asked to invalidate "
+					+ "all cached objects", queue.size());
+			queue.clear();
+			eventsLost = true;
+		}
+	}
+
+	/**
+	 * Puts records that could not be written back to the queue, unless there are newer events for the same objects.
+	 */
+	private void requeue(List<RCacheInvalidation> records) {
+		synchronized (queue) {
+			List<RCacheInvalidation> newer = new ArrayList<>(queue.values());
+			queue.clear();
+			for (RCacheInvalidation record : records) {
+				if (record.isInvalidateAll()) {
+					eventsLost = true;
+				} else {
+					record.setId(0L);
+					enqueue(record);
+				}
+			}
+			newer.forEach(this::enqueue);
+			checkQueueSize();
+		}
+	}
+
+	private void publishingLoop() {
+		while (running) {
+			List<RCacheInvalidation> batch;
+			try {
+				batch = takeBatch(true);
+			} catch (InterruptedException e) {
+				break;
+			}
+			if (!batch.isEmpty() && !writeBatch(batch)) {
+				try {
+					Thread.sleep(PUBLISH_RETRY_DELAY);
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+		}
+		// flushing events queued before stop
+		List<RCacheInvalidation> batch;
+		try {
+			while (!(batch = takeBatch(false)).isEmpty() && writeBatch(batch)) {
+				// continuing until everything is written (or the database fails)
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Removes up to {@link #MAX_BATCH_SIZE} events from the queue, preceded by "invalidate all" marker if some
+	 * events were dropped. Optionally waits a while for the events to come.
+	 */
+	private List<RCacheInvalidation> takeBatch(boolean wait) throws InterruptedException {
+		List<RCacheInvalidation> batch = new ArrayList<>();
+		synchronized (queue) {
+			if (wait && queue.isEmpty() && !eventsLost) {
+				queue.wait(PUBLISH_WAIT);
+			}
+			if (eventsLost) {
+				batch.add(RCacheInvalidation.createInvalidateAllMarker(nodeIdentifier));
+				eventsLost = false;
+			}
+			Iterator<RCacheInvalidation> iterator = queue.values().iterator();
+			while (iterator.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+				batch.add(iterator.next());
+				iterator.remove();
+			}
+		}
+		return batch;
+	}
+
+	/**
+	 * Writes the records in one transaction. If that fails, the records are put back to the queue.
+	 */
+	private boolean writeBatch(List<RCacheInvalidation> records) {
+		Session session = null;
+		try {
+			session = baseHelper.beginTransaction();
+			Timestamp now = getDatabaseTime(session);
+			for (RCacheInvalidation record : records) {
+				record.setTimestamp(now);
+				session.save(record);
+			}
+			session.getTransaction().commit();
+			LOGGER.trace("Published {} cache invalidation record(s)", records.size());
+			return true;
+		} catch (RuntimeException ex) {
+			baseHelper.rollbackTransaction(session);
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't publish {} cache invalidation record(s), will retry",
+					ex, records.size());
+			requeue(records);
+			return false;
+		} finally {
+			baseHelper.cleanupSessionAndResult(session, null);
+		}
+	}
+
+	private void pollingLoop() {
+		int polls = 0;
+		while (running) {
+			try {
+				Thread.sleep(getConfiguration().getCacheInvalidationPollingInterval());
+			} catch (InterruptedException e) {
+				break;
+			}
+			try {
+				poll();
+				if (++polls % CLEANUP_EVERY_N_POLLS == 0) {
+					cleanup();
+				}
+			} catch (RuntimeException ex) {
+				LoggingUtils.logUnexpectedException(LOGGER, "Couldn't poll cache invalidation records", ex);
+			}
+		}
+	}
+
+	private void poll() {
+		long from = lastPoll.getTime() - COMMIT_TOLERANCE;
+		Timestamp now;
+		List<RCacheInvalidation> records;
+		Session session = null;
+		try {
+			session = baseHelper.beginReadOnlyTransaction();
+			now = getDatabaseTime(session);
+			Query query = session.createQuery("from " + RCacheInvalidation.class.getSimpleName() + " i where i."
+					+ RCacheInvalidation.F_TIMESTAMP + " >= :from and i." + RCacheInvalidation.F_NODE_IDENTIFIER
+					+ " <> :node order by i." + RCacheInvalidation.F_ID);
+			query.setTimestamp("from", new Timestamp(from));
+			query.setString("node", nodeIdentifier);
+			//noinspection unchecked
+			records = query.list();
+			session.getTransaction().commit();
+		} catch (RuntimeException ex) {
+			baseHelper.rollbackTransaction(session);
+			throw ex;
+		} finally {
+			baseHelper.cleanupSessionAndResult(session, null);
+		}
+		lastPoll = now;
+
+		seenRecords.values().removeIf(timestamp -> timestamp < from);
+		for (RCacheInvalidation record : records) {
+			if (seenRecords.put(record.getId(), record.getTimestamp().getTime()) != null) {
+				continue;
+			}
+			if (record.isInvalidateAll()) {
+				LOGGER.debug("Node {} lost some cache invalidation events, invalidating all cached objects",
+						record.getNodeIdentifier());
+				cacheDispatcher.dispatchRemoteInvalidateAll();
+				continue;
+			}
+			ObjectTypes objectType = ClassMapper.getObjectTypeForHQLType(record.getObjectType());
+			if (objectType == null || record.getObjectOid() == null) {
+				continue;
+			}
+			LOGGER.trace("Received invalidation {}", record);
+			cacheDispatcher.dispatchRemote(objectType.getClassDefinition(), record.getObjectOid(),
+					record.getObjectVersion());
+		}
+	}
+
+	private void cleanup() {
+		Session session = null;
+		try {
+			session = baseHelper.beginTransaction();
+			long deleteBefore = getDatabaseTime(session).getTime() - getConfiguration().getCacheInvalidationRetention() * 1000L;
+			Query query = session.createQuery("delete from " + RCacheInvalidation.class.getSimpleName()
+					+ " i where i." + RCacheInvalidation.F_TIMESTAMP + " < :before");
+			query.setTimestamp("before", new Timestamp(deleteBefore));
+			int count = query.executeUpdate();
+			session.getTransaction().commit();
+			LOGGER.debug("Deleted {} old cache invalidation record(s)", count);
+		} catch (RuntimeException ex) {
+			baseHelper.rollbackTransaction(session);
+			throw ex;
+		} finally {
+			baseHelper.cleanupSessionAndResult(session, null);
+		}
+	}
+
+	private Timestamp getDatabaseTime() {
+		Session session = null;
+		try {
+			session = baseHelper.beginReadOnlyTransaction();
+			Timestamp now = getDatabaseTime(session);
+			session.getTransaction().commit();
+			return now;
+		} catch (RuntimeException ex) {
+			baseHelper.rollbackTransaction(session);
+			throw ex;
+		} finally {
+			baseHelper.cleanupSessionAndResult(session, null);
+		}
+	}
+
+	/**
+	 * Current time according to the database clock. Falls back to the local clock if the dialect
+	 * does not provide a way of selecting it.
+	 */
+	private Timestamp getDatabaseTime(Session session) {
+		Dialect dialect = ((SessionFactoryImplementor) session.getSessionFactory()).getDialect();
+		if (dialect.supportsCurrentTimestampSelection() && !dialect.isCurrentTimestampSelectStringCallable()) {
+			Timestamp now = session.doReturningWork(connection -> {
+				try (Statement statement = connection.createStatement();
+						ResultSet resultSet = statement.executeQuery(dialect.getCurrentTimestampSelectString())) {
+					return resultSet.next() ? resultSet.getTimestamp(1) : null;
+				}
+			});
+			if (now != null) {
+				return now;
+			}
+		}
+		if (!databaseTimeWarningLogged) {
+			LOGGER.warn("Couldn't get current time from the database (dialect {}), using local clock for cache "
+					+ "invalidation records; the clocks of cluster nodes have to be synchronized", dialect);
+			databaseTimeWarningLogged = true;
+		}
+		return new Timestamp(System.currentTimeMillis());
+	}
+}
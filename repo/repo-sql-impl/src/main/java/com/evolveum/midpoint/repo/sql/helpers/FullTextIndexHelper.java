@@ -0,0 +1,456 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.helpers;
+
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.sql.data.common.RObjectTextInfo;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.FullTextSearchConfigurationUtil;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FullTextSearchConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TrackingIndexWriter;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Full text index kept on the local disk (using Lucene). Used for full text searches if the "embeddedIndex"
+ * full text search provider is configured. The m_object_text_info rows are maintained as well: they are used
+ * when the index cannot be used (too many hits, clustered deployment).
+ *
+ * There is one document for each indexed object; it contains the OID, names of the object type and its supertypes
+ * and the normalized words (the same ones that are stored in m_object_text_info table).
+ *
+ * The index is updated by a single indexer thread. After a transaction that added, modified or deleted objects
+ * is committed, their OIDs are queued; the indexer reads the current state of the objects from the repository
+ * and updates (or deletes) their documents. So the index always ends with the last committed state, regardless
+ * of the order in which concurrent transactions reported their changes. Searches wait until the changes queued
+ * before them are indexed and visible (the searcher is refreshed by a background thread).
+ *
+ * Queued OIDs are written to a journal file in the index directory before they are indexed. The journal is cleared
+ * after the index is committed (once a second), and OIDs found in it at startup are indexed again; so changes
+ * not yet committed to the index are not lost if midPoint stops abruptly.
+ *
+ * The index is local to the node, so it is not used in clustered deployments.
+ *
+ * @author agent
+ */
+@Component
+public class FullTextIndexHelper {
+
+	private static final Trace LOGGER = TraceManager.getTrace(FullTextIndexHelper.class);
+
+	private static final String DOT_CLASS = FullTextIndexHelper.class.getName() + ".";
+	private static final String OPERATION_INDEX = DOT_CLASS + "index";
+
+	private static final String F_OID = "oid";
+	private static final String F_TYPE = "type";
+	private static final String F_TEXT = "text";
+
+	private static final String MIDPOINT_HOME_VARIABLE = "midpoint.home";
+	private static final String DEFAULT_DIRECTORY_NAME = "fulltext-index";
+	public static final String JOURNAL_FILE_NAME = "pending-changes.journal";
+	private static final long COMMIT_INTERVAL = 1000L;			// millis
+	private static final long SEARCH_WAIT_TIMEOUT = 10000L;		// millis
+	private static final int READ_BATCH_SIZE = 100;
+	private static final float EXACT_MATCH_BOOST = 2.0f;
+
+	private static final String TASK_MANAGER_CONFIG_SECTION = "midpoint.taskManager";
+	private static final String CLUSTERED_CONFIG_ENTRY = "clustered";
+
+	private static final Version LUCENE_VERSION = Version.LUCENE_45;
+
+	@Autowired
+	@Qualifier("repositoryService")
+	private RepositoryService repositoryService;
+
+	@Autowired(required = false) private MidpointConfiguration midpointConfiguration;
+	@Autowired private BaseHelper baseHelper;
+	@Autowired private PrismContext prismContext;
+
+	private Directory directory;
+	private volatile IndexWriter writer;
+	private TrackingIndexWriter trackingWriter;
+	private SearcherManager searcherManager;
+	private ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+	private File journalFile;
+	private Writer journal;
+
+	// guarded by "this"
+	private final Set<String> queue = new LinkedHashSet<>();
+	private long queuedSequence;
+	private long indexedSequence;
+	private long indexedGeneration;
+
+	private volatile boolean running;
+	private Thread indexerThread;
+	private Boolean clustered;
+
+	public boolean isActive() {
+		return FullTextSearchConfigurationUtil.isEmbeddedIndexUsed(repositoryService.getFullTextSearchConfiguration())
+				&& !isClustered();
+	}
+
+	private boolean isClustered() {
+		if (clustered == null) {
+			Configuration taskManagerConfig = midpointConfiguration != null
+					? midpointConfiguration.getConfiguration(TASK_MANAGER_CONFIG_SECTION) : null;
+			clustered = taskManagerConfig != null && taskManagerConfig.getBoolean(CLUSTERED_CONFIG_ENTRY, false);
+			if (clustered) {
+				LOGGER.error("The embedded full text index cannot be used in a clustered deployment, as each node would "
+						+ "have its own index. The words kept in the repository are searched instead.");
+			}
+		}
+		return clustered;
+	}
+
+	/**
+	 * Called after an object was added or modified (and the transaction was committed).
+	 */
+	public void onObjectStored(PrismObject<? extends ObjectType> object) {
+		if (object.getOid() != null) {
+			enqueue(object.getOid());
+		}
+	}
+
+	/**
+	 * Called after an object was deleted (and the transaction was committed).
+	 */
+	public void onObjectDeleted(String oid) {
+		enqueue(oid);
+	}
+
+	private void enqueue(String oid) {
+		if (!isActive()) {
+			return;
+		}
+		try {
+			open();
+			synchronized (this) {
+				journal.write(oid);
+				journal.write('\n');
+				journal.flush();
+				queue.add(oid);
+				queuedSequence++;
+				notifyAll();
+			}
+		} catch (IOException | RuntimeException e) {
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't queue {} for indexing in full text index", e, oid);
+		}
+	}
+
+	/**
+	 * Returns OIDs of objects (of given type) that contain all the words; each word is matched as a prefix.
+	 * The most relevant objects (those containing the words exactly and more times) come first.
+	 * Returns null if there are more than maxHits such objects.
+	 *
+	 * @param words Normalized words.
+	 */
+	@Nullable
+	public List<String> search(@NotNull Class<?> type, @NotNull List<String> words, int maxHits) throws IOException {
+		BooleanQuery query = new BooleanQuery();
+		for (String word : words) {
+			BooleanQuery wordQuery = new BooleanQuery();
+			wordQuery.add(new PrefixQuery(new Term(F_TEXT, word)), BooleanClause.Occur.SHOULD);
+			TermQuery exactQuery = new TermQuery(new Term(F_TEXT, word));
+			exactQuery.setBoost(EXACT_MATCH_BOOST);
+			wordQuery.add(exactQuery, BooleanClause.Occur.SHOULD);
+			query.add(wordQuery, BooleanClause.Occur.MUST);
+		}
+		if (ObjectType.class.isAssignableFrom(type)) {
+			query.add(new TermQuery(new Term(F_TYPE, type.getSimpleName())), BooleanClause.Occur.MUST);
+		}
+		open();
+		waitForIndexedChanges();
+		IndexSearcher searcher = searcherManager.acquire();
+		try {
+			TopDocs topDocs = searcher.search(query, maxHits + 1);
+			LOGGER.trace("Full text query {} found {} objects", query, topDocs.totalHits);
+			if (topDocs.totalHits > maxHits) {
+				return null;
+			}
+			List<String> oids = new ArrayList<>(topDocs.scoreDocs.length);
+			for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+				oids.add(searcher.doc(scoreDoc.doc).get(F_OID));
+			}
+			return oids;
+		} finally {
+			searcherManager.release(searcher);
+		}
+	}
+
+	// waits until the changes queued so far are indexed and visible to the searcher
+	private void waitForIndexedChanges() throws IOException {
+		try {
+			long generation;
+			synchronized (this) {
+				long target = queuedSequence;
+				long deadline = System.currentTimeMillis() + SEARCH_WAIT_TIMEOUT;
+				while (indexedSequence < target && running) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						LOGGER.warn("Full text index is not up to date, searching it nevertheless");
+						break;
+					}
+					wait(remaining);
+				}
+				generation = indexedGeneration;
+			}
+			reopenThread.waitForGeneration(generation);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for full text index", e);
+		}
+	}
+
+	private void indexerLoop() {
+		Set<String> uncommitted = new HashSet<>();
+		long lastCommit = System.currentTimeMillis();
+		while (running) {
+			List<String> batch;
+			long batchSequence;
+			synchronized (this) {
+				if (queue.isEmpty()) {
+					try {
+						wait(COMMIT_INTERVAL);
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+				batch = new ArrayList<>(queue);
+				queue.clear();
+				batchSequence = queuedSequence;
+			}
+			for (int i = 0; i < batch.size(); i += READ_BATCH_SIZE) {
+				index(batch.subList(i, Math.min(i + READ_BATCH_SIZE, batch.size())));
+			}
+			uncommitted.addAll(batch);
+			synchronized (this) {
+				indexedSequence = batchSequence;
+				indexedGeneration = trackingWriter.getGeneration();
+				notifyAll();
+			}
+			if (!uncommitted.isEmpty() && System.currentTimeMillis() - lastCommit >= COMMIT_INTERVAL) {
+				commit();
+				uncommitted.clear();
+				lastCommit = System.currentTimeMillis();
+			}
+		}
+	}
+
+	// reads the current state of the objects and updates their documents
+	private void index(List<String> oids) {
+		OperationResult result = new OperationResult(OPERATION_INDEX);
+		try {
+			FullTextSearchConfigurationType config = repositoryService.getFullTextSearchConfiguration();
+			ObjectQuery query = QueryBuilder.queryFor(ObjectType.class, prismContext)
+					.id(oids.toArray(new String[0]))
+					.build();
+			Set<String> deleted = new HashSet<>(oids);
+			for (PrismObject<ObjectType> object : repositoryService.searchObjects(ObjectType.class, query, null, result)) {
+				ObjectType objectable = object.asObjectable();
+				List<String> words = FullTextSearchConfigurationUtil.isEnabled(config)
+						? RObjectTextInfo.getWords(objectable, config, prismContext) : new ArrayList<>();
+				Term oidTerm = new Term(F_OID, object.getOid());
+				if (words.isEmpty()) {
+					trackingWriter.deleteDocuments(oidTerm);
+				} else {
+					trackingWriter.updateDocument(oidTerm, createDocument(objectable, words));
+				}
+				deleted.remove(object.getOid());
+			}
+			for (String oid : deleted) {
+				trackingWriter.deleteDocuments(new Term(F_OID, oid));
+			}
+		} catch (Throwable t) {
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't update full text index for {}; please run the "
+					+ "reindex task to bring the index up to date", t, oids);
+		}
+	}
+
+	private Document createDocument(ObjectType object, List<String> words) {
+		Document document = new Document();
+		document.add(new StringField(F_OID, object.getOid(), Field.Store.YES));
+		for (Class<?> clazz = object.getClass(); clazz != null && ObjectType.class.isAssignableFrom(clazz); clazz = clazz.getSuperclass()) {
+			document.add(new StringField(F_TYPE, clazz.getSimpleName(), Field.Store.NO));
+		}
+		document.add(new TextField(F_TEXT, StringUtils.join(words, ' '), Field.Store.NO));
+		return document;
+	}
+
+	// makes the indexed changes durable; the journal is then rewritten to contain only the changes not indexed yet
+	private void commit() {
+		try {
+			writer.commit();
+			synchronized (this) {
+				journal.close();
+				writeJournal(queue);
+			}
+		} catch (IOException | RuntimeException e) {
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't commit full text index", e);
+		}
+	}
+
+	private void writeJournal(Set<String> oids) throws IOException {
+		journal = Files.newBufferedWriter(journalFile.toPath(), StandardCharsets.UTF_8);
+		for (String oid : oids) {
+			journal.write(oid);
+			journal.write('\n');
+		}
+		journal.flush();
+	}
+
+	private synchronized void open() throws IOException {
+		if (writer != null) {
+			return;
+		}
+		File location = getIndexLocation();
+		LOGGER.info("Opening full text index in {}", location.getAbsolutePath());
+		directory = FSDirectory.open(location);
+		IndexWriterConfig config = new IndexWriterConfig(LUCENE_VERSION, new WhitespaceAnalyzer(LUCENE_VERSION));
+		config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+		IndexWriter newWriter = new IndexWriter(directory, config);
+		trackingWriter = new TrackingIndexWriter(newWriter);
+		searcherManager = new SearcherManager(newWriter, true, null);
+		// changes become visible in at most a second; searches waiting for them get them in about 10 ms
+		reopenThread = new ControlledRealTimeReopenThread<>(trackingWriter, searcherManager, 1.0, 0.01);
+		reopenThread.setName("Full text index refresher");
+		reopenThread.setDaemon(true);
+		reopenThread.start();
+
+		journalFile = new File(location, JOURNAL_FILE_NAME);
+		if (journalFile.exists()) {
+			for (String oid : Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8)) {
+				if (StringUtils.isNotBlank(oid)) {
+					queue.add(oid.trim());
+				}
+			}
+			if (!queue.isEmpty()) {
+				LOGGER.info("Full text index was not closed properly, indexing {} object(s) again", queue.size());
+				queuedSequence++;
+			}
+		}
+		writeJournal(queue);
+		writer = newWriter;
+
+		running = true;
+		indexerThread = new Thread(this::indexerLoop, "Full text indexer");
+		indexerThread.setDaemon(true);
+		indexerThread.start();
+	}
+
+	private File getIndexLocation() {
+		String configured = baseHelper.getConfiguration().getFullTextIndexDirectory();
+		if (StringUtils.isNotEmpty(configured)) {
+			return new File(configured);
+		}
+		String midpointHome = System.getProperty(MIDPOINT_HOME_VARIABLE);
+		return new File(StringUtils.isNotEmpty(midpointHome) ? midpointHome : ".", DEFAULT_DIRECTORY_NAME);
+	}
+
+	/**
+	 * Stops the indexer (letting it finish the changes queued so far) and closes the index.
+	 */
+	@PreDestroy
+	public void close() {
+		Thread indexer;
+		synchronized (this) {
+			if (writer == null) {
+				return;
+			}
+			running = false;
+			notifyAll();
+			indexer = indexerThread;
+			indexerThread = null;
+		}
+		try {
+			indexer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			try {
+				if (!queue.isEmpty()) {
+					index(new ArrayList<>(queue));
+					queue.clear();
+				}
+				reopenThread.close();
+				searcherManager.close();
+				writer.close();            // commits pending changes
+				journal.close();
+				Files.deleteIfExists(journalFile.toPath());
+				directory.close();
+				LOGGER.info("Full text index closed");
+			} catch (IOException | RuntimeException e) {
+				LoggingUtils.logUnexpectedException(LOGGER, "Couldn't close full text index", e);
+			} finally {
+				reopenThread = null;
+				searcherManager = null;
+				trackingWriter = null;
+				writer = null;
+				journal = null;
+				directory = null;
+			}
+		}
+	}
+}
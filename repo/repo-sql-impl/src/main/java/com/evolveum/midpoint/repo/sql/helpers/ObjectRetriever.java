@@ -24,6 +24,7 @@ import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.RepositoryObjectDiagnosticData;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.sql.ObjectPagingAfterOid;
+import com.evolveum.midpoint.repo.sql.SqlPerformanceMonitor;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryServiceImpl;
 import com.evolveum.midpoint.repo.sql.data.common.RObject;
@@ -55,8 +56,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.xml.namespace.QName;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.apache.commons.lang3.ArrayUtils.getLength;
 
@@ -68,6 +72,14 @@ public class ObjectRetriever {
 
 	public static final String CLASS_DOT = ObjectRetriever.class.getName() + ".";
 	public static final String OPERATION_GET_OBJECT_INTERNAL = CLASS_DOT + "getObjectInternal";
+	private static final String OPERATION_FETCH_BATCH = CLASS_DOT + "fetchBatch";
+
+	private static final int DEFAULT_STREAMING_BATCH_SIZE = 50;
+	private static final int DECODER_QUEUE_SIZE_PER_THREAD = 10;
+	private static final long IDLE_THREAD_KEEP_ALIVE = 60;			// seconds
+
+	// When a bounded executor is saturated (or already shut down), the task is executed by the submitting thread.
+	private static final RejectedExecutionHandler RUN_IN_CALLER = (task, executor) -> task.run();
 
     private static final Trace LOGGER = TraceManager.getTrace(ObjectRetriever.class);
     private static final Trace LOGGER_PERFORMANCE = TraceManager.getTrace(SqlRepositoryServiceImpl.PERFORMANCE_LOG_NAME);
@@ -76,11 +88,16 @@ public class ObjectRetriever {
 	@Autowired private CertificationCaseHelper caseHelper;
 	@Autowired private BaseHelper baseHelper;
 	@Autowired private NameResolutionHelper nameResolutionHelper;
+	@Autowired private FullTextIndexHelper fullTextIndexHelper;
 	@Autowired private PrismContext prismContext;
 	@Autowired
 	@Qualifier("repositoryService")
 	private RepositoryService repositoryService;
 
+	// lazily created, used by streaming iterative search
+	private ExecutorService prefetchExecutor;
+	private ExecutorService decoderExecutor;
+
     public <T extends ObjectType> PrismObject<T> getObjectAttempt(Class<T> type, String oid,
 			Collection<SelectorOptions<GetOperationOptions>> options, OperationResult result)
             throws ObjectNotFoundException, SchemaException {
@@ -207,6 +224,10 @@ public class ObjectRetriever {
         return baseHelper.getConfiguration();
     }
 
+    private QueryEngine2 createQueryEngine() {
+        return new QueryEngine2(getConfiguration(), prismContext, baseHelper.getQueryTranslationCache(), fullTextIndexHelper);
+    }
+
     private <T extends ObjectType> PrismObject<T> throwObjectNotFoundException(Class<T> type, String oid)
             throws ObjectNotFoundException {
         throw new ObjectNotFoundException("Object of type '" + type.getSimpleName() + "' with oid '" + oid
@@ -308,7 +329,7 @@ public class ObjectRetriever {
                 longCount = (Number) sqlQuery.uniqueResult();
             } else {
                 RQuery rQuery;
-				QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext);
+				QueryEngine2 engine = createQueryEngine();
 				rQuery = engine.interpret(query, type, options, true, session);
 
                 longCount = (Number) rQuery.uniqueResult();
@@ -339,7 +360,7 @@ public class ObjectRetriever {
 		try {
 			session = baseHelper.beginReadOnlyTransaction();
 
-			QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext);
+			QueryEngine2 engine = createQueryEngine();
 			RQuery rQuery = engine.interpret(query, type, options, true, session);
 			Number longCount = (Number) rQuery.uniqueResult();
 			LOGGER.trace("Found {} objects.", longCount);
@@ -363,7 +384,7 @@ public class ObjectRetriever {
             session = baseHelper.beginReadOnlyTransaction();
             RQuery rQuery;
 
-			QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext);
+			QueryEngine2 engine = createQueryEngine();
 			rQuery = engine.interpret(query, type, options, false, session);
 
 			@SuppressWarnings({"unchecked", "raw"})
@@ -395,15 +416,7 @@ public class ObjectRetriever {
 				try {
 					prismObject = updateLoadedObject(object, type, oid, options, partialValueHolder, session, result);
 				} catch (Throwable t) {
-					if (!partialValueHolder.isEmpty()) {
-						prismObject = partialValueHolder.getValue();
-					} else {
-						prismObject = prismContext.createObject(type);
-						prismObject.setOid(oid);
-						prismObject.asObjectable().setName(PolyStringType.fromOrig("Unreadable object"));
-					}
-					result.recordFatalError("Couldn't retrieve " + type + " " + oid + ": " + t.getMessage(), t);
-					prismObject.asObjectable().setFetchResult(result.createOperationResultType());
+					prismObject = createUnreadableObject(type, oid, partialValueHolder, t, result);
 				}
 				rv.add(prismObject);
 			}
@@ -411,6 +424,22 @@ public class ObjectRetriever {
 		return rv;
 	}
 
+	@NotNull
+	private <T extends ObjectType> PrismObject<T> createUnreadableObject(Class<T> type, String oid,
+			Holder<PrismObject<T>> partialValueHolder, Throwable t, OperationResult result) throws SchemaException {
+		PrismObject<T> prismObject;
+		if (!partialValueHolder.isEmpty()) {
+			prismObject = partialValueHolder.getValue();
+		} else {
+			prismObject = prismContext.createObject(type);
+			prismObject.setOid(oid);
+			prismObject.asObjectable().setName(PolyStringType.fromOrig("Unreadable object"));
+		}
+		result.recordFatalError("Couldn't retrieve " + type + " " + oid + ": " + t.getMessage(), t);
+		prismObject.asObjectable().setFetchResult(result.createOperationResultType());
+		return prismObject;
+	}
+
 	public <C extends Containerable> SearchResultList<C> searchContainersAttempt(Class<C> type, ObjectQuery query,
 			Collection<SelectorOptions<GetOperationOptions>> options, OperationResult result) throws SchemaException {
 
@@ -426,7 +455,7 @@ public class ObjectRetriever {
         try {
             session = baseHelper.beginReadOnlyTransaction();
 
-            QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext);
+            QueryEngine2 engine = createQueryEngine();
             RQuery rQuery = engine.interpret(query, type, options, false, session);
 
             if (cases) {
@@ -475,13 +504,21 @@ public class ObjectRetriever {
 			Holder<PrismObject<T>> partialValueHolder,
 			Session session, OperationResult operationResult) throws SchemaException {
 
-		byte[] fullObject = result.getFullObject();
-		String xml = RUtil.getXmlFromByteArray(fullObject, getConfiguration().isUseZip());
+		PrismObject<T> prismObject = parseLoadedObject(result, type, oid);
+		return postprocessLoadedObject(result, prismObject, type, options, partialValueHolder, session);
+	}
+
+	/**
+	 * Parses the full object. Does not need a session, so it can be executed in any thread.
+	 */
+	private <T extends ObjectType> PrismObject<T> parseLoadedObject(GetObjectResult result, Class<T> type, String oid)
+			throws SchemaException {
+		byte[] data = RUtil.getDataFromByteArray(result.getFullObject(), getConfiguration().isUseZip());
         PrismObject<T> prismObject;
         try {
             // "Postel mode": be tolerant what you read. We need this to tolerate (custom) schema changes
 			ParsingContext parsingContext = ParsingContext.forMode(XNodeProcessorEvaluationMode.COMPAT);
-            prismObject = prismContext.parserFor(xml).context(parsingContext).parse();
+            prismObject = RUtil.parseFullObject(data, prismContext, parsingContext);
 			// TODO enable if needed
 //			if (parsingContext.hasWarnings()) {
 //				for (String warning : parsingContext.getWarnings()) {
@@ -492,10 +529,20 @@ public class ObjectRetriever {
         	// This is a serious thing. We have corrupted XML in the repo. This may happen even
         	// during system init. We want really loud and detailed error here.
             LOGGER.error("Couldn't parse object {} {}: {}: {}\n{}",
-            		type.getSimpleName(), oid, e.getClass().getName(), e.getMessage(), xml, e);
+            		type.getSimpleName(), oid, e.getClass().getName(), e.getMessage(), RUtil.fullObjectDataToString(data), e);
             throw e;
         }
-        attachDiagDataIfRequested(prismObject, fullObject, options);
+        return prismObject;
+	}
+
+	/**
+	 * Completes the parsed object using data stored outside of the full object (photo, shadow attribute definitions,
+	 * lookup table rows, certification cases), resolves names and validates the object.
+	 */
+	private <T extends ObjectType> PrismObject<T> postprocessLoadedObject(GetObjectResult result, PrismObject<T> prismObject,
+			Class<T> type, Collection<SelectorOptions<GetOperationOptions>> options,
+			Holder<PrismObject<T>> partialValueHolder, Session session) throws SchemaException {
+        attachDiagDataIfRequested(prismObject, result.getFullObject(), options);
         if (FocusType.class.isAssignableFrom(prismObject.getCompileTimeClass())) {
             if (SelectorOptions.hasToLoadPath(FocusType.F_JPEG_PHOTO, options)) {
                 //todo improve, use user.hasPhoto flag and take options into account [lazyman]
@@ -673,7 +720,7 @@ public class ObjectRetriever {
         try {
             session = baseHelper.beginReadOnlyTransaction();
             RQuery rQuery;
-			QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext);
+			QueryEngine2 engine = createQueryEngine();
 			rQuery = engine.interpret(query, type, options, false, session);
 
             ScrollableResults results = rQuery.scroll(ScrollMode.FORWARD_ONLY);
@@ -832,6 +879,302 @@ main:       for (;;) {
         }
     }
 
+    /**
+     * Streaming version of the strictly-sequential iterative search. Objects are fetched in batches ordered by OID
+     * (keyset paging: each batch starts after the last OID of the previous one), so the memory needed does not depend
+     * on the number of objects found, and no long-running transaction or cursor is kept open.
+     *
+     * While the handler processes one batch, the next one is prefetched in a background thread. Full objects
+     * of a batch are parsed in parallel by a small pool of decoder threads. Both thread pools are bounded
+     * (see iterativeSearchPrefetchThreads and iterativeSearchDecoderThreads); if a pool is saturated, the work
+     * is done by the thread that requested it. A prefetch that is no longer needed (because the handler stopped
+     * the search or failed) is cancelled, including the database query that is being executed.
+     *
+     * Guarantees are the same as for {@link #searchObjectsIterativeByPagingStrictlySequential}. Explicit paging
+     * is not supported.
+     *
+     * @return number of objects passed to the handler
+     */
+    public <T extends ObjectType> int searchObjectsIterativeStreaming(Class<T> type, ObjectQuery query,
+            ResultHandler<T> handler, Collection<SelectorOptions<GetOperationOptions>> options,
+            SqlPerformanceMonitor performanceMonitor, OperationResult result) throws SchemaException {
+
+        if (query != null && query.getPaging() != null) {
+            throw new IllegalArgumentException("Externally specified paging is not supported on streaming iterative search.");
+        }
+
+        int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
+        if (batchSize <= 0) {
+            batchSize = DEFAULT_STREAMING_BATCH_SIZE;
+        }
+
+        long start = System.currentTimeMillis();
+        long waitTime = 0;
+        int rows = 0;
+        PendingBatch<T> pending = prefetchBatch(type, query, "", batchSize, options);
+        try {
+main:       while (pending != null) {
+                long waitStart = System.currentTimeMillis();
+                FetchedBatch<T> batch = getUnwrapped(pending.future);
+                waitTime += System.currentTimeMillis() - waitStart;
+                pending = null;
+
+                if (!batch.result.isSuccess()) {
+                    result.addSubresult(batch.result);
+                }
+                if (batch.rowCount >= batchSize) {
+                    pending = prefetchBatch(type, query, batch.lastOid, batchSize, options);
+                }
+                for (PrismObject<T> object : batch.objects) {
+                    rows++;
+                    if (!handler.handle(object, result)) {
+                        break main;
+                    }
+                }
+            }
+        } finally {
+            if (pending != null) {
+                pending.cancel();
+            }
+            if (performanceMonitor != null) {
+                performanceMonitor.registerStreamedRows(RepositoryService.SEARCH_OBJECTS_ITERATIVE,
+                        rows, System.currentTimeMillis() - start, waitTime);
+            }
+            if (result != null && result.isUnknown()) {
+                result.computeStatus();
+            }
+        }
+        return rows;
+    }
+
+    private static class FetchedBatch<T extends ObjectType> {
+        private final List<PrismObject<T>> objects;
+        private final int rowCount;
+        private final String lastOid;
+        private final OperationResult result;
+
+        private FetchedBatch(List<PrismObject<T>> objects, int rowCount, String lastOid, OperationResult result) {
+            this.objects = objects;
+            this.rowCount = rowCount;
+            this.lastOid = lastOid;
+            this.result = result;
+        }
+    }
+
+    /**
+     * A batch that is being fetched (or waits to be fetched) in the background.
+     */
+    private static class PendingBatch<T extends ObjectType> {
+        private Future<FetchedBatch<T>> future;
+        private volatile boolean cancelled;
+        private volatile Session runningQuerySession;       // set while the query is executed
+
+        /**
+         * Stops the fetching as soon as possible: a running query is cancelled using JDBC statement cancellation
+         * (the only session operation that may be called from another thread), and objects are not decoded.
+         */
+        private void cancel() {
+            cancelled = true;
+            if (future.cancel(false)) {
+                return;             // not started yet
+            }
+            Session session = runningQuerySession;
+            if (session != null) {
+                try {
+                    session.cancelQuery();
+                } catch (RuntimeException e) {
+                    LOGGER.debug("Couldn't cancel prefetch query: {}", e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private <T extends ObjectType> PendingBatch<T> prefetchBatch(Class<T> type, ObjectQuery query, String afterOid,
+            int batchSize, Collection<SelectorOptions<GetOperationOptions>> options) {
+        ObjectQuery pagedQuery = query != null ? query.clone() : new ObjectQuery();
+        ObjectPagingAfterOid paging = new ObjectPagingAfterOid();
+        paging.setOidGreaterThan(afterOid);
+        paging.setMaxSize(batchSize);
+        pagedQuery.setPaging(paging);
+        PendingBatch<T> pending = new PendingBatch<>();
+        FutureTask<FetchedBatch<T>> task = new FutureTask<>(() -> fetchBatch(type, pagedQuery, options, pending));
+        pending.future = task;
+        ExecutorService executor = getPrefetchExecutor();
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            task.run();
+        }
+        return pending;
+    }
+
+    /**
+     * Executed in a prefetch thread. Uses its own operation result, as results are not thread safe.
+     * If the fetching is cancelled, an empty batch is returned (nobody is interested in it anyway).
+     */
+    private <T extends ObjectType> FetchedBatch<T> fetchBatch(Class<T> type, ObjectQuery pagedQuery,
+            Collection<SelectorOptions<GetOperationOptions>> options, PendingBatch<T> pending) throws SchemaException {
+        LOGGER_PERFORMANCE.debug("> fetch batch {}", type.getSimpleName());
+        OperationResult result = new OperationResult(OPERATION_FETCH_BATCH);
+        List<PrismObject<T>> objects = new ArrayList<>();
+        int rowCount = 0;
+        String lastOid = null;
+        Session session = null;
+        try {
+            session = baseHelper.beginReadOnlyTransaction();
+            QueryEngine2 engine = createQueryEngine();
+            RQuery rQuery = engine.interpret(pagedQuery, type, options, false, session);
+
+            List<GetObjectResult> queryResult;
+            pending.runningQuerySession = session;
+            try {
+                if (pending.cancelled) {
+                    return cancelledBatch(session, result);
+                }
+                //noinspection unchecked
+                queryResult = rQuery.list();
+            } finally {
+                pending.runningQuerySession = null;
+            }
+            if (queryResult == null) {
+                queryResult = Collections.emptyList();
+            }
+            if (pending.cancelled) {
+                return cancelledBatch(session, result);
+            }
+            LOGGER.trace("Fetched {} objects, decoding.", queryResult.size());
+
+            ExecutorService decoder = getDecoderExecutor();
+            List<Future<PrismObject<T>>> parsed = new ArrayList<>(queryResult.size());
+            for (GetObjectResult object : queryResult) {
+                FutureTask<PrismObject<T>> task = new FutureTask<>(() ->
+                        !pending.cancelled ? parseLoadedObject(object, type, object.getOid()) : null);
+                if (decoder != null) {
+                    decoder.execute(task);
+                } else {
+                    task.run();
+                }
+                parsed.add(task);
+            }
+
+            for (int i = 0; i < queryResult.size(); i++) {
+                if (pending.cancelled) {
+                    parsed.forEach(future -> future.cancel(false));
+                    return cancelledBatch(session, result);
+                }
+                GetObjectResult object = queryResult.get(i);
+                rowCount++;
+                lastOid = object.getOid();
+                Holder<PrismObject<T>> partialValueHolder = new Holder<>();
+                PrismObject<T> prismObject;
+                try {
+                    prismObject = postprocessLoadedObject(object, getUnwrapped(parsed.get(i)), type, options,
+                            partialValueHolder, session);
+                } catch (Throwable t) {
+                    prismObject = createUnreadableObject(type, lastOid, partialValueHolder, t, result);
+                }
+                objects.add(prismObject);
+            }
+            session.getTransaction().commit();
+        } catch (QueryException | RuntimeException ex) {
+            if (pending.cancelled) {
+                LOGGER.debug("Fetching of a batch was cancelled: {}", ex.getMessage());
+                return cancelledBatch(session, result);
+            }
+            baseHelper.handleGeneralException(ex, session, result);
+        } finally {
+            baseHelper.cleanupSessionAndResult(session, result);
+        }
+        return new FetchedBatch<>(objects, rowCount, lastOid, result);
+    }
+
+    private <T extends ObjectType> FetchedBatch<T> cancelledBatch(Session session, OperationResult result) {
+        LOGGER.trace("Fetching of a batch was cancelled");
+        baseHelper.rollbackTransaction(session);
+        result.recordNotApplicableIfUnknown();
+        return new FetchedBatch<>(Collections.emptyList(), 0, null, result);
+    }
+
+    private static <V> V getUnwrapped(Future<V> future) throws SchemaException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemException("Interrupted while waiting for repository data", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SchemaException) {
+                throw (SchemaException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new SystemException(cause.getMessage(), cause);
+            }
+        }
+    }
+
+    /**
+     * At most iterativeSearchPrefetchThreads batches are prefetched at once (by all the searches). If all the threads
+     * are busy, the batch is fetched by the searching thread itself, i.e. without prefetching.
+     *
+     * @return null if there should be no prefetching at all
+     */
+    private synchronized ExecutorService getPrefetchExecutor() {
+        int threads = getConfiguration().getIterativeSearchPrefetchThreads();
+        if (threads <= 0) {
+            return null;
+        }
+        if (prefetchExecutor == null) {
+            prefetchExecutor = new ThreadPoolExecutor(0, threads, IDLE_THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), createThreadFactory("Repository prefetch"), RUN_IN_CALLER);
+        }
+        return prefetchExecutor;
+    }
+
+    /**
+     * Decoder threads are shared by all the searches, with a bounded queue. If the queue is full, the object
+     * is parsed by the fetching thread itself; so concurrent searches are not serialized behind the pool.
+     *
+     * @return null if objects are to be parsed directly in the fetching thread
+     */
+    private synchronized ExecutorService getDecoderExecutor() {
+        int threads = getConfiguration().getIterativeSearchDecoderThreads();
+        if (threads <= 0) {
+            return null;
+        }
+        if (decoderExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(threads * DECODER_QUEUE_SIZE_PER_THREAD),
+                    createThreadFactory("Repository object decoder"), RUN_IN_CALLER);
+            executor.allowCoreThreadTimeOut(true);
+            decoderExecutor = executor;
+        }
+        return decoderExecutor;
+    }
+
+    private static ThreadFactory createThreadFactory(String namePrefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, namePrefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+            prefetchExecutor = null;
+        }
+        if (decoderExecutor != null) {
+            decoderExecutor.shutdownNow();
+            decoderExecutor = null;
+        }
+    }
+
     public boolean isAnySubordinateAttempt(String upperOrgOid, Collection<String> lowerObjectOids) {
         Session session = null;
         try {
@@ -872,7 +1215,7 @@ main:       for (;;) {
 			final Query query;
 			final boolean isMidpointQuery = request.getImplementationLevelQuery() == null;
 			if (isMidpointQuery) {
-				QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext);
+				QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext, null, fullTextIndexHelper);
 				RQueryImpl rQuery = (RQueryImpl) engine.interpret(request.getQuery(), request.getType(), null, false, session);
 				query = rQuery.getQuery();
 				implementationLevelQuery = query.getQueryString();
@@ -16,6 +16,7 @@
 
 package com.evolveum.midpoint.repo.sql.helpers;
 
+import com.evolveum.midpoint.prism.Item;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.PrismObjectDefinition;
@@ -51,6 +52,8 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationC
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.LookupTableType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.lang.StringUtils;
 import org.hibernate.Criteria;
 import org.hibernate.Query;
@@ -76,6 +79,9 @@ public class ObjectUpdater {
     private static final Trace LOGGER = TraceManager.getTrace(ObjectUpdater.class);
     private static final Trace LOGGER_PERFORMANCE = TraceManager.getTrace(SqlRepositoryServiceImpl.PERFORMANCE_LOG_NAME);
 
+    // some databases (e.g. Oracle) limit the number of items in the IN clause
+    private static final int MAX_OIDS_IN_QUERY = 500;
+
 	@Autowired
 	@Qualifier("repositoryService")
 	private RepositoryService repositoryService;
@@ -95,6 +101,12 @@ public class ObjectUpdater {
     @Autowired
     private OrgClosureManager closureManager;
 
+    @Autowired
+    private PartialUpdateHelper partialUpdateHelper;
+
+    @Autowired
+    private FullTextIndexHelper fullTextIndexHelper;
+
     @Autowired
     private PrismContext prismContext;
 
@@ -138,6 +150,7 @@ public class ObjectUpdater {
             LOGGER.trace("Saved object '{}' with oid '{}'", object.getCompileTimeClass().getSimpleName(), oid);
 
             object.setOid(oid);
+            fullTextIndexHelper.onObjectStored(object);
         } catch (ConstraintViolationException ex) {
             handleConstraintViolationException(session, ex, result);
             baseHelper.rollbackTransaction(session, ex, result, true);
@@ -168,6 +181,152 @@ public class ObjectUpdater {
         return oid;
     }
 
+    /**
+     * Outcome of processing a single item (object or delta) in a batch operation.
+     */
+    public static class BatchItemOutcome {
+
+        private final String oid;
+        private final String version;
+        private final Exception exception;
+
+        private BatchItemOutcome(String oid, String version, Exception exception) {
+            this.oid = oid;
+            this.version = version;
+            this.exception = exception;
+        }
+
+        public String getOid() {
+            return oid;
+        }
+
+        /**
+         * New version of modified object; null if the object was not changed.
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        /**
+         * The reason why the item was skipped; null if it was successfully processed.
+         */
+        public Exception getException() {
+            return exception;
+        }
+    }
+
+    /**
+     * Can objects of given type be added or modified in a shared (batch) transaction? Org closure maintenance,
+     * lookup table rows and certification cases need their own treatment, so these objects are always processed
+     * one by one. The type may be an abstract one (e.g. for deltas), so we check the hierarchy in both directions.
+     */
+    public boolean isBatchable(Class<? extends ObjectType> type) {
+        return !isRelated(type, LookupTableType.class)
+                && !isRelated(type, AccessCertificationCampaignType.class)
+                && !(closureManager.isEnabled() && isRelated(type, OrgType.class));
+    }
+
+    private boolean isRelated(Class<? extends ObjectType> type, Class<? extends ObjectType> specialType) {
+        return type.isAssignableFrom(specialType) || specialType.isAssignableFrom(type);
+    }
+
+    /**
+     * Adds the objects (without overwriting) in a single transaction, letting hibernate batch the inserts.
+     * The caller is responsible for keeping the number of objects reasonable (see batchTransactionSize).
+     *
+     * OID uniqueness of all the objects is checked up front, before anything is saved; otherwise each check query
+     * would cause an auto-flush of the previous inserts and the JDBC batching would be lost. The session is flushed
+     * and cleared after each jdbcBatchSize objects.
+     *
+     * Objects that fail the checks executed before they are stored (e.g. OID uniqueness or schema problems)
+     * are skipped; their exceptions are returned in the respective outcomes. If the transaction as a whole fails
+     * (e.g. because of a constraint violation that cannot be attributed to a particular object, or a serialization
+     * issue), it is rolled back and null is returned. The caller should then add the objects one by one.
+     */
+    public List<BatchItemOutcome> addObjectsAttempt(List<? extends PrismObject<? extends ObjectType>> objects) {
+
+        LOGGER_PERFORMANCE.debug("> add objects, count={}", objects.size());
+
+        List<String> originalOids = new ArrayList<>(objects.size());
+        for (PrismObject<? extends ObjectType> object : objects) {
+            originalOids.add(object.getOid());
+        }
+
+        int flushInterval = Math.max(1, getConfiguration().getJdbcBatchSize());
+        List<BatchItemOutcome> outcomes = new ArrayList<>(objects.size());
+        Session session = null;
+        try {
+            session = baseHelper.beginTransaction();
+            Set<String> existingOids = findExistingOids(objects, session);
+            int saved = 0;
+            for (int i = 0; i < objects.size(); i++) {
+                PrismObject<? extends ObjectType> object = objects.get(i);
+                try {
+                    if (existingOids.contains(originalOids.get(i))) {
+                        throw new ObjectAlreadyExistsException("Object '" + object.getCompileTimeClass().getSimpleName()
+                                + "' with oid '" + object.getOid() + "' already exists.");
+                    }
+                    ObjectTypeUtil.normalizeAllRelations(object);
+                    RObject rObject = createDataObjectFromJAXB(object, PrismIdentifierGenerator.Operation.ADD);
+                    String oid = saveNewObject(object, rObject, session, null);
+                    outcomes.add(new BatchItemOutcome(oid, null, null));
+                    if (++saved % flushInterval == 0) {
+                        session.flush();
+                        session.clear();
+                    }
+                } catch (ObjectAlreadyExistsException | SchemaException | DtoTranslationException ex) {
+                    LOGGER.debug("Skipping object {} in batch add: {}", object, ex.getMessage());
+                    outcomes.add(new BatchItemOutcome(null, null, ex));
+                }
+            }
+            session.getTransaction().commit();
+        } catch (RuntimeException ex) {
+            LOGGER.debug("Batch add of {} objects failed, they will be added one by one: {}", objects.size(),
+                    ex.getMessage(), ex);
+            baseHelper.rollbackTransaction(session);
+            for (int i = 0; i < objects.size(); i++) {
+                objects.get(i).setOid(originalOids.get(i));
+            }
+            return null;
+        } finally {
+            baseHelper.cleanupSessionAndResult(session, null);
+        }
+
+        for (int i = 0; i < objects.size(); i++) {
+            if (outcomes.get(i).getOid() != null) {
+                objects.get(i).setOid(outcomes.get(i).getOid());
+                fullTextIndexHelper.onObjectStored(objects.get(i));
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * Returns those of the (explicitly specified) OIDs of the objects that already exist in the repository.
+     * Uses one query per object table (and per MAX_OIDS_IN_QUERY OIDs).
+     */
+    private Set<String> findExistingOids(List<? extends PrismObject<? extends ObjectType>> objects, Session session) {
+        Map<Class, List<String>> oidsByHqlType = new HashMap<>();
+        for (PrismObject<? extends ObjectType> object : objects) {
+            if (StringUtils.isNotEmpty(object.getOid())) {
+                Class hqlType = ClassMapper.getHQLTypeClass(object.getCompileTimeClass());
+                oidsByHqlType.computeIfAbsent(hqlType, k -> new ArrayList<>()).add(object.getOid());
+            }
+        }
+        Set<String> existing = new HashSet<>();
+        for (Map.Entry<Class, List<String>> entry : oidsByHqlType.entrySet()) {
+            for (List<String> oids : ListUtils.partition(entry.getValue(), MAX_OIDS_IN_QUERY)) {
+                SQLQuery query = session.createSQLQuery("select oid from " + RUtil.getTableName(entry.getKey())
+                        + " where oid in (:oids)");
+                query.setParameterList("oids", oids);
+                for (Object oid : query.list()) {
+                    existing.add((String) oid);
+                }
+            }
+        }
+        return existing;
+    }
+
     private <T extends ObjectType> String overwriteAddObjectAttempt(PrismObject<T> object, RObject rObject,
 			String originalOid, Session session, OrgClosureManager.Context closureContext, OperationResult result)
             throws ObjectAlreadyExistsException, SchemaException, DtoTranslationException {
@@ -237,27 +396,45 @@ public class ObjectUpdater {
         // Its' because we're removing some properties during save operation and if save fails,
         // overwrite attempt (for example using object importer) might try to delete existing object
         // and then try to save this object one more time.
-        String xml = prismContext.serializeObjectToString(savedObject, PrismContext.LANG_XML);
-        savedObject = prismContext.parseObject(xml);
-
-        if (FocusType.class.isAssignableFrom(savedObject.getCompileTimeClass())) {
-            savedObject.removeProperty(FocusType.F_JPEG_PHOTO);
-        } else if (LookupTableType.class.equals(savedObject.getCompileTimeClass())) {
-            savedObject.removeContainer(LookupTableType.F_ROW);
-        } else if (AccessCertificationCampaignType.class.equals(savedObject.getCompileTimeClass())) {
-            savedObject.removeContainer(AccessCertificationCampaignType.F_CASE);
+        // Cloning is needed only if there is something to remove; otherwise we serialize the object directly
+        // (serialization is the most expensive part of the whole update for large objects).
+        ItemPath externalizedItem = getExternallyStoredItem(savedObject.getCompileTimeClass());
+        if (externalizedItem != null && savedObject.findItem(externalizedItem) != null) {
+            savedObject = savedObject.clone();
+            savedObject.removeItem(externalizedItem, Item.class);
         }
 
-        xml = prismContext.serializeObjectToString(savedObject, PrismContext.LANG_XML);
-        byte[] fullObject = RUtil.getByteArrayFromXml(xml, getConfiguration().isUseZip());
-
-        LOGGER.trace("Storing full object\n{}", xml);
+        byte[] fullObject;
+        if (getConfiguration().isBinaryFullObjectFormat()) {
+            byte[] data = prismContext.binarySerializer().serialize(savedObject);
+            fullObject = RUtil.getStoredByteArray(data, getConfiguration().isUseZip());
+            LOGGER.trace("Storing full object in binary format ({} bytes)\n{}", data.length, savedObject.debugDumpLazily());
+        } else {
+            String xml = prismContext.serializeObjectToString(savedObject, PrismContext.LANG_XML);
+            fullObject = RUtil.getByteArrayFromXml(xml, getConfiguration().isUseZip());
+            LOGGER.trace("Storing full object\n{}", xml);
+        }
 
         object.setFullObject(fullObject);
 
         LOGGER.debug("Updating full object xml column finish.");
     }
 
+    /**
+     * Returns the item that is stored outside of the fullObject column (in its own table), if any.
+     */
+    private ItemPath getExternallyStoredItem(Class<? extends ObjectType> type) {
+        if (FocusType.class.isAssignableFrom(type)) {
+            return new ItemPath(FocusType.F_JPEG_PHOTO);
+        } else if (LookupTableType.class.equals(type)) {
+            return new ItemPath(LookupTableType.F_ROW);
+        } else if (AccessCertificationCampaignType.class.equals(type)) {
+            return new ItemPath(AccessCertificationCampaignType.F_CASE);
+        } else {
+            return null;
+        }
+    }
+
     protected SqlRepositoryConfiguration getConfiguration() {
         return baseHelper.getConfiguration();
     }
@@ -282,6 +459,12 @@ public class ObjectUpdater {
             }
         }
 
+        return saveNewObject(object, rObject, session, closureContext);
+    }
+
+    private <T extends ObjectType> String saveNewObject(PrismObject<T> object, RObject rObject, Session session,
+            OrgClosureManager.Context closureContext) throws SchemaException, DtoTranslationException {
+
         updateFullObject(rObject, object);
 
         LOGGER.trace("Saving object (non overwrite).");
@@ -298,9 +481,13 @@ public class ObjectUpdater {
         return oid;
     }
 
-    public <T extends ObjectType> Object deleteObjectAttempt(Class<T> type, String oid, OperationResult result)
+    /**
+     * @return concrete type of the deleted object (the type provided by the caller can be an abstract one)
+     */
+    public <T extends ObjectType> Class<? extends ObjectType> deleteObjectAttempt(Class<T> type, String oid, OperationResult result)
             throws ObjectNotFoundException {
         LOGGER_PERFORMANCE.debug("> delete object {}, oid={}", new Object[]{type.getSimpleName(), oid});
+        Class<? extends ObjectType> deletedType = type;
         Session session = null;
         OrgClosureManager.Context closureContext = null;
         try {
@@ -315,6 +502,9 @@ public class ObjectUpdater {
                 throw new ObjectNotFoundException("Object of type '" + type.getSimpleName() + "' with oid '" + oid
                         + "' was not found.", null, oid);
             }
+            if (object.getObjectTypeClass() != null) {
+                deletedType = object.getObjectTypeClass().getJaxbClass();
+            }
 
             closureManager.updateOrgClosure(null, null, session, oid, type, OrgClosureManager.Operation.DELETE, closureContext);
 
@@ -327,6 +517,7 @@ public class ObjectUpdater {
             }
 
             session.getTransaction().commit();
+            fullTextIndexHelper.onObjectDeleted(oid);
         } catch (ObjectNotFoundException ex) {
             baseHelper.rollbackTransaction(session, ex, result, true);
             throw ex;
@@ -335,10 +526,14 @@ public class ObjectUpdater {
         } finally {
             cleanupClosureAndSessionAndResult(closureContext, session, result);
         }
-        return null;            // just because of executeAttempts wrapper
+        return deletedType;
     }
 
-    public <T extends ObjectType> void modifyObjectAttempt(Class<T> type, String oid,
+    /**
+     * @return new version of the object; null if the object was not changed (e.g. only lookup table rows or campaign
+     * cases were modified)
+     */
+    public <T extends ObjectType> String modifyObjectAttempt(Class<T> type, String oid,
 			Collection<? extends ItemDelta> modifications, ModificationPrecondition<T> precondition,
 			RepoModifyOptions modifyOptions, OperationResult result, SqlRepositoryServiceImpl sqlRepositoryService)
 		    throws ObjectNotFoundException,
@@ -353,90 +548,22 @@ public class ObjectUpdater {
         LOGGER_PERFORMANCE.debug("> modify object {}, oid={}, modifications={}", type.getSimpleName(), oid, modifications);
 	    LOGGER.trace("Modifications:\n{}", DebugUtil.debugDumpLazily(modifications));
 
+        String newVersion = null;
         Session session = null;
         OrgClosureManager.Context closureContext = null;
+        List<PrismObject<? extends ObjectType>> modifiedObjects = new ArrayList<>(1);
         try {
             session = baseHelper.beginTransaction();
 
             closureContext = closureManager.onBeginTransactionModify(session, type, oid, modifications);
 
-            Collection<? extends ItemDelta> lookupTableModifications = lookupTableHelper.filterLookupTableModifications(type, modifications);
-            Collection<? extends ItemDelta> campaignCaseModifications = caseHelper.filterCampaignCaseModifications(type, modifications);
-
-            if (!modifications.isEmpty() || RepoModifyOptions.isExecuteIfNoChanges(modifyOptions)) {
-
-                // JpegPhoto (RFocusPhoto) is a special kind of entity. First of all, it is lazily loaded, because photos are really big.
-                // Each RFocusPhoto naturally belongs to one RFocus, so it would be appropriate to set orphanRemoval=true for focus-photo
-                // association. However, this leads to a strange problem when merging in-memory RFocus object with the database state:
-                // If in-memory RFocus object has no photo associated (because of lazy loading), then the associated RFocusPhoto is deleted.
-                //
-                // To prevent this behavior, we've set orphanRemoval to false. Fortunately, the remove operation on RFocus
-                // seems to be still cascaded to RFocusPhoto. What we have to implement ourselves, however, is removal of RFocusPhoto
-                // _without_ removing of RFocus. In order to know whether the photo has to be removed, we have to retrieve
-                // its value, apply the delta (e.g. if the delta is a DELETE VALUE X, we have to know whether X matches current
-                // value of the photo), and if the resulting value is empty, we have to manually delete the RFocusPhoto instance.
-                //
-                // So the first step is to retrieve the current value of photo - we obviously do this only if the modifications
-                // deal with the jpegPhoto property.
-                Collection<SelectorOptions<GetOperationOptions>> options;
-                boolean containsFocusPhotoModification = FocusType.class.isAssignableFrom(type) && containsPhotoModification(modifications);
-                if (containsFocusPhotoModification) {
-                    options = Collections.singletonList(SelectorOptions.create(FocusType.F_JPEG_PHOTO, GetOperationOptions.createRetrieve(RetrieveOption.INCLUDE)));
-                } else {
-                    options = null;
-                }
-
-                // get object
-                PrismObject<T> prismObject = objectRetriever.getObjectInternal(session, type, oid, options, true, result);
-                if (precondition != null && !precondition.holds(prismObject)) {
-                	throw new PreconditionViolationException("Modification precondition does not hold for " + prismObject);
-                }
-	            sqlRepositoryService.invokeConflictWatchers(w -> w.beforeModifyObject(prismObject));
-                // apply diff
-				LOGGER.trace("OBJECT before:\n{}", prismObject.debugDumpLazily());
-                PrismObject<T> originalObject = null;
-                if (closureManager.isEnabled()) {
-                    originalObject = prismObject.clone();
-                }
-                ItemDelta.applyTo(modifications, prismObject);
-				LOGGER.trace("OBJECT after:\n{}", prismObject.debugDumpLazily());
-                // Continuing the photo treatment: should we remove the (now obsolete) focus photo?
-                // We have to test prismObject at this place, because updateFullObject (below) removes photo property from the prismObject.
-                boolean shouldPhotoBeRemoved = containsFocusPhotoModification && ((FocusType) prismObject.asObjectable()).getJpegPhoto() == null;
-
-                // merge and update object
-                LOGGER.trace("Translating JAXB to data type.");
-				ObjectTypeUtil.normalizeAllRelations(prismObject);
-				RObject rObject = createDataObjectFromJAXB(prismObject, PrismIdentifierGenerator.Operation.MODIFY);
-                rObject.setVersion(rObject.getVersion() + 1);
-
-                updateFullObject(rObject, prismObject);
-                LOGGER.trace("Starting merge.");
-                session.merge(rObject);
-                if (closureManager.isEnabled()) {
-                    closureManager.updateOrgClosure(originalObject, modifications, session, oid, type, OrgClosureManager.Operation.MODIFY, closureContext);
-                }
-
-                // JpegPhoto cleanup: As said before, if a focus has to have no photo (after modifications are applied),
-                // we have to remove the photo manually.
-                if (shouldPhotoBeRemoved) {
-                    Query query = session.createQuery("delete RFocusPhoto where ownerOid = :oid");
-                    query.setParameter("oid", prismObject.getOid());
-                    query.executeUpdate();
-                    LOGGER.trace("Focus photo for {} was deleted", prismObject.getOid());
-                }
-            }
-
-            if (LookupTableType.class.isAssignableFrom(type)) {
-                lookupTableHelper.updateLookupTableData(session, oid, lookupTableModifications);
-            }
-            if (AccessCertificationCampaignType.class.isAssignableFrom(type)) {
-                caseHelper.updateCampaignCases(session, oid, campaignCaseModifications, modifyOptions);
-            }
+            newVersion = modifyObjectInSession(session, type, oid, modifications, precondition, modifyOptions,
+                    closureContext, result, sqlRepositoryService, modifiedObjects);
 
             LOGGER.trace("Before commit...");
             session.getTransaction().commit();
             LOGGER.trace("Committed!");
+            modifiedObjects.forEach(fullTextIndexHelper::onObjectStored);
         } catch (ObjectNotFoundException ex) {
             baseHelper.rollbackTransaction(session, ex, result, true);
             throw ex;
@@ -460,6 +587,167 @@ public class ObjectUpdater {
             cleanupClosureAndSessionAndResult(closureContext, session, result);
             LOGGER.trace("Session cleaned up.");
         }
+        return newVersion;
+    }
+
+    /**
+     * Executes the (MODIFY) deltas in a single transaction, flushing and clearing the session after each
+     * jdbcBatchSize deltas. The caller is responsible for keeping the number of deltas reasonable.
+     *
+     * A delta can fail after it has already changed some rows in the session (e.g. a schema problem found while
+     * updating the object), so if any of the deltas fails, the whole transaction is rolled back and null is returned.
+     * The same happens if the transaction as a whole fails (e.g. on a constraint violation). The caller should then
+     * execute the deltas one by one.
+     */
+    public List<BatchItemOutcome> modifyObjectsAttempt(List<? extends ObjectDelta<? extends ObjectType>> deltas,
+            RepoModifyOptions modifyOptions, OperationResult result, SqlRepositoryServiceImpl sqlRepositoryService) {
+
+        LOGGER_PERFORMANCE.debug("> modify objects, count={}", deltas.size());
+
+        List<BatchItemOutcome> outcomes = new ArrayList<>(deltas.size());
+        List<PrismObject<? extends ObjectType>> modifiedObjects = new ArrayList<>(deltas.size());
+        int flushInterval = Math.max(1, getConfiguration().getJdbcBatchSize());
+        Session session = null;
+        try {
+            session = baseHelper.beginTransaction();
+            int modified = 0;
+            for (ObjectDelta<? extends ObjectType> delta : deltas) {
+                String newVersion;
+                try {
+                    newVersion = modifyObjectInSession(session, delta, modifyOptions, result, sqlRepositoryService,
+                            modifiedObjects);
+                } catch (ObjectNotFoundException | SchemaException | PreconditionViolationException | DtoTranslationException ex) {
+                    LOGGER.debug("Delta for {} failed in batch modify, {} objects will be modified one by one: {}",
+                            delta.getOid(), deltas.size(), ex.getMessage());
+                    baseHelper.rollbackTransaction(session);
+                    return null;
+                }
+                outcomes.add(new BatchItemOutcome(delta.getOid(), newVersion, null));
+                if (++modified % flushInterval == 0) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+            session.getTransaction().commit();
+            modifiedObjects.forEach(fullTextIndexHelper::onObjectStored);
+        } catch (RuntimeException ex) {
+            LOGGER.debug("Batch modify of {} objects failed, they will be modified one by one: {}", deltas.size(),
+                    ex.getMessage(), ex);
+            baseHelper.rollbackTransaction(session);
+            return null;
+        } finally {
+            baseHelper.cleanupSessionAndResult(session, null);
+        }
+        return outcomes;
+    }
+
+    private <T extends ObjectType> String modifyObjectInSession(Session session, ObjectDelta<T> delta,
+            RepoModifyOptions modifyOptions, OperationResult result, SqlRepositoryServiceImpl sqlRepositoryService,
+            List<PrismObject<? extends ObjectType>> modifiedObjects)
+            throws ObjectNotFoundException, SchemaException, PreconditionViolationException, DtoTranslationException {
+        // clone - for the same reasons as in modifyObjectAttempt
+        Collection<? extends ItemDelta> modifications = CloneUtil.cloneCollectionMembers(delta.getModifications());
+        return modifyObjectInSession(session, delta.getObjectTypeClass(), delta.getOid(), modifications, null,
+                modifyOptions, null, result, sqlRepositoryService, modifiedObjects);
+    }
+
+    /**
+     * Modifies the object within an already open transaction. Does not commit.
+     * The modified object (if any) is added to modifiedObjects, so that it can be processed after the commit.
+     *
+     * @return new version of the object; null if the object was not changed (e.g. only lookup table rows or campaign
+     * cases were modified)
+     */
+    private <T extends ObjectType> String modifyObjectInSession(Session session, Class<T> type, String oid,
+            Collection<? extends ItemDelta> modifications, ModificationPrecondition<T> precondition,
+            RepoModifyOptions modifyOptions, OrgClosureManager.Context closureContext, OperationResult result,
+            SqlRepositoryServiceImpl sqlRepositoryService, List<PrismObject<? extends ObjectType>> modifiedObjects)
+            throws ObjectNotFoundException, SchemaException, PreconditionViolationException, DtoTranslationException {
+
+        String newVersion = null;
+        Collection<? extends ItemDelta> lookupTableModifications = lookupTableHelper.filterLookupTableModifications(type, modifications);
+        Collection<? extends ItemDelta> campaignCaseModifications = caseHelper.filterCampaignCaseModifications(type, modifications);
+
+        if (!modifications.isEmpty() || RepoModifyOptions.isExecuteIfNoChanges(modifyOptions)) {
+
+            // JpegPhoto (RFocusPhoto) is a special kind of entity. First of all, it is lazily loaded, because photos are really big.
+            // Each RFocusPhoto naturally belongs to one RFocus, so it would be appropriate to set orphanRemoval=true for focus-photo
+            // association. However, this leads to a strange problem when merging in-memory RFocus object with the database state:
+            // If in-memory RFocus object has no photo associated (because of lazy loading), then the associated RFocusPhoto is deleted.
+            //
+            // To prevent this behavior, we've set orphanRemoval to false. Fortunately, the remove operation on RFocus
+            // seems to be still cascaded to RFocusPhoto. What we have to implement ourselves, however, is removal of RFocusPhoto
+            // _without_ removing of RFocus. In order to know whether the photo has to be removed, we have to retrieve
+            // its value, apply the delta (e.g. if the delta is a DELETE VALUE X, we have to know whether X matches current
+            // value of the photo), and if the resulting value is empty, we have to manually delete the RFocusPhoto instance.
+            //
+            // So the first step is to retrieve the current value of photo - we obviously do this only if the modifications
+            // deal with the jpegPhoto property.
+            Collection<SelectorOptions<GetOperationOptions>> options;
+            boolean containsFocusPhotoModification = FocusType.class.isAssignableFrom(type) && containsPhotoModification(modifications);
+            if (containsFocusPhotoModification) {
+                options = Collections.singletonList(SelectorOptions.create(FocusType.F_JPEG_PHOTO, GetOperationOptions.createRetrieve(RetrieveOption.INCLUDE)));
+            } else {
+                options = null;
+            }
+
+            // get object
+            PrismObject<T> prismObject = objectRetriever.getObjectInternal(session, type, oid, options, true, result);
+            if (precondition != null && !precondition.holds(prismObject)) {
+                throw new PreconditionViolationException("Modification precondition does not hold for " + prismObject);
+            }
+            sqlRepositoryService.invokeConflictWatchers(w -> w.beforeModifyObject(prismObject));
+            // apply diff
+            LOGGER.trace("OBJECT before:\n{}", prismObject.debugDumpLazily());
+            PrismObject<T> originalObject = null;
+            if (closureManager.isEnabled()) {
+                originalObject = prismObject.clone();
+            }
+            PartialUpdateHelper.Context partialUpdateContext = !containsFocusPhotoModification ?
+                    partialUpdateHelper.prepare(session, prismObject, modifications) : null;
+            ItemDelta.applyTo(modifications, prismObject);
+            LOGGER.trace("OBJECT after:\n{}", prismObject.debugDumpLazily());
+            // Continuing the photo treatment: should we remove the (now obsolete) focus photo?
+            // We have to test prismObject at this place, because updateFullObject (below) removes photo property from the prismObject.
+            boolean shouldPhotoBeRemoved = containsFocusPhotoModification && ((FocusType) prismObject.asObjectable()).getJpegPhoto() == null;
+
+            // merge and update object
+            LOGGER.trace("Translating JAXB to data type.");
+            ObjectTypeUtil.normalizeAllRelations(prismObject);
+            RObject rObject = createDataObjectFromJAXB(prismObject, PrismIdentifierGenerator.Operation.MODIFY);
+            rObject.setVersion(rObject.getVersion() + 1);
+            newVersion = Integer.toString(rObject.getVersion());
+
+            updateFullObject(rObject, prismObject);
+            if (partialUpdateContext != null) {
+                LOGGER.trace("Starting partial update.");
+                partialUpdateHelper.update(session, rObject, partialUpdateContext);
+            } else {
+                LOGGER.trace("Starting merge.");
+                session.merge(rObject);
+            }
+            if (closureManager.isEnabled()) {
+                closureManager.updateOrgClosure(originalObject, modifications, session, oid, type, OrgClosureManager.Operation.MODIFY, closureContext);
+            }
+
+            // JpegPhoto cleanup: As said before, if a focus has to have no photo (after modifications are applied),
+            // we have to remove the photo manually.
+            if (shouldPhotoBeRemoved) {
+                Query query = session.createQuery("delete RFocusPhoto where ownerOid = :oid");
+                query.setParameter("oid", prismObject.getOid());
+                query.executeUpdate();
+                LOGGER.trace("Focus photo for {} was deleted", prismObject.getOid());
+            }
+            modifiedObjects.add(prismObject);
+        }
+
+        if (LookupTableType.class.isAssignableFrom(type)) {
+            lookupTableHelper.updateLookupTableData(session, oid, lookupTableModifications);
+        }
+        if (AccessCertificationCampaignType.class.isAssignableFrom(type)) {
+            caseHelper.updateCampaignCases(session, oid, campaignCaseModifications, modifyOptions);
+        }
+        return newVersion;
     }
 
     private <T extends ObjectType> boolean containsPhotoModification(Collection<? extends ItemDelta> modifications) {
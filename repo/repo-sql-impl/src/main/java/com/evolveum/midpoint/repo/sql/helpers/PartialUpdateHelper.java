@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.helpers;
+
+import com.evolveum.midpoint.prism.PrismContainer;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
+import com.evolveum.midpoint.repo.sql.data.RepositoryContext;
+import com.evolveum.midpoint.repo.sql.data.common.RObject;
+import com.evolveum.midpoint.repo.sql.data.common.RObjectReference;
+import com.evolveum.midpoint.repo.sql.data.common.any.RAnyValue;
+import com.evolveum.midpoint.repo.sql.data.common.any.ROExtValue;
+import com.evolveum.midpoint.repo.sql.data.common.other.RReferenceOwner;
+import com.evolveum.midpoint.repo.sql.data.common.type.RObjectExtensionType;
+import com.evolveum.midpoint.repo.sql.query.QueryException;
+import com.evolveum.midpoint.repo.sql.query2.QueryDefinitionRegistry2;
+import com.evolveum.midpoint.repo.sql.query2.definition.*;
+import com.evolveum.midpoint.repo.sql.query2.resolution.DataSearchResult;
+import com.evolveum.midpoint.repo.sql.util.ClassMapper;
+import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
+import com.evolveum.midpoint.repo.sql.util.RUtil;
+import com.evolveum.midpoint.schema.util.FullTextSearchConfigurationUtil;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.Type;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import javax.xml.namespace.QName;
+import java.util.*;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Supports modifications that touch only the affected rows instead of merging the whole RObject graph
+ * (which means loading and comparing all assignments, references, extension values, etc.).
+ *
+ * A modification is eligible for this treatment if all its item deltas are either:
+ * (1) deltas of items that are stored in columns of the object's own table(s), i.e. not in any collection,
+ * (2) deltas of extension items, or
+ * (3) deltas of linkRef, roleMembershipRef, delegatedRef or personaRef of a focus.
+ *
+ * In such a case all the non-collection properties are copied from the translated object to the persistent one
+ * (so hibernate updates only the rows that really changed), extension values are replaced item by item, and
+ * references are added or removed one by one. Everything else (assignments, triggers, parentOrgRef, metadata
+ * approver references, shadow attributes, full text info, ...) falls back to the standard merge.
+ *
+ * Used only if enabled by partialUpdates repository configuration property.
+ *
+ * @author agent
+ */
+@Component
+public class PartialUpdateHelper {
+
+    private static final Trace LOGGER = TraceManager.getTrace(PartialUpdateHelper.class);
+
+    /**
+     * Focus references that are stored as m_reference rows and can be updated value by value.
+     */
+    private static final Map<QName, ReferenceCollection> FOCUS_REFERENCES = new HashMap<>();
+
+    static {
+        addFocusReference(FocusType.F_LINK_REF, "linkRef", RReferenceOwner.USER_ACCOUNT, FocusType::getLinkRef);
+        addFocusReference(FocusType.F_ROLE_MEMBERSHIP_REF, "roleMembershipRef", RReferenceOwner.ROLE_MEMBER,
+                FocusType::getRoleMembershipRef);
+        addFocusReference(FocusType.F_DELEGATED_REF, "delegatedRef", RReferenceOwner.DELEGATED, FocusType::getDelegatedRef);
+        addFocusReference(FocusType.F_PERSONA_REF, "personaRef", RReferenceOwner.PERSONA, FocusType::getPersonaRef);
+    }
+
+    private static void addFocusReference(QName itemName, String jpaName, RReferenceOwner owner,
+            Function<FocusType, List<ObjectReferenceType>> getter) {
+        FOCUS_REFERENCES.put(itemName, new ReferenceCollection(jpaName, owner, getter));
+    }
+
+    private static class ReferenceCollection {
+        private final String jpaName;
+        private final RReferenceOwner owner;
+        private final Function<FocusType, List<ObjectReferenceType>> getter;
+
+        private ReferenceCollection(String jpaName, RReferenceOwner owner, Function<FocusType, List<ObjectReferenceType>> getter) {
+            this.jpaName = jpaName;
+            this.owner = owner;
+            this.getter = getter;
+        }
+    }
+
+    /**
+     * Relevant parts of the object state before the modifications are applied.
+     */
+    public static class Context {
+        private final Map<ReferenceCollection, Set<RObjectReference>> oldReferences = new HashMap<>();
+        private List<RAnyValue> oldExtensionValues;         // null if extension is not modified
+    }
+
+    @Autowired
+    @Qualifier("repositoryService")
+    private RepositoryService repositoryService;
+
+    @Autowired
+    private BaseHelper baseHelper;
+
+    @Autowired
+    private PrismContext prismContext;
+
+    /**
+     * Checks whether the modifications can be executed as a partial update and, if so, captures the relevant
+     * state of the object. Must be called before the modifications are applied to the object.
+     *
+     * @return null if the partial update is not possible
+     */
+    public <T extends ObjectType> Context prepare(Session session, PrismObject<T> object,
+            Collection<? extends ItemDelta> modifications) throws DtoTranslationException {
+
+        Class<T> type = object.getCompileTimeClass();
+        if (!getConfiguration().isPartialUpdates() || type == null || modifications.isEmpty()
+                || LookupTableType.class.isAssignableFrom(type)
+                || AccessCertificationCampaignType.class.isAssignableFrom(type)
+                || touchesFullTextItems(type, modifications)) {
+            return null;
+        }
+
+        Class<? extends RObject> hqlType = ClassMapper.getHQLTypeClass(type);
+        ClassMetadata metadata = session.getSessionFactory().getClassMetadata(hqlType);
+        if (metadata == null) {
+            return null;
+        }
+
+        boolean extensionModified = false;
+        Set<ReferenceCollection> referencesModified = new HashSet<>();
+        for (ItemDelta<?, ?> modification : modifications) {
+            ItemPath path = modification.getPath();
+            QName first = ItemPath.isNullOrEmpty(path) ? null : path.getFirstName();
+            if (first == null) {
+                return null;
+            } else if (QNameUtil.match(first, ObjectType.F_EXTENSION)) {
+                extensionModified = true;
+            } else if (path.size() == 1 && FocusType.class.isAssignableFrom(type) && FOCUS_REFERENCES.containsKey(first)) {
+                referencesModified.add(FOCUS_REFERENCES.get(first));
+            } else if (!isStoredInColumns(type, metadata, path)) {
+                LOGGER.trace("Item {} is not stored in columns of {}, partial update is not possible", path, hqlType);
+                return null;
+            }
+        }
+
+        Context ctx = new Context();
+        if (!referencesModified.isEmpty()) {
+            FocusType focus = (FocusType) object.asObjectable();
+            RObject owner = (RObject) session.load(hqlType, object.getOid());
+            for (ReferenceCollection collection : referencesModified) {
+                //noinspection unchecked
+                ctx.oldReferences.put(collection, RUtil.safeListReferenceToSet(collection.getter.apply(focus),
+                        prismContext, owner, collection.owner));
+            }
+        }
+        if (extensionModified) {
+            ctx.oldExtensionValues = new ArrayList<>();
+            PrismContainer<?> extension = object.findContainer(ObjectType.F_EXTENSION);
+            if (extension != null && extension.getValue() != null) {
+                RObject holder;
+                try {
+                    holder = hqlType.newInstance();
+                } catch (InstantiationException | IllegalAccessException e) {
+                    LOGGER.trace("Couldn't instantiate {}, partial update is not possible", hqlType, e);
+                    return null;
+                }
+                RObject.copyFromJAXB(extension.getValue(), holder, new RepositoryContext(repositoryService, prismContext),
+                        RObjectExtensionType.EXTENSION);
+                ctx.oldExtensionValues.addAll(getExtensionValues(holder));
+            }
+        }
+        return ctx;
+    }
+
+    /**
+     * Writes the changes into the persistent object (instead of merging the whole translated object).
+     *
+     * @param rObject Object translated from the modified prism object (including updated version and full object).
+     */
+    public void update(Session session, RObject<?> rObject, Context ctx) {
+        ClassMetadata metadata = session.getSessionFactory().getClassMetadata(rObject.getClass());
+        RObject persistent = (RObject) session.load(rObject.getClass(), rObject.getOid());
+
+        String[] names = metadata.getPropertyNames();
+        Type[] types = metadata.getPropertyTypes();
+        for (int i = 0; i < names.length; i++) {
+            if (!types[i].isCollectionType() && !types[i].isEntityType()) {
+                metadata.setPropertyValue(persistent, names[i], metadata.getPropertyValue(rObject, names[i]));
+            }
+        }
+
+        for (Map.Entry<ReferenceCollection, Set<RObjectReference>> entry : ctx.oldReferences.entrySet()) {
+            ReferenceCollection collection = entry.getKey();
+            //noinspection unchecked
+            Collection<RObjectReference> newReferences =
+                    (Collection<RObjectReference>) metadata.getPropertyValue(rObject, collection.jpaName);
+            updateReferences(session, persistent, collection.owner, entry.getValue(), newReferences);
+        }
+
+        if (ctx.oldExtensionValues != null) {
+            updateExtension(session, persistent, ctx.oldExtensionValues, getExtensionValues(rObject));
+        }
+    }
+
+    private void updateReferences(Session session, RObject persistent, RReferenceOwner referenceType,
+            Collection<RObjectReference> oldReferences, Collection<RObjectReference> newReferences) {
+        Map<String, RObjectReference> oldMap = indexReferences(oldReferences);
+        Map<String, RObjectReference> newMap = indexReferences(newReferences);
+        int deleted = 0, added = 0;
+        for (Map.Entry<String, RObjectReference> entry : oldMap.entrySet()) {
+            if (!isSameReference(entry.getValue(), newMap.get(entry.getKey()))) {
+                Query query = session.createQuery("delete from " + RObjectReference.class.getSimpleName()
+                        + " r where r.ownerOid = :oid and r.referenceType = :referenceType"
+                        + " and r.targetOid = :targetOid and r.relation = :relation");
+                query.setParameter("oid", persistent.getOid());
+                query.setParameter("referenceType", referenceType);
+                query.setParameter("targetOid", entry.getValue().getTargetOid());
+                query.setParameter("relation", entry.getValue().getRelation());
+                query.executeUpdate();
+                deleted++;
+            }
+        }
+        for (Map.Entry<String, RObjectReference> entry : newMap.entrySet()) {
+            if (!isSameReference(entry.getValue(), oldMap.get(entry.getKey()))) {
+                RObjectReference reference = entry.getValue();
+                reference.setOwner(persistent);
+                session.save(reference);
+                added++;
+            }
+        }
+        LOGGER.trace("References of type {}: {} deleted, {} added", referenceType, deleted, added);
+    }
+
+    // the same key as the primary key of m_reference (within given owner and reference type)
+    private Map<String, RObjectReference> indexReferences(Collection<RObjectReference> references) {
+        Map<String, RObjectReference> map = new HashMap<>();
+        if (references != null) {
+            for (RObjectReference reference : references) {
+                map.put(reference.getTargetOid() + "|" + reference.getRelation(), reference);
+            }
+        }
+        return map;
+    }
+
+    private boolean isSameReference(RObjectReference reference1, RObjectReference reference2) {
+        return reference2 != null
+                && Objects.equals(reference1.getTargetOid(), reference2.getTargetOid())
+                && Objects.equals(reference1.getRelation(), reference2.getRelation())
+                && reference1.getType() == reference2.getType();
+    }
+
+    /**
+     * Extension values are replaced for each item (name) that has changed: all rows of the item are deleted
+     * and the new ones are inserted. Value counts are updated along with the other columns of the object.
+     */
+    private void updateExtension(Session session, RObject persistent, List<RAnyValue> oldValues, List<RAnyValue> newValues) {
+        Map<String, Set<RAnyValue>> oldByName = indexByName(oldValues);
+        Map<String, Set<RAnyValue>> newByName = indexByName(newValues);
+        Set<String> names = new HashSet<>(oldByName.keySet());
+        names.addAll(newByName.keySet());
+        for (String name : names) {
+            Set<RAnyValue> oldItemValues = oldByName.getOrDefault(name, Collections.emptySet());
+            Set<RAnyValue> newItemValues = newByName.getOrDefault(name, Collections.emptySet());
+            if (oldItemValues.equals(newItemValues)) {
+                continue;
+            }
+            Set<Class<?>> oldClasses = new HashSet<>();
+            for (RAnyValue value : oldItemValues) {
+                oldClasses.add(value.getClass());
+            }
+            for (Class<?> valueClass : oldClasses) {
+                Query query = session.createQuery("delete from " + valueClass.getSimpleName()
+                        + " v where v.ownerOid = :oid and v.ownerType = :ownerType and v.name = :name");
+                query.setParameter("oid", persistent.getOid());
+                query.setParameter("ownerType", RObjectExtensionType.EXTENSION);
+                query.setParameter("name", name);
+                query.executeUpdate();
+            }
+            for (RAnyValue value : newItemValues) {
+                ((ROExtValue) value).setOwner(persistent);
+                session.save(value);
+            }
+            LOGGER.trace("Extension item {}: {} value(s) replaced by {} value(s)", name, oldItemValues.size(),
+                    newItemValues.size());
+        }
+    }
+
+    private Map<String, Set<RAnyValue>> indexByName(List<RAnyValue> values) {
+        Map<String, Set<RAnyValue>> map = new HashMap<>();
+        for (RAnyValue value : values) {
+            map.computeIfAbsent(value.getName(), k -> new HashSet<>()).add(value);
+        }
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<RAnyValue> getExtensionValues(RObject<?> object) {
+        List<RAnyValue> rv = new ArrayList<>();
+        List<Set<? extends RAnyValue>> sets = Arrays.asList(object.getStrings(), object.getLongs(), object.getDates(),
+                object.getReferences(), object.getPolys(), object.getBooleans());
+        for (Set<? extends RAnyValue> set : sets) {
+            for (RAnyValue value : set) {
+                if (((ROExtValue) value).getOwnerType() == RObjectExtensionType.EXTENSION) {
+                    rv.add(value);
+                }
+            }
+        }
+        return rv;
+    }
+
+    /**
+     * Is the item stored only in (non-collection) columns of the object's own table(s)? We use the query definition
+     * registry to map the item path to JPA properties, and hibernate metadata to check the property type.
+     * Items that are unknown to the registry (e.g. description) are treated conservatively, i.e. as not eligible.
+     */
+    private boolean isStoredInColumns(Class<? extends ObjectType> type, ClassMetadata metadata, ItemPath path) {
+        try {
+            JpaEntityDefinition entityDefinition = QueryDefinitionRegistry2.getInstance().findEntityDefinition(type);
+            List<JpaLinkDefinition> links = new ArrayList<>();
+            DataSearchResult<JpaDataNodeDefinition> result = entityDefinition.findDataNodeDefinition(path, null,
+                    JpaDataNodeDefinition.class, links::add, prismContext);
+            if (result == null) {
+                return false;
+            }
+            JpaDataNodeDefinition target = result.getTargetDefinition();
+            if (target instanceof JpaAnyContainerDefinition || target instanceof JpaAnyPropertyDefinition
+                    || target instanceof JpaAnyReferenceDefinition || target instanceof JpaEntityPointerDefinition) {
+                return false;
+            }
+            String rootProperty = null;
+            for (JpaLinkDefinition link : links) {
+                if (link.isMultivalued()) {
+                    return false;
+                }
+                if (rootProperty == null && link.hasJpaRepresentation()) {
+                    rootProperty = link.getJpaName();
+                }
+            }
+            if (rootProperty == null) {
+                return false;
+            }
+            Type propertyType = metadata.getPropertyType(rootProperty);
+            return !propertyType.isCollectionType() && !propertyType.isEntityType();
+        } catch (QueryException | RuntimeException e) {
+            LOGGER.trace("Couldn't resolve {} in {}", path, type, e);
+            return false;
+        }
+    }
+
+    private boolean touchesFullTextItems(Class<? extends ObjectType> type, Collection<? extends ItemDelta> modifications) {
+        FullTextSearchConfigurationType config = repositoryService.getFullTextSearchConfiguration();
+        if (!FullTextSearchConfigurationUtil.isEnabled(config)) {
+            return false;
+        }
+        Set<ItemPath> paths = FullTextSearchConfigurationUtil.getFullTextSearchItemPaths(config, type);
+        for (ItemDelta<?, ?> modification : modifications) {
+            for (ItemPath path : paths) {
+                if (path.isSubPathOrEquivalent(modification.getPath()) || modification.getPath().isSubPathOrEquivalent(path)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private SqlRepositoryConfiguration getConfiguration() {
+        return baseHelper.getConfiguration();
+    }
+}
@@ -17,6 +17,8 @@
 package com.evolveum.midpoint.repo.sql.helpers;
 
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
 import com.evolveum.midpoint.repo.sql.SerializationRelatedException;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryServiceImpl;
 import com.evolveum.midpoint.repo.sql.data.common.RObject;
@@ -26,21 +28,44 @@ import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SequenceType;
 import org.hibernate.Session;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
+ * Sequences with blockSize greater than 1 are advanced by whole blocks: one value is returned and the rest is kept
+ * in reservations, from where they are handed out (without updating the sequence) by subsequent calls.
+ * Values still reserved at shutdown are returned to the sequence.
+ *
+ * Before a reserved value is handed out, the version of the sequence is checked. If the sequence was changed
+ * (by this node or by any other one, no matter if the change was already announced by the cache dispatcher),
+ * the reservation is validated against the current state of the sequence: if the counter was moved back
+ * (reset by an administrator or rewound), the sequence itself will hand out the values at or above the new
+ * counter again, so they are removed from the reservation. Values above maxCounter are removed as well.
+ * Other reserved values are kept, so changing the sequence does not leave gaps in it.
+ *
  * @author mederly
  */
 @Component
-public class SequenceHelper {
+public class SequenceHelper implements CacheListener {
 
     @Autowired
     private ObjectRetriever objectRetriever;
@@ -51,13 +76,170 @@ public class SequenceHelper {
     @Autowired
     private BaseHelper baseHelper;
 
+    @Autowired(required = false)
+    private CacheDispatcher cacheDispatcher;
+
+    /**
+     * Values of a sequence reserved by this node.
+     */
+    private static class Reservation {
+        private final Queue<Long> values = new ConcurrentLinkedQueue<>();
+        private int version = -1;           // version of the sequence the values were last validated against
+        private long counter;               // counter of the sequence at that time
+    }
+
+    // per sequence OID
+    private final Map<String, Reservation> reservations = new ConcurrentHashMap<>();
+
+    private static final String OPERATION_VALIDATE_RESERVATION = SequenceHelper.class.getName() + ".validateReservation";
+
     private static final Trace LOGGER = TraceManager.getTrace(SqlRepositoryServiceImpl.class);
     private static final Trace LOGGER_PERFORMANCE = TraceManager.getTrace(SqlRepositoryServiceImpl.PERFORMANCE_LOG_NAME);
 
+    @PostConstruct
+    public void registerListener() {
+        if (cacheDispatcher != null) {
+            cacheDispatcher.registerCacheListener(this);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (cacheDispatcher != null) {
+            cacheDispatcher.unregisterCacheListener(this);
+        }
+        returnReservedValues();
+    }
+
+    /**
+     * Returns a value reserved for given sequence on this node, or null if there's none (or if the reservation
+     * could not be validated).
+     */
+    public Long takeReservedValue(String oid, OperationResult result) {
+        Reservation reservation = reservations.get(oid);
+        if (reservation == null || reservation.values.isEmpty()) {
+            return null;
+        }
+        synchronized (reservation) {
+            try {
+                validateReservation(oid, reservation, result.createMinorSubresult(OPERATION_VALIDATE_RESERVATION));
+            } catch (ObjectNotFoundException e) {
+                LOGGER.debug("Sequence {} no longer exists, discarding values reserved on this node", oid);
+                reservations.remove(oid);
+                return null;
+            } catch (SchemaException | RuntimeException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't validate values reserved for sequence {}, not using them", e, oid);
+                return null;
+            }
+            return reservation.values.poll();
+        }
+    }
+
+    /**
+     * Checks the reserved values against the current state of the sequence, if it was changed since the last check.
+     */
+    private void validateReservation(String oid, Reservation reservation, OperationResult result)
+            throws ObjectNotFoundException, SchemaException {
+        int version = Integer.parseInt(objectRetriever.getVersionAttempt(SequenceType.class, oid, result));
+        if (version == reservation.version) {
+            return;
+        }
+        SequenceType sequence = objectRetriever.getObjectAttempt(SequenceType.class, oid, null, result).asObjectable();
+        long counter = sequence.getCounter() != null ? sequence.getCounter() : 0L;
+        long maxCounter = sequence.getMaxCounter() != null ? sequence.getMaxCounter() : Long.MAX_VALUE;
+        boolean movedBack = counter < reservation.counter;
+        if (reservation.values.removeIf(value -> movedBack && value >= counter || value > maxCounter)) {
+            LOGGER.debug("Sequence {} was changed (counter {} -> {}, maxCounter {}), values reserved on this node were "
+                    + "reduced to {}", oid, reservation.counter, counter, maxCounter, reservation.values);
+        }
+        reservation.version = Integer.parseInt(sequence.getVersion());
+        reservation.counter = counter;
+    }
+
+    private void addToReservation(String oid, List<Long> values, int version, long counter) {
+        Reservation reservation = reservations.computeIfAbsent(oid, k -> new Reservation());
+        synchronized (reservation) {
+            reservation.values.addAll(values);
+            if (version > reservation.version) {
+                reservation.version = version;
+                reservation.counter = counter;
+            }
+        }
+    }
+
+    /**
+     * Returns all values reserved on this node to their sequences.
+     */
+    public void returnReservedValues() {
+        for (String oid : new ArrayList<>(reservations.keySet())) {
+            Reservation reservation = reservations.remove(oid);
+            if (reservation == null) {
+                continue;
+            }
+            OperationResult result = new OperationResult(SequenceHelper.class.getName() + ".returnReservedValues");
+            List<Long> values = new ArrayList<>();
+            synchronized (reservation) {
+                try {
+                    validateReservation(oid, reservation, result);
+                } catch (ObjectNotFoundException | SchemaException | RuntimeException e) {
+                    LoggingUtils.logUnexpectedException(LOGGER, "Couldn't validate values reserved for sequence {}, not returning them", e, oid);
+                    continue;
+                }
+                Long value;
+                while ((value = reservation.values.poll()) != null) {
+                    values.add(value);
+                }
+            }
+            if (values.isEmpty()) {
+                continue;
+            }
+            try {
+                int attempt = 1;
+                while (true) {
+                    try {
+                        returnUnusedValuesToSequenceAttempt(oid, values, true, result);
+                        break;
+                    } catch (RuntimeException ex) {
+                        attempt = baseHelper.logOperationAttempt(oid, "returnReservedValues", attempt, ex, result);
+                    }
+                }
+            } catch (ObjectNotFoundException | SchemaException | RuntimeException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't return reserved values {} to sequence {}", e, values, oid);
+            }
+        }
+    }
+
+    /**
+     * Makes sure the reservation is validated before its next value is handed out. (This is only a shortcut,
+     * as the version of the sequence is checked anyway.)
+     */
+    @Override
+    public <O extends ObjectType> void invalidate(@NotNull Class<O> type, @NotNull String oid, @Nullable String version,
+            boolean clusterwide) {
+        if (type.isAssignableFrom(SequenceType.class)) {
+            Reservation reservation = reservations.get(oid);
+            if (reservation != null) {
+                LOGGER.debug("Sequence {} was changed, values reserved on this node will be validated", oid);
+                synchronized (reservation) {
+                    reservation.version = -1;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void invalidateAll(boolean clusterwide) {
+        for (Reservation reservation : reservations.values()) {
+            synchronized (reservation) {
+                reservation.version = -1;
+            }
+        }
+    }
+
     public long advanceSequenceAttempt(String oid, OperationResult result) throws ObjectNotFoundException,
             SchemaException, SerializationRelatedException {
 
-        long returnValue;
+        List<Long> returnValues = new ArrayList<>();
 
         LOGGER.debug("Advancing sequence with oid '{}'.", oid);
         LOGGER_PERFORMANCE.debug("> advance sequence, oid={}", oid);
@@ -72,37 +254,25 @@ public class SequenceHelper {
             }
             SequenceType sequence = prismObject.asObjectable();
 
-            if (!sequence.getUnusedValues().isEmpty()) {
-                returnValue = sequence.getUnusedValues().remove(0);
-            } else {
-                long counter = sequence.getCounter() != null ? sequence.getCounter() : 0L;
-                long maxCounter = sequence.getMaxCounter() != null ? sequence.getMaxCounter() : Long.MAX_VALUE;
-                boolean allowRewind = Boolean.TRUE.equals(sequence.isAllowRewind());
-
-                if (counter < maxCounter) {
-                    returnValue = counter;
-                    sequence.setCounter(counter + 1);
-                } else if (counter == maxCounter) {
-                    returnValue = counter;
-                    if (allowRewind) {
-                        sequence.setCounter(0L);
-                    } else {
-                        sequence.setCounter(counter + 1);       // will produce exception during next run
-                    }
-                } else {        // i.e. counter > maxCounter
-                    if (allowRewind) {          // shouldn't occur but...
-                        LOGGER.warn("Sequence {} overflown with allowRewind set to true. Rewinding.", oid);
-                        returnValue = 0;
-                        sequence.setCounter(1L);
-                    } else {
-                        // TODO some better exception...
-                        throw new SystemException("No (next) value available from sequence " + oid + ". Current counter = " + sequence.getCounter() + ", max value = " + sequence.getMaxCounter());
-                    }
+            int blockSize = sequence.getBlockSize() != null && sequence.getBlockSize() > 1 ? sequence.getBlockSize() : 1;
+            while (returnValues.size() < blockSize) {
+                Long counterBefore = sequence.getCounter();
+                Long value = nextValue(oid, sequence);
+                if (value != null) {
+                    returnValues.add(value);
+                } else if (returnValues.isEmpty()) {
+                    // TODO some better exception...
+                    throw new SystemException("No (next) value available from sequence " + oid + ". Current counter = " + sequence.getCounter() + ", max value = " + sequence.getMaxCounter());
+                } else {
+                    break;          // the block will be smaller
+                }
+                if (counterBefore != null && sequence.getCounter() < counterBefore) {
+                    break;          // the sequence was rewound; a block must not contain the same value twice
                 }
             }
 
             if (LOGGER.isTraceEnabled()) {
-                LOGGER.trace("Return value = {}, OBJECT after:\n{}", returnValue, prismObject.debugDump());
+                LOGGER.trace("Return value(s) = {}, OBJECT after:\n{}", returnValues, prismObject.debugDump());
             }
 
             // merge and update object
@@ -117,7 +287,11 @@ public class SequenceHelper {
             session.getTransaction().commit();
             LOGGER.trace("Committed!");
 
-            return returnValue;
+            if (returnValues.size() > 1) {
+                addToReservation(oid, returnValues.subList(1, returnValues.size()), rObject.getVersion(),
+                        sequence.getCounter() != null ? sequence.getCounter() : 0L);
+            }
+            return returnValues.get(0);
         } catch (ObjectNotFoundException ex) {
             baseHelper.rollbackTransaction(session, ex, result, true);
             throw ex;
@@ -133,8 +307,47 @@ public class SequenceHelper {
         }
     }
 
+    // returns null if no value is available
+    private Long nextValue(String oid, SequenceType sequence) {
+        if (!sequence.getUnusedValues().isEmpty()) {
+            return sequence.getUnusedValues().remove(0);
+        }
+        long counter = sequence.getCounter() != null ? sequence.getCounter() : 0L;
+        long maxCounter = sequence.getMaxCounter() != null ? sequence.getMaxCounter() : Long.MAX_VALUE;
+        boolean allowRewind = Boolean.TRUE.equals(sequence.isAllowRewind());
+
+        if (counter < maxCounter) {
+            sequence.setCounter(counter + 1);
+            return counter;
+        } else if (counter == maxCounter) {
+            if (allowRewind) {
+                sequence.setCounter(0L);
+            } else {
+                sequence.setCounter(counter + 1);       // will produce exception during next run
+            }
+            return counter;
+        } else {        // i.e. counter > maxCounter
+            if (allowRewind) {          // shouldn't occur but...
+                LOGGER.warn("Sequence {} overflown with allowRewind set to true. Rewinding.", oid);
+                sequence.setCounter(1L);
+                return 0L;
+            } else {
+                return null;
+            }
+        }
+    }
+
     public void returnUnusedValuesToSequenceAttempt(String oid, Collection<Long> unusedValues, OperationResult result) throws ObjectNotFoundException,
             SchemaException, SerializationRelatedException {
+        returnUnusedValuesToSequenceAttempt(oid, unusedValues, false, result);
+    }
+
+    /**
+     * @param rewindCounter If true, values just below the counter are returned by moving the counter back,
+     *                      instead of putting them among unused values. Used for values reserved in blocks.
+     */
+    public void returnUnusedValuesToSequenceAttempt(String oid, Collection<Long> unusedValues, boolean rewindCounter,
+            OperationResult result) throws ObjectNotFoundException, SchemaException, SerializationRelatedException {
 
         LOGGER.debug("Returning unused values of {} to a sequence with oid '{}'.", unusedValues, oid);
         LOGGER_PERFORMANCE.debug("> return unused values, oid={}, values={}", oid, unusedValues);
@@ -148,6 +361,15 @@ public class SequenceHelper {
                 LOGGER.trace("OBJECT before:\n{}", prismObject.debugDump());
             }
             SequenceType sequence = prismObject.asObjectable();
+            if (rewindCounter && sequence.getCounter() != null) {
+                List<Long> remainingValues = new ArrayList<>(unusedValues);
+                long counter = sequence.getCounter();
+                while (counter > 0 && remainingValues.remove(Long.valueOf(counter - 1))) {
+                    counter--;
+                }
+                sequence.setCounter(counter);
+                unusedValues = remainingValues;
+            }
             int maxUnusedValues = sequence.getMaxUnusedValues() != null ? sequence.getMaxUnusedValues() : 0;
             Iterator<Long> valuesToReturnIterator = unusedValues.iterator();
             while (valuesToReturnIterator.hasNext() && sequence.getUnusedValues().size() < maxUnusedValues) {
@@ -28,6 +28,8 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import org.apache.commons.lang.Validate;
 import org.hibernate.Session;
 
+import java.util.List;
+
 /**
  * @author lazyman
  * @author mederly
@@ -53,6 +55,12 @@ public class InterpretationContext {
      */
     private JpaEntityDefinition rootEntityDefinition;
 
+    /**
+     * OIDs found by the embedded full text index, ordered by their relevance. Used to order the results
+     * if no explicit ordering is requested.
+     */
+    private List<String> fullTextRanking;
+
     public InterpretationContext(QueryInterpreter2 interpreter, Class<? extends Containerable> type,
                                  PrismContext prismContext, Session session) throws QueryException {
 
@@ -112,4 +120,12 @@ public class InterpretationContext {
     public String getPrimaryEntityAlias() {
         return hibernateQuery.getPrimaryEntityAlias();
     }
+
+    public List<String> getFullTextRanking() {
+        return fullTextRanking;
+    }
+
+    public void setFullTextRanking(List<String> fullTextRanking) {
+        this.fullTextRanking = fullTextRanking;
+    }
 }
@@ -18,16 +18,20 @@ package com.evolveum.midpoint.repo.sql.query2;
 
 import com.evolveum.midpoint.prism.Containerable;
 import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.query.FullTextFilter;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
+import com.evolveum.midpoint.repo.sql.helpers.FullTextIndexHelper;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
 import com.evolveum.midpoint.repo.sql.query.RQuery;
 import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SelectorOptions;
+import org.hibernate.Query;
 import org.hibernate.Session;
 
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author lazyman
@@ -36,19 +40,67 @@ public class QueryEngine2 {
 
     private SqlRepositoryConfiguration repoConfiguration;
     private PrismContext prismContext;
+    private QueryTranslationCache translationCache;
+    private FullTextIndexHelper fullTextIndex;
 
     public QueryEngine2(SqlRepositoryConfiguration config, PrismContext prismContext) {
+        this(config, prismContext, null);
+    }
+
+    public QueryEngine2(SqlRepositoryConfiguration config, PrismContext prismContext,
+            QueryTranslationCache translationCache) {
+        this(config, prismContext, translationCache, null);
+    }
+
+    public QueryEngine2(SqlRepositoryConfiguration config, PrismContext prismContext,
+            QueryTranslationCache translationCache, FullTextIndexHelper fullTextIndex) {
         this.repoConfiguration = config;
         this.prismContext = prismContext;
+        this.translationCache = translationCache;
+        this.fullTextIndex = fullTextIndex;
     }
 
     public RQuery interpret(ObjectQuery query, Class<? extends Containerable> type,
             Collection<SelectorOptions<GetOperationOptions>> options,
             boolean countingObjects, Session session) throws QueryException {
 
-        QueryInterpreter2 interpreter = new QueryInterpreter2(repoConfiguration);
+        long start = System.nanoTime();
+        QueryShape shape = translationCache != null && translationCache.isEnabled() && !isSearchingFullTextIndex(query)
+                ? QueryShape.create(query, type, options, countingObjects) : null;
+        if (shape != null) {
+            RQuery cachedQuery = translationCache.get(shape, query, countingObjects, prismContext, session);
+            if (cachedQuery != null) {
+                translationCache.recordTranslation(true, System.nanoTime() - start);
+                return cachedQuery;
+            }
+        }
+
+        QueryInterpreter2 interpreter = new QueryInterpreter2(repoConfiguration, fullTextIndex);
         RootHibernateQuery hibernateQuery = interpreter.interpret(query, type, options, prismContext, countingObjects, session);
+        Query hqlQuery = hibernateQuery.getAsHqlQuery(session);
+
+        if (translationCache != null) {
+            if (shape != null) {
+                translationCache.put(shape, hqlQuery.getQueryString(), hibernateQuery, prismContext);
+            }
+            translationCache.recordTranslation(false, System.nanoTime() - start);
+        }
+        return new RQueryImpl(hqlQuery, hibernateQuery);
+    }
 
-        return new RQueryImpl(hibernateQuery.getAsHqlQuery(session), hibernateQuery);
+    /**
+     * OIDs found in the full text index are not derived from the query, so such translations cannot be reused.
+     */
+    private boolean isSearchingFullTextIndex(ObjectQuery query) {
+        if (fullTextIndex == null || query == null || query.getFilter() == null || !fullTextIndex.isActive()) {
+            return false;
+        }
+        AtomicBoolean found = new AtomicBoolean();
+        query.getFilter().accept(filter -> {
+            if (filter instanceof FullTextFilter) {
+                found.set(true);
+            }
+        });
+        return found.get();
     }
 }
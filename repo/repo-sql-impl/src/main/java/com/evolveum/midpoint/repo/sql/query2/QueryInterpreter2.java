@@ -25,6 +25,7 @@ import com.evolveum.midpoint.prism.query.*;
 import com.evolveum.midpoint.repo.sql.ObjectPagingAfterOid;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
 import com.evolveum.midpoint.repo.sql.data.common.embedded.RPolyString;
+import com.evolveum.midpoint.repo.sql.helpers.FullTextIndexHelper;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
 import com.evolveum.midpoint.repo.sql.query2.definition.*;
 import com.evolveum.midpoint.repo.sql.query2.hqm.CountProjectionElement;
@@ -99,15 +100,25 @@ public class QueryInterpreter2 {
     }
 
     private SqlRepositoryConfiguration repoConfiguration;
+    private FullTextIndexHelper fullTextIndex;
 
     public QueryInterpreter2(SqlRepositoryConfiguration repoConfiguration) {
+        this(repoConfiguration, null);
+    }
+
+    public QueryInterpreter2(SqlRepositoryConfiguration repoConfiguration, FullTextIndexHelper fullTextIndex) {
         this.repoConfiguration = repoConfiguration;
+        this.fullTextIndex = fullTextIndex;
     }
 
     public SqlRepositoryConfiguration getRepoConfiguration() {
         return repoConfiguration;
     }
 
+    public FullTextIndexHelper getFullTextIndex() {
+        return fullTextIndex;
+    }
+
     public RootHibernateQuery interpret(ObjectQuery query, @NotNull Class<? extends Containerable> type,
 			Collection<SelectorOptions<GetOperationOptions>> options, @NotNull PrismContext prismContext,
 			boolean countingObjects, @NotNull Session session) throws QueryException {
@@ -173,6 +184,9 @@ public class QueryInterpreter2 {
 			return wrapperQuery;
 		} else {
 			interpretPagingAndSorting(context, query, false);
+			if (!distinct) {
+				addFullTextRankingOrdering(context, query);
+			}
 			hibernateQuery.setResultTransformer(resultStyle.getResultTransformer());
 			hibernateQuery.addProjectionElementsFor(resultStyle.getContentAttributes(rootAlias));
 			if (distinct) {
@@ -182,6 +196,28 @@ public class QueryInterpreter2 {
 		}
     }
 
+	/**
+	 * If the objects were found using the embedded full text index and no ordering was requested, the results
+	 * are ordered by their relevance, as determined by the index.
+	 */
+	private void addFullTextRankingOrdering(InterpretationContext context, ObjectQuery query) {
+		List<String> ranking = context.getFullTextRanking();
+		RootHibernateQuery hibernateQuery = context.getHibernateQuery();
+		if (ranking == null || ranking.isEmpty() || !hibernateQuery.getOrderingList().isEmpty()
+				|| query != null && query.getPaging() instanceof ObjectPagingAfterOid) {
+			return;
+		}
+		String rootAlias = hibernateQuery.getPrimaryEntityAlias();
+		StringBuilder sb = new StringBuilder("case");
+		for (int i = 0; i < ranking.size(); i++) {
+			// OIDs come from the index, so they are safe to be used as literals (escaping just to be sure)
+			sb.append(" when ").append(rootAlias).append(".oid = '").append(ranking.get(i).replace("'", "''"))
+					.append("' then ").append(i);
+		}
+		sb.append(" else ").append(ranking.size()).append(" end");
+		hibernateQuery.addOrdering(sb.toString(), OrderDirection.ASCENDING);
+	}
+
 	private List<String> getOrderingAttributes(InterpretationContext context) {
 		return context.getHibernateQuery().getOrderingList().stream().map(o -> o.getByProperty()).collect(Collectors.toList());
 	}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.query2;
+
+import com.evolveum.midpoint.prism.Containerable;
+import com.evolveum.midpoint.prism.ItemDefinition;
+import com.evolveum.midpoint.prism.PrismPropertyDefinition;
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.prism.PrismReferenceValue;
+import com.evolveum.midpoint.prism.PrismValue;
+import com.evolveum.midpoint.prism.query.*;
+import com.evolveum.midpoint.repo.sql.ObjectPagingAfterOid;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.SelectorOptions;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shape of a query: everything that can influence the HQL text produced by QueryInterpreter2 (type, filter structure,
+ * item paths, definitions, matching rules, types of values, ordering, ...), written down as a string key.
+ *
+ * Values that are only passed to the HQL query as parameters (values of property filters, OIDs in reference
+ * and org filters, OID in "after OID" paging) are not part of the key; they are collected in the order of appearance.
+ * Other values (e.g. relations, OIDs in InOid filter, full text search words) are part of the key.
+ *
+ * @author agent
+ */
+class QueryShape {
+
+	@NotNull private final String key;
+	@NotNull private final List<Object> values;
+
+	private QueryShape(@NotNull String key, @NotNull List<Object> values) {
+		this.key = key;
+		this.values = values;
+	}
+
+	@NotNull
+	String getKey() {
+		return key;
+	}
+
+	@NotNull
+	List<Object> getValues() {
+		return values;
+	}
+
+	/**
+	 * Returns null if the query contains something that is not supported here (e.g. an unevaluated expression).
+	 */
+	static QueryShape create(ObjectQuery query, Class<? extends Containerable> type,
+			Collection<SelectorOptions<GetOperationOptions>> options, boolean countingObjects) {
+		Builder builder = new Builder();
+		builder.sb.append(type.getName()).append(countingObjects ? "|count" : "|list");
+		if (GetOperationOptions.isDistinct(SelectorOptions.findRootOptions(options))) {
+			builder.sb.append("|distinct");
+		}
+		if (query != null) {
+			if (query.getFilter() != null) {
+				builder.sb.append("|");
+				if (!builder.appendFilter(query.getFilter())) {
+					return null;
+				}
+			}
+			if (query.getPaging() != null) {
+				builder.appendPaging(query.getPaging());
+			}
+		}
+		return new QueryShape(builder.sb.toString(), Collections.unmodifiableList(builder.values));
+	}
+
+	private static class Builder {
+		private final StringBuilder sb = new StringBuilder();
+		private final List<Object> values = new ArrayList<>();
+
+		private boolean appendFilter(ObjectFilter filter) {
+			if (filter instanceof NaryLogicalFilter) {
+				sb.append(filter.getClass().getSimpleName()).append('(');
+				for (ObjectFilter condition : ((NaryLogicalFilter) filter).getConditions()) {
+					if (!appendFilter(condition)) {
+						return false;
+					}
+					sb.append(',');
+				}
+				sb.append(')');
+				return true;
+			} else if (filter instanceof NotFilter) {
+				sb.append("Not(");
+				return appendFilter(((NotFilter) filter).getFilter()) && append(")");
+			} else if (filter instanceof RefFilter) {
+				return appendRefFilter((RefFilter) filter);
+			} else if (filter instanceof PropertyValueFilter) {
+				return appendPropertyValueFilter((PropertyValueFilter<?>) filter);
+			} else if (filter instanceof InOidFilter) {
+				InOidFilter inOid = (InOidFilter) filter;
+				sb.append("InOid(").append(inOid.getOids()).append(';').append(inOid.isConsiderOwner()).append(')');
+				return inOid.getExpression() == null;
+			} else if (filter instanceof OrgFilter) {
+				OrgFilter org = (OrgFilter) filter;
+				sb.append("Org(").append(org.isRoot()).append(';').append(org.getScope()).append(';');
+				appendValue(org.getOrgRef() != null ? org.getOrgRef().getOid() : null);
+				return append(")");
+			} else if (filter instanceof TypeFilter) {
+				TypeFilter typeFilter = (TypeFilter) filter;
+				sb.append("Type(").append(typeFilter.getType()).append(';');
+				return appendChild(typeFilter.getFilter()) && append(")");
+			} else if (filter instanceof ExistsFilter) {
+				ExistsFilter exists = (ExistsFilter) filter;
+				sb.append("Exists(").append(exists.getFullPath()).append(';');
+				appendDefinition(exists.getDefinition());
+				return appendChild(exists.getFilter()) && append(")");
+			} else if (filter instanceof FullTextFilter) {
+				FullTextFilter fullText = (FullTextFilter) filter;
+				sb.append("FullText(").append(fullText.getValues()).append(')');
+				return fullText.getExpression() == null;
+			} else {
+				return false;           // including trivial filters (these are not supported by the interpreter anyway)
+			}
+		}
+
+		private boolean appendChild(ObjectFilter child) {
+			return child == null || appendFilter(child);
+		}
+
+		private boolean appendPropertyValueFilter(PropertyValueFilter<?> filter) {
+			if (filter.getExpression() != null) {
+				return false;
+			}
+			appendItemFilterStart(filter);
+			if (filter.getRightHandSidePath() != null) {
+				sb.append("rhs=").append(filter.getRightHandSidePath()).append(';');
+				appendDefinition(filter.getRightHandSideDefinition());
+			}
+			if (filter instanceof ComparativeFilter) {
+				sb.append(((ComparativeFilter) filter).isEquals()).append(';');
+			} else if (filter instanceof SubstringFilter) {
+				SubstringFilter substring = (SubstringFilter) filter;
+				sb.append(substring.isAnchorStart()).append(';').append(substring.isAnchorEnd()).append(';');
+			}
+			if (filter.getValues() != null) {
+				for (PrismValue value : filter.getValues()) {
+					if (!(value instanceof PrismPropertyValue)) {
+						return false;
+					}
+					appendValue(((PrismPropertyValue) value).getValue());
+				}
+			}
+			return append(")");
+		}
+
+		private boolean appendRefFilter(RefFilter filter) {
+			if (filter.getExpression() != null) {
+				return false;
+			}
+			appendItemFilterStart(filter);
+			if (filter.getValues() != null) {
+				for (PrismReferenceValue value : filter.getValues()) {
+					sb.append(value.getRelation()).append(';').append(value.getTargetType()).append(';');
+					appendValue(value.getOid());
+				}
+			}
+			return append(")");
+		}
+
+		private void appendItemFilterStart(ValueFilter<?, ?> filter) {
+			sb.append(filter.getClass().getSimpleName()).append('(').append(filter.getFullPath()).append(';');
+			appendDefinition(filter.getDefinition());
+			sb.append(filter.getMatchingRule()).append(';');
+		}
+
+		private void appendDefinition(ItemDefinition definition) {
+			if (definition != null) {
+				sb.append(definition.getClass().getSimpleName()).append('/').append(definition.getName())
+						.append('/').append(definition.getTypeName()).append('/').append(definition.isSingleValue());
+				if (definition instanceof PrismPropertyDefinition) {
+					sb.append('/').append(((PrismPropertyDefinition) definition).isIndexed());
+				}
+			}
+			sb.append(';');
+		}
+
+		private void appendValue(Object value) {
+			if (value != null) {
+				sb.append('?').append(value.getClass().getName()).append(';');
+				values.add(value);
+			} else {
+				sb.append("null;");
+			}
+		}
+
+		private void appendPaging(ObjectPaging paging) {
+			sb.append("|paging(").append(paging.getOffset() != null).append(';').append(paging.getMaxSize() != null).append(';');
+			if (paging instanceof ObjectPagingAfterOid) {
+				sb.append("afterOid;");
+				appendValue(((ObjectPagingAfterOid) paging).getOidGreaterThan());
+			}
+			if (paging.hasOrdering()) {
+				for (ObjectOrdering ordering : paging.getOrderingInstructions()) {
+					sb.append("order=").append(ordering.getOrderBy()).append('/').append(ordering.getDirection()).append(';');
+				}
+			}
+			if (paging.hasGrouping()) {
+				for (ObjectGrouping grouping : paging.getGroupingInstructions()) {
+					sb.append("group=").append(grouping.getGroupBy()).append(';');
+				}
+			}
+			sb.append(')');
+		}
+
+		private boolean append(String text) {
+			sb.append(text);
+			return true;
+		}
+	}
+}
@@ -0,0 +1,571 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.query2;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.sql.ObjectPagingAfterOid;
+import com.evolveum.midpoint.repo.sql.SqlPerformanceMonitor;
+import com.evolveum.midpoint.repo.sql.data.common.any.RAnyConverter;
+import com.evolveum.midpoint.repo.sql.data.common.enums.SchemaEnum;
+import com.evolveum.midpoint.repo.sql.query.RQuery;
+import com.evolveum.midpoint.repo.sql.query2.hqm.QueryParameterValue;
+import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
+import com.evolveum.midpoint.repo.sql.util.RUtil;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.type.Type;
+import org.jetbrains.annotations.NotNull;
+
+import javax.xml.namespace.QName;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers how queries of given shape (see QueryShape) were translated to HQL, so that repeated queries
+ * of the same shape can skip the interpretation. Moreover, the same HQL text means that hibernate takes its query
+ * plan from its own plan cache, and the database gets the same SQL statement.
+ *
+ * For each shape we keep the HQL text and a binding plan, i.e. the way of computing the values of HQL query parameters
+ * from the values of the midPoint query. A candidate plan is derived by comparing two interpretations of queries
+ * of the same shape: each parameter is either a constant or it is computed from one of query values using one
+ * of the conversions known to be done by the interpreter (polystring orig/norm, lower case, "like" wildcards,
+ * repo enums, ...). A parameter that changed between the interpretations has to be explained by exactly one query
+ * value; if there are more explanations, the decision is postponed to the next pair of interpretations (up to
+ * a limit). Several conversions of the same value (e.g. polystring norm and lower-cased orig of a plain ASCII
+ * value) are all kept, and the parameter is computed only if they agree. A parameter that did not change is kept as a constant, which is used only if all its explanations
+ * (if any) agree with it, and only as long as query values that did not change keep their values.
+ *
+ * The candidate is not used until it reproduces an independent interpretation of the same shape (HQL text and all
+ * parameter values). If the HQL text differs, a changed parameter value cannot be explained, the decision cannot
+ * be made, or a plan computes parameters that differ from the interpretation, the shape is not cached at all.
+ *
+ * @author agent
+ */
+public class QueryTranslationCache {
+
+	private static final Trace LOGGER = TraceManager.getTrace(QueryTranslationCache.class);
+
+	private static final int MAX_UNDECIDED = 5;
+
+	private final int maxSize;
+	private final SqlPerformanceMonitor performanceMonitor;
+
+	private final Map<String, Entry> entries;            // guarded by itself
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public QueryTranslationCache(int maxSize, SqlPerformanceMonitor performanceMonitor) {
+		this.maxSize = maxSize;
+		this.performanceMonitor = performanceMonitor;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > QueryTranslationCache.this.maxSize;
+			}
+		};
+	}
+
+	public boolean isEnabled() {
+		return maxSize > 0;
+	}
+
+	/**
+	 * Returns HQL query for given midPoint query (of given shape), or null if the translation is not known.
+	 */
+	RQuery get(@NotNull QueryShape shape, ObjectQuery query, boolean countingObjects, PrismContext prismContext,
+			Session session) {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(shape.getKey());
+		}
+		Plan plan = entry != null ? entry.getPlan() : null;
+		if (plan == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		List<Object> values = shape.getValues();
+		Map<String, QueryParameterValue> parameters = plan.computeParameters(values, prismContext);
+		if (parameters == null) {
+			LOGGER.trace("Translation of query of shape {} cannot be reused for values {}", shape.getKey(), values);
+			misses.incrementAndGet();
+			return null;
+		}
+		Query hqlQuery = session.createQuery(plan.text);
+		for (Map.Entry<String, QueryParameterValue> parameter : parameters.entrySet()) {
+			RootHibernateQuery.setParameter(hqlQuery, parameter.getKey(), parameter.getValue());
+		}
+		RootHibernateQuery querySource = plan.template.cloneWithParameters(parameters);
+		applyPaging(hqlQuery, querySource, query, countingObjects);
+		if (querySource.getResultTransformer() != null) {
+			hqlQuery.setResultTransformer(querySource.getResultTransformer());
+		}
+		hits.incrementAndGet();
+		LOGGER.trace("Using cached translation of query of shape {}:\n{}\nParameters: {}", shape.getKey(), plan.text, parameters);
+		return new RQueryImpl(hqlQuery, querySource);
+	}
+
+	// the same as in QueryInterpreter2.interpretPagingAndSorting (ordering is part of the HQL text)
+	private void applyPaging(Query hqlQuery, RootHibernateQuery querySource, ObjectQuery query, boolean countingObjects) {
+		ObjectPaging paging = query != null ? query.getPaging() : null;
+		if (countingObjects || paging == null) {
+			return;
+		}
+		if (paging.getOffset() != null && !(paging instanceof ObjectPagingAfterOid)) {
+			hqlQuery.setFirstResult(paging.getOffset());
+			querySource.setFirstResult(paging.getOffset());
+		}
+		if (paging.getMaxSize() != null) {
+			hqlQuery.setMaxResults(paging.getMaxSize());
+			querySource.setMaxResults(paging.getMaxSize());
+		}
+	}
+
+	/**
+	 * Records the translation of a query of given shape. The hibernate query must be already converted to HQL,
+	 * so that its parameters are known.
+	 */
+	void put(@NotNull QueryShape shape, @NotNull String text, @NotNull RootHibernateQuery hibernateQuery,
+			PrismContext prismContext) {
+		Sample sample = new Sample(shape.getValues(), text, new HashMap<>(hibernateQuery.getParameters()), hibernateQuery);
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(shape.getKey());
+			if (entry == null) {
+				entries.put(shape.getKey(), new Entry(sample));
+				return;
+			}
+		}
+		entry.learn(sample, shape.getKey(), prismContext);
+	}
+
+	public void recordTranslation(boolean cached, long nanos) {
+		if (performanceMonitor != null) {
+			performanceMonitor.registerQueryTranslation(cached, nanos);
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * An interpreted query.
+	 */
+	private static class Sample {
+		private final List<Object> values;
+		private final String text;
+		private final Map<String, QueryParameterValue> parameters;
+		private final RootHibernateQuery hibernateQuery;
+
+		private Sample(List<Object> values, String text, Map<String, QueryParameterValue> parameters,
+				RootHibernateQuery hibernateQuery) {
+			this.values = values;
+			this.text = text;
+			this.parameters = parameters;
+			this.hibernateQuery = hibernateQuery;
+		}
+	}
+
+	private static class Entry {
+		private Sample lastSample;
+		private Plan candidate;                 // derived but not yet confirmed by an independent interpretation
+		private Plan plan;                      // confirmed; null if not known (yet)
+		private int undecided;                  // # of sample pairs that did not allow to derive a plan
+		private boolean uncacheable;
+
+		private Entry(Sample sample) {
+			this.lastSample = sample;
+		}
+
+		private synchronized Plan getPlan() {
+			return plan;
+		}
+
+		private synchronized void learn(Sample sample, String key, PrismContext prismContext) {
+			if (uncacheable) {
+				return;
+			}
+			Plan current = candidate != null ? candidate : plan;
+			if (current != null) {
+				Map<String, QueryParameterValue> parameters = current.computeParameters(sample.values, prismContext);
+				if (parameters != null) {
+					if (!current.reproduces(sample, parameters)) {
+						markUncacheable(key, "the plan does not reproduce the interpretation of values " + sample.values);
+						return;
+					}
+					if (current == candidate) {
+						plan = candidate.withTemplate(sample.hibernateQuery);
+						candidate = null;
+						LOGGER.trace("Confirmed translation of query of shape {}: {}", key, plan);
+					}
+					lastSample = sample;
+					return;
+				}
+				// the plan is not applicable to these values (e.g. a guarded value changed), so let us derive a new one
+			}
+			Sample reference = lastSample;
+			lastSample = sample;
+			Plan derived = derive(reference, sample, key, prismContext);
+			if (derived != null) {
+				candidate = derived;
+				LOGGER.trace("Derived translation of query of shape {}: {}", key, candidate);
+			} else if (!uncacheable && ++undecided >= MAX_UNDECIDED) {
+				markUncacheable(key, "parameters could not be explained unambiguously in " + undecided + " attempts");
+			}
+		}
+
+		/**
+		 * Returns null if the plan cannot be derived (the shape is marked as uncacheable if it never can be).
+		 */
+		private Plan derive(Sample reference, Sample sample, String key, PrismContext prismContext) {
+			if (!reference.text.equals(sample.text) || !reference.parameters.keySet().equals(sample.parameters.keySet())) {
+				markUncacheable(key, "HQL text differs");
+				return null;
+			}
+			Map<String, ParameterBinding> bindings = new HashMap<>();
+			boolean hasConstants = false;
+			for (Map.Entry<String, QueryParameterValue> parameter : sample.parameters.entrySet()) {
+				String name = parameter.getKey();
+				QueryParameterValue value = parameter.getValue();
+				QueryParameterValue referenceValue = reference.parameters.get(name);
+				if (!Objects.equals(referenceValue.getType(), value.getType())) {
+					markUncacheable(key, "type of parameter " + name + " differs");
+					return null;
+				}
+				List<ValueSource> sources = findSources(reference.values, referenceValue.getValue(), sample.values,
+						value.getValue(), prismContext);
+				if (Objects.equals(referenceValue.getValue(), value.getValue())) {
+					bindings.put(name, new ParameterBinding(value, sources, value.getType()));
+					hasConstants = hasConstants || sources.isEmpty();
+				} else if (isSingleValue(sources)) {
+					bindings.put(name, new ParameterBinding(null, sources, value.getType()));
+				} else if (sources.size() > 1) {
+					LOGGER.trace("Value of parameter {} in query of shape {} can be explained in more ways: {}", name, key, sources);
+					return null;
+				} else {
+					markUncacheable(key, "value of parameter " + name + " cannot be determined: " + value);
+					return null;
+				}
+			}
+			// a constant might in fact depend on a value we don't know how to convert, so such values must not change
+			Map<Integer, Object> guards = new HashMap<>();
+			if (hasConstants) {
+				for (int i = 0; i < sample.values.size(); i++) {
+					if (Objects.equals(reference.values.get(i), sample.values.get(i))) {
+						guards.put(i, sample.values.get(i));
+					}
+				}
+			}
+			return new Plan(sample.text, bindings, guards, sample.hibernateQuery);
+		}
+
+		// whether all the sources compute the parameter from the same query value (by different conversions)
+		private boolean isSingleValue(List<ValueSource> sources) {
+			if (sources.isEmpty()) {
+				return false;
+			}
+			for (ValueSource source : sources) {
+				if (source.index != sources.get(0).index) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void markUncacheable(String key, String reason) {
+			LOGGER.debug("Translation of query of shape {} will not be cached: {}", key, reason);
+			uncacheable = true;
+			lastSample = null;
+			candidate = null;
+			plan = null;
+		}
+
+		private List<ValueSource> findSources(List<Object> referenceValues, Object referenceParameterValue,
+				List<Object> values, Object parameterValue, PrismContext prismContext) {
+			List<ValueSource> sources = new ArrayList<>();
+			for (int i = 0; i < values.size(); i++) {
+				for (ValueConversion conversion : ValueConversion.findAll(referenceValues.get(i), referenceParameterValue, prismContext)) {
+					if (Objects.equals(conversion.applyQuietly(values.get(i), prismContext), parameterValue)) {
+						sources.add(new ValueSource(i, conversion));
+					}
+				}
+			}
+			return sources;
+		}
+	}
+
+	/**
+	 * How to create HQL query from values of a midPoint query of given shape.
+	 */
+	private static class Plan {
+		private final String text;
+		private final Map<String, ParameterBinding> bindings;
+		private final Map<Integer, Object> guards;                  // values that must not change
+		private final RootHibernateQuery template;                  // structure of the query, for diagnostics
+
+		private Plan(String text, Map<String, ParameterBinding> bindings, Map<Integer, Object> guards,
+				RootHibernateQuery template) {
+			this.text = text;
+			this.bindings = bindings;
+			this.guards = guards;
+			this.template = template;
+		}
+
+		private Plan withTemplate(RootHibernateQuery template) {
+			return new Plan(text, bindings, guards, template);
+		}
+
+		// whether the interpretation has the same text and parameters as computed by this plan
+		private boolean reproduces(Sample sample, Map<String, QueryParameterValue> parameters) {
+			if (!text.equals(sample.text) || !parameters.keySet().equals(sample.parameters.keySet())) {
+				return false;
+			}
+			for (Map.Entry<String, QueryParameterValue> parameter : parameters.entrySet()) {
+				QueryParameterValue actual = sample.parameters.get(parameter.getKey());
+				if (!Objects.equals(parameter.getValue().getValue(), actual.getValue())
+						|| !Objects.equals(parameter.getValue().getType(), actual.getType())) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		// null if the plan is not applicable to these values
+		private Map<String, QueryParameterValue> computeParameters(List<Object> values, PrismContext prismContext) {
+			for (Map.Entry<Integer, Object> guard : guards.entrySet()) {
+				if (!Objects.equals(values.get(guard.getKey()), guard.getValue())) {
+					return null;
+				}
+			}
+			Map<String, QueryParameterValue> parameters = new HashMap<>();
+			for (Map.Entry<String, ParameterBinding> binding : bindings.entrySet()) {
+				QueryParameterValue value = binding.getValue().computeValue(values, prismContext);
+				if (value == null) {
+					return null;
+				}
+				parameters.put(binding.getKey(), value);
+			}
+			return parameters;
+		}
+
+		@Override
+		public String toString() {
+			return "Plan{bindings=" + bindings + ", guards=" + guards + "}";
+		}
+	}
+
+	/**
+	 * Either a constant or a value computed from the query values. All the sources must agree on the value
+	 * (and on the constant, if present).
+	 */
+	private static class ParameterBinding {
+		private final QueryParameterValue constant;
+		private final List<ValueSource> sources;
+		private final Type type;
+
+		private ParameterBinding(QueryParameterValue constant, List<ValueSource> sources, Type type) {
+			this.constant = constant;
+			this.sources = sources;
+			this.type = type;
+		}
+
+		// null if the value cannot be determined
+		private QueryParameterValue computeValue(List<Object> values, PrismContext prismContext) {
+			Object value = constant != null ? constant.getValue() : sources.get(0).computeValue(values, prismContext);
+			if (value == null) {
+				return null;
+			}
+			for (ValueSource source : sources) {
+				if (!value.equals(source.computeValue(values, prismContext))) {
+					return null;
+				}
+			}
+			return constant != null ? constant : new QueryParameterValue(value, type);
+		}
+
+		@Override
+		public String toString() {
+			return constant != null ? "constant " + constant + (sources.isEmpty() ? "" : " from " + sources) : "from " + sources;
+		}
+	}
+
+	private static class ValueSource {
+		private final int index;                        // index of query value
+		private final ValueConversion conversion;
+
+		private ValueSource(int index, ValueConversion conversion) {
+			this.index = index;
+			this.conversion = conversion;
+		}
+
+		private Object computeValue(List<Object> values, PrismContext prismContext) {
+			return conversion.applyQuietly(values.get(index), prismContext);
+		}
+
+		@Override
+		public String toString() {
+			return "#" + index + ":" + conversion;
+		}
+	}
+
+	/**
+	 * Conversions of query values done by the interpreter when creating HQL parameters.
+	 */
+	private enum Extraction {
+		IDENTITY, POLY_ORIG, POLY_NORM, QNAME, REPO_ENUM, ANY_AGGREGATED
+	}
+
+	private static final String[][] WILDCARDS = { { "", "" }, { "", "%" }, { "%", "" }, { "%", "%" } };
+
+	private static class ValueConversion {
+		private final Extraction extraction;
+		private final Class<? extends Enum> enumClass;          // for REPO_ENUM
+		private final boolean lowerCase;
+		private final String prefix;
+		private final String suffix;
+
+		private ValueConversion(Extraction extraction, Class<? extends Enum> enumClass, boolean lowerCase, String prefix,
+				String suffix) {
+			this.extraction = extraction;
+			this.enumClass = enumClass;
+			this.lowerCase = lowerCase;
+			this.prefix = prefix;
+			this.suffix = suffix;
+		}
+
+		/**
+		 * All conversions that convert given query value to given parameter value.
+		 */
+		private static List<ValueConversion> findAll(Object value, Object parameterValue, PrismContext prismContext) {
+			List<ValueConversion> rv = new ArrayList<>();
+			Class<? extends Enum> enumClass = parameterValue instanceof Enum ? ((Enum) parameterValue).getDeclaringClass() : null;
+			for (Extraction extraction : Extraction.values()) {
+				if (extraction == Extraction.REPO_ENUM && enumClass == null) {
+					continue;
+				}
+				Object extracted = new ValueConversion(extraction, enumClass, false, "", "").applyQuietly(value, prismContext);
+				if (extracted == null) {
+					continue;
+				}
+				if (extracted.equals(parameterValue)) {
+					rv.add(new ValueConversion(extraction, enumClass, false, "", ""));
+				} else if (extracted instanceof String && parameterValue instanceof String) {
+					for (boolean lowerCase : new boolean[] { false, true }) {
+						for (String[] wildcards : WILDCARDS) {
+							String converted = wildcards[0] + (lowerCase ? ((String) extracted).toLowerCase() : extracted) + wildcards[1];
+							if (converted.equals(parameterValue)) {
+								rv.add(new ValueConversion(extraction, enumClass, lowerCase, wildcards[0], wildcards[1]));
+							}
+						}
+					}
+				}
+			}
+			return rv;
+		}
+
+		// null if the conversion is not applicable
+		private Object applyQuietly(Object value, PrismContext prismContext) {
+			try {
+				Object extracted = extract(value, prismContext);
+				if (!lowerCase && prefix.isEmpty() && suffix.isEmpty()) {
+					return extracted;
+				} else if (extracted instanceof String) {
+					return prefix + (lowerCase ? ((String) extracted).toLowerCase() : extracted) + suffix;
+				} else {
+					return null;
+				}
+			} catch (RuntimeException e) {
+				LOGGER.trace("Couldn't apply {} to {}: {}", this, value, e.getMessage(), e);
+				return null;
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private Object extract(Object value, PrismContext prismContext) {
+			switch (extraction) {
+				case IDENTITY:
+					return value;
+				case POLY_ORIG:
+					if (value instanceof PolyString) {
+						return ((PolyString) value).getOrig();
+					} else if (value instanceof PolyStringType) {
+						return ((PolyStringType) value).getOrig();
+					} else {
+						return null;
+					}
+				case POLY_NORM:
+					if (value instanceof PolyString) {
+						return ((PolyString) value).getNorm();
+					} else if (value instanceof PolyStringType) {
+						return ((PolyStringType) value).getNorm();
+					} else if (value instanceof String) {
+						return prismContext.getDefaultPolyStringNormalizer().normalize((String) value);
+					} else {
+						return null;
+					}
+				case QNAME:
+					return value instanceof QName ? RUtil.qnameToString((QName) value) : null;
+				case REPO_ENUM:
+					if (!(value instanceof Enum)) {
+						return null;
+					} else if (SchemaEnum.class.isAssignableFrom(enumClass)) {
+						return RUtil.getRepoEnumValue(value, (Class<SchemaEnum>) (Class) enumClass);
+					} else {
+						for (Enum constant : enumClass.getEnumConstants()) {
+							if (constant.name().equals(((Enum) value).name())) {
+								return constant;
+							}
+						}
+						return null;
+					}
+				case ANY_AGGREGATED:
+					return RAnyConverter.getAggregatedRepoObject(value);
+				default:
+					throw new IllegalStateException("Unknown extraction: " + extraction);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return extraction + (enumClass != null ? "(" + enumClass.getSimpleName() + ")" : "")
+					+ (lowerCase ? ",lowerCase" : "") + (prefix.isEmpty() && suffix.isEmpty() ? "" : "," + prefix + "?" + suffix);
+		}
+	}
+}
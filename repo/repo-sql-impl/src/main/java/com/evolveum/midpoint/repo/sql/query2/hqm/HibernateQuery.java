@@ -105,6 +105,17 @@ public abstract class HibernateQuery {
         this.primaryEntity = primaryEntity;
     }
 
+    /**
+     * Shallow copy: the structure (entities, projections, conditions, ordering, grouping) is shared with the original.
+     */
+    protected HibernateQuery(HibernateQuery original) {
+        this.primaryEntity = original.primaryEntity;
+        this.projectionElements = original.projectionElements;
+        this.conditions = original.conditions;
+        this.orderingList = original.orderingList;
+        this.groupingList = original.groupingList;
+    }
+
     public List<ProjectionElement> getProjectionElements() {
         return projectionElements;
     }
@@ -56,6 +56,22 @@ public class RootHibernateQuery extends HibernateQuery {
         return new RootHibernateQuery(getPrimaryEntity());
     }
 
+    /**
+     * Creates a query with the same structure (so with the same HQL text) but with other parameter values.
+     * The structure is shared, so it must not be changed in either of the queries. Paging is not copied.
+     */
+    public RootHibernateQuery cloneWithParameters(Map<String, QueryParameterValue> newParameters) {
+        RootHibernateQuery clone = new RootHibernateQuery(this);
+        clone.parameters = new HashMap<>(newParameters);
+        clone.resultTransformer = resultTransformer;
+        clone.distinct = distinct;
+        return clone;
+    }
+
+    private RootHibernateQuery(RootHibernateQuery original) {
+        super(original);
+    }
+
     public String addParameter(String prefix, Object value, Type type) {
         String name = findFreeName(prefix);
         parameters.put(name, new QueryParameterValue(value, type));
@@ -98,20 +114,7 @@ public class RootHibernateQuery extends HibernateQuery {
             String name = parameter.getKey();
             QueryParameterValue parameterValue = parameter.getValue();
             LOGGER.trace("Parameter {} = {}", name, parameterValue.debugDump());
-
-            if (parameterValue.getValue() instanceof Collection) {
-                if (parameterValue.getType() != null) {
-                    query.setParameterList(name, (Collection) parameterValue.getValue(), parameterValue.getType());
-                } else {
-                    query.setParameterList(name, (Collection) parameterValue.getValue());
-                }
-            } else {
-                if (parameterValue.getType() != null) {
-                    query.setParameter(name, parameterValue.getValue(), parameterValue.getType());
-                } else {
-                    query.setParameter(name, parameterValue.getValue());
-                }
-            }
+            setParameter(query, name, parameterValue);
         }
         if (maxResults != null) {
             query.setMaxResults(maxResults);
@@ -125,6 +128,22 @@ public class RootHibernateQuery extends HibernateQuery {
         return query;
     }
 
+    public static void setParameter(Query query, String name, QueryParameterValue parameterValue) {
+        if (parameterValue.getValue() instanceof Collection) {
+            if (parameterValue.getType() != null) {
+                query.setParameterList(name, (Collection) parameterValue.getValue(), parameterValue.getType());
+            } else {
+                query.setParameterList(name, (Collection) parameterValue.getValue());
+            }
+        } else {
+            if (parameterValue.getType() != null) {
+                query.setParameter(name, parameterValue.getValue(), parameterValue.getType());
+            } else {
+                query.setParameter(name, parameterValue.getValue());
+            }
+        }
+    }
+
     @Override
     public RootHibernateQuery getRootQuery() {
         return this;
@@ -138,6 +157,10 @@ public class RootHibernateQuery extends HibernateQuery {
         this.firstResult = offset;
     }
 
+    public ResultTransformer getResultTransformer() {
+        return resultTransformer;
+    }
+
     public void setResultTransformer(ResultTransformer resultTransformer) {
         this.resultTransformer = resultTransformer;
     }
@@ -16,6 +16,10 @@
 
 package com.evolveum.midpoint.repo.sql.query2.restriction;
 
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.prism.match.DefaultMatchingRule;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.EqualFilter;
 import com.evolveum.midpoint.prism.query.PropertyValueFilter;
 import com.evolveum.midpoint.repo.sql.data.common.any.RAnyConverter;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
@@ -26,6 +30,9 @@ import com.evolveum.midpoint.repo.sql.query2.hqm.condition.Condition;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author lazyman
  */
@@ -46,6 +53,9 @@ public class AnyPropertyRestriction extends PropertyRestriction {
 
         if (filter.getRightHandSidePath() != null) {
             return createPropertyVsPropertyCondition(propertyValuePath);
+        } else if (isMultiValueEquality()) {
+            Condition c = getContext().getHibernateQuery().createIn(propertyValuePath, getAggregatedValues());
+            return addIsNotNullIfNecessary(c, propertyValuePath);
         } else {
             Object value = RAnyConverter.getAggregatedRepoObject(getValue(filter));
             Condition c = createPropertyVsConstantCondition(propertyValuePath, value, filter);
@@ -53,6 +63,24 @@ public class AnyPropertyRestriction extends PropertyRestriction {
         }
     }
 
+    /**
+     * Equality with more values means "equal to any of them". It is translated to IN (...), e.g. when looking up
+     * a number of shadows by their identifiers in one query. Only exact matching is supported.
+     */
+    private boolean isMultiValueEquality() {
+        return filter instanceof EqualFilter && filter.getValues() != null && filter.getValues().size() > 1
+                && (filter.getMatchingRule() == null || DefaultMatchingRule.NAME.equals(filter.getMatchingRule()));
+    }
 
-
+    private List<Object> getAggregatedValues() throws QueryException {
+        List<Object> values = new ArrayList<>();
+        for (Object value : filter.getValues()) {
+            Object realValue = value instanceof PrismPropertyValue ? ((PrismPropertyValue) value).getValue() : null;
+            if (realValue == null || realValue instanceof PolyString) {
+                throw new QueryException("Unsupported value " + value + " in multi-valued filter " + filter);
+            }
+            values.add(RAnyConverter.getAggregatedRepoObject(realValue));
+        }
+        return values;
+    }
 }
@@ -17,14 +17,20 @@
 package com.evolveum.midpoint.repo.sql.query2.restriction;
 
 import com.evolveum.midpoint.prism.query.FullTextFilter;
+import com.evolveum.midpoint.repo.sql.data.common.RObject;
 import com.evolveum.midpoint.repo.sql.data.common.RObjectTextInfo;
+import com.evolveum.midpoint.repo.sql.helpers.FullTextIndexHelper;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
 import com.evolveum.midpoint.repo.sql.query2.InterpretationContext;
 import com.evolveum.midpoint.repo.sql.query2.definition.JpaEntityDefinition;
+import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
 import com.evolveum.midpoint.repo.sql.query2.hqm.condition.Condition;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.criterion.MatchMode;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -37,6 +43,11 @@ import static java.util.stream.Collectors.toList;
  */
 public class FullTextRestriction extends Restriction<FullTextFilter> {
 
+	private static final Trace LOGGER = TraceManager.getTrace(FullTextRestriction.class);
+
+	// some databases (Oracle) do not allow more than 1000 values in IN clause
+	private static final int MAX_OIDS_IN_CONDITION = 1000;
+
     public FullTextRestriction(InterpretationContext context, FullTextFilter filter,
             JpaEntityDefinition baseEntityDefinition, Restriction parent) {
         super(context, filter, baseEntityDefinition, parent);
@@ -51,6 +62,13 @@ public class FullTextRestriction extends Restriction<FullTextFilter> {
 	    String text = filter.getValues().iterator().next();
 	    String normalized = getContext().getPrismContext().getDefaultPolyStringNormalizer().normalize(text);
 	    String[] words = StringUtils.split(normalized);
+	    FullTextIndexHelper fullTextIndex = getContext().getInterpreter().getFullTextIndex();
+	    if (fullTextIndex != null && fullTextIndex.isActive()) {
+		    Condition indexCondition = createIndexQuery(fullTextIndex, text, words);
+		    if (indexCondition != null) {
+			    return indexCondition;
+		    }
+	    }
 	    List<Condition> conditions = new ArrayList<>(words.length);
 	    for (String word : words) {
 		    conditions.add(createWordQuery(word));
@@ -64,6 +82,48 @@ public class FullTextRestriction extends Restriction<FullTextFilter> {
 	    }
     }
 
+	/**
+	 * Returns the condition on OIDs found in the embedded index, or null if the words stored in the repository
+	 * have to be searched instead (too many objects found).
+	 *
+	 * The OIDs found are also remembered in the context, so that the results can be ordered by their relevance
+	 * (if the query does not prescribe any ordering).
+	 */
+	private Condition createIndexQuery(FullTextIndexHelper fullTextIndex, String text, String[] words) throws QueryException {
+		if (!RObject.class.isAssignableFrom(getBaseHqlEntity().getJpaDefinition().getJpaClass())) {
+			throw new QueryException("Full text search using embedded index cannot be applied to the entity: " + getBaseHqlEntity());
+		}
+		RootHibernateQuery hibernateQuery = getContext().getHibernateQuery();
+		String oidPath = getBaseHqlEntity().getHqlPath() + ".oid";
+		if (words.length == 0) {
+			return hibernateQuery.createIsNotNull(oidPath);		// match all records, as in the repository variant
+		}
+		int maxHits = getContext().getInterpreter().getRepoConfiguration().getFullTextIndexMaxHits();
+		List<String> oids;
+		try {
+			oids = fullTextIndex.search(getContext().getType(), Arrays.asList(words), maxHits);
+		} catch (IOException e) {
+			throw new QueryException("Couldn't search the full text index: " + e.getMessage(), e);
+		}
+		if (oids == null) {
+			LOGGER.debug("Full text search for '{}' matches more than {} objects in the index, searching the repository instead",
+					text, maxHits);
+			return null;
+		} else if (oids.isEmpty()) {
+			return hibernateQuery.createIsNull(oidPath);		// matches nothing
+		}
+		if (getBaseHqlEntity().getHqlPath().equals(hibernateQuery.getPrimaryEntityAlias())
+				&& getContext().getFullTextRanking() == null) {
+			getContext().setFullTextRanking(oids);
+		}
+		List<Condition> conditions = new ArrayList<>();
+		for (int i = 0; i < oids.size(); i += MAX_OIDS_IN_CONDITION) {
+			List<String> chunk = new ArrayList<>(oids.subList(i, Math.min(i + MAX_OIDS_IN_CONDITION, oids.size())));
+			conditions.add(hibernateQuery.createIn(oidPath, chunk));
+		}
+		return conditions.size() == 1 ? conditions.get(0) : hibernateQuery.createOr(conditions.toArray(new Condition[0]));
+	}
+
 	private Condition createWordQuery(String word) throws QueryException {
 		String textInfoItemsAlias = getItemPathResolver().addTextInfoJoin(getBaseHqlEntity().getHqlPath());
 		String textPath = textInfoItemsAlias + "." + RObjectTextInfo.F_TEXT;
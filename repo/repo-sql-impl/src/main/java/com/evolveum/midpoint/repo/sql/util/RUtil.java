@@ -18,7 +18,10 @@ package com.evolveum.midpoint.repo.sql.util;
 
 import com.evolveum.midpoint.prism.ItemDefinition;
 import com.evolveum.midpoint.prism.Objectable;
+import com.evolveum.midpoint.prism.ParsingContext;
 import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.lex.binary.BinaryLexicalProcessor;
 import com.evolveum.midpoint.prism.query.LogicalFilter;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
@@ -63,7 +66,9 @@ import javax.xml.namespace.QName;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -415,50 +420,83 @@ public final class RUtil {
     }
 
     public static byte[] getByteArrayFromXml(String xml, boolean compress) {
-        byte[] array;
+        return getStoredByteArray(xml.getBytes(StandardCharsets.UTF_8), compress);
+    }
+
+    public static String getXmlFromByteArray(byte[] array, boolean compressed) {
+        return new String(getDataFromByteArray(array, compressed), StandardCharsets.UTF_8);
+    }
 
+    /**
+     * Returns data (serialized XML or binary object) as they should be stored in the database.
+     */
+    public static byte[] getStoredByteArray(byte[] data, boolean compress) {
+        if (!compress) {
+            return data;
+        }
         GZIPOutputStream gzip = null;
         try {
-            if (compress) {
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                gzip = new GZIPOutputStream(out);
-                gzip.write(xml.getBytes("utf-8"));
-                gzip.close();
-                out.close();
-
-                array = out.toByteArray();
-            } else {
-                array = xml.getBytes("utf-8");
-            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            gzip = new GZIPOutputStream(out);
+            gzip.write(data);
+            gzip.close();
+            out.close();
+            return out.toByteArray();
         } catch (Exception ex) {
-            throw new SystemException("Couldn't save full xml object, reason: " + ex.getMessage(), ex);
+            throw new SystemException("Couldn't save full object, reason: " + ex.getMessage(), ex);
         } finally {
             IOUtils.closeQuietly(gzip);
         }
-
-        return array;
     }
 
-    public static String getXmlFromByteArray(byte[] array, boolean compressed) {
-        String xml;
-
+    /**
+     * Returns data (serialized XML or binary object) stored in the database, uncompressed if needed.
+     */
+    public static byte[] getDataFromByteArray(byte[] array, boolean compressed) {
+        if (!compressed) {
+            return array;
+        }
         GZIPInputStream gzip = null;
         try {
-            if (compressed) {
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                gzip = new GZIPInputStream(new ByteArrayInputStream(array));
-                IOUtils.copy(gzip, out);
-                xml = new String(out.toByteArray(), "utf-8");
-            } else {
-                xml = new String(array, "utf-8");
-            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            gzip = new GZIPInputStream(new ByteArrayInputStream(array));
+            IOUtils.copy(gzip, out);
+            return out.toByteArray();
         } catch (Exception ex) {
             throw new SystemException("Couldn't read data from full object column, reason: " + ex.getMessage(), ex);
         } finally {
             IOUtils.closeQuietly(gzip);
         }
+    }
+
+    /**
+     * Parses the full object, stored either in XML (legacy) or binary format.
+     *
+     * @param data Uncompressed content of fullObject column (see {@link #getDataFromByteArray(byte[], boolean)}).
+     */
+    public static <T extends Objectable> PrismObject<T> parseFullObject(byte[] data, PrismContext prismContext,
+            ParsingContext parsingContext) throws SchemaException {
+        if (BinaryLexicalProcessor.isBinaryData(data)) {
+            try {
+                return prismContext.parserFor(new ByteArrayInputStream(data)).language(PrismContext.LANG_BINARY)
+                        .context(parsingContext).parse();
+            } catch (IOException e) {
+                throw new SystemException("Couldn't parse full object from memory: " + e.getMessage(), e);
+            }
+        } else {
+            return prismContext.parserFor(new String(data, StandardCharsets.UTF_8)).context(parsingContext).parse();
+        }
+    }
 
-        return xml;
+    /**
+     * Returns human-readable form of the stored data (for diagnostic purposes).
+     */
+    public static String fullObjectDataToString(byte[] data) {
+        if (BinaryLexicalProcessor.isBinaryData(data)) {
+            return "(binary data, " + data.length + " bytes)";
+        } else {
+            return new String(data, StandardCharsets.UTF_8);
+        }
     }
 
     public static OrgFilter findOrgFilter(ObjectQuery query) {
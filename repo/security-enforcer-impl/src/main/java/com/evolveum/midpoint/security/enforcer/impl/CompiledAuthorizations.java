@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.security.enforcer.impl;
+
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.AuthorizationConstants;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AuthorizationPhaseType;
+import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Authorizations of a principal, pre-processed for fast evaluation:
+ *
+ * - indexed by action URL (and phase), so that only authorizations that can be applicable are evaluated;
+ * - with item paths parsed in advance.
+ *
+ * The order of authorizations in the original collection is retained in all the lists, as it influences
+ * the evaluation (e.g. which authorizations are passed to the applicable authorization consumer before
+ * a deny is found).
+ *
+ * Immutable; the original collection is expected not to change. (If it does, it is detected
+ * by {@link #isCompiledFrom(Collection)} and the authorizations are compiled again.)
+ *
+ * @author agent
+ */
+class CompiledAuthorizations {
+
+	@NotNull private final List<Authorization> authorizations;
+	@NotNull private final Map<String, ActionAuthorizations> byAction = new HashMap<>();
+	@NotNull private final ActionAuthorizations forOtherActions;
+	@NotNull private final Map<Authorization, List<ItemPath>> items = new IdentityHashMap<>();
+
+	/**
+	 * Authorizations applicable to a given action: for any phase, and for request and execution phase.
+	 */
+	private static class ActionAuthorizations {
+		private final List<Authorization> anyPhase;
+		private final Map<AuthorizationPhaseType, List<Authorization>> byPhase = new EnumMap<>(AuthorizationPhaseType.class);
+
+		private ActionAuthorizations(List<Authorization> authorizations, String action) {
+			anyPhase = select(authorizations, action, null);
+			for (AuthorizationPhaseType phase : AuthorizationPhaseType.values()) {
+				byPhase.put(phase, select(anyPhase, action, phase));
+			}
+		}
+	}
+
+	CompiledAuthorizations(@NotNull Collection<Authorization> authorizations) {
+		this.authorizations = new ArrayList<>(authorizations);
+		forOtherActions = new ActionAuthorizations(this.authorizations, null);
+		for (Authorization autz : this.authorizations) {
+			for (String action : autz.getAction()) {
+				if (!byAction.containsKey(action)) {
+					byAction.put(action, new ActionAuthorizations(this.authorizations, action));
+				}
+			}
+			items.put(autz, parseItems(autz));
+		}
+	}
+
+	/**
+	 * Selects authorizations applicable to given action and phase (null phase means any phase), keeping their order.
+	 * Must be consistent with the action and phase checks in SecurityEnforcerImpl.
+	 */
+	@NotNull
+	static List<Authorization> select(Collection<Authorization> authorizations, String action, AuthorizationPhaseType phase) {
+		List<Authorization> rv = new ArrayList<>();
+		for (Authorization autz : authorizations) {
+			if ((phase == null || autz.getPhase() == null || autz.getPhase() == phase)
+					&& (autz.getAction().contains(action) || autz.getAction().contains(AuthorizationConstants.AUTZ_ALL_URL))) {
+				rv.add(autz);
+			}
+		}
+		return Collections.unmodifiableList(rv);
+	}
+
+	boolean isCompiledFrom(Collection<Authorization> authorizations) {
+		if (authorizations.size() != this.authorizations.size()) {
+			return false;
+		}
+		Iterator<Authorization> iterator = this.authorizations.iterator();
+		for (Authorization autz : authorizations) {
+			if (autz != iterator.next()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@NotNull
+	List<Authorization> getAuthorizations() {
+		return Collections.unmodifiableList(authorizations);
+	}
+
+	/**
+	 * Authorizations that are applicable to given operation and phase (null means any phase) as far as action
+	 * and phase are concerned, in the original order.
+	 */
+	@NotNull
+	List<Authorization> getAuthorizations(String operationUrl, AuthorizationPhaseType phase) {
+		ActionAuthorizations actionAuthorizations = operationUrl != null ? byAction.get(operationUrl) : null;
+		if (actionAuthorizations == null) {
+			actionAuthorizations = forOtherActions;
+		}
+		return phase != null ? actionAuthorizations.byPhase.get(phase) : actionAuthorizations.anyPhase;
+	}
+
+	@NotNull
+	List<ItemPath> getItems(Authorization autz) {
+		List<ItemPath> autzItems = items.get(autz);
+		return autzItems != null ? autzItems : parseItems(autz);
+	}
+
+	@NotNull
+	private static List<ItemPath> parseItems(Authorization autz) {
+		List<ItemPath> autzItems = new ArrayList<>(autz.getItem().size());
+		for (ItemPathType itemPathType : autz.getItem()) {
+			autzItems.add(itemPathType.getItemPath());
+		}
+		return Collections.unmodifiableList(autzItems);
+	}
+}
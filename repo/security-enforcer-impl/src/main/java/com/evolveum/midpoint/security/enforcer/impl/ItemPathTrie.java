@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.security.enforcer.impl;
+
+import com.evolveum.midpoint.prism.path.IdItemPathSegment;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.path.ItemPathSegment;
+import com.evolveum.midpoint.prism.path.NameItemPathSegment;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of item paths organized as a trie keyed by local names of the path segments.
+ * Answers the question "is any of the paths a subpath of (or equivalent to) given path"
+ * without comparing the given path with all of them.
+ *
+ * The trie only selects candidates; they are checked using ItemPath.isSubPathOrEquivalent, so the answer
+ * is always the same as for a linear scan. Paths that cannot be reliably keyed (e.g. those containing
+ * variables or reference segments) are candidates for any lookup; paths being looked up that cannot
+ * be keyed are compared with all paths.
+ *
+ * @author agent
+ */
+class ItemPathTrie {
+
+	private final List<ItemPath> allPaths;
+	private final Node root = new Node();
+
+	private static class Node {
+		private final Map<String, Node> children = new HashMap<>();
+		private final List<ItemPath> paths = new ArrayList<>();
+	}
+
+	ItemPathTrie(Collection<ItemPath> paths) {
+		this.allPaths = new ArrayList<>(paths);
+		for (ItemPath path : paths) {
+			Node node = root;
+			List<String> key = getKey(path);
+			if (key != null) {
+				for (String name : key) {
+					node = node.children.computeIfAbsent(name, k -> new Node());
+				}
+			}
+			node.paths.add(path);
+		}
+	}
+
+	boolean isEmpty() {
+		return allPaths.isEmpty();
+	}
+
+	/**
+	 * Returns true if any of the paths is a subpath of (or equivalent to) the given one.
+	 */
+	boolean containsSubPathOrEquivalentOf(ItemPath itemPath) {
+		List<String> key = getKey(itemPath);
+		if (key == null) {
+			return containsSubPathOrEquivalentOf(itemPath, allPaths);
+		}
+		Node node = root;
+		if (containsSubPathOrEquivalentOf(itemPath, node.paths)) {
+			return true;
+		}
+		for (String name : key) {
+			node = node.children.get(name);
+			if (node == null) {
+				return false;
+			}
+			if (containsSubPathOrEquivalentOf(itemPath, node.paths)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean containsSubPathOrEquivalentOf(ItemPath itemPath, List<ItemPath> candidates) {
+		for (ItemPath candidate : candidates) {
+			if (candidate.isSubPathOrEquivalent(itemPath)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Local parts of name segments, or null if the path has a form for which their comparison is not
+	 * equivalent to the comparison of the normalized paths. We accept only paths starting with a plain
+	 * name segment and consisting of name and (non-consecutive) ID segments.
+	 */
+	private static List<String> getKey(ItemPath path) {
+		List<ItemPathSegment> segments = path.getSegments();
+		if (segments.isEmpty()) {
+			return null;
+		}
+		List<String> key = new ArrayList<>(segments.size());
+		ItemPathSegment previous = null;
+		for (ItemPathSegment segment : segments) {
+			if (segment.getClass() == NameItemPathSegment.class) {
+				NameItemPathSegment nameSegment = (NameItemPathSegment) segment;
+				if (nameSegment.isVariable() || nameSegment.getName() == null) {
+					return null;
+				}
+				key.add(nameSegment.getName().getLocalPart());
+			} else if (segment.getClass() == IdItemPathSegment.class) {
+				if (previous == null || previous instanceof IdItemPathSegment) {
+					return null;
+				}
+			} else {
+				return null;
+			}
+			previous = segment;
+		}
+		return key;
+	}
+}
@@ -17,6 +17,9 @@ package com.evolveum.midpoint.security.enforcer.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
@@ -127,6 +130,11 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 
 	private static final boolean FILTER_TRACE_ENABLED = false;
 
+	private static final int MAX_COMPILED_AUTHORIZATIONS = 1000;
+
+	private static final ItemPathTrie EXECUTION_ITEMS_ALLOWED_BY_DEFAULT =
+			new ItemPathTrie(AuthorizationConstants.EXECUTION_ITEMS_ALLOWED_BY_DEFAULT);
+
 	@Autowired
 	@Qualifier("cacheRepositoryService")
 	private RepositoryService repositoryService;
@@ -139,6 +147,19 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 	@Qualifier("securityContextManager")
 	private SecurityContextManager securityContextManager;
 
+	/**
+	 * User OID -> authorizations compiled for the user's principal. Principals are often re-created for the same
+	 * user (e.g. the principal cache hands out a fresh copy on each authentication), but the copies share
+	 * the Authorization objects; so the entry is used as long as the principal has the very same authorizations.
+	 */
+	private final Map<String, CompiledAuthorizations> compiledAuthorizationsMap = Collections.synchronizedMap(
+			new LinkedHashMap<String, CompiledAuthorizations>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CompiledAuthorizations> eldest) {
+					return size() > MAX_COMPILED_AUTHORIZATIONS;
+				}
+			});
+
 	@Override
 	public <O extends ObjectType, T extends ObjectType> boolean isAuthorized(String operationUrl, AuthorizationPhaseType phase,
 			AuthorizationParameters<O,T> params, OwnerResolver ownerResolver, Task task, OperationResult result)
@@ -151,18 +172,20 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 			Consumer<Authorization> applicableAutzConsumer, Task task, OperationResult result)
 			throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
 		if (phase == null) {
-			if (!isAuthorizedPhase(midPointPrincipal, operationUrl, AuthorizationPhaseType.REQUEST, params, ownerResolver, applicableAutzConsumer, task, result)) {
+			// Applicability of phase-independent authorizations is evaluated only once for both phases.
+			Map<Authorization, Boolean> applicabilityCache = new IdentityHashMap<>();
+			if (!isAuthorizedPhase(midPointPrincipal, operationUrl, AuthorizationPhaseType.REQUEST, params, ownerResolver, applicableAutzConsumer, applicabilityCache, task, result)) {
 				return false;
 			}
-			return isAuthorizedPhase(midPointPrincipal, operationUrl, AuthorizationPhaseType.EXECUTION, params, ownerResolver, applicableAutzConsumer, task, result);
+			return isAuthorizedPhase(midPointPrincipal, operationUrl, AuthorizationPhaseType.EXECUTION, params, ownerResolver, applicableAutzConsumer, applicabilityCache, task, result);
 		} else {
-			return isAuthorizedPhase(midPointPrincipal, operationUrl, phase, params, ownerResolver, applicableAutzConsumer, task, result);
+			return isAuthorizedPhase(midPointPrincipal, operationUrl, phase, params, ownerResolver, applicableAutzConsumer, null, task, result);
 		}
 	}
 
 	private <O extends ObjectType, T extends ObjectType> boolean isAuthorizedPhase(MidPointPrincipal midPointPrincipal, String operationUrl, AuthorizationPhaseType phase,
 			AuthorizationParameters<O,T> params, OwnerResolver ownerResolver, 
-			Consumer<Authorization> applicableAutzConsumer, Task task, OperationResult result)
+			Consumer<Authorization> applicableAutzConsumer, Map<Authorization, Boolean> applicabilityCache, Task task, OperationResult result)
 			throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
 
 		if (AuthorizationConstants.AUTZ_NO_ACCESS_URL.equals(operationUrl)){
@@ -176,97 +199,62 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		LOGGER.trace("AUTZ: evaluating authorization principal={}, op={}, phase={}, {}",
 				midPointPrincipal, operationUrl, phase, params.shortDumpLazily());
 		final Collection<ItemPath> allowedItems = new ArrayList<>();
-		Collection<Authorization> authorities = getAuthorities(midPointPrincipal);
-		if (authorities != null) {
-			for (GrantedAuthority authority: authorities) {
-				if (authority instanceof Authorization) {
-					Authorization autz = (Authorization)authority;
-					String autzHumanReadableDesc = autz.getHumanReadableDesc();
-					LOGGER.trace("Evaluating {}", autzHumanReadableDesc);
-
-					// First check if the authorization is applicable.
-
-					// action
-					if (!autz.getAction().contains(operationUrl) && !autz.getAction().contains(AuthorizationConstants.AUTZ_ALL_URL)) {
-						LOGGER.trace("  {} not applicable for operation {}", autzHumanReadableDesc, operationUrl);
-						continue;
-					}
-
-					// phase
-					if (autz.getPhase() == null) {
-						LOGGER.trace("  {} is applicable for all phases (continuing evaluation)", autzHumanReadableDesc);
-					} else {
-						if (autz.getPhase() != phase) {
-							LOGGER.trace("  {} is not applicable for phases {} (breaking evaluation)", autzHumanReadableDesc, phase);
-							continue;
-						} else {
-							LOGGER.trace("  {} is applicable for phases {} (continuing evaluation)", autzHumanReadableDesc, phase);
-						}
-					}
-					
-					// relation
-					if (!isApplicableRelation(autz, params.getRelation())) {
-						LOGGER.trace("  {} not applicable for relation {}", autzHumanReadableDesc, params.getRelation());
-						continue;
-					}
-
-					// object
-					if (isApplicable(autz.getObject(), params.getObject(), midPointPrincipal, ownerResolver, "object", autzHumanReadableDesc, task, result)) {
-						LOGGER.trace("  {} applicable for object {} (continuing evaluation)", autzHumanReadableDesc, params.getObject());
-					} else {
-						LOGGER.trace("  {} not applicable for object {}, none of the object specifications match (breaking evaluation)",
-								autzHumanReadableDesc, params.getObject());
-						continue;
-					}
+		CompiledAuthorizations compiledAuthorizations = getCompiledAuthorizations(midPointPrincipal);
+		// Only authorizations applicable for this operation and phase are returned here
+		List<Authorization> authorizations = compiledAuthorizations.getAuthorizations(operationUrl, phase);
+		LOGGER.trace("  {} authorization(s) applicable for operation {} and phase {}", authorizations.size(), operationUrl, phase);
+		for (Authorization autz: authorizations) {
+			String autzHumanReadableDesc = autz.getHumanReadableDesc();
+			LOGGER.trace("Evaluating {}", autzHumanReadableDesc);
 
-					// target
-					if (isApplicable(autz.getTarget(), params.getTarget(), midPointPrincipal, ownerResolver, "target", autzHumanReadableDesc, task, result)) {
-						LOGGER.trace("  {} applicable for target {} (continuing evaluation)", autzHumanReadableDesc, params.getObject());
-					} else {
-						LOGGER.trace("  {} not applicable for target {}, none of the target specifications match (breaking evaluation)",
-								autzHumanReadableDesc, params.getObject());
-						continue;
-					}
-					
-					if (applicableAutzConsumer != null) {
-						applicableAutzConsumer.accept(autz);
-					}
+			// First check if the authorization is applicable.
+			Boolean applicable = applicabilityCache != null ? applicabilityCache.get(autz) : null;
+			if (applicable == null) {
+				applicable = isApplicable(autz, params, midPointPrincipal, ownerResolver, autzHumanReadableDesc, task, result);
+				if (applicabilityCache != null && autz.getPhase() == null) {
+					applicabilityCache.put(autz, applicable);
+				}
+			} else {
+				LOGGER.trace("  {} applicability already evaluated: {}", autzHumanReadableDesc, applicable);
+			}
+			if (!applicable) {
+				continue;
+			}
 
-					// authority is applicable to this situation. now we can process the decision.
-					AuthorizationDecisionType decision = autz.getDecision();
-					if (decision == null || decision == AuthorizationDecisionType.ALLOW) {
-						// if there is more than one role which specify
-						// different authz (e.g one role specify allow for whole
-						// object, the other role specify allow only for some
-						// attributes. this ended with allow for whole object (MID-2018)
-						Collection<ItemPath> allowed = getItems(autz);
-						if (allow && allowedItems.isEmpty()){
-							LOGGER.trace("  {}: ALLOW operation {} (but continue evaluation)", autzHumanReadableDesc, operationUrl);
-						} else if (allow && allowed.isEmpty()){
-							allowedItems.clear();
-						} else {
-							allowedItems.addAll(allowed);
-						}
-						LOGGER.trace("  {}: ALLOW operation {} (but continue evaluation)", autzHumanReadableDesc, operationUrl);
-						allow = true;
-						// Do NOT break here. Other authorization statements may still deny the operation
-					} else {
-						// item
-						if (isApplicableItem(autz, params.getObject(), params.getDelta())) {
-							LOGGER.trace("  {}: Deny authorization applicable for items (continuing evaluation)", autzHumanReadableDesc);
-						} else {
-							LOGGER.trace("  {} not applicable for items (breaking evaluation)", autzHumanReadableDesc);
-							continue;
-						}
-						LOGGER.trace("  {}: DENY operation {}", autzHumanReadableDesc, operationUrl);
-						allow = false;
-						// Break right here. Deny cannot be overridden by allow. This decision cannot be changed.
-						break;
-					}
+			if (applicableAutzConsumer != null) {
+				applicableAutzConsumer.accept(autz);
+			}
 
+			// authority is applicable to this situation. now we can process the decision.
+			AuthorizationDecisionType decision = autz.getDecision();
+			if (decision == null || decision == AuthorizationDecisionType.ALLOW) {
+				// if there is more than one role which specify
+				// different authz (e.g one role specify allow for whole
+				// object, the other role specify allow only for some
+				// attributes. this ended with allow for whole object (MID-2018)
+				Collection<ItemPath> allowed = compiledAuthorizations.getItems(autz);
+				if (allow && allowedItems.isEmpty()){
+					LOGGER.trace("  {}: ALLOW operation {} (but continue evaluation)", autzHumanReadableDesc, operationUrl);
+				} else if (allow && allowed.isEmpty()){
+					allowedItems.clear();
+				} else {
+					allowedItems.addAll(allowed);
+				}
+				LOGGER.trace("  {}: ALLOW operation {} (but continue evaluation)", autzHumanReadableDesc, operationUrl);
+				allow = true;
+				// Do NOT break here. Other authorization statements may still deny the operation
+			} else {
+				// item
+				if (isApplicableItem(compiledAuthorizations.getItems(autz), params.getObject(), params.getDelta())) {
+					LOGGER.trace("  {}: Deny authorization applicable for items (continuing evaluation)", autzHumanReadableDesc);
 				} else {
-					LOGGER.warn("Unknown authority type {} in user {}", authority.getClass(), getUsername(midPointPrincipal));
+					LOGGER.trace("  {} not applicable for items (breaking evaluation)", autzHumanReadableDesc);
+					continue;
 				}
+				LOGGER.trace("  {}: DENY operation {}", autzHumanReadableDesc, operationUrl);
+				allow = false;
+				// Break right here. Deny cannot be overridden by allow. This decision cannot be changed.
+				break;
 			}
 		}
 
@@ -277,11 +265,11 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 				LOGGER.trace("  Empty list of allowed items, operation allowed");
 			} else {
 				// all items in the object and delta must be allowed
-
+				ItemPathTrie allowedItemsTrie = new ItemPathTrie(allowedItems);
 				if (params.hasDelta()) {
-					allow = processAuthorizationDelta(params.getDelta(), allowedItems, phase);
+					allow = processAuthorizationDelta(params.getDelta(), allowedItemsTrie, phase);
 				} else if (params.hasObject()) {
-					allow = processAuthorizationObject(params.getObject(), allowedItems, phase);
+					allow = processAuthorizationObject(params.getObject(), allowedItemsTrie, phase);
 				}
 			}
 		}
@@ -292,11 +280,40 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		return allow;
 	}
 
-	private <O extends ObjectType> boolean processAuthorizationObject(PrismContainer<O> object, final Collection<ItemPath> allowedItems, AuthorizationPhaseType phase) {
+	private <O extends ObjectType, T extends ObjectType> boolean isApplicable(Authorization autz, AuthorizationParameters<O,T> params,
+			MidPointPrincipal midPointPrincipal, OwnerResolver ownerResolver, String autzHumanReadableDesc, Task task, OperationResult result)
+			throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
+		// relation
+		if (!isApplicableRelation(autz, params.getRelation())) {
+			LOGGER.trace("  {} not applicable for relation {}", autzHumanReadableDesc, params.getRelation());
+			return false;
+		}
+
+		// object
+		if (isApplicable(autz.getObject(), params.getObject(), midPointPrincipal, ownerResolver, "object", autzHumanReadableDesc, task, result)) {
+			LOGGER.trace("  {} applicable for object {} (continuing evaluation)", autzHumanReadableDesc, params.getObject());
+		} else {
+			LOGGER.trace("  {} not applicable for object {}, none of the object specifications match (breaking evaluation)",
+					autzHumanReadableDesc, params.getObject());
+			return false;
+		}
+
+		// target
+		if (isApplicable(autz.getTarget(), params.getTarget(), midPointPrincipal, ownerResolver, "target", autzHumanReadableDesc, task, result)) {
+			LOGGER.trace("  {} applicable for target {} (continuing evaluation)", autzHumanReadableDesc, params.getObject());
+		} else {
+			LOGGER.trace("  {} not applicable for target {}, none of the target specifications match (breaking evaluation)",
+					autzHumanReadableDesc, params.getObject());
+			return false;
+		}
+		return true;
+	}
+
+	private <O extends ObjectType> boolean processAuthorizationObject(PrismContainer<O> object, final ItemPathTrie allowedItems, AuthorizationPhaseType phase) {
 		return isContainerAllowed(object.getValue(), allowedItems, phase);
 	}
 
-	private <C extends Containerable> boolean processAuthorizationContainerDelta(ContainerDelta<C> cdelta, final Collection<ItemPath> allowedItems, AuthorizationPhaseType phase) {
+	private <C extends Containerable> boolean processAuthorizationContainerDelta(ContainerDelta<C> cdelta, final ItemPathTrie allowedItems, AuthorizationPhaseType phase) {
 		final MutableBoolean itemDecision = new MutableBoolean(true);
 		cdelta.foreach(cval -> {
 			if (!isContainerAllowed(cval, allowedItems, phase)) {
@@ -306,7 +323,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		return itemDecision.booleanValue();
 	}
 
-	private boolean isContainerAllowed(PrismContainerValue<?> cval, Collection<ItemPath> allowedItems, AuthorizationPhaseType phase) {
+	private boolean isContainerAllowed(PrismContainerValue<?> cval, ItemPathTrie allowedItems, AuthorizationPhaseType phase) {
 		if (cval.isEmpty()) {
 			// TODO: problem with empty containers such as
 			// orderConstraint in assignment. Skip all
@@ -337,7 +354,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		return decision;
 	}
 
-	private <O extends ObjectType> boolean processAuthorizationDelta(ObjectDelta<O> delta, final Collection<ItemPath> allowedItems, AuthorizationPhaseType phase) {
+	private <O extends ObjectType> boolean processAuthorizationDelta(ObjectDelta<O> delta, final ItemPathTrie allowedItems, AuthorizationPhaseType phase) {
 		if (delta.isAdd()) {
 			return processAuthorizationObject(delta.getObjectToAdd(), allowedItems, phase);
 		} else {
@@ -360,26 +377,15 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		}
 	}
 	
-	private boolean isAllowedItem(ItemPath itemPath, Collection<ItemPath> allowedItems, AuthorizationPhaseType phase) {
-		return isInList(itemPath, allowedItems) || allowedForExecutionByDefault(itemPath, phase);
+	private boolean isAllowedItem(ItemPath itemPath, ItemPathTrie allowedItems, AuthorizationPhaseType phase) {
+		return allowedItems.containsSubPathOrEquivalentOf(itemPath) || allowedForExecutionByDefault(itemPath, phase);
 	}
 	
 	private boolean allowedForExecutionByDefault(ItemPath itemPath, AuthorizationPhaseType phase) {
 		if (!AuthorizationPhaseType.EXECUTION.equals(phase)) {
 			return false;
 		}
-		return isInList(itemPath, AuthorizationConstants.EXECUTION_ITEMS_ALLOWED_BY_DEFAULT);
-	}
-
-	private boolean isInList(ItemPath itemPath, Collection<ItemPath> allowedItems) {
-		boolean itemAllowed = false;
-		for (ItemPath allowedPath: allowedItems) {
-			if (allowedPath.isSubPathOrEquivalent(itemPath)) {
-				itemAllowed = true;
-				break;
-			}
-		}
-		return itemAllowed;
+		return EXECUTION_ITEMS_ALLOWED_BY_DEFAULT.containsSubPathOrEquivalentOf(itemPath);
 	}
 
 	@Override
@@ -685,16 +691,14 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		return false;
 	}
 
-	private <O extends ObjectType> boolean isApplicableItem(Authorization autz,
+	private <O extends ObjectType> boolean isApplicableItem(List<ItemPath> itemPaths,
 			PrismObject<O> object, ObjectDelta<O> delta) throws SchemaException {
-		List<ItemPathType> itemPaths = autz.getItem();
-		if (itemPaths == null || itemPaths.isEmpty()) {
+		if (itemPaths.isEmpty()) {
 			// No item constraints. Applicable for all items.
 			LOGGER.trace("  items empty");
 			return true;
 		}
-		for (ItemPathType itemPathType: itemPaths) {
-			ItemPath itemPath = itemPathType.getItemPath();
+		for (ItemPath itemPath: itemPaths) {
 			if (delta == null) {
 				if (object != null) {
 					if (object.containsItem(itemPath, false)) {
@@ -835,6 +839,25 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		return (MidPointPrincipal)principal;
 	}
 
+	/**
+	 * Authorizations of the principal compiled for fast evaluation. They are compiled once per user
+	 * (and again if the user's authorizations change).
+	 */
+	private CompiledAuthorizations getCompiledAuthorizations(MidPointPrincipal principal) {
+		Collection<Authorization> authorities = getAuthorities(principal);
+		if (principal == null || principal.getOid() == null) {
+			// Anonymous access (authorizations are taken from the authentication) or a principal of a transient user:
+			// not worth caching.
+			return new CompiledAuthorizations(authorities);
+		}
+		CompiledAuthorizations compiledAuthorizations = compiledAuthorizationsMap.get(principal.getOid());
+		if (compiledAuthorizations == null || !compiledAuthorizations.isCompiledFrom(authorities)) {
+			compiledAuthorizations = new CompiledAuthorizations(authorities);
+			compiledAuthorizationsMap.put(principal.getOid(), compiledAuthorizations);
+		}
+		return compiledAuthorizations;
+	}
+
 	private Collection<Authorization> getAuthorities(MidPointPrincipal principal) {
 		if (principal == null) {
 			// Anonymous access, possibly with elevated privileges
@@ -861,7 +884,8 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		}
 		LOGGER.trace("AUTZ: evaluating security constraints principal={}, object={}", principal, object);
 		ObjectSecurityConstraintsImpl objectSecurityConstraints = new ObjectSecurityConstraintsImpl();
-		Collection<Authorization> authorities = getAuthorities(principal);
+		CompiledAuthorizations compiledAuthorizations = getCompiledAuthorizations(principal);
+		Collection<Authorization> authorities = compiledAuthorizations.getAuthorizations();
 		if (authorities != null) {
 			for (Authorization autz: authorities) {
 				String autzHumanReadableDesc = autz.getHumanReadableDesc();
@@ -884,7 +908,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 				AuthorizationPhaseType phase = autz.getPhase();
 				AuthorizationDecisionType decision = autz.getDecision();
 				if (decision == null || decision == AuthorizationDecisionType.ALLOW) {
-					Collection<ItemPath> items = getItems(autz);
+					Collection<ItemPath> items = compiledAuthorizations.getItems(autz);
 					if (items == null || items.isEmpty()) {
 						applyDecision(objectSecurityConstraints.getActionDecisionMap(), actions, phase, AuthorizationDecisionType.ALLOW);
 					} else {
@@ -893,7 +917,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 						}
 					}
 				} else {
-					Collection<ItemPath> items = getItems(autz);
+					Collection<ItemPath> items = compiledAuthorizations.getItems(autz);
 					if (items == null || items.isEmpty()) {
 						applyDecision(objectSecurityConstraints.getActionDecisionMap(), actions, phase, AuthorizationDecisionType.DENY);
 					} else {
@@ -1027,7 +1051,8 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 			AuthorizationPhaseType phase, boolean includeNullPhase,
 			Class<T> objectType, PrismObject<O> object, boolean includeSpecial, ObjectFilter origFilter, String limitAuthorizationAction, String desc, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
 
-		Collection<Authorization> authorities = getAuthorities(principal);
+		// Only authorizations applicable for this operation are returned here
+		Collection<Authorization> authorities = getCompiledAuthorizations(principal).getAuthorizations(operationUrl, null);
 
 		ObjectFilter securityFilterAllow = null;
 		ObjectFilter securityFilterDeny = null;
@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.security.enforcer.impl;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.path.IdItemPathSegment;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.path.NameItemPathSegment;
+import com.evolveum.midpoint.prism.path.ObjectReferencePathSegment;
+import com.evolveum.midpoint.prism.path.ParentPathSegment;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.AuthorizationConstants;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AuthorizationDecisionType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AuthorizationPhaseType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AuthorizationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
+
+/**
+ * Checks that CompiledAuthorizations and ItemPathTrie give the same answers as the straightforward evaluation
+ * (linear scan over all authorizations and all item paths) that SecurityEnforcerImpl used before.
+ *
+ * @author agent
+ */
+public class TestCompiledAuthorizations {
+
+	private static final String ACTION_READ = "http://example.com/authorization#read";
+	private static final String ACTION_MODIFY = "http://example.com/authorization#modify";
+	private static final String ACTION_DELETE = "http://example.com/authorization#delete";
+	private static final String ACTION_UNKNOWN = "http://example.com/authorization#unknown";
+
+	private static final List<String> ACTIONS = Arrays.asList(ACTION_READ, ACTION_MODIFY, ACTION_DELETE, ACTION_UNKNOWN,
+			AuthorizationConstants.AUTZ_ALL_URL, null);
+	private static final List<AuthorizationPhaseType> PHASES = Arrays.asList(null, AuthorizationPhaseType.REQUEST,
+			AuthorizationPhaseType.EXECUTION);
+
+	@BeforeSuite
+	public void setup() throws Exception {
+		PrettyPrinter.setDefaultNamespacePrefix(MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX);
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@Test
+	public void test100TrieEdgeCases() throws Exception {
+		List<ItemPath> paths = createEdgeCasePaths();
+		List<ItemPath> lookups = new ArrayList<>(paths);
+		lookups.addAll(createLookupOnlyPaths());
+
+		// each path alone, all paths together and all paths without the unkeyed ones
+		List<List<ItemPath>> pathSets = new ArrayList<>();
+		for (ItemPath path : paths) {
+			pathSets.add(Collections.singletonList(path));
+		}
+		pathSets.add(paths);
+		pathSets.add(paths.subList(0, 10));
+		pathSets.add(Collections.emptyList());
+
+		for (List<ItemPath> pathSet : pathSets) {
+			ItemPathTrie trie = new ItemPathTrie(pathSet);
+			assertEquals("Wrong isEmpty for " + pathSet, pathSet.isEmpty(), trie.isEmpty());
+			for (ItemPath lookup : lookups) {
+				assertEquals("Trie differs from linear scan for " + lookup + " in " + pathSet,
+						isInList(lookup, pathSet), trie.containsSubPathOrEquivalentOf(lookup));
+			}
+		}
+	}
+
+	@Test
+	public void test110TrieBasics() throws Exception {
+		ItemPathTrie trie = new ItemPathTrie(Arrays.asList(
+				new ItemPath(UserType.F_NAME),
+				new ItemPath(UserType.F_ASSIGNMENT, AssignmentType.F_DESCRIPTION)));
+
+		assertTrue(trie.containsSubPathOrEquivalentOf(new ItemPath(UserType.F_NAME)));
+		assertTrue(trie.containsSubPathOrEquivalentOf(new ItemPath(new QName("name"))));
+		// IDs are not part of the trie key, but they are still compared (no ID is not equivalent to an ID)
+		assertFalse(trie.containsSubPathOrEquivalentOf(new ItemPath(UserType.F_ASSIGNMENT, 1L, AssignmentType.F_DESCRIPTION)));
+		assertTrue(trie.containsSubPathOrEquivalentOf(new ItemPath(UserType.F_ASSIGNMENT, AssignmentType.F_DESCRIPTION, new QName("x"))));
+		assertFalse(trie.containsSubPathOrEquivalentOf(new ItemPath(UserType.F_ASSIGNMENT)));
+		assertFalse(trie.containsSubPathOrEquivalentOf(new ItemPath(UserType.F_ASSIGNMENT, 1L)));
+		assertFalse(trie.containsSubPathOrEquivalentOf(new ItemPath(UserType.F_FULL_NAME)));
+		assertFalse(trie.containsSubPathOrEquivalentOf(ItemPath.EMPTY_PATH));
+	}
+
+	@Test
+	public void test120ExecutionItemsAllowedByDefault() throws Exception {
+		Collection<ItemPath> defaults = AuthorizationConstants.EXECUTION_ITEMS_ALLOWED_BY_DEFAULT;
+		ItemPathTrie trie = new ItemPathTrie(defaults);
+		List<ItemPath> lookups = new ArrayList<>(defaults);
+		lookups.addAll(createEdgeCasePaths());
+		lookups.addAll(createLookupOnlyPaths());
+		lookups.add(new ItemPath(FocusType.F_ACTIVATION));
+		lookups.add(new ItemPath(FocusType.F_ACTIVATION, ActivationType.F_ADMINISTRATIVE_STATUS));
+		lookups.add(new ItemPath(ObjectType.F_METADATA, new QName("createTimestamp")));
+		lookups.add(new ItemPath(ObjectType.F_TRIGGER, 5L, new QName("timestamp")));
+		for (ItemPath lookup : lookups) {
+			assertEquals("Trie differs from linear scan for " + lookup,
+					isInList(lookup, defaults), trie.containsSubPathOrEquivalentOf(lookup));
+		}
+	}
+
+	@Test
+	public void test200SelectionByActionAndPhase() throws Exception {
+		List<Authorization> authorizations = createAuthorizations();
+		CompiledAuthorizations compiled = new CompiledAuthorizations(authorizations);
+		for (String action : ACTIONS) {
+			for (AuthorizationPhaseType phase : PHASES) {
+				assertEquals("Wrong authorizations for " + action + ", " + phase,
+						selectOld(authorizations, action, phase), compiled.getAuthorizations(action, phase));
+			}
+		}
+	}
+
+	@Test
+	public void test210AllowDenyDecisions() throws Exception {
+		List<Authorization> authorizations = createAuthorizations();
+		CompiledAuthorizations compiled = new CompiledAuthorizations(authorizations);
+		List<List<ItemPath>> touchedItemSets = Arrays.asList(
+				Collections.emptyList(),
+				Collections.singletonList(new ItemPath(UserType.F_NAME)),
+				Collections.singletonList(new ItemPath(UserType.F_FULL_NAME)),
+				Collections.singletonList(new ItemPath(UserType.F_ASSIGNMENT, 1L, AssignmentType.F_DESCRIPTION)),
+				Arrays.asList(new ItemPath(UserType.F_GIVEN_NAME), new ItemPath(UserType.F_EMPLOYEE_NUMBER)));
+		for (String action : ACTIONS) {
+			for (AuthorizationPhaseType phase : Arrays.asList(AuthorizationPhaseType.REQUEST, AuthorizationPhaseType.EXECUTION)) {
+				for (List<ItemPath> touchedItems : touchedItemSets) {
+					Decision expected = decide(selectOld(authorizations, action, phase), touchedItems, null);
+					Decision actual = decide(compiled.getAuthorizations(action, phase), touchedItems, compiled);
+					String context = action + ", " + phase + ", " + touchedItems;
+					assertEquals("Wrong decision for " + context, expected.allow, actual.allow);
+					assertEquals("Wrong allowed items for " + context, expected.allowedItems, actual.allowedItems);
+					assertEquals("Wrong applicable authorizations for " + context, expected.applicable, actual.applicable);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void test220DenyBreaksEvaluation() throws Exception {
+		Authorization allowAll = allow(ACTION_MODIFY, null);
+		Authorization denyName = deny(ACTION_MODIFY, null, new ItemPath(UserType.F_NAME));
+		Authorization allowLater = allow(AuthorizationConstants.AUTZ_ALL_URL, null, new ItemPath(UserType.F_FULL_NAME));
+		CompiledAuthorizations compiled = new CompiledAuthorizations(Arrays.asList(allowAll, denyName, allowLater));
+
+		Decision nameModified = decide(compiled.getAuthorizations(ACTION_MODIFY, AuthorizationPhaseType.REQUEST),
+				Collections.singletonList(new ItemPath(UserType.F_NAME)), compiled);
+		assertFalse("Modification of name should be denied", nameModified.allow);
+		assertEquals(Arrays.asList(allowAll, denyName), nameModified.applicable);
+
+		Decision fullNameModified = decide(compiled.getAuthorizations(ACTION_MODIFY, AuthorizationPhaseType.REQUEST),
+				Collections.singletonList(new ItemPath(UserType.F_FULL_NAME)), compiled);
+		assertTrue("Modification of fullName should be allowed", fullNameModified.allow);
+		assertEquals(Arrays.asList(allowAll, denyName, allowLater), fullNameModified.applicable);
+		// MID-2018: allow for the whole object wins over allow for some items
+		assertEquals(Collections.emptyList(), fullNameModified.allowedItems);
+	}
+
+	@Test
+	public void test300ItemsAndCompiledFrom() throws Exception {
+		List<Authorization> authorizations = createAuthorizations();
+		CompiledAuthorizations compiled = new CompiledAuthorizations(authorizations);
+		assertEquals(authorizations, compiled.getAuthorizations());
+		for (Authorization autz : authorizations) {
+			assertEquals("Wrong items for " + autz, parseItemsOld(autz), compiled.getItems(autz));
+		}
+		Authorization other = allow(ACTION_READ, null, new ItemPath(UserType.F_NAME));
+		assertEquals(parseItemsOld(other), compiled.getItems(other));
+
+		assertTrue(compiled.isCompiledFrom(authorizations));
+		assertTrue(compiled.isCompiledFrom(new ArrayList<>(authorizations)));
+		assertFalse(compiled.isCompiledFrom(authorizations.subList(1, authorizations.size())));
+		List<Authorization> reordered = new ArrayList<>(authorizations);
+		Collections.swap(reordered, 0, 1);
+		assertFalse(compiled.isCompiledFrom(reordered));
+		List<Authorization> replaced = new ArrayList<>(authorizations);
+		replaced.set(0, authorizations.get(0).clone());		// equal but not the same
+		assertFalse(compiled.isCompiledFrom(replaced));
+		assertSame(authorizations.get(2), compiled.getAuthorizations(ACTION_MODIFY, null).get(0));
+	}
+
+	// The evaluation as it was done before compilation, copied from the former SecurityEnforcerImpl.
+
+	private static boolean isInList(ItemPath itemPath, Collection<ItemPath> allowedItems) {
+		for (ItemPath allowedPath : allowedItems) {
+			if (allowedPath.isSubPathOrEquivalent(itemPath)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static List<Authorization> selectOld(List<Authorization> authorizations, String operationUrl, AuthorizationPhaseType phase) {
+		List<Authorization> rv = new ArrayList<>();
+		for (Authorization autz : authorizations) {
+			if (!autz.getAction().contains(operationUrl) && !autz.getAction().contains(AuthorizationConstants.AUTZ_ALL_URL)) {
+				continue;
+			}
+			if (phase != null && autz.getPhase() != null && autz.getPhase() != phase) {
+				continue;
+			}
+			rv.add(autz);
+		}
+		return rv;
+	}
+
+	private static List<ItemPath> parseItemsOld(Authorization autz) {
+		List<ItemPath> rv = new ArrayList<>();
+		for (ItemPathType itemPathType : autz.getItem()) {
+			rv.add(itemPathType.getItemPath());
+		}
+		return rv;
+	}
+
+	private static class Decision {
+		private boolean allow;
+		private final List<ItemPath> allowedItems = new ArrayList<>();
+		private final List<Authorization> applicable = new ArrayList<>();
+	}
+
+	/**
+	 * Allow/deny part of isAuthorizedPhase. All candidates are considered applicable for the object and target;
+	 * a deny is applicable if it has no items or if any of the touched items is covered by its items.
+	 */
+	private static Decision decide(List<Authorization> candidates, List<ItemPath> touchedItems, CompiledAuthorizations compiled) {
+		Decision decision = new Decision();
+		for (Authorization autz : candidates) {
+			decision.applicable.add(autz);
+			List<ItemPath> items = compiled != null ? compiled.getItems(autz) : parseItemsOld(autz);
+			if (autz.getDecision() == null || autz.getDecision() == AuthorizationDecisionType.ALLOW) {
+				if (decision.allow && decision.allowedItems.isEmpty()) {
+					// allowed for all items already
+				} else if (decision.allow && items.isEmpty()) {
+					decision.allowedItems.clear();
+				} else {
+					decision.allowedItems.addAll(items);
+				}
+				decision.allow = true;
+			} else {
+				if (!items.isEmpty() && !touchesAny(touchedItems, items, compiled != null)) {
+					continue;
+				}
+				decision.allow = false;
+				break;
+			}
+		}
+		if (decision.allow && !decision.allowedItems.isEmpty()) {
+			for (ItemPath touched : touchedItems) {
+				boolean allowed = compiled != null
+						? new ItemPathTrie(decision.allowedItems).containsSubPathOrEquivalentOf(touched)
+						: isInList(touched, decision.allowedItems);
+				if (!allowed) {
+					decision.allow = false;
+				}
+			}
+		}
+		return decision;
+	}
+
+	private static boolean touchesAny(List<ItemPath> touchedItems, List<ItemPath> items, boolean useTrie) {
+		ItemPathTrie trie = useTrie ? new ItemPathTrie(items) : null;
+		for (ItemPath touched : touchedItems) {
+			if (useTrie ? trie.containsSubPathOrEquivalentOf(touched) : isInList(touched, items)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Test data
+
+	private static List<ItemPath> createEdgeCasePaths() {
+		QName unqualifiedName = new QName("name");
+		QName otherNamespaceName = new QName("http://example.com/other", "name");
+		return new ArrayList<>(Arrays.asList(
+				// keyed paths (the first 10)
+				new ItemPath(UserType.F_NAME),
+				new ItemPath(unqualifiedName),
+				new ItemPath(otherNamespaceName),
+				new ItemPath(UserType.F_ASSIGNMENT),
+				new ItemPath(UserType.F_ASSIGNMENT, AssignmentType.F_ACTIVATION),
+				new ItemPath(UserType.F_ASSIGNMENT, 1L, AssignmentType.F_ACTIVATION),
+				new ItemPath(UserType.F_ASSIGNMENT, 2L, AssignmentType.F_ACTIVATION, ActivationType.F_ADMINISTRATIVE_STATUS),
+				new ItemPath(UserType.F_ASSIGNMENT, 1L),
+				new ItemPath(FocusType.F_ACTIVATION, ActivationType.F_EFFECTIVE_STATUS),
+				new ItemPath(new QName("extension"), new QName("http://example.com/ext", "ship")),
+				// unkeyed paths
+				new ItemPath(new IdItemPathSegment(1L), new NameItemPathSegment(UserType.F_NAME)),
+				new ItemPath(new NameItemPathSegment(UserType.F_ASSIGNMENT), new IdItemPathSegment(1L), new IdItemPathSegment(2L)),
+				new ItemPath(new NameItemPathSegment(new QName("var"), true)),
+				new ItemPath(new NameItemPathSegment(new QName("var"), true), new NameItemPathSegment(UserType.F_NAME)),
+				new ItemPath(new NameItemPathSegment(UserType.F_ASSIGNMENT), new ParentPathSegment()),
+				new ItemPath(new NameItemPathSegment(UserType.F_ASSIGNMENT), new ParentPathSegment(),
+						new NameItemPathSegment(UserType.F_NAME)),
+				new ItemPath(new NameItemPathSegment(UserType.F_LINK_REF), new ObjectReferencePathSegment()),
+				new ItemPath(new NameItemPathSegment(UserType.F_LINK_REF), new ObjectReferencePathSegment(),
+						new NameItemPathSegment(UserType.F_NAME)),
+				ItemPath.EMPTY_PATH));
+	}
+
+	private static List<ItemPath> createLookupOnlyPaths() {
+		return Arrays.asList(
+				new ItemPath(UserType.F_NAME, new QName("orig")),
+				new ItemPath(UserType.F_FULL_NAME),
+				new ItemPath(UserType.F_ASSIGNMENT, 3L),
+				new ItemPath(UserType.F_ASSIGNMENT, 3L, AssignmentType.F_ACTIVATION),
+				new ItemPath(UserType.F_ASSIGNMENT, 1L, AssignmentType.F_ACTIVATION, ActivationType.F_ADMINISTRATIVE_STATUS),
+				new ItemPath(UserType.F_ASSIGNMENT, AssignmentType.F_ACTIVATION, ActivationType.F_ADMINISTRATIVE_STATUS),
+				new ItemPath(UserType.F_ASSIGNMENT, AssignmentType.F_DESCRIPTION),
+				new ItemPath(new QName("assignment"), 1L, new QName("activation")),
+				new ItemPath(new QName("extension"), new QName("ship")),
+				new ItemPath(new QName("extension"), new QName("http://example.com/ext2", "ship")),
+				new ItemPath(FocusType.F_ACTIVATION),
+				new ItemPath(new IdItemPathSegment(1L)),
+				new ItemPath(new NameItemPathSegment(new QName("var"), true), new NameItemPathSegment(UserType.F_FULL_NAME)));
+	}
+
+	private static List<Authorization> createAuthorizations() {
+		return Arrays.asList(
+				allow(ACTION_READ, null),
+				allow(ACTION_READ, AuthorizationPhaseType.REQUEST, new ItemPath(UserType.F_NAME)),
+				allow(ACTION_MODIFY, null, new ItemPath(UserType.F_FULL_NAME), new ItemPath(UserType.F_ASSIGNMENT)),
+				deny(ACTION_MODIFY, AuthorizationPhaseType.EXECUTION, new ItemPath(UserType.F_NAME)),
+				allow(AuthorizationConstants.AUTZ_ALL_URL, AuthorizationPhaseType.EXECUTION, new ItemPath(UserType.F_GIVEN_NAME)),
+				allow(ACTION_MODIFY, AuthorizationPhaseType.REQUEST),
+				deny(ACTION_DELETE, null),
+				create(AuthorizationDecisionType.ALLOW, null, new String[] { ACTION_READ, ACTION_DELETE },
+						new ItemPath(UserType.F_EMPLOYEE_NUMBER)),
+				deny(AuthorizationConstants.AUTZ_ALL_URL, AuthorizationPhaseType.REQUEST,
+						new ItemPath(UserType.F_ASSIGNMENT, AssignmentType.F_DESCRIPTION)),
+				allow(ACTION_MODIFY, AuthorizationPhaseType.EXECUTION));
+	}
+
+	private static Authorization allow(String action, AuthorizationPhaseType phase, ItemPath... items) {
+		return create(null, phase, new String[] { action }, items);
+	}
+
+	private static Authorization deny(String action, AuthorizationPhaseType phase, ItemPath... items) {
+		return create(AuthorizationDecisionType.DENY, phase, new String[] { action }, items);
+	}
+
+	private static Authorization create(AuthorizationDecisionType decision, AuthorizationPhaseType phase, String[] actions, ItemPath... items) {
+		AuthorizationType autz = new AuthorizationType()
+				.decision(decision)
+				.phase(phase);
+		for (String action : actions) {
+			autz.action(action);
+		}
+		for (ItemPath item : items) {
+			autz.item(new ItemPathType(item));
+		}
+		return new Authorization(autz);
+	}
+}
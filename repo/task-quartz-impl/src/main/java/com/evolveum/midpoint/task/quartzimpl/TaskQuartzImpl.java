@@ -2886,6 +2886,11 @@ public class TaskQuartzImpl implements Task {
 		environmentalPerformanceInformation.recordMappingOperation(objectOid, objectName, objectTypeName, mappingName, duration);
 	}
 
+	@Override
+	public void recordScriptOperation(String contextDescription, String objectName, long duration) {
+		environmentalPerformanceInformation.recordScriptOperation(contextDescription, objectName, duration);
+	}
+
 	@Override
 	public synchronized void recordSynchronizationOperationEnd(String objectName, String objectDisplayName, QName objectType, String objectOid,
 			long started, Throwable exception, SynchronizationInformation.Record originalStateIncrement, SynchronizationInformation.Record newStateIncrement) {